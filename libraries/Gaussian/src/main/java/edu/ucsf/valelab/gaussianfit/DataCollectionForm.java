@@ -43,6 +43,7 @@ import com.google.common.eventbus.Subscribe;
 import edu.ucsf.valelab.gaussianfit.data.LoadAndSave;
 import edu.ucsf.valelab.gaussianfit.data.RowData;
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTableFile;
 import edu.ucsf.valelab.gaussianfit.datasetdisplay.ImageRenderer;
 import edu.ucsf.valelab.gaussianfit.datasetdisplay.ParticlePairLister;
 import edu.ucsf.valelab.gaussianfit.datasetdisplay.TrackPlotter;
@@ -150,7 +151,7 @@ public class DataCollectionForm extends JFrame {
             {"1x", "2x", "4x", "8x", "16x", "32x", "64x", "128x"};
    private final String[] c2CorrectAlgorithms_ =
             {"NR-Similarity", "Affine", "Piecewise-Affine", "LWM"};
-   private final String[] fileFormats_ = {"Binary", "Text"};
+   private final String[] fileFormats_ = {"Binary", "Text", "Spot table"};
 
    public static final String EXTENSION = ".tsf";
 
@@ -189,7 +190,7 @@ public class DataCollectionForm extends JFrame {
    private static final FileType TSF_FILE = new FileType("TSF File",
          "Tagged Spot Format file",
          "./data.tsf",
-         false, new String[]{"txt", "tsf"});
+         false, new String[]{"txt", "tsf", "stf"});
 
    private static CoordinateMapper c2t_;
    private static String loadTSFDir_ = "";
@@ -1115,7 +1116,7 @@ public class DataCollectionForm extends JFrame {
 
    /**
     * Given an array of files, tries to import them all Uses .txt import for text files, and tsf
-    * importer for .tsf files.
+    * importer for .tsf files. Spot table (.stf) files are opened without reading all spots.
     *
     * @param selectedFiles - Array of files to be imported
     */
@@ -1128,6 +1129,8 @@ public class DataCollectionForm extends JFrame {
             LoadAndSave.loadTSF(selectedFile, this);
          } else if (selectedFile.getName().endsWith(".bin")) {
             LoadAndSave.loadBin(selectedFile, this);
+         } else if (selectedFile.getName().endsWith(SpotTableFile.EXTENSION)) {
+            LoadAndSave.loadSpotTableFile(selectedFile, this);
          } else {
             JOptionPane.showMessageDialog(this, "Unrecognized file extension");
          }
@@ -1144,8 +1147,10 @@ public class DataCollectionForm extends JFrame {
          }
          if (saveFormatBox_.getSelectedIndex() == 0) {
             dir_ = LoadAndSave.saveData(rowData, false, dir_, this);
-         } else {
+         } else if (saveFormatBox_.getSelectedIndex() == 1) {
             dir_ = LoadAndSave.saveDataAsText(rowData, dir_, this);
+         } else {
+            dir_ = LoadAndSave.saveDataAsSpotTable(rowData, dir_, this);
          }
 
       } else {
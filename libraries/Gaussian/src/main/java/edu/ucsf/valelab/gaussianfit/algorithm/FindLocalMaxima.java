@@ -35,8 +35,8 @@ package edu.ucsf.valelab.gaussianfit.algorithm;
 import static edu.ucsf.valelab.gaussianfit.algorithm.FindLocalMaxima.FilterType.GAUSSIAN1_5;
 
 import ij.ImagePlus;
-import ij.plugin.ImageCalculator;
 import ij.plugin.filter.GaussianBlur;
+import ij.process.Blitter;
 import ij.process.ImageProcessor;
 import java.awt.Polygon;
 import java.awt.Rectangle;
@@ -48,14 +48,36 @@ import java.awt.Rectangle;
  */
 public class FindLocalMaxima {
 
-   private static final GaussianBlur FILTER = new GaussianBlur();
-   private static final ImageCalculator IMAGECALCULATOR = new ImageCalculator();
+   // Buffers of each thread, reused for every image
+   private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
 
    public enum FilterType {
       NONE,
       GAUSSIAN1_5
    }
 
+   private static final class Buffers {
+      // GaussianBlur keeps state while filtering, so each thread needs its own
+      private final GaussianBlur filter_ = new GaussianBlur();
+      private int[] values_ = new int[0];
+      private int[] rowMax_ = new int[0];
+      private int[] max_ = new int[0];
+      private int[] prefix_ = new int[0];
+      private int[] suffix_ = new int[0];
+
+      private void ensureSize(int nrPixels, int length) {
+         if (values_.length < nrPixels) {
+            values_ = new int[nrPixels];
+            rowMax_ = new int[nrPixels];
+            max_ = new int[nrPixels];
+         }
+         if (prefix_.length < length) {
+            prefix_ = new int[length];
+            suffix_ = new int[length];
+         }
+      }
+   }
+
    /**
     * Static utility function to find local maxima in an Image
     *
@@ -66,9 +88,36 @@ public class FindLocalMaxima {
     * @return Polygon with maxima
     */
    public static Polygon findMax(ImagePlus iPlus, int n, int threshold, FilterType filterType) {
+      return findMax(iPlus.getProcessor(), n, threshold, filterType);
+   }
+
+   /**
+    * Finds local maxima within the ROI of an ImageProcessor.
+    *
+    * <p>A pixel is a maximum when no pixel in the 2n x 2n box from x - n, y - n
+    * is brighter, nor as bright and to its right or below it, and when it is
+    * more than threshold above the average of the corners of the box. (Of
+    * two equal pixels in the same row, the right one wins; when one is left
+    * of and below the other, neither does.) The box maximum of every pixel is computed with
+    * running maxima along rows and columns (van Herk / Gil-Werman), which take
+    * a fixed number of comparisons per pixel whatever the size of the box;
+    * only pixels that equal their box maximum are looked at more closely.
+    *
+    * <p>The processor is not changed. Buffers are kept per thread, so
+    * different threads can look for maxima in different images at the same
+    * time.
+    *
+    * @param iProc      - ImageProcessor in which to look for local maxima
+    * @param n          - minimum distance to other local maximum
+    * @param threshold  - value below which a maximum will be rejected
+    * @param filterType - Prefilter the image.  Either none or Gaussian1_5
+    * @return Polygon with maxima, ordered by x, then y
+    */
+   public static Polygon findMax(ImageProcessor iProc, int n, int threshold,
+                                 FilterType filterType) {
       Polygon maxima = new Polygon();
+      Buffers buffers = BUFFERS.get();
 
-      ImageProcessor iProc = iPlus.getProcessor();
       Rectangle roi = iProc.getRoi();
       // HACK: need to figure out the underlying cause, but make it workable for now
       if (roi.height == 0 && roi.width == 0) {
@@ -83,14 +132,133 @@ public class FindLocalMaxima {
          // TODO: if there is an ROI, we only need to filter_ in the ROI
          ImageProcessor iProcG1 = iProc.duplicate();
          ImageProcessor iProcG5 = iProc.duplicate();
-         FILTER.blurGaussian(iProcG1, 0.4, 0.4, 0.01);
-         FILTER.blurGaussian(iProcG5, 2.0, 2.0, 0.01);
-         ImagePlus p1 = new ImagePlus("G1", iProcG1);
-         ImagePlus p5 = new ImagePlus("G5", iProcG5);
-         IMAGECALCULATOR.run("subtract", p1, p5);
-         iProc = p1.getProcessor();
+         buffers.filter_.blurGaussian(iProcG1, 0.4, 0.4, 0.01);
+         buffers.filter_.blurGaussian(iProcG5, 2.0, 2.0, 0.01);
+         // Difference of Gaussians, as ImageJ's "subtract" does it
+         iProcG1.copyBits(iProcG5, 0, 0, Blitter.SUBTRACT);
+         iProc = iProcG1;
+      }
+
+      final int width = roi.width;
+      final int height = roi.height;
+      final int size = 2 * n;
+      if (n < 1 || width < 2 * n + 2 || height < 2 * n + 2) {
+         return findMaxInBox(iProc, roi, n, threshold, maxima);
+      }
+      buffers.ensureSize(width * height, Math.max(width, height));
+      final int[] values = buffers.values_;
+      copyValues(iProc, roi, values);
+
+      // Maximum of the box starting at every pixel: first along rows, then
+      // along the columns of the result
+      final int[] rowMax = buffers.rowMax_;
+      final int[] max = buffers.max_;
+      for (int y = 0; y < height; y++) {
+         runningMax(values, y * width, 1, width, size, rowMax, y * width, 1, buffers);
+      }
+      for (int x = 0; x <= width - size; x++) {
+         runningMax(rowMax, x, width, height, size, max, x, width, buffers);
+      }
+
+      for (int x = n; x < width - n - 1; x++) {
+         for (int y = n; y < height - n - 1; y++) {
+            int i = y * width + x;
+            int value = values[i];
+            // Is this a local maximum?
+            if (value < max[(y - n) * width + x - n] || hasEqualAfter(values, width, x, y, n)) {
+               continue;
+            }
+            int cornerAverage = (values[i - n * width - n] + values[i + n * width - n]
+                    + values[i - n * width + n] + values[i + n * width + n]) / 4;
+            if (value - threshold > cornerAverage) {
+               maxima.addPoint(x + roi.x, y + roi.y);
+            }
+         }
+      }
+
+      return maxima;
+   }
+
+   /**
+    * Copies the pixels of the ROI into an array, with the values returned by
+    * ImageProcessor.get().
+    */
+   private static void copyValues(ImageProcessor iProc, Rectangle roi, int[] values) {
+      Object pixels = iProc.getPixels();
+      int imageWidth = iProc.getWidth();
+      int i = 0;
+      for (int y = roi.y; y < roi.y + roi.height; y++) {
+         int offset = y * imageWidth;
+         if (pixels instanceof short[]) {
+            short[] p = (short[]) pixels;
+            for (int x = roi.x; x < roi.x + roi.width; x++) {
+               values[i++] = p[offset + x] & 0xffff;
+            }
+         } else if (pixels instanceof byte[]) {
+            byte[] p = (byte[]) pixels;
+            for (int x = roi.x; x < roi.x + roi.width; x++) {
+               values[i++] = p[offset + x] & 0xff;
+            }
+         } else {
+            for (int x = roi.x; x < roi.x + roi.width; x++) {
+               values[i++] = iProc.get(offset + x);
+            }
+         }
       }
+   }
 
+   /**
+    * For j = 0 .. length - size, writes the maximum of the size input values
+    * starting at j to out. Takes three comparisons per value: the maxima from
+    * the start of every block of size values, and to the end of it, are
+    * computed first, and every window spans at most two blocks.
+    */
+   private static void runningMax(int[] in, int inOffset, int inStride, int length, int size,
+                                  int[] out, int outOffset, int outStride, Buffers buffers) {
+      final int[] prefix = buffers.prefix_;
+      final int[] suffix = buffers.suffix_;
+      for (int start = 0; start < length; start += size) {
+         int end = Math.min(length, start + size);
+         int max = Integer.MIN_VALUE;
+         for (int j = start; j < end; j++) {
+            max = Math.max(max, in[inOffset + j * inStride]);
+            prefix[j] = max;
+         }
+         max = Integer.MIN_VALUE;
+         for (int j = end - 1; j >= start; j--) {
+            max = Math.max(max, in[inOffset + j * inStride]);
+            suffix[j] = max;
+         }
+      }
+      for (int j = 0; j + size <= length; j++) {
+         out[outOffset + j * outStride] = Math.max(suffix[j], prefix[j + size - 1]);
+      }
+   }
+
+   /**
+    * @return true if the box of x, y has a pixel of the same intensity to the
+    *         right of or below x, y, which, as in findMaxInBox, means that x, y
+    *         is not a maximum
+    */
+   private static boolean hasEqualAfter(int[] values, int width, int x, int y, int n) {
+      int value = values[y * width + x];
+      for (int my = y - n; my < y + n; my++) {
+         for (int mx = my > y ? x - n : x + 1; mx < x + n; mx++) {
+            if (values[my * width + mx] == value) {
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Looks at the full box of every pixel; used for boxes that are empty or
+    * do not fit in the ROI. Package-private, so that tests can compare
+    * findMax with it.
+    */
+   static Polygon findMaxInBox(ImageProcessor iProc, Rectangle roi, int n,
+                                       int threshold, Polygon maxima) {
       for (int x = roi.x + n; x < roi.width + roi.x - n - 1; x++) {
          for (int y = roi.y + n; y < roi.height + roi.y - n - 1; y++) {
             // Is this a local maximum?
@@ -118,9 +286,6 @@ public class FindLocalMaxima {
             }
          }
       }
-
-      // note, there is code to divide in blocks in the git repository
-
       return maxima;
    }
 
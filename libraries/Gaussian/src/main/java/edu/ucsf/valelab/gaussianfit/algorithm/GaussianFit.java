@@ -27,9 +27,9 @@
 
 package edu.ucsf.valelab.gaussianfit.algorithm;
 
+import edu.ucsf.valelab.gaussianfit.fitting.GaussianLeastSquaresFunction;
 import edu.ucsf.valelab.gaussianfit.fitting.MultiVariateGaussianFunction;
 import edu.ucsf.valelab.gaussianfit.fitting.MultiVariateGaussianMLE;
-import edu.ucsf.valelab.gaussianfit.fitting.ParametricGaussianFunction;
 import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
 import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
 import ij.process.ImageProcessor;
@@ -41,7 +41,6 @@ import org.apache.commons.math.optimization.SimpleScalarValueChecker;
 import org.apache.commons.math.optimization.VectorialConvergenceChecker;
 import org.apache.commons.math.optimization.VectorialPointValuePair;
 import org.apache.commons.math.optimization.direct.NelderMead;
-import org.apache.commons.math.optimization.fitting.CurveFitter;
 import org.apache.commons.math.optimization.general.LevenbergMarquardtOptimizer;
 import org.apache.commons.math.optimization.general.NonLinearConjugateGradientOptimizer;
 
@@ -112,6 +111,10 @@ public class GaussianFit {
    MultiVariateGaussianMLE mGFMLE_;
    NonLinearConjugateGradientOptimizer nlcgo_;
    LevenbergMarquardtOptimizer lMO_;
+   GaussianLeastSquaresFunction lsqF_;
+   // pixel values and weights for Levenberg-Marquardt, reused between spots
+   double[] target_ = new double[0];
+   double[] weights_ = new double[0];
 
 
    /**
@@ -166,6 +169,7 @@ public class GaussianFit {
          lMO_ = new LevenbergMarquardtOptimizer();
          LMChecker lmChecker = new LMChecker();
          lMO_.setConvergenceChecker(lmChecker);
+         lsqF_ = new GaussianLeastSquaresFunction(shape_, fixedWidth_);
       }
       if (fitMode_ == NELDERMEADMLE) {
          nm_ = new NelderMead();
@@ -204,7 +208,23 @@ public class GaussianFit {
     * @return
     */
    public Data dogaussianfit(ImageProcessor siProc, int maxIterations) {
-      Data estimate = estimateParameters(siProc);
+      return dogaussianfit((short[]) siProc.getPixels(), siProc.getWidth(), siProc.getHeight(),
+            maxIterations);
+   }
+
+   /**
+    * Performs Gaussian Fit on the pixels of a spot, as
+    * {@link #dogaussianfit(ImageProcessor, int)} does.
+    *
+    * @param pixels        - 16-bit pixels of the spot, row by row
+    * @param width         - width of the spot in pixels
+    * @param height        - height of the spot in pixels
+    * @param maxIterations - maximum number of iterations for the Nelder Mead optimization
+    *                      algorithm
+    * @return
+    */
+   public Data dogaussianfit(short[] pixels, int width, int height, int maxIterations) {
+      Data estimate = estimateParameters(pixels, width, height);
 
       double[] paramsOut = {0.0};
 
@@ -212,7 +232,7 @@ public class GaussianFit {
          nm_.setStartConfiguration(steps_);
          nm_.setConvergenceChecker(convergedChecker_);
          nm_.setMaxIterations(maxIterations);
-         mGF_.setImage((short[]) siProc.getPixels(), siProc.getWidth(), siProc.getHeight());
+         mGF_.setImage(pixels, width, height);
          try {
             RealPointValuePair result = nm_.optimize(mGF_, GoalType.MINIMIZE,
                   estimate.getParms());
@@ -231,23 +251,23 @@ public class GaussianFit {
       if (fitMode_ == LEVENBERGMARQUARD || fitMode_ == LEVENBERGMARQUARDMLE) {
 
          // lMO_.setMaxIterations(maxIterations);
-         CurveFitter cF = new CurveFitter(lMO_);
-         short[] pixels = (short[]) siProc.getPixels();
-         if (fitMode_ == LEVENBERGMARQUARD) {
-            for (int i = 0; i < pixels.length; i++) {
-               cF.addObservedPoint(i, (int) pixels[i] & 0xffff);
-            }
+         if (target_.length != pixels.length) {
+            target_ = new double[pixels.length];
+            weights_ = new double[pixels.length];
          }
-         if (fitMode_ == LEVENBERGMARQUARDMLE) {
-            for (int i = 0; i < pixels.length; i++) {
+         for (int i = 0; i < pixels.length; i++) {
+            target_[i] = (int) pixels[i] & 0xffff;
+            if (fitMode_ == LEVENBERGMARQUARDMLE) {
                double factor = ((int) pixels[i] & 0xffff);
-               cF.addObservedPoint(1 / factor, i, (int) pixels[i] & 0xffff);
+               weights_[i] = 1 / factor;
+            } else {
+               weights_[i] = 1.0;
             }
          }
+         lsqF_.setSize(width, height);
          try {
-            paramsOut = cF.fit(new ParametricGaussianFunction(
-                        shape_, siProc.getWidth(), fixedWidth_),
-                  estimate.getParms());
+            paramsOut = lMO_.optimize(lsqF_, target_, weights_, estimate.getParms())
+                  .getPointRef();
          } catch (FunctionEvaluationException ex) {
             ReportingUtils.logError(ex.getMessage());
          } catch (OptimizationException ex) {
@@ -264,7 +284,7 @@ public class GaussianFit {
          nm_.setStartConfiguration(steps_);
          nm_.setConvergenceChecker(convergedChecker_);
          nm_.setMaxIterations(maxIterations);
-         mGFMLE_.setImage((short[]) siProc.getPixels(), siProc.getWidth(), siProc.getHeight());
+         mGFMLE_.setImage(pixels, width, height);
          try {
             RealPointValuePair result = nm_.optimize(mGFMLE_, GoalType.MINIMIZE,
                   estimate.getParms());
@@ -312,9 +332,7 @@ public class GaussianFit {
    }
 
 
-   private Data estimateParameters(ImageProcessor siProc) {
-      short[] imagePixels = (short[]) siProc.getPixels();
-
+   Data estimateParameters(short[] imagePixels, int width, int height) {
       // Hard code estimate for sigma (expressed in pixels):
       double s = 0.9;
       if (!(fixWidth_ && fixedWidth_ > 0.0)) {
@@ -332,33 +350,33 @@ public class GaussianFit {
       }
       double bg = 0.0;
       int n = 0;
-      int lastRowOffset = (siProc.getHeight() - 1) * siProc.getWidth();
-      for (int i = 0; i < siProc.getWidth(); i++) {
+      int lastRowOffset = (height - 1) * width;
+      for (int i = 0; i < width; i++) {
          bg += (imagePixels[i] & 0xffff);
          bg += (imagePixels[i + lastRowOffset] & 0xffff);
          n += 2;
       }
-      for (int i = 1; i < siProc.getHeight() - 1; i++) {
-         bg += (imagePixels[i * siProc.getWidth()] & 0xffff);
-         bg += (imagePixels[(i + 1) * siProc.getWidth() - 1] & 0xffff);
+      for (int i = 1; i < height - 1; i++) {
+         bg += (imagePixels[i * width] & 0xffff);
+         bg += (imagePixels[(i + 1) * width - 1] & 0xffff);
          n += 2;
       }
       double background = bg / n;
       params0_[BGR] = background;
       // estimate signal by subtracting background from total intensity
       double totalIntensity = 0.0;
-      for (int i = 0; i < siProc.getHeight() * siProc.getWidth(); i++) {
+      for (int i = 0; i < height * width; i++) {
          totalIntensity += (imagePixels[i] & 0xffff);
       }
-      double signal = totalIntensity - (background * siProc.getHeight() * siProc.getWidth());
+      double signal = totalIntensity - (background * height * width);
       params0_[INT] = signal / (2 * Math.PI * s * s);
 
       // estimate center of mass
       double mx = 0.0;
       double my = 0.0;
-      for (int i = 0; i < siProc.getHeight() * siProc.getWidth(); i++) {
-         mx += ((imagePixels[i] & 0xffff)) * (i % siProc.getWidth());
-         my += ((imagePixels[i] & 0xffff)) * (Math.floor(i / siProc.getWidth()));
+      for (int i = 0; i < height * width; i++) {
+         mx += ((imagePixels[i] & 0xffff)) * (i % width);
+         my += ((imagePixels[i] & 0xffff)) * (Math.floor(i / width));
       }
       params0_[XC] = mx / totalIntensity;
       params0_[YC] = my / totalIntensity;
@@ -375,7 +393,7 @@ public class GaussianFit {
    }
 
 
-   private class LMChecker implements VectorialConvergenceChecker {
+   class LMChecker implements VectorialConvergenceChecker {
 
       int iteration_ = 0;
       boolean lastResult_ = false;
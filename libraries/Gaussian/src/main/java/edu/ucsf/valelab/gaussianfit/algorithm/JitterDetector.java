@@ -34,6 +34,7 @@ either expressed or implied, of the FreeBSD Project.
 package edu.ucsf.valelab.gaussianfit.algorithm;
 
 import ij.process.FHT;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import java.awt.Point;
 import java.awt.geom.Point2D;
@@ -61,6 +62,17 @@ public class JitterDetector {
       m.inverseTransform();
       m.swapQuadrants();
 
+      findPeak(m, com);
+   }
+
+   /**
+    * Finds the position of the peak of a cross-correlation near the center of the image, by fitting
+    * a Gaussian around the brightest pixel.
+    *
+    * @param m   cross-correlation, with the zero shift in the center
+    * @param com used to return the position of the peak
+    */
+   public static void findPeak(FloatProcessor m, Point2D.Double com) {
       // return the position of the brightest pixel
       Point brightPix = new Point(0, 0);
       brightestPixel(m, brightPix, 32);
@@ -70,9 +82,9 @@ public class JitterDetector {
          GaussianFit gs = new GaussianFit(3, 2);
          // halfsize of the square around brightest pixel used for Gaussian fit
          int hs = 5;
-         ImageProcessor ip = m.convertToShort(true);
-         ip.setRoi(brightPix.x - hs, brightPix.y - hs, 2 * hs, 2 * hs);
-         ImageProcessor ipc = ip.crop();
+         m.setRoi(brightPix.x - hs, brightPix.y - hs, 2 * hs, 2 * hs);
+         ImageProcessor ipc = m.crop().convertToShort(true);
+         m.resetRoi();
 
          GaussianFit.Data fitResult = gs.dogaussianfit(ipc, 100);
          com.x = fitResult.getParms()[GaussianFit.XC] - hs + brightPix.x;
@@ -94,7 +106,7 @@ public class JitterDetector {
     * @param brightPix  point use to return coordinates of pixel found
     * @param searchSize size of edge of center square in which to look for brightest pixel
     */
-   private void brightestPixel(FHT m, Point brightPix, int searchSize) {
+   private static void brightestPixel(FloatProcessor m, Point brightPix, int searchSize) {
       float[] pixels = (float[]) m.getPixels();
 
       int height = m.getHeight();
@@ -42,7 +42,6 @@ import java.util.concurrent.BlockingQueue;
  */
 public class GaussianInfo {
 
-   protected static final Object GFSLOCK = new Object();
    protected ImagePlus siPlus_;
    protected ImageProcessor siProc_;
    protected BlockingQueue<SpotData> sourceList_;
@@ -293,6 +292,18 @@ public class GaussianInfo {
       return widthNm_;
    }
 
+   /**
+    * @param spot fitted spot, in calibrated units
+    * @return true if the spot passes the width and number of photons filters
+    *         (those that are in use)
+    */
+   public boolean passesFilters(SpotData spot) {
+      return (!useWidthFilter_
+            || (spot.getWidth() > widthMin_ && spot.getWidth() < widthMax_))
+            && (!useNrPhotonsFilter_
+            || (spot.getIntensity() > nrPhotonsMin_ && spot.getIntensity() < nrPhotonsMax_));
+   }
+
    public void copy(GaussianInfo source) {
       setBaseLevel(source.getBaseLevel());
       setChannelsToSkip(source.getChannelsToSkip());
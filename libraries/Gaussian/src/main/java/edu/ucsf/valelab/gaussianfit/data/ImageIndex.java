@@ -49,6 +49,22 @@ public class ImageIndex {
       position_ = position;
    }
 
+   public int getFrame() {
+      return frame_;
+   }
+
+   public int getSlice() {
+      return slice_;
+   }
+
+   public int getChannel() {
+      return channel_;
+   }
+
+   public int getPosition() {
+      return position_;
+   }
+
 
    @Override
    public boolean equals(Object test) {
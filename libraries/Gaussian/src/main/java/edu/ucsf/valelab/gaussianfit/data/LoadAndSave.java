@@ -32,17 +32,18 @@ package edu.ucsf.valelab.gaussianfit.data;
 import static edu.ucsf.valelab.gaussianfit.DataCollectionForm.EXTENSION;
 import static edu.ucsf.valelab.gaussianfit.DataCollectionForm.getInstance;
 
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.ExtensionRegistry;
 import com.google.protobuf.InvalidProtocolBufferException;
 import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
 import edu.ucsf.valelab.gaussianfit.LittleEndianDataInputStream;
 import edu.ucsf.valelab.tsf.MMLocM;
 import edu.ucsf.valelab.tsf.TaggedSpotsProtos;
-import ij.process.ImageProcessor;
 import java.awt.Cursor;
 import java.awt.FileDialog;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -53,12 +54,17 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.IntStream;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import org.micromanager.internal.utils.ReportingUtils;
@@ -73,6 +79,13 @@ public class LoadAndSave {
 
    // Our Tagged Spot Format application ID
    public static int MMAPPID = 6;
+   // Key/values of spots in our Tagged Spot Format files, in the order of
+   // their extensions
+   private static final String[] MM_KEYS = {SpotData.Keys.APERTUREINTENSITY,
+         SpotData.Keys.APERTUREBACKGROUND, SpotData.Keys.INTENSITYRATIO,
+         SpotData.Keys.MSIGMA, SpotData.Keys.INTEGRALAPERTURESIGMA};
+   // Number of spots read, or written, at a time
+   private static final int TSF_BATCH = 1 << 14;
 
    /**
     * Load Gaussian spot data from indicated file. This is for the file type developed by Bo Huang
@@ -348,8 +361,7 @@ public class LoadAndSave {
     * @param caller       - Calling GUI element, used to set WaitCursor
     */
    public static void loadTSF(File selectedFile, JFrame caller) {
-      TaggedSpotsProtos.SpotList psl;
-      long spotsMissedWithErrors = 0;
+      AtomicLong spotsMissedWithErrors = new AtomicLong();
 
       try {
 
@@ -357,7 +369,36 @@ public class LoadAndSave {
 
          caller.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-         FileInputStream fi = new FileInputStream(selectedFile);
+         DataCollectionForm.getInstance().addSpotData(
+               readTSF(selectedFile, spotsMissedWithErrors));
+
+      } catch (FileNotFoundException ex) {
+         JOptionPane.showMessageDialog(getInstance(), "File not found");
+      } catch (IOException ex) {
+         JOptionPane.showMessageDialog(getInstance(), "Error while reading file");
+      } finally {
+         caller.setCursor(Cursor.getDefaultCursor());
+         ij.IJ.showStatus("");
+         ij.IJ.showProgress(1.0);
+         if (spotsMissedWithErrors.get() > 0) {
+            ReportingUtils.showError("Failed to read " + spotsMissedWithErrors.get()
+                  + " spot(s)");
+         }
+      }
+   }
+
+   /**
+    * Reads a .tsf file.
+    *
+    * @param selectedFile - File to be read
+    * @param nrFailed     - incremented for each spot that could not be read
+    * @return Builder with the description and the spots of the data set
+    */
+   static RowData.Builder readTSF(File selectedFile, AtomicLong nrFailed)
+         throws IOException {
+      TaggedSpotsProtos.SpotList psl;
+      FileInputStream fi = new FileInputStream(selectedFile);
+      try {
          DataInputStream di = new DataInputStream(fi);
 
          // the new file format has an initial 0, then the offset (in long)
@@ -404,42 +445,39 @@ public class LoadAndSave {
          int nrPositions = psl.getNrPos();
          boolean isTrack = psl.getIsTrack();
          long expectedSpots = psl.getNrSpots();
-         long esf = expectedSpots / 100;
          long maxNrSpots = 0;
          boolean hasZ = false;
          double maxZ = Double.NEGATIVE_INFINITY;
          double minZ = Double.POSITIVE_INFINITY;
 
-         ArrayList<SpotData> spotList = new ArrayList<SpotData>();
-         TaggedSpotsProtos.Spot pSpot;
-         while (fi.available() > 0 && (expectedSpots == 0 || maxNrSpots < expectedSpots)) {
-
-            try {
-               pSpot = TaggedSpotsProtos.Spot.parseDelimitedFrom(fi, registry);
-
-               SpotData gSpot = new SpotData((ImageProcessor) null, pSpot.getChannel(),
-                     pSpot.getSlice(), pSpot.getFrame(), pSpot.getPos(),
-                     pSpot.getMolecule(), pSpot.getXPosition(), pSpot.getYPosition());
-               gSpot.setData(pSpot.getIntensity(), pSpot.getBackground(), pSpot.getX(),
-                     pSpot.getY(), 0.0, pSpot.getWidth(), pSpot.getA(), pSpot.getTheta(),
-                     pSpot.getXPrecision());
-               if (appId == MMAPPID) {
-                  gSpot.addKeyValue(SpotData.Keys.APERTUREINTENSITY,
-                        pSpot.getExtension(MMLocM.intensityAperture));
-                  gSpot.addKeyValue(SpotData.Keys.APERTUREBACKGROUND,
-                        pSpot.getExtension(MMLocM.intensityBackground));
-                  gSpot.addKeyValue(SpotData.Keys.INTENSITYRATIO,
-                        pSpot.getExtension(MMLocM.intensityRatio));
-                  gSpot.addKeyValue(SpotData.Keys.MSIGMA,
-                        pSpot.getExtension(MMLocM.mSigma));
-                  if (pSpot.hasExtension(MMLocM.integralApertureSigma)) {
-                     gSpot.addKeyValue(SpotData.Keys.INTEGRALAPERTURESIGMA,
-                           pSpot.getExtension(MMLocM.integralApertureSigma));
-                  }
+         // Messages are read in batches, and the spots of a batch are parsed
+         // (in parallel) while the next batch is read
+         SpotTable.Builder spots = appId == MMAPPID
+               ? new SpotTable.Builder(MM_KEYS) : new SpotTable.Builder();
+         DataInputStream spotIn = new DataInputStream(new BufferedInputStream(fi));
+         final ExtensionRegistry spotRegistry = registry;
+         List<byte[]> messages = readSpotMessages(spotIn, expectedSpots == 0
+               ? -1 : expectedSpots);
+         long nrMessages = messages.size();
+         while (!messages.isEmpty()) {
+            final List<byte[]> batch = messages;
+            CompletableFuture<TaggedSpotsProtos.Spot[]> parsed = CompletableFuture.supplyAsync(
+                  () -> batch.parallelStream().map(m -> parseSpot(m, spotRegistry))
+                        .toArray(TaggedSpotsProtos.Spot[]::new));
+            messages = readSpotMessages(spotIn, expectedSpots == 0
+                  ? -1 : expectedSpots - nrMessages);
+            nrMessages += messages.size();
+            final TaggedSpotsProtos.Spot[] pSpots = parsed.join();
+            final int[] rows = new int[pSpots.length];
+            int nrParsed = 0;
+            for (int i = 0; i < pSpots.length; i++) {
+               if (pSpots[i] == null) {
+                  nrFailed.incrementAndGet();
+                  continue;
                }
-               if (pSpot.hasZ()) {
-                  double zc = pSpot.getZ();
-                  gSpot.setZCenter(zc);
+               rows[i] = nrParsed++;
+               if (pSpots[i].hasZ()) {
+                  double zc = pSpots[i].getZ();
                   hasZ = true;
                   if (zc > maxZ) {
                      maxZ = zc;
@@ -448,15 +486,18 @@ public class LoadAndSave {
                      minZ = zc;
                   }
                }
-               maxNrSpots++;
-               if ((esf > 0) && ((maxNrSpots % esf) == 0)) {
-                  ij.IJ.showProgress((double) maxNrSpots / (double) expectedSpots);
+            }
+            final int firstRow = spots.addRows(nrParsed);
+            final SpotTable.Builder table = spots;
+            final boolean mmApp = appId == MMAPPID;
+            IntStream.range(0, pSpots.length).parallel().forEach(i -> {
+               if (pSpots[i] != null) {
+                  addSpot(table, firstRow + rows[i], pSpots[i], mmApp);
                }
-
-               spotList.add(gSpot);
-            } catch (InvalidProtocolBufferException ipbe) {
-               spotsMissedWithErrors++;
-               ReportingUtils.logError("ProtocolBuffer Exception: " + ipbe.getMessage());
+            });
+            maxNrSpots += nrParsed;
+            if (expectedSpots > 0) {
+               ij.IJ.showProgress((double) maxNrSpots / (double) expectedSpots);
             }
          }
 
@@ -466,22 +507,175 @@ public class LoadAndSave {
                  .setHalfSize(halfSize).setNrChannels(nrChannels)
                  .setNrFrames(nrFrames).setNrSlices(nrSlices)
                  .setNrPositions(nrPositions).setMaxNrSpots(maxNrSpots)
-                 .setSpotList(spotList).setIsTrack(isTrack)
+                 .setSpotList(spots.build()).setIsTrack(isTrack)
                  .setCoordinate(DataCollectionForm.Coordinates.NM)
                  .setHasZ(hasZ).setMinZ(minZ).setMaxZ(maxZ);
-         DataCollectionForm.getInstance().addSpotData(builder);
+         return builder;
+      } finally {
+         fi.close();
+      }
+   }
+
+   /**
+    * Reads the messages of up to TSF_BATCH spots from a .tsf file.
+    *
+    * @param in       stream positioned at the start of a message
+    * @param maxSpots maximum number of messages to read, -1 for no maximum
+    * @return messages, without their size
+    */
+   private static List<byte[]> readSpotMessages(DataInputStream in, long maxSpots)
+         throws IOException {
+      List<byte[]> messages = new ArrayList<byte[]>();
+      while (messages.size() < TSF_BATCH && in.available() > 0
+            && (maxSpots < 0 || messages.size() < maxSpots)) {
+         int firstByte = in.read();
+         if (firstByte == -1) {
+            break;
+         }
+         byte[] message = new byte[CodedInputStream.readRawVarint32(firstByte, in)];
+         in.readFully(message);
+         messages.add(message);
+      }
+      return messages;
+   }
 
+   /**
+    * @return the spot, or null if the message could not be parsed
+    */
+   private static TaggedSpotsProtos.Spot parseSpot(byte[] message,
+                                                   ExtensionRegistry registry) {
+      try {
+         return TaggedSpotsProtos.Spot.parseFrom(message, registry);
+      } catch (InvalidProtocolBufferException ipbe) {
+         ReportingUtils.logError("ProtocolBuffer Exception: " + ipbe.getMessage());
+         return null;
+      }
+   }
+
+   /**
+    * Stores a spot from a .tsf file in a row of a table.
+    *
+    * @param mmApp true if the file was written by us, and the table has the
+    *              keys in MM_KEYS
+    */
+   private static void addSpot(SpotTable.Builder table, int row,
+                               TaggedSpotsProtos.Spot pSpot, boolean mmApp) {
+      table.setSpot(row, pSpot.getChannel(), pSpot.getSlice(), pSpot.getFrame(),
+            pSpot.getPos(), pSpot.getMolecule(), pSpot.getXPosition(),
+            pSpot.getYPosition());
+      table.setData(row, pSpot.getIntensity(), pSpot.getBackground(), pSpot.getX(),
+            pSpot.getY(), pSpot.hasZ() ? pSpot.getZ() : 0.0, pSpot.getWidth(),
+            pSpot.getA(), pSpot.getTheta(), pSpot.getXPrecision());
+      if (mmApp) {
+         table.setValue(row, 0, pSpot.getExtension(MMLocM.intensityAperture));
+         table.setValue(row, 1, pSpot.getExtension(MMLocM.intensityBackground));
+         table.setValue(row, 2, pSpot.getExtension(MMLocM.intensityRatio));
+         table.setValue(row, 3, pSpot.getExtension(MMLocM.mSigma));
+         if (pSpot.hasExtension(MMLocM.integralApertureSigma)) {
+            table.setValue(row, 4, pSpot.getExtension(MMLocM.integralApertureSigma));
+         }
+      }
+   }
+
+   /**
+    * Writes spots to a .tsf file. Batches of spots are serialized in
+    * parallel, and written in order.
+    *
+    * @param spots spots to be written
+    * @param hasZ  whether the z position of the spots should be written
+    * @param out   stream to write the messages to
+    */
+   private static void writeSpots(final SpotTable spots, final boolean hasZ,
+                                  OutputStream out) throws IOException {
+      final int size = spots.size();
+      final int batchesAtOnce = Math.max(1, 2 * Runtime.getRuntime().availableProcessors());
+      for (int start = 0; start < size; start += batchesAtOnce * TSF_BATCH) {
+         final int first = start;
+         final int nrBatches = Math.min(batchesAtOnce,
+               (size - start + TSF_BATCH - 1) / TSF_BATCH);
+         byte[][] batches = IntStream.range(0, nrBatches).parallel().mapToObj(b -> {
+            int batchStart = first + b * TSF_BATCH;
+            int batchEnd = Math.min(size, batchStart + TSF_BATCH);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * TSF_BATCH);
+            try {
+               for (int row = batchStart; row < batchEnd; row++) {
+                  toSpot(spots, row, hasZ).writeDelimitedTo(bytes);
+               }
+            } catch (IOException ioe) {
+               // ByteArrayOutputStream does not throw
+               throw new UncheckedIOException(ioe);
+            }
+            return bytes.toByteArray();
+         }).toArray(byte[][]::new);
+         for (byte[] batch : batches) {
+            out.write(batch);
+         }
+         ij.IJ.showStatus("Saving spotData...");
+         ij.IJ.showProgress(Math.min(size, start + batchesAtOnce * TSF_BATCH), size);
+      }
+   }
+
+   private static TaggedSpotsProtos.Spot toSpot(SpotTable spots, int row, boolean hasZ) {
+      TaggedSpotsProtos.Spot.Builder spotBuilder = TaggedSpotsProtos.Spot.newBuilder();
+      spotBuilder.setMolecule(row)
+            .setFrame(spots.getFrame(row))
+            .setChannel(spots.getChannel(row))
+            .setPos(spots.getPosition(row))
+            .setSlice(spots.getSlice(row))
+            .setX((float) spots.getXCenter(row))
+            .setY((float) spots.getYCenter(row))
+            .setIntensity((float) spots.getIntensity(row))
+            .setBackground((float) spots.getBackground(row))
+            .setXPosition(spots.getX(row))
+            .setYPosition(spots.getY(row))
+            .setWidth((float) spots.getWidth(row))
+            .setA((float) spots.getA(row))
+            .setTheta((float) spots.getTheta(row))
+            .setXPrecision((float) spots.getSigma(row))
+            .setExtension(MMLocM.intensityAperture,
+                  getValue(spots, row, SpotData.Keys.APERTUREINTENSITY))
+            .setExtension(MMLocM.intensityBackground,
+                  getValue(spots, row, SpotData.Keys.APERTUREBACKGROUND))
+            .setExtension(MMLocM.intensityRatio,
+                  getValue(spots, row, SpotData.Keys.INTENSITYRATIO))
+            .setExtension(MMLocM.mSigma,
+                  getValue(spots, row, SpotData.Keys.MSIGMA))
+            .setExtension(MMLocM.integralApertureSigma,
+                  getValue(spots, row, SpotData.Keys.INTEGRALAPERTURESIGMA));
+      if (hasZ) {
+         spotBuilder.setZ((float) spots.getZCenter(row));
+      }
+      return spotBuilder.build();
+   }
+
+   /**
+    * @return value of the key, or -1 if the spot does not have it
+    */
+   private static float getValue(SpotTable spots, int row, String key) {
+      Double value = spots.getValue(row, key);
+      return value == null ? -1.0f : value.floatValue();
+   }
+
+   /**
+    * Load a spot table (.stf) file. Only the description of the data set is
+    * read; spots are read from the file when they are used.
+    *
+    * @param selectedFile - File to be loaded
+    * @param caller       - Calling GUI element, used to set WaitCursor
+    */
+   public static void loadSpotTableFile(File selectedFile, JFrame caller) {
+      try {
+         ij.IJ.showStatus("Loading data..");
+         caller.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+         DataCollectionForm.getInstance().addSpotData(SpotTableFile.open(selectedFile));
       } catch (FileNotFoundException ex) {
          JOptionPane.showMessageDialog(getInstance(), "File not found");
       } catch (IOException ex) {
+         ReportingUtils.logError(ex);
          JOptionPane.showMessageDialog(getInstance(), "Error while reading file");
       } finally {
          caller.setCursor(Cursor.getDefaultCursor());
          ij.IJ.showStatus("");
-         ij.IJ.showProgress(1.0);
-         if (spotsMissedWithErrors > 0) {
-            ReportingUtils.showError("Failed to read " + spotsMissedWithErrors + " spot(s)");
-         }
       }
    }
 
@@ -527,122 +721,16 @@ public class LoadAndSave {
          @Override
          public void run() {
             for (int rowNr = 0; rowNr < rowData.length; rowNr++) {
-               TaggedSpotsProtos.SpotList.Builder tspBuilder = TaggedSpotsProtos.SpotList
-                     .newBuilder();
-               tspBuilder.setApplicationId(MMAPPID)
-                       .setName(rowData[rowNr].getName())
-                       .setFilepath(rowData[rowNr].title_)
-                       .setNrPixelsX(rowData[rowNr].width_)
-                       .setNrPixelsY(rowData[rowNr].height_)
-                       .setNrSpots(rowData[rowNr].spotList_.size())
-                       .setPixelSize(rowData[rowNr].pixelSizeNm_)
-                       .setBoxSize(rowData[rowNr].halfSize_ * 2)
-                       .setNrChannels(rowData[rowNr].nrChannels_)
-                       .setNrSlices(rowData[rowNr].nrSlices_)
-                       .setIsTrack(rowData[rowNr].isTrack_)
-                       .setNrPos(rowData[rowNr].nrPositions_)
-                       .setNrFrames(rowData[rowNr].nrFrames_)
-                       .setLocationUnits(TaggedSpotsProtos.LocationUnits.NM)
-                       .setIntensityUnits(TaggedSpotsProtos.IntensityUnits.PHOTONS)
-                       .setNrSpots(rowData[rowNr].maxNrSpots_);
-               switch (rowData[rowNr].shape_) {
-                  case (1):
-                     tspBuilder.setFitMode(TaggedSpotsProtos.FitMode.ONEAXIS);
-                     break;
-                  case (2):
-                     tspBuilder.setFitMode(TaggedSpotsProtos.FitMode.TWOAXIS);
-                     break;
-                  case (3):
-                     tspBuilder.setFitMode(TaggedSpotsProtos.FitMode.TWOAXISANDTHETA);
-                     break;
-                  default:
-                     break;
-               }
-
-               TaggedSpotsProtos.SpotList spotList = tspBuilder.build();
                try {
                   caller.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-                  FileOutputStream fo;
-                  if (rowNr == 0) {
-                     fo = new FileOutputStream(selectedFile);
-                  } else {
+                  File file = selectedFile;
+                  if (rowNr > 0) {
                      String[] nameParts = rowData[rowNr].getName().split(File.separator);
                      String tmpName = nameParts[nameParts.length - 1];
-                     fo = new FileOutputStream(
-                           new File(fdir + File.separator + tmpName + EXTENSION));
-                  }
-                  // write space for magic nr and offset to spotList
-                  for (int i = 0; i < 12; i++) {
-                     fo.write(0);
-                  }
-
-                  int counter = 0;
-                  for (SpotData gd : rowData[rowNr].spotList_) {
-
-                     if ((counter % 1000) == 0) {
-                        ij.IJ.showStatus("Saving spotData...");
-                        ij.IJ.showProgress(counter, rowData[rowNr].spotList_.size());
-                     }
-
-                     if (gd != null) {
-                        TaggedSpotsProtos.Spot.Builder spotBuilder = TaggedSpotsProtos.Spot
-                              .newBuilder();
-                        // TODO: precede all these calls with check for presence of member
-                        // or be OK with default values?
-                        spotBuilder.setMolecule(counter)
-                                    .setFrame(gd.getFrame())
-                              .setChannel(gd.getChannel())
-                              .setPos(gd.getPosition())
-                              .setSlice(gd.getSlice())
-                              .setX((float) gd.getXCenter())
-                              .setY((float) gd.getYCenter())
-                              .setIntensity((float) gd.getIntensity())
-                              .setBackground((float) gd.getBackground())
-                              .setXPosition(gd.getX())
-                              .setYPosition(gd.getY())
-                              .setWidth((float) gd.getWidth())
-                              .setA((float) gd.getA())
-                              .setTheta((float) gd.getTheta())
-                              .setXPrecision((float) gd.getSigma())
-                              .setExtension(MMLocM.intensityAperture,
-                                    gd.getValue(SpotData.Keys.APERTUREINTENSITY, -1.0)
-                                          .floatValue())
-                              .setExtension(MMLocM.intensityBackground,
-                                    gd.getValue(SpotData.Keys.APERTUREBACKGROUND, -1.0)
-                                                .floatValue())
-                              .setExtension(MMLocM.intensityRatio,
-                                    gd.getValue(SpotData.Keys.INTENSITYRATIO, -1.0)
-                                          .floatValue())
-                              .setExtension(MMLocM.mSigma,
-                                    gd.getValue(SpotData.Keys.MSIGMA, -1.0).floatValue())
-                              .setExtension(MMLocM.integralApertureSigma,
-                                    gd.getValue(SpotData.Keys.INTEGRALAPERTURESIGMA, -1.0)
-                                          .floatValue()
-                              );
-
-                        if (rowData[rowNr].hasZ_) {
-                           spotBuilder.setZ((float) gd.getZCenter());
-                        }
-
-                        TaggedSpotsProtos.Spot spot = spotBuilder.build();
-
-                        // write message size and message
-                        spot.writeDelimitedTo(fo);
-                        counter++;
-                     }
+                     file = new File(fdir + File.separator + tmpName + EXTENSION);
                   }
-
-                  FileChannel fc = fo.getChannel();
-                  long offset = fc.position();
-                  spotList.writeDelimitedTo(fo);
-
-                  // now go back to write offset to the stream
-                  fc.position(4);
-                  DataOutputStream dos = new DataOutputStream(fo);
-                  dos.writeLong(offset - 12);
-
-                  fo.close();
+                  writeTSF(rowData[rowNr], file);
 
                   ij.IJ.showProgress(1);
                   ij.IJ.showStatus("Finished saving spotData...");
@@ -660,6 +748,68 @@ public class LoadAndSave {
       return dir;
    }
 
+   /**
+    * Writes a data set to a .tsf (Tagged Spot File) file.
+    *
+    * @param row  - data set to be written
+    * @param file - File to be written
+    */
+   static void writeTSF(RowData row, File file) throws IOException {
+      TaggedSpotsProtos.SpotList.Builder tspBuilder = TaggedSpotsProtos.SpotList
+            .newBuilder();
+      tspBuilder.setApplicationId(MMAPPID)
+              .setName(row.getName())
+              .setFilepath(row.title_)
+              .setNrPixelsX(row.width_)
+              .setNrPixelsY(row.height_)
+              .setNrSpots(row.spotList_.size())
+              .setPixelSize(row.pixelSizeNm_)
+              .setBoxSize(row.halfSize_ * 2)
+              .setNrChannels(row.nrChannels_)
+              .setNrSlices(row.nrSlices_)
+              .setIsTrack(row.isTrack_)
+              .setNrPos(row.nrPositions_)
+              .setNrFrames(row.nrFrames_)
+              .setLocationUnits(TaggedSpotsProtos.LocationUnits.NM)
+              .setIntensityUnits(TaggedSpotsProtos.IntensityUnits.PHOTONS)
+              .setNrSpots(row.maxNrSpots_);
+      switch (row.shape_) {
+         case (1):
+            tspBuilder.setFitMode(TaggedSpotsProtos.FitMode.ONEAXIS);
+            break;
+         case (2):
+            tspBuilder.setFitMode(TaggedSpotsProtos.FitMode.TWOAXIS);
+            break;
+         case (3):
+            tspBuilder.setFitMode(TaggedSpotsProtos.FitMode.TWOAXISANDTHETA);
+            break;
+         default:
+            break;
+      }
+
+      TaggedSpotsProtos.SpotList spotList = tspBuilder.build();
+      FileOutputStream fo = new FileOutputStream(file);
+      try {
+         // write space for magic nr and offset to spotList
+         for (int i = 0; i < 12; i++) {
+            fo.write(0);
+         }
+
+         writeSpots(row.spotList_, row.hasZ_, fo);
+
+         FileChannel fc = fo.getChannel();
+         long offset = fc.position();
+         spotList.writeDelimitedTo(fo);
+
+         // now go back to write offset to the stream
+         fc.position(4);
+         DataOutputStream dos = new DataOutputStream(fo);
+         dos.writeLong(offset - 12);
+      } finally {
+         fo.close();
+      }
+   }
+
    /**
     * Save data set as a text file
     *
@@ -830,4 +980,71 @@ public class LoadAndSave {
       return dir;
    }
 
+
+   /**
+    * Save data sets as spot table (.stf) files, which can be opened without
+    * reading all spots
+    *
+    * @param rows   - rows with spot data to be saved
+    * @param dir
+    * @param caller - JFrame of calling code to provide visual feedback
+    * @return
+    */
+   public static String saveDataAsSpotTable(final RowData[] rows, String dir,
+         final JFrame caller) {
+      final FileDialog fd = new FileDialog(caller, "Save Spot Data", FileDialog.SAVE);
+      String[] parts = rows[0].getName().split(File.separator);
+      String name = parts[parts.length - 1];
+      fd.setFile(name + SpotTableFile.EXTENSION);
+      fd.setFilenameFilter(new FilenameFilter() {
+
+         @Override
+         public boolean accept(File file, String string) {
+            return string.endsWith(SpotTableFile.EXTENSION);
+         }
+      });
+      fd.setVisible(true);
+      String selectedItem = fd.getFile();
+      if (selectedItem == null) {
+         return dir;
+      }
+      String fn = fd.getFile();
+      if (!fn.contains(".")) {
+         fn += SpotTableFile.EXTENSION;
+      }
+      final File selectedFile = new File(fd.getDirectory() + File.separator + fn);
+
+      Runnable doWorkRunnable = new Runnable() {
+
+         @Override
+         public void run() {
+            try {
+               caller.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+               ij.IJ.showStatus("Saving spotData...");
+               for (int rowNr = 0; rowNr < rows.length; rowNr++) {
+                  File file = selectedFile;
+                  if (rowNr > 0) {
+                     String[] nameParts = rows[rowNr].getName().split(File.separator);
+                     String tmpName = nameParts[nameParts.length - 1];
+                     file = new File(fd.getDirectory() + File.separator + tmpName
+                           + SpotTableFile.EXTENSION);
+                  }
+                  SpotTableFile.write(rows[rowNr], file);
+                  ij.IJ.showProgress(rowNr + 1, rows.length);
+               }
+               ij.IJ.showStatus("Finished saving spotData...");
+            } catch (IOException ex) {
+               ReportingUtils.logError(ex);
+               JOptionPane.showMessageDialog(getInstance(),
+                     "Error while saving data as spot table");
+            } finally {
+               caller.setCursor(Cursor.getDefaultCursor());
+            }
+         }
+      };
+
+      (new Thread(doWorkRunnable)).start();
+
+      return fd.getDirectory();
+   }
 }
\ No newline at end of file
@@ -38,7 +38,6 @@ import edu.ucsf.valelab.gaussianfit.DataCollectionForm.Coordinates;
 import edu.ucsf.valelab.gaussianfit.utils.ListUtils;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.micromanager.display.DisplayWindow;
@@ -189,9 +188,11 @@ public class RowData {
 
    }
 
-   public final List<SpotData> spotList_;
-   private Map<Integer, List<SpotData>> frameIndexSpotList_;
-   private Map<ImageIndex, List<SpotData>> indexedSpotList_;
+   // Spots, by column; also a (unmodifiable) List<SpotData>
+   public final SpotTable spotList_;
+   private volatile Map<Integer, List<SpotData>> frameIndexSpotList_;
+   // may be built by several threads at once, all with the same result
+   private volatile Map<ImageIndex, List<SpotData>> indexedSpotList_;
    public final ArrayList<Double> timePoints_;
    private String name_;             // name as it appears in the DataCollection table
    public final String title_;      // ImagePlus title of the image
@@ -238,7 +239,7 @@ public class RowData {
       nrSlices_ = b.nrSlices_;
       nrPositions_ = b.nrPositions_;
       maxNrSpots_ = b.maxNrSpots_;
-      spotList_ = new ArrayList<SpotData>(b.spotList_);
+      spotList_ = SpotTable.of(b.spotList_);
       if (b.timePoints_ != null) {
          timePoints_ = new ArrayList<Double>(b.timePoints_);
       } else {
@@ -304,32 +305,11 @@ public class RowData {
     * Populates the list frameIndexSpotList which gives access to spots by frame
     */
    public void index() {
-      boolean useFrames = nrFrames_ > nrSlices_;
-      int nr = nrSlices_;
-      if (useFrames) {
-         nr = nrFrames_;
-      }
-
-      frameIndexSpotList_ = new HashMap<Integer, List<SpotData>>(nr);
-      indexedSpotList_ = new HashMap<ImageIndex, List<SpotData>>();
-
-      for (SpotData spot : spotList_) {
-         int frameIndex = spot.getSlice();
-         if (useFrames) {
-            frameIndex = spot.getFrame();
-         }
-         if (frameIndexSpotList_.get(frameIndex) == null) {
-            frameIndexSpotList_.put(frameIndex, new ArrayList<SpotData>());
-         }
-         frameIndexSpotList_.get(frameIndex).add(spot);
-
-         ImageIndex ii = new ImageIndex(spot.getFrame(), spot.getSlice(),
-               spot.getChannel(), spot.getPosition());
-         if (indexedSpotList_.get(ii) == null) {
-            indexedSpotList_.put(ii, new ArrayList<SpotData>());
-         }
-         indexedSpotList_.get(ii).add(spot);
-      }
+      final boolean useFrames = nrFrames_ > nrSlices_;
+      final SpotTable spots = spotList_;
+      frameIndexSpotList_ = spots.groupBy(row ->
+            useFrames ? spots.getFrame(row) : spots.getSlice(row));
+      indexedSpotList_ = spots.groupByImage();
    }
 
    public Map<Integer, List<SpotData>> getSpotListIndexedByFrame() {
@@ -359,10 +339,10 @@ public class RowData {
     * @return desired spot or null if not found
     */
    public SpotData get(int frame, int channel, double xPos, double yPos) {
-      for (SpotData spot : spotList_) {
-         if (spot.getFrame() == frame && spot.getChannel() == channel
-               && spot.getXCenter() == xPos && spot.getYCenter() == yPos) {
-            return spot;
+      for (int row = 0; row < spotList_.size(); row++) {
+         if (spotList_.getFrame(row) == frame && spotList_.getChannel(row) == channel
+               && spotList_.getXCenter(row) == xPos && spotList_.getYCenter(row) == yPos) {
+            return spotList_.get(row);
          }
       }
 
@@ -119,6 +119,19 @@ public class SpotData implements PointData {
       keyValue_ = new HashMap<String, Double>();
    }
 
+   /**
+    * For views onto a SpotTable, which override all accessors.
+    */
+   SpotData() {
+      frame_ = 0;
+      channel_ = 0;
+      slice_ = 0;
+      nr_ = 0;
+      x_ = 0;
+      y_ = 0;
+      keyValue_ = null;
+   }
+
 
    /**
     * Copy constructor.  Copies frame, slice, channel, position ,  x,  y, intensity, background,
@@ -127,26 +140,34 @@ public class SpotData implements PointData {
     * @param spot
     */
    public SpotData(SpotData spot) {
-      frame_ = spot.frame_;
-      slice_ = spot.slice_;
-      channel_ = spot.channel_;
-      position_ = spot.position_;
-      nr_ = spot.nr_;
-      x_ = spot.x_;
-      y_ = spot.y_;
-      intensity_ = spot.intensity_;
-      background_ = spot.background_;
-      xCenter_ = spot.xCenter_;
-      yCenter_ = spot.yCenter_;
-      zCenter_ = spot.zCenter_;
-      xOri_ = spot.xOri_;
-      yOri_ = spot.yOri_;
-      zOri_ = spot.zOri_;
-      width_ = spot.width_;
-      a_ = spot.a_;
-      theta_ = spot.theta_;
-      sigma_ = spot.sigma_;
-      keyValue_ = new HashMap<String, Double>(spot.keyValue_);
+      frame_ = spot.getFrame();
+      slice_ = spot.getSlice();
+      channel_ = spot.getChannel();
+      position_ = spot.getPosition();
+      nr_ = spot.getNr();
+      x_ = spot.getX();
+      y_ = spot.getY();
+      intensity_ = spot.getIntensity();
+      background_ = spot.getBackground();
+      xCenter_ = spot.getXCenter();
+      yCenter_ = spot.getYCenter();
+      zCenter_ = spot.getZCenter();
+      xOri_ = spot.getXOri();
+      yOri_ = spot.geYOri();
+      zOri_ = spot.getZOri();
+      width_ = spot.getWidth();
+      a_ = spot.getA();
+      theta_ = spot.getTheta();
+      sigma_ = spot.getSigma();
+      if (spot.keyValue_ != null) {
+         keyValue_ = new HashMap<String, Double>(spot.keyValue_);
+      } else {
+         // view onto a SpotTable
+         keyValue_ = new HashMap<String, Double>();
+         for (String key : spot.getKeys()) {
+            keyValue_.put(key, spot.getValue(key));
+         }
+      }
    }
 
    public void setData(double intensity,
@@ -317,8 +338,8 @@ public class SpotData implements PointData {
          return ip_;
       }
       synchronized (LOCK_IP) {
-         Roi spotRoi = new Roi(x_ - halfSize, y_ - halfSize, 2 * halfSize, 2 * halfSize);
-         siPlus.setPositionWithoutUpdate(channel_, slice_, frame_);
+         Roi spotRoi = new Roi(getX() - halfSize, getY() - halfSize, 2 * halfSize, 2 * halfSize);
+         siPlus.setPositionWithoutUpdate(getChannel(), getSlice(), getFrame());
          siPlus.setRoi(spotRoi, false);
          return siPlus.getProcessor().crop();
       }
@@ -329,7 +350,7 @@ public class SpotData implements PointData {
          return ip_;
       }
       synchronized (LOCK_IP) {
-         Roi spotRoi = new Roi(x_ - halfSize, y_ - halfSize, 2 * halfSize, 2 * halfSize);
+         Roi spotRoi = new Roi(getX() - halfSize, getY() - halfSize, 2 * halfSize, 2 * halfSize);
          //siProc.setSliceWithoutUpdate(frame_);
          siProc.setRoi(spotRoi);
          return siProc.crop();
@@ -351,7 +372,7 @@ public class SpotData implements PointData {
 
    @Override
    public Point2D.Double getPoint() {
-      return new Point2D.Double(xCenter_, yCenter_);
+      return new Point2D.Double(getXCenter(), getYCenter());
    }
 
 }
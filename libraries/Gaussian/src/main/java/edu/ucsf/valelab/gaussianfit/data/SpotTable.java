@@ -0,0 +1,1132 @@
+/*
+Copyright (c) 2013-2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.data;
+
+import ij.process.ImageProcessor;
+import java.lang.ref.WeakReference;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Spots stored by column: one primitive array per field, with the spot
+ * index as array index.
+ *
+ * <p>A SpotData object takes several hundred bytes (with the map holding
+ * its key/values), and a list of them scatters the values of one field over
+ * the heap. Here, a spot takes about 130 bytes plus 8 per key/value, and
+ * code that looks at a few fields of every spot (rendering, filtering)
+ * reads them from consecutive memory through the getters that take a row
+ * number.
+ *
+ * <p>Columns are divided into chunks of CHUNK_SIZE rows, each held in a
+ * buffer. Tables grow without copying their chunks, and a table can be
+ * backed by a memory mapped file (see {@link SpotTableFile}), in which case
+ * the operating system reads the pages of a column when they are first
+ * used. Mapped chunks are read-only, as are chunks shared with another
+ * table; a chunk is copied to the heap when a spot in it is changed. Tables
+ * remember the file they map, so that their chunks can be copied to the heap
+ * when the file is replaced (see {@link #copyToHeap(Path)}).
+ *
+ * <p>For code that works with SpotData, the table is also an unmodifiable
+ * List of SpotData. Its elements are views that read from (and write
+ * through to) the table; they are created when asked for, and two views of
+ * the same row are equal. Views do not hold pixels: the ImageProcessors of
+ * spots are only used while fitting, and are dropped when a table is made.
+ * Changes to the public nrLinks_ and originalFrame_ fields of a view are not
+ * stored.
+ */
+public final class SpotTable extends AbstractList<SpotData> implements RandomAccess {
+
+   static final int CHUNK_BITS = 20;
+   static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+   private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+   private static final int MAX_CHUNKS = (Integer.MAX_VALUE >>> CHUNK_BITS) + 1;
+
+   // Integer columns
+   static final int FRAME = 0;
+   static final int CHANNEL = 1;
+   static final int SLICE = 2;
+   static final int POSITION = 3;
+   static final int NR = 4;
+   static final int X = 5;
+   static final int Y = 6;
+   static final int NR_LINKS = 7;
+   static final int ORIGINAL_FRAME = 8;
+   static final int NR_INT_COLUMNS = 9;
+   // Double columns
+   static final int INTENSITY = 0;
+   static final int BACKGROUND = 1;
+   static final int X_CENTER = 2;
+   static final int Y_CENTER = 3;
+   static final int Z_CENTER = 4;
+   static final int X_ORI = 5;
+   static final int Y_ORI = 6;
+   static final int Z_ORI = 7;
+   static final int WIDTH = 8;
+   static final int A = 9;
+   static final int THETA = 10;
+   static final int SIGMA = 11;
+   static final int NR_DOUBLE_COLUMNS = 12;
+
+   // Tables with chunks mapped from a file
+   private static final List<WeakReference<SpotTable>> MAPPED_TABLES =
+         new ArrayList<WeakReference<SpotTable>>();
+
+   private final int size_;
+   // Chunks of every column, [column][chunk]
+   private final IntBuffer[][] ints_;
+   private final DoubleBuffer[][] doubles_;
+   // Key/values, one column per key; NaN marks spots without the key (a
+   // stored NaN is recorded in storedNaN_, which is null for most keys)
+   private volatile String[] keys_;
+   private volatile DoubleBuffer[][] values_;
+   private volatile BitSet[] storedNaN_;
+   // Rows by image, computed when first needed
+   private volatile ImageGroups imageGroups_;
+   // File from which chunks are mapped, null if none are
+   private volatile Path mappedFile_;
+
+   /**
+    * Rows grouped by image: the rows of images_[i] are found in rows_, from
+    * offsets_[i] up to offsets_[i + 1]. Rows of an image are in table order.
+    */
+   static final class ImageGroups {
+      final ImageIndex[] images_;
+      final int[] offsets_;
+      final IntBuffer rows_;
+
+      ImageGroups(ImageIndex[] images, int[] offsets, IntBuffer rows) {
+         images_ = images;
+         offsets_ = offsets;
+         rows_ = rows;
+      }
+   }
+
+   SpotTable(int size, IntBuffer[][] ints, DoubleBuffer[][] doubles, String[] keys,
+             DoubleBuffer[][] values, BitSet[] storedNaN, ImageGroups imageGroups) {
+      size_ = size;
+      ints_ = ints;
+      doubles_ = doubles;
+      keys_ = keys;
+      values_ = values;
+      storedNaN_ = storedNaN;
+      imageGroups_ = imageGroups;
+   }
+
+   /**
+    * Builds a table row by row. Values of different rows can be set from
+    * different threads at the same time, but not while rows are added.
+    *
+    * <p>A builder can go on after a table is built, to build a larger one
+    * later. Built tables share their chunks with the builder (read-only, as
+    * between tables), so that neither sees the changes of the other.
+    */
+   public static final class Builder {
+      private final String[] keys_;
+      private final IntBuffer[][] ints_ = new IntBuffer[NR_INT_COLUMNS][MAX_CHUNKS];
+      private final DoubleBuffer[][] doubles_ = new DoubleBuffer[NR_DOUBLE_COLUMNS][MAX_CHUNKS];
+      private final DoubleBuffer[][] values_;
+      private final BitSet[] storedNaN_;
+      private int size_ = 0;
+      private int capacity_ = 0;
+
+      /**
+       * @param keys keys of the key/values the spots can have
+       */
+      public Builder(String... keys) {
+         keys_ = keys.clone();
+         values_ = new DoubleBuffer[keys.length][MAX_CHUNKS];
+         storedNaN_ = new BitSet[keys.length];
+      }
+
+      /**
+       * Adds rows, in which all values are 0, and no key/values are set.
+       *
+       * @param nrRows number of rows to add
+       * @return the first of the new rows
+       */
+      public int addRows(int nrRows) {
+         if ((long) size_ + nrRows > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many spots for one table");
+         }
+         int first = size_;
+         size_ += nrRows;
+         while (capacity_ < size_) {
+            // Fill up the last chunk, doubling its size, or start a new one
+            int chunk = capacity_ >>> CHUNK_BITS;
+            int length = capacity_ & CHUNK_MASK;
+            int newLength = length == 0 ? Math.min(CHUNK_SIZE, Math.max(size_ - capacity_, 64))
+                  : Math.min(CHUNK_SIZE, Math.max(2 * length, (size_ - capacity_) + length));
+            for (IntBuffer[] column : ints_) {
+               column[chunk] = grow(column[chunk], newLength);
+            }
+            for (DoubleBuffer[] column : doubles_) {
+               column[chunk] = grow(column[chunk], newLength, 0.0);
+            }
+            for (DoubleBuffer[] column : values_) {
+               column[chunk] = grow(column[chunk], newLength, Double.NaN);
+            }
+            capacity_ += newLength - length;
+         }
+         return first;
+      }
+
+      private static IntBuffer grow(IntBuffer chunk, int length) {
+         int[] array = new int[length];
+         if (chunk != null) {
+            IntBuffer source = chunk.duplicate();
+            source.clear();
+            source.get(array, 0, source.capacity());
+         }
+         return IntBuffer.wrap(array);
+      }
+
+      private static DoubleBuffer grow(DoubleBuffer chunk, int length, double fill) {
+         double[] array = new double[length];
+         int start = 0;
+         if (chunk != null) {
+            DoubleBuffer source = chunk.duplicate();
+            source.clear();
+            start = source.capacity();
+            source.get(array, 0, start);
+         }
+         if (fill != 0.0) {
+            Arrays.fill(array, start, length, fill);
+         }
+         return DoubleBuffer.wrap(array);
+      }
+
+      /**
+       * Sets the image and position in the image of a spot, with arguments
+       * in the order of the SpotData constructor.
+       */
+      public Builder setSpot(int row, int channel, int slice, int frame, int position,
+                             int nr, int x, int y) {
+         setInt(CHANNEL, row, channel);
+         setInt(SLICE, row, slice);
+         setInt(FRAME, row, frame);
+         setInt(POSITION, row, position);
+         setInt(NR, row, nr);
+         setInt(X, row, x);
+         setInt(Y, row, y);
+         return this;
+      }
+
+      public Builder setData(int row, double intensity, double background, double xCenter,
+                             double yCenter, double zCenter, double width, double a,
+                             double theta, double sigma) {
+         setDouble(INTENSITY, row, intensity);
+         setDouble(BACKGROUND, row, background);
+         setDouble(X_CENTER, row, xCenter);
+         setDouble(Y_CENTER, row, yCenter);
+         setDouble(Z_CENTER, row, zCenter);
+         setDouble(WIDTH, row, width);
+         setDouble(A, row, a);
+         setDouble(THETA, row, theta);
+         setDouble(SIGMA, row, sigma);
+         return this;
+      }
+
+      public Builder setOriginalPosition(int row, double xPos, double yPos, double zPos) {
+         setDouble(X_ORI, row, xPos);
+         setDouble(Y_ORI, row, yPos);
+         setDouble(Z_ORI, row, zPos);
+         return this;
+      }
+
+      public Builder setLinks(int row, int nrLinks, int originalFrame) {
+         setInt(NR_LINKS, row, nrLinks);
+         setInt(ORIGINAL_FRAME, row, originalFrame);
+         return this;
+      }
+
+      /**
+       * @param key index of the key in the keys given to the constructor
+       */
+      public Builder setValue(int row, int key, double value) {
+         checkRow(row);
+         if (value != value) {
+            synchronized (storedNaN_) {
+               if (storedNaN_[key] == null) {
+                  storedNaN_[key] = new BitSet();
+               }
+               storedNaN_[key].set(row);
+            }
+         }
+         writable(values_[key], row >>> CHUNK_BITS).put(row & CHUNK_MASK, value);
+         return this;
+      }
+
+      private void setInt(int column, int row, int value) {
+         checkRow(row);
+         writable(ints_[column], row >>> CHUNK_BITS).put(row & CHUNK_MASK, value);
+      }
+
+      private void setDouble(int column, int row, double value) {
+         checkRow(row);
+         writable(doubles_[column], row >>> CHUNK_BITS).put(row & CHUNK_MASK, value);
+      }
+
+      /**
+       * @return the chunk, after copying it if it is shared with a table
+       */
+      private IntBuffer writable(IntBuffer[] chunks, int chunk) {
+         IntBuffer buffer = chunks[chunk];
+         if (buffer.isReadOnly()) {
+            synchronized (chunks) {
+               if (chunks[chunk].isReadOnly()) {
+                  chunks[chunk] = grow(chunks[chunk], chunks[chunk].capacity());
+               }
+               buffer = chunks[chunk];
+            }
+         }
+         return buffer;
+      }
+
+      private DoubleBuffer writable(DoubleBuffer[] chunks, int chunk) {
+         DoubleBuffer buffer = chunks[chunk];
+         if (buffer.isReadOnly()) {
+            synchronized (chunks) {
+               if (chunks[chunk].isReadOnly()) {
+                  chunks[chunk] = grow(chunks[chunk], chunks[chunk].capacity(), 0.0);
+               }
+               buffer = chunks[chunk];
+            }
+         }
+         return buffer;
+      }
+
+      private void checkRow(int row) {
+         if (row < 0 || row >= size_) {
+            throw new IndexOutOfBoundsException("Row " + row + ", size " + size_);
+         }
+      }
+
+      public int size() {
+         return size_;
+      }
+
+      public SpotTable build() {
+         int nrChunks = nrChunks(size_);
+         IntBuffer[][] ints = new IntBuffer[NR_INT_COLUMNS][];
+         for (int c = 0; c < NR_INT_COLUMNS; c++) {
+            ints[c] = share(ints_[c], nrChunks);
+         }
+         DoubleBuffer[][] doubles = new DoubleBuffer[NR_DOUBLE_COLUMNS][];
+         for (int c = 0; c < NR_DOUBLE_COLUMNS; c++) {
+            doubles[c] = share(doubles_[c], nrChunks);
+         }
+         DoubleBuffer[][] values = new DoubleBuffer[keys_.length][];
+         BitSet[] storedNaN = new BitSet[keys_.length];
+         for (int k = 0; k < keys_.length; k++) {
+            values[k] = share(values_[k], nrChunks);
+            storedNaN[k] = storedNaN_[k] == null ? null : (BitSet) storedNaN_[k].clone();
+         }
+         return new SpotTable(size_, ints, doubles, keys_.clone(), values, storedNaN, null);
+      }
+
+      private static IntBuffer[] share(IntBuffer[] chunks, int nrChunks) {
+         for (int chunk = 0; chunk < nrChunks; chunk++) {
+            if (!chunks[chunk].isReadOnly()) {
+               chunks[chunk] = chunks[chunk].asReadOnlyBuffer();
+            }
+         }
+         return Arrays.copyOf(chunks, nrChunks);
+      }
+
+      private static DoubleBuffer[] share(DoubleBuffer[] chunks, int nrChunks) {
+         for (int chunk = 0; chunk < nrChunks; chunk++) {
+            if (!chunks[chunk].isReadOnly()) {
+               chunks[chunk] = chunks[chunk].asReadOnlyBuffer();
+            }
+         }
+         return Arrays.copyOf(chunks, nrChunks);
+      }
+   }
+
+   /**
+    * Stores spots in a table. A table is returned as is: tables can be
+    * shared, just like the SpotData objects in a list can.
+    *
+    * @param spots list of spots, in the order in which they will be stored
+    * @return table with the data of the spots
+    */
+   public static SpotTable of(List<SpotData> spots) {
+      if (spots instanceof SpotTable) {
+         return (SpotTable) spots;
+      }
+      // toArray is atomic for synchronized lists
+      SpotData[] array = spots.toArray(new SpotData[spots.size()]);
+      Map<String, Integer> keys = new LinkedHashMap<String, Integer>();
+      for (SpotData spot : array) {
+         for (String key : spot.getKeys()) {
+            if (!keys.containsKey(key)) {
+               keys.put(key, keys.size());
+            }
+         }
+      }
+      Builder builder = new Builder(keys.keySet().toArray(new String[keys.size()]));
+      builder.addRows(array.length);
+      for (int row = 0; row < array.length; row++) {
+         SpotData spot = array[row];
+         builder.setSpot(row, spot.getChannel(), spot.getSlice(), spot.getFrame(),
+               spot.getPosition(), spot.getNr(), spot.getX(), spot.getY())
+               .setData(row, spot.getIntensity(), spot.getBackground(), spot.getXCenter(),
+                     spot.getYCenter(), spot.getZCenter(), spot.getWidth(), spot.getA(),
+                     spot.getTheta(), spot.getSigma())
+               .setOriginalPosition(row, spot.getXOri(), spot.geYOri(), spot.getZOri())
+               .setLinks(row, spot.nrLinks_, spot.originalFrame_);
+         for (String key : spot.getKeys()) {
+            builder.setValue(row, keys.get(key), spot.getValue(key));
+         }
+      }
+      return builder.build();
+   }
+
+   /**
+    * Makes a table with the same spots at other x and y centers, without
+    * copying the other columns: they are shared with this table. Shared
+    * chunks become read-only in both tables, so that a chunk is copied when
+    * a spot in it is changed.
+    *
+    * @param xCenter gives the new x center of a row
+    * @param yCenter gives the new y center of a row
+    * @return the new table
+    */
+   public synchronized SpotTable withCenters(final IntToDoubleFunction xCenter,
+                                             final IntToDoubleFunction yCenter) {
+      final int nrChunks = nrChunks(size_);
+      IntBuffer[][] ints = new IntBuffer[NR_INT_COLUMNS][];
+      for (int c = 0; c < NR_INT_COLUMNS; c++) {
+         ints[c] = share(ints_[c]);
+      }
+      final DoubleBuffer[][] doubles = new DoubleBuffer[NR_DOUBLE_COLUMNS][];
+      for (int c = 0; c < NR_DOUBLE_COLUMNS; c++) {
+         doubles[c] = c == X_CENTER || c == Y_CENTER
+               ? new DoubleBuffer[nrChunks] : share(doubles_[c]);
+      }
+      IntStream.range(0, nrChunks).parallel().forEach(chunk -> {
+         int first = chunk << CHUNK_BITS;
+         double[] x = new double[chunkLength(size_, chunk)];
+         double[] y = new double[x.length];
+         for (int i = 0; i < x.length; i++) {
+            x[i] = xCenter.applyAsDouble(first + i);
+            y[i] = yCenter.applyAsDouble(first + i);
+         }
+         doubles[X_CENTER][chunk] = DoubleBuffer.wrap(x);
+         doubles[Y_CENTER][chunk] = DoubleBuffer.wrap(y);
+      });
+      DoubleBuffer[][] values = new DoubleBuffer[values_.length][];
+      BitSet[] storedNaN = new BitSet[values.length];
+      for (int k = 0; k < values.length; k++) {
+         values[k] = share(values_[k]);
+         storedNaN[k] = storedNaN_[k] == null ? null : (BitSet) storedNaN_[k].clone();
+      }
+      SpotTable table = new SpotTable(size_, ints, doubles, keys_.clone(), values, storedNaN,
+            imageGroups_);
+      if (mappedFile_ != null) {
+         table.setMappedFile(mappedFile_);
+      }
+      return table;
+   }
+
+   /**
+    * Records that chunks of this table are mapped from a file.
+    *
+    * @param file absolute, normalized path of the file
+    */
+   void setMappedFile(Path file) {
+      mappedFile_ = file;
+      synchronized (MAPPED_TABLES) {
+         MAPPED_TABLES.removeIf(ref -> ref.get() == null);
+         MAPPED_TABLES.add(new WeakReference<SpotTable>(this));
+      }
+   }
+
+   /**
+    * Copies the mapped chunks of all tables that map a file to the heap.
+    * Once the mappings are garbage collected, the file can be replaced, also
+    * on systems (Windows) that do not replace or delete mapped files.
+    *
+    * @param file absolute, normalized path of the file
+    */
+   static void copyToHeap(Path file) {
+      List<SpotTable> tables = new ArrayList<SpotTable>();
+      synchronized (MAPPED_TABLES) {
+         MAPPED_TABLES.removeIf(ref -> {
+            SpotTable table = ref.get();
+            if (table != null && file.equals(table.mappedFile_)) {
+               tables.add(table);
+               return true;
+            }
+            return table == null;
+         });
+      }
+      for (SpotTable table : tables) {
+         table.copyToHeap();
+      }
+   }
+
+   /**
+    * Replaces the mapped chunks of this table by copies on the heap.
+    */
+   synchronized void copyToHeap() {
+      for (IntBuffer[] chunks : ints_) {
+         copyToHeap(chunks);
+      }
+      for (DoubleBuffer[] chunks : doubles_) {
+         copyToHeap(chunks);
+      }
+      for (DoubleBuffer[] chunks : values_) {
+         copyToHeap(chunks);
+      }
+      ImageGroups groups = imageGroups_;
+      if (groups != null && groups.rows_.isDirect()) {
+         imageGroups_ = new ImageGroups(groups.images_, groups.offsets_,
+               heapCopy(groups.rows_));
+      }
+      mappedFile_ = null;
+   }
+
+   private static void copyToHeap(IntBuffer[] chunks) {
+      for (int chunk = 0; chunk < chunks.length; chunk++) {
+         if (chunks[chunk].isDirect()) {
+            chunks[chunk] = heapCopy(chunks[chunk]);
+         }
+      }
+   }
+
+   private static void copyToHeap(DoubleBuffer[] chunks) {
+      for (int chunk = 0; chunk < chunks.length; chunk++) {
+         if (chunks[chunk].isDirect()) {
+            chunks[chunk] = heapCopy(chunks[chunk]);
+         }
+      }
+   }
+
+   private static IntBuffer heapCopy(IntBuffer buffer) {
+      IntBuffer copy = IntBuffer.allocate(buffer.limit());
+      copy.put(buffer.duplicate()).clear();
+      return copy;
+   }
+
+   private static DoubleBuffer heapCopy(DoubleBuffer buffer) {
+      DoubleBuffer copy = DoubleBuffer.allocate(buffer.limit());
+      copy.put(buffer.duplicate()).clear();
+      return copy;
+   }
+
+   /**
+    * Makes the chunks of a column read-only.
+    *
+    * @return a copy of the array of chunks, for use by another table
+    */
+   private static IntBuffer[] share(IntBuffer[] chunks) {
+      for (int chunk = 0; chunk < chunks.length; chunk++) {
+         if (!chunks[chunk].isReadOnly()) {
+            chunks[chunk] = chunks[chunk].asReadOnlyBuffer();
+         }
+      }
+      return chunks.clone();
+   }
+
+   private static DoubleBuffer[] share(DoubleBuffer[] chunks) {
+      for (int chunk = 0; chunk < chunks.length; chunk++) {
+         if (!chunks[chunk].isReadOnly()) {
+            chunks[chunk] = chunks[chunk].asReadOnlyBuffer();
+         }
+      }
+      return chunks.clone();
+   }
+
+   static int nrChunks(int size) {
+      return (size + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+   }
+
+   static int chunkLength(int size, int chunk) {
+      return Math.min(CHUNK_SIZE, size - (chunk << CHUNK_BITS));
+   }
+
+   IntBuffer getIntChunk(int column, int chunk) {
+      return ints_[column][chunk];
+   }
+
+   DoubleBuffer getDoubleChunk(int column, int chunk) {
+      return doubles_[column][chunk];
+   }
+
+   DoubleBuffer getValueChunk(int key, int chunk) {
+      return values_[key][chunk];
+   }
+
+   /**
+    * @return rows in which a NaN was stored for the key, or null if none
+    */
+   BitSet getStoredNaN(int key) {
+      return storedNaN_[key];
+   }
+
+   @Override
+   public int size() {
+      return size_;
+   }
+
+   /**
+    * @return a view of the spot in the given row
+    */
+   @Override
+   public SpotData get(int row) {
+      if (row < 0 || row >= size_) {
+         throw new IndexOutOfBoundsException("Row " + row + ", size " + size_);
+      }
+      return new Row(row);
+   }
+
+   private int getInt(int column, int row) {
+      return ints_[column][row >>> CHUNK_BITS].get(row & CHUNK_MASK);
+   }
+
+   private double getDouble(int column, int row) {
+      return doubles_[column][row >>> CHUNK_BITS].get(row & CHUNK_MASK);
+   }
+
+   private void setInt(int column, int row, int value) {
+      writable(ints_[column], row >>> CHUNK_BITS).put(row & CHUNK_MASK, value);
+   }
+
+   private void setDouble(int column, int row, double value) {
+      writable(doubles_[column], row >>> CHUNK_BITS).put(row & CHUNK_MASK, value);
+   }
+
+   /**
+    * @return the chunk, after copying it to the heap if it is read-only
+    */
+   private synchronized IntBuffer writable(IntBuffer[] chunks, int chunk) {
+      if (chunks[chunk].isReadOnly()) {
+         chunks[chunk] = heapCopy(chunks[chunk]);
+      }
+      return chunks[chunk];
+   }
+
+   private synchronized DoubleBuffer writable(DoubleBuffer[] chunks, int chunk) {
+      if (chunks[chunk].isReadOnly()) {
+         chunks[chunk] = heapCopy(chunks[chunk]);
+      }
+      return chunks[chunk];
+   }
+
+   public int getFrame(int row) {
+      return getInt(FRAME, row);
+   }
+
+   public int getChannel(int row) {
+      return getInt(CHANNEL, row);
+   }
+
+   public int getSlice(int row) {
+      return getInt(SLICE, row);
+   }
+
+   public int getPosition(int row) {
+      return getInt(POSITION, row);
+   }
+
+   public int getNr(int row) {
+      return getInt(NR, row);
+   }
+
+   public int getX(int row) {
+      return getInt(X, row);
+   }
+
+   public int getY(int row) {
+      return getInt(Y, row);
+   }
+
+   public double getIntensity(int row) {
+      return getDouble(INTENSITY, row);
+   }
+
+   public double getBackground(int row) {
+      return getDouble(BACKGROUND, row);
+   }
+
+   public double getXCenter(int row) {
+      return getDouble(X_CENTER, row);
+   }
+
+   public double getYCenter(int row) {
+      return getDouble(Y_CENTER, row);
+   }
+
+   public double getZCenter(int row) {
+      return getDouble(Z_CENTER, row);
+   }
+
+   public double getXOri(int row) {
+      return getDouble(X_ORI, row);
+   }
+
+   public double getYOri(int row) {
+      return getDouble(Y_ORI, row);
+   }
+
+   public double getZOri(int row) {
+      return getDouble(Z_ORI, row);
+   }
+
+   public double getWidth(int row) {
+      return getDouble(WIDTH, row);
+   }
+
+   public double getA(int row) {
+      return getDouble(A, row);
+   }
+
+   public double getTheta(int row) {
+      return getDouble(THETA, row);
+   }
+
+   public double getSigma(int row) {
+      return getDouble(SIGMA, row);
+   }
+
+   /**
+    * @return keys of all key/values in the table
+    */
+   public String[] getKeys() {
+      return keys_.clone();
+   }
+
+   private int keyIndex(String key) {
+      String[] keys = keys_;
+      for (int k = 0; k < keys.length; k++) {
+         if (keys[k].equals(key)) {
+            return k;
+         }
+      }
+      return -1;
+   }
+
+   private boolean hasKey(int k, int row) {
+      double value = values_[k][row >>> CHUNK_BITS].get(row & CHUNK_MASK);
+      return value == value || (storedNaN_[k] != null && storedNaN_[k].get(row));
+   }
+
+   public boolean hasKey(int row, String key) {
+      int k = keyIndex(key);
+      return k >= 0 && hasKey(k, row);
+   }
+
+   /**
+    * @return value of the key in the given row, or null if the spot does
+    *         not have the key
+    */
+   public Double getValue(int row, String key) {
+      int k = keyIndex(key);
+      if (k < 0 || !hasKey(k, row)) {
+         return null;
+      }
+      return values_[k][row >>> CHUNK_BITS].get(row & CHUNK_MASK);
+   }
+
+   private synchronized void setValue(int row, String key, double value) {
+      int k = keyIndex(key);
+      if (k < 0) {
+         k = keys_.length;
+         DoubleBuffer[] column = new DoubleBuffer[nrChunks(size_)];
+         for (int chunk = 0; chunk < column.length; chunk++) {
+            double[] array = new double[chunkLength(size_, chunk)];
+            Arrays.fill(array, Double.NaN);
+            column[chunk] = DoubleBuffer.wrap(array);
+         }
+         DoubleBuffer[][] values = Arrays.copyOf(values_, k + 1);
+         values[k] = column;
+         String[] keys = Arrays.copyOf(keys_, k + 1);
+         keys[k] = key;
+         storedNaN_ = Arrays.copyOf(storedNaN_, k + 1);
+         values_ = values;
+         keys_ = keys;
+      }
+      if (value != value) {
+         if (storedNaN_[k] == null) {
+            storedNaN_[k] = new BitSet();
+         }
+         storedNaN_[k].set(row);
+      }
+      writable(values_[k], row >>> CHUNK_BITS).put(row & CHUNK_MASK, value);
+   }
+
+   /**
+    * Groups the rows of the table. The groups are views onto the table,
+    * with their rows in table order; together, they use a single array of
+    * row numbers, in which every group is a range.
+    *
+    * @param key gives the key of the group of a row
+    * @param <K> type of the key
+    * @return map from key to the spots with that key
+    */
+   public <K> Map<K, List<SpotData>> groupBy(IntFunction<K> key) {
+      Map<K, int[]> ranges = new LinkedHashMap<K, int[]>();
+      IntBuffer rows = group(key, ranges);
+      Map<K, List<SpotData>> groups = new HashMap<K, List<SpotData>>(2 * ranges.size());
+      for (Map.Entry<K, int[]> entry : ranges.entrySet()) {
+         int[] range = entry.getValue();
+         groups.put(entry.getKey(), new Rows(rows, range[0], range[1]));
+      }
+      return groups;
+   }
+
+   /**
+    * Sorts the rows by key (counting sort).
+    *
+    * @param ranges receives the start and end of the range of each key, in
+    *               order of first appearance
+    * @return row numbers, grouped by key
+    */
+   private <K> IntBuffer group(IntFunction<K> key, Map<K, int[]> ranges) {
+      // Count the rows of each group, then turn counts into offsets
+      for (int row = 0; row < size_; row++) {
+         K k = key.apply(row);
+         int[] range = ranges.get(k);
+         if (range == null) {
+            ranges.put(k, new int[] {0, 1});
+         } else {
+            range[1]++;
+         }
+      }
+      int offset = 0;
+      for (int[] range : ranges.values()) {
+         range[0] = offset;
+         offset += range[1];
+         range[1] = range[0];
+      }
+      // range[1] is where the next row of the group goes, and ends up at the
+      // end of the range
+      int[] rows = new int[size_];
+      for (int row = 0; row < size_; row++) {
+         rows[ranges.get(key.apply(row))[1]++] = row;
+      }
+      return IntBuffer.wrap(rows);
+   }
+
+   /**
+    * @return rows of the table, grouped by frame, slice, channel and position
+    */
+   ImageGroups getImageGroups() {
+      ImageGroups groups = imageGroups_;
+      if (groups == null) {
+         Map<ImageIndex, int[]> ranges = new LinkedHashMap<ImageIndex, int[]>();
+         IntBuffer rows = group(row -> new ImageIndex(getFrame(row), getSlice(row),
+               getChannel(row), getPosition(row)), ranges);
+         ImageIndex[] images = ranges.keySet().toArray(new ImageIndex[ranges.size()]);
+         int[] offsets = new int[images.length + 1];
+         for (int i = 0; i < images.length; i++) {
+            offsets[i] = ranges.get(images[i])[0];
+         }
+         offsets[images.length] = size_;
+         groups = new ImageGroups(images, offsets, rows);
+         imageGroups_ = groups;
+      }
+      return groups;
+   }
+
+   /**
+    * Groups the rows by image (frame, slice, channel and position). The
+    * grouping is stored with the table when it is saved as a SpotTableFile,
+    * so that the spots of an image can be read without reading the others.
+    *
+    * @return map from image to the spots in that image
+    */
+   public Map<ImageIndex, List<SpotData>> groupByImage() {
+      ImageGroups groups = getImageGroups();
+      Map<ImageIndex, List<SpotData>> result = new HashMap<ImageIndex, List<SpotData>>(
+            2 * groups.images_.length);
+      for (int i = 0; i < groups.images_.length; i++) {
+         result.put(groups.images_[i],
+               new Rows(groups.rows_, groups.offsets_[i], groups.offsets_[i + 1]));
+      }
+      return result;
+   }
+
+   /**
+    * Views of some rows of the table.
+    */
+   private final class Rows extends AbstractList<SpotData> implements RandomAccess {
+      private final IntBuffer rows_;
+      private final int start_;
+      private final int end_;
+
+      private Rows(IntBuffer rows, int start, int end) {
+         rows_ = rows;
+         start_ = start;
+         end_ = end;
+      }
+
+      @Override
+      public SpotData get(int index) {
+         if (index < 0 || index >= end_ - start_) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size "
+                  + (end_ - start_));
+         }
+         return new Row(rows_.get(start_ + index));
+      }
+
+      @Override
+      public int size() {
+         return end_ - start_;
+      }
+   }
+
+   /**
+    * View of one spot.
+    */
+   private final class Row extends SpotData {
+      private final int row_;
+
+      private Row(int row) {
+         row_ = row;
+         nrLinks_ = getInt(NR_LINKS, row);
+         originalFrame_ = getInt(ORIGINAL_FRAME, row);
+      }
+
+      @Override
+      public boolean equals(Object other) {
+         if (!(other instanceof Row)) {
+            return false;
+         }
+         Row otherRow = (Row) other;
+         return otherRow.row_ == row_ && otherRow.table() == SpotTable.this;
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * System.identityHashCode(SpotTable.this) + row_;
+      }
+
+      private SpotTable table() {
+         return SpotTable.this;
+      }
+
+      @Override
+      public void setData(double intensity, double background, double xCenter,
+                          double yCenter, double zCenter, double width, double a,
+                          double theta, double sigma) {
+         // like SpotData.setData, leaves z alone
+         setDouble(INTENSITY, row_, intensity);
+         setDouble(BACKGROUND, row_, background);
+         setDouble(X_CENTER, row_, xCenter);
+         setDouble(Y_CENTER, row_, yCenter);
+         setDouble(WIDTH, row_, width);
+         setDouble(A, row_, a);
+         setDouble(THETA, row_, theta);
+         setDouble(SIGMA, row_, sigma);
+      }
+
+      @Override
+      public void addKeyValue(String key, double value) {
+         setValue(row_, key, value);
+      }
+
+      @Override
+      public Double getValue(String key) {
+         return SpotTable.this.getValue(row_, key);
+      }
+
+      @Override
+      public Double getValue(String key, double fallbackValue) {
+         Double value = SpotTable.this.getValue(row_, key);
+         return value == null ? fallbackValue : value;
+      }
+
+      @Override
+      public String[] getKeys() {
+         String[] keys = keys_;
+         List<String> result = new ArrayList<String>(keys.length);
+         for (int k = 0; k < keys.length; k++) {
+            if (SpotTable.this.hasKey(k, row_)) {
+               result.add(keys[k]);
+            }
+         }
+         return result.toArray(new String[result.size()]);
+      }
+
+      @Override
+      public boolean hasKey(String key) {
+         return SpotTable.this.hasKey(row_, key);
+      }
+
+      @Override
+      public void setOriginalPosition(double xPos, double yPos, double zPos) {
+         setDouble(X_ORI, row_, xPos);
+         setDouble(Y_ORI, row_, yPos);
+         setDouble(Z_ORI, row_, zPos);
+      }
+
+      @Override
+      public ImageProcessor getImageProcessor() {
+         return null;
+      }
+
+      @Override
+      public void setImageProcessor(ImageProcessor ip) {
+         throw new UnsupportedOperationException("Spots in a table do not hold pixels");
+      }
+
+      @Override
+      public int getFrame() {
+         return SpotTable.this.getFrame(row_);
+      }
+
+      @Override
+      public int getSlice() {
+         return SpotTable.this.getSlice(row_);
+      }
+
+      @Override
+      public int getChannel() {
+         return SpotTable.this.getChannel(row_);
+      }
+
+      @Override
+      public int getPosition() {
+         return SpotTable.this.getPosition(row_);
+      }
+
+      @Override
+      public void setPosition(int position) {
+         setInt(POSITION, row_, position);
+         imageGroups_ = null;
+      }
+
+      @Override
+      public int getNr() {
+         return SpotTable.this.getNr(row_);
+      }
+
+      @Override
+      public int getX() {
+         return SpotTable.this.getX(row_);
+      }
+
+      @Override
+      public int getY() {
+         return SpotTable.this.getY(row_);
+      }
+
+      @Override
+      public double getIntensity() {
+         return SpotTable.this.getIntensity(row_);
+      }
+
+      @Override
+      public double getBackground() {
+         return SpotTable.this.getBackground(row_);
+      }
+
+      @Override
+      public double getXCenter() {
+         return SpotTable.this.getXCenter(row_);
+      }
+
+      @Override
+      public void setXCenter(double x) {
+         setDouble(X_CENTER, row_, x);
+      }
+
+      @Override
+      public double getYCenter() {
+         return SpotTable.this.getYCenter(row_);
+      }
+
+      @Override
+      public void setYCenter(double y) {
+         setDouble(Y_CENTER, row_, y);
+      }
+
+      @Override
+      public double getZCenter() {
+         return SpotTable.this.getZCenter(row_);
+      }
+
+      @Override
+      public void setZCenter(double z) {
+         setDouble(Z_CENTER, row_, z);
+      }
+
+      @Override
+      public double getXOri() {
+         return SpotTable.this.getXOri(row_);
+      }
+
+      @Override
+      public double geYOri() {
+         return SpotTable.this.getYOri(row_);
+      }
+
+      @Override
+      public double getZOri() {
+         return SpotTable.this.getZOri(row_);
+      }
+
+      @Override
+      public double getWidth() {
+         return SpotTable.this.getWidth(row_);
+      }
+
+      @Override
+      public double getA() {
+         return SpotTable.this.getA(row_);
+      }
+
+      @Override
+      public double getTheta() {
+         return SpotTable.this.getTheta(row_);
+      }
+
+      @Override
+      public double getSigma() {
+         return SpotTable.this.getSigma(row_);
+      }
+   }
+}
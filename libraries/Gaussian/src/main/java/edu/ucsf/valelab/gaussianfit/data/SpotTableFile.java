@@ -0,0 +1,443 @@
+/*
+Copyright (c) 2013-2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.data;
+
+import edu.ucsf.valelab.gaussianfit.DataCollectionForm.Coordinates;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * Reads and writes data sets in a file format made for memory mapping.
+ *
+ * <p>The file starts with a header, holding the description of the data set
+ * (everything RowData holds besides its spots), the keys of the key/values,
+ * and the images (frame, slice, channel and position) with spots. It is
+ * followed by the columns of the SpotTable, one chunk of CHUNK_SIZE rows
+ * after the other. Opening a file only reads the header: the columns are
+ * memory mapped, so that the operating system reads them when they are used
+ * (the spots of one image, or a few columns of all spots), and keeps them in
+ * its cache rather than in the Java heap. All numbers are big-endian:
+ *
+ * <pre>
+ * int magic, int version, int chunk size, long offset of the first chunk
+ * data set, see writeDataSet
+ * int nr of rows, int nr of keys
+ *    per key: string key, int n, n ints: rows in which NaN is stored
+ * int nr of images
+ *    per image: int frame, slice, channel, position, start in the row list
+ * row list: nr of rows ints, the rows of the images one after the other
+ * per chunk: 12 double columns, 1 double column per key, 9 int columns
+ * </pre>
+ *
+ * <p>Row lists and chunks start at a multiple of 8 bytes. Since the row
+ * list is mapped as a whole, a file holds at most 2^29 spots.
+ *
+ * <p>Windows does not replace a file that is mapped. When a file that is
+ * mapped by data sets is written, and can not be replaced, the spots of
+ * those data sets are copied to the heap, and the file is replaced once
+ * their mappings have been garbage collected.
+ */
+public final class SpotTableFile {
+
+   public static final String EXTENSION = ".stf";
+   private static final int MAGIC = 0x4d4d5354;
+   private static final int VERSION = 1;
+   private static final int MAX_ROWS = Integer.MAX_VALUE / 4;
+   // Attempts to replace a file after its mappings have been released
+   private static final int MAX_REPLACE_ATTEMPTS = 10;
+
+   private SpotTableFile() {
+   }
+
+   /**
+    * Writes a data set. Columns are written in parallel, every chunk of a
+    * column by its own task. The data are written to a temporary file that
+    * replaces the file when complete, so that a data set that was read from
+    * the file can be saved to it again. If the file can not be replaced
+    * because it is mapped, data sets that map it are first copied to the
+    * heap.
+    *
+    * @param rowData data set to be written
+    * @param file    file to write to, will be replaced
+    * @throws IOException when the file can not be written
+    */
+   public static void write(RowData rowData, File file) throws IOException {
+      final SpotTable table = rowData.spotList_;
+      final int size = table.size();
+      if (size > MAX_ROWS) {
+         throw new IOException("Data sets with more than " + MAX_ROWS
+               + " spots can not be saved in this format");
+      }
+      final String[] keys = table.getKeys();
+      SpotTable.ImageGroups groups = table.getImageGroups();
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(SpotTable.CHUNK_SIZE);
+      out.writeLong(0L); // offset of the first chunk, set below
+      writeDataSet(out, rowData);
+      out.writeInt(size);
+      out.writeInt(keys.length);
+      for (int k = 0; k < keys.length; k++) {
+         out.writeUTF(keys[k]);
+         BitSet storedNaN = table.getStoredNaN(k);
+         if (storedNaN == null) {
+            out.writeInt(0);
+         } else {
+            out.writeInt(storedNaN.cardinality());
+            for (int row = storedNaN.nextSetBit(0); row >= 0;
+                  row = storedNaN.nextSetBit(row + 1)) {
+               out.writeInt(row);
+            }
+         }
+      }
+      out.writeInt(groups.images_.length);
+      for (int i = 0; i < groups.images_.length; i++) {
+         ImageIndex image = groups.images_[i];
+         out.writeInt(image.getFrame());
+         out.writeInt(image.getSlice());
+         out.writeInt(image.getChannel());
+         out.writeInt(image.getPosition());
+         out.writeInt(groups.offsets_[i]);
+      }
+      while (out.size() % 8 != 0) {
+         out.writeByte(0);
+      }
+      out.flush();
+      final long rowsOffset = out.size();
+      final long firstChunk = rowsOffset + pad(4L * size);
+      final byte[] header = bytes.toByteArray();
+      ByteBuffer.wrap(header).putLong(12, firstChunk);
+
+      final IntBuffer rows = groups.rows_;
+      final int nrChunks = SpotTable.nrChunks(size);
+      final int nrDoubles = SpotTable.NR_DOUBLE_COLUMNS + keys.length;
+      final int columnsPerChunk = nrDoubles + SpotTable.NR_INT_COLUMNS;
+      Path path = file.toPath();
+      Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+         write(channel, ByteBuffer.wrap(header), 0L);
+         // One task per chunk of the row list, and per chunk of every column
+         IntStream.range(0, nrChunks * (1 + columnsPerChunk)).parallel().forEach(task -> {
+            int chunk = task / (1 + columnsPerChunk);
+            int column = task % (1 + columnsPerChunk) - 1;
+            int length = SpotTable.chunkLength(size, chunk);
+            long chunkOffset = firstChunk + chunk * chunkBytes(SpotTable.CHUNK_SIZE, nrDoubles);
+            ByteBuffer buffer;
+            long offset;
+            if (column < 0) {
+               buffer = ByteBuffer.allocate(4 * length);
+               IntBuffer source = rows.duplicate();
+               source.position(chunk << SpotTable.CHUNK_BITS);
+               source.limit(source.position() + length);
+               buffer.asIntBuffer().put(source);
+               offset = rowsOffset + 4L * (chunk << SpotTable.CHUNK_BITS);
+            } else if (column < nrDoubles) {
+               buffer = ByteBuffer.allocate(8 * length);
+               DoubleBuffer source = column < SpotTable.NR_DOUBLE_COLUMNS
+                     ? table.getDoubleChunk(column, chunk).duplicate()
+                     : table.getValueChunk(column - SpotTable.NR_DOUBLE_COLUMNS, chunk)
+                           .duplicate();
+               source.position(0);
+               source.limit(length);
+               buffer.asDoubleBuffer().put(source);
+               offset = chunkOffset + 8L * length * column;
+            } else {
+               buffer = ByteBuffer.allocate(4 * length);
+               IntBuffer source = table.getIntChunk(column - nrDoubles, chunk).duplicate();
+               source.position(0);
+               source.limit(length);
+               buffer.asIntBuffer().put(source);
+               offset = chunkOffset + 8L * length * nrDoubles
+                     + 4L * length * (column - nrDoubles);
+            }
+            try {
+               write(channel, buffer, offset);
+            } catch (IOException ioe) {
+               throw new UncheckedIOException(ioe);
+            }
+         });
+         // Padding at the end of the last chunk
+         long end = end(firstChunk, size, nrDoubles);
+         if (channel.size() < end) {
+            write(channel, ByteBuffer.allocate((int) (end - channel.size())), channel.size());
+         }
+      } catch (UncheckedIOException uioe) {
+         Files.deleteIfExists(tmp);
+         throw uioe.getCause();
+      } catch (IOException ioe) {
+         Files.deleteIfExists(tmp);
+         throw ioe;
+      }
+      replace(tmp, path);
+   }
+
+   /**
+    * Moves the temporary file to the file it replaces. Where a mapped file
+    * can not be replaced, the tables that map it are copied to the heap,
+    * and the move is tried again after garbage collection has released the
+    * mappings (there is no other way to unmap a file).
+    */
+   private static void replace(Path tmp, Path path) throws IOException {
+      try {
+         Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+         return;
+      } catch (FileSystemException fse) {
+         SpotTable.copyToHeap(path.toAbsolutePath().normalize());
+         for (int attempt = 1; ; attempt++) {
+            System.gc();
+            try {
+               Thread.sleep(100L * attempt);
+               Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+               return;
+            } catch (FileSystemException retry) {
+               if (attempt == MAX_REPLACE_ATTEMPTS) {
+                  Files.deleteIfExists(tmp);
+                  throw new IOException("Can not replace " + path.getFileName()
+                        + ", it may be in use", retry);
+               }
+            } catch (InterruptedException ie) {
+               Thread.currentThread().interrupt();
+               Files.deleteIfExists(tmp);
+               throw new IOException("Interrupted while replacing " + path.getFileName());
+            }
+         }
+      }
+   }
+
+   /**
+    * Opens a data set. Only the header is read; the spots are read from the
+    * file when they are used.
+    *
+    * @param file file written by {@link #write(RowData, File)}
+    * @return builder for the data set, with all values from the file set
+    * @throws IOException when the file can not be read, or has another format
+    */
+   public static RowData.Builder open(File file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         DataInputStream in = new DataInputStream(
+               new BufferedInputStream(Channels.newInputStream(channel)));
+         if (in.readInt() != MAGIC) {
+            throw new IOException("Not a spot table file: " + file.getName());
+         }
+         int version = in.readInt();
+         if (version != VERSION) {
+            throw new IOException("Unsupported spot table file version: " + version);
+         }
+         if (in.readInt() != SpotTable.CHUNK_SIZE) {
+            throw new IOException("Unsupported spot table chunk size");
+         }
+         long firstChunk = in.readLong();
+         RowData.Builder builder = readDataSet(in);
+         int size = in.readInt();
+         String[] keys = new String[in.readInt()];
+         BitSet[] storedNaN = new BitSet[keys.length];
+         for (int k = 0; k < keys.length; k++) {
+            keys[k] = in.readUTF();
+            int nrNaN = in.readInt();
+            if (nrNaN > 0) {
+               storedNaN[k] = new BitSet();
+               for (int i = 0; i < nrNaN; i++) {
+                  storedNaN[k].set(in.readInt());
+               }
+            }
+         }
+         ImageIndex[] images = new ImageIndex[in.readInt()];
+         int[] offsets = new int[images.length + 1];
+         for (int i = 0; i < images.length; i++) {
+            images[i] = new ImageIndex(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            offsets[i] = in.readInt();
+         }
+         offsets[images.length] = size;
+
+         int nrChunks = SpotTable.nrChunks(size);
+         int nrDoubles = SpotTable.NR_DOUBLE_COLUMNS + keys.length;
+         // Reading a mapped page beyond the end of the file crashes the JVM
+         if (size < 0 || size > MAX_ROWS
+               || channel.size() < end(firstChunk, size, nrDoubles)) {
+            throw new IOException("Spot table file is truncated or damaged: "
+                  + file.getName());
+         }
+         IntBuffer rows = channel.map(FileChannel.MapMode.READ_ONLY,
+               firstChunk - pad(4L * size), 4L * size).asIntBuffer();
+         IntBuffer[][] ints = new IntBuffer[SpotTable.NR_INT_COLUMNS][nrChunks];
+         DoubleBuffer[][] doubles = new DoubleBuffer[SpotTable.NR_DOUBLE_COLUMNS][nrChunks];
+         DoubleBuffer[][] values = new DoubleBuffer[keys.length][nrChunks];
+         for (int chunk = 0; chunk < nrChunks; chunk++) {
+            int length = SpotTable.chunkLength(size, chunk);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+                  firstChunk + chunk * chunkBytes(SpotTable.CHUNK_SIZE, nrDoubles),
+                  chunkBytes(length, nrDoubles));
+            for (int column = 0; column < nrDoubles; column++) {
+               DoubleBuffer buffer = slice(map, 8 * length * column, 8 * length)
+                     .asDoubleBuffer();
+               if (column < SpotTable.NR_DOUBLE_COLUMNS) {
+                  doubles[column][chunk] = buffer;
+               } else {
+                  values[column - SpotTable.NR_DOUBLE_COLUMNS][chunk] = buffer;
+               }
+            }
+            for (int column = 0; column < SpotTable.NR_INT_COLUMNS; column++) {
+               ints[column][chunk] = slice(map, 8 * length * nrDoubles + 4 * length * column,
+                     4 * length).asIntBuffer();
+            }
+         }
+         SpotTable table = new SpotTable(size, ints, doubles, keys, values, storedNaN,
+               new SpotTable.ImageGroups(images, offsets, rows));
+         table.setMappedFile(file.toPath().toAbsolutePath().normalize());
+         return builder.setSpotList(table);
+      }
+   }
+
+   /**
+    * @return offset of the end of the last chunk
+    */
+   private static long end(long firstChunk, int size, int nrDoubles) {
+      int nrChunks = SpotTable.nrChunks(size);
+      if (nrChunks == 0) {
+         return firstChunk;
+      }
+      return firstChunk + (nrChunks - 1) * chunkBytes(SpotTable.CHUNK_SIZE, nrDoubles)
+            + chunkBytes(SpotTable.chunkLength(size, nrChunks - 1), nrDoubles);
+   }
+
+   private static long chunkBytes(int length, int nrDoubles) {
+      return pad(8L * length * nrDoubles + 4L * length * SpotTable.NR_INT_COLUMNS);
+   }
+
+   private static long pad(long bytes) {
+      return (bytes + 7) & ~7L;
+   }
+
+   private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+      ByteBuffer slice = buffer.duplicate();
+      slice.position(position);
+      slice.limit(position + length);
+      return slice.slice();
+   }
+
+   private static void write(FileChannel channel, ByteBuffer buffer, long offset)
+         throws IOException {
+      // Positional writes can be used by several threads at once
+      while (buffer.hasRemaining()) {
+         channel.write(buffer, offset + buffer.position());
+      }
+   }
+
+   private static void writeDataSet(DataOutputStream out, RowData rowData)
+         throws IOException {
+      writeString(out, rowData.getName());
+      writeString(out, rowData.title_);
+      writeString(out, rowData.colCorrRef_);
+      out.writeInt(rowData.width_);
+      out.writeInt(rowData.height_);
+      out.writeFloat(rowData.pixelSizeNm_);
+      out.writeFloat(rowData.zStackStepSizeNm_);
+      out.writeInt(rowData.shape_);
+      out.writeInt(rowData.halfSize_);
+      out.writeInt(rowData.nrChannels_);
+      out.writeInt(rowData.nrFrames_);
+      out.writeInt(rowData.nrSlices_);
+      out.writeInt(rowData.nrPositions_);
+      out.writeLong(rowData.maxNrSpots_);
+      out.writeBoolean(rowData.isTrack_);
+      out.writeUTF(rowData.coordinate_.name());
+      out.writeBoolean(rowData.hasZ_);
+      out.writeDouble(rowData.minZ_);
+      out.writeDouble(rowData.maxZ_);
+      if (rowData.timePoints_ == null) {
+         out.writeInt(-1);
+      } else {
+         out.writeInt(rowData.timePoints_.size());
+         for (Double timePoint : rowData.timePoints_) {
+            out.writeDouble(timePoint);
+         }
+      }
+   }
+
+   private static RowData.Builder readDataSet(DataInputStream in) throws IOException {
+      RowData.Builder builder = new RowData.Builder();
+      builder.setName(readString(in)).setTitle(readString(in)).setColColorRef(readString(in))
+            .setWidth(in.readInt()).setHeight(in.readInt())
+            .setPixelSizeNm(in.readFloat()).setZStackStepSizeNm(in.readFloat())
+            .setShape(in.readInt()).setHalfSize(in.readInt())
+            .setNrChannels(in.readInt()).setNrFrames(in.readInt())
+            .setNrSlices(in.readInt()).setNrPositions(in.readInt())
+            .setMaxNrSpots(in.readLong()).setIsTrack(in.readBoolean());
+      try {
+         builder.setCoordinate(Coordinates.valueOf(in.readUTF()));
+      } catch (IllegalArgumentException iae) {
+         throw new IOException("Unknown coordinates in spot table file");
+      }
+      builder.setHasZ(in.readBoolean()).setMinZ(in.readDouble()).setMaxZ(in.readDouble());
+      int nrTimePoints = in.readInt();
+      if (nrTimePoints >= 0) {
+         ArrayList<Double> timePoints = new ArrayList<Double>(nrTimePoints);
+         for (int i = 0; i < nrTimePoints; i++) {
+            timePoints.add(in.readDouble());
+         }
+         builder.setTimePoints(timePoints);
+      }
+      return builder;
+   }
+
+   private static void writeString(DataOutputStream out, String string) throws IOException {
+      out.writeBoolean(string != null);
+      if (string != null) {
+         out.writeUTF(string);
+      }
+   }
+
+   private static String readString(DataInputStream in) throws IOException {
+      return in.readBoolean() ? in.readUTF() : null;
+   }
+}
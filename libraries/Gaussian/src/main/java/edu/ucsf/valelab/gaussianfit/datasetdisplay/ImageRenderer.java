@@ -33,9 +33,8 @@ either expressed or implied, of the FreeBSD Project.
 package edu.ucsf.valelab.gaussianfit.datasetdisplay;
 
 import edu.ucsf.valelab.gaussianfit.data.RowData;
-import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
 import edu.ucsf.valelab.gaussianfit.datasettransformations.SpotDataFilter;
-import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
 import ij.ImageStack;
 import ij.process.ColorProcessor;
 import ij.process.FloatProcessor;
@@ -46,12 +45,24 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.micromanager.internal.utils.ParallelPixels;
 
 /**
+ * Renders spot data as images.
+ *
+ * <p>Spots are looked up by position (see SpotBins), and the image is
+ * divided into tiles that are rendered in parallel, each from the spots that
+ * can reach it. Rendering a region of the data set, or the whole data set
+ * at another magnification, reuses the bins of earlier renders.
+ *
  * @author Nico Stuurman
  */
 public class ImageRenderer {
 
+   // Edge length of the tiles that are rendered in parallel
+   static final int TILE_SIZE = 128;
+
    private final int[][] iceLut_ = new int[256][];
    static int[][] zLut_ = new int[256][];
 
@@ -88,51 +99,56 @@ public class ImageRenderer {
       final int height = rect.height;
       final int fullWidth = (int) (rowData.width_ * magnification);
       final int fullHeight = (int) (rowData.height_ * magnification);
-      int endx = rect.x + rect.width;
-      int endy = rect.y + rect.height;
+      final int endx = rect.x + rect.width;
+      final int endy = rect.y + rect.height;
       final int size = width * height;
-      double factor = magnification / rowData.pixelSizeNm_;
+      final double factor = magnification / rowData.pixelSizeNm_;
+      final SpotTable spots = rowData.spotList_;
+      final SpotBins bins = SpotBins.of(rowData, sf);
+      final Rectangle r = rect;
 
       try {
          if (method == 0) {
             if (!rowData.hasZ_) {
                ip = new ShortProcessor(width, height);
-               short[] pixels = new short[size];
+               final short[] pixels = new short[size];
                ip.setPixels(pixels);
-               for (SpotData spot : rowData.spotList_) {
-                  if (sf.filter(spot)) {
-                     int x = (int) (factor * spot.getXCenter());
-                     int y = (int) (factor * spot.getYCenter());
-                     if (x > rect.x && x < endx && y > rect.y && y < endy) {
-                        x -= rect.x;
-                        y -= rect.y;
+               ParallelPixels.forEachTile(width, height, TILE_SIZE, (x0, y0, x1, y1) -> {
+                  for (int row : tileRows(bins, r, factor, x0, y0, x1, y1, 1, false)) {
+                     int x = (int) (factor * spots.getXCenter(row));
+                     int y = (int) (factor * spots.getYCenter(row));
+                     if (x > r.x && x < endx && y > r.y && y < endy) {
+                        x -= r.x;
+                        y -= r.y;
                         int index = (y * width) + x;
-                        if (index < size && index > 0) {
+                        if (x >= x0 && x < x1 && y >= y0 && y < y1
+                              && index < size && index > 0) {
                            if (pixels[index] != -1) {
                               pixels[index] += 1;
                            }
                         }
                      }
                   }
-               }
+               });
             } else if (rowData.hasZ_) {
                ShortProcessor[] sp = new ShortProcessor[3];
-               short[][] pixels = new short[3][size];
+               final short[][] pixels = new short[3][size];
                for (int i = 0; i < 3; i++) {
                   sp[i] = new ShortProcessor(width, height);
                   sp[i].setPixels(pixels[i]);
                }
-               double spread = rowData.maxZ_ - rowData.minZ_;
-               for (SpotData spot : rowData.spotList_) {
-                  if (sf.filter(spot)) {
-                     int x = (int) (factor * spot.getXCenter());
-                     int y = (int) (factor * spot.getYCenter());
-                     if (x > rect.x && x < endx && y > rect.y && y < endy) {
-                        x -= rect.x;
-                        y -= rect.y;
+               final double spread = rowData.maxZ_ - rowData.minZ_;
+               ParallelPixels.forEachTile(width, height, TILE_SIZE, (x0, y0, x1, y1) -> {
+                  for (int row : tileRows(bins, r, factor, x0, y0, x1, y1, 1, false)) {
+                     int x = (int) (factor * spots.getXCenter(row));
+                     int y = (int) (factor * spots.getYCenter(row));
+                     if (x > r.x && x < endx && y > r.y && y < endy) {
+                        x -= r.x;
+                        y -= r.y;
                         int index = (y * width) + x;
-                        if (index < size && index > 0) {
-                           int zIndex = (int) (256 * (spot.getZCenter() - rowData.minZ_) / spread);
+                        if (x >= x0 && x < x1 && y >= y0 && y < y1
+                              && index < size && index > 0) {
+                           int zIndex = (int) (256 * (spots.getZCenter(row) - rowData.minZ_) / spread);
                            if (zIndex < 0) {
                               zIndex = 0;
                            }
@@ -145,7 +161,7 @@ public class ImageRenderer {
                         }
                      }
                   }
-               }
+               });
                // we have 3 ShortProcessors.  Combine into a color image:
                final ColorProcessor cp = new ColorProcessor(width, height);
                byte[][] colorPixels = new byte[3][];
@@ -172,106 +188,87 @@ public class ImageRenderer {
          } else if (method == 1 || method == 2) {  // Gaussian and normalized Gaussian
 
             // determines whether gaussians should be normalized by their total intensity
-            boolean normalize = false;
-            if (method == 2) {
-               normalize = true;
-            }
+            final boolean normalize = method == 2;
 
             ip = new FloatProcessor(width, height);
-            float[] pixels = new float[size];
+            final float[] pixels = new float[size];
             ip.setPixels(pixels);
 
             ij.IJ.showStatus("Rendering Image...");
-            int updateQuantum = rowData.spotList_.size() / 100;
-            int counter = 0;
-            int spotsUsed = 0;
-            for (SpotData spot : rowData.spotList_) {
-               if (counter % updateQuantum == 0) {
-                  ij.IJ.showProgress(counter, rowData.spotList_.size());
-               }
-
-               if (sf.filter(spot)) {
-
-                  // cover 3 * precision
-                  int halfWidth = (int) (2 * spot.getSigma() / renderedPixelInNm);
+            // spots cover 2 sigma on each side
+            final int margin = Math.max(2, (int) (2 * bins.getMaxSigma() / renderedPixelInNm));
+            final AtomicInteger spotsUsed = new AtomicInteger(0);
+            final AtomicInteger tilesDone = new AtomicInteger(0);
+            final int nrTiles = ((width + TILE_SIZE - 1) / TILE_SIZE)
+                  * ((height + TILE_SIZE - 1) / TILE_SIZE);
+            ParallelPixels.forEachTile(width, height, TILE_SIZE, (x0, y0, x1, y1) -> {
+               // Spots are added in table order, so that pixels add up the same
+               // no matter how the image is divided into tiles
+               for (int row : tileRows(bins, r, factor, x0, y0, x1, y1, margin + 1, true)) {
+                  final double xCenter = spots.getXCenter(row);
+                  final double yCenter = spots.getYCenter(row);
+                  final double sigma = spots.getSigma(row);
+
+                  // cover 2 * precision
+                  int halfWidth = (int) (2 * sigma / renderedPixelInNm);
                   if (halfWidth == 0) {
                      halfWidth = 2;
                   }
 
-                  /*
-                   * A *  exp(-((x-xc)^2+(y-yc)^2)/(2 sigy^2))+b
-                   * A = params[INT]  (amplitude)
-                   * b = params[BGR]  (background)
-                   * xc = params[XC]
-                   * yc = params[YC]
-                   * sig = params[S]
-                   *
-                   */
-                  int xc = (int) (factor * spot.getXCenter());
-                  int yc = (int) (factor * spot.getYCenter());
-                  //int xc = (int) Math.round(spot.getXCenter() / renderedPixelInNm);
-                  //int yc = (int) Math.round(spot.getYCenter() / renderedPixelInNm);
-
-                  if (xc > rect.x + halfWidth && xc < endx - halfWidth
-                        && yc > rect.y + halfWidth && yc < endy - halfWidth) {
-
-                     if (xc > halfWidth && xc < (fullWidth - halfWidth)
-                           && yc > halfWidth && yc < (fullHeight - halfWidth)) {
-                        counter++;
-                        spotsUsed++;
-                        double totalInt = 0.0;
-                        int xStart = xc - halfWidth;
-                        int xEnd = xc + halfWidth;
-                        int yStart = yc - halfWidth;
-                        int yEnd = yc + halfWidth;
-                        float[][] boxPixels = new float[xEnd - xStart][yEnd - yStart];
-                        for (int x = xStart; x < xEnd; x++) {
-                           for (int y = yStart; y < yEnd; y++) {
-                              double[] parms = {1.0, 0.0,
-                                    spot.getXCenter() / renderedPixelInNm,
-                                    spot.getYCenter() / renderedPixelInNm,
-                                    spot.getSigma() / renderedPixelInNm};
-                              double val = GaussianUtils.gaussian(parms, x, y);
-                              totalInt += val;
-                              if (normalize) {
-                                 boxPixels[x - xStart][y - yStart] = (float) val;
-                              } else {
-                                 ip.setf(x, y, ip.getf(x, y) + (float) val);
-                              }
+                  int xc = (int) (factor * xCenter);
+                  int yc = (int) (factor * yCenter);
+
+                  if (xc > r.x + halfWidth && xc < endx - halfWidth
+                        && yc > r.y + halfWidth && yc < endy - halfWidth
+                        && xc > halfWidth && xc < (fullWidth - halfWidth)
+                        && yc > halfWidth && yc < (fullHeight - halfWidth)) {
+                     int xStart = xc - halfWidth;
+                     int xEnd = xc + halfWidth;
+                     int yStart = yc - halfWidth;
+                     int yEnd = yc + halfWidth;
+                     // part of the box in this tile
+                     int tileXStart = Math.max(xStart, r.x + x0);
+                     int tileXEnd = Math.min(xEnd, r.x + x1);
+                     int tileYStart = Math.max(yStart, r.y + y0);
+                     int tileYEnd = Math.min(yEnd, r.y + y1);
+                     if (tileXStart >= tileXEnd || tileYStart >= tileYEnd) {
+                        continue;
+                     }
+                     if (xc - r.x >= x0 && xc - r.x < x1 && yc - r.y >= y0 && yc - r.y < y1) {
+                        spotsUsed.incrementAndGet();
+                     }
+                     // exp(-((x-xc)^2+(y-yc)^2)/(2 sig^2)) is the product of
+                     // a function of x and one of y
+                     double[] gx = gaussian1D(xStart, xEnd, xCenter / renderedPixelInNm,
+                           sigma / renderedPixelInNm);
+                     double[] gy = gaussian1D(yStart, yEnd, yCenter / renderedPixelInNm,
+                           sigma / renderedPixelInNm);
+                     double totalInt = 0.0;
+                     if (normalize) {
+                        for (double vx : gx) {
+                           for (double vy : gy) {
+                              totalInt += vx * vy;
                            }
                         }
-                        // normalize if requested
-                        if (normalize && totalInt > 0) {
-                           for (int x = xStart; x < xEnd; x++) {
-                              for (int y = yStart; y < yEnd; y++) {
-                                 boxPixels[x - xStart][y - yStart] /= totalInt;
-                                 if (boxPixels[x - xStart][y - yStart] != boxPixels[x - xStart][y
-                                       - yStart]) {
-                                    System.out.println("<0");
-                                 }
-                              }
-                           }
-                           // now add to the image
-                           for (int x = xStart; x < xEnd; x++) {
-                              for (int y = yStart; y < yEnd; y++) {
-                                 try {
-                                    ip.setf(x - rect.x, y - rect.y,
-                                          ip.getf(x - rect.x, y - rect.y) + boxPixels[x - xStart][y
-                                                - yStart]);
-                                 } catch (Exception ex) {
-                                    System.out.println("Exception");
-                                 }
-                              }
-                           }
+                        if (!(totalInt > 0)) {
+                           continue;
+                        }
+                     }
+                     for (int y = tileYStart; y < tileYEnd; y++) {
+                        double vy = gy[y - yStart];
+                        int index = (y - r.y) * width - r.x;
+                        for (int x = tileXStart; x < tileXEnd; x++) {
+                           float val = (float) (gx[x - xStart] * vy);
+                           pixels[index + x] += normalize ? (float) (val / totalInt) : val;
                         }
-
                      }
                   }
                }
-            }
+               ij.IJ.showProgress(tilesDone.incrementAndGet(), nrTiles);
+            });
 
             ij.IJ.showProgress(1);
-            ij.IJ.showStatus("Rendered image using " + spotsUsed + " spots.");
+            ij.IJ.showStatus("Rendered image using " + spotsUsed.get() + " spots.");
 
          }
       } catch (java.lang.OutOfMemoryError ome) {
@@ -321,45 +318,73 @@ public class ImageRenderer {
       final int fullHeight = (int) (rowData.height_ * magnification);
       double tmp = 1000.0 * (rowData.maxZ_ - rowData.minZ_) / (2 * renderedPixelInNm);
       final int nrZs = (int) tmp;
-      int endx = rect.x + rect.width;
-      int endy = rect.y + rect.height;
+      final int endx = rect.x + rect.width;
+      final int endy = rect.y + rect.height;
       final int size = width * height;
-      double factor = magnification / rowData.pixelSizeNm_;
+      final double factor = magnification / rowData.pixelSizeNm_;
 
       ImageStack is = new ImageStack(width, height);
       ImageProcessor[] ip = new ImageProcessor[nrZs];
 
       if (method == 0) {
 
-         short[][] pixels = new short[nrZs][size];
+         final short[][] pixels = new short[nrZs][size];
          for (int i = 0; i < nrZs; i++) {
             ip[i] = new ShortProcessor(width, height);
             ip[i].setPixels(pixels[i]);
             is.addSlice(ip[i]);
          }
 
-         for (SpotData spot : rowData.spotList_) {
-            if (sf.filter(spot)) {
-               int x = (int) (factor * spot.getXCenter());
-               int y = (int) (factor * spot.getYCenter());
-               int z = (int) (factor * (spot.getZCenter() - rowData.minZ_) * 500.0);
-               if (x > rect.x && x < endx && y > rect.y && y < endy) {
-                  x -= rect.x;
-                  y -= rect.y;
+         final SpotTable spots = rowData.spotList_;
+         final SpotBins bins = SpotBins.of(rowData, sf);
+         final Rectangle r = rect;
+         ParallelPixels.forEachTile(width, height, TILE_SIZE, (x0, y0, x1, y1) -> {
+            for (int row : tileRows(bins, r, factor, x0, y0, x1, y1, 1, false)) {
+               int x = (int) (factor * spots.getXCenter(row));
+               int y = (int) (factor * spots.getYCenter(row));
+               int z = (int) (factor * (spots.getZCenter(row) - rowData.minZ_) * 500.0);
+               if (x > r.x && x < endx && y > r.y && y < endy) {
+                  x -= r.x;
+                  y -= r.y;
                   int index = (y * width) + x;
-                  if (index < size && index > 0 && z < nrZs && z > 0) {
+                  if (x >= x0 && x < x1 && y >= y0 && y < y1
+                        && index < size && index > 0 && z < nrZs && z > 0) {
                      if (pixels[z][index] != -1) {
                         pixels[z][index] += 1;
                      }
                   }
                }
             }
-         }
+         });
       }
 
       return is;
    }
 
+   /**
+    * @param rect   region of the magnified image that is rendered
+    * @param factor magnified pixels per nm
+    * @param margin pixels around the tile in which spots are looked for
+    * @return rows of the spots that may show up in a tile of the image
+    */
+   private static int[] tileRows(SpotBins bins, Rectangle rect, double factor,
+                                 int x0, int y0, int x1, int y1, int margin,
+                                 boolean ordered) {
+      return bins.rowsIn((rect.x + x0 - margin) / factor, (rect.y + y0 - margin) / factor,
+            (rect.x + x1 + margin) / factor, (rect.y + y1 + margin) / factor, ordered);
+   }
+
+   /**
+    * @return exp(-(x - center)^2 / (2 sigma^2)) for x from start up to end
+    */
+   private static double[] gaussian1D(int start, int end, double center, double sigma) {
+      double[] result = new double[end - start];
+      for (int x = start; x < end; x++) {
+         result[x - start] = Math.exp(-(x - center) * (x - center) / (2 * sigma * sigma));
+      }
+      return result;
+   }
+
    /**
     * Reads a file enclosed in this jar that is created by copying the output of the List command in
     * ImageJ (Image>Color>ShowLut).
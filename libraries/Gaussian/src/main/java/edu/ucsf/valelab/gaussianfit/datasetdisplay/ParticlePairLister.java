@@ -37,7 +37,7 @@ import edu.ucsf.valelab.gaussianfit.fitting.Gaussian1DFitter;
 import edu.ucsf.valelab.gaussianfit.fitting.P2DEcdfFitter;
 import edu.ucsf.valelab.gaussianfit.fitting.P2DFitter;
 import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPoint2D;
-import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPointByData;
+import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPointGrid;
 import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
 import edu.ucsf.valelab.gaussianfit.utils.ListUtils;
 import edu.ucsf.valelab.gaussianfit.utils.NumberUtils;
@@ -58,6 +58,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 import org.apache.commons.math3.exception.NumberIsTooLargeException;
 import org.apache.commons.math3.exception.TooManyEvaluationsException;
 import org.micromanager.internal.MMStudio;
@@ -253,68 +254,12 @@ public class ParticlePairLister {
                final int maxPos = positions.get(positions.size() - 1);
 
                // First go through all frames to find all pairs, organize by position
+               final int nrFrames = dc.getSpotData(row).nrFrames_;
                for (int pos : positions) {
-                  spotPairsByFrame.put(pos, new ArrayList<ArrayList<GsSpotPair>>());
-
-                  for (int frame = 1; frame <= dc.getSpotData(row).nrFrames_; frame++) {
-
-                     ij.IJ.showProgress(pos * dc.getSpotData(row).nrFrames_ + frame,
-                           maxPos * dc.getSpotData(row).nrFrames_);
-
-                     spotPairsByFrame.get(pos).add(new ArrayList<GsSpotPair>());
-
-                     // Get points from both channels as ArrayLists   
-                     ArrayList<SpotData> gsCh1 = new ArrayList<SpotData>();
-                     ArrayList<SpotData> gsCh2 = new ArrayList<SpotData>();
-                     ArrayList<Point2D.Double> xyPointsCh2 = new ArrayList<Point2D.Double>();
-                     for (SpotData gs : spotListsByPosition.get(pos)) {
-                        if (gs.getFrame() == frame) {
-                           if (gs.getChannel() == 1) {
-                              gsCh1.add(gs);
-                           } else if (gs.getChannel() == 2) {
-                              gsCh2.add(gs);
-                              Point2D.Double point = new Point2D.Double(
-                                    gs.getXCenter(), gs.getYCenter());
-                              xyPointsCh2.add(point);
-                           }
-                        }
-                     }
-
-                     if (xyPointsCh2.isEmpty()) {
-                        //MMStudio.getInstance().alerts().postAlert("No points found error", null,
-                        //        "Pairs function in Localization plugin: no points found in second
-                        //        channel in frame "
-                        //        + frame);
-                        continue;
-                     }
+                  ij.IJ.showProgress(pos, maxPos);
 
-                     // Find matching points in the two ArrayLists
-                     Iterator it2 = gsCh1.iterator();
-                     NearestPoint2D np = new NearestPoint2D(xyPointsCh2, maxDistanceNm_);
-                     while (it2.hasNext()) {
-                        SpotData ch1Spot = (SpotData) it2.next();
-                        Point2D.Double pCh1 = new Point2D.Double(
-                              ch1Spot.getXCenter(), ch1Spot.getYCenter());
-                        Point2D.Double pCh2 = np.findKDWSE(pCh1);
-                        if (pCh2 != null) {
-                           // find this point in the ch2 spot list
-                           SpotData ch2Spot = null;
-                           for (int i = 0; i < gsCh2.size() && ch2Spot == null; i++) {
-                              if (pCh2.x == gsCh2.get(i).getXCenter()
-                                    && pCh2.y == gsCh2.get(i).getYCenter()) {
-                                 ch2Spot = gsCh2.get(i);
-                              }
-                           }
-                           if (ch2Spot != null) {
-                              GsSpotPair pair = new GsSpotPair(ch1Spot, ch2Spot, pCh1, pCh2);
-                              spotPairsByFrame.get(pos).get(frame - 1).add(pair);
-                           } else {
-                              // this should never happen!
-                              System.out.println("Failed to find spot");
-                           }
-                        }
-                     }
-                  }
+                  spotPairsByFrame.put(pos, findPairs(spotListsByPosition.get(pos), nrFrames,
+                        maxDistanceNm_));
                } // end of for (int pos : positions)
 
                if (showPairs_) {
@@ -387,47 +332,7 @@ public class ParticlePairLister {
                ArrayList<ArrayList<GsSpotPair>> tracks = new ArrayList<ArrayList<GsSpotPair>>();
 
                for (int pos : positions) {
-                  // prepare NearestPoint objects to speed up finding closest pair 
-                  ArrayList<NearestPointByData> npsp = new ArrayList<NearestPointByData>();
-                  for (int frame = 1; frame <= dc.getSpotData(row).nrFrames_; frame++) {
-                     npsp.add(new NearestPointByData(
-                           spotPairsByFrame.get(pos).get(frame - 1), maxDistanceNm_));
-                  }
-
-                  for (int firstFrame = 1; firstFrame <= dc.getSpotData(row).nrFrames_;
-                        firstFrame++) {
-                     Iterator<GsSpotPair> iSpotPairs = spotPairsByFrame.get(pos).get(firstFrame - 1)
-                           .iterator();
-                     while (iSpotPairs.hasNext()) {
-                        GsSpotPair spotPair = iSpotPairs.next();
-
-                        if (!spotPair.partOfTrack()) {
-                           for (int frame = firstFrame; frame <= dc.getSpotData(row).nrFrames_;
-                                 frame++) {
-                              if (!spotPair.partOfTrack()
-                                    && spotPair.getFirstSpot().getFrame() == frame) {
-                                 ArrayList<GsSpotPair> track = new ArrayList<GsSpotPair>();
-                                 track.add(spotPair);
-                                 spotPair.useInTrack(true);
-                                 int searchInFrame = frame + 1;
-                                 while (searchInFrame <= dc.getSpotData(row).nrFrames_) {
-                                    GsSpotPair newSpotPair = (GsSpotPair) npsp
-                                          .get(searchInFrame - 1).findKDWSE(
-                                                new Point2D.Double(spotPair.getFirstPoint().getX(),
-                                                      spotPair.getFirstPoint().getY()));
-                                    if (newSpotPair != null && !newSpotPair.partOfTrack()) {
-                                       newSpotPair.useInTrack(true);
-                                       spotPair = newSpotPair;
-                                       track.add(spotPair);
-                                    }
-                                    searchInFrame++;
-                                 }
-                                 tracks.add(track);
-                              }
-                           }
-                        }
-                     }
-                  }
+                  tracks.addAll(findTracks(spotPairsByFrame.get(pos), maxDistanceNm_));
                }  // end of assembling tracks.  
 
                if (tracks.isEmpty()) {
@@ -926,6 +831,102 @@ public class ParticlePairLister {
 
    }
 
+   /**
+    * Pairs each spot in channel 1 with the nearest spot in channel 2 in the same frame, if that
+    * spot is within maxDistance.
+    *
+    * @param spots       - spots of one position
+    * @param nrFrames    - number of frames; spots outside frames 1 to nrFrames are ignored
+    * @param maxDistance - maximum distance between the spots of a pair
+    * @return pairs, by frame (starting at frame 1), in the order of the channel 1 spots
+    */
+   static ArrayList<ArrayList<GsSpotPair>> findPairs(final List<SpotData> spots,
+         final int nrFrames, final double maxDistance) {
+      // Get points from both channels, by frame
+      final List<List<SpotData>> gsCh1 = new ArrayList<List<SpotData>>(nrFrames);
+      final List<List<SpotData>> gsCh2 = new ArrayList<List<SpotData>>(nrFrames);
+      for (int frame = 1; frame <= nrFrames; frame++) {
+         gsCh1.add(new ArrayList<SpotData>());
+         gsCh2.add(new ArrayList<SpotData>());
+      }
+      for (SpotData gs : spots) {
+         if (gs.getFrame() >= 1 && gs.getFrame() <= nrFrames) {
+            if (gs.getChannel() == 1) {
+               gsCh1.get(gs.getFrame() - 1).add(gs);
+            } else if (gs.getChannel() == 2) {
+               gsCh2.get(gs.getFrame() - 1).add(gs);
+            }
+         }
+      }
+
+      // Find matching points in the two channels, frames in parallel
+      final ArrayList<ArrayList<GsSpotPair>> pairsByFrame =
+            new ArrayList<ArrayList<GsSpotPair>>(nrFrames);
+      for (int frame = 1; frame <= nrFrames; frame++) {
+         pairsByFrame.add(new ArrayList<GsSpotPair>());
+      }
+      IntStream.range(0, nrFrames).parallel().forEach(f -> {
+         if (gsCh2.get(f).isEmpty()) {
+            return;
+         }
+         NearestPointGrid np = new NearestPointGrid(gsCh2.get(f), maxDistance);
+         for (SpotData ch1Spot : gsCh1.get(f)) {
+            Point2D.Double pCh1 = new Point2D.Double(
+                  ch1Spot.getXCenter(), ch1Spot.getYCenter());
+            int index = np.findIndex(pCh1.x, pCh1.y);
+            if (index >= 0) {
+               SpotData ch2Spot = gsCh2.get(f).get(index);
+               Point2D.Double pCh2 = new Point2D.Double(
+                     ch2Spot.getXCenter(), ch2Spot.getYCenter());
+               pairsByFrame.get(f).add(new GsSpotPair(ch1Spot, ch2Spot, pCh1, pCh2));
+            }
+         }
+      });
+      return pairsByFrame;
+   }
+
+   /**
+    * Assembles the pairs of one position into tracks.  Starting with the first pair that is not
+    * yet part of a track, every later frame is searched for the pair nearest to the last pair
+    * of the track, within maxDistance.  Marks the pairs that are used in a track.
+    *
+    * @param pairsByFrame - pairs of one position, by frame, as returned by findPairs
+    * @param maxDistance  - maximum distance between pairs in a track
+    * @return tracks, in the order of their first pair
+    */
+   static ArrayList<ArrayList<GsSpotPair>> findTracks(
+         final List<ArrayList<GsSpotPair>> pairsByFrame, final double maxDistance) {
+      final int nrFrames = pairsByFrame.size();
+      ArrayList<ArrayList<GsSpotPair>> tracks = new ArrayList<ArrayList<GsSpotPair>>();
+      // prepare NearestPoint objects to speed up finding closest pair
+      ArrayList<NearestPointGrid> npsp = new ArrayList<NearestPointGrid>();
+      for (int frame = 1; frame <= nrFrames; frame++) {
+         npsp.add(new NearestPointGrid(pairsByFrame.get(frame - 1), maxDistance));
+      }
+
+      for (int firstFrame = 1; firstFrame <= nrFrames; firstFrame++) {
+         for (GsSpotPair spotPair : pairsByFrame.get(firstFrame - 1)) {
+            if (!spotPair.partOfTrack()) {
+               ArrayList<GsSpotPair> track = new ArrayList<GsSpotPair>();
+               track.add(spotPair);
+               spotPair.useInTrack(true);
+               for (int searchInFrame = firstFrame + 1; searchInFrame <= nrFrames;
+                     searchInFrame++) {
+                  GsSpotPair newSpotPair = (GsSpotPair) npsp
+                        .get(searchInFrame - 1).find(spotPair.getFirstPoint());
+                  if (newSpotPair != null && !newSpotPair.partOfTrack()) {
+                     newSpotPair.useInTrack(true);
+                     spotPair = newSpotPair;
+                     track.add(spotPair);
+                  }
+               }
+               tracks.add(track);
+            }
+         }
+      }
+      return tracks;
+   }
+
    /**
     * Fits a list of numbers to a Gaussian function using Maximum Likelihood
     *
@@ -0,0 +1,185 @@
+/*
+Copyright (c) 2013-2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.datasetdisplay;
+
+import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import edu.ucsf.valelab.gaussianfit.datasettransformations.SpotDataFilter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * The spots of a data set that pass a filter, sorted into square bins by
+ * their position.
+ *
+ * <p>Finding the spots in a region of the data set only visits the bins
+ * that overlap the region, so that rendering part of a data set (a tile of
+ * the image, or the region shown at a high magnification) takes time in
+ * proportion to the spots in that part. Bins are made once for a data set
+ * and filter, and are kept as long as the data set is; a filter must not be
+ * changed after it was used for rendering.
+ */
+final class SpotBins {
+   // Edge length of a bin, in pixels of the original image
+   static final int BIN_PIXELS = 8;
+
+   private static final Map<RowData, SpotBins> CACHE = new WeakHashMap<RowData, SpotBins>();
+
+   private final SpotDataFilter filter_;
+   private final double binNm_;
+   private final int columns_;
+   private final int rows_;
+   // Spots of bin b are spots_[start_[b]] up to spots_[start_[b + 1]]; bins
+   // are stored row by row, and the spots of a bin are in table order
+   private final int[] start_;
+   private final int[] spots_;
+   // Spots that passed the filter, in table order
+   private final int[] filtered_;
+   private final double maxSigma_;
+
+   /**
+    * @return bins for the data set and filter, made when first asked for
+    */
+   static SpotBins of(RowData rowData, SpotDataFilter filter) {
+      synchronized (CACHE) {
+         SpotBins bins = CACHE.get(rowData);
+         if (bins == null || bins.filter_ != filter) {
+            bins = new SpotBins(rowData, filter);
+            CACHE.put(rowData, bins);
+         }
+         return bins;
+      }
+   }
+
+   private SpotBins(RowData rowData, SpotDataFilter filter) {
+      final SpotTable spots = rowData.spotList_;
+      filter_ = filter;
+      binNm_ = BIN_PIXELS * (double) rowData.pixelSizeNm_;
+      columns_ = Math.max(1, (rowData.width_ + BIN_PIXELS - 1) / BIN_PIXELS);
+      rows_ = Math.max(1, (rowData.height_ + BIN_PIXELS - 1) / BIN_PIXELS);
+
+      // Bin of every spot, -1 for spots that do not pass the filter
+      final int[] bin = new int[spots.size()];
+      IntStream.range(0, spots.size()).parallel().forEach(row -> bin[row]
+            = filter.filter(spots, row)
+            ? binOf(spots.getXCenter(row), spots.getYCenter(row)) : -1);
+      start_ = new int[columns_ * rows_ + 1];
+      int nrFiltered = 0;
+      double maxSigma = 0.0;
+      for (int row = 0; row < bin.length; row++) {
+         if (bin[row] >= 0) {
+            start_[bin[row] + 1]++;
+            nrFiltered++;
+            maxSigma = Math.max(maxSigma, spots.getSigma(row));
+         }
+      }
+      for (int b = 0; b < columns_ * rows_; b++) {
+         start_[b + 1] += start_[b];
+      }
+      int[] next = Arrays.copyOf(start_, start_.length - 1);
+      spots_ = new int[nrFiltered];
+      filtered_ = new int[nrFiltered];
+      int f = 0;
+      for (int row = 0; row < bin.length; row++) {
+         if (bin[row] >= 0) {
+            spots_[next[bin[row]]++] = row;
+            filtered_[f++] = row;
+         }
+      }
+      maxSigma_ = maxSigma;
+   }
+
+   /**
+    * Spots outside of the image (e.g., after drift correction) go to the
+    * nearest bin at the edge.
+    */
+   private int binOf(double xNm, double yNm) {
+      return clamp(yNm, rows_) * columns_ + clamp(xNm, columns_);
+   }
+
+   private int clamp(double nm, int nrBins) {
+      double bin = Math.floor(nm / binNm_);
+      return (int) Math.max(0.0, Math.min(nrBins - 1.0, bin));
+   }
+
+   /**
+    * @return number of spots that passed the filter
+    */
+   int size() {
+      return filtered_.length;
+   }
+
+   /**
+    * @return largest sigma of the spots that passed the filter, in nm
+    */
+   double getMaxSigma() {
+      return maxSigma_;
+   }
+
+   /**
+    * Finds the spots in a region. Spots near the region may be included as
+    * well.
+    *
+    * @param x0Nm    left edge of the region
+    * @param y0Nm    top edge of the region
+    * @param x1Nm    right edge of the region
+    * @param y1Nm    bottom edge of the region
+    * @param ordered whether the rows should be in table order
+    * @return rows of the spots
+    */
+   int[] rowsIn(double x0Nm, double y0Nm, double x1Nm, double y1Nm, boolean ordered) {
+      int column0 = clamp(x0Nm, columns_);
+      int column1 = clamp(x1Nm, columns_);
+      int row0 = clamp(y0Nm, rows_);
+      int row1 = clamp(y1Nm, rows_);
+      if (column0 == 0 && row0 == 0 && column1 == columns_ - 1 && row1 == rows_ - 1) {
+         return filtered_;
+      }
+      int nrRows = 0;
+      for (int row = row0; row <= row1; row++) {
+         nrRows += start_[row * columns_ + column1 + 1] - start_[row * columns_ + column0];
+      }
+      int[] result = new int[nrRows];
+      int n = 0;
+      for (int row = row0; row <= row1; row++) {
+         // the bins of a row of bins are stored one after the other
+         int start = start_[row * columns_ + column0];
+         int length = start_[row * columns_ + column1 + 1] - start;
+         System.arraycopy(spots_, start, result, n, length);
+         n += length;
+      }
+      if (ordered) {
+         Arrays.sort(result);
+      }
+      return result;
+   }
+}
@@ -0,0 +1,368 @@
+/*
+Copyright (c) 2010-2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.datasettransformations;
+
+import edu.ucsf.valelab.gaussianfit.algorithm.JitterDetector;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import ij.process.FHT;
+import ij.process.FloatProcessor;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Estimates the drift in a data set, by cross-correlating the spots of consecutive time windows
+ * with the spots of the first window.
+ *
+ * <p>Spots are sorted by window once.  For every window, the spots are binned into a 2D
+ * histogram, which is correlated with the histogram of the first window using Hartley transforms.
+ * The position of the correlation peak, fitted with sub-pixel accuracy, gives the drift of the
+ * window.  Windows are correlated in parallel, on threads of their own; progress is reported by
+ * the calling thread.  Every thread uses a plan, holding the tables of the transform and the
+ * buffers, for all the windows it processes.
+ *
+ * <p>The drift of a frame is interpolated linearly between the centers of the windows around it.
+ */
+final class DriftEstimator {
+
+   private final SpotTable spots_;
+   private final boolean useSlices_;
+   private final int framesPerWindow_;
+   private final int nrImages_;
+   private final int nrWindows_;
+   private final int size_;
+   private final double factor_;
+   // highest frame (or slice) number of a spot
+   private final int maxImage_;
+   // rows of window w are rows_[windowStart_[w]] up to rows_[windowStart_[w + 1]]
+   private final int[] windowStart_;
+   private final int[] rows_;
+   private final Queue<Plan> plans_ = new ConcurrentLinkedQueue<Plan>();
+
+   /**
+    * Tables and buffers used to correlate a window.
+    */
+   private final class Plan {
+      private final FHT fht_ = new FHT();
+      private final float[] histogram_ = new float[size_ * size_];
+      private final float[] correlation_ = new float[size_ * size_];
+
+      private Plan() {
+         fht_.setShowProgress(false);
+      }
+   }
+
+   /**
+    * @param spots           spots of the data set
+    * @param useSlices       when true, windows are made of slices rather than frames
+    * @param nrImages        number of frames (or slices) in the data set
+    * @param framesPerWindow number of frames (or slices) in a window
+    * @param size            edge of the histograms in pixels, a power of 2
+    * @param factor          histogram pixels per nm
+    */
+   DriftEstimator(SpotTable spots, boolean useSlices, int nrImages, int framesPerWindow,
+         int size, double factor) {
+      spots_ = spots;
+      useSlices_ = useSlices;
+      framesPerWindow_ = framesPerWindow;
+      nrImages_ = nrImages;
+      nrWindows_ = Math.max(1, (nrImages + framesPerWindow - 1) / framesPerWindow);
+      size_ = size;
+      factor_ = factor;
+
+      // counting sort of the rows by window
+      final int n = spots.size();
+      int[] windows = new int[n];
+      windowStart_ = new int[nrWindows_ + 1];
+      int maxImage = nrImages;
+      for (int row = 0; row < n; row++) {
+         int image = image(row);
+         maxImage = Math.max(maxImage, image);
+         windows[row] = Math.max(0, Math.min(nrWindows_ - 1, (image - 1) / framesPerWindow));
+         windowStart_[windows[row] + 1]++;
+      }
+      maxImage_ = maxImage;
+      for (int w = 0; w < nrWindows_; w++) {
+         windowStart_[w + 1] += windowStart_[w];
+      }
+      int[] next = Arrays.copyOf(windowStart_, nrWindows_);
+      rows_ = new int[n];
+      for (int row = 0; row < n; row++) {
+         rows_[next[windows[row]]++] = row;
+      }
+   }
+
+   private int image(int row) {
+      return useSlices_ ? spots_.getSlice(row) : spots_.getFrame(row);
+   }
+
+   int getNrWindows() {
+      return nrWindows_;
+   }
+
+   /**
+    * @return number of spots in the window
+    */
+   int getNrSpots(int window) {
+      return windowStart_[window + 1] - windowStart_[window];
+   }
+
+   /**
+    * Correlates every window with the first one, which needs to have spots.
+    *
+    * @return drift of every window in nm, as {x, y}: 0 for the first window, and NaN for windows
+    *         without spots
+    * @throws InterruptedException when interrupted while waiting for the windows
+    */
+   double[][] getWindowDrift() throws InterruptedException {
+      final double[][] drift = new double[nrWindows_][];
+      drift[0] = new double[] {0.0, 0.0};
+      Plan plan = new Plan();
+      histogram(0, plan.histogram_);
+      plan.fht_.rc2DFHT(plan.histogram_, false, size_);
+      final float[] reference = plan.histogram_.clone();
+      final Point2D.Double referencePeak = correlate(plan, reference);
+      if (nrWindows_ == 1) {
+         return drift;
+      }
+      plans_.add(plan);
+
+      final int nrThreads = Math.min(nrWindows_ - 1, Runtime.getRuntime().availableProcessors());
+      final AtomicInteger threadNumber = new AtomicInteger(0);
+      ExecutorService executor = Executors.newFixedThreadPool(nrThreads, r -> {
+         Thread thread = new Thread(r, "Drift estimator " + threadNumber.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      });
+      try {
+         CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(executor);
+         for (int w = 1; w < nrWindows_; w++) {
+            final int window = w;
+            completion.submit(() -> {
+               drift[window] = getDrift(window, reference, referencePeak);
+               return window;
+            });
+         }
+         for (int done = 2; done <= nrWindows_; done++) {
+            try {
+               completion.take().get();
+            } catch (ExecutionException ee) {
+               if (ee.getCause() instanceof Error) {
+                  throw (Error) ee.getCause();
+               }
+               throw new RuntimeException(ee.getCause());
+            }
+            ij.IJ.showProgress(done, nrWindows_);
+         }
+      } finally {
+         executor.shutdownNow();
+         plans_.clear();
+      }
+      return drift;
+   }
+
+   /**
+    * @return drift of a window in nm, {x, y}, or NaN if the window has no spots
+    */
+   private double[] getDrift(int window, float[] reference, Point2D.Double referencePeak) {
+      if (getNrSpots(window) == 0) {
+         return new double[] {Double.NaN, Double.NaN};
+      }
+      Plan plan = plans_.poll();
+      if (plan == null) {
+         plan = new Plan();
+      }
+      histogram(window, plan.histogram_);
+      plan.fht_.rc2DFHT(plan.histogram_, false, size_);
+      Point2D.Double peak = correlate(plan, reference);
+      plans_.add(plan);
+      return new double[] {(referencePeak.x - peak.x) / factor_,
+            (referencePeak.y - peak.y) / factor_};
+   }
+
+   /**
+    * Bins the spots of a window in a histogram.
+    */
+   private void histogram(int window, float[] histogram) {
+      Arrays.fill(histogram, 0.0f);
+      for (int i = windowStart_[window]; i < windowStart_[window + 1]; i++) {
+         int row = rows_[i];
+         int x = (int) (factor_ * spots_.getXCenter(row));
+         int y = (int) (factor_ * spots_.getYCenter(row));
+         if (x >= 0 && x < size_ && y >= 0 && y < size_) {
+            // like in an 8-bit image, counts stop at 255
+            if (histogram[y * size_ + x] < 255.0f) {
+               histogram[y * size_ + x] += 1.0f;
+            }
+         }
+      }
+   }
+
+   /**
+    * Cross-correlates the (transformed) histogram of a plan with the reference.
+    *
+    * @return position of the correlation peak
+    */
+   private Point2D.Double correlate(Plan plan, float[] reference) {
+      conjugateMultiply(reference, plan.histogram_, plan.correlation_, size_);
+      plan.fht_.rc2DFHT(plan.correlation_, true, size_);
+      swapQuadrants(plan.correlation_, size_);
+      Point2D.Double peak = new Point2D.Double();
+      JitterDetector.findPeak(new FloatProcessor(size_, size_, plan.correlation_), peak);
+      return peak;
+   }
+
+   /**
+    * Multiplies two Hartley transforms, the first one conjugated, like FHT.conjugateMultiply.
+    */
+   private static void conjugateMultiply(float[] h1, float[] h2, float[] result, int maxN) {
+      for (int r = 0; r < maxN; r++) {
+         int rowMod = (maxN - r) % maxN;
+         for (int c = 0; c < maxN; c++) {
+            int colMod = (maxN - c) % maxN;
+            double h2e = (h2[r * maxN + c] + h2[rowMod * maxN + colMod]) / 2;
+            double h2o = (h2[r * maxN + c] - h2[rowMod * maxN + colMod]) / 2;
+            result[r * maxN + c] = (float) (h1[r * maxN + c] * h2e
+                  - h1[rowMod * maxN + colMod] * h2o);
+         }
+      }
+   }
+
+   /**
+    * Moves the zero shift of a correlation to the center of the image, like FHT.swapQuadrants.
+    */
+   private static void swapQuadrants(float[] pixels, int size) {
+      int half = size / 2;
+      for (int y = 0; y < half; y++) {
+         for (int x = 0; x < size; x++) {
+            int a = y * size + x;
+            int b = (y + half) * size + (x + half) % size;
+            float tmp = pixels[a];
+            pixels[a] = pixels[b];
+            pixels[b] = tmp;
+         }
+      }
+   }
+
+   /**
+    * Smooths the drift with a moving average, centered on every window.  Windows without a drift
+    * (NaN) are left out of the averages.
+    *
+    * @param drift      drift of every window, {x, y}
+    * @param windowSize number of windows to average
+    * @return smoothed drift
+    */
+   static double[][] smooth(double[][] drift, int windowSize) {
+      double[][] smoothed = new double[drift.length][];
+      for (int w = 0; w < drift.length; w++) {
+         double x = 0.0;
+         double y = 0.0;
+         int n = 0;
+         for (int i = Math.max(0, w - windowSize / 2);
+               i <= Math.min(drift.length - 1, w + windowSize / 2); i++) {
+            if (!Double.isNaN(drift[i][0])) {
+               x += drift[i][0];
+               y += drift[i][1];
+               n++;
+            }
+         }
+         smoothed[w] = n == 0 ? new double[] {Double.NaN, Double.NaN}
+               : new double[] {x / n, y / n};
+      }
+      return smoothed;
+   }
+
+   /**
+    * @return first frame (or slice) of a window
+    */
+   int getFirstImage(int window) {
+      return window * framesPerWindow_ + 1;
+   }
+
+   /**
+    * Interpolates the drift of every frame (or slice) between the centers of the windows.  Before
+    * the center of the first window with a drift, and after the last one, the drift is constant.
+    *
+    * @param drift drift of every window, {x, y}, NaN where unknown
+    * @return drift {x, y} of every frame number, from 0 up to the highest in the data set
+    */
+   double[][] interpolate(double[][] drift) {
+      double[][] result = new double[2][maxImage_ + 1];
+      int[] known = IntStream.range(0, nrWindows_)
+            .filter(w -> !Double.isNaN(drift[w][0])).toArray();
+      if (known.length == 0) {
+         return result;
+      }
+      double[] centers = new double[known.length];
+      for (int k = 0; k < known.length; k++) {
+         int last = Math.max(getFirstImage(known[k]),
+               Math.min(nrImages_, getFirstImage(known[k] + 1) - 1));
+         centers[k] = (getFirstImage(known[k]) + last) / 2.0;
+      }
+      int k = 0;
+      for (int image = 0; image <= maxImage_; image++) {
+         while (k < known.length - 1 && centers[k + 1] <= image) {
+            k++;
+         }
+         double[] d = drift[known[k]];
+         if (image > centers[k] && k < known.length - 1) {
+            double[] next = drift[known[k + 1]];
+            double f = (image - centers[k]) / (centers[k + 1] - centers[k]);
+            result[0][image] = d[0] + f * (next[0] - d[0]);
+            result[1][image] = d[1] + f * (next[1] - d[1]);
+         } else {
+            result[0][image] = d[0];
+            result[1][image] = d[1];
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Subtracts the drift from the positions of the spots.
+    *
+    * @param drift drift of every window, {x, y}, NaN where unknown
+    * @return table with the corrected positions, sharing all other data with the input
+    */
+   SpotTable correct(double[][] drift) {
+      final double[][] shift = interpolate(drift);
+      return spots_.withCenters(
+            row -> spots_.getXCenter(row) - shift[0][Math.max(0, image(row))],
+            row -> spots_.getYCenter(row) - shift[1][Math.max(0, image(row))]);
+   }
+}
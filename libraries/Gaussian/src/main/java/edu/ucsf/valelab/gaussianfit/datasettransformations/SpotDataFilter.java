@@ -30,6 +30,7 @@ either expressed or implied, of the FreeBSD Project.
 package edu.ucsf.valelab.gaussianfit.datasettransformations;
 
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -128,5 +129,20 @@ public class SpotDataFilter {
       return true;
    }
 
+   /**
+    * Indicates whether or not the spot in a row of a table is acceptable.
+    * Does not look at the spot when no filters are set.
+    *
+    * @param table - spot Data
+    * @param row   - row of the spot in the table
+    * @return true if spot is acceptable
+    */
+   public boolean filter(SpotTable table, int row) {
+      if (!useSigma_ && !useIntensity_ && itemFilter_.isEmpty()) {
+         return true;
+      }
+      return filter(table.get(row));
+   }
+
 
 }
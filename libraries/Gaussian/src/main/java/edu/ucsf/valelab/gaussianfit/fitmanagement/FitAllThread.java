@@ -45,7 +45,6 @@ import ij.ImagePlus;
 import ij.ImageStack;
 import ij.gui.Roi;
 import ij.plugin.HyperStackConverter;
-import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
 import ij.process.ShortProcessor;
 import java.awt.Polygon;
@@ -56,10 +55,15 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.micromanager.Studio;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Coords.CoordsBuilder;
@@ -71,6 +75,12 @@ import org.micromanager.display.DisplayWindow;
  */
 public class FitAllThread extends GaussianInfo implements Runnable {
 
+   // No new images are searched for spots while more spots than this wait
+   // to be fitted, to avoid making a gigantic sourceList and running out of
+   // memory. Once we have very fast multi-core computers, this constant can
+   // be increased
+   private static final int MAX_QUEUED_SPOTS = 100000;
+
    double[] params0_;
    double[] steps_ = new double[5];
    GaussianFitStackThread[] gfsThreads_;
@@ -299,10 +309,7 @@ public class FitAllThread extends GaussianInfo implements Runnable {
       running_ = false;
    }
 
-   @SuppressWarnings("unchecked")
    private int analyzeImagePlus(ImagePlus siPlus, int position, Roi originalRoi) {
-      int halfSize = super.getHalfBoxSize();
-      int nrSpots = 0;
       // Start up IJ.Prefs.getThreads() threads for gaussian fitting
       gfsThreads_ = new GaussianFitStackThread[nrThreads_];
       Future<?>[] futures = new Future<?>[nrThreads_];
@@ -320,116 +327,71 @@ public class FitAllThread extends GaussianInfo implements Runnable {
          siPlus.setPosition(i, siPlus.getCurrentSlice(), siPlus.getFrame());
       }
 
-      int nrChannels = siPlus.getNChannels();
-      if (skipChannels_) {
-         nrChannels -= channelsToSkip_.length;
+      // Images to analyze, as channel, slice, frame
+      final List<int[]> planes = new ArrayList<>();
+      for (int c = 1; c <= siPlus.getNChannels(); c++) {
+         if (!skipChannels_ || !inArray(channelsToSkip_, c)) {
+            for (int z = 1; z <= siPlus.getNSlices(); z++) {
+               for (int f = 1; f <= siPlus.getNFrames(); f++) {
+                  planes.add(new int[] {c, z, f});
+               }
+            }
+         }
       }
-      int nrImages = nrChannels * siPlus.getNSlices() * siPlus.getNFrames();
-      int imageCount = 0;
+      final int nrImages = planes.size();
+      final ImageStack stack = siPlus.getStack();
+      // Spots of each image go to the fitting threads as soon as they are
+      // found. Images in memory are searched in parallel; virtual stacks
+      // may read from a single file, so search those one image at a time
+      final int nrFinders = stack.isVirtual() ? 1
+            : Math.max(1, Math.min(nrImages, Runtime.getRuntime().availableProcessors()));
+      final AtomicInteger threadNumber = new AtomicInteger(0);
+      ExecutorService finderPool = Executors.newFixedThreadPool(nrFinders, r -> {
+         Thread thread = new Thread(r, "Gaussian spot finder " + threadNumber.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      });
+      CompletionService<Integer> finders = new ExecutorCompletionService<>(finderPool);
+      int nrSpots = 0;
+      int submitted = 0;
+      int finished = 0;
       try {
-         for (int c = 1; c <= siPlus.getNChannels(); c++) {
-            if (!running_) {
-               break;
+         // Images are handed out a few at a time, so that finding spots
+         // pauses while too many spots wait to be fitted
+         while (finished < submitted || (submitted < nrImages && running_)) {
+            if (submitted < nrImages && running_ && submitted - finished < 2 * nrFinders
+                  && sourceList_.size() <= MAX_QUEUED_SPOTS) {
+               final int[] plane = planes.get(submitted);
+               finders.submit(() -> findSpots(siPlus, stack, plane[0], plane[1], plane[2],
+                     position, originalRoi));
+               submitted++;
+               continue;
             }
-            if (!skipChannels_ || !inArray(channelsToSkip_, c)) {
-               for (int z = 1; z <= siPlus.getNSlices(); z++) {
-                  if (!running_) {
-                     break;
-                  }
-                  for (int f = 1; f <= siPlus.getNFrames(); f++) {
-                     if (!running_) {
-                        break;
-                     }
-                     // to avoid making a gigantic sourceList and running out of memory
-                     // sleep a bit when the sourcesize gets too big
-                     // once we have very fast multi-core computers, this constant can be increased
-                     if (sourceList_.size() > 100000) {
-                        try {
-                           Thread.sleep(1000);
-                        } catch (InterruptedException ex) {
-                           // not sure what to do
-                        }
-                     }
-
-                     imageCount++;
-                     ij.IJ.showStatus("Processing image " + imageCount);
-
-                     ImageProcessor siProc = null;
-                     Polygon p = new Polygon();
-                     synchronized (SpotData.LOCK_IP) {
-                        siPlus.setPositionWithoutUpdate(c, z, f);
-                        // If ROI manager is used, use RoiManager Rois
-                        //  may be dangerous if the user is not aware
-                        RoiManager roiM = RoiManager.getInstance();
-                        Roi[] rois = null;
-                        //if (roiM != null && roiM.getSelectedIndex() > -1 ) {
-                        //   rois = roiM.getSelectedRoisAsArray();
-                        //}
-                        if (rois != null && rois.length > 0) {
-                           for (Roi roi : rois) {
-                              siPlus.setRoi(roi, false);
-                              siProc = siPlus.getProcessor();
-                              Polygon q = FindLocalMaxima.findMax(siPlus,
-                                    2 * super.getHalfBoxSize(), noiseTolerance_,
-                                    preFilterType_);
-                              for (int i = 0; i < q.npoints; i++) {
-                                 p.addPoint(q.xpoints[i], q.ypoints[i]);
-                              }
-                           }
-                        } else {  // no Rois in RoiManager
-                           siPlus.setRoi(originalRoi, false);
-                           siProc = siPlus.getProcessor();
-                           p = FindLocalMaxima
-                                 .findMax(siPlus, 2 * super.getHalfBoxSize(), noiseTolerance_,
-                                       preFilterType_);
-                        }
-                     }
-
-                     ij.IJ.showProgress(imageCount, nrImages);
-
-                     if (p.npoints > nrSpots) {
-                        nrSpots = p.npoints;
-                     }
-                     int[][] sC = new int[p.npoints][2];
-                     for (int j = 0; j < p.npoints; j++) {
-                        sC[j][0] = p.xpoints[j];
-                        sC[j][1] = p.ypoints[j];
-                     }
-
-                     Arrays.sort(sC, new SpotSortComparator());
-
-                     for (int j = 0; j < sC.length; j++) {
-                        // filter out spots too close to the edge
-                        if (sC[j][0] > halfSize && sC[j][0] < siPlus.getWidth() - halfSize
-                              && sC[j][1] > halfSize && sC[j][1] < siPlus.getHeight() - halfSize) {
-                           ImageProcessor sp = SpotData.getSpotProcessor(siProc,
-                                 halfSize, sC[j][0], sC[j][1]);
-                           if (sp == null) {
-                              continue;
-                           }
-                           int channel = c;
-
-                           SpotData thisSpot = new SpotData(sp, channel, z, f,
-                                 position, j, sC[j][0], sC[j][1]);
-                           try {
-                              sourceList_.put(thisSpot);
-                           } catch (InterruptedException iex) {
-                              Thread.currentThread().interrupt();
-                              throw new RuntimeException("Unexpected interruption");
-                           }
-                        }
-                     }
-                  }
+            Future<Integer> found = finders.poll(100, TimeUnit.MILLISECONDS);
+            if (found == null) {
+               continue;
+            }
+            finished++;
+            try {
+               nrSpots = Math.max(nrSpots, found.get());
+            } catch (ExecutionException ee) {
+               if (ee.getCause() instanceof OutOfMemoryError) {
+                  ij.IJ.error("Out Of Memory");
+                  running_ = false;
+               } else {
+                  ReportingUtils.logError(ee.getCause());
                }
             }
+            ij.IJ.showStatus("Processing image " + finished);
+            ij.IJ.showProgress(finished, nrImages);
          }
          // start ProgresBar thread
          ProgressThread pt = new ProgressThread(sourceList_);
          pt.init();
-
-
-      } catch (OutOfMemoryError ome) {
-         ij.IJ.error("Out Of Memory");
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      } finally {
+         finderPool.shutdownNow();
       }
 
       // Send working threads signal that we are done:
@@ -457,6 +419,46 @@ public class FitAllThread extends GaussianInfo implements Runnable {
       return nrSpots;
    }
 
+   /**
+    * Finds the spots in one image, and queues them for fitting.
+    *
+    * @return number of local maxima found
+    */
+   @SuppressWarnings("unchecked")
+   private int findSpots(ImagePlus siPlus, ImageStack stack, int c, int z, int f,
+                         int position, Roi originalRoi) {
+      final int halfSize = super.getHalfBoxSize();
+      // A processor of our own, so that other threads do not move it
+      // to a different image or ROI
+      ImageProcessor siProc = stack.getProcessor(siPlus.getStackIndex(c, z, f));
+      siProc.setRoi(originalRoi);
+      Polygon p = FindLocalMaxima.findMax(siProc, 2 * halfSize,
+            noiseTolerance_, preFilterType_);
+
+      int[][] sC = new int[p.npoints][2];
+      for (int j = 0; j < p.npoints; j++) {
+         sC[j][0] = p.xpoints[j];
+         sC[j][1] = p.ypoints[j];
+      }
+
+      Arrays.sort(sC, new SpotSortComparator());
+
+      for (int j = 0; j < sC.length; j++) {
+         // filter out spots too close to the edge
+         if (sC[j][0] > halfSize && sC[j][0] < siPlus.getWidth() - halfSize
+               && sC[j][1] > halfSize && sC[j][1] < siPlus.getHeight() - halfSize) {
+            ImageProcessor sp = SpotData.getSpotProcessor(siProc,
+                  halfSize, sC[j][0], sC[j][1]);
+            if (sp == null) {
+               continue;
+            }
+            // The queue is unbounded, so this does not block
+            sourceList_.add(new SpotData(sp, c, z, f, position, j, sC[j][0], sC[j][1]));
+         }
+      }
+      return p.npoints;
+   }
+
 
    private class SpotSortComparator implements Comparator {
 
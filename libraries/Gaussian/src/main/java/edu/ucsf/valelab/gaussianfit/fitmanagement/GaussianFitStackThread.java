@@ -40,17 +40,29 @@ import edu.ucsf.valelab.gaussianfit.fitting.ZCalibrator;
 import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
 import ij.ImagePlus;
 import ij.process.ImageProcessor;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
 
 /**
+ * Fits the spots in the source queue, and adds the results to the result list.
+ *
+ * <p>Several of these threads share one queue. Spots are taken from the queue
+ * in batches (whatever is waiting, up to BATCH_SIZE spots), without any lock
+ * other than the queue's own, and the results of a batch are added to the
+ * result list at once. As spots are queued frame by frame, a batch mostly
+ * holds spots of the same frame.
+ *
  * @author nico
  */
 public class GaussianFitStackThread extends GaussianInfo implements Runnable {
 
+   // Maximum number of spots taken from the queue at once
+   static final int BATCH_SIZE = 64;
+
    Thread t_;
-   boolean stopNow_ = false;
+   volatile boolean stopNow_ = false;
 
    public GaussianFitStackThread(BlockingQueue<SpotData> sourceList,
          List<SpotData> resultList, ImagePlus siPlus) {
@@ -85,48 +97,69 @@ public class GaussianFitStackThread extends GaussianInfo implements Runnable {
             super.getUseFixedWidth(), super.getFixedWidthNm() / super.getPixelSize() / 2);
       ZCalibrator zc = DataCollectionForm.zc_;
 
+      List<SpotData> batch = new ArrayList<>(BATCH_SIZE);
+      List<SpotData> results = new ArrayList<>(BATCH_SIZE);
+
       while (!stopNow_) {
-         SpotData spot;
-         synchronized (GFSLOCK) {
-            try {
-               spot = sourceList_.take();
+         batch.clear();
+         try {
+            batch.add(sourceList_.take());
+         } catch (InterruptedException iExp) {
+            ij.IJ.log("Thread interruped  " + Thread.currentThread().getName());
+            return;
+         }
+         sourceList_.drainTo(batch, BATCH_SIZE - 1);
+
+         results.clear();
+         try {
+            for (SpotData spot : batch) {
                // Look for signal that we are done, add back to queue if found
+               // (it is the last item ever queued)
                if (spot.getFrame() == -1) {
                   sourceList_.add(spot);
                   return;
                }
-            } catch (InterruptedException iExp) {
-               ij.IJ.log("Thread interruped  " + Thread.currentThread().getName());
-               return;
+               if (stopNow_) {
+                  return;
+               }
+               if (!fit(spot, gs, zc, results)) {
+                  return;
+               }
             }
-         }
-
-         try {
-            // Note: the implementation will try to return a cached version of the ImageProcessor
-            ImageProcessor ip = spot.getSpotProcessor(siPlus_, super.getHalfBoxSize());
-            GaussianFit.Data fitResult = gs.dogaussianfit(ip, maxIterations_);
-            // Note that the copy constructor will not copy pixel data, so we loose 
-            // those when spot goes out of scope
-            SpotData spotData = SpotDataConverter.convert(spot, fitResult, this, zc);
-
-            if (fitResult.getParms().length > 1
-                    && (!useWidthFilter_
-                    || (spotData.getWidth() > widthMin_ && spotData.getWidth() < widthMax_))
-                  && (!useNrPhotonsFilter_
-                    || (spotData.getIntensity() > nrPhotonsMin_
-                    && spotData.getIntensity() < nrPhotonsMax_))) {
-               resultList_.add(spotData);
+         } finally {
+            if (!results.isEmpty()) {
+               resultList_.addAll(results);
             }
+         }
+      }
+   }
 
-
-         } catch (Exception ex) {
-            ReportingUtils.logError(ex);
-            ReportingUtils.logError("Thread run out of memory  "
-                    + Thread.currentThread().getName());
-            ReportingUtils.showError("Fitter out of memory.\n"
-                    + "Out of memory error");
-            return;
+   /**
+    * Fits a spot, and adds the result to the list if it passes the filters.
+    *
+    * @return false if fitting failed, and this thread should stop
+    */
+   private boolean fit(SpotData spot, GaussianFit gs, ZCalibrator zc, List<SpotData> results) {
+      try {
+         // Note: the implementation will try to return a cached version of the ImageProcessor
+         ImageProcessor ip = spot.getSpotProcessor(siPlus_, super.getHalfBoxSize());
+         GaussianFit.Data fitResult = gs.dogaussianfit((short[]) ip.getPixels(),
+               ip.getWidth(), ip.getHeight(), maxIterations_);
+         // Note that the copy constructor will not copy pixel data, so we loose
+         // those when spot goes out of scope
+         SpotData spotData = SpotDataConverter.convert(spot, fitResult, this, zc);
+
+         if (fitResult.getParms().length > 1 && passesFilters(spotData)) {
+            results.add(spotData);
          }
+         return true;
+      } catch (Exception ex) {
+         ReportingUtils.logError(ex);
+         ReportingUtils.logError("Thread run out of memory  "
+                 + Thread.currentThread().getName());
+         ReportingUtils.showError("Fitter out of memory.\n"
+                 + "Out of memory error");
+         return false;
       }
    }
 }
@@ -0,0 +1,377 @@
+/*
+Copyright (c) 2013-2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+
+package edu.ucsf.valelab.gaussianfit.fitmanagement;
+
+import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
+import edu.ucsf.valelab.gaussianfit.algorithm.FindLocalMaxima;
+import edu.ucsf.valelab.gaussianfit.algorithm.GaussianFit;
+import edu.ucsf.valelab.gaussianfit.data.GaussianInfo;
+import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import edu.ucsf.valelab.gaussianfit.fitting.ZCalibrator;
+import edu.ucsf.valelab.gaussianfit.utils.ReportingUtils;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.awt.Polygon;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds and fits spots in frames as they arrive, for instance from the
+ * acquisition pipeline.
+ *
+ * <p>Frames are handed to a fixed number of worker threads through a queue
+ * of limited length. When the queue is full, a new frame is dropped (and
+ * counted) rather than waited for, so that adding a frame never blocks the
+ * caller, and memory use stays bounded by the length of the queue. Each
+ * worker finds the local maxima in its frame and fits them with a
+ * GaussianFit of its own, using the same detection, fitting and filter
+ * settings as FitAllThread.
+ *
+ * <p>The spots of a frame are appended to a growing SpotTable at once, and
+ * are added to a scatter plot (the number of localizations per pixel of a
+ * magnified image), so that the cost of keeping the preview up to date is
+ * a pixel increment per spot. Snapshots of the table and the preview, and
+ * the statistics, can be taken from any thread while frames are coming in.
+ *
+ * <p>Settings (those of GaussianInfo) must be made before the first frame
+ * is added.
+ */
+public class LiveLocalizer extends GaussianInfo {
+   // Key/values added by SpotDataConverter
+   private static final String[] KEYS = {SpotData.Keys.APERTUREINTENSITY,
+         SpotData.Keys.INTENSITYRATIO, SpotData.Keys.APERTUREBACKGROUND,
+         SpotData.Keys.MSIGMA, SpotData.Keys.INTEGRALSIGMA,
+         SpotData.Keys.INTEGRALAPERTURESIGMA};
+
+   private final FindLocalMaxima.FilterType preFilterType_;
+   private final int previewMagnification_;
+   private final ThreadPoolExecutor workers_;
+   private final ThreadLocal<GaussianFit> fitter_ = ThreadLocal.withInitial(() ->
+         new GaussianFit(getShape(), getFitMode(), getUseFixedWidth(),
+               getFixedWidthNm() / getPixelSize() / 2));
+
+   // All below are guarded by this
+   private final SpotTable.Builder spots_ = new SpotTable.Builder(KEYS);
+   private int width_ = 0;
+   private int height_ = 0;
+   private short[] preview_;
+   private int maxFrame_ = 0;
+   private long framesAdded_ = 0;
+   private long framesDropped_ = 0;
+   private long framesDone_ = 0;
+   private long firstFrameNs_ = 0;
+   private long lastFrameDoneNs_ = 0;
+   // Localizations when the statistics were last asked for, and when
+   private long lastStatisticsSpots_ = 0;
+   private long lastStatisticsNs_ = 0;
+
+   /**
+    * @param nrThreads            number of worker threads
+    * @param maxQueuedFrames      number of frames that can wait for a worker,
+    *                             beyond which frames are dropped
+    * @param preFilterType        filter applied before looking for maxima
+    * @param previewMagnification size of a preview pixel, as a fraction of
+    *                             a camera pixel
+    */
+   public LiveLocalizer(int nrThreads, int maxQueuedFrames,
+                        FindLocalMaxima.FilterType preFilterType, int previewMagnification) {
+      preFilterType_ = preFilterType;
+      previewMagnification_ = Math.max(1, previewMagnification);
+      final AtomicInteger threadNumber = new AtomicInteger(0);
+      nrThreads = Math.max(1, nrThreads);
+      workers_ = new ThreadPoolExecutor(nrThreads, nrThreads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, maxQueuedFrames)), r -> {
+               Thread thread = new Thread(r,
+                     "Live localization worker " + threadNumber.incrementAndGet());
+               thread.setDaemon(true);
+               return thread;
+            });
+      // so that the first frames are not held up by starting threads
+      workers_.prestartAllCoreThreads();
+   }
+
+   /**
+    * Queue a frame for localization, or drop it if too many frames are
+    * waiting already. Never blocks.
+    *
+    * @param pixels   pixels of the frame (short[] or byte[]), which must not
+    *                 change afterwards
+    * @param width    width of the frame
+    * @param height   height of the frame
+    * @param channel  1-based channel, as in SpotData
+    * @param slice    1-based slice
+    * @param frame    1-based frame
+    * @param position 1-based position
+    * @return false if the frame was dropped
+    */
+   public boolean addFrame(final Object pixels, final int width, final int height,
+                           final int channel, final int slice, final int frame,
+                           final int position) {
+      if (!(pixels instanceof short[] || pixels instanceof byte[])) {
+         throw new IllegalArgumentException("Only 8 and 16-bit frames can be localized");
+      }
+      if (skipChannels_ && channelsToSkip_ != null) {
+         for (int c : channelsToSkip_) {
+            if (c == channel) {
+               return true;
+            }
+         }
+      }
+      synchronized (this) {
+         if (preview_ == null) {
+            width_ = width;
+            height_ = height;
+            preview_ = new short[width * previewMagnification_
+                  * height * previewMagnification_];
+            firstFrameNs_ = System.nanoTime();
+         } else if (width != width_ || height != height_) {
+            throw new IllegalArgumentException("Frame of " + width + "x" + height
+                  + " pixels, expected " + width_ + "x" + height_);
+         }
+         maxFrame_ = Math.max(maxFrame_, frame);
+         ++framesAdded_;
+      }
+      try {
+         workers_.execute(() -> localize(pixels, width, height, channel, slice, frame,
+               position));
+         return true;
+      } catch (RejectedExecutionException ree) {
+         synchronized (this) {
+            --framesAdded_;
+            ++framesDropped_;
+         }
+         return false;
+      }
+   }
+
+   private void localize(Object pixels, int width, int height, int channel, int slice,
+                         int frame, int position) {
+      List<SpotData> results = new ArrayList<>();
+      try {
+         ImageProcessor siProc = pixels instanceof short[]
+               ? new ShortProcessor(width, height, (short[]) pixels, null)
+               : new ByteProcessor(width, height, (byte[]) pixels, null);
+         int halfSize = getHalfBoxSize();
+         Polygon p = FindLocalMaxima.findMax(siProc, 2 * halfSize, noiseTolerance_,
+               preFilterType_);
+         GaussianFit gs = fitter_.get();
+         ZCalibrator zc = DataCollectionForm.zc_;
+         short[] box = new short[4 * halfSize * halfSize];
+         for (int j = 0; j < p.npoints; j++) {
+            int x = p.xpoints[j];
+            int y = p.ypoints[j];
+            // filter out spots too close to the edge
+            if (x <= halfSize || x >= width - halfSize
+                  || y <= halfSize || y >= height - halfSize) {
+               continue;
+            }
+            crop(pixels, width, x - halfSize, y - halfSize, 2 * halfSize, box);
+            GaussianFit.Data fitResult = gs.dogaussianfit(box, 2 * halfSize, 2 * halfSize,
+                  maxIterations_);
+            SpotData spot = new SpotData(null, channel, slice, frame, position, j, x, y);
+            SpotData spotData = SpotDataConverter.convert(spot, fitResult, this, zc);
+            if (fitResult.getParms().length > 1 && passesFilters(spotData)) {
+               results.add(spotData);
+            }
+         }
+      } catch (Exception ex) {
+         ReportingUtils.logError(ex, "Live localization failed in frame " + frame);
+      } finally {
+         append(results);
+      }
+   }
+
+   /**
+    * Copy a square of pixels (which lies within the frame), as 16-bit values.
+    */
+   private static void crop(Object pixels, int width, int x0, int y0, int size,
+                            short[] box) {
+      for (int y = 0; y < size; y++) {
+         int offset = (y0 + y) * width + x0;
+         if (pixels instanceof short[]) {
+            System.arraycopy((short[]) pixels, offset, box, y * size, size);
+         } else {
+            byte[] bytes = (byte[]) pixels;
+            for (int x = 0; x < size; x++) {
+               box[y * size + x] = (short) (bytes[offset + x] & 0xff);
+            }
+         }
+      }
+   }
+
+   /**
+    * Add the spots of a frame to the table and the preview.
+    */
+   private synchronized void append(List<SpotData> results) {
+      int row = spots_.addRows(results.size());
+      int previewWidth = width_ * previewMagnification_;
+      int previewHeight = height_ * previewMagnification_;
+      double factor = previewMagnification_ / getPixelSize();
+      for (SpotData spot : results) {
+         spots_.setSpot(row, spot.getChannel(), spot.getSlice(), spot.getFrame(),
+               spot.getPosition(), spot.getNr(), spot.getX(), spot.getY())
+               .setData(row, spot.getIntensity(), spot.getBackground(), spot.getXCenter(),
+                     spot.getYCenter(), spot.getZCenter(), spot.getWidth(), spot.getA(),
+                     spot.getTheta(), spot.getSigma())
+               .setOriginalPosition(row, spot.getXOri(), spot.geYOri(), spot.getZOri());
+         for (int k = 0; k < KEYS.length; k++) {
+            Double value = spot.getValue(KEYS[k]);
+            if (value != null) {
+               spots_.setValue(row, k, value);
+            }
+         }
+         ++row;
+         int x = (int) (factor * spot.getXCenter());
+         int y = (int) (factor * spot.getYCenter());
+         if (x >= 0 && x < previewWidth && y >= 0 && y < previewHeight) {
+            int index = y * previewWidth + x;
+            if (preview_[index] != -1) {
+               preview_[index] += 1;
+            }
+         }
+      }
+      ++framesDone_;
+      lastFrameDoneNs_ = System.nanoTime();
+      notifyAll();
+   }
+
+   /**
+    * @return the spots found so far; spots found later are not added to it
+    */
+   public synchronized SpotTable getLocalizations() {
+      return spots_.build();
+   }
+
+   /**
+    * @return copy of the preview: the number of localizations in each pixel,
+    *         or null if no frame was added yet
+    */
+   public synchronized ImageProcessor getPreview() {
+      if (preview_ == null) {
+         return null;
+      }
+      return new ShortProcessor(width_ * previewMagnification_,
+            height_ * previewMagnification_, preview_.clone(), null);
+   }
+
+   public synchronized int getWidth() {
+      return width_;
+   }
+
+   public synchronized int getHeight() {
+      return height_;
+   }
+
+   /**
+    * @return highest frame number that was added
+    */
+   public synchronized int getMaxFrame() {
+      return maxFrame_;
+   }
+
+   public synchronized long getNrLocalizations() {
+      return spots_.size();
+   }
+
+   /**
+    * @return number of frames that are waiting for, or being localized by,
+    *         a worker
+    */
+   public synchronized long getBacklog() {
+      return framesAdded_ - framesDone_;
+   }
+
+   public synchronized long getNrDroppedFrames() {
+      return framesDropped_;
+   }
+
+   /**
+    * The rate is that since the previous call of this method (or since the
+    * first frame).
+    *
+    * @return summary of the frames and localizations so far
+    */
+   public synchronized String getStatistics() {
+      long now = framesDone_ == framesAdded_ ? lastFrameDoneNs_ : System.nanoTime();
+      long since = lastStatisticsNs_ == 0 ? firstFrameNs_ : lastStatisticsNs_;
+      double seconds = (now - since) / 1e9;
+      long nrSpots = spots_.size();
+      String statistics = String.format("%d localizations in %d frames, "
+                  + "%.0f localizations/s; %d frames waiting, %d dropped",
+            nrSpots, framesDone_,
+            seconds > 0 ? (nrSpots - lastStatisticsSpots_) / seconds : 0.0,
+            framesAdded_ - framesDone_, framesDropped_);
+      if (now > since) {
+         lastStatisticsNs_ = now;
+         lastStatisticsSpots_ = nrSpots;
+      }
+      return statistics;
+   }
+
+   /**
+    * Localize the frames that were added, and stop the workers.
+    *
+    * @throws InterruptedException if interrupted while waiting; the frames
+    *                              still queued are dropped
+    */
+   public void finish() throws InterruptedException {
+      workers_.shutdown();
+      try {
+         synchronized (this) {
+            while (framesDone_ < framesAdded_) {
+               wait();
+            }
+         }
+      } catch (InterruptedException ie) {
+         stop();
+         throw ie;
+      }
+   }
+
+   /**
+    * Stop the workers, dropping the frames that are still queued.
+    */
+   public void stop() {
+      int dropped = workers_.shutdownNow().size();
+      synchronized (this) {
+         framesAdded_ -= dropped;
+         framesDropped_ += dropped;
+         notifyAll();
+      }
+   }
+}
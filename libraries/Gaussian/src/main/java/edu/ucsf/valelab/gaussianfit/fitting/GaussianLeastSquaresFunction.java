@@ -0,0 +1,173 @@
+/*
+Copyright (c) 2010-2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.fitting;
+
+import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
+import java.util.Arrays;
+import org.apache.commons.math.analysis.DifferentiableMultivariateVectorialFunction;
+import org.apache.commons.math.analysis.MultivariateMatrixFunction;
+
+/**
+ * Gaussian model evaluated at every pixel of a spot, for least squares
+ * optimizers (LevenbergMarquardtOptimizer) that take the pixel values as
+ * target.
+ *
+ * <p>Computes exactly the same values and analytic derivatives as
+ * {@link ParametricGaussianFunction} does when used through a CurveFitter,
+ * but without an observation object per pixel, and without allocating a
+ * gradient array per pixel: the Jacobian is written into a matrix that is
+ * reused for every evaluation (the optimizer overwrites its copy of the
+ * Jacobian on every iteration, and does not keep it). The optimizer asks for
+ * the Jacobian at points where it already evaluated the function; the values
+ * computed there are reused, rather than evaluating the Gaussian again.
+ *
+ * <p>Not thread safe; use one instance per fitting thread.
+ *
+ * @author nico
+ */
+public class GaussianLeastSquaresFunction implements DifferentiableMultivariateVectorialFunction {
+
+   private final int shape_;
+   private final double s_;
+   private final boolean fitWidth_;
+   private int width_;
+   private int nrPixels_;
+   private double[][] jacobian_ = new double[0][];
+   private final double[] derivatives_ = new double[7];
+   // Parameters and values of the last two evaluations (the optimizer
+   // compares a trial point to the current one)
+   private final double[][] evaluatedParams_ = new double[2][];
+   private final double[][] evaluatedValues_ = new double[2][];
+   private int lastEvaluation_ = 0;
+   private final MultivariateMatrixFunction jacobianFunction_ = new MultivariateMatrixFunction() {
+      @Override
+      public double[][] value(double[] params) {
+         return jacobian(params);
+      }
+   };
+
+   /**
+    * @param shape 1=circle, 2=width varies in x and y, 3=ellipse
+    * @param s     width of Gaussian in pixels, negative if it should be fitted
+    */
+   public GaussianLeastSquaresFunction(int shape, double s) {
+      shape_ = shape;
+      s_ = s;
+      fitWidth_ = s <= 0.0;
+   }
+
+   /**
+    * Sets the size of the spots that will be fitted.
+    *
+    * @param width  - width of the spot in pixels
+    * @param height - height of the spot in pixels
+    */
+   public void setSize(int width, int height) {
+      width_ = width;
+      nrPixels_ = width * height;
+      evaluatedParams_[0] = null;
+      evaluatedParams_[1] = null;
+   }
+
+   /**
+    * @param params - parameters of the Gaussian
+    * @return - value of the Gaussian at every pixel
+    */
+   @Override
+   public double[] value(double[] params) {
+      // A new array every time: the optimizer keeps the previous values
+      double[] values = new double[nrPixels_];
+      for (int i = 0; i < nrPixels_; i++) {
+         values[i] = model(params, i % width_, i / width_);
+      }
+      lastEvaluation_ = 1 - lastEvaluation_;
+      evaluatedParams_[lastEvaluation_] = params.clone();
+      evaluatedValues_[lastEvaluation_] = values;
+      return values;
+   }
+
+   private double model(double[] params, int x, int y) {
+      switch (shape_) {
+         case 1:
+            if (fitWidth_) {
+               return GaussianUtils.gaussian(params, x, y);
+            }
+            return GaussianUtils.gaussianFixS(params, s_, x, y);
+         case 2:
+            return GaussianUtils.gaussian2DXY(params, x, y);
+         case 3:
+            return GaussianUtils.gaussian2DEllips(params, x, y);
+         default:
+            return 0.0;
+      }
+   }
+
+   @Override
+   public MultivariateMatrixFunction jacobian() {
+      return jacobianFunction_;
+   }
+
+   private double[][] jacobian(double[] params) {
+      if (jacobian_.length != nrPixels_
+            || (nrPixels_ > 0 && jacobian_[0].length != params.length)) {
+         jacobian_ = new double[nrPixels_][params.length];
+      }
+      double[] values = null;
+      for (int e = 0; e < 2; e++) {
+         if (Arrays.equals(params, evaluatedParams_[e])) {
+            values = evaluatedValues_[e];
+         }
+      }
+      for (int i = 0; i < nrPixels_; i++) {
+         int x = i % width_;
+         int y = i / width_;
+         double value = values != null ? values[i] : model(params, x, y);
+         switch (shape_) {
+            case 1:
+               if (fitWidth_) {
+                  GaussianUtils.gaussianJ(params, x, y, value, derivatives_);
+               } else {
+                  GaussianUtils.gaussianJFixS(params, s_, x, y, value, derivatives_);
+               }
+               break;
+            case 2:
+               GaussianUtils.gaussianJ2DXY(params, x, y, value, derivatives_);
+               break;
+            case 3:
+               GaussianUtils.gaussianJ2DEllips(params, x, y, value, derivatives_);
+               break;
+            default:
+               break;
+         }
+         System.arraycopy(derivatives_, 0, jacobian_[i], 0, params.length);
+      }
+      return jacobian_;
+   }
+}
@@ -0,0 +1,179 @@
+/*
+Copyright (c) 2013-2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+package edu.ucsf.valelab.gaussianfit.spotoperations;
+
+import edu.ucsf.valelab.gaussianfit.data.PointData;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the closest point within a maximum distance in a collection of
+ * points.
+ *
+ * <p>Points are sorted into a grid of square cells, at least as large as the
+ * maximum distance, so that a search only looks at the points in the 3 x 3
+ * cells around the input. Building the grid takes linear time, and a search
+ * takes constant time for points spread over the field of view, which makes
+ * the grid faster than a kd tree for the gated nearest neighbour searches
+ * used to link spots in consecutive frames.
+ *
+ * <p>Of points at the same distance, the first one in the list is found.
+ */
+public class NearestPointGrid {
+
+   private final List<? extends PointData> theList_;
+   private final double maxDistanceSquared_;
+   private final double minX_;
+   private final double minY_;
+   private final double cellSize_;
+   private final int columns_;
+   private final int rows_;
+   // Points in cell c are cellPoints_[cellStart_[c]] up to
+   // cellPoints_[cellStart_[c + 1]], in list order
+   private final int[] cellStart_;
+   private final int[] cellPoints_;
+   private final double[] x_;
+   private final double[] y_;
+
+   public NearestPointGrid(List<? extends PointData> points, double maxDistance) {
+      theList_ = points;
+      maxDistanceSquared_ = maxDistance * maxDistance;
+      final int n = points.size();
+      x_ = new double[n];
+      y_ = new double[n];
+      double minX = Double.POSITIVE_INFINITY;
+      double minY = Double.POSITIVE_INFINITY;
+      double maxX = Double.NEGATIVE_INFINITY;
+      double maxY = Double.NEGATIVE_INFINITY;
+      for (int i = 0; i < n; i++) {
+         Point2D.Double p = points.get(i).getPoint();
+         x_[i] = p.x;
+         y_[i] = p.y;
+         if (Double.isNaN(p.x) || Double.isNaN(p.y)) {
+            continue;
+         }
+         minX = Math.min(minX, p.x);
+         minY = Math.min(minY, p.y);
+         maxX = Math.max(maxX, p.x);
+         maxY = Math.max(maxY, p.y);
+      }
+      if (!(maxX >= minX) || Double.isInfinite(maxX - minX)
+            || !(maxY >= minY) || Double.isInfinite(maxY - minY)) {
+         minX = 0.0;
+         minY = 0.0;
+         maxX = 0.0;
+         maxY = 0.0;
+      }
+      minX_ = minX;
+      minY_ = minY;
+      // Use at most a few cells per point, so that sparse points in a large
+      // field of view (or along a line) do not need a huge grid
+      double cellSize = Math.max(maxDistance, Math.max(
+            Math.sqrt((maxX - minX) * (maxY - minY) / (4.0 * Math.max(1, n))),
+            Math.max(maxX - minX, maxY - minY) / (4.0 * n + 1.0)));
+      if (!(cellSize > 0.0) || Double.isInfinite(cellSize)) {
+         cellSize = Double.POSITIVE_INFINITY;
+      }
+      cellSize_ = cellSize;
+      columns_ = cell(maxX, minX_, Integer.MAX_VALUE) + 1;
+      rows_ = cell(maxY, minY_, Integer.MAX_VALUE) + 1;
+
+      int[] cellOf = new int[n];
+      cellStart_ = new int[columns_ * rows_ + 1];
+      for (int i = 0; i < n; i++) {
+         cellOf[i] = cell(y_[i], minY_, rows_ - 1) * columns_ + cell(x_[i], minX_, columns_ - 1);
+         cellStart_[cellOf[i] + 1]++;
+      }
+      for (int c = 0; c < columns_ * rows_; c++) {
+         cellStart_[c + 1] += cellStart_[c];
+      }
+      int[] next = Arrays.copyOf(cellStart_, cellStart_.length - 1);
+      cellPoints_ = new int[n];
+      for (int i = 0; i < n; i++) {
+         cellPoints_[next[cellOf[i]]++] = i;
+      }
+   }
+
+   /**
+    * @return cell of a coordinate, between 0 and max
+    */
+   private int cell(double coordinate, double min, int max) {
+      double cell = Math.floor((coordinate - min) / cellSize_);
+      if (!(cell > 0.0)) {
+         return 0;
+      }
+      return cell >= max ? max : (int) cell;
+   }
+
+   /**
+    * Finds the nearest point.
+    *
+    * @param x - x position of the point for which we want the nearest neighbor
+    * @param y - y position
+    * @return index of the nearest point in the list, or -1 when there is no
+    *         point closer than the cutoff set in the constructor
+    */
+   public int findIndex(double x, double y) {
+      if (cellPoints_.length == 0) {
+         return -1;
+      }
+      int column = cell(x, minX_, columns_ - 1);
+      int row = cell(y, minY_, rows_ - 1);
+      int best = -1;
+      double bestDistance = maxDistanceSquared_;
+      for (int r = Math.max(0, row - 1); r <= Math.min(rows_ - 1, row + 1); r++) {
+         int start = cellStart_[r * columns_ + Math.max(0, column - 1)];
+         int end = cellStart_[r * columns_ + Math.min(columns_ - 1, column + 1) + 1];
+         for (int k = start; k < end; k++) {
+            int i = cellPoints_[k];
+            double dx = x_[i] - x;
+            double dy = y_[i] - y;
+            double distance = dx * dx + dy * dy;
+            if (distance < bestDistance || (distance == bestDistance && best > i)) {
+               best = i;
+               bestDistance = distance;
+            }
+         }
+      }
+      return best;
+   }
+
+   /**
+    * Finds the nearest point.
+    *
+    * @param input - point for which we want to find the nearest neighbor
+    * @return point found or null when it was farther away than the cutoff set in the constructor
+    */
+   public PointData find(Point2D.Double input) {
+      int index = findIndex(input.x, input.y);
+      return index < 0 ? null : theList_.get(index);
+   }
+}
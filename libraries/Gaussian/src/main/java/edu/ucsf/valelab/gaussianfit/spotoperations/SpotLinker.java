@@ -31,17 +31,17 @@ package edu.ucsf.valelab.gaussianfit.spotoperations;
 import static edu.ucsf.valelab.gaussianfit.DataCollectionForm.getInstance;
 
 import edu.ucsf.valelab.gaussianfit.DataCollectionForm;
-import edu.ucsf.valelab.gaussianfit.data.GsSpotPair;
 import edu.ucsf.valelab.gaussianfit.data.RowData;
 import edu.ucsf.valelab.gaussianfit.data.SpotData;
 import edu.ucsf.valelab.gaussianfit.data.TrackData;
-import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 import javax.swing.JOptionPane;
 
 /**
@@ -61,85 +61,17 @@ public class SpotLinker {
     * Function that executes spot linkage.  Goes through a list of spots and looks in every
     * consecutive frames for the closest by spot (at a maximum distance of maxDistance.  If no spot
     * is found, the link is added and the linked (averaged) spot is added to the destination list
-    * through the function linkSpots.  This code could also be used for spot tracking
+    * through the function linkSpots.  This code could also be used for spot tracking.  A spot
+    * that is the closest to the ends of several tracks extends all of them (unlike in
+    * extractTracks).  Positions, channels and slices are linked in parallel.
     *
     * @param rowData
     * @param maxDistance
     */
-   public static void link(RowData rowData, double maxDistance) {
+   public static void link(final RowData rowData, final double maxDistance) {
       try {
          ij.IJ.showStatus("Linking spotData...");
-         boolean useFrames = rowData.nrFrames_ > rowData.nrSlices_;
-         int nr = rowData.nrSlices_;
-         if (useFrames) {
-            nr = rowData.nrFrames_;
-         }
-
-         // linked spots go here:
-         List<SpotData> destList = new ArrayList<SpotData>();
-         // maintain active tracks here
-         List<List<SpotData>> tracks =
-               new ArrayList<List<SpotData>>();
-         for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
-            for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
-               for (int s = 1; s <= rowData.nrSlices_; s++) {
-                  for (int f = 1; f <= rowData.nrFrames_; f++) {
-                     List<SpotData> spots = rowData.get(f, s, ch, pos);
-                     if (spots != null) {
-                        // keep track of spots in this frame added to tracks 
-                        List<SpotData> markedSpots = new ArrayList<SpotData>();
-                        // go through all tracks to see if they can be extended
-                        if (tracks.size() > 0) {
-                           ArrayList<GsSpotPair> gsSpots = new ArrayList<GsSpotPair>();
-                           for (SpotData spot : spots) {
-                              gsSpots.add(new GsSpotPair(spot, null,
-                                    new Point2D.Double(spot.getXCenter(), spot.getYCenter()),
-                                    new Point2D.Double(0.0, 0.0)));
-                           }
-                           NearestPointByData nsp = new NearestPointByData(gsSpots, maxDistance);
-                           List<List<SpotData>> removedTracks =
-                                 new ArrayList<List<SpotData>>();
-                           for (List<SpotData> track : tracks) {
-                              SpotData tSpot = track.get(track.size() - 1);
-                              // TODO: do we really need a copy here?
-                              GsSpotPair newSpot = ((GsSpotPair) nsp.findKDWSE(new Point2D.Double(
-                                    tSpot.getXCenter(), tSpot.getYCenter()))).copy();
-                              if (newSpot == null) {
-                                 // track could not be extended, finalize it
-                                 linkSpots(track, destList, useFrames);
-                                 // and remove from the list of tracks
-                                 // to avoid a concurrent modification exception
-                                 // the removal needs to be a two step process
-                                 removedTracks.add(track);
-                              } else {
-                                 track.add(newSpot.getFirstSpot());
-                                 markedSpots.add(newSpot.getFirstSpot());
-                              }
-                           }
-                           // second part of removing tracks
-                           for (List<SpotData> track : removedTracks) {
-                              tracks.remove(track);
-                           }
-                        }
-                        // go through spots and start a new track with any spot 
-                        // that was not part of a track
-                        for (SpotData spot : spots) {
-                           if (!markedSpots.contains(spot)) {
-                              List<SpotData> track = new ArrayList<SpotData>();
-                              track.add(spot);
-                              tracks.add(track);
-                           }
-                        }
-                     }
-                  }
-                  // add tracks that made it to the end to destination list
-                  for (List<SpotData> track : tracks) {
-                     linkSpots(track, destList, useFrames);
-                  }
-                  tracks.clear();
-               }
-            }
-         }
+         List<SpotData> destList = linkedSpots(rowData, maxDistance);
 
          // Add destList to rowData
          RowData.Builder builder = rowData.copy();
@@ -153,6 +85,67 @@ public class SpotLinker {
       }
    }
 
+   /**
+    * Links the spots as described in link.
+    *
+    * @return linked (averaged) spots, ordered by position, channel and slice
+    */
+   static List<SpotData> linkedSpots(final RowData rowData, final double maxDistance) {
+      final boolean useFrames = rowData.nrFrames_ > rowData.nrSlices_;
+
+      // linked spots go here, by position, channel and slice:
+      List<List<SpotData>> destLists = forEachSeries(rowData, (pos, ch, s) -> {
+         List<SpotData> destList = new ArrayList<SpotData>();
+         // maintain active tracks here
+         List<List<SpotData>> tracks = new ArrayList<List<SpotData>>();
+         for (int f = 1; f <= rowData.nrFrames_; f++) {
+            List<SpotData> spots = rowData.get(f, s, ch, pos);
+            if (spots != null) {
+               // keep track of spots in this frame added to tracks
+               boolean[] markedSpots = new boolean[spots.size()];
+               // go through all tracks to see if they can be extended
+               if (tracks.size() > 0) {
+                  NearestPointGrid nsp = new NearestPointGrid(spots, maxDistance);
+                  List<List<SpotData>> keptTracks =
+                        new ArrayList<List<SpotData>>(tracks.size() + spots.size());
+                  for (List<SpotData> track : tracks) {
+                     SpotData tSpot = track.get(track.size() - 1);
+                     int index = nsp.findIndex(tSpot.getXCenter(), tSpot.getYCenter());
+                     if (index < 0) {
+                        // track could not be extended, finalize it
+                        linkSpots(track, destList, useFrames);
+                     } else {
+                        track.add(spots.get(index));
+                        markedSpots[index] = true;
+                        keptTracks.add(track);
+                     }
+                  }
+                  tracks = keptTracks;
+               }
+               // go through spots and start a new track with any spot
+               // that was not part of a track
+               for (int i = 0; i < spots.size(); i++) {
+                  if (!markedSpots[i]) {
+                     List<SpotData> track = new ArrayList<SpotData>();
+                     track.add(spots.get(i));
+                     tracks.add(track);
+                  }
+               }
+            }
+         }
+         // add tracks that made it to the end to destination list
+         for (List<SpotData> track : tracks) {
+            linkSpots(track, destList, useFrames);
+         }
+         return destList;
+      });
+      List<SpotData> destList = new ArrayList<SpotData>();
+      for (List<SpotData> spots : destLists) {
+         destList.addAll(spots);
+      }
+      return destList;
+   }
+
    /**
     * Given a list of linked spots, create a single spot entry that will be added to the destination
     * list
@@ -260,142 +253,198 @@ public class SpotLinker {
       int trackNr = 0;
       try {
          ij.IJ.showStatus("Extracting tracks...");
+         for (List<SpotData> track : trackLists(rowData, minNr, nrMissing, maxDistance,
+               minTotalDistance, combineChannels, maxPairDistance)) {
+            writeTrack(rowData, track, trackNr);
+            trackNr++;
+         }
+         ij.IJ.showStatus("Extracted " + trackNr + " tracks");
+      } catch (OutOfMemoryError oome) {
+         JOptionPane.showMessageDialog(getInstance(), "Out of memory");
+      }
 
-         // maintain active tracks here
-         List<Integer> trackIndex;
-         Map<List<Integer>, List<TrackData>> trackMap = new HashMap<>();
+      return trackNr;
+   }
+
+   /**
+    * Extracts tracks as described in extractTracks.
+    *
+    * @return tracks, in the order in which they are written
+    */
+   static List<List<SpotData>> trackLists(final RowData rowData, final int minNr,
+         final int nrMissing, final double maxDistance, final double minTotalDistance,
+         final boolean combineChannels, final double maxPairDistance) {
+      // follow the spots of every position, channel and slice through the frames
+      List<Tracks> allTracks = forEachSeries(rowData, (pos, ch, s) ->
+            findTracks(rowData, pos, ch, s, minNr, nrMissing, maxDistance,
+                  minTotalDistance));
+
+      List<List<SpotData>> result = new ArrayList<List<SpotData>>();
+      // Collect the tracks that ended, in the order they were found,
+      // and keep the tracks that made it to the end
+      List<Integer> trackIndex;
+      Map<List<Integer>, List<TrackData>> trackMap = new HashMap<>();
+      Iterator<Tracks> it = allTracks.iterator();
+      for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
+         for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
+            for (int s = 1; s <= rowData.nrSlices_; s++) {
+               Tracks tracks = it.next();
+               for (TrackData track : tracks.finished_) {
+                  result.add(track.getList());
+               }
+               trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
+               trackMap.put(trackIndex, tracks.active_);
+            }
+         }
+      }
+
+      // take average position of track in first channel
+      // if average position of closest track in another channel is within
+      // maxPairDistance, combine the tracks 
+      if (combineChannels) {
          for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
-            for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
-               for (int s = 1; s <= rowData.nrSlices_; s++) {
+            for (int s = 1; s <= rowData.nrSlices_; s++) {
+               Map<Integer, List<TrackData>> tracksByChannel =
+                     new HashMap<Integer, List<TrackData>>();
+               Map<Integer, NearestPointByData> npsByChannel =
+                     new HashMap<Integer, NearestPointByData>();
+               for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
                   trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
-                  List<TrackData> tracks =
-                        new ArrayList<TrackData>();
-                  for (int f = 1; f <= rowData.nrFrames_; f++) {
-                     List<SpotData> spots = rowData.get(f, s, ch, pos);
-                     if (spots != null) {
-                        // keep track of spots in this frame added to tracks 
-                        List<SpotData> markedSpots = new ArrayList<SpotData>();
-                        // go through all tracks to see if they can be extended
-                        if (tracks.size() > 0) {
-                           NearestPointByData nsp = new NearestPointByData(spots, maxDistance);
-                           List<TrackData> removedTracks =
-                                 new ArrayList<TrackData>();
-                           for (TrackData track : tracks) {
-                              SpotData tSpot = track.get(track.size() - 1);
-                              // TODO: do we really need a copy here?
-                              SpotData newSpot = (SpotData) nsp.findKDWSE(new Point2D.Double(
-                                    tSpot.getXCenter(), tSpot.getYCenter()));
-                              if (newSpot == null || markedSpots.contains(newSpot)) {
-                                 track.addMissing();
-                                 if (track.missingMoreThan(nrMissing)) {
-                                    // track could not be extended, finalize it
-                                    // Write out the track:
-                                    if (track.size() > minNr
-                                            && track.get(0).distance(track.get(track.size() - 1))
-                                                > minTotalDistance) {
-                                       writeTrack(rowData, track.getList(), trackNr);
-                                       trackNr++;
-                                       // and remove from the list of tracks
-                                       // to avoid a concurrent modification exception
-                                       // the removal needs to be a two step process
-                                       removedTracks.add(track);
-                                    }
-                                 }
-                              } else {
-                                 track.resetMissing();
-                                 track.add(newSpot);
-                                 markedSpots.add(newSpot);
-                              }
-                           }
-                           // second part of removing tracks
-                           for (TrackData track : removedTracks) {
-                              tracks.remove(track);
-                           }
-                        }
-                        // go through spots and start a new track with any spot 
-                        // that was not part of a previous track
-                        for (SpotData spot : spots) {
-                           if (!markedSpots.contains(spot)) {
-                              TrackData track = new TrackData();
-                              track.add(spot);
-                              tracks.add(track);
+                  tracksByChannel.put(ch, trackMap.get(trackIndex));
+                  npsByChannel.put(ch, new NearestPointByData(
+                        trackMap.get(trackIndex), maxPairDistance));
+               }
+               for (TrackData track : tracksByChannel.get(1)) {
+                  if (track.size() > minNr
+                        && track.get(0).distance(track.get(track.size() - 1))
+                        > minTotalDistance) {
+                     for (int ch = 2; ch <= rowData.nrChannels_; ch++) {
+                        TrackData closestTrack =
+                              (TrackData) npsByChannel.get(ch).findKDWSE(track.getPoint());
+                        if (closestTrack != null) {
+                           if (closestTrack.size() > minNr
+                                 && closestTrack.get(0).distance(
+                                 closestTrack.get(closestTrack.size() - 1))
+                                 > minTotalDistance) {
+                              track.add(closestTrack);
+                              trackMap.remove(Collections.unmodifiableList(
+                                    Arrays.asList(pos, ch, s)));
                            }
                         }
                      }
                   }
-
-                  // add tracks that made it to the end to destination list 
-                  trackMap.put(trackIndex, tracks);
-
                }
             }
          }
+      }
 
-         // take average position of track in first channel
-         // if average position of closest track in another channel is within
-         // maxPairDistance, combine the tracks 
-         if (combineChannels) {
-            for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
-               for (int s = 1; s <= rowData.nrSlices_; s++) {
-                  Map<Integer, List<TrackData>> tracksByChannel =
-                        new HashMap<Integer, List<TrackData>>();
-                  Map<Integer, NearestPointByData> npsByChannel =
-                        new HashMap<Integer, NearestPointByData>();
-                  for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
-                     trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
-                     tracksByChannel.put(ch, trackMap.get(trackIndex));
-                     npsByChannel.put(ch, new NearestPointByData(
-                           trackMap.get(trackIndex), maxPairDistance));
-                  }
-                  for (TrackData track : tracksByChannel.get(1)) {
+      for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
+         for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
+            for (int s = 1; s <= rowData.nrSlices_; s++) {
+               trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
+               List<TrackData> tracks = trackMap.get(trackIndex);
+               if (tracks != null) {
+                  for (TrackData track : tracks) {
                      if (track.size() > minNr
                            && track.get(0).distance(track.get(track.size() - 1))
                            > minTotalDistance) {
-                        for (int ch = 2; ch <= rowData.nrChannels_; ch++) {
-                           TrackData closestTrack =
-                                 (TrackData) npsByChannel.get(ch).findKDWSE(track.getPoint());
-                           if (closestTrack != null) {
-                              if (closestTrack.size() > minNr
-                                    && closestTrack.get(0).distance(
-                                    closestTrack.get(closestTrack.size() - 1))
-                                    > minTotalDistance) {
-                                 track.add(closestTrack);
-                                 trackMap.remove(Collections.unmodifiableList(
-                                       Arrays.asList(pos, ch, s)));
-                              }
-                           }
-                        }
+                        result.add(track.getList());
                      }
                   }
                }
             }
          }
+      }
+      return result;
+   }
 
-         for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
-            for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
-               for (int s = 1; s <= rowData.nrSlices_; s++) {
-                  trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
-                  List<TrackData> tracks = trackMap.get(trackIndex);
-                  if (tracks != null) {
-                     for (TrackData track : tracks) {
+   /**
+    * Tracks of one position, channel and slice.
+    */
+   private static final class Tracks {
+      // tracks that ended, and are long enough to be written, in order of their end
+      private final List<TrackData> finished_ = new ArrayList<TrackData>();
+      // tracks that made it to the end
+      private List<TrackData> active_ = new ArrayList<TrackData>();
+   }
+
+   /**
+    * Links the spots of one position, channel and slice into tracks, as described in
+    * extractTracks.
+    */
+   private static Tracks findTracks(RowData rowData, int pos, int ch, int s, int minNr,
+         int nrMissing, double maxDistance, double minTotalDistance) {
+      Tracks result = new Tracks();
+      for (int f = 1; f <= rowData.nrFrames_; f++) {
+         List<SpotData> spots = rowData.get(f, s, ch, pos);
+         if (spots != null) {
+            // keep track of spots in this frame added to tracks
+            boolean[] markedSpots = new boolean[spots.size()];
+            // go through all tracks to see if they can be extended
+            if (result.active_.size() > 0) {
+               NearestPointGrid nsp = new NearestPointGrid(spots, maxDistance);
+               List<TrackData> keptTracks =
+                     new ArrayList<TrackData>(result.active_.size() + spots.size());
+               for (TrackData track : result.active_) {
+                  SpotData tSpot = track.get(track.size() - 1);
+                  int index = nsp.findIndex(tSpot.getXCenter(), tSpot.getYCenter());
+                  if (index < 0 || markedSpots[index]) {
+                     track.addMissing();
+                     if (track.missingMoreThan(nrMissing)) {
+                        // track could not be extended, finalize it
                         if (track.size() > minNr
                               && track.get(0).distance(track.get(track.size() - 1))
                               > minTotalDistance) {
-                           writeTrack(rowData, track.getList(), trackNr);
-                           trackNr++;
+                           result.finished_.add(track);
+                           continue;
                         }
                      }
+                  } else {
+                     track.resetMissing();
+                     track.add(spots.get(index));
+                     markedSpots[index] = true;
                   }
+                  keptTracks.add(track);
+               }
+               result.active_ = keptTracks;
+            }
+            // go through spots and start a new track with any spot
+            // that was not part of a previous track
+            for (int i = 0; i < spots.size(); i++) {
+               if (!markedSpots[i]) {
+                  TrackData track = new TrackData();
+                  track.add(spots.get(i));
+                  result.active_.add(track);
                }
             }
          }
-
-         ij.IJ.showStatus("Extracted " + trackNr + " tracks");
-      } catch (OutOfMemoryError oome) {
-         JOptionPane.showMessageDialog(getInstance(), "Out of memory");
       }
+      return result;
+   }
 
-      return trackNr;
+   private interface SeriesFunction<T> {
+      T apply(int pos, int ch, int s);
+   }
+
+   /**
+    * Runs a function for every position, channel and slice of the data set.  These are
+    * independent of each other, and are processed in parallel.
+    *
+    * @return results of the function, ordered by position, channel and slice
+    */
+   private static <T> List<T> forEachSeries(final RowData rowData,
+         final SeriesFunction<T> function) {
+      final int nrChannels = rowData.nrChannels_;
+      final int nrSlices = rowData.nrSlices_;
+      final int n = rowData.nrPositions_ * nrChannels * nrSlices;
+      final List<T> results = new ArrayList<T>(Collections.nCopies(n, null));
+      IntStream intStream = IntStream.range(0, n);
+      if (n > 1 && Runtime.getRuntime().availableProcessors() > 1) {
+         intStream = intStream.parallel();
+      }
+      intStream.forEach(i -> results.set(i, function.apply(i / (nrChannels * nrSlices) + 1,
+            (i / nrSlices) % nrChannels + 1, i % nrSlices + 1)));
+      return results;
    }
 
    private static void writeTrack(RowData rowData, List<SpotData> track, int trackNr) {
@@ -567,17 +567,26 @@ public class GaussianUtils {
     * @return - array with the derivates for each of the parameters
     */
    public static double[] gaussianJ(double[] params, int x, int y) {
-      double q = gaussian(params, x, y) - params[BGR];
+      double[] result = new double[5];
+      gaussianJ(params, x, y, gaussian(params, x, y), result);
+      return result;
+   }
+
+   /**
+    * Like {@link #gaussianJ(double[], int, int)}, but takes the value of the function
+    * at x, y, and writes the derivatives into the given array, which must hold
+    * at least 5 values.
+    */
+   public static void gaussianJ(double[] params, int x, int y, double value,
+         double[] result) {
+      double q = value - params[BGR];
       double dx = x - params[XC];
       double dy = y - params[YC];
-      double[] result = {
-            q / params[INT],
-            1.0,
-            dx * q / sqr(params[S]),
-            dy * q / sqr(params[S]),
-            (sqr(dx) + sqr(dy)) * q / cube(params[S])
-      };
-      return result;
+      result[0] = q / params[INT];
+      result[1] = 1.0;
+      result[2] = dx * q / sqr(params[S]);
+      result[3] = dy * q / sqr(params[S]);
+      result[4] = (sqr(dx) + sqr(dy)) * q / cube(params[S]);
    }
 
 
@@ -592,17 +601,26 @@ public class GaussianUtils {
     */
    public static double[] gaussianJFixS(double[] params, final double s,
          final int x, final int y) {
-      double q = gaussianFixS(params, s, x, y) - params[BGR];
+      double[] result = new double[5];
+      gaussianJFixS(params, s, x, y, gaussianFixS(params, s, x, y), result);
+      return result;
+   }
+
+   /**
+    * Like {@link #gaussianJFixS(double[], double, int, int)}, but takes the
+    * value of the function at x, y, and writes the derivatives into the given array, which must hold
+    * at least 5 values.
+    */
+   public static void gaussianJFixS(double[] params, final double s,
+         final int x, final int y, double value, double[] result) {
+      double q = value - params[BGR];
       double dx = x - params[XC];
       double dy = y - params[YC];
-      double[] result = {
-            q / params[INT],
-            1.0,
-            dx * q / sqr(s),
-            dy * q / sqr(s),
-            (sqr(dx) + sqr(dy)) * q / cube(s)
-      };
-      return result;
+      result[0] = q / params[INT];
+      result[1] = 1.0;
+      result[2] = dx * q / sqr(s);
+      result[3] = dy * q / sqr(s);
+      result[4] = (sqr(dx) + sqr(dy)) * q / cube(s);
    }
 
 
@@ -642,18 +660,27 @@ public class GaussianUtils {
     * @return - array with the derivates for each of the parameters
     */
    public static double[] gaussianJ2DXY(double[] params, int x, int y) {
-      double q = gaussian2DXY(params, x, y) - params[BGR];
+      double[] result = new double[6];
+      gaussianJ2DXY(params, x, y, gaussian2DXY(params, x, y), result);
+      return result;
+   }
+
+   /**
+    * Like {@link #gaussianJ2DXY(double[], int, int)}, but takes the value of the function
+    * at x, y, and writes the derivatives into the given array, which must hold
+    * at least 6 values.
+    */
+   public static void gaussianJ2DXY(double[] params, int x, int y, double value,
+         double[] result) {
+      double q = value - params[BGR];
       double dx = x - params[XC];
       double dy = y - params[YC];
-      double[] result = {
-            q / params[INT],
-            1.0,
-            dx * q / sqr(params[S1]),
-            dy * q / sqr(params[S2]),
-            sqr(dx) * q / cube(params[S1]),
-            sqr(dy) * q / cube(params[S2])
-      };
-      return result;
+      result[0] = q / params[INT];
+      result[1] = 1.0;
+      result[2] = dx * q / sqr(params[S1]);
+      result[3] = dy * q / sqr(params[S2]);
+      result[4] = sqr(dx) * q / cube(params[S1]);
+      result[5] = sqr(dy) * q / cube(params[S2]);
    }
 
    /**
@@ -692,19 +719,28 @@ public class GaussianUtils {
     * @return - array with the derivates for each of the parameters
     */
    public static double[] gaussianJ2DEllips(double[] params, int x, int y) {
-      double q = gaussian2DEllips(params, x, y) - params[BGR];
+      double[] result = new double[7];
+      gaussianJ2DEllips(params, x, y, gaussian2DEllips(params, x, y), result);
+      return result;
+   }
+
+   /**
+    * Like {@link #gaussianJ2DEllips(double[], int, int)}, but takes the value of the function
+    * at x, y, and writes the derivatives into the given array, which must hold
+    * at least 7 values.
+    */
+   public static void gaussianJ2DEllips(double[] params, int x, int y, double value,
+         double[] result) {
+      double q = value - params[BGR];
       double dx = x - params[XC];
       double dy = y - params[YC];
-      double[] result = {
-            q / params[INT],
-            1.0,
-            (params[S1] * dx + params[S2] * dy) * q,
-            (params[S2] * dx + params[S3] * dy) * q,
-            -0.5 * sqr(dx) * q,
-            -dx * dy * q,
-            -0.5 * sqr(dy) * q
-      };
-      return result;
+      result[0] = q / params[INT];
+      result[1] = 1.0;
+      result[2] = (params[S1] * dx + params[S2] * dy) * q;
+      result[3] = (params[S2] * dx + params[S3] * dy) * q;
+      result[4] = -0.5 * sqr(dx) * q;
+      result[5] = -dx * dy * q;
+      result[6] = -0.5 * sqr(dy) * q;
    }
 
    /**
@@ -0,0 +1,171 @@
+package edu.ucsf.valelab.gaussianfit.algorithm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.ucsf.valelab.gaussianfit.algorithm.FindLocalMaxima.FilterType;
+import ij.plugin.filter.GaussianBlur;
+import ij.process.Blitter;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.Objects;
+import java.util.Random;
+import org.junit.Test;
+
+public class FindLocalMaximaTest {
+   private static final int WIDTH = 67;
+   private static final int HEIGHT = 53;
+
+   private enum Type {
+      BYTE, SHORT, FLOAT
+   }
+
+   /**
+    * Spots on a noisy background. With levels > 0, values are rounded to
+    * multiples of levels, which gives plateaus and many ties.
+    */
+   private static ImageProcessor image(Type type, long seed, int levels) {
+      Random random = new Random(seed);
+      float[] values = new float[WIDTH * HEIGHT];
+      for (int i = 0; i < values.length; i++) {
+         values[i] = 10 + 20 * random.nextFloat();
+      }
+      for (int spot = 0; spot < 25; spot++) {
+         double xc = WIDTH * random.nextDouble();
+         double yc = HEIGHT * random.nextDouble();
+         double amplitude = 50 + 150 * random.nextDouble();
+         for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+               double r2 = (x - xc) * (x - xc) + (y - yc) * (y - yc);
+               values[y * WIDTH + x] += (float) (amplitude * Math.exp(-r2 / 4.0));
+            }
+         }
+      }
+      if (levels > 0) {
+         for (int i = 0; i < values.length; i++) {
+            values[i] = levels * Math.round(values[i] / levels);
+         }
+      }
+      ImageProcessor proc;
+      switch (type) {
+         case BYTE:
+            proc = new ByteProcessor(WIDTH, HEIGHT);
+            break;
+         case SHORT:
+            proc = new ShortProcessor(WIDTH, HEIGHT);
+            break;
+         default:
+            return new FloatProcessor(WIDTH, HEIGHT, values);
+      }
+      for (int i = 0; i < values.length; i++) {
+         proc.set(i, Math.min(type == Type.BYTE ? 255 : 65535, (int) values[i]));
+      }
+      return proc;
+   }
+
+   // The prefilter of findMax, followed by the look at the full box of every pixel
+   private static Polygon bruteForce(ImageProcessor proc, int n, int threshold,
+                                     FilterType filterType) {
+      Rectangle roi = proc.getRoi();
+      if (filterType == FilterType.GAUSSIAN1_5) {
+         ImageProcessor g1 = proc.duplicate();
+         ImageProcessor g5 = proc.duplicate();
+         new GaussianBlur().blurGaussian(g1, 0.4, 0.4, 0.01);
+         new GaussianBlur().blurGaussian(g5, 2.0, 2.0, 0.01);
+         g1.copyBits(g5, 0, 0, Blitter.SUBTRACT);
+         proc = g1;
+      }
+      return FindLocalMaxima.findMaxInBox(proc, roi, n, threshold, new Polygon());
+   }
+
+   // Both list points ordered by x, then y
+   private static void assertSameMaxima(String message, Polygon expected, Polygon actual) {
+      assertEquals(message, expected.npoints, actual.npoints);
+      assertArrayEquals(message, expected.xpoints, actual.xpoints);
+      assertArrayEquals(message, expected.ypoints, actual.ypoints);
+   }
+
+   private static int compare(ImageProcessor proc, Rectangle roi) {
+      int total = 0;
+      for (FilterType filterType : FilterType.values()) {
+         for (int n : new int[] {1, 2, 3, 5, 8}) {
+            for (int threshold : new int[] {0, 10}) {
+               String message = filterType + ", n " + n + ", threshold " + threshold;
+               if (roi != null) {
+                  proc.setRoi(roi);
+               }
+               Polygon expected = bruteForce(proc, n, threshold, filterType);
+               if (roi != null) {
+                  proc.setRoi(roi);
+               }
+               ImageProcessor original = proc.duplicate();
+               Polygon actual = FindLocalMaxima.findMax(proc, n, threshold, filterType);
+               assertSameMaxima(message, expected, actual);
+               // findMax does not change the image
+               assertTrue(message, Objects.deepEquals(original.getPixels(), proc.getPixels()));
+               total += expected.npoints;
+            }
+         }
+      }
+      return total;
+   }
+
+   @Test
+   public void testMatchesBruteForce() {
+      for (Type type : Type.values()) {
+         assertTrue(type.toString(), compare(image(type, 1, 0), null) > 0);
+      }
+   }
+
+   @Test
+   public void testPlateausMatchBruteForce() {
+      for (Type type : Type.values()) {
+         assertTrue(type.toString(), compare(image(type, 2, 20), null) > 0);
+      }
+      // A flat image, where every pixel ties with every other
+      ImageProcessor flat = new ShortProcessor(WIDTH, HEIGHT);
+      flat.setValue(100);
+      flat.fill();
+      compare(flat, null);
+   }
+
+   @Test
+   public void testRoiMatchesBruteForce() {
+      Rectangle roi = new Rectangle(9, 5, 41, 37);
+      for (Type type : Type.values()) {
+         assertTrue(type.toString(), compare(image(type, 3, 0), roi) > 0);
+         compare(image(type, 4, 20), roi);
+      }
+      // An ROI too small for the box, which findMax hands to the full look
+      compare(image(Type.SHORT, 5, 0), new Rectangle(20, 20, 12, 12));
+   }
+
+   @Test
+   public void testTies() {
+      ImageProcessor proc = new ShortProcessor(20, 20);
+      proc.setValue(10);
+      proc.fill();
+      // Two equal pixels in the same row, within each other's box: the right
+      // one wins
+      proc.set(8, 9, 500);
+      proc.set(10, 9, 500);
+      Polygon maxima = FindLocalMaxima.findMax(proc, 3, 0, FilterType.NONE);
+      assertEquals(1, maxima.npoints);
+      assertEquals(10, maxima.xpoints[0]);
+      assertEquals(9, maxima.ypoints[0]);
+      assertSameMaxima("same row", bruteForce(proc, 3, 0, FilterType.NONE), maxima);
+
+      // When one is left of and below the other, neither wins
+      proc.fill();
+      proc.set(9, 8, 500);
+      proc.set(8, 10, 500);
+      maxima = FindLocalMaxima.findMax(proc, 3, 0, FilterType.NONE);
+      assertEquals(0, maxima.npoints);
+      assertSameMaxima("diagonal", bruteForce(proc, 3, 0, FilterType.NONE), maxima);
+   }
+}
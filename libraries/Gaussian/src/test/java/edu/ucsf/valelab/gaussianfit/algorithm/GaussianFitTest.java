@@ -0,0 +1,113 @@
+package edu.ucsf.valelab.gaussianfit.algorithm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.ucsf.valelab.gaussianfit.fitting.ParametricGaussianFunction;
+import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
+import ij.process.ShortProcessor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.math.optimization.fitting.CurveFitter;
+import org.apache.commons.math.optimization.general.LevenbergMarquardtOptimizer;
+import org.junit.Test;
+
+public class GaussianFitTest {
+   private static final int SIZE = 16;
+   private static final int NR_SPOTS = 100;
+
+   /**
+    * Simulated spots: a Gaussian of random position, width and intensity on
+    * a background, with Poisson-like noise.
+    */
+   public static List<short[]> simulatedSpots(long seed, int nrSpots) {
+      Random random = new Random(seed);
+      List<short[]> spots = new ArrayList<>(nrSpots);
+      for (int n = 0; n < nrSpots; n++) {
+         double xc = 6 + 4 * random.nextDouble();
+         double yc = 6 + 4 * random.nextDouble();
+         double sx = 1 + random.nextDouble();
+         double sy = sx * (0.8 + 0.4 * random.nextDouble());
+         double intensity = 200 + 2000 * random.nextDouble();
+         double background = 100 + 50 * random.nextDouble();
+         short[] pixels = new short[SIZE * SIZE];
+         for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+               double v = background + intensity * Math.exp(
+                     -(x - xc) * (x - xc) / (2 * sx * sx) - (y - yc) * (y - yc) / (2 * sy * sy));
+               v += Math.sqrt(v) * random.nextGaussian();
+               pixels[y * SIZE + x] = (short) Math.max(1, Math.round(v));
+            }
+         }
+         spots.add(pixels);
+      }
+      return spots;
+   }
+
+   /**
+    * The Levenberg-Marquardt fit as GaussianFit did it before
+    * GaussianLeastSquaresFunction: through CurveFitter and
+    * ParametricGaussianFunction, with the same start values and convergence
+    * checker.
+    */
+   private static double[] curveFitterFit(GaussianFit fit, LevenbergMarquardtOptimizer lmo,
+                                          short[] pixels) throws Exception {
+      GaussianFit.Data estimate = fit.estimateParameters(pixels, SIZE, SIZE);
+      CurveFitter cF = new CurveFitter(lmo);
+      for (int i = 0; i < pixels.length; i++) {
+         int value = pixels[i] & 0xffff;
+         if (fit.fitMode_ == GaussianFit.LEVENBERGMARQUARD) {
+            cF.addObservedPoint(i, value);
+         } else {
+            cF.addObservedPoint(1.0 / value, i, value);
+         }
+      }
+      double[] paramsOut = cF.fit(new ParametricGaussianFunction(fit.shape_, SIZE,
+            fit.fixedWidth_), estimate.getParms());
+      if (fit.shape_ == GaussianFit.ELLIPSE) {
+         double[] prms = GaussianUtils.ellipseParmConversion(paramsOut[GaussianFit.S1],
+               paramsOut[GaussianFit.S2], paramsOut[GaussianFit.S3]);
+         paramsOut[GaussianFit.S1] = prms[1];
+         paramsOut[GaussianFit.S2] = prms[2];
+         paramsOut[GaussianFit.S3] = prms[0];
+      }
+      return paramsOut;
+   }
+
+   private static void compare(int shape, int fitMode, boolean fixWidth) throws Exception {
+      // Fits by the same instance, as in GaussianFitStackThread, so that
+      // buffers reused between spots are covered
+      GaussianFit fit = new GaussianFit(shape, fitMode, fixWidth, 1.3);
+      GaussianFit reference = new GaussianFit(shape, fitMode, fixWidth, 1.3);
+      LevenbergMarquardtOptimizer lmo = new LevenbergMarquardtOptimizer();
+      lmo.setConvergenceChecker(reference.new LMChecker());
+      List<short[]> spots = simulatedSpots(shape * 10 + fitMode, NR_SPOTS);
+      for (int n = 0; n < spots.size(); n++) {
+         short[] pixels = spots.get(n);
+         double[] expected = curveFitterFit(reference, lmo, pixels);
+         double[] actual = fit.dogaussianfit(pixels, SIZE, SIZE, 200).getParms();
+         assertTrue(expected.length > GaussianFit.YC);
+         assertArrayEquals("shape " + shape + ", mode " + fitMode + ", spot " + n,
+               expected, actual, 0.0);
+         // The ImageProcessor entry point fits the same pixels
+         assertArrayEquals(expected, fit.dogaussianfit(
+               new ShortProcessor(SIZE, SIZE, pixels, null), 200).getParms(), 0.0);
+      }
+   }
+
+   @Test
+   public void testLevenbergMarquardtMatchesCurveFitter() throws Exception {
+      for (int shape : new int[] {GaussianFit.CIRCLE, GaussianFit.ASYMMETRIC,
+            GaussianFit.ELLIPSE}) {
+         compare(shape, GaussianFit.LEVENBERGMARQUARD, false);
+         compare(shape, GaussianFit.LEVENBERGMARQUARDMLE, false);
+      }
+   }
+
+   @Test
+   public void testFixedWidthMatchesCurveFitter() throws Exception {
+      compare(GaussianFit.CIRCLE, GaussianFit.LEVENBERGMARQUARD, true);
+      compare(GaussianFit.CIRCLE, GaussianFit.LEVENBERGMARQUARDMLE, true);
+   }
+}
@@ -0,0 +1,274 @@
+package edu.ucsf.valelab.gaussianfit.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.ucsf.valelab.gaussianfit.DataCollectionForm.Coordinates;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpotTableFileTest {
+   private static final String[] KEYS = {SpotData.Keys.APERTUREINTENSITY,
+         SpotData.Keys.MSIGMA};
+   // Row in which a NaN is stored for the first key
+   private static final int NAN_ROW = 7;
+
+   @Rule
+   public TemporaryFolder folder_ = new TemporaryFolder();
+
+   /**
+    * Spots in 12 images, with a key/value on every spot (NaN in NAN_ROW),
+    * and another one on every third spot.
+    */
+   private static List<SpotData> spots(int nrSpots) {
+      Random random = new Random(nrSpots);
+      List<SpotData> spots = new ArrayList<SpotData>(nrSpots);
+      for (int i = 0; i < nrSpots; i++) {
+         SpotData spot = new SpotData(null, 1 + i % 2, 1 + (i / 2) % 3, 1 + (i / 6) % 2, 1, i,
+               random.nextInt(512), random.nextInt(512));
+         spot.setData(1000 * random.nextDouble(), 10 * random.nextDouble(),
+               5e4 * random.nextDouble(), 5e4 * random.nextDouble(), 0.0, 250.0,
+               1.0 + random.nextDouble(), random.nextDouble(), 20.0 * random.nextDouble());
+         spot.setZCenter(100 * random.nextDouble());
+         spot.setOriginalPosition(random.nextDouble(), random.nextDouble(),
+               random.nextDouble());
+         spot.addKeyValue(KEYS[0], i == NAN_ROW ? Double.NaN : random.nextDouble());
+         if (i % 3 == 0) {
+            spot.addKeyValue(KEYS[1], random.nextDouble());
+         }
+         spots.add(spot);
+      }
+      return spots;
+   }
+
+   private static RowData dataSet(List<SpotData> spots) {
+      ArrayList<Double> timePoints = new ArrayList<Double>(Arrays.asList(0.0, 1.5, 3.0));
+      return new RowData.Builder().setName("spots").setTitle("image title")
+            .setColColorRef("reference").setWidth(512).setHeight(480)
+            .setPixelSizeNm(106.5f).setZStackStepSizeNm(250.0f).setShape(2)
+            .setHalfSize(4).setNrChannels(2).setNrFrames(2).setNrSlices(3)
+            .setNrPositions(1).setMaxNrSpots(spots.size()).setSpotList(spots)
+            .setTimePoints(timePoints).setIsTrack(false)
+            .setCoordinate(Coordinates.NM).setHasZ(true).setMinZ(-12.5).setMaxZ(87.5)
+            .build();
+   }
+
+   private static void assertDescriptionEquals(RowData expected, RowData actual) {
+      assertEquals(expected.getName(), actual.getName());
+      assertEquals(expected.title_, actual.title_);
+      assertEquals(expected.colCorrRef_, actual.colCorrRef_);
+      assertEquals(expected.width_, actual.width_);
+      assertEquals(expected.height_, actual.height_);
+      assertEquals(expected.pixelSizeNm_, actual.pixelSizeNm_, 0.0f);
+      assertEquals(expected.zStackStepSizeNm_, actual.zStackStepSizeNm_, 0.0f);
+      assertEquals(expected.shape_, actual.shape_);
+      assertEquals(expected.halfSize_, actual.halfSize_);
+      assertEquals(expected.nrChannels_, actual.nrChannels_);
+      assertEquals(expected.nrFrames_, actual.nrFrames_);
+      assertEquals(expected.nrSlices_, actual.nrSlices_);
+      assertEquals(expected.nrPositions_, actual.nrPositions_);
+      assertEquals(expected.maxNrSpots_, actual.maxNrSpots_);
+      assertEquals(expected.timePoints_, actual.timePoints_);
+      assertEquals(expected.isTrack_, actual.isTrack_);
+      assertEquals(expected.coordinate_, actual.coordinate_);
+      assertEquals(expected.hasZ_, actual.hasZ_);
+      assertEquals(expected.minZ_, actual.minZ_, 0.0);
+      assertEquals(expected.maxZ_, actual.maxZ_, 0.0);
+   }
+
+   private static void assertTableEquals(SpotTable expected, SpotTable actual) {
+      assertEquals(expected.size(), actual.size());
+      String[] keys = expected.getKeys();
+      assertArrayEquals(keys, actual.getKeys());
+      for (int k = 0; k < keys.length; k++) {
+         assertEquals(keys[k], expected.getStoredNaN(k), actual.getStoredNaN(k));
+      }
+      for (int row = 0; row < expected.size(); row++) {
+         assertEquals(expected.getFrame(row), actual.getFrame(row));
+         assertEquals(expected.getChannel(row), actual.getChannel(row));
+         assertEquals(expected.getSlice(row), actual.getSlice(row));
+         assertEquals(expected.getPosition(row), actual.getPosition(row));
+         assertEquals(expected.getNr(row), actual.getNr(row));
+         assertEquals(expected.getX(row), actual.getX(row));
+         assertEquals(expected.getY(row), actual.getY(row));
+         assertEquals(expected.get(row).nrLinks_, actual.get(row).nrLinks_);
+         assertEquals(expected.get(row).originalFrame_, actual.get(row).originalFrame_);
+         assertEquals(expected.getIntensity(row), actual.getIntensity(row), 0.0);
+         assertEquals(expected.getBackground(row), actual.getBackground(row), 0.0);
+         assertEquals(expected.getXCenter(row), actual.getXCenter(row), 0.0);
+         assertEquals(expected.getYCenter(row), actual.getYCenter(row), 0.0);
+         assertEquals(expected.getZCenter(row), actual.getZCenter(row), 0.0);
+         assertEquals(expected.getXOri(row), actual.getXOri(row), 0.0);
+         assertEquals(expected.getYOri(row), actual.getYOri(row), 0.0);
+         assertEquals(expected.getZOri(row), actual.getZOri(row), 0.0);
+         assertEquals(expected.getWidth(row), actual.getWidth(row), 0.0);
+         assertEquals(expected.getA(row), actual.getA(row), 0.0);
+         assertEquals(expected.getTheta(row), actual.getTheta(row), 0.0);
+         assertEquals(expected.getSigma(row), actual.getSigma(row), 0.0);
+         for (String key : keys) {
+            assertEquals(expected.hasKey(row, key), actual.hasKey(row, key));
+            assertEquals(expected.getValue(row, key), actual.getValue(row, key));
+         }
+      }
+   }
+
+   private static void assertGroupsEqual(SpotTable expected, SpotTable actual) {
+      Map<ImageIndex, List<SpotData>> expectedGroups = expected.groupByImage();
+      Map<ImageIndex, List<SpotData>> actualGroups = actual.groupByImage();
+      assertEquals(expectedGroups.keySet(), actualGroups.keySet());
+      for (ImageIndex image : expectedGroups.keySet()) {
+         List<SpotData> expectedSpots = expectedGroups.get(image);
+         List<SpotData> actualSpots = actualGroups.get(image);
+         assertEquals(expectedSpots.size(), actualSpots.size());
+         for (int i = 0; i < expectedSpots.size(); i++) {
+            assertEquals(expectedSpots.get(i).getNr(), actualSpots.get(i).getNr());
+         }
+      }
+   }
+
+   private static boolean isMapped(SpotTable table) {
+      return table.getIntChunk(SpotTable.FRAME, 0).isDirect()
+            || table.getDoubleChunk(SpotTable.INTENSITY, 0).isDirect()
+            || table.getValueChunk(0, 0).isDirect()
+            || table.getImageGroups().rows_.isDirect();
+   }
+
+   @Test
+   public void testRoundTrip() throws Exception {
+      RowData data = dataSet(spots(3000));
+      int nanKey = Arrays.asList(data.spotList_.getKeys()).indexOf(KEYS[0]);
+      assertTrue(data.spotList_.getStoredNaN(nanKey).get(NAN_ROW));
+      File file = folder_.newFile("spots" + SpotTableFile.EXTENSION);
+      SpotTableFile.write(data, file);
+      RowData read = SpotTableFile.open(file).build();
+
+      assertTrue(isMapped(read.spotList_));
+      assertDescriptionEquals(data, read);
+      assertTableEquals(data.spotList_, read.spotList_);
+      assertGroupsEqual(data.spotList_, read.spotList_);
+      assertFalse(new File(file.getPath() + ".tmp").exists());
+   }
+
+   @Test
+   public void testRoundTripOfSeveralChunks() throws Exception {
+      final int size = SpotTable.CHUNK_SIZE + 1000;
+      SpotTable.Builder builder = new SpotTable.Builder(KEYS);
+      builder.addRows(size);
+      for (int row = 0; row < size; row++) {
+         builder.setSpot(row, 1 + row % 3, 1, 1 + row / 100000, 1, row, row % 512,
+               row % 509)
+               .setData(row, row, 0.5 * row, 1.5 * row, 2.5 * row, 3.5 * row, 250.0, 1.1,
+                     0.1, 7.0)
+               .setOriginalPosition(row, -row, -2.0 * row, -3.0 * row)
+               .setLinks(row, row % 3, row / 2);
+         if (row % 1000 == 0) {
+            builder.setValue(row, 1, 0.25 * row);
+         }
+      }
+      builder.setValue(size - 1, 1, Double.NaN);
+      RowData data = dataSet(builder.build());
+      File file = folder_.newFile("chunks" + SpotTableFile.EXTENSION);
+      SpotTableFile.write(data, file);
+      RowData read = SpotTableFile.open(file).build();
+
+      assertTableEquals(data.spotList_, read.spotList_);
+      assertGroupsEqual(data.spotList_, read.spotList_);
+   }
+
+   @Test
+   public void testOverwriteMappedFile() throws Exception {
+      File file = folder_.newFile("overwrite" + SpotTableFile.EXTENSION);
+      RowData original = dataSet(spots(200));
+      SpotTableFile.write(original, file);
+      RowData read = SpotTableFile.open(file).build();
+      SpotTable moved = read.spotList_.withCenters(row -> -1.0, row -> -2.0);
+
+      // Save a changed data set to the file it was read from
+      RowData changed = dataSet(moved);
+      SpotTableFile.write(changed, file);
+      assertTableEquals(original.spotList_, read.spotList_);
+      assertTableEquals(moved, SpotTableFile.open(file).build().spotList_);
+
+      // What a save does where mapped files can not be replaced
+      assertTrue(isMapped(read.spotList_));
+      assertTrue(isMapped(moved));
+      SpotTable.copyToHeap(file.toPath().toAbsolutePath().normalize());
+      assertFalse(isMapped(read.spotList_));
+      assertFalse(isMapped(moved));
+      assertTableEquals(original.spotList_, read.spotList_);
+      assertGroupsEqual(original.spotList_, read.spotList_);
+      assertEquals(-1.0, moved.getXCenter(0), 0.0);
+      assertEquals(original.spotList_.getIntensity(0), moved.getIntensity(0), 0.0);
+   }
+
+   @Test
+   public void testTaggedSpotFormatRoundTrip() throws Exception {
+      RowData data = dataSet(spots(3000));
+      File file = folder_.newFile("spots.tsf");
+      LoadAndSave.writeTSF(data, file);
+      AtomicLong nrFailed = new AtomicLong();
+      RowData read = LoadAndSave.readTSF(file, nrFailed).build();
+      assertEquals(0, nrFailed.get());
+
+      assertEquals(data.getName(), read.getName());
+      // The title is written as the file path, and the name is read as title
+      assertEquals(data.getName(), read.title_);
+      assertEquals(data.width_, read.width_);
+      assertEquals(data.height_, read.height_);
+      assertEquals(data.pixelSizeNm_, read.pixelSizeNm_, 0.0f);
+      assertEquals(data.shape_, read.shape_);
+      assertEquals(data.halfSize_, read.halfSize_);
+      assertEquals(data.nrChannels_, read.nrChannels_);
+      assertEquals(data.nrFrames_, read.nrFrames_);
+      assertEquals(data.nrSlices_, read.nrSlices_);
+      assertEquals(data.nrPositions_, read.nrPositions_);
+      assertEquals(data.maxNrSpots_, read.maxNrSpots_);
+      assertEquals(data.isTrack_, read.isTrack_);
+      assertTrue(read.hasZ_);
+
+      // Values are stored as floats, and the spot number is the row; our
+      // files have all keys, with -1 for spots without the key
+      SpotTable expected = data.spotList_;
+      SpotTable actual = read.spotList_;
+      assertEquals(expected.size(), actual.size());
+      for (int row = 0; row < expected.size(); row++) {
+         assertEquals(expected.getFrame(row), actual.getFrame(row));
+         assertEquals(expected.getChannel(row), actual.getChannel(row));
+         assertEquals(expected.getSlice(row), actual.getSlice(row));
+         assertEquals(expected.getPosition(row), actual.getPosition(row));
+         assertEquals(row, actual.getNr(row));
+         assertEquals(expected.getX(row), actual.getX(row));
+         assertEquals(expected.getY(row), actual.getY(row));
+         assertEquals((float) expected.getIntensity(row), actual.getIntensity(row), 0.0);
+         assertEquals((float) expected.getBackground(row), actual.getBackground(row), 0.0);
+         assertEquals((float) expected.getXCenter(row), actual.getXCenter(row), 0.0);
+         assertEquals((float) expected.getYCenter(row), actual.getYCenter(row), 0.0);
+         assertEquals((float) expected.getZCenter(row), actual.getZCenter(row), 0.0);
+         assertEquals((float) expected.getWidth(row), actual.getWidth(row), 0.0);
+         assertEquals((float) expected.getA(row), actual.getA(row), 0.0);
+         assertEquals((float) expected.getTheta(row), actual.getTheta(row), 0.0);
+         assertEquals((float) expected.getSigma(row), actual.getSigma(row), 0.0);
+         for (String key : KEYS) {
+            Double value = expected.getValue(row, key);
+            assertEquals(value == null ? -1.0f : value.floatValue(),
+                  actual.getValue(row, key), 0.0);
+         }
+         assertEquals(-1.0, actual.getValue(row, SpotData.Keys.APERTUREBACKGROUND), 0.0);
+      }
+      BitSet storedNaN = new BitSet();
+      storedNaN.set(NAN_ROW);
+      assertEquals(storedNaN, actual.getStoredNaN(
+            Arrays.asList(actual.getKeys()).indexOf(KEYS[0])));
+   }
+}
@@ -0,0 +1,326 @@
+package edu.ucsf.valelab.gaussianfit.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class SpotTableTest {
+   private static final String[] KEYS = {SpotData.Keys.APERTUREINTENSITY,
+         SpotData.Keys.MSIGMA};
+
+   /**
+    * Spots in 10 images (frames 1 to 5, channels 1 and 2), with a
+    * key/value on every spot, and another one on every third spot.
+    */
+   private static List<SpotData> spots(int nrSpots) {
+      Random random = new Random(nrSpots);
+      List<SpotData> spots = new ArrayList<SpotData>(nrSpots);
+      for (int i = 0; i < nrSpots; i++) {
+         SpotData spot = new SpotData(null, 1 + i % 2, 1, 1 + (i / 2) % 5, 1, i,
+               random.nextInt(512), random.nextInt(512));
+         spot.setData(1000 * random.nextDouble(), 10 * random.nextDouble(),
+               5e4 * random.nextDouble(), 5e4 * random.nextDouble(), 0.0, 250.0,
+               1.0 + random.nextDouble(), random.nextDouble(), 20.0 * random.nextDouble());
+         spot.setZCenter(100 * random.nextDouble());
+         spot.setOriginalPosition(random.nextDouble(), random.nextDouble(),
+               random.nextDouble());
+         spot.nrLinks_ = i % 4;
+         spot.originalFrame_ = i % 7;
+         spot.addKeyValue(KEYS[0], random.nextDouble());
+         if (i % 3 == 0) {
+            spot.addKeyValue(KEYS[1], random.nextDouble());
+         }
+         spots.add(spot);
+      }
+      return spots;
+   }
+
+   private static String[] sorted(String[] keys) {
+      String[] result = keys.clone();
+      Arrays.sort(result);
+      return result;
+   }
+
+   private static void assertSpotEquals(String message, SpotData expected, SpotData actual) {
+      assertEquals(message, expected.nrLinks_, actual.nrLinks_);
+      assertEquals(message, expected.originalFrame_, actual.originalFrame_);
+      assertValuesEqual(message, expected, actual);
+   }
+
+   // Compares all but nrLinks_ and originalFrame_, which the SpotData copy
+   // constructor does not copy
+   private static void assertValuesEqual(String message, SpotData expected,
+                                         SpotData actual) {
+      assertEquals(message, expected.getFrame(), actual.getFrame());
+      assertEquals(message, expected.getChannel(), actual.getChannel());
+      assertEquals(message, expected.getSlice(), actual.getSlice());
+      assertEquals(message, expected.getPosition(), actual.getPosition());
+      assertEquals(message, expected.getNr(), actual.getNr());
+      assertEquals(message, expected.getX(), actual.getX());
+      assertEquals(message, expected.getY(), actual.getY());
+      assertEquals(message, expected.getIntensity(), actual.getIntensity(), 0.0);
+      assertEquals(message, expected.getBackground(), actual.getBackground(), 0.0);
+      assertEquals(message, expected.getXCenter(), actual.getXCenter(), 0.0);
+      assertEquals(message, expected.getYCenter(), actual.getYCenter(), 0.0);
+      assertEquals(message, expected.getZCenter(), actual.getZCenter(), 0.0);
+      assertEquals(message, expected.getXOri(), actual.getXOri(), 0.0);
+      assertEquals(message, expected.geYOri(), actual.geYOri(), 0.0);
+      assertEquals(message, expected.getZOri(), actual.getZOri(), 0.0);
+      assertEquals(message, expected.getWidth(), actual.getWidth(), 0.0);
+      assertEquals(message, expected.getA(), actual.getA(), 0.0);
+      assertEquals(message, expected.getTheta(), actual.getTheta(), 0.0);
+      assertEquals(message, expected.getSigma(), actual.getSigma(), 0.0);
+      // SpotData keeps its keys in a HashMap, so their order is arbitrary
+      assertArrayEquals(message, sorted(expected.getKeys()), sorted(actual.getKeys()));
+      for (String key : expected.getKeys()) {
+         assertEquals(message, expected.getValue(key), actual.getValue(key));
+      }
+   }
+
+   @Test
+   public void testBuilderRoundTrip() {
+      SpotTable.Builder builder = new SpotTable.Builder(KEYS);
+      // Rows added in several steps, so that the chunk grows
+      assertEquals(0, builder.addRows(10));
+      assertEquals(10, builder.addRows(100));
+      assertEquals(110, builder.size());
+      for (int row = 0; row < builder.size(); row++) {
+         builder.setSpot(row, 2, 3, row + 1, 4, row, 10 + row, 20 + row)
+               .setData(row, row, 0.5 * row, 1.5 * row, 2.5 * row, 3.5 * row, 250.0, 1.1,
+                     0.1, 7.0)
+               .setOriginalPosition(row, -row, -2.0 * row, -3.0 * row)
+               .setLinks(row, row % 3, row / 2);
+         if (row % 2 == 0) {
+            builder.setValue(row, 1, 0.25 * row);
+         }
+      }
+      SpotTable table = builder.build();
+
+      assertEquals(110, table.size());
+      assertArrayEquals(KEYS, table.getKeys());
+      for (int row = 0; row < table.size(); row++) {
+         assertEquals(2, table.getChannel(row));
+         assertEquals(3, table.getSlice(row));
+         assertEquals(row + 1, table.getFrame(row));
+         assertEquals(4, table.getPosition(row));
+         assertEquals(row, table.getNr(row));
+         assertEquals(10 + row, table.getX(row));
+         assertEquals(20 + row, table.getY(row));
+         assertEquals(row, table.getIntensity(row), 0.0);
+         assertEquals(0.5 * row, table.getBackground(row), 0.0);
+         assertEquals(1.5 * row, table.getXCenter(row), 0.0);
+         assertEquals(2.5 * row, table.getYCenter(row), 0.0);
+         assertEquals(3.5 * row, table.getZCenter(row), 0.0);
+         assertEquals(250.0, table.getWidth(row), 0.0);
+         assertEquals(1.1, table.getA(row), 0.0);
+         assertEquals(0.1, table.getTheta(row), 0.0);
+         assertEquals(7.0, table.getSigma(row), 0.0);
+         assertEquals(-row, table.getXOri(row), 0.0);
+         assertEquals(-2.0 * row, table.getYOri(row), 0.0);
+         assertEquals(-3.0 * row, table.getZOri(row), 0.0);
+         assertFalse(table.hasKey(row, KEYS[0]));
+         assertEquals(row % 2 == 0, table.hasKey(row, KEYS[1]));
+         assertEquals(row % 2 == 0 ? Double.valueOf(0.25 * row) : null,
+               table.getValue(row, KEYS[1]));
+
+         SpotData view = table.get(row);
+         assertEquals(row % 3, view.nrLinks_);
+         assertEquals(row / 2, view.originalFrame_);
+      }
+
+      // Tables built at different times, and the builder, do not see each
+      // other's changes
+      SpotTable again = builder.build();
+      again.get(0).setXCenter(-1.0);
+      assertEquals(0.0, table.getXCenter(0), 0.0);
+      table.get(1).setXCenter(-2.0);
+      assertEquals(1.5, again.getXCenter(1), 0.0);
+      builder.addRows(1);
+      builder.setData(2, 0.0, 0.0, -3.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+      builder.setValue(4, 1, Double.NaN);
+      SpotTable larger = builder.build();
+      assertEquals(111, larger.size());
+      assertEquals(1.5, larger.getXCenter(1), 0.0);
+      assertEquals(-3.0, larger.getXCenter(2), 0.0);
+      assertEquals(3.0, table.getXCenter(2), 0.0);
+      assertTrue(larger.getValue(4, KEYS[1]).isNaN());
+      assertEquals(1.0, table.getValue(4, KEYS[1]), 0.0);
+   }
+
+   @Test(expected = IndexOutOfBoundsException.class)
+   public void testBuilderChecksRows() {
+      SpotTable.Builder builder = new SpotTable.Builder();
+      builder.addRows(5);
+      builder.setSpot(5, 1, 1, 1, 1, 1, 1, 1);
+   }
+
+   @Test
+   public void testOfSpotData() {
+      List<SpotData> spots = spots(1000);
+      SpotTable table = SpotTable.of(spots);
+      assertEquals(spots.size(), table.size());
+      for (int row = 0; row < table.size(); row++) {
+         assertSpotEquals("row " + row, spots.get(row), table.get(row));
+      }
+      assertArrayEquals(sorted(KEYS), sorted(table.getKeys()));
+      // Tables are not copied
+      assertSame(table, SpotTable.of(table));
+   }
+
+   @Test
+   public void testViews() {
+      List<SpotData> spots = spots(20);
+      SpotTable table = SpotTable.of(spots);
+      SpotData view = table.get(3);
+
+      assertEquals(view, table.get(3));
+      assertEquals(view.hashCode(), table.get(3).hashCode());
+      assertNotEquals(view, table.get(4));
+      assertNotEquals(view, SpotTable.of(spots).get(3));
+      assertNull(view.getImageProcessor());
+
+      // A copy holds the values of the view, and is independent of it
+      SpotData copy = new SpotData(view);
+      assertValuesEqual("copy", spots.get(3), copy);
+      copy.setXCenter(-5.0);
+      assertEquals(spots.get(3).getXCenter(), view.getXCenter(), 0.0);
+
+      // Changes write through to the table
+      view.setData(1.0, 2.0, 3.0, 4.0, 5.0, 6.0, 7.0, 8.0, 9.0);
+      view.setZCenter(10.0);
+      view.setOriginalPosition(11.0, 12.0, 13.0);
+      SpotData reread = table.get(3);
+      assertEquals(1.0, reread.getIntensity(), 0.0);
+      assertEquals(2.0, reread.getBackground(), 0.0);
+      assertEquals(3.0, table.getXCenter(3), 0.0);
+      assertEquals(4.0, table.getYCenter(3), 0.0);
+      assertEquals(10.0, table.getZCenter(3), 0.0);
+      assertEquals(6.0, reread.getWidth(), 0.0);
+      assertEquals(7.0, reread.getA(), 0.0);
+      assertEquals(8.0, reread.getTheta(), 0.0);
+      assertEquals(9.0, reread.getSigma(), 0.0);
+      assertEquals(11.0, reread.getXOri(), 0.0);
+      assertEquals(12.0, reread.geYOri(), 0.0);
+      assertEquals(13.0, reread.getZOri(), 0.0);
+      // Other rows are not touched
+      assertSpotEquals("row 4", spots.get(4), table.get(4));
+
+      // Changing the position moves the spot to another image
+      Map<ImageIndex, List<SpotData>> images = table.groupByImage();
+      assertEquals(10, images.size());
+      assertEquals(2, images.get(new ImageIndex(2, 1, 2, 1)).size());
+      table.get(3).setPosition(2);
+      images = table.groupByImage();
+      assertEquals(11, images.size());
+      assertEquals(1, images.get(new ImageIndex(2, 1, 2, 1)).size());
+      assertEquals(table.get(3), images.get(new ImageIndex(2, 1, 2, 2)).get(0));
+   }
+
+   @Test(expected = UnsupportedOperationException.class)
+   public void testViewsHoldNoPixels() {
+      SpotTable.of(spots(5)).get(0).setImageProcessor(null);
+   }
+
+   @Test
+   public void testGroupBy() {
+      SpotTable table = SpotTable.of(spots(100));
+      Map<Integer, List<SpotData>> frames = table.groupBy(table::getFrame);
+      assertEquals(5, frames.size());
+      for (Map.Entry<Integer, List<SpotData>> entry : frames.entrySet()) {
+         assertEquals(20, entry.getValue().size());
+         int previous = -1;
+         for (SpotData spot : entry.getValue()) {
+            assertEquals(entry.getKey().intValue(), spot.getFrame());
+            // in table order
+            assertTrue(spot.getNr() > previous);
+            previous = spot.getNr();
+         }
+      }
+   }
+
+   @Test
+   public void testCopyOnWrite() {
+      List<SpotData> spots = spots(50);
+      SpotTable table = SpotTable.of(spots);
+      SpotTable moved = table.withCenters(row -> table.getXCenter(row) + 1.0,
+            row -> 2.0 * row);
+      for (int row = 0; row < table.size(); row++) {
+         assertEquals(spots.get(row).getXCenter() + 1.0, moved.getXCenter(row), 0.0);
+         assertEquals(2.0 * row, moved.getYCenter(row), 0.0);
+         assertEquals(spots.get(row).getXCenter(), table.getXCenter(row), 0.0);
+         assertEquals(spots.get(row).getIntensity(), moved.getIntensity(row), 0.0);
+         assertEquals(spots.get(row).getValue(KEYS[0]), moved.getValue(row, KEYS[0]));
+      }
+
+      // Changes to the shared columns of either table stay in that table
+      moved.get(1).setData(-1.0, -2.0, -3.0, -4.0, -5.0, -6.0, -7.0, -8.0, -9.0);
+      moved.get(1).addKeyValue(KEYS[0], -10.0);
+      moved.get(1).setPosition(7);
+      assertSpotEquals("original row 1", spots.get(1), table.get(1));
+      assertEquals(-1.0, moved.getIntensity(1), 0.0);
+      assertEquals(-10.0, moved.getValue(1, KEYS[0]), 0.0);
+      assertEquals(7, moved.getPosition(1));
+
+      table.get(2).setData(-1.0, -2.0, -3.0, -4.0, -5.0, -6.0, -7.0, -8.0, -9.0);
+      table.get(2).addKeyValue(KEYS[1], -10.0);
+      assertEquals(spots.get(2).getIntensity(), moved.getIntensity(2), 0.0);
+      assertFalse(moved.hasKey(2, KEYS[1]));
+      assertEquals(-10.0, table.getValue(2, KEYS[1]), 0.0);
+
+      // A table made from a table that shares chunks is isolated, too
+      SpotTable movedAgain = moved.withCenters(moved::getXCenter, moved::getYCenter);
+      movedAgain.get(3).setZCenter(-11.0);
+      assertEquals(spots.get(3).getZCenter(), moved.getZCenter(3), 0.0);
+      assertEquals(spots.get(3).getZCenter(), table.getZCenter(3), 0.0);
+      assertEquals(-11.0, movedAgain.getZCenter(3), 0.0);
+   }
+
+   @Test
+   public void testKeyValues() {
+      List<SpotData> spots = spots(30);
+      SpotTable table = SpotTable.of(spots);
+      SpotData withBoth = table.get(0);
+      SpotData withOne = table.get(1);
+      assertArrayEquals(sorted(KEYS), sorted(withBoth.getKeys()));
+      assertArrayEquals(new String[] {KEYS[0]}, withOne.getKeys());
+      assertTrue(withOne.hasKey(KEYS[0]));
+      assertFalse(withOne.hasKey(KEYS[1]));
+      assertNull(withOne.getValue(KEYS[1]));
+      assertEquals(3.0, withOne.getValue(KEYS[1], 3.0), 0.0);
+      assertEquals(spots.get(0).getValue(KEYS[1]), withBoth.getValue(KEYS[1], 3.0));
+      assertFalse(table.hasKey(0, "unknown"));
+      assertNull(table.getValue(0, "unknown"));
+
+      // A stored NaN is a value, not a missing key
+      withOne.addKeyValue(KEYS[1], Double.NaN);
+      assertTrue(withOne.hasKey(KEYS[1]));
+      assertTrue(table.getValue(1, KEYS[1]).isNaN());
+      assertFalse(table.hasKey(2, KEYS[1]));
+
+      // Keys that the table does not have yet are added as a column
+      table.get(5).addKeyValue(SpotData.Keys.N, 42.0);
+      assertEquals(3, table.getKeys().length);
+      assertEquals(SpotData.Keys.N, table.getKeys()[2]);
+      assertEquals(42.0, table.getValue(5, SpotData.Keys.N), 0.0);
+      assertFalse(table.hasKey(4, SpotData.Keys.N));
+      assertArrayEquals(sorted(new String[] {KEYS[0], SpotData.Keys.N}),
+            sorted(table.get(5).getKeys()));
+
+      // Stored NaNs survive a table built from views
+      SpotTable copy = SpotTable.of(new ArrayList<SpotData>(table));
+      assertTrue(copy.hasKey(1, KEYS[1]));
+      assertTrue(copy.getValue(1, KEYS[1]).isNaN());
+      assertEquals(42.0, copy.getValue(5, SpotData.Keys.N), 0.0);
+   }
+}
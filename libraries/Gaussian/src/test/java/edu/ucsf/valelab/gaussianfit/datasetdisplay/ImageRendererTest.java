@@ -0,0 +1,170 @@
+package edu.ucsf.valelab.gaussianfit.datasetdisplay;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import edu.ucsf.valelab.gaussianfit.datasettransformations.SpotDataFilter;
+import edu.ucsf.valelab.gaussianfit.utils.GaussianUtils;
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class ImageRendererTest {
+   private static final int WIDTH = 64;
+   private static final int HEIGHT = 48;
+   private static final float PIXEL_SIZE_NM = 100.0f;
+
+   /**
+    * Spots all over the image, some of them in the same place, and a few
+    * outside of it.
+    */
+   private static RowData dataSet() {
+      Random random = new Random(45);
+      List<SpotData> spots = new ArrayList<SpotData>();
+      for (int i = 0; i < 3000; i++) {
+         double x = (WIDTH * random.nextDouble() - 1) * PIXEL_SIZE_NM;
+         double y = (HEIGHT * random.nextDouble() - 1) * PIXEL_SIZE_NM;
+         for (int copy = 0; copy < (i % 10 == 0 ? 3 : 1); copy++) {
+            SpotData spot = new SpotData(null, 1, 1, 1 + i % 5, 1, i, 0, 0);
+            spot.setData(1000.0, 10.0, x, y, 0.0, 250.0, 1.0, 0.0,
+                  10.0 + 30.0 * random.nextDouble());
+            spots.add(spot);
+         }
+      }
+      return new RowData.Builder().setName("spots").setTitle("spots")
+            .setWidth(WIDTH).setHeight(HEIGHT).setPixelSizeNm(PIXEL_SIZE_NM)
+            .setNrChannels(1).setNrFrames(5).setNrSlices(1).setNrPositions(1)
+            .setMaxNrSpots(spots.size()).setSpotList(spots)
+            .setTimePoints(new ArrayList<Double>()).setHasZ(false).build();
+   }
+
+   private static Rectangle fullRect(double magnification) {
+      return new Rectangle(0, 0, (int) (WIDTH * magnification),
+            (int) (HEIGHT * magnification));
+   }
+
+   // The 2D scatter plot, one spot after the other, as rendered before SpotBins
+   private static short[] scatter(RowData rowData, double magnification, Rectangle rect) {
+      final int size = rect.width * rect.height;
+      final double factor = magnification / rowData.pixelSizeNm_;
+      final SpotTable spots = rowData.spotList_;
+      short[] pixels = new short[size];
+      for (int row = 0; row < spots.size(); row++) {
+         int x = (int) (factor * spots.getXCenter(row));
+         int y = (int) (factor * spots.getYCenter(row));
+         if (x > rect.x && x < rect.x + rect.width && y > rect.y && y < rect.y + rect.height) {
+            int index = (y - rect.y) * rect.width + x - rect.x;
+            if (index < size && index > 0 && pixels[index] != -1) {
+               pixels[index] += 1;
+            }
+         }
+      }
+      return pixels;
+   }
+
+   // Gaussians, one spot after the other, as rendered before SpotBins
+   private static float[] gaussians(RowData rowData, double magnification, Rectangle rect,
+                                    boolean normalize) {
+      final double renderedPixelInNm = rowData.pixelSizeNm_ / magnification;
+      final int fullWidth = (int) (rowData.width_ * magnification);
+      final int fullHeight = (int) (rowData.height_ * magnification);
+      final int endx = rect.x + rect.width;
+      final int endy = rect.y + rect.height;
+      final double factor = magnification / rowData.pixelSizeNm_;
+      final SpotTable spots = rowData.spotList_;
+      float[] pixels = new float[rect.width * rect.height];
+      for (int row = 0; row < spots.size(); row++) {
+         final double xCenter = spots.getXCenter(row);
+         final double yCenter = spots.getYCenter(row);
+         final double sigma = spots.getSigma(row);
+         int halfWidth = (int) (2 * sigma / renderedPixelInNm);
+         if (halfWidth == 0) {
+            halfWidth = 2;
+         }
+         int xc = (int) (factor * xCenter);
+         int yc = (int) (factor * yCenter);
+         if (xc > rect.x + halfWidth && xc < endx - halfWidth
+               && yc > rect.y + halfWidth && yc < endy - halfWidth
+               && xc > halfWidth && xc < (fullWidth - halfWidth)
+               && yc > halfWidth && yc < (fullHeight - halfWidth)) {
+            double totalInt = 0.0;
+            int xStart = xc - halfWidth;
+            int yStart = yc - halfWidth;
+            float[][] boxPixels = new float[2 * halfWidth][2 * halfWidth];
+            double[] parms = {1.0, 0.0, xCenter / renderedPixelInNm,
+                  yCenter / renderedPixelInNm, sigma / renderedPixelInNm};
+            for (int x = xStart; x < xc + halfWidth; x++) {
+               for (int y = yStart; y < yc + halfWidth; y++) {
+                  double val = GaussianUtils.gaussian(parms, x, y);
+                  totalInt += val;
+                  boxPixels[x - xStart][y - yStart] = (float) val;
+               }
+            }
+            for (int x = xStart; x < xc + halfWidth; x++) {
+               for (int y = yStart; y < yc + halfWidth; y++) {
+                  float val = boxPixels[x - xStart][y - yStart];
+                  if (normalize && totalInt > 0) {
+                     val /= totalInt;
+                  }
+                  pixels[(y - rect.y) * rect.width + x - rect.x] += val;
+               }
+            }
+         }
+      }
+      return pixels;
+   }
+
+   private static void assertClose(String message, float[] expected, float[] actual) {
+      assertEquals(message, expected.length, actual.length);
+      double total = 0.0;
+      for (int i = 0; i < expected.length; i++) {
+         assertEquals(message + ", pixel " + i, expected[i], actual[i],
+               1e-5 * Math.max(1.0, Math.abs(expected[i])));
+         total += expected[i];
+      }
+      assertTrue(message, total > 0);
+   }
+
+   @Test
+   public void testScatterMatchesPerSpotRendering() {
+      RowData rowData = dataSet();
+      SpotDataFilter filter = new SpotDataFilter();
+      for (double magnification : new double[] {1.0, 4.0, 10.0}) {
+         Rectangle rect = fullRect(magnification);
+         ImageProcessor ip = ImageRenderer.renderData(rowData, 0, magnification, null, filter);
+         assertArrayEquals("magnification " + magnification,
+               scatter(rowData, magnification, rect), (short[]) ip.getPixels());
+      }
+      // A region, as when zooming in on part of the data set
+      Rectangle rect = new Rectangle(70, 50, 300, 200);
+      ImageProcessor ip = ImageRenderer.renderData(rowData, 0, 8.0, rect, filter);
+      assertArrayEquals(scatter(rowData, 8.0, rect), (short[]) ip.getPixels());
+   }
+
+   @Test
+   public void testGaussiansMatchPerSpotRendering() {
+      RowData rowData = dataSet();
+      SpotDataFilter filter = new SpotDataFilter();
+      for (double magnification : new double[] {1.0, 4.0, 10.0}) {
+         Rectangle rect = fullRect(magnification);
+         for (int method = 1; method <= 2; method++) {
+            ImageProcessor ip = ImageRenderer.renderData(rowData, method, magnification,
+                  null, filter);
+            assertClose("method " + method + ", magnification " + magnification,
+                  gaussians(rowData, magnification, rect, method == 2),
+                  (float[]) ip.getPixels());
+         }
+      }
+      // A region, which spans several tiles
+      Rectangle rect = new Rectangle(70, 50, 300, 200);
+      ImageProcessor ip = ImageRenderer.renderData(rowData, 2, 8.0, rect, filter);
+      assertClose("region", gaussians(rowData, 8.0, rect, true), (float[]) ip.getPixels());
+   }
+}
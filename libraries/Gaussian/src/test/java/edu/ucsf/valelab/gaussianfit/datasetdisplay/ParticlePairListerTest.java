@@ -0,0 +1,199 @@
+package edu.ucsf.valelab.gaussianfit.datasetdisplay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import edu.ucsf.valelab.gaussianfit.data.GsSpotPair;
+import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPoint2D;
+import edu.ucsf.valelab.gaussianfit.spotoperations.NearestPointByData;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class ParticlePairListerTest {
+   private static final int NR_FRAMES = 30;
+   private static final double MAX_DISTANCE = 50.0;
+
+   private static SpotData spot(int channel, int frame, int nr, double x, double y) {
+      SpotData spot = new SpotData(null, channel, 1, frame, 1, nr, 0, 0);
+      spot.setData(1000.0, 10.0, x, y, 0.0, 250.0, 1.0, 0.0, 10.0);
+      return spot;
+   }
+
+   /**
+    * Spots of one position: particles seen in both channels that move a bit from frame to
+    * frame, and spots seen in one channel only, some of them outside the frames.
+    */
+   private static List<SpotData> spots(long seed) {
+      Random random = new Random(seed);
+      List<SpotData> spots = new ArrayList<SpotData>();
+      double[][] particles = new double[80][];
+      for (int p = 0; p < particles.length; p++) {
+         particles[p] = new double[] {2000.0 * random.nextDouble(),
+               2000.0 * random.nextDouble()};
+      }
+      int nr = 0;
+      for (int f = 1; f <= NR_FRAMES; f++) {
+         for (double[] particle : particles) {
+            particle[0] += 10.0 * random.nextGaussian();
+            particle[1] += 10.0 * random.nextGaussian();
+            if (random.nextDouble() < 0.9) {
+               spots.add(spot(1, f, nr++, particle[0], particle[1]));
+            }
+            if (random.nextDouble() < 0.9) {
+               spots.add(spot(2, f, nr++, particle[0] + 20.0 * random.nextGaussian(),
+                     particle[1] + 20.0 * random.nextGaussian()));
+            }
+         }
+         for (int i = 0; i < 20; i++) {
+            spots.add(spot(1 + i % 2, f, nr++, 2000.0 * random.nextDouble(),
+                  2000.0 * random.nextDouble()));
+         }
+      }
+      spots.add(spot(1, 0, nr++, 100.0, 100.0));
+      spots.add(spot(2, NR_FRAMES + 1, nr++, 100.0, 100.0));
+      // a frame without spots in channel 2
+      spots.removeIf(spot -> spot.getFrame() == 5 && spot.getChannel() == 2);
+      Collections.shuffle(spots, random);
+      return spots;
+   }
+
+   // Pairs by frame, as found before the grid index
+   private static ArrayList<ArrayList<GsSpotPair>> oldFindPairs(List<SpotData> spots,
+         int nrFrames, double maxDistance) {
+      ArrayList<ArrayList<GsSpotPair>> pairsByFrame = new ArrayList<ArrayList<GsSpotPair>>();
+      for (int frame = 1; frame <= nrFrames; frame++) {
+         pairsByFrame.add(new ArrayList<GsSpotPair>());
+         ArrayList<SpotData> gsCh1 = new ArrayList<SpotData>();
+         ArrayList<SpotData> gsCh2 = new ArrayList<SpotData>();
+         ArrayList<Point2D.Double> xyPointsCh2 = new ArrayList<Point2D.Double>();
+         for (SpotData gs : spots) {
+            if (gs.getFrame() == frame) {
+               if (gs.getChannel() == 1) {
+                  gsCh1.add(gs);
+               } else if (gs.getChannel() == 2) {
+                  gsCh2.add(gs);
+                  xyPointsCh2.add(new Point2D.Double(gs.getXCenter(), gs.getYCenter()));
+               }
+            }
+         }
+         if (xyPointsCh2.isEmpty()) {
+            continue;
+         }
+         NearestPoint2D np = new NearestPoint2D(xyPointsCh2, maxDistance);
+         for (SpotData ch1Spot : gsCh1) {
+            Point2D.Double pCh1 = new Point2D.Double(ch1Spot.getXCenter(), ch1Spot.getYCenter());
+            Point2D.Double pCh2 = np.findKDWSE(pCh1);
+            if (pCh2 != null) {
+               SpotData ch2Spot = null;
+               for (int i = 0; i < gsCh2.size() && ch2Spot == null; i++) {
+                  if (pCh2.x == gsCh2.get(i).getXCenter()
+                        && pCh2.y == gsCh2.get(i).getYCenter()) {
+                     ch2Spot = gsCh2.get(i);
+                  }
+               }
+               if (ch2Spot != null) {
+                  pairsByFrame.get(frame - 1).add(new GsSpotPair(ch1Spot, ch2Spot, pCh1, pCh2));
+               }
+            }
+         }
+      }
+      return pairsByFrame;
+   }
+
+   // Tracks, as assembled before the grid index
+   private static ArrayList<ArrayList<GsSpotPair>> oldFindTracks(
+         ArrayList<ArrayList<GsSpotPair>> pairsByFrame, double maxDistance) {
+      final int nrFrames = pairsByFrame.size();
+      ArrayList<ArrayList<GsSpotPair>> tracks = new ArrayList<ArrayList<GsSpotPair>>();
+      ArrayList<NearestPointByData> npsp = new ArrayList<NearestPointByData>();
+      for (int frame = 1; frame <= nrFrames; frame++) {
+         npsp.add(new NearestPointByData(pairsByFrame.get(frame - 1), maxDistance));
+      }
+      for (int firstFrame = 1; firstFrame <= nrFrames; firstFrame++) {
+         for (GsSpotPair spotPair : pairsByFrame.get(firstFrame - 1)) {
+            if (!spotPair.partOfTrack()) {
+               for (int frame = firstFrame; frame <= nrFrames; frame++) {
+                  if (!spotPair.partOfTrack() && spotPair.getFirstSpot().getFrame() == frame) {
+                     ArrayList<GsSpotPair> track = new ArrayList<GsSpotPair>();
+                     track.add(spotPair);
+                     spotPair.useInTrack(true);
+                     int searchInFrame = frame + 1;
+                     while (searchInFrame <= nrFrames) {
+                        GsSpotPair newSpotPair = (GsSpotPair) npsp.get(searchInFrame - 1)
+                              .findKDWSE(new Point2D.Double(spotPair.getFirstPoint().getX(),
+                                    spotPair.getFirstPoint().getY()));
+                        if (newSpotPair != null && !newSpotPair.partOfTrack()) {
+                           newSpotPair.useInTrack(true);
+                           spotPair = newSpotPair;
+                           track.add(spotPair);
+                        }
+                        searchInFrame++;
+                     }
+                     tracks.add(track);
+                  }
+               }
+            }
+         }
+      }
+      return tracks;
+   }
+
+   private static void assertSamePair(GsSpotPair expected, GsSpotPair actual) {
+      assertSame(expected.getFirstSpot(), actual.getFirstSpot());
+      assertSame(expected.getSecondSpot(), actual.getSecondSpot());
+      assertEquals(expected.getFirstPoint(), actual.getFirstPoint());
+      assertEquals(expected.getSecondPoint(), actual.getSecondPoint());
+   }
+
+   private static void assertSamePairs(List<ArrayList<GsSpotPair>> expected,
+         List<ArrayList<GsSpotPair>> actual) {
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+         assertEquals("pairs in " + i, expected.get(i).size(), actual.get(i).size());
+         for (int j = 0; j < expected.get(i).size(); j++) {
+            assertSamePair(expected.get(i).get(j), actual.get(i).get(j));
+         }
+      }
+   }
+
+   @Test
+   public void testPairsAndTracksAsBefore() {
+      for (long seed = 0; seed < 3; seed++) {
+         List<SpotData> spots = spots(seed);
+         ArrayList<ArrayList<GsSpotPair>> expectedPairs =
+               oldFindPairs(spots, NR_FRAMES, MAX_DISTANCE);
+         ArrayList<ArrayList<GsSpotPair>> pairs =
+               ParticlePairLister.findPairs(spots, NR_FRAMES, MAX_DISTANCE);
+         assertSamePairs(expectedPairs, pairs);
+         assertTrue(pairs.get(4).isEmpty());
+
+         ArrayList<ArrayList<GsSpotPair>> expectedTracks =
+               oldFindTracks(expectedPairs, MAX_DISTANCE);
+         ArrayList<ArrayList<GsSpotPair>> tracks =
+               ParticlePairLister.findTracks(pairs, MAX_DISTANCE);
+         assertSamePairs(expectedTracks, tracks);
+         assertTrue(tracks.size() < spots.size() / 2);
+      }
+   }
+
+   @Test
+   public void testPairSharesChannel2Spot() {
+      // both channel 1 spots are closest to the one channel 2 spot, and pair with it
+      List<SpotData> spots = new ArrayList<SpotData>();
+      spots.add(spot(1, 1, 0, 100.0, 100.0));
+      spots.add(spot(1, 1, 1, 130.0, 100.0));
+      spots.add(spot(2, 1, 2, 110.0, 100.0));
+      spots.add(spot(2, 1, 3, 400.0, 100.0));
+      ArrayList<ArrayList<GsSpotPair>> pairs = ParticlePairLister.findPairs(spots, 1, MAX_DISTANCE);
+      assertSamePairs(oldFindPairs(spots, 1, MAX_DISTANCE), pairs);
+      assertEquals(2, pairs.get(0).size());
+      assertSame(spots.get(2), pairs.get(0).get(0).getSecondSpot());
+      assertSame(spots.get(2), pairs.get(0).get(1).getSecondSpot());
+   }
+}
@@ -0,0 +1,105 @@
+package edu.ucsf.valelab.gaussianfit.datasettransformations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import java.util.Random;
+import org.junit.Test;
+
+public class DriftEstimatorTest {
+   private static final int FRAMES_PER_WINDOW = 10;
+   private static final int POINTS_PER_FRAME = 20;
+   private static final int SIZE = 64;
+
+   /**
+    * The same points in every frame, shifted by xShift * (window) in x, and
+    * yShift * (window) in y.
+    */
+   private static SpotTable spots(int nrFrames, double xShift, double yShift) {
+      Random random = new Random(nrFrames);
+      double[][] points = new double[POINTS_PER_FRAME][];
+      for (int i = 0; i < points.length; i++) {
+         points[i] = new double[] {12 + 40 * random.nextDouble(), 12 + 40 * random.nextDouble()};
+      }
+      SpotTable.Builder builder = new SpotTable.Builder();
+      builder.addRows(nrFrames * POINTS_PER_FRAME);
+      int row = 0;
+      for (int frame = 1; frame <= nrFrames; frame++) {
+         int window = (frame - 1) / FRAMES_PER_WINDOW;
+         for (double[] point : points) {
+            builder.setSpot(row, 1, 1, frame, 1, row, 0, 0)
+                  .setData(row, 1000.0, 10.0, point[0] + window * xShift,
+                        point[1] + window * yShift, 0.0, 250.0, 1.0, 0.0, 10.0);
+            row++;
+         }
+      }
+      return builder.build();
+   }
+
+   private static DriftEstimator estimator(int nrFrames) {
+      return new DriftEstimator(spots(nrFrames, 0.0, 0.0), false, nrFrames,
+            FRAMES_PER_WINDOW, SIZE, 1.0);
+   }
+
+   @Test
+   public void testSmooth() {
+      double[][] drift = {{0.0, 0.0}, {3.0, -3.0}, {Double.NaN, Double.NaN}, {9.0, -9.0},
+            {Double.NaN, Double.NaN}, {Double.NaN, Double.NaN}, {Double.NaN, Double.NaN}};
+      double[][] smoothed = DriftEstimator.smooth(drift, 3);
+      assertEquals(drift.length, smoothed.length);
+      // windows at the ends are averaged over the windows that exist
+      assertEquals(1.5, smoothed[0][0], 1e-12);
+      assertEquals(-1.5, smoothed[0][1], 1e-12);
+      assertEquals(1.5, smoothed[1][0], 1e-12);
+      // windows without a drift are left out
+      assertEquals(6.0, smoothed[2][0], 1e-12);
+      assertEquals(-6.0, smoothed[2][1], 1e-12);
+      assertEquals(9.0, smoothed[3][0], 1e-12);
+      assertEquals(9.0, smoothed[4][0], 1e-12);
+      assertTrue(Double.isNaN(smoothed[5][0]));
+      assertTrue(Double.isNaN(smoothed[6][1]));
+   }
+
+   @Test
+   public void testInterpolateCoversAllFrames() {
+      // 4 full windows and one of 5 frames, which must not be dropped
+      DriftEstimator estimator = estimator(45);
+      assertEquals(5, estimator.getNrWindows());
+      assertEquals(FRAMES_PER_WINDOW, estimator.getNrSpots(3) / POINTS_PER_FRAME);
+      assertEquals(5, estimator.getNrSpots(4) / POINTS_PER_FRAME);
+      double[][] drift = {{0.0, 0.0}, {10.0, -10.0}, {Double.NaN, Double.NaN},
+            {40.0, -40.0}, {50.0, 0.0}};
+      double[][] shift = estimator.interpolate(drift);
+      assertEquals(46, shift[0].length);
+      // constant before the center of the first window (5.5)
+      assertEquals(0.0, shift[0][0], 1e-12);
+      assertEquals(0.0, shift[0][5], 1e-12);
+      // linear between centers (15.5 and 35.5), also across the window without a drift
+      assertEquals(4.5, shift[0][10], 1e-12);
+      assertEquals(-4.5, shift[1][10], 1e-12);
+      assertEquals(9.5, shift[0][15], 1e-12);
+      assertEquals(10.0 + 30.0 * 14.5 / 20.0, shift[0][30], 1e-12);
+      // the center of the last window is 43, the middle of its 5 frames
+      assertEquals(40.0 + 10.0 * 3.5 / 7.5, shift[0][39], 1e-12);
+      assertEquals(50.0, shift[0][43], 1e-12);
+      assertEquals(0.0, shift[1][43], 1e-12);
+      // constant after it
+      assertEquals(50.0, shift[0][45], 1e-12);
+   }
+
+   @Test
+   public void testWindowDrift() throws Exception {
+      final int nrFrames = 6 * FRAMES_PER_WINDOW;
+      DriftEstimator estimator = new DriftEstimator(spots(nrFrames, 1.0, -0.5), false,
+            nrFrames, FRAMES_PER_WINDOW, SIZE, 1.0);
+      double[][] drift = estimator.getWindowDrift();
+      assertEquals(6, drift.length);
+      assertEquals(0.0, drift[0][0], 0.0);
+      assertEquals(0.0, drift[0][1], 0.0);
+      for (int w = 1; w < drift.length; w++) {
+         assertEquals(1.0 * w, drift[w][0], 0.5);
+         assertEquals(-0.5 * w, drift[w][1], 0.5);
+      }
+   }
+}
@@ -0,0 +1,108 @@
+package edu.ucsf.valelab.gaussianfit.fitmanagement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import edu.ucsf.valelab.gaussianfit.algorithm.GaussianFit;
+import edu.ucsf.valelab.gaussianfit.algorithm.GaussianFitTest;
+import edu.ucsf.valelab.gaussianfit.data.GaussianInfo;
+import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.fitting.ZCalibrator;
+import ij.process.ShortProcessor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.junit.Test;
+
+public class GaussianFitStackThreadTest {
+   private static final int SIZE = 16;
+   private static final int NR_THREADS = 3;
+   private static final int MAX_ITERATIONS = 1000;
+
+   private static void configure(GaussianInfo info, int fitMode) {
+      info.setShape(GaussianFit.ASYMMETRIC);
+      info.setFitMode(fitMode);
+      info.setHalfBoxSize(SIZE / 2);
+      info.setMaxIterations(MAX_ITERATIONS);
+      info.setUseWidthFilter(false);
+      info.setUseNrPhotonsFilter(false);
+   }
+
+   /**
+    * Spots fitted in batches by several threads give the same results as
+    * spots fitted one by one.
+    */
+   private static void compare(int fitMode) throws Exception {
+      List<short[]> pixels = GaussianFitTest.simulatedSpots(fitMode,
+            3 * GaussianFitStackThread.BATCH_SIZE + 5);
+      BlockingQueue<SpotData> source = new LinkedBlockingQueue<>();
+      List<SpotData> spots = new ArrayList<>();
+      for (int n = 0; n < pixels.size(); n++) {
+         SpotData spot = new SpotData(new ShortProcessor(SIZE, SIZE, pixels.get(n), null),
+               1, 1, n / 10 + 1, 1, n, 100 + n, 50);
+         spots.add(spot);
+         source.add(spot);
+      }
+      source.add(new SpotData(null, -1, -1, -1, -1, -1, -1, -1));
+
+      List<SpotData> results = Collections.synchronizedList(new ArrayList<>());
+      List<GaussianFitStackThread> threads = new ArrayList<>();
+      for (int i = 0; i < NR_THREADS; i++) {
+         GaussianFitStackThread thread = new GaussianFitStackThread(source, results, null);
+         configure(thread, fitMode);
+         threads.add(thread);
+         thread.init();
+      }
+      for (GaussianFitStackThread thread : threads) {
+         thread.join();
+      }
+
+      Map<Integer, SpotData> byNr = new HashMap<>();
+      for (SpotData result : results) {
+         byNr.put(result.getNr(), result);
+      }
+      assertEquals(results.size(), byNr.size());
+
+      GaussianInfo info = new GaussianInfo();
+      configure(info, fitMode);
+      GaussianFit fit = new GaussianFit(info.getShape(), info.getFitMode(),
+            info.getUseFixedWidth(), info.getFixedWidthNm() / info.getPixelSize() / 2);
+      int nrFitted = 0;
+      for (SpotData spot : spots) {
+         GaussianFit.Data fitResult = fit.dogaussianfit(pixels.get(spot.getNr()), SIZE, SIZE,
+               MAX_ITERATIONS);
+         SpotData actual = byNr.get(spot.getNr());
+         String message = "mode " + fitMode + ", spot " + spot.getNr();
+         // Spots that could not be fitted are left out
+         if (fitResult.getParms().length <= 1) {
+            assertNull(message, actual);
+            continue;
+         }
+         nrFitted++;
+         SpotData expected = SpotDataConverter.convert(spot, fitResult, info,
+               new ZCalibrator());
+         assertNotNull(message, actual);
+         assertEquals(message, expected.getXCenter(), actual.getXCenter(), 0.0);
+         assertEquals(message, expected.getYCenter(), actual.getYCenter(), 0.0);
+         assertEquals(message, expected.getIntensity(), actual.getIntensity(), 0.0);
+         assertEquals(message, expected.getBackground(), actual.getBackground(), 0.0);
+         assertEquals(message, expected.getWidth(), actual.getWidth(), 0.0);
+         assertEquals(message, expected.getSigma(), actual.getSigma(), 0.0);
+      }
+      assertEquals(nrFitted, results.size());
+      assertTrue(nrFitted > spots.size() / 2);
+   }
+
+   @Test
+   public void testBatchesMatchSingleFits() throws Exception {
+      compare(GaussianFit.LEVENBERGMARQUARD);
+      compare(GaussianFit.LEVENBERGMARQUARDMLE);
+      compare(GaussianFit.NELDERMEAD);
+   }
+}
@@ -0,0 +1,163 @@
+package edu.ucsf.valelab.gaussianfit.spotoperations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import edu.ucsf.valelab.gaussianfit.data.PointData;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class NearestPointGridTest {
+
+   private static final class Point implements PointData {
+      private final Point2D.Double point_;
+
+      Point(double x, double y) {
+         point_ = new Point2D.Double(x, y);
+      }
+
+      @Override
+      public Point2D.Double getPoint() {
+         return point_;
+      }
+   }
+
+   // The nearest point closer than maxDistance, the first one in the list on a tie
+   private static int bruteForce(List<Point> points, double maxDistance, double x, double y) {
+      int best = -1;
+      double bestDistance = maxDistance * maxDistance;
+      for (int i = 0; i < points.size(); i++) {
+         double dx = points.get(i).getPoint().x - x;
+         double dy = points.get(i).getPoint().y - y;
+         if (dx * dx + dy * dy < bestDistance) {
+            best = i;
+            bestDistance = dx * dx + dy * dy;
+         }
+      }
+      return best;
+   }
+
+   private static void assertSameAsBruteForce(List<Point> points, double maxDistance,
+         List<Point2D.Double> queries) {
+      NearestPointGrid grid = new NearestPointGrid(points, maxDistance);
+      NearestPointByData kdTree = new NearestPointByData(points, maxDistance);
+      for (Point2D.Double query : queries) {
+         int expected = bruteForce(points, maxDistance, query.x, query.y);
+         assertEquals("nearest to " + query, expected, grid.findIndex(query.x, query.y));
+         PointData found = grid.find(query);
+         if (expected < 0) {
+            assertNull(found);
+            assertNull(kdTree.findKDWSE(query));
+         } else {
+            assertSame(points.get(expected), found);
+            assertEquals(points.get(expected).getPoint(), kdTree.findKDWSE(query).getPoint());
+         }
+      }
+   }
+
+   private static List<Point2D.Double> queries(Random random, double size, int n) {
+      List<Point2D.Double> queries = new ArrayList<Point2D.Double>();
+      for (int i = 0; i < n; i++) {
+         queries.add(new Point2D.Double(1.2 * size * random.nextDouble() - 0.1 * size,
+               1.2 * size * random.nextDouble() - 0.1 * size));
+      }
+      return queries;
+   }
+
+   @Test
+   public void testUniform() {
+      Random random = new Random(46);
+      for (double maxDistance : new double[] {0.5, 5.0, 50.0, 5000.0}) {
+         for (int n : new int[] {1, 2, 10, 1000}) {
+            List<Point> points = new ArrayList<Point>();
+            for (int i = 0; i < n; i++) {
+               points.add(new Point(1000.0 * random.nextDouble(), 1000.0 * random.nextDouble()));
+            }
+            List<Point2D.Double> queries = queries(random, 1000.0, 500);
+            for (Point p : points) {
+               // points themselves, and close by
+               queries.add(p.getPoint());
+               queries.add(new Point2D.Double(p.getPoint().x + 0.3 * maxDistance,
+                     p.getPoint().y - 0.6 * maxDistance));
+            }
+            assertSameAsBruteForce(points, maxDistance, queries);
+         }
+      }
+   }
+
+   @Test
+   public void testClustersAndLines() {
+      Random random = new Random(146);
+      List<Point> points = new ArrayList<Point>();
+      // a few dense clusters far apart
+      for (int c = 0; c < 5; c++) {
+         double cx = 1.0e5 * random.nextDouble();
+         double cy = 1.0e5 * random.nextDouble();
+         for (int i = 0; i < 200; i++) {
+            points.add(new Point(cx + 20.0 * random.nextGaussian(),
+                  cy + 20.0 * random.nextGaussian()));
+         }
+      }
+      // and a horizontal line of points
+      for (int i = 0; i < 300; i++) {
+         points.add(new Point(1.0e5 * random.nextDouble(), 5.0e4));
+      }
+      List<Point2D.Double> queries = queries(random, 1.0e5, 1000);
+      for (Point p : points) {
+         queries.add(new Point2D.Double(p.getPoint().x + random.nextGaussian(),
+               p.getPoint().y + random.nextGaussian()));
+      }
+      assertSameAsBruteForce(points, 10.0, queries);
+      assertSameAsBruteForce(points, 100.0, queries);
+   }
+
+   @Test
+   public void testTiesGoToTheFirstPoint() {
+      List<Point> points = new ArrayList<Point>();
+      points.add(new Point(10.0, 10.0));
+      points.add(new Point(5.0, 5.0));
+      points.add(new Point(0.0, 0.0));
+      points.add(new Point(5.0, 5.0));
+      NearestPointGrid grid = new NearestPointGrid(points, 10.0);
+      assertEquals(1, grid.findIndex(5.0, 5.0));
+      assertEquals(1, grid.findIndex(5.0, 6.0));
+      // halfway between points 0 and 1 (and 3)
+      assertEquals(0, grid.findIndex(7.5, 7.5));
+      // halfway between points 1 (and 3) and 2
+      assertEquals(1, grid.findIndex(2.5, 2.5));
+   }
+
+   @Test
+   public void testCutoff() {
+      List<Point> points = new ArrayList<Point>();
+      points.add(new Point(0.0, 0.0));
+      NearestPointGrid grid = new NearestPointGrid(points, 5.0);
+      assertEquals(0, grid.findIndex(3.0, 3.9));
+      // exactly at the maximum distance is too far
+      assertEquals(-1, grid.findIndex(3.0, 4.0));
+      assertEquals(-1, grid.findIndex(1000.0, 0.0));
+   }
+
+   @Test
+   public void testEmptyAndNaN() {
+      NearestPointGrid empty = new NearestPointGrid(new ArrayList<Point>(), 10.0);
+      assertEquals(-1, empty.findIndex(0.0, 0.0));
+      assertNull(empty.find(new Point2D.Double(0.0, 0.0)));
+
+      List<Point> points = new ArrayList<Point>();
+      points.add(new Point(Double.NaN, 1.0));
+      points.add(new Point(2.0, 2.0));
+      points.add(new Point(Double.NaN, Double.NaN));
+      NearestPointGrid grid = new NearestPointGrid(points, 10.0);
+      assertEquals(1, grid.findIndex(1.0, 1.0));
+      assertEquals(-1, grid.findIndex(Double.NaN, 1.0));
+
+      List<Point> onlyNaN = new ArrayList<Point>();
+      onlyNaN.add(new Point(Double.NaN, Double.NaN));
+      assertEquals(-1, new NearestPointGrid(onlyNaN, 10.0).findIndex(0.0, 0.0));
+   }
+}
@@ -0,0 +1,356 @@
+package edu.ucsf.valelab.gaussianfit.spotoperations;
+
+import static org.junit.Assert.assertEquals;
+
+import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.data.SpotData;
+import edu.ucsf.valelab.gaussianfit.data.TrackData;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class SpotLinkerTest {
+   private static final int NR_FRAMES = 40;
+   private static final int NR_SLICES = 2;
+   private static final int NR_CHANNELS = 2;
+   private static final int NR_POSITIONS = 2;
+   private static final double MAX_DISTANCE = 50.0;
+
+   private static RowData rowData(List<SpotData> spots, int nrFrames, int nrSlices,
+         int nrChannels, int nrPositions) {
+      return new RowData.Builder().setName("spots").setTitle("spots")
+            .setWidth(64).setHeight(64).setPixelSizeNm(100.0f)
+            .setNrChannels(nrChannels).setNrFrames(nrFrames).setNrSlices(nrSlices)
+            .setNrPositions(nrPositions).setMaxNrSpots(spots.size()).setSpotList(spots)
+            .setTimePoints(new ArrayList<Double>()).setHasZ(false).build();
+   }
+
+   private static SpotData spot(int channel, int slice, int frame, int position, int nr,
+         double x, double y) {
+      SpotData spot = new SpotData(null, channel, slice, frame, position, nr, 0, 0);
+      spot.setData(1000.0 + nr, 10.0, x, y, 0.0, 250.0, 1.0, 0.0, 10.0);
+      return spot;
+   }
+
+   /**
+    * Particles that move a bit from frame to frame, and are sometimes not seen, in every
+    * position, channel and slice, with some spots that are seen only once.  Particles are dense
+    * enough that several tracks often end closest to the same spot.
+    */
+   private static RowData dataSet(long seed) {
+      Random random = new Random(seed);
+      List<SpotData> spots = new ArrayList<SpotData>();
+      int nr = 0;
+      for (int pos = 1; pos <= NR_POSITIONS; pos++) {
+         for (int ch = 1; ch <= NR_CHANNELS; ch++) {
+            for (int s = 1; s <= NR_SLICES; s++) {
+               double[][] particles = new double[60][];
+               for (int p = 0; p < particles.length; p++) {
+                  particles[p] = new double[] {1000.0 * random.nextDouble(),
+                        1000.0 * random.nextDouble()};
+               }
+               for (int f = 1; f <= NR_FRAMES; f++) {
+                  if (f == 7) {
+                     // a frame without any spots
+                     continue;
+                  }
+                  for (double[] particle : particles) {
+                     particle[0] += 15.0 * random.nextGaussian();
+                     particle[1] += 15.0 * random.nextGaussian();
+                     if (random.nextDouble() < 0.8) {
+                        spots.add(spot(ch, s, f, pos, nr++, particle[0], particle[1]));
+                     }
+                  }
+                  for (int i = 0; i < 10; i++) {
+                     spots.add(spot(ch, s, f, pos, nr++, 1000.0 * random.nextDouble(),
+                           1000.0 * random.nextDouble()));
+                  }
+               }
+            }
+         }
+      }
+      Collections.shuffle(spots, random);
+      return rowData(spots, NR_FRAMES, NR_SLICES, NR_CHANNELS, NR_POSITIONS);
+   }
+
+   /**
+    * Tracks as linked by link before the grid index, in the order in which they were averaged.
+    * Tracks that can not be extended are ended, where the old code threw a
+    * NullPointerException.
+    */
+   private static List<List<SpotData>> oldLink(RowData rowData, double maxDistance) {
+      List<List<SpotData>> destList = new ArrayList<List<SpotData>>();
+      List<List<SpotData>> tracks = new ArrayList<List<SpotData>>();
+      for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
+         for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
+            for (int s = 1; s <= rowData.nrSlices_; s++) {
+               for (int f = 1; f <= rowData.nrFrames_; f++) {
+                  List<SpotData> spots = rowData.get(f, s, ch, pos);
+                  if (spots != null) {
+                     List<SpotData> markedSpots = new ArrayList<SpotData>();
+                     if (tracks.size() > 0) {
+                        NearestPointByData nsp = new NearestPointByData(spots, maxDistance);
+                        List<List<SpotData>> removedTracks = new ArrayList<List<SpotData>>();
+                        for (List<SpotData> track : tracks) {
+                           SpotData tSpot = track.get(track.size() - 1);
+                           SpotData newSpot = (SpotData) nsp.findKDWSE(new Point2D.Double(
+                                 tSpot.getXCenter(), tSpot.getYCenter()));
+                           if (newSpot == null) {
+                              destList.add(track);
+                              removedTracks.add(track);
+                           } else {
+                              track.add(newSpot);
+                              markedSpots.add(newSpot);
+                           }
+                        }
+                        for (List<SpotData> track : removedTracks) {
+                           tracks.remove(track);
+                        }
+                     }
+                     for (SpotData spot : spots) {
+                        if (!markedSpots.contains(spot)) {
+                           List<SpotData> track = new ArrayList<SpotData>();
+                           track.add(spot);
+                           tracks.add(track);
+                        }
+                     }
+                  }
+               }
+               destList.addAll(tracks);
+               tracks.clear();
+            }
+         }
+      }
+      return destList;
+   }
+
+   // Tracks in the order they were written by extractTracks before the grid index
+   private static List<List<SpotData>> oldExtractTracks(RowData rowData, int minNr,
+         int nrMissing, double maxDistance, double minTotalDistance, boolean combineChannels,
+         double maxPairDistance) {
+      List<List<SpotData>> written = new ArrayList<List<SpotData>>();
+      List<Integer> trackIndex;
+      Map<List<Integer>, List<TrackData>> trackMap = new HashMap<>();
+      for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
+         for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
+            for (int s = 1; s <= rowData.nrSlices_; s++) {
+               trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
+               List<TrackData> tracks = new ArrayList<TrackData>();
+               for (int f = 1; f <= rowData.nrFrames_; f++) {
+                  List<SpotData> spots = rowData.get(f, s, ch, pos);
+                  if (spots != null) {
+                     List<SpotData> markedSpots = new ArrayList<SpotData>();
+                     if (tracks.size() > 0) {
+                        NearestPointByData nsp = new NearestPointByData(spots, maxDistance);
+                        List<TrackData> removedTracks = new ArrayList<TrackData>();
+                        for (TrackData track : tracks) {
+                           SpotData tSpot = track.get(track.size() - 1);
+                           SpotData newSpot = (SpotData) nsp.findKDWSE(new Point2D.Double(
+                                 tSpot.getXCenter(), tSpot.getYCenter()));
+                           if (newSpot == null || markedSpots.contains(newSpot)) {
+                              track.addMissing();
+                              if (track.missingMoreThan(nrMissing)) {
+                                 if (track.size() > minNr
+                                       && track.get(0).distance(track.get(track.size() - 1))
+                                       > minTotalDistance) {
+                                    written.add(track.getList());
+                                    removedTracks.add(track);
+                                 }
+                              }
+                           } else {
+                              track.resetMissing();
+                              track.add(newSpot);
+                              markedSpots.add(newSpot);
+                           }
+                        }
+                        for (TrackData track : removedTracks) {
+                           tracks.remove(track);
+                        }
+                     }
+                     for (SpotData spot : spots) {
+                        if (!markedSpots.contains(spot)) {
+                           TrackData track = new TrackData();
+                           track.add(spot);
+                           tracks.add(track);
+                        }
+                     }
+                  }
+               }
+               trackMap.put(trackIndex, tracks);
+            }
+         }
+      }
+
+      if (combineChannels) {
+         for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
+            for (int s = 1; s <= rowData.nrSlices_; s++) {
+               Map<Integer, List<TrackData>> tracksByChannel =
+                     new HashMap<Integer, List<TrackData>>();
+               Map<Integer, NearestPointByData> npsByChannel =
+                     new HashMap<Integer, NearestPointByData>();
+               for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
+                  trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
+                  tracksByChannel.put(ch, trackMap.get(trackIndex));
+                  npsByChannel.put(ch, new NearestPointByData(
+                        trackMap.get(trackIndex), maxPairDistance));
+               }
+               for (TrackData track : tracksByChannel.get(1)) {
+                  if (track.size() > minNr
+                        && track.get(0).distance(track.get(track.size() - 1))
+                        > minTotalDistance) {
+                     for (int ch = 2; ch <= rowData.nrChannels_; ch++) {
+                        TrackData closestTrack =
+                              (TrackData) npsByChannel.get(ch).findKDWSE(track.getPoint());
+                        if (closestTrack != null) {
+                           if (closestTrack.size() > minNr
+                                 && closestTrack.get(0).distance(
+                                 closestTrack.get(closestTrack.size() - 1))
+                                 > minTotalDistance) {
+                              track.add(closestTrack);
+                              trackMap.remove(Collections.unmodifiableList(
+                                    Arrays.asList(pos, ch, s)));
+                           }
+                        }
+                     }
+                  }
+               }
+            }
+         }
+      }
+
+      for (int pos = 1; pos <= rowData.nrPositions_; pos++) {
+         for (int ch = 1; ch <= rowData.nrChannels_; ch++) {
+            for (int s = 1; s <= rowData.nrSlices_; s++) {
+               trackIndex = Collections.unmodifiableList(Arrays.asList(pos, ch, s));
+               List<TrackData> tracks = trackMap.get(trackIndex);
+               if (tracks != null) {
+                  for (TrackData track : tracks) {
+                     if (track.size() > minNr
+                           && track.get(0).distance(track.get(track.size() - 1))
+                           > minTotalDistance) {
+                        written.add(track.getList());
+                     }
+                  }
+               }
+            }
+         }
+      }
+      return written;
+   }
+
+   private static void assertSameSpot(SpotData expected, SpotData actual) {
+      assertEquals(expected.getPosition(), actual.getPosition());
+      assertEquals(expected.getChannel(), actual.getChannel());
+      assertEquals(expected.getSlice(), actual.getSlice());
+      assertEquals(expected.getFrame(), actual.getFrame());
+      assertEquals(expected.getXCenter(), actual.getXCenter(), 0.0);
+      assertEquals(expected.getYCenter(), actual.getYCenter(), 0.0);
+   }
+
+   private static void assertSameTracks(List<List<SpotData>> expected,
+         List<List<SpotData>> actual) {
+      assertEquals(expected.size(), actual.size());
+      for (int t = 0; t < expected.size(); t++) {
+         assertEquals("length of track " + t, expected.get(t).size(), actual.get(t).size());
+         for (int i = 0; i < expected.get(t).size(); i++) {
+            assertSameSpot(expected.get(t).get(i), actual.get(t).get(i));
+         }
+      }
+   }
+
+   // Linked spots should be the averages of the tracks, in the same order
+   private static void assertLinked(List<List<SpotData>> expected, List<SpotData> linked,
+         boolean useFrames) {
+      assertEquals(expected.size(), linked.size());
+      for (int t = 0; t < expected.size(); t++) {
+         List<SpotData> track = expected.get(t);
+         SpotData spot = linked.get(t);
+         double x = 0.0;
+         double y = 0.0;
+         for (SpotData trackSpot : track) {
+            x += trackSpot.getXCenter();
+            y += trackSpot.getYCenter();
+         }
+         assertEquals("spots linked in " + t, track.size(), spot.nrLinks_);
+         assertEquals(track.get(0).getPosition(), spot.getPosition());
+         assertEquals(track.get(0).getChannel(), spot.getChannel());
+         assertEquals(track.get(0).getSlice(), spot.getSlice());
+         assertEquals(useFrames ? track.get(0).getFrame() : track.get(0).getSlice(),
+               spot.originalFrame_);
+         assertEquals(x / track.size(), spot.getXCenter(), 0.0);
+         assertEquals(y / track.size(), spot.getYCenter(), 0.0);
+      }
+   }
+
+   @Test
+   public void testLinkAsBefore() {
+      for (long seed = 0; seed < 3; seed++) {
+         RowData rowData = dataSet(seed);
+         assertLinked(oldLink(rowData, MAX_DISTANCE),
+               SpotLinker.linkedSpots(rowData, MAX_DISTANCE), true);
+      }
+   }
+
+   @Test
+   public void testExtractTracksAsBefore() {
+      for (long seed = 10; seed < 13; seed++) {
+         RowData rowData = dataSet(seed);
+         for (int nrMissing : new int[] {0, 2}) {
+            for (boolean combineChannels : new boolean[] {false, true}) {
+               assertSameTracks(
+                     oldExtractTracks(rowData, 3, nrMissing, MAX_DISTANCE, 20.0,
+                           combineChannels, 100.0),
+                     SpotLinker.trackLists(rowData, 3, nrMissing, MAX_DISTANCE, 20.0,
+                           combineChannels, 100.0));
+            }
+         }
+      }
+   }
+
+   /**
+    * Two tracks whose ends are both closest to the one spot of the next frame.
+    */
+   private static RowData sharedSpot() {
+      List<SpotData> spots = new ArrayList<SpotData>();
+      spots.add(spot(1, 1, 1, 1, 0, 100.0, 100.0));
+      spots.add(spot(1, 1, 1, 1, 1, 160.0, 100.0));
+      spots.add(spot(1, 1, 2, 1, 2, 120.0, 100.0));
+      spots.add(spot(1, 1, 3, 1, 3, 125.0, 100.0));
+      spots.add(spot(1, 1, 4, 1, 4, 130.0, 100.0));
+      spots.add(spot(1, 1, 4, 1, 5, 400.0, 100.0));
+      return rowData(spots, 4, 1, 1, 1);
+   }
+
+   @Test
+   public void testLinkExtendsTracksThroughSharedSpot() {
+      RowData rowData = sharedSpot();
+      List<List<SpotData>> expected = oldLink(rowData, MAX_DISTANCE);
+      List<SpotData> linked = SpotLinker.linkedSpots(rowData, MAX_DISTANCE);
+      assertLinked(expected, linked, true);
+      // both tracks continue through the shared spot, which does not start a track of its own
+      assertEquals(3, linked.size());
+      assertEquals(4, linked.get(0).nrLinks_);
+      assertEquals(4, linked.get(1).nrLinks_);
+      assertEquals(1, linked.get(2).nrLinks_);
+   }
+
+   @Test
+   public void testExtractTracksGivesSharedSpotToOneTrack() {
+      RowData rowData = sharedSpot();
+      List<List<SpotData>> tracks = SpotLinker.trackLists(rowData, 0, 5, MAX_DISTANCE, -1.0,
+            false, 100.0);
+      assertSameTracks(oldExtractTracks(rowData, 0, 5, MAX_DISTANCE, -1.0, false, 100.0),
+            tracks);
+      // the first track takes the shared spot, the second one misses it and ends
+      assertEquals(3, tracks.size());
+      assertEquals(4, tracks.get(0).size());
+      assertEquals(1, tracks.get(1).size());
+      assertEquals(1, tracks.get(2).size());
+   }
+}
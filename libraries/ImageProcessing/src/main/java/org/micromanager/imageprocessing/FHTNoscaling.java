@@ -31,6 +31,7 @@
 package org.micromanager.imageprocessing;
 
 import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
@@ -57,6 +58,9 @@ public class FHTNoscaling extends FloatProcessor {
    private float[] s_;
    private int[] bitrev_;
    private float[] tempArr_;
+   // Reused by powerSpectrumNoscaling()
+   private float[] fps_;
+   private byte[] ps_;
 
    /**
     * Constructs a FHT object from an ImageProcessor. Byte, short and RGB images are converted to
@@ -75,6 +79,32 @@ public class FHTNoscaling extends FloatProcessor {
       resetRoi();
    }
 
+   /**
+    * Replaces the image in this FHT by ip, so that the FHT, with its tables and scratch
+    * arrays, can be reused for images of the same size.
+    *
+    * @param ip Image to transform next; will not be modified.
+    * @return False if ip does not pad to the size of this FHT, which is then unchanged.
+    */
+   boolean load(ImageProcessor ip) {
+      ImageProcessor padded = padImage(ip);
+      if (padded.getWidth() != width || padded.getHeight() != height) {
+         return false;
+      }
+      float[] pixels = (float[]) getPixels();
+      if (padded instanceof FloatProcessor || padded instanceof ColorProcessor) {
+         System.arraycopy(padded instanceof FloatProcessor ? padded.getPixels()
+               : padded.convertToFloat().getPixels(), 0, pixels, 0, pixels.length);
+      } else {
+         for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = padded.getf(i);
+         }
+      }
+      isFrequencyDomain_ = false;
+      resetRoi();
+      return true;
+   }
+
    /**
     * Returns true of this FHT contains a square image with a width that is a power of two.
     */
@@ -329,13 +359,28 @@ public class FHTNoscaling extends FloatProcessor {
     * in the frequency domain. Modified to remove scaling per William Mohler's tweaks.
     */
    public ImageProcessor getpowerspectrumNoscaling() throws IllegalArgumentException {
+      return powerSpectrumNoscaling(new float[maxN_ * maxN_], new byte[maxN_ * maxN_]);
+   }
+
+   /**
+    * Same as {@link #getpowerspectrumNoscaling()}, but the returned image shares its pixels
+    * with this FHT, and is overwritten by the next call.
+    */
+   ImageProcessor powerSpectrumNoscaling() throws IllegalArgumentException {
+      if (ps_ == null || ps_.length != maxN_ * maxN_) {
+         fps_ = new float[maxN_ * maxN_];
+         ps_ = new byte[maxN_ * maxN_];
+      }
+      return powerSpectrumNoscaling(fps_, ps_);
+   }
+
+   private ImageProcessor powerSpectrumNoscaling(float[] fps, byte[] ps)
+         throws IllegalArgumentException {
       if (!isFrequencyDomain_) {
          throw new IllegalArgumentException("Frequency domain image required");
       }
       int base;
       float r;
-      float[] fps = new float[maxN_ * maxN_];
-      byte[] ps = new byte[maxN_ * maxN_];
       float[] fht = (float[]) getPixels();
 
       for (int row = 0; row < maxN_; row++) {
@@ -411,20 +456,21 @@ public class FHTNoscaling extends FloatProcessor {
     * </pre>
     */
    private void swapQuadrants(ImageProcessor ip) {
-      int size = ip.getWidth() / 2;
-      ip.setRoi(size, 0, size, size);
-      ImageProcessor t1 = ip.crop();
-      ip.setRoi(0, size, size, size);
-      ImageProcessor t2 = ip.crop();
-      ip.insert(t1, 0, size);
-      ip.insert(t2, size, 0);
-      ip.setRoi(0, 0, size, size);
-      t1 = ip.crop();
-      ip.setRoi(size, size, size, size);
-      t2 = ip.crop();
-      ip.insert(t1, size, size);
-      ip.insert(t2, 0, 0);
-      ip.resetRoi();
+      int width = ip.getWidth();
+      int size = width / 2;
+      byte[] pixels = (byte[]) ip.getPixels();
+      for (int row = 0; row < size; row++) {
+         for (int col = 0; col < size; col++) {
+            swap(pixels, row * width + col, (row + size) * width + col + size);
+            swap(pixels, row * width + col + size, (row + size) * width + col);
+         }
+      }
+   }
+
+   private static void swap(byte[] pixels, int i, int j) {
+      byte tmp = pixels[i];
+      pixels[i] = pixels[j];
+      pixels[j] = tmp;
    }
 
 }
@@ -40,6 +40,12 @@ import java.util.Arrays;
  * Collection of Image Sharpness algorithms.  These are all static methods that take an
  * ImageProcessor.
  *
+ * <p>An instance remembers the selected method and parameters. Methods that filter the
+ * image work on scratch copies that the instance keeps and reuses as long as the image
+ * type and size do not change, so scoring a stack does not allocate a copy per slice.
+ * Instances are therefore not thread-safe; use one per thread (see
+ * {@link SharpnessScorer}).
+ *
  * @author Nick Anthony
  */
 public class ImgSharpnessAnalysis {
@@ -48,6 +54,9 @@ public class ImgSharpnessAnalysis {
    private double fftUpperCutoff_ = 14;
    private Method method_ = Method.Edges;
    private boolean allowInPlaceModification_ = false;
+   private ImageProcessor scratch1_;
+   private ImageProcessor scratch2_;
+   private FHTNoscaling fht_;
 
    /**
     * Utility class making it easy to select a sharpness algorithm.
@@ -108,7 +117,7 @@ public class ImgSharpnessAnalysis {
    public double compute(ImageProcessor proc) {
       switch (method_) {
          case Edges:
-            return computeEdges(proc, allowInPlaceModification_);
+            return edges(proc, workingCopy(proc));
          case StdDev:
             return computeNormalizedStdDev(proc);
          case Mean:
@@ -116,24 +125,54 @@ public class ImgSharpnessAnalysis {
          case NormalizedVariance:
             return computeNormalizedVariance(proc);
          case SharpEdges:
-            return computeSharpEdges(proc, allowInPlaceModification_);
+            return sharpEdges(proc, workingCopy(proc));
          case Redondo:
             return computeRedondo(proc);
          case Volath:
             return computeVolath(proc);
          case Volath5:
             return computeVolath5(proc);
-         case MedianEdges:
-            return computeMedianEdges(proc, allowInPlaceModification_);
+         case MedianEdges: {
+            ImageProcessor work = workingCopy(proc);
+            work.medianFilter();    // 3x3 median filter
+            return medianEdges(work, scratchCopy(work, 2));
+         }
          case Tenengrad:
-            return computeTenengrad(proc, allowInPlaceModification_);
+            return tenengrad(proc, workingCopy(proc), scratchCopy(proc, 2));
          case FFTBandpass:
-            return computeFFTBandpass(proc, fftLowerCutoff_, fftUpperCutoff_);
+            return fftBandpass(proc);
          default:
             throw new AssertionError(method_.name());
       }
    }
 
+   private ImageProcessor workingCopy(ImageProcessor proc) {
+      return allowInPlaceModification_ ? proc : scratchCopy(proc, 1);
+   }
+
+   /**
+    * Copies the pixels of proc into one of the scratch processors, replacing it with a
+    * duplicate when the image type or size changed.
+    */
+   private ImageProcessor scratchCopy(ImageProcessor proc, int slot) {
+      ImageProcessor scratch = slot == 1 ? scratch1_ : scratch2_;
+      if (scratch == null || scratch.getClass() != proc.getClass()
+            || scratch.getWidth() != proc.getWidth()
+            || scratch.getHeight() != proc.getHeight()) {
+         scratch = proc.duplicate();
+         if (slot == 1) {
+            scratch1_ = scratch;
+         } else {
+            scratch2_ = scratch;
+         }
+         return scratch;
+      }
+      System.arraycopy(proc.getPixels(), 0, scratch.getPixels(), 0, proc.getPixelCount());
+      scratch.resetRoi();
+      scratch.resetMinAndMax();
+      return scratch;
+   }
+
    /**
     * Uses the ImageJ code to find edges in the image.  The mean intensity of the edge map is
     * divided by the mean intensity of the original image.
@@ -143,15 +182,16 @@ public class ImgSharpnessAnalysis {
     *         image.
     */
    public static double computeEdges(ImageProcessor proc, boolean allowInPlaceModification) {
+      return edges(proc, allowInPlaceModification ? proc : proc.duplicate());
+   }
+
+   // work holds a copy of proc's pixels (or is proc itself), and will be modified
+   private static double edges(ImageProcessor proc, ImageProcessor work) {
       // mean intensity for the original image
       double meanIntensity = proc.getStatistics().mean;
-      ImageProcessor proc1  = proc;
-      if (!allowInPlaceModification) {
-         proc1 = proc.duplicate();
-      }
       // mean intensity of the edge map
-      proc1.findEdges();
-      double meanEdge = proc1.getStatistics().mean;
+      work.findEdges();
+      double meanEdge = work.getStatistics().mean;
 
       return meanEdge / meanIntensity;
    }
@@ -165,16 +205,16 @@ public class ImgSharpnessAnalysis {
     * @return Sharpness metric.
     */
    public static double computeSharpEdges(ImageProcessor proc, boolean allowInPlaceModification) {
+      return sharpEdges(proc, allowInPlaceModification ? proc : proc.duplicate());
+   }
+
+   private static double sharpEdges(ImageProcessor proc, ImageProcessor work) {
       // mean intensity for the original image
       final double meanIntensity = proc.getStatistics().mean;
-      ImageProcessor proc1 = proc;
-      if (!allowInPlaceModification) {
-         proc1 = proc.duplicate();
-      }
       // mean intensity of the edge map
-      proc1.sharpen();
-      proc1.findEdges();
-      double meanEdge = proc1.getStatistics().mean;
+      work.sharpen();
+      work.findEdges();
+      double meanEdge = work.getStatistics().mean;
 
       return meanEdge / meanIntensity;
    }
@@ -234,13 +274,15 @@ public class ImgSharpnessAnalysis {
       int w = proc.getWidth();
       double sum = 0.0;
 
-      for (int i = 1; i < w - 1; ++i) {
-         for (int j = 1; j < h - 1; ++j) {
-            double p = proc.getPixel(i - 1, j)
-                  + proc.getPixel(i + 1, j)
-                  + proc.getPixel(i, j - 1)
-                  + proc.getPixel(i, j + 1)
-                  - 4 * (proc.getPixel(i - 1, j));
+      // get() is getPixel() without the bounds check; rows in the outer loop to follow
+      // the memory layout
+      for (int j = 1; j < h - 1; ++j) {
+         for (int i = 1; i < w - 1; ++i) {
+            double p = proc.get(i - 1, j)
+                  + proc.get(i + 1, j)
+                  + proc.get(i, j - 1)
+                  + proc.get(i, j + 1)
+                  - 4 * (proc.get(i - 1, j));
             sum += (p * p);
          }
       }
@@ -259,22 +301,25 @@ public class ImgSharpnessAnalysis {
     * @return The sum of the square of the gradient of the image.
     */
    public static double computeTenengrad(ImageProcessor proc, boolean allowInPlaceModification) {
+      return tenengrad(proc, allowInPlaceModification ? proc : proc.duplicate(),
+            proc.duplicate());
+   }
+
+   // proc1 and proc2 hold copies of proc's pixels (proc1 may be proc itself)
+   private static double tenengrad(ImageProcessor proc, ImageProcessor proc1,
+                                   ImageProcessor proc2) {
       final int h = proc.getHeight();
       final int w = proc.getWidth();
       int[] ken1 = {-1, 0, 1, -2, 0, 2, -1, 0, 1};
       int[] ken2 = {1, 2, 1, 0, 0, 0, -1, -2, -1};
-      ImageProcessor proc1 = proc;
-      if (allowInPlaceModification) {
-         proc1 = proc.duplicate();
-      }
-
-      ImageProcessor proc2 = proc.duplicate();
       proc1.convolve3x3(ken1);
       proc2.convolve3x3(ken2);
       double sum = 0.0;
-      for (int i = 0; i < w; i++) {
-         for (int j = 0; j < h; j++) {
-            sum += Math.pow(proc1.getPixel(i, j), 2) + Math.pow(proc2.getPixel(i, j), 2);
+      for (int j = 0; j < h; j++) {
+         for (int i = 0; i < w; i++) {
+            double g1 = proc1.get(i, j);
+            double g2 = proc2.get(i, j);
+            sum += g1 * g1 + g2 * g2;
          }
       }
       return sum;
@@ -290,15 +335,12 @@ public class ImgSharpnessAnalysis {
       double sum1 = 0.0;
       double sum2 = 0.0;
 
-      for (int i = 1; i < w - 1; ++i) {
-         for (int j = 0; j < h; ++j) {
-            sum1 += proc.getPixel(i, j) * proc.getPixel(i + 1, j);
+      for (int j = 0; j < h; ++j) {
+         for (int i = 1; i < w - 1; ++i) {
+            sum1 += proc.get(i, j) * proc.get(i + 1, j);
          }
-      }
-
-      for (int i = 0; i < w - 2; ++i) {
-         for (int j = 0; j < h; ++j) {
-            sum2 += proc.getPixel(i, j) * proc.getPixel(i + 2, j);
+         for (int i = 0; i < w - 2; ++i) {
+            sum2 += proc.get(i, j) * proc.get(i + 2, j);
          }
       }
 
@@ -314,9 +356,9 @@ public class ImgSharpnessAnalysis {
       int w = proc.getWidth();
       double sum = 0.0;
 
-      for (int i = 0; i < w - 1; ++i) {
-         for (int j = 0; j < h; ++j) {
-            sum += proc.getPixel(i, j) * proc.getPixel(i + 1, j);
+      for (int j = 0; j < h; ++j) {
+         for (int i = 0; i < w - 1; ++i) {
+            sum += proc.get(i, j) * proc.get(i + 1, j);
          }
       }
 
@@ -337,23 +379,29 @@ public class ImgSharpnessAnalysis {
     * @author Jon
     */
    public static double computeMedianEdges(ImageProcessor proc, boolean allowInPlaceModification) {
-      final int h = proc.getHeight();
-      final int w = proc.getWidth();
-      final int[] ken1 = {2, 1, 0, 1, 0, -1, 0, -1, -2};
-      final int[] ken2 = {0, 1, 2, -1, 0, 1, -2, -1, 0};
       ImageProcessor proc1 = proc;
       if (!allowInPlaceModification) {
          proc1 = proc.duplicate();
       }
 
       proc1.medianFilter();    // 3x3 median filter
-      ImageProcessor proc2 = proc1.duplicate();
+      return medianEdges(proc1, proc1.duplicate());
+   }
+
+   // proc1 is the median filtered image, proc2 a copy of it
+   private static double medianEdges(ImageProcessor proc1, ImageProcessor proc2) {
+      final int h = proc1.getHeight();
+      final int w = proc1.getWidth();
+      final int[] ken1 = {2, 1, 0, 1, 0, -1, 0, -1, -2};
+      final int[] ken2 = {0, 1, 2, -1, 0, 1, -2, -1, 0};
       proc1.convolve3x3(ken1);
       proc2.convolve3x3(ken2);
       double sum = 0.0;
-      for (int i = 0; i < w; i++) {
-         for (int j = 0; j < h; j++) {
-            sum += Math.sqrt(Math.pow(proc1.getPixel(i, j), 2) + Math.pow(proc2.getPixel(i, j), 2));
+      for (int j = 0; j < h; j++) {
+         for (int i = 0; i < w; i++) {
+            double g1 = proc1.get(i, j);
+            double g2 = proc2.get(i, j);
+            sum += Math.sqrt(g1 * g1 + g2 * g2);
          }
       }
       return sum;
@@ -372,7 +420,21 @@ public class ImgSharpnessAnalysis {
       // gets power spectrum (FFT) without scaling result
       FHTNoscaling myFHT = new FHTNoscaling(proc);
       myFHT.transform();
-      ImageProcessor ps = myFHT.getpowerspectrumNoscaling();
+      return bandpassMean(myFHT.getpowerspectrumNoscaling(), fftLowerCutoff, fftUpperCutoff);
+   }
+
+   // Same as computeFFTBandpass, reusing the FHT (and its power spectrum) of this instance
+   private double fftBandpass(ImageProcessor proc) {
+      if (fht_ == null || !fht_.load(proc)) {
+         fht_ = new FHTNoscaling(proc);
+      }
+      fht_.transform();
+      return bandpassMean(fht_.powerSpectrumNoscaling(), fftLowerCutoff_, fftUpperCutoff_);
+   }
+
+   // ps will be modified
+   private static double bandpassMean(ImageProcessor ps, double fftLowerCutoff,
+                                      double fftUpperCutoff) {
       int midpoint = ps.getHeight() / 2;
       final int scaled_lower = (int) Math.round(fftLowerCutoff / 100 * midpoint);
       final int start_lower = Math.round(midpoint - scaled_lower);
@@ -0,0 +1,203 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:           SharpnessScorer.java
+//PROJECT:        Micro-Manager
+//SUBSYSTEM:      ImageProcessing library
+//-----------------------------------------------------------------------------
+//
+//LICENSE:        This file is distributed under the BSD license.
+//                License text is included with the source distribution.
+//
+//                This file is distributed in the hope that it will be useful,
+//                but WITHOUT ANY WARRANTY; without even the implied warranty
+//                of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//                IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//                CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//                INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.imageprocessing;
+
+import ij.process.ImageProcessor;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Scores the sharpness of images on several threads.
+ *
+ * <p>Every thread has its own {@link ImgSharpnessAnalysis}, so that scratch buffers are
+ * reused from one image to the next. Images are scored without being modified, so
+ * ImageProcessors that share their pixels with Micro-Manager Images can be passed in.
+ *
+ * <p>Use {@link #submit} to score images as they arrive (e.g. during acquisition), or
+ * {@link #scoreStack} to stream a stack through the scorer, optionally stopping once the
+ * focus peak has clearly been passed. Call {@link #shutdown} when done.
+ */
+public class SharpnessScorer {
+
+   /**
+    * Source of the slices of a stack.
+    */
+   public interface SliceSource {
+      /**
+       * Returns a slice of the stack.
+       *
+       * @param index Index of the slice, starting at 0.
+       * @return The slice, or null when this slice does not exist (was skipped).
+       * @throws IOException when reading the slice fails.
+       */
+      ImageProcessor getSlice(int index) throws IOException;
+   }
+
+   private final ImgSharpnessAnalysis.Method method_;
+   private final double fftLowerCutoff_;
+   private final double fftUpperCutoff_;
+   private final int numThreads_;
+   private final ExecutorService executor_;
+   private final ThreadLocal<ImgSharpnessAnalysis> analysis_;
+
+   /**
+    * Creates a scorer.
+    *
+    * @param settings Method (and FFT cutoffs) to use for scoring.
+    * @param numThreads Number of threads to use, at least 1.
+    */
+   public SharpnessScorer(ImgSharpnessAnalysis settings, int numThreads) {
+      method_ = settings.getComputationMethod();
+      fftLowerCutoff_ = settings.getFFTLowerCutoff();
+      fftUpperCutoff_ = settings.getFFTUpperCutoff();
+      numThreads_ = Math.max(1, numThreads);
+      executor_ = Executors.newFixedThreadPool(numThreads_,
+            ThreadFactoryFactory.createThreadFactory("Sharpness scorer"));
+      analysis_ = ThreadLocal.withInitial(() -> {
+         ImgSharpnessAnalysis analysis = new ImgSharpnessAnalysis();
+         analysis.setComputationMethod(method_);
+         analysis.setFFTCutoff(fftLowerCutoff_, fftUpperCutoff_);
+         analysis.allowInPlaceModification(false);
+         return analysis;
+      });
+   }
+
+   /**
+    * Creates a scorer using one thread per processor.
+    *
+    * @param settings Method (and FFT cutoffs) to use for scoring.
+    */
+   public SharpnessScorer(ImgSharpnessAnalysis settings) {
+      this(settings, Runtime.getRuntime().availableProcessors());
+   }
+
+   /**
+    * Queues an image for scoring.
+    *
+    * @param proc Image to score, will not be modified.
+    * @return Future holding the score.
+    */
+   public Future<Double> submit(final ImageProcessor proc) {
+      return executor_.submit(() -> analysis_.get().compute(proc));
+   }
+
+   /**
+    * Scores the slices of a stack. Slices are requested from the source in order (on
+    * the calling thread) and scored in parallel, with only a few more slices in flight
+    * than there are threads.
+    *
+    * @param nrSlices Number of slices in the stack.
+    * @param source Provides the slices.
+    * @param slicesPastPeak When larger than 0, stop reading slices once this many
+    *                       consecutive slices after the best one scored clearly lower
+    *                       (see {@link #isPastPeak}). 0 scores all slices.
+    * @return Scores by slice index. Skipped (null) slices, and slices after the stop,
+    *         are absent.
+    * @throws IOException when reading a slice fails, or when interrupted.
+    */
+   public SortedMap<Integer, Double> scoreStack(int nrSlices, SliceSource source,
+                                                int slicesPastPeak) throws IOException {
+      SortedMap<Integer, Double> scores = new TreeMap<>();
+      ArrayDeque<Map.Entry<Integer, Future<Double>>> inFlight = new ArrayDeque<>();
+      int next = 0;
+      try {
+         while (next < nrSlices || !inFlight.isEmpty()) {
+            while (next < nrSlices && inFlight.size() < 2 * numThreads_) {
+               ImageProcessor slice = source.getSlice(next);
+               if (slice != null) {
+                  inFlight.addLast(new AbstractMap.SimpleImmutableEntry<>(
+                        next, submit(slice)));
+               }
+               next++;
+            }
+            Map.Entry<Integer, Future<Double>> oldest = inFlight.pollFirst();
+            if (oldest == null) {
+               continue;
+            }
+            scores.put(oldest.getKey(), oldest.getValue().get());
+            if (slicesPastPeak > 0 && isPastPeak(scores, slicesPastPeak)) {
+               break;
+            }
+         }
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while scoring sharpness", ie);
+      } catch (ExecutionException ee) {
+         if (ee.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) ee.getCause();
+         }
+         throw new IOException(ee.getCause());
+      } finally {
+         for (Map.Entry<Integer, Future<Double>> entry : inFlight) {
+            entry.getValue().cancel(false);
+         }
+      }
+      return scores;
+   }
+
+   /**
+    * Whether the focus peak has clearly been passed: the last slicesPastPeak scores
+    * all come after the best score, and all fell by more than half of the range of
+    * scores seen so far.
+    *
+    * @param scores Scores by slice index, contiguous from the start of the stack.
+    * @param slicesPastPeak Number of slices that need to have fallen.
+    * @return True if it is safe to stop scoring.
+    */
+   public static boolean isPastPeak(SortedMap<Integer, Double> scores, int slicesPastPeak) {
+      if (scores.size() <= slicesPastPeak) {
+         return false;
+      }
+      double max = Double.NEGATIVE_INFINITY;
+      double min = Double.POSITIVE_INFINITY;
+      int maxIndex = -1;
+      for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+         if (entry.getValue() > max) {
+            max = entry.getValue();
+            maxIndex = entry.getKey();
+         }
+         min = Math.min(min, entry.getValue());
+      }
+      if (max <= min) {
+         return false;
+      }
+      double threshold = max - 0.5 * (max - min);
+      int counted = 0;
+      for (Map.Entry<Integer, Double> entry
+            : scores.tailMap(maxIndex + 1).entrySet()) {
+         counted = entry.getValue() < threshold ? counted + 1 : 0;
+      }
+      return counted >= slicesPastPeak;
+   }
+
+   /**
+    * Stops the scoring threads. Scores that were already submitted are still computed.
+    */
+   public void shutdown() {
+      executor_.shutdown();
+   }
+}
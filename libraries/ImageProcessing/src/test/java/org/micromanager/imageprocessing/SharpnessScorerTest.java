@@ -0,0 +1,160 @@
+package org.micromanager.imageprocessing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.junit.Test;
+
+public class SharpnessScorerTest {
+   private static final int WIDTH = 64;
+   private static final int HEIGHT = 48;
+
+   // Scores of the images below, computed by ImgSharpnessAnalysis before it
+   // reused scratch buffers, in the order of ImgSharpnessAnalysis.Method
+   private static final double[] SHORT_SCORES = {1.6961666304221874,
+         0.6228903752832692, 820.2877604166666, 318.2654329491697,
+         3.6091572602983266, 3.081827524E9, 2.1384267E7, 5.447781520944824E8,
+         2439340.739597326, 3.891631145E9, 20.72463768115942};
+   private static final double[] BYTE_SCORES = {1.7547490250345956,
+         0.6422819207504145, 46.576171875, 19.213884940024624,
+         3.43287765057799, 1.1017997E7, 52086.0, 1812902.485534668,
+         117266.31094449801, 1.4073489E7, 15.826086956521738};
+
+   // A textured background with a bright spot
+   private static ImageProcessor testImage(boolean shorts) {
+      if (shorts) {
+         short[] pixels = new short[WIDTH * HEIGHT];
+         for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+               double dx = x - 30;
+               double dy = y - 20;
+               pixels[y * WIDTH + x] = (short) (200
+                     + (x * 37 + y * 101 + (x * y) % 17 * 50) % 1000
+                     + (int) (3000 * Math.exp(-(dx * dx + dy * dy) / 40.0)));
+            }
+         }
+         return new ShortProcessor(WIDTH, HEIGHT, pixels, null);
+      }
+      byte[] pixels = new byte[WIDTH * HEIGHT];
+      for (int y = 0; y < HEIGHT; y++) {
+         for (int x = 0; x < WIDTH; x++) {
+            double dx = x - 30;
+            double dy = y - 20;
+            pixels[y * WIDTH + x] = (byte) (10
+                  + (x * 13 + y * 7 + (x * y) % 11 * 5) % 60
+                  + (int) (180 * Math.exp(-(dx * dx + dy * dy) / 40.0)));
+         }
+      }
+      return new ByteProcessor(WIDTH, HEIGHT, pixels);
+   }
+
+   private static ImageProcessor uniformImage(int value) {
+      short[] pixels = new short[WIDTH * HEIGHT];
+      Arrays.fill(pixels, (short) value);
+      return new ShortProcessor(WIDTH, HEIGHT, pixels, null);
+   }
+
+   private static void assertScore(String message, double expected, double actual) {
+      assertEquals(message, expected, actual, 1e-12 * Math.abs(expected));
+   }
+
+   @Test
+   public void testScoresMatchPreviousImplementation() {
+      ImageProcessor shorts = testImage(true);
+      ImageProcessor bytes = testImage(false);
+      short[] shortPixels = ((short[]) shorts.getPixels()).clone();
+      byte[] bytePixels = ((byte[]) bytes.getPixels()).clone();
+      for (ImgSharpnessAnalysis.Method method : ImgSharpnessAnalysis.Method.values()) {
+         // The same instance, so that scratch buffers are reused, also when
+         // the image type changes
+         ImgSharpnessAnalysis analysis = new ImgSharpnessAnalysis();
+         analysis.setComputationMethod(method);
+         int i = method.ordinal();
+         assertScore(method + ", 16 bit", SHORT_SCORES[i], analysis.compute(shorts));
+         assertScore(method + ", 8 bit", BYTE_SCORES[i], analysis.compute(bytes));
+         assertScore(method + ", 16 bit again", SHORT_SCORES[i], analysis.compute(shorts));
+         assertArrayEquals(method.toString(), shortPixels, (short[]) shorts.getPixels());
+         assertArrayEquals(method.toString(), bytePixels, (byte[]) bytes.getPixels());
+      }
+   }
+
+   @Test
+   public void testInPlaceModificationGivesSameScores() {
+      for (ImgSharpnessAnalysis.Method method : ImgSharpnessAnalysis.Method.values()) {
+         ImgSharpnessAnalysis analysis = new ImgSharpnessAnalysis();
+         analysis.setComputationMethod(method);
+         analysis.allowInPlaceModification(true);
+         assertScore(method.toString(), SHORT_SCORES[method.ordinal()],
+               analysis.compute(testImage(true)));
+      }
+   }
+
+   @Test
+   public void testScorerMatchesAnalysis() throws Exception {
+      ImageProcessor shorts = testImage(true);
+      ImageProcessor bytes = testImage(false);
+      short[] shortPixels = ((short[]) shorts.getPixels()).clone();
+      for (ImgSharpnessAnalysis.Method method : ImgSharpnessAnalysis.Method.values()) {
+         ImgSharpnessAnalysis settings = new ImgSharpnessAnalysis();
+         settings.setComputationMethod(method);
+         SharpnessScorer scorer = new SharpnessScorer(settings, 3);
+         try {
+            int i = method.ordinal();
+            for (int n = 0; n < 4; ++n) {
+               assertScore(method.toString(), SHORT_SCORES[i], scorer.submit(shorts).get());
+               assertScore(method.toString(), BYTE_SCORES[i], scorer.submit(bytes).get());
+            }
+         } finally {
+            scorer.shutdown();
+         }
+         assertArrayEquals(method.toString(), shortPixels, (short[]) shorts.getPixels());
+      }
+   }
+
+   @Test
+   public void testScoreStackStopsPastPeak() throws Exception {
+      // With the Mean method, the score of a slice is its pixel value
+      final int[] values = {1, 2, 4, 10, 4, 2, 1, 1, 1, 1, 1, 1};
+      ImgSharpnessAnalysis settings = new ImgSharpnessAnalysis();
+      settings.setComputationMethod(ImgSharpnessAnalysis.Method.Mean);
+      SharpnessScorer scorer = new SharpnessScorer(settings, 2);
+      try {
+         SortedMap<Integer, Double> all = scorer.scoreStack(values.length,
+               index -> index == 1 ? null : uniformImage(values[index]), 0);
+         assertEquals(values.length - 1, all.size());
+         assertFalse(all.containsKey(1));
+         assertEquals(10.0, all.get(3), 0.0);
+
+         SortedMap<Integer, Double> stopped = scorer.scoreStack(values.length,
+               index -> uniformImage(values[index]), 2);
+         assertEquals(10.0, stopped.get(3), 0.0);
+         assertTrue(stopped.containsKey(5));
+         assertTrue(stopped.size() < values.length);
+      } finally {
+         scorer.shutdown();
+      }
+   }
+
+   @Test
+   public void testIsPastPeak() {
+      SortedMap<Integer, Double> scores = new TreeMap<>();
+      double[] values = {1.0, 5.0, 10.0, 9.0, 2.0};
+      for (int i = 0; i < values.length; ++i) {
+         scores.put(i, values[i]);
+      }
+      // 9 is not clearly lower than the peak
+      assertFalse(SharpnessScorer.isPastPeak(scores, 2));
+      assertTrue(SharpnessScorer.isPastPeak(scores, 1));
+      scores.put(5, 1.5);
+      assertTrue(SharpnessScorer.isPastPeak(scores, 2));
+      assertFalse(SharpnessScorer.isPastPeak(scores, 3));
+   }
+}
@@ -26,8 +26,10 @@
 
 package org.micromanager;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -58,6 +60,9 @@ public final class MultiStagePosition {
    private int gridRow_ = 0;
    private int gridCol_ = 0;
    private final Map<String, String> properties_;
+   // Position lists that contain this position (once for every time it is
+   // in the list); they are told when the label changes
+   private List<WeakReference<PositionList>> lists_ = null;
 
    /**
     * Default constructor.
@@ -220,7 +225,45 @@ public final class MultiStagePosition {
     * @param lab new MultiStagePosition Label
     */
    public void setLabel(String lab) {
+      String oldLabel = label_;
       label_ = lab;
+      if (lists_ != null) {
+         for (WeakReference<PositionList> list : new ArrayList<>(lists_)) {
+            PositionList positionList = list.get();
+            if (positionList != null) {
+               positionList.labelChanged(oldLabel, lab);
+            }
+         }
+      }
+   }
+
+   /**
+    * Called by a PositionList when this position is added to it.
+    */
+   void addedTo(PositionList list) {
+      if (lists_ == null) {
+         lists_ = new ArrayList<>(1);
+      }
+      lists_.removeIf(l -> l.get() == null);
+      lists_.add(new WeakReference<>(list));
+   }
+
+   /**
+    * Called by a PositionList when this position is removed from it.
+    */
+   void removedFrom(PositionList list) {
+      if (lists_ == null) {
+         return;
+      }
+      for (Iterator<WeakReference<PositionList>> it = lists_.iterator(); it.hasNext(); ) {
+         if (it.next().get() == list) {
+            it.remove();
+            break;
+         }
+      }
+      if (lists_.isEmpty()) {
+         lists_ = null;
+      }
    }
 
    /**
@@ -29,8 +29,12 @@ import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -39,13 +43,26 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import org.micromanager.data.internal.PropertyKey;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
+import org.micromanager.internal.propertymap.PropertyMapJSONSerializer;
 
 /**
  * Navigation list of positions for the Stages.
  * Used for multi site acquisition support.
+ *
+ * <p>The labels of the positions are indexed, so that checking whether a
+ * label is unique, generating a label, and looking up a position by label do
+ * not depend on the length of the list. Positions tell the lists that contain
+ * them when their label changes. To add or replace many positions, use
+ * {@link #addPositions} or {@link #setPositions}, which notify the listeners
+ * once.</p>
  */
 public class PositionList implements Iterable<MultiStagePosition> {
    private final ArrayList<MultiStagePosition> positions_;
+   // Number of positions with each label
+   private final HashMap<String, Integer> labelCounts_ = new HashMap<>();
+   // Index of the first position with each label; null when positions were
+   // inserted, removed or renamed since it was built
+   private HashMap<String, Integer> firstIndex_ = new HashMap<>();
 
    private final HashSet<ChangeListener> listeners_ = new HashSet<>();
 
@@ -63,13 +80,60 @@ public class PositionList implements Iterable<MultiStagePosition> {
     * @return new instance of a PositionList with identical positions to the input
     */
    public static PositionList newInstance(PositionList aPl) {
-      PositionList pl = new PositionList();
+      List<MultiStagePosition> copies = new ArrayList<>(aPl.positions_.size());
       for (MultiStagePosition multiStagePosition : aPl.positions_) {
-         pl.addPosition(MultiStagePosition.newInstance(multiStagePosition));
+         copies.add(MultiStagePosition.newInstance(multiStagePosition));
       }
+      PositionList pl = new PositionList();
+      pl.addPositions(copies);
       return pl;
    }
 
+   private void index(MultiStagePosition pos) {
+      labelCounts_.merge(pos.getLabel(), 1, Integer::sum);
+      pos.addedTo(this);
+   }
+
+   private void unindex(MultiStagePosition pos) {
+      labelCounts_.computeIfPresent(pos.getLabel(), (label, count) ->
+            count > 1 ? count - 1 : null);
+      pos.removedFrom(this);
+   }
+
+   private void unindexAll() {
+      for (MultiStagePosition pos : positions_) {
+         pos.removedFrom(this);
+      }
+      labelCounts_.clear();
+      firstIndex_ = new HashMap<>();
+   }
+
+   /**
+    * Appends a position, giving it a unique label if needed, without
+    * notifying the listeners.
+    */
+   private void append(MultiStagePosition pos) {
+      String label = pos.getLabel();
+      if (!isLabelUnique(label)) {
+         pos.setLabel(generateLabel(label));
+      }
+      positions_.add(pos);
+      index(pos);
+      if (firstIndex_ != null) {
+         firstIndex_.putIfAbsent(pos.getLabel(), positions_.size() - 1);
+      }
+   }
+
+   /**
+    * Called by a position in this list when its label changed.
+    */
+   void labelChanged(String oldLabel, String newLabel) {
+      labelCounts_.computeIfPresent(oldLabel, (label, count) ->
+            count > 1 ? count - 1 : null);
+      labelCounts_.merge(newLabel, 1, Integer::sum);
+      firstIndex_ = null;
+   }
+
    /**
     * Adds a changeListener to this PositionList.
     *
@@ -132,12 +196,13 @@ public class PositionList implements Iterable<MultiStagePosition> {
     * @return index, or -1 when the name was not found
     */
    public int getPositionIndex(String posLabel) {
-      for (int i = 0; i < positions_.size(); i++) {
-         if (positions_.get(i).getLabel().compareTo(posLabel) == 0) {
-            return i;
+      if (firstIndex_ == null) {
+         firstIndex_ = new HashMap<>(2 * positions_.size());
+         for (int i = 0; i < positions_.size(); i++) {
+            firstIndex_.putIfAbsent(positions_.get(i).getLabel(), i);
          }
       }
-      return -1;
+      return firstIndex_.getOrDefault(posLabel, -1);
    }
 
    /**
@@ -146,11 +211,22 @@ public class PositionList implements Iterable<MultiStagePosition> {
     * @param pos - multi-stage position
     */
    public void addPosition(MultiStagePosition pos) {
-      String label = pos.getLabel();
-      if (!isLabelUnique(label)) {
-         pos.setLabel(generateLabel(label));
+      append(pos);
+      notifyChangeListeners();
+   }
+
+   /**
+    * Adds positions to the end of the list, and notifies the listeners once.
+    * Like {@link #addPosition(MultiStagePosition)}, positions whose label is
+    * already in use get a new label.
+    *
+    * @param positions multi-stage positions, in the order they should be added
+    */
+   public void addPositions(Collection<MultiStagePosition> positions) {
+      positions_.ensureCapacity(positions_.size() + positions.size());
+      for (MultiStagePosition pos : positions) {
+         append(pos);
       }
-      positions_.add(pos);
       notifyChangeListeners();
    }
 
@@ -166,6 +242,8 @@ public class PositionList implements Iterable<MultiStagePosition> {
          pos.setLabel(generateLabel(label));
       }
       positions_.add(in0, pos);
+      index(pos);
+      firstIndex_ = null;
       notifyChangeListeners();
    }
 
@@ -177,7 +255,9 @@ public class PositionList implements Iterable<MultiStagePosition> {
     */
    public void replacePosition(int index, MultiStagePosition pos) {
       if (index >= 0 && index < positions_.size()) {
-         positions_.set(index, pos);
+         unindex(positions_.set(index, pos));
+         index(pos);
+         firstIndex_ = null;
          notifyChangeListeners();
       }
    }
@@ -195,6 +275,7 @@ public class PositionList implements Iterable<MultiStagePosition> {
     * Empties the list.
     */
    public void clearAllPositions() {
+      unindexAll();
       positions_.clear();
       notifyChangeListeners();
    }
@@ -206,22 +287,33 @@ public class PositionList implements Iterable<MultiStagePosition> {
     */
    public void removePosition(int idx) {
       if (idx >= 0 && idx < positions_.size()) {
-         positions_.remove(idx);
+         unindex(positions_.remove(idx));
+         firstIndex_ = null;
       }
       notifyChangeListeners();
    }
 
    /**
     * Initialize the entire array by passing an array of multi-stage positions.
+    * The labels are used as they are, and the listeners are notified once.
     *
     * @param posArray - array of multi-stage positions
     */
    public void setPositions(MultiStagePosition[] posArray) {
-      positions_.clear();
-      positions_.addAll(Arrays.asList(posArray));
+      replaceAll(Arrays.asList(posArray));
       notifyChangeListeners();
    }
 
+   private void replaceAll(List<MultiStagePosition> positions) {
+      unindexAll();
+      positions_.clear();
+      positions_.addAll(positions);
+      for (MultiStagePosition pos : positions_) {
+         index(pos);
+      }
+      firstIndex_ = null;
+   }
+
    /**
     * Returns an array of positions contained in the list.
     *
@@ -274,26 +366,29 @@ public class PositionList implements Iterable<MultiStagePosition> {
     * @throws IOException appears to be never thrown. TODO: Remove?
     */
    public void replaceWithPropertyMap(PropertyMap map) throws IOException {
-      positions_.clear();
-      if (!map.containsPropertyMapList(PropertyKey.STAGE_POSITIONS.key())) {
-         notifyChangeListeners();
-         return;
-      }
-      for (PropertyMap mspMap : map.getPropertyMapList(PropertyKey.STAGE_POSITIONS.key())) {
-         MultiStagePosition msp = MultiStagePosition.fromPropertyMap(mspMap);
-         if (mspMap.containsKey(PropertyKey.MULTI_STAGE_POSITION__PROPERTIES.key())) {
-            PropertyMap propertyMap =
-                  mspMap.getPropertyMap(PropertyKey.MULTI_STAGE_POSITION__PROPERTIES.key(), null);
-            for (String key : propertyMap.keySet()) {
-               String val = propertyMap.getString(key, "");
-               msp.setProperty(key, val);
-            }
+      List<MultiStagePosition> positions = new ArrayList<>();
+      if (map.containsPropertyMapList(PropertyKey.STAGE_POSITIONS.key())) {
+         for (PropertyMap mspMap : map.getPropertyMapList(PropertyKey.STAGE_POSITIONS.key())) {
+            positions.add(positionFromPropertyMap(mspMap));
          }
-         positions_.add(msp);
       }
+      replaceAll(positions);
       notifyChangeListeners();
    }
 
+   private static MultiStagePosition positionFromPropertyMap(PropertyMap mspMap) {
+      MultiStagePosition msp = MultiStagePosition.fromPropertyMap(mspMap);
+      if (mspMap.containsKey(PropertyKey.MULTI_STAGE_POSITION__PROPERTIES.key())) {
+         PropertyMap propertyMap =
+               mspMap.getPropertyMap(PropertyKey.MULTI_STAGE_POSITION__PROPERTIES.key(), null);
+         for (String key : propertyMap.keySet()) {
+            String val = propertyMap.getString(key, "");
+            msp.setProperty(key, val);
+         }
+      }
+      return msp;
+   }
+
    /**
     * Helper method to generate unique label when inserting a new position.
     * Not recommended for use - planned to become obsolete.
@@ -330,22 +425,36 @@ public class PositionList implements Iterable<MultiStagePosition> {
     * @return true if label does not exist
     */
    public boolean isLabelUnique(String label) {
-      for (MultiStagePosition position : positions_) {
-         if (position.getLabel().compareTo(label) == 0) {
-            return false;
-         }
-      }
-      return true;
+      return !labelCounts_.containsKey(label);
    }
 
    /**
     * Save list to a file.
     *
+    * <p>The positions are written one at a time, in the same format as
+    * {@link PropertyMap#saveJSON}. Like that method, the list is first
+    * written to a temporary file, and an existing file is kept as a backup
+    * (with "~" appended to its name).</p>
+    *
     * @param file destination; recommended suffix is ".json".
     * @throws IOException can happen while saving to disk
     */
    public void save(File file) throws IOException {
-      toPropertyMap().saveJSON(file, true, true);
+      File tempDir = Files.createTempDir();
+      File tempFile = new File(tempDir, "position_list.json");
+      try (Writer writer = Files.newWriter(tempFile, Charsets.UTF_8)) {
+         PropertyMapJSONSerializer.toJSON(writer, PropertyKey.STAGE_POSITIONS.key(),
+               () -> positions_.stream().map(MultiStagePosition::toPropertyMap).iterator());
+      }
+      if (file.exists()) {
+         File backup = new File(file.getParentFile(), file.getName() + "~");
+         backup.delete();
+         if (!file.renameTo(backup)) {
+            throw new IOException("Failed to create backup file: " + backup.getPath());
+         }
+      }
+      Files.move(tempFile, file);
+      tempDir.delete();
    }
 
    /**
@@ -365,6 +474,22 @@ public class PositionList implements Iterable<MultiStagePosition> {
     * @throws IOException can happen while saving to disk
     */
    public void load(File file) throws IOException {
+      // Files written by save() are read one position at a time
+      List<MultiStagePosition> positions = new ArrayList<>();
+      boolean isStreamed;
+      try (Reader reader = Files.newReader(file, Charsets.UTF_8)) {
+         isStreamed = PropertyMapJSONSerializer.fromJSON(reader,
+               PropertyKey.STAGE_POSITIONS.key(),
+               mspMap -> positions.add(positionFromPropertyMap(mspMap)));
+      } catch (IOException e) {
+         isStreamed = false;
+      }
+      if (isStreamed) {
+         replaceAll(positions);
+         notifyChangeListeners();
+         return;
+      }
+
       String text = Files.toString(file, Charsets.UTF_8);
       PropertyMap pmap;
       try {
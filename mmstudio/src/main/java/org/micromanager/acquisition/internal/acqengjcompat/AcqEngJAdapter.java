@@ -72,6 +72,7 @@ import org.micromanager.display.DisplayWindow;
 import org.micromanager.events.NewPositionListEvent;
 import org.micromanager.events.internal.InternalShutdownCommencingEvent;
 import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.positionlist.utils.PositionOrderOptimizer;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.AcqOrderMode;
 import org.micromanager.internal.utils.MMException;
@@ -583,6 +584,7 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
       Function<AcquisitionEvent, Iterator<AcquisitionEvent>> positions = null;
       if (acquisitionSettings.usePositionList()) {
          positions = MDAAcqEventModules.positions(posList_, null, core_);
+         reportPositionOrder(posList_);
          // TODO: is acq engine supposed to move multiple stages?
          // Yes: when moving to a new position, all stages in the MultiStagePosition instance
          // should be moved to the desired location
@@ -667,6 +669,35 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
       return null;
    }
 
+   /**
+    * Logs the predicted stage travel time of one pass through the position
+    * list, and tells the user when a different order would save a lot of it.
+    * The list itself is not changed.
+    *
+    * @param posList positions of the acquisition
+    */
+   private void reportPositionOrder(PositionList posList) {
+      if (posList == null || posList.getNumberOfPositions() < 3) {
+         return;
+      }
+      try {
+         PositionOrderOptimizer optimizer = PositionOrderOptimizer.fromProfile(studio_.profile());
+         // Do not hold up the start of the acquisition for long
+         optimizer.setTimeBudgetMs(200);
+         PositionOrderOptimizer.Result result = optimizer.optimize(posList);
+         studio_.logs().logMessage("Position list: " + result.getSummary());
+         if (result.getSavedSeconds() > 1.0
+               && result.getSavedSeconds() > 0.1 * result.getOriginalSeconds()) {
+            studio_.alerts().postAlert("Position order", AcqEngJAdapter.class,
+                  result.getSummary() + " per pass through the position list. "
+                  + "Use \"Optimize Order\" in the Stage Position List to reorder.");
+         }
+      } catch (RuntimeException e) {
+         // The prediction is only informative; never let it stop the acquisition
+         studio_.logs().logError(e, "Failed to predict stage travel time");
+      }
+   }
+
 
    private AcquisitionHook timeLapseHook(SequenceSettings sequenceSettings) {
       return new AcquisitionHook() {
@@ -273,11 +273,13 @@ public interface DataManager {
 
    /**
     * Generate a new Image with the provided pixel data, rules for interpreting
-    * that pixel data, coordinates, and metadata. Pixel data will be copied.
+    * that pixel data, coordinates, and metadata. Pixel data will be copied,
+    * unless the array was leased from the {@link #getPixelBufferPool()} pool.
     *
     * @param pixels        A byte[] or short[] array of unsigned pixel data. This array
     *                      will be copied, so changes in this array will not be propagated
-    *                      to the Image
+    *                      to the Image. Arrays leased from the pixel buffer pool are
+    *                      used without copying, and belong to the Image afterwards.
     * @param width         Width of the image, in pixels
     * @param height        Height of the image, in pixels
     * @param bytesPerPixel How many bytes are allocated to each pixel in the
@@ -606,4 +608,13 @@ public interface DataManager {
     * @return An implementation of the ImageJConverter interface.
     */
    ImageJConverter getImageJConverter();
+
+   /**
+    * Provide access to the pool of pixel arrays. Processors that create a
+    * new image for every image they receive can lease the arrays for their
+    * output from the pool, instead of allocating them.
+    *
+    * @return The application-wide PixelBufferPool.
+    */
+   PixelBufferPool getPixelBufferPool();
 }
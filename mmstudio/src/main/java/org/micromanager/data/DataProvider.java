@@ -156,5 +156,47 @@ public interface DataProvider extends Closeable {
 
    void registerForEvents(Object obj);
 
+   /**
+    * How {@link DataProviderHasNewImageEvent}s are delivered to a subscriber.
+    */
+   enum NewImageDelivery {
+      /**
+       * Every new image event is delivered. Events wait for as long as the
+       * subscriber needs, so a subscriber that falls behind holds on to
+       * the images it has not seen yet. Only a subscriber that is thousands
+       * of images behind makes whoever is adding images wait. This is the
+       * default.
+       */
+      EVERY_IMAGE,
+      /**
+       * Every new image event is delivered, but whoever is adding images to
+       * the DataProvider waits while the subscriber is too far behind. This
+       * bounds memory use at the cost of slowing down acquisition, so it
+       * should only be used by code that genuinely needs to see each image
+       * and would rather slow down acquisition than fall behind.
+       */
+      EVERY_IMAGE_BLOCKING,
+      /**
+       * Only the most recent new image event is delivered; events that are
+       * superseded while the subscriber is busy are dropped. This is the
+       * appropriate mode for displays and other user interface code. Other
+       * event types are always delivered.
+       */
+      LATEST_IMAGE
+   }
+
+   /**
+    * Register for events, declaring how new image events should be delivered.
+    *
+    * <p>Implementations that do not support delivery modes treat this the
+    * same as {@link #registerForEvents(Object)}.</p>
+    *
+    * @param obj      the subscriber
+    * @param delivery how new image events should be delivered to obj
+    */
+   default void registerForEvents(Object obj, NewImageDelivery delivery) {
+      registerForEvents(obj);
+   }
+
    void unregisterForEvents(Object obj);
 }
\ No newline at end of file
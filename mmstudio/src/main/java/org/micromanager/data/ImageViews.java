@@ -0,0 +1,86 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data;
+
+import org.micromanager.data.internal.DefaultImage;
+
+/**
+ * Static methods that create crops, mirrors and rotations of images without
+ * copying their pixels. The resulting Image shares the pixels of the Image
+ * it was made from, and has the same Coords and Metadata (use
+ * {@link Image#copyWith} to change those; this does not copy the pixels
+ * either).
+ *
+ * <p>The pixels of a view are only copied into an array of their own when
+ * the array is needed, i.e. when {@link Image#getRawPixels()} or one of its
+ * variants is called. Reading single pixels with {@link Image#getIntensityAt}
+ * and saving the view to disk work directly on the shared pixels. Views of
+ * views refer to the original pixels, so any combination of crops, mirrors
+ * and rotations costs at most one copy.
+ *
+ * <p>Note that a view keeps all pixels of the original image in memory
+ * until it has been copied, and that the pixels of Images must not be
+ * modified once they have been created.
+ */
+public final class ImageViews {
+   private ImageViews() {
+   }
+
+   /**
+    * Create a view of a rectangular region of an image.
+    *
+    * @param image  Image to crop
+    * @param x      Left edge of the region
+    * @param y      Top edge of the region
+    * @param width  Width of the region
+    * @param height Height of the region
+    * @return View of the region
+    * @throws IllegalArgumentException if the region does not fit in the image
+    */
+   public static Image crop(Image image, int x, int y, int width, int height) {
+      return toDefault(image).crop(x, y, width, height);
+   }
+
+   /**
+    * Create a view of an image mirrored left to right.
+    *
+    * @param image Image to mirror
+    * @return Mirrored view
+    */
+   public static Image mirror(Image image) {
+      return toDefault(image).mirror();
+   }
+
+   /**
+    * Create a view of an image rotated clockwise.
+    *
+    * @param image   Image to rotate
+    * @param degrees 0, 90, 180 or 270
+    * @return Rotated view
+    * @throws IllegalArgumentException for other rotations
+    */
+   public static Image rotate(Image image, int degrees) {
+      return toDefault(image).rotate(degrees);
+   }
+
+   private static DefaultImage toDefault(Image image) {
+      if (image instanceof DefaultImage) {
+         return (DefaultImage) image;
+      }
+      return new DefaultImage(image, image.getCoords(), image.getMetadata());
+   }
+}
@@ -0,0 +1,70 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data;
+
+/**
+ * Pool of pixel arrays, to avoid allocating a new array for every image that
+ * a Processor (or other code) creates. Accessible via
+ * {@link DataManager#getPixelBufferPool()}.
+ *
+ * <p>Lease an array, fill it, and hand it to
+ * {@link DataManager#createImage} or {@link DataManager#wrapImage}. Neither
+ * copies a leased array: the Image takes ownership of it, and the caller
+ * must not use the array afterwards. Once the Image, and every copy of it,
+ * is no longer used (e.g. because it was released from RAM storage or has
+ * been written to disk), the array returns to the pool. Arrays that have
+ * been handed out by the Image (e.g. through {@link Image#getRawPixels()})
+ * never return, as it is not known who else still uses them.
+ *
+ * <p>Arrays returned by the pool have the exact length needed for the
+ * requested image, and contain arbitrary values.
+ */
+public interface PixelBufferPool {
+   /**
+    * Get an array for the pixels of an image.
+    *
+    * @param width         Width of the image, in pixels
+    * @param height        Height of the image, in pixels
+    * @param bytesPerPixel 1 or 2 for grayscale, 4 or 8 for RGB images
+    * @param numComponents 1 for grayscale, 3 for RGB images
+    * @return byte[] or short[], depending on the number of bytes per component
+    */
+   Object lease(int width, int height, int bytesPerPixel, int numComponents);
+
+   /**
+    * Return a leased array that was not used to create an Image.
+    *
+    * @param pixels Array obtained from {@link #lease}. Other arrays are
+    *               ignored.
+    */
+   void release(Object pixels);
+
+   /**
+    * @return Number of leases that were served with a recycled array.
+    */
+   long getHitCount();
+
+   /**
+    * @return Number of leases for which a new array was allocated.
+    */
+   long getMissCount();
+
+   /**
+    * @return Total size, in bytes, of the arrays waiting in the pool.
+    */
+   long getBytesRetained();
+}
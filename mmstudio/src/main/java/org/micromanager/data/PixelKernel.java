@@ -0,0 +1,77 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data;
+
+/**
+ * The work a {@link PixelKernelProcessor} does to produce one output image,
+ * described pixel by pixel so that the Pipeline can combine the kernels of
+ * several Processors into a single pass over the pixels.
+ *
+ * <p>Every output pixel is computed by first looking up the input pixel given
+ * by {@link #getSourceIndex} (a geometric remap, such as a mirror, rotation,
+ * or crop) and then transforming its value with {@link #apply} (a pointwise
+ * operation, such as background subtraction). The default implementations
+ * do neither, so kernels only need to override what they actually do.
+ *
+ * <p>Kernels work on single-component images with 1 or 2 bytes per pixel, and
+ * do not change the number of bytes per pixel. Pixel indices are
+ * {@code x + y * width}. Both methods may be called from several threads at
+ * once and in any order, so they must not modify state.
+ */
+public interface PixelKernel {
+   /**
+    * @return Width of the output image.
+    */
+   int getWidth();
+
+   /**
+    * @return Height of the output image.
+    */
+   int getHeight();
+
+   /**
+    * @return Coords of the output image.
+    */
+   Coords getCoords();
+
+   /**
+    * @return Metadata of the output image.
+    */
+   Metadata getMetadata();
+
+   /**
+    * Find the input pixel an output pixel is taken from.
+    *
+    * @param index Index of the pixel in the output image.
+    * @return Index of the pixel in the input image.
+    */
+   default int getSourceIndex(int index) {
+      return index;
+   }
+
+   /**
+    * Compute the value of an output pixel.
+    *
+    * @param value Unsigned value of the input pixel found by getSourceIndex.
+    * @param index Index of the pixel in the output image.
+    * @return New unsigned value, which must fit in the bytes per pixel of the
+    *         image.
+    */
+   default int apply(int value, int index) {
+      return value;
+   }
+}
@@ -0,0 +1,52 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data;
+
+import java.util.List;
+
+/**
+ * A Processor that can describe its work on an image as {@link PixelKernel}s.
+ * When two or more of these Processors follow each other in a Pipeline, the
+ * Pipeline asks each of them for its kernels and computes the final images
+ * in one pass, without creating the intermediate images. Processors that
+ * implement this interface must still implement processImage(), which is
+ * used when the Processor is not next to another PixelKernelProcessor, and
+ * for images for which createPixelKernels() returns null.
+ *
+ * <p>The result of running the kernels must be the same as the result of
+ * processImage(). Note that, when fused, processImage() is not called for the
+ * image, and later Processors may be asked for their kernels before the
+ * output of this Processor exists.
+ */
+public interface PixelKernelProcessor extends Processor {
+   /**
+    * Describe the processing of an image as kernels. Only called for
+    * single-component images with 1 or 2 bytes per pixel.
+    *
+    * @param coords        Coords of the input image
+    * @param metadata      Metadata of the input image
+    * @param width         Width of the input image
+    * @param height        Height of the input image
+    * @param bytesPerPixel Bytes per pixel of the input image
+    * @return One kernel per image that processImage() would output (an
+    *         empty list if it would output nothing), or null if this image
+    *         has to be handed to processImage(), e.g. because it would be
+    *         passed along unmodified.
+    */
+   List<PixelKernel> createPixelKernels(Coords coords, Metadata metadata,
+                                        int width, int height, int bytesPerPixel);
+}
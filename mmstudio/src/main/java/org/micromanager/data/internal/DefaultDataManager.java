@@ -39,6 +39,7 @@ import org.micromanager.data.Image;
 import org.micromanager.data.ImageJConverter;
 import org.micromanager.data.Metadata;
 import org.micromanager.data.Pipeline;
+import org.micromanager.data.PixelBufferPool;
 import org.micromanager.data.Processor;
 import org.micromanager.data.ProcessorConfigurator;
 import org.micromanager.data.ProcessorFactory;
@@ -303,7 +304,10 @@ public final class DefaultDataManager implements DataManager {
    public Image createImage(Object pixels, int width, int height, int bytesPerPixel,
                             int numComponents, Coords coords, Metadata metadata) {
       Object pixelClone;
-      if (pixels instanceof byte[]) {
+      if (DefaultPixelBufferPool.getInstance().isLeased(pixels)) {
+         // Leased arrays are handed over to the image
+         pixelClone = pixels;
+      } else if (pixels instanceof byte[]) {
          pixelClone = ((byte[]) pixels).clone();
       } else if (pixels instanceof short[]) {
          pixelClone = ((short[]) pixels).clone();
@@ -469,4 +473,9 @@ public final class DefaultDataManager implements DataManager {
    public ImageJConverter getImageJConverter() {
       return ij();
    }
+
+   @Override
+   public PixelBufferPool getPixelBufferPool() {
+      return DefaultPixelBufferPool.getInstance();
+   }
 }
\ No newline at end of file
@@ -24,16 +24,19 @@ import java.awt.Component;
 import java.beans.PropertyChangeEvent;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 import javax.swing.JFileChooser;
 import javax.swing.ProgressMonitor;
 import javax.swing.filechooser.FileFilter;
 import org.micromanager.Studio;
 import org.micromanager.data.Annotation;
 import org.micromanager.data.Coords;
+import org.micromanager.data.DataProvider;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.DatastoreRewriteException;
@@ -89,6 +92,9 @@ public class DefaultDatastore implements Datastore {
    protected String name_ = "Untitled";
    protected Map<String, Annotation> annotations_ = new HashMap<>();
    protected PrioritizedEventBus bus_;
+   // Subscribers that did not ask for a priority each get their own mailbox,
+   // so that slow (UI) subscribers do not hold up storage or each other.
+   private final List<SubscriberMailbox> mailboxes_ = new CopyOnWriteArrayList<>();
    protected boolean isFrozen_ = false;
    protected final Studio studio_;
 
@@ -140,7 +146,7 @@ public class DefaultDatastore implements Datastore {
    @Override
    public void setName(String name) {
       name_ = name;
-      bus_.post(new DefaultHasNewNameEvent(name_));
+      postEvent(new DefaultHasNewNameEvent(name_));
    }
 
    @Override
@@ -154,24 +160,86 @@ public class DefaultDatastore implements Datastore {
    }
 
    /**
-    * Registers objects at default priority levels.
+    * Registers objects to receive every event, in their own mailbox. Adding
+    * images never waits for these objects.
     *
     * @param obj object to be registered.
     */
    @Override
    public void registerForEvents(Object obj) {
-      registerForEvents(obj, 100);
+      registerForEvents(obj, DataProvider.NewImageDelivery.EVERY_IMAGE);
    }
 
+   /**
+    * Registers objects on the shared, ordered event bus. Objects with lower
+    * priority are notified first. This is meant for Storage implementations,
+    * which need to see events before any other subscriber.
+    *
+    * @param obj      object to be registered.
+    * @param priority lower numbers are notified first
+    */
    public void registerForEvents(Object obj, int priority) {
       bus_.register(obj, priority);
    }
 
+   /**
+    * Registers objects to receive events through their own mailbox, drained
+    * on a separate thread.
+    *
+    * @param obj      object to be registered.
+    * @param delivery whether every new image event, or only the latest one,
+    *                 should be delivered.
+    */
+   @Override
+   public void registerForEvents(Object obj, DataProvider.NewImageDelivery delivery) {
+      mailboxes_.add(new SubscriberMailbox(obj, delivery,
+            SubscriberMailbox.DEFAULT_CAPACITY));
+   }
+
    @Override
    public void unregisterForEvents(Object obj) {
+      for (SubscriberMailbox mailbox : mailboxes_) {
+         if (mailbox.getSubscriber() == obj) {
+            mailbox.close();
+            mailboxes_.remove(mailbox);
+         }
+      }
       bus_.unregister(obj);
    }
 
+   /**
+    * Posts the event to storage (and other prioritized subscribers), and to
+    * the mailbox of each other subscriber.
+    *
+    * @param event event to post
+    */
+   protected void postEvent(Object event) {
+      bus_.post(event);
+      for (SubscriberMailbox mailbox : mailboxes_) {
+         try {
+            mailbox.offer(event);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+         }
+      }
+   }
+
+   /**
+    * Returns event delivery statistics for each subscriber that registered
+    * without a priority, including time spent handling events and the number
+    * of new image events that were dropped.
+    *
+    * @return statistics, one entry per subscriber
+    */
+   public List<SubscriberMailbox.Statistics> getEventDeliveryStatistics() {
+      List<SubscriberMailbox.Statistics> ret = new ArrayList<>();
+      for (SubscriberMailbox mailbox : mailboxes_) {
+         ret.add(mailbox.getStatistics());
+      }
+      return ret;
+   }
+
    @Override
    public Image getImage(Coords coords) throws IOException {
       if (storage_ != null) {
@@ -251,8 +319,10 @@ public class DefaultDatastore implements Datastore {
       }
       // Note: the store may be very busy saving data, so consumers of this message
       // should use as few resources as possible.  Note that the bus is asynchronous,
-      // so we do not have to wait for processing to finish.
-      bus_.post(new DefaultNewImageEvent(image, this));
+      // and other subscribers have their own mailboxes, so we do not have to wait
+      // for processing to finish (except for EVERY_IMAGE_BLOCKING subscribers
+      // that are a full mailbox behind).
+      postEvent(new DefaultNewImageEvent(image, this));
    }
 
    @Override
@@ -313,7 +383,7 @@ public class DefaultDatastore implements Datastore {
          throw new DatastoreRewriteException();
       }
       haveSetSummary_ = true;
-      bus_.post(new DefaultNewSummaryMetadataEvent(metadata));
+      postEvent(new DefaultNewSummaryMetadataEvent(metadata));
    }
 
    @Override
@@ -386,7 +456,7 @@ public class DefaultDatastore implements Datastore {
          if (storage_ != null) {
             storage_.freeze();
          }
-         bus_.post(new DefaultDatastoreFrozenEvent());
+         postEvent(new DefaultDatastoreFrozenEvent());
       }
    }
 
@@ -417,6 +487,17 @@ public class DefaultDatastore implements Datastore {
          System.gc();
       }
       bus_.shutDown();
+      for (SubscriberMailbox.Statistics stats : getEventDeliveryStatistics()) {
+         ReportingUtils.logDebugMessage("Event delivery of " + name_ + " to " + stats);
+      }
+      ReportingUtils.logDebugMessage("Pixel buffers after closing " + name_ + ": "
+            + DefaultPixelBufferPool.getInstance());
+      // Events already in the mailboxes (such as the frozen event) are still
+      // delivered, after which the mailboxes release their threads.
+      for (SubscriberMailbox mailbox : mailboxes_) {
+         mailbox.shutDown();
+      }
+      mailboxes_.clear();
    }
 
    @Override
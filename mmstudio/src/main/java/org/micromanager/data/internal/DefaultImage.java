@@ -53,11 +53,32 @@ import org.micromanager.internal.utils.imageanalysis.ImageUtils;
  * getRawPixels(), the method exposed in the Image interface to access pixel
  * data, returns an ImageJ-style array, while getPixelBuffer (which is not
  * exposed in the API) returns the raw buffer.
+ *
+ * <p>An image can also be a view (crop, mirror or rotation) of another
+ * image, created with {@link #crop}, {@link #mirror} or {@link #rotate}. A
+ * view shares the pixel buffer of the image it was made from, and is only
+ * copied into a buffer of its own when a contiguous array or buffer is
+ * asked for (getRawPixels(), getPixelBuffer(), etc.). Reading single pixels
+ * or writing the pixels out with {@link #writePixels} does not copy.
+ *
+ * <p>Images made from an array leased from the {@link DefaultPixelBufferPool}
+ * hold a lease on it, which they share with their copies and views. Methods
+ * that hand out the array itself (getRawPixels(), getPixelBuffer(),
+ * getByteArray()) mark the lease as exposed, so that the array is never
+ * recycled. Code that only reads the pixels uses
+ * {@link #getRawPixelsForReading} instead, and storage that keeps images
+ * returns their pixels with {@link #claim} and {@link #release}.
  */
 public final class DefaultImage implements Image {
    private DefaultMetadata metadata_;
    private Coords coords_;
-   private Buffer rawPixels_;
+   // Null as long as this image is a view that has not been materialized
+   private volatile Buffer rawPixels_;
+   // Non-null only until a view is materialized
+   private volatile PixelView view_;
+   // Non-null if the pixels were leased from the DefaultPixelBufferPool
+   private final DefaultPixelBufferPool.Lease lease_;
+   private final DefaultPixelBufferPool.ImageReference poolReference_;
 
    // Width of the image, in pixels
    int pixelWidth_;
@@ -150,6 +171,8 @@ public final class DefaultImage implements Image {
       if (rawPixels_.capacity() == 0) {
          throw new IllegalArgumentException("Pixel data has length 0");
       }
+      lease_ = null;
+      poolReference_ = null;
    }
 
    /**
@@ -216,6 +239,8 @@ public final class DefaultImage implements Image {
       pixelWidth_ = width;
       pixelHeight_ = height;
       pixelType_ = PixelType.valueFor(bytesPerPixel, bpc, numComponents);
+      poolReference_ = DefaultPixelBufferPool.getInstance().adopt(pixels, this);
+      lease_ = poolReference_ == null ? null : poolReference_.getLease();
    }
 
    /**
@@ -254,8 +279,215 @@ public final class DefaultImage implements Image {
       }
       pixelType_ = PixelType.valueFor(source.getBytesPerPixel(), bpc,
             source.getNumComponents());
+      lease_ = null;
+      poolReference_ = null;
+   }
+
+   /**
+    * Creates an image that shares the pixel buffer or view, and the lease, of
+    * another image.
+    */
+   private DefaultImage(Buffer rawPixels, PixelView view,
+                        DefaultPixelBufferPool.Lease lease, int width, int height,
+                        PixelType pixelType, Coords coords, Metadata metadata) {
+      rawPixels_ = rawPixels;
+      view_ = view;
+      pixelWidth_ = width;
+      pixelHeight_ = height;
+      pixelType_ = pixelType;
+      coords_ = coords;
+      metadata_ = (DefaultMetadata) metadata;
+      lease_ = lease;
+      poolReference_ = lease == null ? null
+            : DefaultPixelBufferPool.getInstance().share(lease, this);
+   }
+
+   /**
+    * Creates a view.
+    */
+   private DefaultImage(PixelView view, DefaultPixelBufferPool.Lease lease,
+                        int width, int height, PixelType pixelType,
+                        Coords coords, Metadata metadata) {
+      this(null, view, lease, width, height, pixelType, coords, metadata);
+   }
+
+   /**
+    * Whether this image is a view of another image whose pixels have not
+    * been copied yet.
+    *
+    * @return true if this image shares the pixels of another image
+    */
+   public boolean isView() {
+      return view_ != null;
+   }
+
+   /**
+    * Whether the pixels of this image were leased from the pixel buffer pool,
+    * and will return to it once this image and its copies are gone.
+    *
+    * @return true if the pixels are pooled and have not been handed out
+    */
+   public boolean isPooled() {
+      return lease_ != null && !lease_.isExposed();
+   }
 
+   /**
+    * Prepares an image for storage that keeps it. If the pixels of the image
+    * are pooled, the storage gets an image of its own, which shares the
+    * pixels; it hands out copies of it (see {@link #handOut}), and calls
+    * {@link #release} when it drops it. This way, the pixels go back to the
+    * pool as soon as storage and everybody else are done with them, rather
+    * than when the garbage collector gets to the image.
+    *
+    * @param image image that is put into storage
+    * @return image that only the storage holds, or the image itself if its
+    *         pixels are not pooled
+    */
+   public static Image claim(Image image) {
+      if (image instanceof DefaultImage && ((DefaultImage) image).lease_ != null) {
+         return ((DefaultImage) image).copy(image.getCoords(), image.getMetadata());
+      }
+      return image;
+   }
 
+   /**
+    * @param stored image that was prepared with {@link #claim}
+    * @return image that can be given to others: a copy of the stored image if
+    *         it holds pooled pixels, or the stored image itself
+    */
+   public static Image handOut(Image stored) {
+      return claim(stored);
+   }
+
+   /**
+    * Called by storage when it drops an image that was prepared with
+    * {@link #claim}. The image must not be used afterwards.
+    *
+    * @param stored image that the storage no longer holds (may be null)
+    */
+   public static void release(Image stored) {
+      if (stored instanceof DefaultImage
+            && ((DefaultImage) stored).poolReference_ != null) {
+         DefaultPixelBufferPool.getInstance().release(
+               ((DefaultImage) stored).poolReference_);
+      }
+   }
+
+   /**
+    * Creates a view of a rectangular region of this image. The view has the
+    * coords and metadata of this image.
+    *
+    * @param x      left edge of the region
+    * @param y      top edge of the region
+    * @param width  width of the region
+    * @param height height of the region
+    * @return view sharing the pixels of this image
+    */
+   public DefaultImage crop(int x, int y, int width, int height) {
+      Preconditions.checkArgument(x >= 0 && y >= 0 && width > 0 && height > 0
+            && x + width <= pixelWidth_ && y + height <= pixelHeight_,
+            "Region outside of image");
+      return new DefaultImage(currentView().crop(x, y), lease_, width, height,
+            pixelType_, coords_, metadata_);
+   }
+
+   /**
+    * Creates a view of this image mirrored left to right. The view has the
+    * coords and metadata of this image.
+    *
+    * @return view sharing the pixels of this image
+    */
+   public DefaultImage mirror() {
+      return new DefaultImage(currentView().mirror(pixelWidth_), lease_,
+            pixelWidth_, pixelHeight_, pixelType_, coords_, metadata_);
+   }
+
+   /**
+    * Creates a view of this image rotated clockwise. The view has the
+    * coords and metadata of this image.
+    *
+    * @param degrees 0, 90, 180 or 270
+    * @return view sharing the pixels of this image
+    */
+   public DefaultImage rotate(int degrees) {
+      Preconditions.checkArgument(degrees == 0 || degrees == 90
+            || degrees == 180 || degrees == 270,
+            "Invalid rotation " + degrees + "; must be 0, 90, 180 or 270");
+      PixelView view = currentView();
+      int width = pixelWidth_;
+      int height = pixelHeight_;
+      for (int i = 0; i < degrees / 90; ++i) {
+         view = view.rotateRight(height);
+         int tmp = width;
+         width = height;
+         height = tmp;
+      }
+      return new DefaultImage(view, lease_, width, height, pixelType_, coords_,
+            metadata_);
+   }
+
+   /**
+    * Writes the pixels of this image, row by row, to a buffer starting at its
+    * position. Views are written straight from the pixels they share.
+    *
+    * @param destination ByteBuffer for images with 1 byte per component,
+    *                    ShortBuffer for images with 2
+    */
+   public void writePixels(Buffer destination) {
+      currentView().copyTo(destination, pixelWidth_, pixelHeight_);
+   }
+
+   private PixelView currentView() {
+      PixelView view = view_;
+      if (view != null) {
+         return view;
+      }
+      return PixelView.of(rawPixels_, pixelWidth_, getSamplesPerPixel());
+   }
+
+   private int getSamplesPerPixel() {
+      return pixelType_.getBytesPerPixel() / pixelType_.getBytesPerComponent();
+   }
+
+   /**
+    * @return the pixel buffer, copying the pixels of a view into a buffer of
+    *         its own first
+    */
+   private Buffer pixels() {
+      Buffer pixels = rawPixels_;
+      if (pixels == null) {
+         synchronized (this) {
+            if (rawPixels_ == null) {
+               rawPixels_ = BufferTools.wrapArray(
+                     view_.materialize(pixelWidth_, pixelHeight_),
+                     pixelType_.getBytesPerComponent());
+               view_ = null;
+            }
+            pixels = rawPixels_;
+         }
+      }
+      return pixels;
+   }
+
+   /**
+    * @return the pixel buffer, which will be handed out
+    */
+   private Buffer exposedPixels() {
+      if (lease_ != null) {
+         lease_.expose();
+      }
+      return pixels();
+   }
+
+   private Image copy(Coords coords, Metadata metadata) {
+      // rawPixels_ is set before view_ is cleared
+      PixelView view = view_;
+      if (view != null) {
+         return new DefaultImage(view, lease_, pixelWidth_, pixelHeight_,
+               pixelType_, coords, metadata);
+      }
+      return new DefaultImage(rawPixels_, null, lease_, pixelWidth_, pixelHeight_,
+            pixelType_, coords, metadata);
    }
 
    @Override
@@ -270,17 +502,17 @@ public final class DefaultImage implements Image {
 
    @Override
    public Image copyAtCoords(Coords coords) {
-      return new DefaultImage(this, coords, metadata_);
+      return copy(coords, metadata_);
    }
 
    @Override
    public Image copyWithMetadata(Metadata metadata) {
-      return new DefaultImage(this, coords_, metadata);
+      return copy(coords_, metadata);
    }
 
    @Override
    public Image copyWith(Coords coords, Metadata metadata) {
-      return new DefaultImage(this, coords, metadata);
+      return copy(coords, metadata);
    }
 
    /**
@@ -289,20 +521,24 @@ public final class DefaultImage implements Image {
     */
    @Override
    public Object getRawPixels() {
-      if (rawPixels_.hasArray()) {
-         return rawPixels_.array();
+      return toArray(exposedPixels());
+   }
+
+   private static Object toArray(Buffer pixels) {
+      if (pixels.hasArray()) {
+         return pixels.array();
       }
-      return BufferTools.arrayFromBuffer(rawPixels_);
+      return BufferTools.arrayFromBuffer(pixels);
    }
 
    @Override
    public byte[] getByteArray() {
-      return BufferTools.getByteArray(rawPixels_);
+      return BufferTools.getByteArray(exposedPixels());
    }
 
    @Override
    public Object getRawPixelsCopy() {
-      Object original = getRawPixels();
+      Object original = toArray(pixels());
       Object copy;
       int length;
       if (original instanceof byte[]) {
@@ -325,19 +561,37 @@ public final class DefaultImage implements Image {
    }
 
    public Buffer getPixelBuffer() {
-      return rawPixels_;
+      return exposedPixels();
+   }
+
+   /**
+    * Returns the pixels for code that only reads them, such as statistics
+    * and conversions that copy. Unlike {@link Image#getRawPixels()}, this
+    * does not keep pooled pixels from being recycled, so the caller must not
+    * modify the array, and must hold on to the image for as long as it uses
+    * the array.
+    *
+    * @param image any image
+    * @return byte[], short[] or int[] array with the pixels of the image
+    */
+   public static Object getRawPixelsForReading(Image image) {
+      if (image instanceof DefaultImage) {
+         return toArray(((DefaultImage) image).pixels());
+      }
+      return image.getRawPixels();
    }
 
    // TODO Use ImgLib2
    @Override
    public Object getRawPixelsForComponent(int component) {
-      int samplesPerPixel = pixelType_.getBytesPerPixel() / pixelType_.getBytesPerComponent();
-      int length = rawPixels_.capacity() / samplesPerPixel;
+      Buffer pixels = pixels();
+      int samplesPerPixel = getSamplesPerPixel();
+      int length = pixels.capacity() / samplesPerPixel;
       int offset = pixelType_.getComponentSampleOffset(component);
       Object result;
-      if (rawPixels_ instanceof ByteBuffer) {
+      if (pixels instanceof ByteBuffer) {
          result = (Object) new byte[length];
-      } else if (rawPixels_ instanceof ShortBuffer) {
+      } else if (pixels instanceof ShortBuffer) {
          result = (Object) new short[length];
       } else {
          ReportingUtils.logError("Unrecognized pixel buffer type.");
@@ -345,10 +599,10 @@ public final class DefaultImage implements Image {
       }
       for (int i = 0; i < length; ++i) {
          int sourceIndex = i * samplesPerPixel + offset;
-         if (rawPixels_ instanceof ByteBuffer) {
-            ((byte[]) result)[i] = ((ByteBuffer) rawPixels_).get(sourceIndex);
-         } else if (rawPixels_ instanceof ShortBuffer) {
-            ((short[]) result)[i] = ((ShortBuffer) rawPixels_).get(sourceIndex);
+         if (pixels instanceof ByteBuffer) {
+            ((byte[]) result)[i] = ((ByteBuffer) pixels).get(sourceIndex);
+         } else if (pixels instanceof ShortBuffer) {
+            ((short[]) result)[i] = ((ShortBuffer) pixels).get(sourceIndex);
          }
       }
       return result;
@@ -365,16 +619,24 @@ public final class DefaultImage implements Image {
       Preconditions.checkElementIndex(y, pixelHeight_);
       Preconditions.checkElementIndex(component, pixelType_.getNumberOfComponents());
 
-      int samplesPerPixel = pixelType_.getBytesPerPixel() / pixelType_.getBytesPerComponent();
       int offset = pixelType_.getComponentSampleOffset(component);
 
-      int pixelIndex = y * pixelWidth_ + x;
-      int sampleIndex = pixelIndex * samplesPerPixel + offset;
+      // Views are read in place. rawPixels_ is set before view_ is cleared.
+      Buffer pixels;
+      int sampleIndex;
+      PixelView view = view_;
+      if (view != null) {
+         pixels = view.getSource();
+         sampleIndex = view.sampleIndex(x, y) + offset;
+      } else {
+         pixels = rawPixels_;
+         sampleIndex = (y * pixelWidth_ + x) * getSamplesPerPixel() + offset;
+      }
       switch (pixelType_.getBytesPerComponent()) {
          case 1:
-            return ImageUtils.unsignedValue(((ByteBuffer) rawPixels_).get(sampleIndex));
+            return ImageUtils.unsignedValue(((ByteBuffer) pixels).get(sampleIndex));
          case 2:
-            return ImageUtils.unsignedValue(((ShortBuffer) rawPixels_).get(sampleIndex));
+            return ImageUtils.unsignedValue(((ShortBuffer) pixels).get(sampleIndex));
          default:
             throw new AssertionError("Unimplemented sample size");
       }
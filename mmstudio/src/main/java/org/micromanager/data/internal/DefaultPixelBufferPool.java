@@ -0,0 +1,253 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import com.google.common.collect.MapMaker;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.micromanager.data.PixelBufferPool;
+
+/**
+ * Pool of pixel arrays, with one size class per array type and length.
+ *
+ * <p>Leased arrays are remembered until an image is created from them. From
+ * then on, the array belongs to a {@link Lease}, which is shared by all
+ * DefaultImages (copies and views) that use the array. The pool holds a
+ * weak reference to each of these images. An image is done with the array
+ * when it is released explicitly (storage that keeps its own copy of an
+ * image does so when it drops it, see {@link DefaultImage#releasePixels}), or
+ * when the garbage collector has found that it is gone. Once all images are
+ * done, the array goes back to the pool, unless an image has handed out the
+ * array itself. Arrays of collected images are taken back whenever an array
+ * is leased.
+ *
+ * <p>The arrays waiting in the pool take at most a sixteenth of the maximum
+ * heap size; arrays that do not fit are left to the garbage collector.
+ *
+ * <p>Leasing, returning and creating images do not take a common lock: each
+ * size class is a lock-free deque, and the counters are atomic.
+ */
+public final class DefaultPixelBufferPool implements PixelBufferPool {
+   private static final DefaultPixelBufferPool INSTANCE =
+         new DefaultPixelBufferPool(Runtime.getRuntime().maxMemory() / 16);
+
+   /**
+    * The array of one or more images.
+    */
+   static final class Lease {
+      private final Object pixels_;
+      private final AtomicInteger numImages_ = new AtomicInteger(0);
+      private volatile boolean isExposed_ = false;
+
+      private Lease(Object pixels) {
+         pixels_ = pixels;
+      }
+
+      /**
+       * Called when the array is handed out; it will not be recycled.
+       */
+      void expose() {
+         isExposed_ = true;
+      }
+
+      boolean isExposed() {
+         return isExposed_;
+      }
+   }
+
+   /**
+    * The claim of one image on a lease.
+    */
+   static final class ImageReference extends WeakReference<DefaultImage> {
+      private final Lease lease_;
+
+      private ImageReference(DefaultImage image, Lease lease,
+                             ReferenceQueue<DefaultImage> queue) {
+         super(image, queue);
+         lease_ = lease;
+      }
+
+      Lease getLease() {
+         return lease_;
+      }
+   }
+
+   private final long maxBytesRetained_;
+   // Arrays waiting in the pool, by size class, most recently returned first
+   private final Map<Long, Deque<Object>> free_ = new ConcurrentHashMap<>();
+   // Arrays that were leased, but not yet used for an image (weak, identity)
+   private final Map<Object, Boolean> leased_ = new MapMaker().weakKeys().makeMap();
+   private final ReferenceQueue<DefaultImage> queue_ = new ReferenceQueue<>();
+   // Keeps the references of images that are not done yet alive
+   private final Set<ImageReference> references_ = ConcurrentHashMap.newKeySet();
+   private final LongAdder hits_ = new LongAdder();
+   private final LongAdder misses_ = new LongAdder();
+   private final AtomicLong bytesRetained_ = new AtomicLong(0);
+
+   DefaultPixelBufferPool(long maxBytesRetained) {
+      maxBytesRetained_ = maxBytesRetained;
+   }
+
+   public static DefaultPixelBufferPool getInstance() {
+      return INSTANCE;
+   }
+
+   @Override
+   public Object lease(int width, int height, int bytesPerPixel, int numComponents) {
+      collectReturnedArrays();
+      int samplesPerPixel = numComponents == 1 ? 1 : 4;
+      int bytesPerComponent = bytesPerPixel / samplesPerPixel;
+      if (bytesPerComponent != 1 && bytesPerComponent != 2) {
+         throw new IllegalArgumentException("Unsupported pixel type: " + bytesPerPixel
+               + " bytes per pixel, " + numComponents + " components");
+      }
+      int length = width * height * samplesPerPixel;
+      Deque<Object> free = free_.get(sizeClass(bytesPerComponent, length));
+      Object pixels = free == null ? null : free.pollFirst();
+      if (pixels != null) {
+         hits_.increment();
+         bytesRetained_.addAndGet(-(long) length * bytesPerComponent);
+      } else {
+         misses_.increment();
+         pixels = bytesPerComponent == 1 ? new byte[length] : new short[length];
+      }
+      leased_.put(pixels, Boolean.TRUE);
+      return pixels;
+   }
+
+   @Override
+   public void release(Object pixels) {
+      if (isLeased(pixels) && leased_.remove(pixels) != null) {
+         recycle(pixels);
+      }
+   }
+
+   /**
+    * @return true if the array was leased, and has not been used for an
+    *         image or released yet
+    */
+   boolean isLeased(Object pixels) {
+      return pixels != null && leased_.containsKey(pixels);
+   }
+
+   /**
+    * Called by an image that is created from an array. If the array was
+    * leased, the image becomes its owner.
+    *
+    * @return the claim of the image on the array, or null if the array is
+    *         not from the pool
+    */
+   ImageReference adopt(Object pixels, DefaultImage image) {
+      // Most arrays are not from the pool; looking them up does not lock
+      if (!isLeased(pixels) || leased_.remove(pixels) == null) {
+         return null;
+      }
+      return share(new Lease(pixels), image);
+   }
+
+   /**
+    * Called when an image shares the array of another image.
+    *
+    * @return the claim of the image on the array
+    */
+   ImageReference share(Lease lease, DefaultImage image) {
+      lease.numImages_.incrementAndGet();
+      ImageReference reference = new ImageReference(image, lease, queue_);
+      references_.add(reference);
+      return reference;
+   }
+
+   /**
+    * Called when an image will no longer be used, before it is garbage
+    * collected.
+    */
+   void release(ImageReference reference) {
+      reference.clear();
+      done(reference);
+   }
+
+   private void collectReturnedArrays() {
+      ImageReference reference;
+      while ((reference = (ImageReference) queue_.poll()) != null) {
+         done(reference);
+      }
+   }
+
+   private void done(ImageReference reference) {
+      // An image can be released and then collected; count it once
+      if (!references_.remove(reference)) {
+         return;
+      }
+      Lease lease = reference.lease_;
+      if (lease.numImages_.decrementAndGet() == 0 && !lease.isExposed()) {
+         recycle(lease.pixels_);
+      }
+   }
+
+   private void recycle(Object pixels) {
+      int bytesPerComponent = pixels instanceof byte[] ? 1 : 2;
+      int length = bytesPerComponent == 1
+            ? ((byte[]) pixels).length : ((short[]) pixels).length;
+      long bytes = (long) length * bytesPerComponent;
+      long retained;
+      do {
+         retained = bytesRetained_.get();
+         if (retained + bytes > maxBytesRetained_) {
+            return;
+         }
+      } while (!bytesRetained_.compareAndSet(retained, retained + bytes));
+      free_.computeIfAbsent(sizeClass(bytesPerComponent, length),
+            k -> new ConcurrentLinkedDeque<>()).addFirst(pixels);
+   }
+
+   private static long sizeClass(int bytesPerComponent, int length) {
+      return 2L * length + bytesPerComponent - 1;
+   }
+
+   @Override
+   public long getHitCount() {
+      return hits_.sum();
+   }
+
+   @Override
+   public long getMissCount() {
+      return misses_.sum();
+   }
+
+   @Override
+   public long getBytesRetained() {
+      collectReturnedArrays();
+      return bytesRetained_.get();
+   }
+
+   @Override
+   public String toString() {
+      long hits = getHitCount();
+      long leases = hits + getMissCount();
+      return String.format(
+            "<PixelBufferPool: %d of %d leases recycled (%.0f%%), %d bytes retained>",
+            hits, leases, leases == 0 ? 0.0 : 100.0 * hits / leases, getBytesRetained());
+   }
+}
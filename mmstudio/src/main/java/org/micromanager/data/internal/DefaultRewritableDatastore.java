@@ -54,7 +54,7 @@ public final class DefaultRewritableDatastore extends DefaultDatastore
       if (isFrozen_) {
          throw new DatastoreFrozenException();
       }
-      bus_.post(new DefaultNewSummaryMetadataEvent(metadata));
+      postEvent(new DefaultNewSummaryMetadataEvent(metadata));
    }
 
    @Override
@@ -69,7 +69,7 @@ public final class DefaultRewritableDatastore extends DefaultDatastore
          ((RewritableStorage) storage_).deleteImage(image.getCoords());
          try {
             super.putImage(image);
-            bus_.post(new DefaultImageOverwrittenEvent(image, oldImage, this));
+            postEvent(new DefaultImageOverwrittenEvent(image, oldImage, this));
          } catch (DatastoreRewriteException e2) {
             // This should never happen.
             ReportingUtils
@@ -104,7 +104,7 @@ public final class DefaultRewritableDatastore extends DefaultDatastore
    public void deleteImage(Coords coords) throws IOException {
       Image image = getImage(coords);
       ((RewritableStorage) storage_).deleteImage(coords);
-      bus_.post(new DefaultImageDeletedEvent(image, this));
+      postEvent(new DefaultImageDeletedEvent(image, this));
    }
 
    @Override
@@ -0,0 +1,162 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API implementation
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Maps the pixels of a view (a crop, mirror or rotation of an image) onto
+ * the pixel buffer of the image it was made from. Pixel (x, y) of the view
+ * is pixel (originX + xx * x + xy * y, originY + yx * x + yy * y) of the
+ * source, where the coefficients are -1, 0 or 1. Views of views map
+ * directly onto the original buffer.
+ *
+ * <p>Immutable. The source buffer is only read, using absolute gets.
+ */
+final class PixelView {
+   private final Buffer source_;
+   private final int sourceWidth_;
+   private final int samplesPerPixel_;
+   private final int originX_;
+   private final int originY_;
+   private final int xx_;
+   private final int xy_;
+   private final int yx_;
+   private final int yy_;
+
+   private PixelView(Buffer source, int sourceWidth, int samplesPerPixel,
+                     int originX, int originY, int xx, int xy, int yx, int yy) {
+      source_ = source;
+      sourceWidth_ = sourceWidth;
+      samplesPerPixel_ = samplesPerPixel;
+      originX_ = originX;
+      originY_ = originY;
+      xx_ = xx;
+      xy_ = xy;
+      yx_ = yx;
+      yy_ = yy;
+   }
+
+   /**
+    * View of a complete buffer, unchanged.
+    */
+   static PixelView of(Buffer source, int sourceWidth, int samplesPerPixel) {
+      return new PixelView(source, sourceWidth, samplesPerPixel, 0, 0, 1, 0, 0, 1);
+   }
+
+   Buffer getSource() {
+      return source_;
+   }
+
+   /**
+    * @return index in the source of the first sample of pixel (x, y)
+    */
+   int sampleIndex(int x, int y) {
+      return ((originX_ + xx_ * x + xy_ * y)
+            + (originY_ + yx_ * x + yy_ * y) * sourceWidth_) * samplesPerPixel_;
+   }
+
+   PixelView crop(int x, int y) {
+      return new PixelView(source_, sourceWidth_, samplesPerPixel_,
+            originX_ + xx_ * x + xy_ * y, originY_ + yx_ * x + yy_ * y,
+            xx_, xy_, yx_, yy_);
+   }
+
+   /**
+    * @param width width of this view
+    */
+   PixelView mirror(int width) {
+      return new PixelView(source_, sourceWidth_, samplesPerPixel_,
+            originX_ + xx_ * (width - 1), originY_ + yx_ * (width - 1),
+            -xx_, xy_, -yx_, yy_);
+   }
+
+   /**
+    * Rotate clockwise by 90 degrees.
+    *
+    * @param height height of this view
+    */
+   PixelView rotateRight(int height) {
+      return new PixelView(source_, sourceWidth_, samplesPerPixel_,
+            originX_ + xy_ * (height - 1), originY_ + yy_ * (height - 1),
+            -xy_, xx_, -yy_, yx_);
+   }
+
+   /**
+    * Copy the pixels of the view into a new, contiguous array.
+    *
+    * @return byte[] or short[], depending on the source buffer
+    */
+   Object materialize(int width, int height) {
+      int length = width * height * samplesPerPixel_;
+      if (source_ instanceof ByteBuffer) {
+         ByteBuffer result = ByteBuffer.allocate(length);
+         copyTo(result, width, height);
+         return result.array();
+      }
+      ShortBuffer result = ShortBuffer.allocate(length);
+      copyTo(result, width, height);
+      return result.array();
+   }
+
+   /**
+    * Write the pixels of the view, row by row, to a buffer of the same type
+    * as the source, starting at the buffer's position. Rows that are
+    * contiguous in the source are copied in bulk.
+    */
+   void copyTo(Buffer destination, int width, int height) {
+      boolean contiguousRows = xx_ == 1 && yx_ == 0;
+      int rowLength = width * samplesPerPixel_;
+      if (source_ instanceof ByteBuffer) {
+         ByteBuffer source = ((ByteBuffer) source_).duplicate();
+         ByteBuffer dest = (ByteBuffer) destination;
+         for (int y = 0; y < height; ++y) {
+            if (contiguousRows) {
+               int start = sampleIndex(0, y);
+               source.limit(start + rowLength).position(start);
+               dest.put(source);
+               continue;
+            }
+            for (int x = 0; x < width; ++x) {
+               int index = sampleIndex(x, y);
+               for (int s = 0; s < samplesPerPixel_; ++s) {
+                  dest.put(source.get(index + s));
+               }
+            }
+         }
+      } else {
+         ShortBuffer source = ((ShortBuffer) source_).duplicate();
+         ShortBuffer dest = (ShortBuffer) destination;
+         for (int y = 0; y < height; ++y) {
+            if (contiguousRows) {
+               int start = sampleIndex(0, y);
+               source.limit(start + rowLength).position(start);
+               dest.put(source);
+               continue;
+            }
+            for (int x = 0; x < width; ++x) {
+               int index = sampleIndex(x, y);
+               for (int s = 0; s < samplesPerPixel_; ++s) {
+                  dest.put(source.get(index + s));
+               }
+            }
+         }
+      }
+   }
+}
@@ -46,6 +46,11 @@ import org.micromanager.internal.utils.ReportingUtils;
  * will follow.  We can either check for null whenever coordsToImage is used,
  * or make sure that no member is ever called after the close function
  * (which may be very difficult to guarantee).
+ *
+ * <p>Images with pooled pixels are stored as images of their own (see
+ * {@link DefaultImage#claim}), and handed out as copies, so that their pixels
+ * can go back to the pool as soon as they are deleted, replaced or the
+ * storage is closed.
  */
 public final class StorageRAM implements RewritableStorage {
    private HashMap<Coords, Image> coordsToImage_;
@@ -75,7 +80,7 @@ public final class StorageRAM implements RewritableStorage {
     */
    @Override
    public synchronized void putImage(Image image) {
-      Image imageExisting = getAnyImage();
+      Image imageExisting = anyStoredImage();
       if (imageExisting != null) {
          ImageSizeChecker.checkImageSizes(image, imageExisting);
       } else {
@@ -83,7 +88,7 @@ public final class StorageRAM implements RewritableStorage {
       }
       // index the coords
       Coords coords = image.getCoords();
-      coordsToImage_.put(coords, image);
+      DefaultImage.release(coordsToImage_.put(coords, DefaultImage.claim(image)));
       Coords coordsNoC = image.getCoords().copyRemovingAxes(Coords.C);
       if (!coordsIndexedMissingC_.containsKey(coordsNoC)) {
          coordsIndexedMissingC_.put(coordsNoC, new ArrayList<>(4));
@@ -115,18 +120,20 @@ public final class StorageRAM implements RewritableStorage {
    @Override
    public synchronized Image getImage(Coords coords) {
       if (coordsToImage_ != null && coordsToImage_.containsKey(coords)) {
-         return coordsToImage_.get(coords);
+         return DefaultImage.handOut(coordsToImage_.get(coords));
       }
       return null;
    }
 
    @Override
-   public Image getAnyImage() {
-      synchronized (this) {
-         if (coordsToImage_ != null && coordsToImage_.size() > 0) {
-            Coords coords = new ArrayList<>(coordsToImage_.keySet()).get(0);
-            return coordsToImage_.get(coords);
-         }
+   public synchronized Image getAnyImage() {
+      return DefaultImage.handOut(anyStoredImage());
+   }
+
+   private Image anyStoredImage() {
+      if (coordsToImage_ != null && coordsToImage_.size() > 0) {
+         Coords coords = new ArrayList<>(coordsToImage_.keySet()).get(0);
+         return coordsToImage_.get(coords);
       }
       return null;
    }
@@ -178,7 +185,7 @@ public final class StorageRAM implements RewritableStorage {
          }
       }
       if (!haveIgnoredAxes) {
-         result.add(coordsToImage_.get(coords));
+         result.add(DefaultImage.handOut(coordsToImage_.get(coords)));
       } else {
          // special case: if the ignored axis is C, use a special index to find the Coords
          // otherwise, the search will be very expensive (which will  be the case for other
@@ -186,7 +193,7 @@ public final class StorageRAM implements RewritableStorage {
          if (ignoreTheseAxes[0].equals(Coords.CHANNEL)) {
             if (coordsIndexedMissingC_.get(coords) != null) {
                for (Coords tmpCoords : coordsIndexedMissingC_.get(coords)) {
-                  result.add(coordsToImage_.get(tmpCoords));
+                  result.add(DefaultImage.handOut(coordsToImage_.get(tmpCoords)));
                }
             }
          } else {
@@ -198,7 +205,7 @@ public final class StorageRAM implements RewritableStorage {
                for (Image image : coordsToImage_.values()) {
                   Coords imCoord = image.getCoords().copyRemovingAxes(ignoreTheseAxes);
                   if (imCoord.equals(coords)) {
-                     result.add(image);
+                     result.add(DefaultImage.handOut(image));
                   }
                }
             } catch (ConcurrentModificationException cme) {
@@ -272,11 +279,16 @@ public final class StorageRAM implements RewritableStorage {
       if (!coordsToImage_.containsKey(coords)) {
          throw new IllegalArgumentException("Storage does not contain image at " + coords);
       }
-      coordsToImage_.remove(coords);
+      DefaultImage.release(coordsToImage_.remove(coords));
    }
 
    @Override
-   public void close() {
+   public synchronized void close() {
+      if (coordsToImage_ != null) {
+         for (Image image : coordsToImage_.values()) {
+            DefaultImage.release(image);
+         }
+      }
       coordsToImage_ = null;
       coordsIndexedMissingC_ = null;
    }
@@ -0,0 +1,219 @@
+package org.micromanager.data.internal;
+
+import com.google.common.eventbus.EventBus;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.micromanager.data.DataProvider.NewImageDelivery;
+import org.micromanager.data.DataProviderHasNewImageEvent;
+import org.micromanager.internal.utils.EventBusExceptionLogger;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Queue of Datastore events for a single subscriber.
+ *
+ * <p>Each subscriber drains its own mailbox on a pooled thread, so that a slow
+ * subscriber only delays itself. In {@code LATEST_IMAGE} mode, a new image
+ * event replaces any new image event still waiting in the mailbox, and the
+ * replaced events are counted as dropped. In {@code EVERY_IMAGE_BLOCKING}
+ * mode, {@link #offer} waits when the mailbox already holds {@code capacity}
+ * events. {@code EVERY_IMAGE} mode does the same, but only once
+ * {@link #EVERY_IMAGE_CAPACITY} events are waiting, so that a subscriber that
+ * stops handling events cannot make the mailbox grow without limit. Events
+ * other than new image events are never dropped.
+ */
+public final class SubscriberMailbox {
+   static final int DEFAULT_CAPACITY = 64;
+   // Far more than a subscriber that keeps up will ever have waiting
+   static final int EVERY_IMAGE_CAPACITY = 4096;
+
+   // Shared by all mailboxes; each mailbox has at most one drain task
+   // running at a time, so events reach a subscriber in order.
+   private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+         ThreadFactoryFactory.createThreadFactory("Datastore event delivery"));
+
+   private final Object subscriber_;
+   private final NewImageDelivery delivery_;
+   private final int capacity_;
+   private final EventBus bus_;
+
+   // Guarded by monitor on this
+   private final ArrayDeque<Object> queue_ = new ArrayDeque<>();
+   private boolean drainScheduled_ = false;
+   private boolean closed_ = false;
+   private boolean shutDown_ = false;
+   private Thread drainThread_ = null;
+
+   // Guarded by monitor on this
+   private long delivered_ = 0;
+   private long dropped_ = 0;
+   private long totalHandlingNs_ = 0;
+   private long maxHandlingNs_ = 0;
+
+   SubscriberMailbox(Object subscriber, NewImageDelivery delivery, int capacity) {
+      subscriber_ = subscriber;
+      delivery_ = delivery;
+      capacity_ = delivery == NewImageDelivery.EVERY_IMAGE
+            ? Math.max(capacity, EVERY_IMAGE_CAPACITY) : capacity;
+      bus_ = new EventBus(EventBusExceptionLogger.getInstance());
+      bus_.register(subscriber);
+   }
+
+   Object getSubscriber() {
+      return subscriber_;
+   }
+
+   /**
+    * Queue an event for delivery.
+    *
+    * @param event the event
+    * @throws InterruptedException if interrupted while waiting for space in
+    *                              an EVERY_IMAGE or EVERY_IMAGE_BLOCKING
+    *                              mailbox
+    */
+   void offer(Object event) throws InterruptedException {
+      synchronized (this) {
+         if (closed_ || shutDown_) {
+            return;
+         }
+         if (event instanceof DataProviderHasNewImageEvent) {
+            if (delivery_ == NewImageDelivery.LATEST_IMAGE) {
+               Iterator<Object> it = queue_.iterator();
+               while (it.hasNext()) {
+                  if (it.next() instanceof DataProviderHasNewImageEvent) {
+                     it.remove();
+                     dropped_++;
+                  }
+               }
+            } else {
+               // Never make a subscriber wait for itself (it may be adding
+               // images from within its event handler).
+               while (queue_.size() >= capacity_ && !closed_ && !shutDown_
+                     && Thread.currentThread() != drainThread_) {
+                  wait();
+               }
+               if (closed_ || shutDown_) {
+                  return;
+               }
+            }
+         }
+         queue_.addLast(event);
+         if (drainScheduled_) {
+            return;
+         }
+         drainScheduled_ = true;
+      }
+      EXECUTOR.execute(this::drain);
+   }
+
+   private void drain() {
+      while (true) {
+         final Object event;
+         synchronized (this) {
+            event = queue_.pollFirst();
+            if (event == null || closed_) {
+               drainScheduled_ = false;
+               drainThread_ = null;
+               return;
+            }
+            drainThread_ = Thread.currentThread();
+            notifyAll();
+         }
+         long start = System.nanoTime();
+         bus_.post(event);
+         long elapsed = System.nanoTime() - start;
+         synchronized (this) {
+            delivered_++;
+            totalHandlingNs_ += elapsed;
+            maxHandlingNs_ = Math.max(maxHandlingNs_, elapsed);
+         }
+      }
+   }
+
+   /**
+    * Stop delivering events; queued events are discarded.
+    */
+   synchronized void close() {
+      closed_ = true;
+      queue_.clear();
+      notifyAll();
+   }
+
+   /**
+    * Stop accepting events. Events that are already queued are still
+    * delivered, after which the delivery thread is released.
+    */
+   synchronized void shutDown() {
+      shutDown_ = true;
+      notifyAll();
+   }
+
+   synchronized Statistics getStatistics() {
+      return new Statistics(subscriber_.getClass().getName(), delivery_,
+            queue_.size(), delivered_, dropped_,
+            delivered_ == 0 ? 0.0 : totalHandlingNs_ / 1e6 / delivered_,
+            maxHandlingNs_ / 1e6);
+   }
+
+   /**
+    * Snapshot of delivery statistics of a mailbox.
+    */
+   public static final class Statistics {
+      private final String subscriberName_;
+      private final NewImageDelivery delivery_;
+      private final int queued_;
+      private final long delivered_;
+      private final long dropped_;
+      private final double meanHandlingMs_;
+      private final double maxHandlingMs_;
+
+      private Statistics(String subscriberName, NewImageDelivery delivery,
+                         int queued, long delivered, long dropped,
+                         double meanHandlingMs, double maxHandlingMs) {
+         subscriberName_ = subscriberName;
+         delivery_ = delivery;
+         queued_ = queued;
+         delivered_ = delivered;
+         dropped_ = dropped;
+         meanHandlingMs_ = meanHandlingMs;
+         maxHandlingMs_ = maxHandlingMs;
+      }
+
+      public String getSubscriberName() {
+         return subscriberName_;
+      }
+
+      public NewImageDelivery getDelivery() {
+         return delivery_;
+      }
+
+      public int getQueuedCount() {
+         return queued_;
+      }
+
+      public long getDeliveredCount() {
+         return delivered_;
+      }
+
+      public long getDroppedCount() {
+         return dropped_;
+      }
+
+      public double getMeanHandlingTimeMs() {
+         return meanHandlingMs_;
+      }
+
+      public double getMaxHandlingTimeMs() {
+         return maxHandlingMs_;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("%s (%s): delivered %d, dropped %d, queued %d, "
+                     + "handling mean %.2f ms, max %.2f ms",
+               subscriberName_, delivery_, delivered_, dropped_, queued_,
+               meanHandlingMs_, maxHandlingMs_);
+      }
+   }
+}
@@ -702,7 +702,7 @@ public final class MultipageTiffWriter {
          charView.put(bufferPosition_ / 2 + 2, (char) (byteDepth_ * 8));
       }
       buffers_.add(ifdBuffer);
-      buffers_.add(getPixelBuffer(img.getRawPixels()));
+      buffers_.add(getPixelBuffer(img));
       buffers_.add(getResolutionValuesBuffer());
       buffers_.add(ByteBuffer.wrap(mdBytes));
 
@@ -743,6 +743,25 @@ public final class MultipageTiffWriter {
       numFrames_ = n;
    }
 
+   private ByteBuffer getPixelBuffer(Image img) {
+      if (!rgb_ && img instanceof DefaultImage
+            && (((DefaultImage) img).isView() || ((DefaultImage) img).isPooled())) {
+         // Write crops, mirrors and rotations straight from the pixels they
+         // share with their source, rather than copying them into an array
+         // first. Pooled pixels are written the same way, so that asking for
+         // the array does not keep it from returning to the pool.
+         DefaultImage view = (DefaultImage) img;
+         ByteBuffer buffer = getLargeBuffer(view.getWidth() * view.getHeight() * byteDepth_);
+         if (byteDepth_ == 1) {
+            view.writePixels(buffer.duplicate());
+         } else {
+            view.writePixels(buffer.asShortBuffer());
+         }
+         return buffer;
+      }
+      return getPixelBuffer(img.getRawPixels());
+   }
+
    private ByteBuffer getPixelBuffer(Object pixels) {
       if (rgb_) {
          if (byteDepth_ == 1) {
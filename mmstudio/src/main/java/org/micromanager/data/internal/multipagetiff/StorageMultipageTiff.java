@@ -383,7 +383,9 @@ public final class StorageMultipageTiff implements Storage {
     * structure, in turn, ensures that we do not have to rely on
     * MultipageTiffReader.readImage() returning a coherent (i.e.
     * finished-writing) image if our getImage() method is called before writing
-    * is completed.
+    * is completed. Pending images with pooled pixels are kept as images of
+    * their own, which are released once written, so that the pixels can go
+    * back to the pool.
     */
    private void writeImage(DefaultImage image) throws MMException, IOException {
       if (!amInWriteMode_) {
@@ -393,14 +395,14 @@ public final class StorageMultipageTiff implements Storage {
 
       final Coords coords = image.getCoords();
       synchronized (coordsToPendingImage_) {
-         coordsToPendingImage_.put(coords, image);
+         DefaultImage.release(coordsToPendingImage_.put(coords, DefaultImage.claim(image)));
       }
 
       startWritingTask(image);
 
       writingExecutor_.submit(() -> {
          synchronized (coordsToPendingImage_) {
-            coordsToPendingImage_.remove(coords);
+            DefaultImage.release(coordsToPendingImage_.remove(coords));
          }
       });
    }
@@ -943,7 +945,7 @@ public final class StorageMultipageTiff implements Storage {
       synchronized (coordsToPendingImage_) {
          for (Coords imageCoords : coordsToPendingImage_.keySet()) {
             if (coords.equals(imageCoords.copyRemovingAxes(ignoreTheseAxes))) {
-               result.add(coordsToPendingImage_.get(imageCoords));
+               result.add(DefaultImage.handOut(coordsToPendingImage_.get(imageCoords)));
             }
          }
       }
@@ -998,7 +1000,7 @@ public final class StorageMultipageTiff implements Storage {
    public Image getImage(Coords coords) {
       synchronized (coordsToPendingImage_) {
          if (coordsToPendingImage_.containsKey(coords)) {
-            return coordsToPendingImage_.get(coords);
+            return DefaultImage.handOut(coordsToPendingImage_.get(coords));
          }
       }
       if (!coordsToReader_.containsKey(coords)) {
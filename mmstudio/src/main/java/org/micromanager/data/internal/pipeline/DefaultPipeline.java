@@ -29,6 +29,7 @@ import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.Image;
 import org.micromanager.data.Pipeline;
 import org.micromanager.data.PipelineErrorException;
+import org.micromanager.data.PixelKernelProcessor;
 import org.micromanager.data.Processor;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.internal.utils.ReportingUtils;
@@ -51,7 +52,7 @@ public final class DefaultPipeline implements Pipeline {
       store_ = store;
       contexts_ = new ArrayList<BaseContext>();
       exceptions_ = new ArrayList<Exception>();
-      for (Processor processor : processors_) {
+      for (Processor processor : fuseKernelProcessors(processors_)) {
          if (isSynchronous) {
             contexts_.add(new SynchronousContext(processor, store_, this));
          } else {
@@ -66,6 +67,35 @@ public final class DefaultPipeline implements Pipeline {
       isSynchronous_ = isSynchronous;
    }
 
+   /**
+    * Replace every run of two or more adjacent PixelKernelProcessors by a
+    * single FusedKernelProcessor, so that their pixel work is done in one
+    * pass.
+    */
+   static List<Processor> fuseKernelProcessors(List<Processor> processors) {
+      List<Processor> result = new ArrayList<Processor>();
+      List<PixelKernelProcessor> run = new ArrayList<PixelKernelProcessor>();
+      for (Processor processor : processors) {
+         if (processor instanceof PixelKernelProcessor) {
+            run.add((PixelKernelProcessor) processor);
+            continue;
+         }
+         addRun(result, run);
+         result.add(processor);
+      }
+      addRun(result, run);
+      return result;
+   }
+
+   private static void addRun(List<Processor> result, List<PixelKernelProcessor> run) {
+      if (run.size() > 1) {
+         result.add(new FusedKernelProcessor(run));
+      } else {
+         result.addAll(run);
+      }
+      run.clear();
+   }
+
    @Override
    public void insertSummaryMetadata(SummaryMetadata summary)
          throws IOException, PipelineErrorException {
@@ -0,0 +1,228 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.micromanager.data.Image;
+import org.micromanager.data.PixelKernel;
+import org.micromanager.data.PixelKernelProcessor;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultPixelBufferPool;
+import org.micromanager.internal.utils.ParallelPixels;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Runs a sequence of PixelKernelProcessors as if it were a single Processor.
+ * For every image, the processors are asked for their kernels in turn, and
+ * each resulting chain of kernels is computed in one pass over the pixels,
+ * allocating only the final image. When a processor has no kernels for an
+ * image, the kernels collected so far are run, and the result is handed to
+ * that processor's processImage(); its output continues down the sequence.
+ */
+final class FusedKernelProcessor implements Processor {
+   private final List<PixelKernelProcessor> processors_;
+   private long numImages_ = 0;
+   private long bytesSaved_ = 0;
+
+   FusedKernelProcessor(List<PixelKernelProcessor> processors) {
+      processors_ = new ArrayList<>(processors);
+   }
+
+   List<PixelKernelProcessor> getProcessors() {
+      return Collections.unmodifiableList(processors_);
+   }
+
+   /**
+    * @return Average number of bytes per input image that were not allocated
+    *         for intermediate images, because the kernels were fused.
+    */
+   long getBytesSavedPerImage() {
+      return numImages_ == 0 ? 0 : bytesSaved_ / numImages_;
+   }
+
+   @Override
+   public SummaryMetadata processSummaryMetadata(SummaryMetadata source) {
+      SummaryMetadata summary = source;
+      for (PixelKernelProcessor processor : processors_) {
+         summary = processor.processSummaryMetadata(summary);
+      }
+      return summary;
+   }
+
+   @Override
+   public void processImage(Image image, ProcessorContext context) {
+      ++numImages_;
+      process(image, 0, context);
+   }
+
+   @Override
+   public void cleanup(ProcessorContext context) {
+      for (int i = 0; i < processors_.size(); ++i) {
+         processors_.get(i).cleanup(new StageContext(i + 1, context));
+      }
+      if (bytesSaved_ > 0) {
+         ReportingUtils.logMessage("Fused " + processors_.size()
+               + " pipeline processors: " + numImages_ + " images, "
+               + getBytesSavedPerImage() + " bytes of intermediate images saved per image");
+      }
+   }
+
+   /**
+    * Hand an image to the processor at the given position in the sequence.
+    */
+   private void process(Image image, int stage, ProcessorContext context) {
+      if (stage == processors_.size()) {
+         context.outputImage(image);
+         return;
+      }
+      PixelKernelProcessor processor = processors_.get(stage);
+      List<PixelKernel> kernels = null;
+      if (image.getNumComponents() == 1 && image.getBytesPerPixel() <= 2) {
+         kernels = processor.createPixelKernels(image.getCoords(),
+               image.getMetadata(), image.getWidth(), image.getHeight(),
+               image.getBytesPerPixel());
+      }
+      if (kernels == null) {
+         processor.processImage(image, new StageContext(stage + 1, context));
+         return;
+      }
+      for (PixelKernel kernel : kernels) {
+         List<PixelKernel> chain = new ArrayList<>();
+         chain.add(kernel);
+         extend(image, chain, stage + 1, context);
+      }
+   }
+
+   /**
+    * Add the kernels of the processor at the given position to the chain,
+    * or run the chain if that processor has none.
+    */
+   private void extend(Image source, List<PixelKernel> chain, int stage,
+                       ProcessorContext context) {
+      if (stage < processors_.size()) {
+         PixelKernel last = chain.get(chain.size() - 1);
+         List<PixelKernel> kernels = processors_.get(stage).createPixelKernels(
+               last.getCoords(), last.getMetadata(), last.getWidth(),
+               last.getHeight(), source.getBytesPerPixel());
+         if (kernels != null) {
+            for (PixelKernel kernel : kernels) {
+               List<PixelKernel> longer = new ArrayList<>(chain);
+               longer.add(kernel);
+               extend(source, longer, stage + 1, context);
+            }
+            return;
+         }
+      }
+      for (int i = 0; i < chain.size() - 1; ++i) {
+         bytesSaved_ += (long) chain.get(i).getWidth() * chain.get(i).getHeight()
+               * source.getBytesPerPixel();
+      }
+      process(run(source, chain), stage, context);
+   }
+
+   /**
+    * Compute the image resulting from applying a chain of kernels to an
+    * image.
+    *
+    * @param source Single-component image with 1 or 2 bytes per pixel
+    * @param chain  Kernels, in the order of the processors they came from
+    * @return New image, with pixels leased from the pixel buffer pool
+    */
+   static Image run(Image source, List<PixelKernel> chain) {
+      final PixelKernel[] kernels = chain.toArray(new PixelKernel[0]);
+      final PixelKernel last = kernels[kernels.length - 1];
+      final int length = last.getWidth() * last.getHeight();
+      final Object pixels;
+      if (source.getBytesPerPixel() == 1) {
+         final byte[] input = (byte[]) DefaultImage.getRawPixelsForReading(source);
+         final byte[] output = (byte[]) DefaultPixelBufferPool.getInstance().lease(
+               last.getWidth(), last.getHeight(), source.getBytesPerPixel(), 1);
+         ParallelPixels.forEachStripe(length, (start, end) -> {
+            int[] indices = new int[kernels.length];
+            for (int i = start; i < end; ++i) {
+               int value = input[sourceIndex(kernels, indices, i)] & 0xff;
+               output[i] = (byte) apply(kernels, indices, value);
+            }
+         });
+         pixels = output;
+      } else {
+         final short[] input = (short[]) DefaultImage.getRawPixelsForReading(source);
+         final short[] output = (short[]) DefaultPixelBufferPool.getInstance().lease(
+               last.getWidth(), last.getHeight(), source.getBytesPerPixel(), 1);
+         ParallelPixels.forEachStripe(length, (start, end) -> {
+            int[] indices = new int[kernels.length];
+            for (int i = start; i < end; ++i) {
+               int value = input[sourceIndex(kernels, indices, i)] & 0xffff;
+               output[i] = (short) apply(kernels, indices, value);
+            }
+         });
+         pixels = output;
+      }
+      return new DefaultImage(pixels, last.getWidth(), last.getHeight(),
+            source.getBytesPerPixel(), 1, last.getCoords(), last.getMetadata());
+   }
+
+   /**
+    * Follow an output pixel back through the chain. On return, indices holds
+    * the index of the pixel in the output of each kernel.
+    *
+    * @return Index of the pixel in the source image.
+    */
+   private static int sourceIndex(PixelKernel[] kernels, int[] indices, int index) {
+      for (int k = kernels.length - 1; k >= 0; --k) {
+         indices[k] = index;
+         index = kernels[k].getSourceIndex(index);
+      }
+      return index;
+   }
+
+   private static int apply(PixelKernel[] kernels, int[] indices, int value) {
+      for (int k = 0; k < kernels.length; ++k) {
+         value = kernels[k].apply(value, indices[k]);
+      }
+      return value;
+   }
+
+   /**
+    * Context handed to a processor's processImage() and cleanup(); its
+    * output continues at the next processor in the sequence.
+    */
+   private final class StageContext implements ProcessorContext {
+      private final int stage_;
+      private final ProcessorContext context_;
+
+      private StageContext(int stage, ProcessorContext context) {
+         stage_ = stage;
+         context_ = context;
+      }
+
+      @Override
+      public void outputImage(Image image) {
+         process(image, stage_, context_);
+      }
+
+      @Override
+      public SummaryMetadata getSummaryMetadata() {
+         return context_.getSummaryMetadata();
+      }
+   }
+}
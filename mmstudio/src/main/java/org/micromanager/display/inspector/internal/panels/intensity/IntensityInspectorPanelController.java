@@ -28,6 +28,7 @@ import net.miginfocom.layout.LC;
 import net.miginfocom.swing.MigLayout;
 import org.micromanager.Studio;
 import org.micromanager.data.Coords;
+import org.micromanager.data.DataProvider;
 import org.micromanager.data.DataProviderHasNewImageEvent;
 import org.micromanager.display.ChannelDisplaySettings;
 import org.micromanager.display.DataViewer;
@@ -511,7 +512,8 @@ public class IntensityInspectorPanelController
       detachDataViewer();
       viewer_ = viewer;
       viewer.registerForEvents(this);
-      viewer.getDataProvider().registerForEvents(this);
+      viewer.getDataProvider().registerForEvents(this,
+            DataProvider.NewImageDelivery.LATEST_IMAGE);
       SwingUtilities.invokeLater(() -> {
          if (viewer_ == null) {
             return;
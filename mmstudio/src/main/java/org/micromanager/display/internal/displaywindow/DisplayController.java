@@ -61,6 +61,7 @@ import org.micromanager.display.internal.event.DefaultDisplayDidShowImageEvent;
 import org.micromanager.display.internal.event.DisplayWindowDidAddOverlayEvent;
 import org.micromanager.display.internal.event.DisplayWindowDidRemoveOverlayEvent;
 import org.micromanager.display.internal.imagestats.BoundsRectAndMask;
+import org.micromanager.display.internal.imagestats.ImageStatsProcessor;
 import org.micromanager.display.internal.imagestats.ImageStatsRequest;
 import org.micromanager.display.internal.imagestats.ImagesAndStats;
 import org.micromanager.display.internal.imagestats.StatsComputeQueue;
@@ -106,6 +107,9 @@ public final class DisplayController extends DisplayWindowAPIAdapter
 
    private final StatsComputeQueue computeQueue_ = StatsComputeQueue.create();
    private static final long MIN_REPAINT_PERIOD_NS = Math.round(1e9 / 60.0);
+   // Performance monitor stat holding the EDT time of the repaint task
+   private static final String SCHEDULED_REPAINT_TIME_STAT =
+         "Scheduled repaint on EDT (ms)";
 
    private final LinkManager linkManager_;
 
@@ -133,7 +137,8 @@ public final class DisplayController extends DisplayWindowAPIAdapter
    private CoalescentEDTRunnablePool runnablePool_ =
          CoalescentEDTRunnablePool.create();
 
-   private PerformanceMonitor perfMon_
+   // Read from the live mode grab thread; set to null on close
+   private volatile PerformanceMonitor perfMon_
          = PerformanceMonitor.createWithTimeConstantMs(1000.0);
    private final PerformanceMonitorUI perfMonUI_
          = PerformanceMonitorUI.create(perfMon_, "Display Performance");
@@ -282,7 +287,9 @@ public final class DisplayController extends DisplayWindowAPIAdapter
 
       // Start receiving events
       studio_.events().registerForEvents(this);
-      dataProvider_.registerForEvents(this);
+      // We only ever show the newest image, so there is no point in queuing
+      // up new image events while we are busy
+      dataProvider_.registerForEvents(this, DataProvider.NewImageDelivery.LATEST_IMAGE);
    }
 
    // Allow internal objects (in particular, UI controller) to post events
@@ -383,6 +390,7 @@ public final class DisplayController extends DisplayWindowAPIAdapter
             if (uiController_ == null) { // Closed
                return;
             }
+            long startNs = System.nanoTime();
 
             Image primaryImage = images.getRequest().getImage(0);
             Coords nominalCoords = images.getRequest().getNominalCoords();
@@ -441,6 +449,8 @@ public final class DisplayController extends DisplayWindowAPIAdapter
 
             if (perfMon_ != null) {
                perfMon_.sampleTimeInterval("Scheduled repaint on EDT");
+               perfMon_.sample(SCHEDULED_REPAINT_TIME_STAT,
+                     (System.nanoTime() - startNs) / 1e6);
             }
          }
       });
@@ -466,6 +476,43 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       return uiController_.getDisplayIntervalQuantile(q);
    }
 
+   /**
+    * Return the average time the EDT spends per newly displayed image: the
+    * scheduled repaint task plus the paint itself.
+    *
+    * @return time in ms, or 0 if not yet measured
+    */
+   public double getRenderCostMs() {
+      final PerformanceMonitor perfMon = perfMon_;
+      if (perfMon == null) {
+         return 0.0;
+      }
+      double cost = 0.0;
+      for (String stat : new String[] {SCHEDULED_REPAINT_TIME_STAT,
+            DisplayUIController.PAINT_TIME_STAT}) {
+         double ms = perfMon.getAverage(stat);
+         if (!Double.isNaN(ms)) {
+            cost += ms;
+         }
+      }
+      return cost;
+   }
+
+   /**
+    * Return the average wall time taken to compute the stats of the images
+    * to display.
+    *
+    * @return time in ms, or 0 if not yet measured
+    */
+   public double getStatsCostMs() {
+      final PerformanceMonitor perfMon = perfMon_;
+      if (perfMon == null) {
+         return 0.0;
+      }
+      double ms = perfMon.getAverage(ImageStatsProcessor.WALL_TIME_STAT);
+      return Double.isNaN(ms) ? 0.0 : ms;
+   }
+
    /**
     * Resets the estimate when another display event can/should happen.
     */
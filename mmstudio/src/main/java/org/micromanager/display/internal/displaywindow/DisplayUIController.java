@@ -219,6 +219,8 @@ public final class DisplayUIController implements Closeable, WindowListener,
 
    // Display rate estimation
    private static final int DISPLAY_INTERVAL_SMOOTH_N_SAMPLES = 50;
+   // Performance monitor stat holding the time to paint a newly displayed image
+   static final String PAINT_TIME_STAT = "Paint time for new display (ms)";
    private final AtomicBoolean repaintScheduledForNewImages_ =
          new AtomicBoolean(false);
    private final AtomicReference<TimeIntervalRunningQuantile>
@@ -1628,7 +1630,12 @@ public final class DisplayUIController implements Closeable, WindowListener,
       }
    }
 
-   public void paintDidFinish() {
+   /**
+    * Called by the canvas after each paint.
+    *
+    * @param paintNs time the paint took, in nanoseconds
+    */
+   public void paintDidFinish(long paintNs) {
       if (perfMon_ != null) {
          perfMon_.sampleTimeInterval("Repaint completed");
       }
@@ -1641,6 +1648,7 @@ public final class DisplayUIController implements Closeable, WindowListener,
       if (countAsNewDisplayedImage) {
          if (perfMon_ != null) {
             perfMon_.sampleTimeInterval("Repaint counted as new display");
+            perfMon_.sample(PAINT_TIME_STAT, paintNs / 1e6);
          }
 
          displayIntervalEstimator_.get().sample();
@@ -1760,13 +1768,23 @@ public final class DisplayUIController implements Closeable, WindowListener,
             lastElapsedTimeMs_ = elapsedMs;
             if (durationMs_ > 0.0) {
                fps_ = ((nrLiveFramesReceived_ - 1) * 1000.0) / durationMs_;
+               String text;
                if (fps_ < 2.0) {
-                  cameraFpsLabel_.setText(String.format(
-                        "Camera: %.3g fps", fps_));
+                  text = String.format("Camera: %.3g fps", fps_);
                } else {
-                  cameraFpsLabel_.setText(String.format(
-                        "Camera: %d fps", (int) fps_));
+                  text = String.format("Camera: %d fps", (int) fps_);
+               }
+               // Live mode may display fewer images than the camera produces
+               // (see SnapLiveManager); show what was achieved.
+               double displayIntervalMs =
+                     displayIntervalEstimator_.get().getQuantile(0.5);
+               if (displayIntervalMs > 1e-3) {
+                  double displayFps = 1000.0 / displayIntervalMs;
+                  if (displayFps < 0.9 * fps_) {
+                     text += String.format(", display: %.3g fps", displayFps);
+                  }
                }
+               cameraFpsLabel_.setText(text);
             }
 
          }
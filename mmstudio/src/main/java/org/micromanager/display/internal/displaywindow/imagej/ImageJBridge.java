@@ -481,8 +481,8 @@ public final class ImageJBridge {
       uiController_.paintOverlays(g, canvasBounds, viewPort);
    }
 
-   void ijPaintDidFinish() {
-      uiController_.paintDidFinish();
+   void ijPaintDidFinish(long paintNs) {
+      uiController_.paintDidFinish(paintNs);
    }
 
    Coords getMMCoordsForIJFlatIndex(int flatIndex) {
@@ -566,7 +566,7 @@ public final class ImageJBridge {
       if (template == null) {
          throw new IllegalStateException("Image requested from empty dataset");
       }
-      Object templatePixels = template.getRawPixels();
+      Object templatePixels = DefaultImage.getRawPixelsForReading(template);
       Object blankPixels;
       if (templatePixels instanceof byte[]) {
          blankPixels = new byte[((byte[]) templatePixels).length];
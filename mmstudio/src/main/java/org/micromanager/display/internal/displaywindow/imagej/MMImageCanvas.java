@@ -95,10 +95,11 @@ public final class MMImageCanvas extends ImageCanvas
       // ij.gui.ImageCanvas is not written in a way that allows us to easily
       // override paint() without reimplementing a whole bunch of stuff.
 
+      long startNs = System.nanoTime();
       // Let ImageJ draw the image, selection, zoom indicator, etc.
       super.paint(g);
       parent_.paintMMOverlays((Graphics2D) g, getWidth(), getHeight(), srcRect);
-      parent_.ijPaintDidFinish();
+      parent_.ijPaintDidFinish(System.nanoTime() - startNs);
    }
 
    @Override
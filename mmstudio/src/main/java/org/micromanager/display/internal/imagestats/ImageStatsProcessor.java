@@ -40,6 +40,7 @@ import net.imglib2.view.IntervalView;
 import net.imglib2.view.MixedTransformView;
 import net.imglib2.view.Views;
 import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.micromanager.internal.utils.performance.CPUTimer;
 import org.micromanager.internal.utils.performance.PerformanceMonitor;
@@ -50,6 +51,8 @@ import org.micromanager.internal.utils.performance.WallTimer;
  */
 public final class ImageStatsProcessor {
    private static final int MASK_THRESH = 128;
+   // Performance monitor stat holding the wall time to process a request
+   public static final String WALL_TIME_STAT = "Process wall time (ms)";
 
    private final ExecutorService executor_;
 
@@ -111,7 +114,7 @@ public final class ImageStatsProcessor {
       }
 
       if (perfMon_ != null) {
-         perfMon_.sample("Process wall time (ms)", timer.getMs());
+         perfMon_.sample(WALL_TIME_STAT, timer.getMs());
          perfMon_.sampleTimeInterval("Process");
       }
 
@@ -177,7 +180,7 @@ public final class ImageStatsProcessor {
       ImageStats result = null;
       if (bytesPerSample == 1) {
          Img<UnsignedByteType> img =
-               ArrayImgs.unsignedBytes((byte[]) image.getRawPixels(),
+               ArrayImgs.unsignedBytes((byte[]) DefaultImage.getRawPixelsForReading(image),
                      nComponents, image.getWidth(), image.getHeight());
          result = compute(
                clipToRect(img, nComponents, statsBounds),
@@ -186,7 +189,7 @@ public final class ImageStatsProcessor {
                useROI, index);
       } else if (bytesPerSample == 2) {
          Img<UnsignedShortType> img =
-               ArrayImgs.unsignedShorts((short[]) image.getRawPixels(),
+               ArrayImgs.unsignedShorts((short[]) DefaultImage.getRawPixelsForReading(image),
                      nComponents, image.getWidth(), image.getHeight());
          result = compute(
                clipToRect(img, nComponents, statsBounds),
@@ -22,6 +22,9 @@
 package org.micromanager.events.internal;
 
 import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.SwingUtilities;
 import mmcorej.CMMCore;
 import mmcorej.MMEventCallback;
@@ -39,6 +42,11 @@ public final class CoreEventCallback extends MMEventCallback {
    private final Studio studio_;
    private final AcquisitionManager acquisitionManager_;
    private volatile boolean ignoreCoreEvents_;
+   // Events for which only the latest value matters (stage positions,
+   // property values, exposures), keyed by what they describe. An entry is
+   // present while a post of that key is waiting on the EDT.
+   private final ConcurrentHashMap<List<Object>, Object> pendingEvents_ =
+         new ConcurrentHashMap<>();
 
    /**
     * Receives Callbacks from the core and translates them into events posted
@@ -87,8 +95,8 @@ public final class CoreEventCallback extends MMEventCallback {
       if (ignoreCoreEvents_) {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultPropertyChangedEvent(deviceName, propName, propValue)));
+         postLatestOnEDT(Arrays.asList("Property", deviceName, propName),
+               new DefaultPropertyChangedEvent(deviceName, propName, propValue));
       }
    }
 
@@ -155,8 +163,8 @@ public final class CoreEventCallback extends MMEventCallback {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultStagePositionChangedEvent(deviceName, pos)));
+         postLatestOnEDT(Arrays.asList("Stage", deviceName),
+               new DefaultStagePositionChangedEvent(deviceName, pos));
       }
    }
 
@@ -166,8 +174,8 @@ public final class CoreEventCallback extends MMEventCallback {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultXYStagePositionChangedEvent(deviceName, xPos, yPos)));
+         postLatestOnEDT(Arrays.asList("XYStage", deviceName),
+               new DefaultXYStagePositionChangedEvent(deviceName, xPos, yPos));
       }
    }
 
@@ -177,8 +185,8 @@ public final class CoreEventCallback extends MMEventCallback {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultExposureChangedEvent(deviceName, exposure)));
+         postLatestOnEDT(Arrays.asList("Exposure", deviceName),
+               new DefaultExposureChangedEvent(deviceName, exposure));
       }
    }
 
@@ -188,8 +196,28 @@ public final class CoreEventCallback extends MMEventCallback {
          core_.logMessage("Notification from MMCore ignored", true);
       } else {
          // see OnPropertyChanged for reasons to run this on the EDT
-         SwingUtilities.invokeLater(() -> studio_.events().post(
-               new DefaultSLMExposureChangedEvent(deviceName, exposure)));
+         postLatestOnEDT(Arrays.asList("SLMExposure", deviceName),
+               new DefaultSLMExposureChangedEvent(deviceName, exposure));
+      }
+   }
+
+   /**
+    * Posts the event on the EDT, coalescing it with any event of the same key
+    * that is still waiting to be posted. A stream of stage position updates
+    * (e.g. from a joystick) thus results in at most one pending runnable per
+    * device, rather than one per callback, and listeners see the latest value.
+    *
+    * @param key identifies which events supersede each other
+    * @param event event to post
+    */
+   private void postLatestOnEDT(List<Object> key, Object event) {
+      if (pendingEvents_.put(key, event) == null) {
+         SwingUtilities.invokeLater(() -> {
+            Object latest = pendingEvents_.remove(key);
+            if (latest != null) {
+               studio_.events().post(latest);
+            }
+         });
       }
    }
 
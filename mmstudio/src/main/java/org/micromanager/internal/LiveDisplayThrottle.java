@@ -0,0 +1,70 @@
+package org.micromanager.internal;
+
+/**
+ * Closed-loop limit on the live mode display rate, based on the measured cost
+ * of displaying an image.
+ *
+ * <p>Displaying an image costs time on the EDT (scheduling the repaint and
+ * painting) and on the stats thread (histograms and autostretch). When
+ * images arrive faster than that work can be done, the EDT saturates and the
+ * whole GUI becomes unresponsive. This class computes the minimum interval
+ * between live mode grabs such that the EDT spends at most
+ * {@link #MAX_EDT_LOAD} of its time on the live display and the stats
+ * computation keeps up. The interval follows changes in the measured costs
+ * with a limited slew rate, so that a single slow paint does not cause a
+ * visible stutter.
+ *
+ * <p>Not thread-safe; updated from the live mode grab thread only. The
+ * current interval can be read from any thread.
+ */
+final class LiveDisplayThrottle {
+   // Fraction of EDT time that the live display may use
+   static final double MAX_EDT_LOAD = 0.5;
+   // Minimum time between adjustments, and maximum change per adjustment
+   private static final long ADJUSTMENT_INTERVAL_NS = 250000000L;
+   private static final double MAX_SLEW = 0.25;
+
+   private volatile double intervalMs_ = 0.0;
+   private long lastAdjustmentNs_ = -1;
+
+   /**
+    * Update the interval from the current cost estimates.
+    *
+    * @param edtCostMs   average EDT time spent per displayed image
+    * @param statsCostMs average time to compute the stats for an image
+    * @param nowNs       current System.nanoTime()
+    * @return the minimum interval between grabs, in ms
+    */
+   double update(double edtCostMs, double statsCostMs, long nowNs) {
+      if (lastAdjustmentNs_ >= 0
+            && nowNs - lastAdjustmentNs_ < ADJUSTMENT_INTERVAL_NS) {
+         return intervalMs_;
+      }
+      lastAdjustmentNs_ = nowNs;
+
+      double targetMs = Math.max(sanitize(edtCostMs) / MAX_EDT_LOAD,
+            sanitize(statsCostMs));
+      if (intervalMs_ > 0.0) {
+         targetMs = Math.max((1.0 - MAX_SLEW) * intervalMs_,
+               Math.min((1.0 + MAX_SLEW) * intervalMs_, targetMs));
+      }
+      intervalMs_ = targetMs;
+      return intervalMs_;
+   }
+
+   double getIntervalMs() {
+      return intervalMs_;
+   }
+
+   /**
+    * Forget the current interval, e.g. when live mode restarts.
+    */
+   void reset() {
+      intervalMs_ = 0.0;
+      lastAdjustmentNs_ = -1;
+   }
+
+   private static double sanitize(double ms) {
+      return Double.isNaN(ms) || ms < 0.0 ? 0.0 : ms;
+   }
+}
@@ -0,0 +1,261 @@
+package org.micromanager.internal;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import mmcorej.TaggedImage;
+import mmcorej.org.json.JSONObject;
+
+/**
+ * Byte-bounded ring buffer of the most recent live mode frames, so that the
+ * last few seconds of live mode can be turned into a dataset after the fact
+ * ("instant replay").
+ *
+ * <p>Frames are copied when they are recorded, because the images obtained
+ * from the Core share their pixel arrays with the live images, which image
+ * processors may modify in place. The ring, including a pixel array for each
+ * slot, is allocated once for the number of frames that fit in the byte
+ * budget, and only reallocated when the frame size or pixel type changes.
+ * Recording a frame copies its pixels into the slot of the frame it evicts.
+ * Taking the frames hands their pixel arrays over without copying them; the
+ * slots they leave empty are allocated again when they are next used.
+ *
+ * <p>All methods are thread-safe.
+ */
+final class LiveReplayBuffer {
+
+   /**
+    * A recorded frame.
+    */
+   static final class Frame {
+      private final TaggedImage tagged_;
+      private final int channel_;
+
+      private Frame(TaggedImage tagged, int channel) {
+         tagged_ = tagged;
+         channel_ = channel;
+      }
+
+      TaggedImage getTaggedImage() {
+         return tagged_;
+      }
+
+      int getChannel() {
+         return channel_;
+      }
+   }
+
+   // Guarded by monitor on this
+   private long maxBytes_ = 0;
+   private Object[] pixels_ = null;
+   private JSONObject[] tags_ = null;
+   private int[] channels_ = null;
+   private long frameBytes_ = 0;
+   private Class<?> pixelType_ = null;
+   private int oldest_ = 0;
+   private int size_ = 0;
+   private long bytesUsed_ = 0;
+   private final Map<Integer, Long> lastImageNumber_ = new HashMap<>();
+   private long framesRecorded_ = 0;
+   private long framesDropped_ = 0;
+
+   /**
+    * Set the maximum amount of pixel data to keep. Discards all frames.
+    *
+    * @param maxBytes byte budget; 0 disables recording
+    */
+   synchronized void setMaxBytes(long maxBytes) {
+      maxBytes_ = Math.max(0, maxBytes);
+      pixels_ = null;
+      tags_ = null;
+      channels_ = null;
+      clear();
+   }
+
+   synchronized long getMaxBytes() {
+      return maxBytes_;
+   }
+
+   synchronized boolean isEnabled() {
+      return maxBytes_ > 0;
+   }
+
+   /**
+    * Number of frames the ring can hold, or 0 if not yet known (no frame of
+    * the current size has been recorded).
+    */
+   synchronized int getCapacity() {
+      return pixels_ == null ? 0 : pixels_.length;
+   }
+
+   /**
+    * Whether a frame with this image number would be newer than the last one
+    * recorded for its channel.
+    */
+   synchronized boolean isNewer(int channel, long imageNumber) {
+      Long last = lastImageNumber_.get(channel);
+      return last == null || imageNumber > last;
+   }
+
+   /**
+    * Forget the image numbers seen so far, e.g. because the sequence
+    * acquisition was restarted and numbering starts over. Frames are kept.
+    */
+   synchronized void resetImageNumbers() {
+      lastImageNumber_.clear();
+   }
+
+   /**
+    * Record a copy of a frame, evicting the oldest frames if needed.
+    *
+    * @param tagged      frame as obtained from the Core
+    * @param channel     camera channel index
+    * @param imageNumber sequence number of the frame, or null if unknown
+    * @return false if the frame was not recorded, because recording is
+    *         disabled, the pixel type is not supported, or a frame with the
+    *         same or a later image number was already recorded for the channel
+    */
+   synchronized boolean add(TaggedImage tagged, int channel, Long imageNumber) {
+      if (maxBytes_ <= 0) {
+         return false;
+      }
+      long bytes = byteSize(tagged.pix);
+      if (bytes <= 0) {
+         return false;
+      }
+      if (imageNumber != null && !isNewer(channel, imageNumber)) {
+         return false;
+      }
+      if (pixels_ == null || bytes != frameBytes_
+            || tagged.pix.getClass() != pixelType_) {
+         frameBytes_ = bytes;
+         pixelType_ = tagged.pix.getClass();
+         int capacity = (int) Math.max(1,
+               Math.min(Integer.MAX_VALUE - 8, maxBytes_ / Math.max(1, bytes)));
+         pixels_ = new Object[capacity];
+         for (int i = 0; i < capacity; ++i) {
+            pixels_[i] = newPixels(tagged.pix);
+         }
+         tags_ = new JSONObject[capacity];
+         channels_ = new int[capacity];
+         oldest_ = 0;
+         size_ = 0;
+         bytesUsed_ = 0;
+      }
+
+      if (imageNumber != null) {
+         Long last = lastImageNumber_.get(channel);
+         if (last != null && imageNumber > last + 1) {
+            // Frames that left the Core's sequence buffer before we got them
+            framesDropped_ += imageNumber - last - 1;
+         }
+         lastImageNumber_.put(channel, imageNumber);
+      }
+
+      if (size_ == pixels_.length) {
+         // Evict the oldest frame; its slot is reused below
+         oldest_ = (oldest_ + 1) % pixels_.length;
+         size_--;
+         bytesUsed_ -= frameBytes_;
+      }
+      int slot = (oldest_ + size_) % pixels_.length;
+      if (pixels_[slot] == null) {
+         pixels_[slot] = newPixels(tagged.pix);
+      }
+      System.arraycopy(tagged.pix, 0, pixels_[slot], 0,
+            Array.getLength(tagged.pix));
+      tags_[slot] = tagged.tags;
+      channels_[slot] = channel;
+      size_++;
+      bytesUsed_ += frameBytes_;
+      framesRecorded_++;
+      return true;
+   }
+
+   /**
+    * Remove the buffered frames from the buffer and return them, oldest
+    * first. The frames keep the pixel arrays they were recorded into, which
+    * the buffer no longer uses. The statistics are kept.
+    */
+   synchronized List<Frame> takeFrames() {
+      List<Frame> ret = new ArrayList<>(size_);
+      for (int i = 0; i < size_; ++i) {
+         int slot = (oldest_ + i) % pixels_.length;
+         ret.add(new Frame(new TaggedImage(pixels_[slot], tags_[slot]),
+               channels_[slot]));
+         pixels_[slot] = null;
+         tags_[slot] = null;
+      }
+      oldest_ = 0;
+      size_ = 0;
+      bytesUsed_ = 0;
+      return ret;
+   }
+
+   /**
+    * Discard all frames and reset the statistics. The ring is kept.
+    */
+   synchronized void clear() {
+      if (tags_ != null) {
+         Arrays.fill(tags_, null);
+      }
+      oldest_ = 0;
+      size_ = 0;
+      bytesUsed_ = 0;
+      lastImageNumber_.clear();
+      framesRecorded_ = 0;
+      framesDropped_ = 0;
+   }
+
+   synchronized int getNumFrames() {
+      return size_;
+   }
+
+   synchronized long getBytesUsed() {
+      return bytesUsed_;
+   }
+
+   /**
+    * Fill level of the buffer, in percent of the byte budget.
+    */
+   synchronized double getFillPercent() {
+      return maxBytes_ <= 0 ? 0.0 : 100.0 * bytesUsed_ / maxBytes_;
+   }
+
+   synchronized long getFramesRecorded() {
+      return framesRecorded_;
+   }
+
+   /**
+    * Number of frames that were never recorded because they had already left
+    * the Core's sequence buffer, based on gaps in the image numbers.
+    */
+   synchronized long getFramesDropped() {
+      return framesDropped_;
+   }
+
+   /**
+    * @return the size of the pixel array in bytes, or 0 if the pixel type is
+    *         not supported
+    */
+   private static long byteSize(Object pix) {
+      if (pix instanceof byte[]) {
+         return ((byte[]) pix).length;
+      } else if (pix instanceof short[]) {
+         return 2L * ((short[]) pix).length;
+      } else if (pix instanceof int[]) {
+         return 4L * ((int[]) pix).length;
+      } else if (pix instanceof float[]) {
+         return 4L * ((float[]) pix).length;
+      }
+      return 0;
+   }
+
+   private static Object newPixels(Object pix) {
+      return Array.newInstance(pix.getClass().getComponentType(),
+            Array.getLength(pix));
+   }
+}
@@ -22,20 +22,20 @@ import java.awt.Dimension;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CancellationException;
+import java.util.TreeMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import javax.swing.JButton;
 import javax.swing.JComponent;
+import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 import mmcorej.CMMCore;
 import mmcorej.TaggedImage;
@@ -43,6 +43,7 @@ import mmcorej.org.json.JSONException;
 import mmcorej.org.json.JSONObject;
 import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
+import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.DatastoreRewriteException;
 import org.micromanager.data.Image;
@@ -50,6 +51,7 @@ import org.micromanager.data.Metadata;
 import org.micromanager.data.NewPipelineEvent;
 import org.micromanager.data.Pipeline;
 import org.micromanager.data.PipelineErrorException;
+import org.micromanager.data.SummaryMetadata;
 import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.data.internal.DefaultRewritableDatastore;
 import org.micromanager.data.internal.PropertyKey;
@@ -94,6 +96,14 @@ public final class SnapLiveManager extends DataViewerListener
    // skipped.
    private static final double DISPLAY_INTERVAL_ESTIMATE_Q = 0.25;
 
+   // How far back (in multiples of the number of camera channels) to look in
+   // the sequence buffer for the newest image of each camera channel. In
+   // multi-camera setups, one camera could be generating images faster than
+   // the other(s).
+   private static final int MAX_SCAN_PER_CAMERA_CHANNEL = 6;
+   // Profile key for the size of the live replay buffer (0 = off)
+   private static final String REPLAY_BUFFER_MB = "replay buffer size (MB)";
+
    private final MMStudio mmStudio_;
    private final CMMCore core_;
    private final UiMovesStageManager uiMovesStageManager_;
@@ -109,6 +119,14 @@ public final class SnapLiveManager extends DataViewerListener
 
    private final List<DefaultImage> lastImageForEachChannel_ = new ArrayList<>();
 
+   // Images grabbed in live mode that are waiting to be displayed, by camera
+   // channel. Newer images replace older ones that the EDT has not picked up
+   // yet, so that the grabber never waits for (or floods) the EDT.
+   // Guarded by monitor on pendingLiveImages_
+   private final Map<Integer, Image> pendingLiveImages_ = new TreeMap<>();
+   // Guarded by monitor on pendingLiveImages_
+   private boolean liveDisplayUpdateScheduled_ = false;
+
    private final ScheduledExecutorService scheduler_ =
          Executors.newSingleThreadScheduledExecutor(
                ThreadFactoryFactory.createThreadFactory("SnapLiveManager"));
@@ -134,6 +152,12 @@ public final class SnapLiveManager extends DataViewerListener
    private DisplayInfo displayInfo_;
    private final Object displayInfoLock_;
 
+   // Only accessed from the grab thread
+   private final LiveDisplayThrottle displayThrottle_ = new LiveDisplayThrottle();
+
+   private final LiveReplayBuffer replayBuffer_ = new LiveReplayBuffer();
+   private boolean replayBufferSizeLoaded_ = false;
+
    private class DisplayInfo {
       private int width_;
       private int height_;
@@ -288,12 +312,20 @@ public final class SnapLiveManager extends DataViewerListener
             }
          }
       }
+      if (!replayBufferSizeLoaded_) {
+         replayBufferSizeLoaded_ = true;
+         replayBuffer_.setMaxBytes(1024L * 1024L * mmStudio_.profile()
+               .getSettings(SnapLiveManager.class).getLong(REPLAY_BUFFER_MB, 0L));
+      }
+      // Image numbers start over with the new sequence acquisition
+      replayBuffer_.resetImageNumbers();
 
       if (display_ != null) {
          display_.resetDisplayIntervalEstimate();
       }
 
       synchronized (this) {
+         displayThrottle_.reset();
          includeSystemStateCache_ = core_.getIncludeSystemStateCache();
          core_.setIncludeSystemStateCache(false);
          final long liveModeCount = ++liveModeStartCount_;
@@ -313,16 +345,25 @@ public final class SnapLiveManager extends DataViewerListener
 
                // Choose an interval within the absolute bounds, and at least as
                // long as the exposure. Within that range, try to match the
-               // actual frequency at which the images are getting displayed.
+               // actual frequency at which the images are getting displayed,
+               // and do not grab faster than we can render without
+               // saturating the EDT.
 
                double displayIntervalLowQuantileMs;
-               if (display_ != null) {
+               double throttleIntervalMs;
+               DisplayController display = display_;
+               if (display != null) {
                   displayIntervalLowQuantileMs =
-                        display_.getDisplayIntervalQuantile(
+                        display.getDisplayIntervalQuantile(
                               DISPLAY_INTERVAL_ESTIMATE_Q);
+                  throttleIntervalMs = displayThrottle_.update(
+                        display.getRenderCostMs(), display.getStatsCostMs(),
+                        System.nanoTime());
                } else {
                   displayIntervalLowQuantileMs = 0.0;
+                  throttleIntervalMs = 0.0;
                }
+               perfMon_.sample("Display throttle interval (ms)", throttleIntervalMs);
 
                long delayMs;
                synchronized (SnapLiveManager.this) {
@@ -331,7 +372,7 @@ public final class SnapLiveManager extends DataViewerListener
                      return;
                   }
                   delayMs = computeGrabDelayMs(exposureMs,
-                        displayIntervalLowQuantileMs,
+                        Math.max(displayIntervalLowQuantileMs, throttleIntervalMs),
                         -scheduledGrab_.getDelay(TimeUnit.MILLISECONDS));
                   scheduledGrab_ = scheduler_.schedule(this,
                         delayMs, TimeUnit.MILLISECONDS);
@@ -378,6 +419,12 @@ public final class SnapLiveManager extends DataViewerListener
          if (scheduledGrab_ != null) {
             scheduledGrab_.cancel(false);
             scheduledGrab_ = null;
+            mmStudio_.logs().logDebugMessage(String.format(
+                  "Live mode stopped; images were inserted every %.1f ms on average, "
+                        + "display throttle interval was %.1f ms, %s",
+                  perfMon_.getIntervalAverageMs("Image inserted in pipeline"),
+                  displayThrottle_.getIntervalMs(),
+                  mmStudio_.data().getPixelBufferPool()));
          }
       }
 
@@ -398,75 +445,210 @@ public final class SnapLiveManager extends DataViewerListener
    /**
     * This method takes images out of the Core and inserts them into our
     * pipeline.
+    *
+    * <p>The sequence buffer is scanned once, newest image first, keeping only
+    * the most recent image of each camera channel. Only images that have not
+    * been displayed yet are converted to Images, and they are handed to the
+    * EDT as one batch without waiting for it to be displayed.
     */
    private void grabAndAddImages(String camName, final long liveModeCount) {
+      final int numChannels = numCameraChannels_;
+      if (numChannels <= 0) {
+         return;
+      }
+      TaggedImage[] newest = new TaggedImage[numChannels];
+      final boolean recording = replayBuffer_.isEnabled();
+      final List<TaggedImage> toRecord = new ArrayList<>();
+      final List<Integer> toRecordChannels = new ArrayList<>();
+      final int numFound;
       try {
-         // We scan over 2*numCameraChannels here because, in multi-camera
-         // setups, one camera could be generating images faster than the
-         // other(s). Of course, 2x isn't guaranteed to be enough here, either,
-         // but it's what we've historically used.
-         HashSet<Integer> channelsSet = new HashSet<>();
-         for (int c = 0; c < 6 * numCameraChannels_; ++c) {
-            TaggedImage tagged;
-            try {
-               tagged = core_.getNBeforeLastTaggedImage(c);
-               perfMon_.sampleTimeInterval("getNBeforeLastTaggedImage");
-               perfMon_.sample("No image in sequence buffer (%)", 0.0);
-            } catch (Exception e) {
-               // No image in the sequence buffer.
-               perfMon_.sample("No image in sequence buffer (%)", 100.0);
-               continue;
-            }
-            JSONObject tags = tagged.tags;
-            int imageChannel = c;
-            if ((numCameraChannels_ > 1) && tags.has(camName + "-CameraChannelIndex")) {
-               imageChannel = tags.getInt(camName + "-CameraChannelIndex");
-            }
-            if (channelsSet.contains(imageChannel)) {
-               // Already provided a more recent version of this channel.
-               continue;
+         numFound = scanSequenceBuffer(core_::getNBeforeLastTaggedImage,
+               camName + "-CameraChannelIndex", replayBuffer_, perfMon_,
+               newest, toRecord, toRecordChannels);
+      } catch (JSONException e) {
+         ReportingUtils.logError(e, "Exception in image grabber thread.");
+         return;
+      }
+      perfMon_.sample("Camera channels grabbed per scan", numFound);
+      if (recording) {
+         // Record oldest first
+         int numRecorded = 0;
+         for (int i = toRecord.size() - 1; i >= 0; --i) {
+            if (replayBuffer_.add(toRecord.get(i), toRecordChannels.get(i),
+                  getImageNumber(toRecord.get(i)))) {
+               numRecorded++;
             }
-            DefaultImage image = new DefaultImage(tagged);
-            final Long seqNr = image.getMetadata().getImageNumber();
-            perfMon_.sample("Image missing ImageNumber (%)",
-                  seqNr == null ? 100.0 : 0.0);
-            Coords newCoords = image.getCoords().copyBuilder()
-                  .t(0)
-                  .c(imageChannel).build();
-            // Generate a new UUID for the image, so that our histogram
-            // update code realizes this is a new image.
-            Metadata newMetadata = image.getMetadata().copyBuilderWithNewUUID()
-                  .build();
-            final Image newImage = image.copyWith(newCoords, newMetadata);
+         }
+         perfMon_.sample("Replay frames recorded per scan", numRecorded);
+         perfMon_.sample("Replay buffer fill (%)", replayBuffer_.getFillPercent());
+         perfMon_.sample("Replay frames dropped (total)",
+               replayBuffer_.getFramesDropped());
+      }
 
-            try {
-               SwingUtilities.invokeAndWait(() -> {
-                  synchronized (SnapLiveManager.this) {
-                     if (scheduledGrab_ == null
-                           || liveModeStartCount_ != liveModeCount) {
-                        throw new CancellationException();
-                     }
-                  }
-                  displayImage(newImage);
-               });
-
-            } catch (InterruptedException unexpected) {
-               Thread.currentThread().interrupt();
-            } catch (InvocationTargetException e) {
-               if (e.getCause() instanceof CancellationException) {
-                  return;
+      List<Image> newImages = new ArrayList<>(numFound);
+      for (int c = 0; c < numChannels; ++c) {
+         if (newest[c] == null) {
+            continue;
+         }
+         Long seqNr = getImageNumber(newest[c]);
+         perfMon_.sample("Image missing ImageNumber (%)",
+               seqNr == null ? 100.0 : 0.0);
+         if (seqNr != null) {
+            synchronized (displayInfoLock_) {
+               if (displayInfo_ != null
+                     && seqNr.equals(displayInfo_.getImageNr(c))) {
+                  // Already displayed; don't bother converting it.
+                  perfMon_.sample("Image skipped before conversion (%)", 100.0);
+                  continue;
                }
-               throw new RuntimeException(e.getCause());
             }
-            channelsSet.add(imageChannel);
-            if (channelsSet.size() == numCameraChannels_) {
-               // Got every channel.
-               break;
+         }
+         perfMon_.sample("Image skipped before conversion (%)", 0.0);
+         DefaultImage image = new DefaultImage(newest[c]);
+         Coords newCoords = image.getCoords().copyBuilder()
+               .t(0)
+               .c(c).build();
+         // Generate a new UUID for the image, so that our histogram
+         // update code realizes this is a new image.
+         Metadata newMetadata = image.getMetadata().copyBuilderWithNewUUID()
+               .build();
+         newImages.add(image.copyWith(newCoords, newMetadata));
+      }
+      if (!newImages.isEmpty()) {
+         submitLiveImages(newImages, liveModeCount);
+      }
+   }
+
+   /**
+    * Access to the images in the Core's sequence buffer.
+    */
+   interface SequenceBuffer {
+      /**
+       * @param n 0 for the newest image, 1 for the one before, etc.
+       * @throws Exception if there is no such image
+       */
+      TaggedImage getNBeforeLast(int n) throws Exception;
+   }
+
+   /**
+    * Scan the sequence buffer once, newest image first, for the most recent
+    * image of each camera channel. When the replay buffer is recording, the
+    * scan continues until it reaches, for each channel, the last frame
+    * already recorded (or the end of the buffer), and the frames not yet
+    * recorded are collected, newest first.
+    *
+    * @param buffer           the sequence buffer
+    * @param channelIndexTag  tag holding the camera channel index of an image
+    *                         in multi-camera setups
+    * @param replayBuffer     the replay buffer
+    * @param perfMon          performance monitor to sample
+    * @param newest           receives the newest image of each channel; its
+    *                         length is the number of camera channels
+    * @param toRecord         receives the frames to record
+    * @param toRecordChannels receives the channel of each frame to record
+    * @return the number of camera channels for which an image was found
+    * @throws JSONException if the channel index tag cannot be read
+    */
+   static int scanSequenceBuffer(SequenceBuffer buffer, String channelIndexTag,
+                                 LiveReplayBuffer replayBuffer, PerformanceMonitor perfMon,
+                                 TaggedImage[] newest, List<TaggedImage> toRecord,
+                                 List<Integer> toRecordChannels) throws JSONException {
+      final int numChannels = newest.length;
+      final boolean recording = replayBuffer.isEnabled();
+      boolean[] caughtUp = new boolean[numChannels];
+      int numCaughtUp = recording ? 0 : numChannels;
+      int numFound = 0;
+      final int maxScan = Math.max(MAX_SCAN_PER_CAMERA_CHANNEL * numChannels,
+            recording ? replayBuffer.getCapacity() : 0);
+      for (int n = 0; n < maxScan
+            && (numFound < numChannels || numCaughtUp < numChannels); ++n) {
+         TaggedImage tagged;
+         try {
+            tagged = buffer.getNBeforeLast(n);
+            perfMon.sampleTimeInterval("getNBeforeLastTaggedImage");
+            perfMon.sample("No image in sequence buffer (%)", 0.0);
+         } catch (Exception e) {
+            // No (more) images in the sequence buffer.
+            if (n == 0) {
+               perfMon.sample("No image in sequence buffer (%)", 100.0);
             }
+            break;
+         }
+         int imageChannel = 0;
+         if (numChannels > 1) {
+            // Without the tag, assume the cameras take turns
+            imageChannel = tagged.tags.has(channelIndexTag)
+                  ? tagged.tags.getInt(channelIndexTag) : n % numChannels;
+         }
+         if (imageChannel < 0 || imageChannel >= numChannels) {
+            continue;
+         }
+         if (recording && !caughtUp[imageChannel]) {
+            Long seqNr = getImageNumber(tagged);
+            if (seqNr == null || !replayBuffer.isNewer(imageChannel, seqNr)) {
+               caughtUp[imageChannel] = true;
+               numCaughtUp++;
+            }
+            if (seqNr == null ? newest[imageChannel] == null
+                  : replayBuffer.isNewer(imageChannel, seqNr)) {
+               toRecord.add(tagged);
+               toRecordChannels.add(imageChannel);
+            }
+         }
+         if (newest[imageChannel] != null) {
+            // Already have a more recent version of this channel.
+            continue;
+         }
+         newest[imageChannel] = tagged;
+         numFound++;
+      }
+      return numFound;
+   }
+
+   private static Long getImageNumber(TaggedImage tagged) {
+      try {
+         if (tagged.tags.has(PropertyKey.IMAGE_NUMBER.key())) {
+            return tagged.tags.getLong(PropertyKey.IMAGE_NUMBER.key());
          }
       } catch (JSONException e) {
-         ReportingUtils.logError(e, "Exception in image grabber thread.");
+         // Treat as missing
       }
+      return null;
+   }
+
+   /**
+    * Hand newly grabbed images to the EDT for display, replacing any images of
+    * the same channels that are still waiting to be displayed.
+    */
+   private void submitLiveImages(List<Image> images, final long liveModeCount) {
+      synchronized (pendingLiveImages_) {
+         for (Image image : images) {
+            if (pendingLiveImages_.put(image.getCoords().getChannel(), image) != null) {
+               perfMon_.sample("Grabbed image superseded before display (%)", 100.0);
+            } else {
+               perfMon_.sample("Grabbed image superseded before display (%)", 0.0);
+            }
+         }
+         if (liveDisplayUpdateScheduled_) {
+            return;
+         }
+         liveDisplayUpdateScheduled_ = true;
+      }
+      SwingUtilities.invokeLater(() -> {
+         List<Image> toDisplay;
+         synchronized (pendingLiveImages_) {
+            toDisplay = new ArrayList<>(pendingLiveImages_.values());
+            pendingLiveImages_.clear();
+            liveDisplayUpdateScheduled_ = false;
+         }
+         synchronized (SnapLiveManager.this) {
+            if (scheduledGrab_ == null
+                  || liveModeStartCount_ != liveModeCount) {
+               return;
+            }
+         }
+         displayImagesOnEDT(toDisplay);
+      });
    }
 
    @Override
@@ -474,6 +656,70 @@ public final class SnapLiveManager extends DataViewerListener
       return isLiveOn_;
    }
 
+   /**
+    * Set the size of the live replay buffer, which keeps the most recent
+    * live mode frames so that they can be turned into a dataset with
+    * {@link #commitReplayBuffer()}. Discards the frames currently buffered.
+    *
+    * @param sizeMB amount of pixel data to keep; 0 turns recording off
+    */
+   public void setReplayBufferSizeMB(long sizeMB) {
+      sizeMB = Math.max(0, sizeMB);
+      replayBufferSizeLoaded_ = true;
+      mmStudio_.profile().getSettings(SnapLiveManager.class)
+            .putLong(REPLAY_BUFFER_MB, sizeMB);
+      replayBuffer_.setMaxBytes(1024L * 1024L * sizeMB);
+   }
+
+   public long getReplayBufferSizeMB() {
+      if (!replayBufferSizeLoaded_) {
+         return mmStudio_.profile().getSettings(SnapLiveManager.class)
+               .getLong(REPLAY_BUFFER_MB, 0L);
+      }
+      return replayBuffer_.getMaxBytes() / (1024L * 1024L);
+   }
+
+   /**
+    * Turn the frames currently in the live replay buffer into a new
+    * (frozen, RAM-backed) dataset and display it. The replay buffer hands
+    * its pixel buffers over to the new images; nothing is copied. The replay
+    * buffer is emptied.
+    *
+    * @return the new Datastore, or null if the buffer held no frames
+    * @throws IOException if the images could not be added to the Datastore
+    */
+   public Datastore commitReplayBuffer() throws IOException {
+      List<LiveReplayBuffer.Frame> frames = replayBuffer_.takeFrames();
+      long dropped = replayBuffer_.getFramesDropped();
+      replayBuffer_.clear();
+      if (frames.isEmpty()) {
+         return null;
+      }
+      Datastore store = mmStudio_.data().createRAMDatastore();
+      SummaryMetadata liveSummary = store_ != null ? store_.getSummaryMetadata() : null;
+      SummaryMetadata.Builder summary = liveSummary != null
+            ? liveSummary.copyBuilder() : mmStudio_.data().summaryMetadataBuilder();
+      summary.axisOrder(Coords.T, Coords.C, Coords.Z, Coords.P);
+      store.setSummaryMetadata(summary.build());
+      store.setName("Live replay");
+      Map<Integer, Integer> nextFrameIndex = new HashMap<>();
+      for (LiveReplayBuffer.Frame frame : frames) {
+         int channel = frame.getChannel();
+         Integer t = nextFrameIndex.get(channel);
+         t = t == null ? 0 : t;
+         nextFrameIndex.put(channel, t + 1);
+         Image image = new DefaultImage(frame.getTaggedImage());
+         store.putImage(image.copyAtCoords(image.getCoords().copyBuilder()
+               .t(t).c(channel).build()));
+      }
+      store.freeze();
+      mmStudio_.logs().logMessage("Live replay: committed " + frames.size()
+            + " frames (" + dropped + " frames missed while recording)");
+      mmStudio_.displays().manage(store);
+      mmStudio_.displays().createDisplay(store);
+      return store;
+   }
+
    /**
     * [re]create the Datastore and its backing storage.
     */
@@ -630,6 +876,39 @@ public final class SnapLiveManager extends DataViewerListener
          }
       });
       controls.add(toAlbumButton);
+
+      final JButton replayButton = new JButton("Replay",
+            IconLoader.getIcon("/org/micromanager/icons/film.png"));
+      replayButton.setToolTipText("Create a dataset from the most recent live mode "
+            + "frames (sets up the replay buffer if it is not enabled yet)");
+      replayButton.setPreferredSize(buttonSize);
+      replayButton.setMinimumSize(buttonSize);
+      replayButton.setFont(GUIUtils.buttonFont);
+      replayButton.setMargin(zeroInsets);
+      replayButton.addActionListener((ActionEvent event) -> {
+         if (getReplayBufferSizeMB() <= 0) {
+            String answer = JOptionPane.showInputDialog(replayButton,
+                  "Amount of memory (MB) to use to keep recent live mode frames:",
+                  "1000");
+            if (answer == null) {
+               return;
+            }
+            try {
+               setReplayBufferSizeMB(Long.parseLong(answer.trim()));
+            } catch (NumberFormatException e) {
+               ReportingUtils.showError("Not a valid size: " + answer);
+            }
+            return;
+         }
+         try {
+            if (commitReplayBuffer() == null) {
+               ReportingUtils.showMessage("No live mode frames have been recorded yet.");
+            }
+         } catch (IOException e) {
+            ReportingUtils.showError(e, "There was an error creating the replay dataset");
+         }
+      });
+      controls.add(replayButton);
       return controls;
    }
 
@@ -650,6 +929,17 @@ public final class SnapLiveManager extends DataViewerListener
          return;
       }
 
+      displayImagesOnEDT(Collections.singletonList(image));
+   }
+
+   /**
+    * Display the provided images (at most one per channel), checking the
+    * channel names and display only once for the whole batch.
+    *
+    * @param images Images to be displayed
+    */
+   @MustCallOnEDT
+   private void displayImagesOnEDT(List<Image> images) {
       boolean shouldReset = shouldForceReset_;
       if (store_ != null && !store_.isFrozen()) {
          List<String> channelNames = store_.getSummaryMetadata().getChannelNameList();
@@ -686,6 +976,21 @@ public final class SnapLiveManager extends DataViewerListener
          }
       }
 
+      for (Image image : images) {
+         shouldReset = insertImageOnEDT(image, shouldReset);
+      }
+   }
+
+   /**
+    * Insert one image into the pipeline, recreating datastore and display
+    * first if needed.
+    *
+    * @param image       Image to be displayed
+    * @param shouldReset whether datastore and display need to be recreated
+    * @return whether datastore and display still need to be recreated
+    */
+   @MustCallOnEDT
+   private boolean insertImageOnEDT(Image image, boolean shouldReset) {
       try {
          DefaultImage newImage = new DefaultImage(image, image.getCoords(),
                mmStudio_.acquisitions().generateMetadata(image, true));
@@ -712,7 +1017,7 @@ public final class SnapLiveManager extends DataViewerListener
                if (Objects.equals(prevSeqNr, newSeqNr)) {
                   perfMon_.sample(
                         "Image rejected based on ImageNumber (%)", 100.0);
-                  return; // Already displayed this image
+                  return shouldReset; // Already displayed this image
                }
                perfMon_.sample("Frames dropped at sequence buffer exit (%)",
                      100.0 * (newSeqNr - prevSeqNr - 1) / (newSeqNr - prevSeqNr));
@@ -722,6 +1027,7 @@ public final class SnapLiveManager extends DataViewerListener
 
          if (shouldReset) {
             createOrResetDatastoreAndDisplay();
+            shouldReset = false;
          } else if (display_ == null || display_.isClosed()) {
             // Check for display having been closed on us by the user.
             createDisplay();
@@ -775,11 +1081,13 @@ public final class SnapLiveManager extends DataViewerListener
          // Datastore has been frozen (presumably the user saved a snapped
          // image); replace it.
          createOrResetDatastoreAndDisplay();
-         displayImage(image);
+         displayImagesOnEDT(Collections.singletonList(image));
+         return false;
       } catch (Exception e) {
          // Error getting metadata from the system state cache.
          mmStudio_.logs().logError(e, "Error drawing image in snap/live view");
       }
+      return shouldReset;
    }
 
    @MustCallOnEDT
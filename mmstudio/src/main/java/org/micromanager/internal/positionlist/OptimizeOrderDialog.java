@@ -0,0 +1,145 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+
+//LICENSE:      This file is distributed under the BSD license.
+//License text is included with the source distribution.
+
+//This file is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty
+//of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.internal.positionlist;
+
+import java.awt.Toolkit;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JTextField;
+import net.miginfocom.swing.MigLayout;
+import org.micromanager.UserProfile;
+import org.micromanager.internal.positionlist.utils.PositionOrderOptimizer;
+import org.micromanager.internal.utils.WindowPositioning;
+import org.micromanager.propertymap.MutablePropertyMapView;
+
+/**
+ * Dialog with the stage model used to find a faster order of the positions.
+ * Ultimately it calls PositionListDlg.optimizeOrder.
+ */
+class OptimizeOrderDialog extends JDialog {
+
+   private final PositionListDlg parent_;
+   private final MutablePropertyMapView settings_;
+
+   public OptimizeOrderDialog(PositionListDlg parent, UserProfile profile) {
+      super();
+
+      parent_ = parent;
+      settings_ = profile.getSettings(PositionOrderOptimizer.class);
+      // Fills in the defaults of values that were never stored
+      final PositionOrderOptimizer defaults = PositionOrderOptimizer.fromProfile(profile);
+      final PositionOrderOptimizer.AxisModel zDefaults = defaults.getZModel() != null
+            ? defaults.getZModel() : new PositionOrderOptimizer.AxisModel(1000.0, 10000.0, 20.0);
+
+      super.setIconImage(Toolkit.getDefaultToolkit().getImage(
+            getClass().getResource("/org/micromanager/icons/microscope.gif")));
+      super.setLocationRelativeTo(parent);
+      WindowPositioning.setUpLocationMemory(this, this.getClass(), null);
+
+      setTitle("Optimize position order");
+      setResizable(false);
+      setModal(true);
+      setLayout(new MigLayout("flowx"));
+
+      add(new JLabel("<html><p>Reorder the positions so that the stage spends less "
+            + "time moving,<br>based on the speed of the stages below.</p></html>"),
+            "span 4, wrap");
+
+      add(new JLabel(""));
+      add(new JLabel("Speed (\u00b5m/s)"));
+      add(new JLabel("Acceleration (\u00b5m/s\u00b2)"));
+      add(new JLabel("Settle time (ms)"), "wrap");
+
+      add(new JLabel("XY stage:"));
+      final JTextField xySpeed = field(defaults.getXYModel().getSpeed());
+      final JTextField xyAcceleration = field(defaults.getXYModel().getAcceleration());
+      final JTextField xySettle = field(defaults.getXYModel().getSettleMs());
+      add(xySpeed, "growx");
+      add(xyAcceleration, "growx");
+      add(xySettle, "growx, wrap");
+
+      add(new JLabel("Z stage:"));
+      final JTextField zSpeed = field(zDefaults.getSpeed());
+      final JTextField zAcceleration = field(zDefaults.getAcceleration());
+      final JTextField zSettle = field(zDefaults.getSettleMs());
+      add(zSpeed, "growx");
+      add(zAcceleration, "growx");
+      add(zSettle, "growx, wrap");
+
+      final JCheckBox includeZ = new JCheckBox("Include Z moves",
+            defaults.getZModel() != null);
+      includeZ.setToolTipText("Also count the time the default Z stage takes to move");
+      add(includeZ, "span 4, wrap");
+      final JCheckBox keepGroups = new JCheckBox("Keep grids and wells together",
+            settings_.getBoolean(PositionOrderOptimizer.KEEP_GROUPS, true));
+      keepGroups.setToolTipText("Visit all positions of a grid or well (positions whose "
+            + "labels only differ after the last \"-\") before moving on");
+      add(keepGroups, "span 4, wrap");
+
+      JButton okButton = new JButton("OK");
+      okButton.addActionListener(event -> {
+         settings_.putDouble(PositionOrderOptimizer.XY_SPEED,
+               parse(xySpeed, defaults.getXYModel().getSpeed(), false));
+         settings_.putDouble(PositionOrderOptimizer.XY_ACCELERATION,
+               parse(xyAcceleration, defaults.getXYModel().getAcceleration(), true));
+         settings_.putDouble(PositionOrderOptimizer.XY_SETTLE_MS,
+               parse(xySettle, defaults.getXYModel().getSettleMs(), true));
+         settings_.putDouble(PositionOrderOptimizer.Z_SPEED,
+               parse(zSpeed, zDefaults.getSpeed(), false));
+         settings_.putDouble(PositionOrderOptimizer.Z_ACCELERATION,
+               parse(zAcceleration, zDefaults.getAcceleration(), true));
+         settings_.putDouble(PositionOrderOptimizer.Z_SETTLE_MS,
+               parse(zSettle, zDefaults.getSettleMs(), true));
+         settings_.putBoolean(PositionOrderOptimizer.INCLUDE_Z, includeZ.isSelected());
+         settings_.putBoolean(PositionOrderOptimizer.KEEP_GROUPS, keepGroups.isSelected());
+         dispose();
+         parent_.optimizeOrder(PositionOrderOptimizer.fromProfile(profile));
+      });
+
+      getRootPane().setDefaultButton(okButton);
+      add(okButton, "tag ok, span 4, split");
+
+      JButton cancelButton = new JButton("Cancel");
+      cancelButton.addActionListener(event -> dispose());
+      add(cancelButton, "tag cancel, wrap");
+
+      pack();
+      setVisible(true);
+   }
+
+   private static JTextField field(double value) {
+      JTextField field = new JTextField(6);
+      field.setText(String.valueOf(value));
+      return field;
+   }
+
+   /**
+    * @return the value of the field, or the default if it is not a positive
+    *         number (or zero, if allowed)
+    */
+   private static double parse(JTextField field, double aDefault, boolean allowZero) {
+      try {
+         double value = Double.parseDouble(field.getText().trim());
+         return value > 0.0 || (allowZero && value == 0.0) ? value : aDefault;
+      } catch (NumberFormatException e) {
+         // Invalid format; keep the previous value.
+         return aDefault;
+      }
+   }
+}
@@ -24,6 +24,7 @@ package org.micromanager.internal.positionlist;
 
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
+import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Insets;
@@ -62,6 +63,7 @@ import org.micromanager.display.internal.event.DataViewerWillCloseEvent;
 import org.micromanager.events.StagePositionChangedEvent;
 import org.micromanager.events.XYStagePositionChangedEvent;
 import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.positionlist.utils.PositionOrderOptimizer;
 import org.micromanager.internal.utils.DaytimeNighttime;
 import org.micromanager.internal.utils.EventBusExceptionLogger;
 import org.micromanager.internal.utils.FileDialogs;
@@ -304,6 +306,15 @@ public class PositionListDlg extends JFrame implements MouseListener, ChangeList
       offsetButton.setToolTipText("Add an offset to the selected positions.");
       add(offsetButton);
 
+      final JButton optimizeButton = posListButton(buttonSize, arialSmallFont_);
+      optimizeButton.addActionListener(arg0 -> new OptimizeOrderDialog(this, profile));
+      optimizeButton.setIcon(new ImageIcon(MMStudio.class.getResource(
+            "/org/micromanager/icons/empty.png")));
+      optimizeButton.setText("Optimize Order");
+      optimizeButton.setToolTipText(
+            "Reorder the positions so that the stage spends less time moving");
+      add(optimizeButton);
+
       final JButton removeAllButton = posListButton(buttonSize, arialSmallFont_);
       removeAllButton.addActionListener(arg0 -> {
          int ret = JOptionPane.showConfirmDialog(PositionListDlg.this,
@@ -348,9 +359,7 @@ public class PositionListDlg extends JFrame implements MouseListener, ChangeList
                   && summaryMetadata.getStagePositionList().size() > 0) {
             List<MultiStagePosition> positions = summaryMetadata.getStagePositionList();
             PositionList positionList = new PositionList();
-            for (MultiStagePosition position : positions) {
-               positionList.addPosition(position);
-            }
+            positionList.addPositions(positions);
             setPositionList(positionList);
          } else {
             ReportingUtils.logError("No stage positions found in image metadata");
@@ -457,6 +466,17 @@ public class PositionListDlg extends JFrame implements MouseListener, ChangeList
       updatePositionData();
    }
 
+   /**
+    * Adds positions, keeping their labels unless they are already in use,
+    * and updates the table once.
+    *
+    * @param msps positions to add
+    */
+   public void addPositions(List<MultiStagePosition> msps) {
+      getPositionList().addPositions(msps);
+      updatePositionData();
+   }
+
    protected boolean savePositionListAs() {
       File f = FileDialogs.save(this, "Save the position list", POSITION_LIST_FILE);
       if (f != null) {
@@ -502,6 +522,7 @@ public class PositionListDlg extends JFrame implements MouseListener, ChangeList
    protected void updatePositionData() {
       if (!SwingUtilities.isEventDispatchThread()) {
          SwingUtilities.invokeLater(this::updatePositionData);
+         return;
       }
       positionModel_.fireTableDataChanged();
       updateMarkButtonText();
@@ -1171,6 +1192,39 @@ public class PositionListDlg extends JFrame implements MouseListener, ChangeList
       new OffsetPositionsDialog(this, core_);
    }
 
+   /**
+    * Find a faster order of the positions and, after showing the predicted
+    * time saved, reorder the list if the user agrees.
+    *
+    * @param optimizer optimizer with the stage model to use
+    */
+   void optimizeOrder(PositionOrderOptimizer optimizer) {
+      PositionList positions = getPositionList();
+      if (positions.getNumberOfPositions() < 3) {
+         return;
+      }
+      setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+      PositionOrderOptimizer.Result result;
+      try {
+         result = optimizer.optimize(positions);
+      } finally {
+         setCursor(Cursor.getDefaultCursor());
+      }
+      ReportingUtils.logMessage("Position order: " + result.getSummary());
+      if (!result.isImproved()) {
+         JOptionPane.showMessageDialog(this, result.getSummary() + ".",
+               "Optimize position order", JOptionPane.INFORMATION_MESSAGE);
+         return;
+      }
+      int ret = JOptionPane.showConfirmDialog(this, result.getSummary()
+                  + ".\nReorder the positions?", "Optimize position order",
+            JOptionPane.YES_NO_OPTION);
+      if (ret == JOptionPane.YES_OPTION) {
+         positions.setPositions(result.apply(positions).getPositions());
+         updatePositionData();
+      }
+   }
+
    /**
     * Given a device (either a StageDevice or XYStageDevice) and a Vector
     * of floats, apply the given offsets to all selected positions for that
@@ -26,6 +26,7 @@ import com.google.common.eventbus.Subscribe;
 import java.awt.Font;
 import java.awt.Toolkit;
 import java.text.ParseException;
+import java.util.Arrays;
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
 import javax.swing.JComboBox;
@@ -666,10 +667,7 @@ public final class TileCreatorDlg extends JDialog {
       // Add to position list
       // Increment prefix for these positions
       if (posList != null) {
-         MultiStagePosition[] msps = posList.getPositions();
-         for (MultiStagePosition msp : msps) {
-            positionListDlg_.addPosition(msp, msp.getLabel());
-         }
+         positionListDlg_.addPositions(Arrays.asList(posList.getPositions()));
          positionListDlg_.activateAxisTable(true);
          dispose();
       }
@@ -0,0 +1,889 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+
+//LICENSE:      This file is distributed under the BSD license.
+//License text is included with the source distribution.
+
+//This file is distributed in the hope that it will be useful,
+//but WITHOUT ANY WARRANTY; without even the implied warranty
+//of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+
+//IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+
+package org.micromanager.internal.positionlist.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.micromanager.MultiStagePosition;
+import org.micromanager.PositionList;
+import org.micromanager.UserProfile;
+import org.micromanager.propertymap.MutablePropertyMapView;
+
+/**
+ * Finds an order of the positions in a PositionList that takes the stage
+ * less time to visit.
+ *
+ * <p>The time of a move is predicted from a simple model of the stages: the
+ * X and Y axes move at the same time (so that the longer of the two moves
+ * counts), after which the Z stage moves, as in
+ * {@link MultiStagePosition#goToPosition}. Each axis accelerates to its
+ * maximum speed, moves, slows down and settles (see {@link AxisModel}).
+ *
+ * <p>The order is built by going to the nearest position that has not been
+ * visited yet, and then improved by reversing parts of the path ("2-opt")
+ * for as long as that helps, or until the time budget runs out. Both only
+ * look at nearby positions, found through a grid, so that lists of tens of
+ * thousands of positions are ordered in about a second. Very large lists
+ * are first ordered along a Hilbert curve instead of by nearest neighbor.
+ * The first position of the list is always visited first.
+ *
+ * <p>Positions can be grouped (for instance, the sites of a well, or the
+ * tiles of a grid), in which case all positions of a group are visited
+ * before moving to the next group. The order of the groups and the order
+ * within each group can each be kept, or optimized.
+ *
+ * <p>Only the moves between positions are predicted: the time it takes to
+ * get to the first position, and everything else that happens at a
+ * position, is not included.
+ */
+public final class PositionOrderOptimizer {
+   /**
+    * Lists with more positions than this are first ordered along a Hilbert
+    * curve, rather than by nearest neighbor.
+    */
+   public static final int MAX_NEAREST_NEIGHBOR_POSITIONS = 50000;
+   // Neighbors of each position that are tried by 2-opt
+   private static final int NUM_NEIGHBORS = 8;
+   // Improvements smaller than this (in seconds) are rounding errors
+   private static final double EPSILON = 1e-9;
+
+   // Keys of the stage model in the user profile
+   public static final String XY_SPEED = "XY speed (um/s)";
+   public static final String XY_ACCELERATION = "XY acceleration (um/s2)";
+   public static final String XY_SETTLE_MS = "XY settle time (ms)";
+   public static final String Z_SPEED = "Z speed (um/s)";
+   public static final String Z_ACCELERATION = "Z acceleration (um/s2)";
+   public static final String Z_SETTLE_MS = "Z settle time (ms)";
+   public static final String INCLUDE_Z = "Include Z";
+   public static final String KEEP_GROUPS = "Keep grids and wells together";
+
+   /**
+    * Time model of one stage axis.
+    *
+    * <p>A move of distance d takes 2 * sqrt(d / a) when the axis never reaches
+    * its maximum speed v (d &lt; v^2 / a), and d / v + v / a otherwise,
+    * followed by the settling time.
+    */
+   public static final class AxisModel {
+      private final double speed_;
+      private final double acceleration_;
+      private final double settleSeconds_;
+
+      /**
+       * @param speedUmPerS         maximum speed, in microns per second
+       * @param accelerationUmPerS2 acceleration, in microns per second squared;
+       *                            0 or infinite to ignore acceleration
+       * @param settleMs            time after each move before the stage is
+       *                            ready, in milliseconds
+       */
+      public AxisModel(double speedUmPerS, double accelerationUmPerS2, double settleMs) {
+         if (!(speedUmPerS > 0.0) || accelerationUmPerS2 < 0.0 || settleMs < 0.0) {
+            throw new IllegalArgumentException("Invalid stage model: speed " + speedUmPerS
+                  + ", acceleration " + accelerationUmPerS2 + ", settle time " + settleMs);
+         }
+         speed_ = speedUmPerS;
+         acceleration_ = accelerationUmPerS2;
+         settleSeconds_ = settleMs / 1000.0;
+      }
+
+      /**
+       * @param distanceUm length of the move, in microns
+       * @return time the move takes, in seconds; 0 if the stage does not move
+       */
+      public double moveSeconds(double distanceUm) {
+         if (!(distanceUm > 0.0)) {
+            return 0.0;
+         }
+         double a = acceleration_;
+         if (a == 0.0 || Double.isInfinite(a)) {
+            return distanceUm / speed_ + settleSeconds_;
+         }
+         if (distanceUm < speed_ * speed_ / a) {
+            return 2.0 * Math.sqrt(distanceUm / a) + settleSeconds_;
+         }
+         return distanceUm / speed_ + speed_ / a + settleSeconds_;
+      }
+
+      public double getSpeed() {
+         return speed_;
+      }
+
+      public double getAcceleration() {
+         return acceleration_;
+      }
+
+      public double getSettleMs() {
+         return settleSeconds_ * 1000.0;
+      }
+   }
+
+   /**
+    * Order found by the optimizer.
+    */
+   public static final class Result {
+      private final int[] order_;
+      private final double originalSeconds_;
+      private final double optimizedSeconds_;
+
+      private Result(int[] order, double originalSeconds, double optimizedSeconds) {
+         order_ = order;
+         originalSeconds_ = originalSeconds;
+         optimizedSeconds_ = optimizedSeconds;
+      }
+
+      /**
+       * @return for every step of the new order, the index of the position in
+       *         the original list
+       */
+      public int[] getOrder() {
+         return order_.clone();
+      }
+
+      /**
+       * @return predicted time of all moves in the original order, in seconds
+       */
+      public double getOriginalSeconds() {
+         return originalSeconds_;
+      }
+
+      /**
+       * @return predicted time of all moves in the new order, in seconds
+       */
+      public double getOptimizedSeconds() {
+         return optimizedSeconds_;
+      }
+
+      public double getSavedSeconds() {
+         return originalSeconds_ - optimizedSeconds_;
+      }
+
+      /**
+       * @return true if the new order differs from the original one (it is
+       *         only different when it is faster)
+       */
+      public boolean isImproved() {
+         for (int i = 0; i < order_.length; ++i) {
+            if (order_[i] != i) {
+               return true;
+            }
+         }
+         return false;
+      }
+
+      /**
+       * Put the positions of a list in the new order.
+       *
+       * @param list list that was optimized
+       * @return new list, with copies of the positions in the new order
+       */
+      public PositionList apply(PositionList list) {
+         if (list.getNumberOfPositions() != order_.length) {
+            throw new IllegalArgumentException("Position list has "
+                  + list.getNumberOfPositions() + " positions; expected " + order_.length);
+         }
+         MultiStagePosition[] positions = new MultiStagePosition[order_.length];
+         for (int i = 0; i < order_.length; ++i) {
+            positions[i] = MultiStagePosition.newInstance(list.getPosition(order_[i]));
+         }
+         PositionList result = new PositionList();
+         result.setPositions(positions);
+         return result;
+      }
+
+      /**
+       * @return one line describing the predicted travel times
+       */
+      public String getSummary() {
+         if (!isImproved()) {
+            return "Predicted stage travel time: " + formatSeconds(originalSeconds_)
+                  + "; no faster order found";
+         }
+         return String.format("Predicted stage travel time: %s instead of %s "
+                     + "(%s or %.0f%% less)",
+               formatSeconds(optimizedSeconds_), formatSeconds(originalSeconds_),
+               formatSeconds(getSavedSeconds()),
+               100.0 * getSavedSeconds() / originalSeconds_);
+      }
+
+      @Override
+      public String toString() {
+         return getSummary();
+      }
+   }
+
+   private final AxisModel xyModel_;
+   private final AxisModel zModel_;
+   private Function<MultiStagePosition, String> groupBy_ = null;
+   private boolean keepGroupOrder_ = false;
+   private boolean keepOrderWithinGroups_ = false;
+   private long timeBudgetMs_ = 1000;
+
+   /**
+    * @param xyModel model of the X and Y axes of the default XY stage
+    * @param zModel  model of the default Z stage, or null to ignore Z moves
+    */
+   public PositionOrderOptimizer(AxisModel xyModel, AxisModel zModel) {
+      if (xyModel == null) {
+         throw new IllegalArgumentException("XY stage model is required");
+      }
+      xyModel_ = xyModel;
+      zModel_ = zModel;
+   }
+
+   /**
+    * Creates an optimizer with the stage model stored in the user profile.
+    * Without stored values, a typical motorized stage is assumed. Positions
+    * are grouped by label prefix if so chosen.
+    *
+    * @param profile user profile
+    * @return the optimizer
+    */
+   public static PositionOrderOptimizer fromProfile(UserProfile profile) {
+      MutablePropertyMapView settings = profile.getSettings(PositionOrderOptimizer.class);
+      AxisModel xyModel = new AxisModel(settings.getDouble(XY_SPEED, 5000.0),
+            settings.getDouble(XY_ACCELERATION, 50000.0),
+            settings.getDouble(XY_SETTLE_MS, 50.0));
+      AxisModel zModel = null;
+      if (settings.getBoolean(INCLUDE_Z, true)) {
+         zModel = new AxisModel(settings.getDouble(Z_SPEED, 1000.0),
+               settings.getDouble(Z_ACCELERATION, 10000.0),
+               settings.getDouble(Z_SETTLE_MS, 20.0));
+      }
+      PositionOrderOptimizer optimizer = new PositionOrderOptimizer(xyModel, zModel);
+      if (settings.getBoolean(KEEP_GROUPS, true)) {
+         optimizer.setGroupBy(PositionOrderOptimizer::labelPrefix);
+      }
+      return optimizer;
+   }
+
+   public AxisModel getXYModel() {
+      return xyModel_;
+   }
+
+   /**
+    * @return model of the Z stage, or null if Z moves are ignored
+    */
+   public AxisModel getZModel() {
+      return zModel_;
+   }
+
+   /**
+    * Visit all positions of a group before moving on to the next group.
+    *
+    * @param groupBy returns the group of a position, or null to not group
+    *                positions
+    */
+   public void setGroupBy(Function<MultiStagePosition, String> groupBy) {
+      groupBy_ = groupBy;
+   }
+
+   /**
+    * @param keep visit the groups in the order in which they first appear
+    *             in the list
+    */
+   public void setKeepGroupOrder(boolean keep) {
+      keepGroupOrder_ = keep;
+   }
+
+   /**
+    * @param keep visit the positions of each group in the order in which
+    *             they appear in the list
+    */
+   public void setKeepOrderWithinGroups(boolean keep) {
+      keepOrderWithinGroups_ = keep;
+   }
+
+   /**
+    * @param milliseconds time after which improving the order stops
+    */
+   public void setTimeBudgetMs(long milliseconds) {
+      timeBudgetMs_ = milliseconds;
+   }
+
+   /**
+    * Groups positions by their label, up to the last "-": the tiles made by
+    * the "Create Grid" dialog ("Pos-1-000_001") are grouped by grid, and the
+    * sites made by the HCS plugin ("A01-Site_0") by well.
+    *
+    * @param msp position
+    * @return group of the position
+    */
+   public static String labelPrefix(MultiStagePosition msp) {
+      String label = msp.getLabel() == null ? "" : msp.getLabel();
+      int dash = label.lastIndexOf('-');
+      return dash < 0 ? label : label.substring(0, dash);
+   }
+
+   /**
+    * @param list positions
+    * @return predicted time of all moves between the positions, in the order
+    *         of the list, in seconds
+    */
+   public double predictSeconds(PositionList list) {
+      Path path = new Path(list);
+      int[] order = new int[path.size()];
+      for (int i = 0; i < order.length; ++i) {
+         order[i] = i;
+      }
+      return path.length(order);
+   }
+
+   /**
+    * Find a faster order of the positions of a list.
+    *
+    * @param list positions; the list is not changed
+    * @return the new order, or the original order if no faster one was found
+    */
+   public Result optimize(PositionList list) {
+      final long deadline = System.nanoTime() + timeBudgetMs_ * 1000000L;
+      Path path = new Path(list);
+      int n = path.size();
+      int[] identity = new int[n];
+      for (int i = 0; i < n; ++i) {
+         identity[i] = i;
+      }
+      double original = path.length(identity);
+      if (n < 3) {
+         return new Result(identity, original, original);
+      }
+
+      // Groups, in the order in which they first appear
+      Map<String, List<Integer>> groups = new LinkedHashMap<>();
+      for (int i = 0; i < n; ++i) {
+         String group = groupBy_ == null ? "" : groupBy_.apply(list.getPosition(i));
+         groups.computeIfAbsent(group == null ? "" : group, k -> new ArrayList<>()).add(i);
+      }
+      List<int[]> members = new ArrayList<>(groups.size());
+      for (List<Integer> group : groups.values()) {
+         members.add(group.stream().mapToInt(Integer::intValue).toArray());
+      }
+      if (!keepGroupOrder_ && members.size() > 2) {
+         members = orderGroups(members, path, deadline);
+      }
+
+      int[] order = new int[n];
+      int next = 0;
+      for (int[] group : members) {
+         int[] groupOrder;
+         if (keepOrderWithinGroups_ || group.length < 2) {
+            groupOrder = group;
+         } else {
+            // Start at the first position of the list, or at the position
+            // closest to where the previous group ended
+            int first = 0;
+            if (next > 0) {
+               double best = Double.MAX_VALUE;
+               for (int j = 0; j < group.length; ++j) {
+                  double t = path.cost(order[next - 1], group[j]);
+                  if (t < best) {
+                     best = t;
+                     first = j;
+                  }
+               }
+            }
+            groupOrder = path.subset(group).order(first, deadline);
+            for (int j = 0; j < groupOrder.length; ++j) {
+               groupOrder[j] = group[groupOrder[j]];
+            }
+         }
+         System.arraycopy(groupOrder, 0, order, next, groupOrder.length);
+         next += groupOrder.length;
+      }
+
+      double optimized = path.length(order);
+      if (optimized >= original - EPSILON) {
+         return new Result(identity, original, original);
+      }
+      return new Result(order, original, optimized);
+   }
+
+   /**
+    * Orders groups by the path through their centers; the first group stays
+    * first.
+    */
+   private List<int[]> orderGroups(List<int[]> members, Path path, long deadline) {
+      int numGroups = members.size();
+      double[] x = new double[numGroups];
+      double[] y = new double[numGroups];
+      double[] z = new double[numGroups];
+      for (int g = 0; g < numGroups; ++g) {
+         for (int i : members.get(g)) {
+            x[g] += path.x_[i];
+            y[g] += path.y_[i];
+            z[g] += path.z_[i];
+         }
+         x[g] /= members.get(g).length;
+         y[g] /= members.get(g).length;
+         z[g] /= members.get(g).length;
+      }
+      int[] groupOrder = new Path(x, y, z).order(0, deadline);
+      List<int[]> result = new ArrayList<>(numGroups);
+      for (int g : groupOrder) {
+         result.add(members.get(g));
+      }
+      return result;
+   }
+
+   /**
+    * @return the time in seconds, or minutes and seconds, or hours and
+    *         minutes
+    */
+   public static String formatSeconds(double seconds) {
+      if (seconds < 60.0) {
+         return String.format("%.1f s", seconds);
+      }
+      long s = Math.round(seconds);
+      if (s < 3600) {
+         return String.format("%d min %d s", s / 60, s % 60);
+      }
+      return String.format("%d h %d min", s / 3600, (s % 3600) / 60);
+   }
+
+   /**
+    * Coordinates of positions, and the algorithms that order them.
+    */
+   private final class Path {
+      private final double[] x_;
+      private final double[] y_;
+      private final double[] z_;
+
+      private Path(double[] x, double[] y, double[] z) {
+         x_ = x;
+         y_ = y;
+         z_ = z;
+      }
+
+      private Path(PositionList list) {
+         this(new double[list.getNumberOfPositions()],
+               new double[list.getNumberOfPositions()],
+               new double[list.getNumberOfPositions()]);
+         for (int i = 0; i < x_.length; ++i) {
+            MultiStagePosition msp = list.getPosition(i);
+            x_[i] = msp.getX();
+            y_[i] = msp.getY();
+            z_[i] = zModel_ == null ? 0.0 : msp.getZ();
+         }
+      }
+
+      private int size() {
+         return x_.length;
+      }
+
+      private Path subset(int[] indices) {
+         double[] x = new double[indices.length];
+         double[] y = new double[indices.length];
+         double[] z = new double[indices.length];
+         for (int i = 0; i < indices.length; ++i) {
+            x[i] = x_[indices[i]];
+            y[i] = y_[indices[i]];
+            z[i] = z_[indices[i]];
+         }
+         return new Path(x, y, z);
+      }
+
+      private double cost(int i, int j) {
+         double t = xyModel_.moveSeconds(Math.max(Math.abs(x_[i] - x_[j]),
+               Math.abs(y_[i] - y_[j])));
+         if (zModel_ != null) {
+            t += zModel_.moveSeconds(Math.abs(z_[i] - z_[j]));
+         }
+         return t;
+      }
+
+      private double length(int[] order) {
+         double total = 0.0;
+         for (int i = 1; i < order.length; ++i) {
+            total += cost(order[i - 1], order[i]);
+         }
+         return total;
+      }
+
+      /**
+       * @param first position that is visited first
+       * @param deadline System.nanoTime() at which to stop improving
+       * @return order of all positions
+       */
+      private int[] order(int first, long deadline) {
+         int n = size();
+         if (n < 3) {
+            int[] order = new int[n];
+            for (int i = 0; i < n; ++i) {
+               order[i] = (first + i) % n;
+            }
+            return order;
+         }
+         int[] order = n > MAX_NEAREST_NEIGHBOR_POSITIONS
+               ? hilbertOrder(first) : nearestNeighborOrder(first);
+         if (System.nanoTime() < deadline) {
+            twoOpt(order, deadline);
+         }
+         return order;
+      }
+
+      private int[] all() {
+         int[] all = new int[size()];
+         for (int i = 0; i < all.length; ++i) {
+            all[i] = i;
+         }
+         return all;
+      }
+
+      private int[] nearestNeighborOrder(int first) {
+         int n = size();
+         boolean[] visited = new boolean[n];
+         int[] order = new int[n];
+         order[0] = first;
+         visited[first] = true;
+         Grid grid = new Grid(all());
+         int remaining = n - 1;
+         for (int step = 1; step < n; ++step) {
+            if (remaining < grid.size() / 4 && grid.size() > 64) {
+               int[] left = new int[remaining];
+               for (int i = 0, j = 0; i < n; ++i) {
+                  if (!visited[i]) {
+                     left[j++] = i;
+                  }
+               }
+               grid = new Grid(left);
+            }
+            int next = grid.nearest(order[step - 1], visited);
+            order[step] = next;
+            visited[next] = true;
+            --remaining;
+         }
+         return order;
+      }
+
+      private int[] hilbertOrder(int first) {
+         int n = size();
+         double minX = Double.MAX_VALUE;
+         double minY = Double.MAX_VALUE;
+         double maxX = -Double.MAX_VALUE;
+         double maxY = -Double.MAX_VALUE;
+         for (int i = 0; i < n; ++i) {
+            minX = Math.min(minX, x_[i]);
+            maxX = Math.max(maxX, x_[i]);
+            minY = Math.min(minY, y_[i]);
+            maxY = Math.max(maxY, y_[i]);
+         }
+         final int side = 1 << 16;
+         double scale = (side - 1) / Math.max(Math.max(maxX - minX, maxY - minY), 1e-9);
+         long[] keys = new long[n];
+         for (int i = 0; i < n; ++i) {
+            long d = hilbertIndex(side, (int) ((x_[i] - minX) * scale),
+                  (int) ((y_[i] - minY) * scale));
+            // Index of the position in the lower bits, to sort both at once
+            keys[i] = (d << 24) | i;
+         }
+         Arrays.sort(keys);
+         // The curve is walked from the first position on, continuing at
+         // the start of the curve after reaching its end
+         int start = 0;
+         while ((int) (keys[start] & 0xffffff) != first) {
+            ++start;
+         }
+         int[] order = new int[n];
+         for (int i = 0; i < n; ++i) {
+            order[i] = (int) (keys[(start + i) % n] & 0xffffff);
+         }
+         return order;
+      }
+
+      /**
+       * Improves an order by reversing sections of it, for as long as that
+       * makes the path shorter. Only reversals that connect a position to
+       * one of its nearest neighbors are tried; positions whose surroundings
+       * did not change are not looked at again. The first position stays
+       * where it is.
+       */
+      private void twoOpt(int[] order, long deadline) {
+         int n = order.length;
+         int[][] neighbors = new Grid(all()).nearestNeighbors(NUM_NEIGHBORS);
+         int[] index = new int[n];
+         for (int i = 0; i < n; ++i) {
+            index[order[i]] = i;
+         }
+         int[] queue = new int[n];
+         boolean[] queued = new boolean[n];
+         int head = 0;
+         int numQueued = n;
+         for (int i = 0; i < n; ++i) {
+            queue[i] = order[i];
+            queued[order[i]] = true;
+         }
+         int iteration = 0;
+         while (numQueued > 0) {
+            if ((++iteration & 255) == 0 && System.nanoTime() > deadline) {
+               return;
+            }
+            int a = queue[head];
+            head = (head + 1) % n;
+            --numQueued;
+            queued[a] = false;
+            for (int c : neighbors[a]) {
+               int lo = Math.min(index[a], index[c]);
+               int hi = Math.max(index[a], index[c]);
+               if (hi <= lo + 1) {
+                  continue;
+               }
+               // Connect the two, by reversing the section after the first
+               // one (up to and including the second) ...
+               double delta = cost(order[lo], order[hi]) - cost(order[lo], order[lo + 1]);
+               if (hi + 1 < n) {
+                  delta += cost(order[lo + 1], order[hi + 1]) - cost(order[hi], order[hi + 1]);
+               }
+               int from = lo + 1;
+               int to = hi;
+               if (!(delta < -EPSILON) && lo > 0) {
+                  // ... or the section before the second one
+                  delta = cost(order[lo], order[hi]) + cost(order[lo - 1], order[hi - 1])
+                        - cost(order[lo - 1], order[lo]) - cost(order[hi - 1], order[hi]);
+                  from = lo;
+                  to = hi - 1;
+               }
+               if (delta < -EPSILON) {
+                  for (int i = from, j = to; i < j; ++i, --j) {
+                     int t = order[i];
+                     order[i] = order[j];
+                     order[j] = t;
+                     index[order[i]] = i;
+                     index[order[j]] = j;
+                  }
+                  for (int i : new int[] {from - 1, from, to, to + 1, index[a]}) {
+                     if (i >= 0 && i < n && !queued[order[i]]) {
+                        queue[(head + numQueued) % n] = order[i];
+                        queued[order[i]] = true;
+                        ++numQueued;
+                     }
+                  }
+                  break;
+               }
+            }
+         }
+      }
+
+      /**
+       * Uniform grid over (some of) the positions, in which the nearest
+       * positions are found ring by ring: positions more than r rings away
+       * are at least (r - 1) cells away, which bounds the time to move there.
+       */
+      private final class Grid {
+         private final int[] members_;
+         private final double minX_;
+         private final double minY_;
+         private final double cellSize_;
+         private final int columns_;
+         private final int rows_;
+         // members_ is sorted by cell; cell c holds cellStart_[c] up to
+         // cellStart_[c + 1]
+         private final int[] cellStart_;
+
+         private Grid(int[] members) {
+            double minX = Double.MAX_VALUE;
+            double minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE;
+            double maxY = -Double.MAX_VALUE;
+            for (int i : members) {
+               minX = Math.min(minX, x_[i]);
+               maxX = Math.max(maxX, x_[i]);
+               minY = Math.min(minY, y_[i]);
+               maxY = Math.max(maxY, y_[i]);
+            }
+            minX_ = minX;
+            minY_ = minY;
+            double width = maxX - minX;
+            double height = maxY - minY;
+            // About two positions per cell
+            double numCells = Math.max(1.0, members.length / 2.0);
+            double cellSize = width > 0.0 && height > 0.0
+                  ? Math.sqrt(width * height / numCells)
+                  : Math.max(width, height) / numCells;
+            if (!(cellSize > 0.0)) {
+               cellSize = 1.0;
+            }
+            // Keep the number of cells in check for very elongated lists
+            cellSize = Math.max(cellSize, Math.max(width, height) / 65536.0);
+            cellSize_ = cellSize;
+            columns_ = (int) (width / cellSize) + 1;
+            rows_ = (int) (height / cellSize) + 1;
+
+            int numCellsTotal = columns_ * rows_;
+            cellStart_ = new int[numCellsTotal + 1];
+            for (int i : members) {
+               ++cellStart_[cell(i) + 1];
+            }
+            for (int c = 0; c < numCellsTotal; ++c) {
+               cellStart_[c + 1] += cellStart_[c];
+            }
+            int[] fill = Arrays.copyOf(cellStart_, numCellsTotal);
+            members_ = new int[members.length];
+            for (int i : members) {
+               members_[fill[cell(i)]++] = i;
+            }
+         }
+
+         private int size() {
+            return members_.length;
+         }
+
+         private int column(int i) {
+            return Math.min(columns_ - 1, (int) ((x_[i] - minX_) / cellSize_));
+         }
+
+         private int row(int i) {
+            return Math.min(rows_ - 1, (int) ((y_[i] - minY_) / cellSize_));
+         }
+
+         private int cell(int i) {
+            return row(i) * columns_ + column(i);
+         }
+
+         /**
+          * @return shortest time to any position outside of the rings up to r
+          */
+         private double beyondRing(int r) {
+            return xyModel_.moveSeconds(r * cellSize_);
+         }
+
+         private void visitRing(int column, int row, int r, Visitor visitor) {
+            int top = row - r;
+            int bottom = row + r;
+            for (int y = Math.max(0, top); y <= Math.min(rows_ - 1, bottom); ++y) {
+               boolean isEdgeRow = y == top || y == bottom;
+               int step = isEdgeRow ? 1 : 2 * r;
+               for (int x = column - r; x <= column + r; x += Math.max(1, step)) {
+                  if (x >= 0 && x < columns_) {
+                     int c = y * columns_ + x;
+                     for (int k = cellStart_[c]; k < cellStart_[c + 1]; ++k) {
+                        visitor.visit(members_[k]);
+                     }
+                  }
+               }
+            }
+         }
+
+         private int maxRing(int column, int row) {
+            return Math.max(Math.max(column, columns_ - 1 - column),
+                  Math.max(row, rows_ - 1 - row));
+         }
+
+         /**
+          * @return the position that is not visited yet and is quickest to
+          *         move to from position i
+          */
+         private int nearest(final int i, final boolean[] visited) {
+            final int column = column(i);
+            final int row = row(i);
+            final int[] best = {-1};
+            final double[] bestCost = {Double.MAX_VALUE};
+            int maxRing = maxRing(column, row);
+            for (int r = 0; r <= maxRing; ++r) {
+               visitRing(column, row, r, j -> {
+                  if (!visited[j]) {
+                     double t = cost(i, j);
+                     if (t < bestCost[0]) {
+                        bestCost[0] = t;
+                        best[0] = j;
+                     }
+                  }
+               });
+               if (best[0] >= 0 && bestCost[0] <= beyondRing(r)) {
+                  break;
+               }
+            }
+            return best[0];
+         }
+
+         /**
+          * @return for every position, the k positions that are quickest to
+          *         move to, quickest first
+          */
+         private int[][] nearestNeighbors(int k) {
+            final int n = size();
+            k = Math.min(k, n - 1);
+            int[][] result = new int[x_.length][];
+            final int[] best = new int[k];
+            final double[] bestCost = new double[k];
+            final int[] count = new int[1];
+            for (final int i : members_) {
+               final int column = column(i);
+               final int row = row(i);
+               final int kk = k;
+               count[0] = 0;
+               int maxRing = maxRing(column, row);
+               for (int r = 0; r <= maxRing; ++r) {
+                  visitRing(column, row, r, j -> {
+                     if (j == i) {
+                        return;
+                     }
+                     double t = cost(i, j);
+                     if (count[0] == kk && t >= bestCost[kk - 1]) {
+                        return;
+                     }
+                     int p = count[0] == kk ? kk - 1 : count[0]++;
+                     while (p > 0 && bestCost[p - 1] > t) {
+                        best[p] = best[p - 1];
+                        bestCost[p] = bestCost[p - 1];
+                        --p;
+                     }
+                     best[p] = j;
+                     bestCost[p] = t;
+                  });
+                  if (count[0] == kk && bestCost[kk - 1] <= beyondRing(r)) {
+                     break;
+                  }
+               }
+               result[i] = Arrays.copyOf(best, count[0]);
+            }
+            return result;
+         }
+      }
+   }
+
+   private interface Visitor {
+      void visit(int member);
+   }
+
+   /**
+    * @return distance along the Hilbert curve filling a square of the given
+    *         side (a power of 2), of the point (x, y)
+    */
+   static long hilbertIndex(int side, int x, int y) {
+      long d = 0;
+      for (int s = side / 2; s > 0; s /= 2) {
+         int rx = (x & s) > 0 ? 1 : 0;
+         int ry = (y & s) > 0 ? 1 : 0;
+         d += (long) s * s * ((3 * rx) ^ ry);
+         // Rotate the quadrant
+         if (ry == 0) {
+            if (rx == 1) {
+               x = side - 1 - x;
+               y = side - 1 - y;
+            }
+            int t = x;
+            x = y;
+            y = t;
+         }
+      }
+      return d;
+   }
+}
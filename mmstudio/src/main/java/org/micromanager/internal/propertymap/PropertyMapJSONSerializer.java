@@ -17,12 +17,17 @@ import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Array;
 import java.lang.reflect.Type;
 import java.util.AbstractMap;
@@ -30,6 +35,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMap.Builder;
 import org.micromanager.PropertyMaps;
@@ -936,4 +942,123 @@ public final class PropertyMapJSONSerializer {
       VersionedMap vmap = new VersionedMap(map);
       return makeGson().toJson(vmap);
    }
+
+   /**
+    * Write a property map that holds a single list of property maps, one
+    * element at a time, so that the JSON of very long lists never needs to be
+    * in memory at once. The output is the same as that of {@link #toJSON} for
+    * such a map.
+    *
+    * @param writer destination
+    * @param key    key of the list
+    * @param maps   elements of the list
+    * @throws IOException if writing fails
+    */
+   public static void toJSON(Writer writer, String key, Iterable<PropertyMap> maps)
+         throws IOException {
+      Gson gson = makeGson();
+      VersionedMap template = new VersionedMap(null);
+      JsonWriter out = new JsonWriter(writer);
+      out.setIndent("  ");
+      out.setHtmlSafe(false);
+      out.beginObject();
+      out.name("encoding").value(template.encoding);
+      out.name("format").value(template.format);
+      out.name("major_version").value(template.major_version);
+      out.name("minor_version").value(template.minor_version);
+      out.name("map").beginObject();
+      out.name(key).beginObject();
+      out.name(Keys.TYPE).value(ValueType.PROPERTY_MAP.name());
+      out.name(Keys.ARRAY).beginArray();
+      for (PropertyMap map : maps) {
+         gson.toJson(map, PropertyMap.class, out);
+      }
+      out.endArray();
+      out.endObject();
+      out.endObject();
+      out.endObject();
+      out.flush();
+   }
+
+   /**
+    * Read a list of property maps from a property map, one element at a
+    * time, without parsing the whole document first. Other keys of the
+    * property map are skipped.
+    *
+    * <p>Only the modern format, with "encoding" and "format" ahead of the map
+    * (as written by this class), is read this way. For other input false is
+    * returned, in which case the caller should fall back to
+    * {@link #fromJSON(String)}; elements may have been passed to the consumer
+    * already.
+    *
+    * @param reader   source
+    * @param key      key of the list
+    * @param consumer receives the elements of the list, in order
+    * @return false if the input is not in the modern format
+    * @throws IOException if the input can not be read, or is invalid
+    */
+   public static boolean fromJSON(Reader reader, String key, Consumer<PropertyMap> consumer)
+         throws IOException {
+      Gson gson = makeGson();
+      VersionedMap template = new VersionedMap(null);
+      JsonReader in = new JsonReader(reader);
+      in.setLenient(true);
+      try {
+         if (in.peek() != JsonToken.BEGIN_OBJECT) {
+            return false;
+         }
+         in.beginObject();
+         boolean isModern = false;
+         while (in.hasNext()) {
+            String name = in.nextName();
+            if (name.equals("format")) {
+               isModern = template.format.equals(in.nextString());
+            } else if (name.equals("major_version")) {
+               if (in.nextInt() > template.major_version) {
+                  throw new IOException(
+                        "Properties are saved in a newer format that is incompatible with "
+                              + "this version of the application.");
+               }
+            } else if (name.equals("map")) {
+               if (!isModern) {
+                  return false;
+               }
+               in.beginObject();
+               while (in.hasNext()) {
+                  if (!in.nextName().equals(key)) {
+                     in.skipValue();
+                     continue;
+                  }
+                  in.beginObject();
+                  while (in.hasNext()) {
+                     String field = in.nextName();
+                     if (field.equals(Keys.TYPE)) {
+                        if (!ValueType.PROPERTY_MAP.name().equals(in.nextString())) {
+                           throw new IOException("Not a list of property maps: " + key);
+                        }
+                     } else if (field.equals(Keys.ARRAY)) {
+                        in.beginArray();
+                        while (in.hasNext()) {
+                           consumer.accept(gson.fromJson(in, PropertyMap.class));
+                        }
+                        in.endArray();
+                     } else {
+                        in.skipValue();
+                     }
+                  }
+                  in.endObject();
+               }
+               in.endObject();
+            } else {
+               in.skipValue();
+            }
+         }
+         in.endObject();
+         return isModern;
+      } catch (IOException e) {
+         throw e;
+      } catch (Exception e) {
+         throw new IOException(e);
+      }
+   }
 }
@@ -0,0 +1,132 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     mmstudio
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.internal.utils;
+
+import java.util.stream.IntStream;
+
+/**
+ * Loops over the pixels of an image on several threads.
+ *
+ * <p>The pixels are split into stripes (ranges of pixel indices) or tiles
+ * (rectangles), which are processed in parallel on the common fork-join
+ * pool. The work must be CPU-bound, and each stripe or tile must only write
+ * to its own pixels. Images with fewer than {@link #MIN_PIXELS_PARALLEL}
+ * pixels, and all images on single-core machines, are processed on the
+ * calling thread.
+ */
+public final class ParallelPixels {
+   /**
+    * Smallest number of pixels that is split up; stripes are at least this
+    * long. Below this size, splitting the work costs more than it gains.
+    */
+   public static final int MIN_PIXELS_PARALLEL = 1 << 16;
+
+   private ParallelPixels() {
+   }
+
+   /**
+    * Work on a range of pixel indices.
+    */
+   public interface Stripe {
+      void run(int start, int end);
+   }
+
+   /**
+    * Work on a range of pixel indices that returns a value, such as the
+    * highest value it wrote.
+    */
+   public interface ValueStripe {
+      int run(int start, int end);
+   }
+
+   /**
+    * Work on a rectangle of pixels.
+    */
+   public interface Tile {
+      void run(int x0, int y0, int x1, int y1);
+   }
+
+   private static int numStripes(int length) {
+      int numCores = Runtime.getRuntime().availableProcessors();
+      if (numCores < 2) {
+         return 1;
+      }
+      return Math.max(1, Math.min(4 * numCores, length / MIN_PIXELS_PARALLEL));
+   }
+
+   /**
+    * Run the work on the stripes of pixels 0 to length - 1.
+    *
+    * @param length number of pixels
+    * @param stripe work, which is called once per stripe
+    */
+   public static void forEachStripe(final int length, final Stripe stripe) {
+      final int numStripes = numStripes(length);
+      if (numStripes == 1) {
+         stripe.run(0, length);
+         return;
+      }
+      final int stripeLength = (length + numStripes - 1) / numStripes;
+      IntStream.range(0, numStripes).parallel().forEach(s -> {
+         int start = s * stripeLength;
+         stripe.run(start, Math.min(length, start + stripeLength));
+      });
+   }
+
+   /**
+    * Run the work on the stripes of pixels 0 to length - 1.
+    *
+    * @param length number of pixels
+    * @param stripe work, which is called once per stripe
+    * @return the highest value returned by the stripes
+    */
+   public static int maxOverStripes(final int length, final ValueStripe stripe) {
+      final int numStripes = numStripes(length);
+      if (numStripes == 1) {
+         return stripe.run(0, length);
+      }
+      final int stripeLength = (length + numStripes - 1) / numStripes;
+      return IntStream.range(0, numStripes).parallel().map(s -> {
+         int start = s * stripeLength;
+         return stripe.run(start, Math.min(length, start + stripeLength));
+      }).max().orElse(0);
+   }
+
+   /**
+    * Run the work on the tiles of an image.
+    *
+    * @param width    width of the image
+    * @param height   height of the image
+    * @param tileSize edge length of the tiles
+    * @param tile     work, which is called once per tile
+    */
+   public static void forEachTile(final int width, final int height, final int tileSize,
+                                  final Tile tile) {
+      if ((long) width * height < MIN_PIXELS_PARALLEL
+            || Runtime.getRuntime().availableProcessors() < 2) {
+         tile.run(0, 0, width, height);
+         return;
+      }
+      final int columns = (width + tileSize - 1) / tileSize;
+      final int rows = (height + tileSize - 1) / tileSize;
+      IntStream.range(0, columns * rows).parallel().forEach(t -> {
+         int x0 = (t % columns) * tileSize;
+         int y0 = (t / columns) * tileSize;
+         tile.run(x0, y0, Math.min(width, x0 + tileSize), Math.min(height, y0 + tileSize));
+      });
+   }
+}
@@ -4,29 +4,58 @@ import static java.util.concurrent.Executors.newSingleThreadExecutor;
 
 import com.google.common.eventbus.AsyncEventBus;
 import com.google.common.eventbus.EventBus;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
  * The PrioritizedEventBus allows registrants to provide a priority value; when
  * dispatching events to registrants, those with lower priority numbers are
  * notified first.
+ *
+ * <p>Registration is thread-safe. The dispatch order is precomputed whenever a
+ * new priority level is added, so that {@code post} does not need to lock or
+ * sort anything.
+ *
+ * <p>Asynchronous buses can opt in to coalescing of "latest value wins" event
+ * types (see {@link #enableCoalescing(Class, Function)}): when several such
+ * events with the same key are posted before the first one has been
+ * dispatched, only the most recent one is delivered.
  */
 public final class PrioritizedEventBus {
    // Priority at which to register objects when no priority is specified.
    public static final int DEFAULT_PRIORITY = 100;
    /**
     * Each priority level corresponds to a different EventBus instance.
+    * Guarded by monitor on this.
     */
-   private HashMap<Integer, EventBus> prioritizedBuses_;
-   private boolean async_ = false;
-   private boolean shutDown_ = false;
+   private final TreeMap<Integer, EventBus> prioritizedBuses_ = new TreeMap<>();
+   /**
+    * The values of prioritizedBuses_ in ascending priority order. This array
+    * is replaced, never modified, so that post() can read it without locking.
+    */
+   private volatile EventBus[] orderedBuses_ = new EventBus[0];
+   private final boolean async_;
+   private volatile boolean shutDown_ = false;
    private ExecutorService executorService_;
 
+   // Event class -> function computing the coalescing key of an event.
+   private final Map<Class<?>, Function<Object, ?>> coalescingKeys_ =
+         new ConcurrentHashMap<>();
+   // Coalescing key -> most recent event not yet dispatched.
+   private final ConcurrentHashMap<Object, Object> pendingEvents_ =
+         new ConcurrentHashMap<>();
+   private final ConcurrentHashMap<Class<?>, AtomicLong> dispatchCounts_ =
+         new ConcurrentHashMap<>();
+   private final ConcurrentHashMap<Class<?>, AtomicLong> coalescedCounts_ =
+         new ConcurrentHashMap<>();
+
    public PrioritizedEventBus(boolean async) {
-      prioritizedBuses_ = new HashMap<>();
       async_ = async;
 
       if (async) {
@@ -40,30 +69,28 @@ public final class PrioritizedEventBus {
       register(o, DEFAULT_PRIORITY);
    }
 
-   public void register(Object o, Integer priority) {
+   public synchronized void register(Object o, Integer priority) {
       if (shutDown_) {
          return; // TODO: should this be reported/logged?
       }
-      EventBus subBus;
-      if (!prioritizedBuses_.containsKey(priority)) {
+      EventBus subBus = prioritizedBuses_.get(priority);
+      if (subBus == null) {
          if (async_) {
             subBus = new AsyncEventBus(executorService_, EventBusExceptionLogger.getInstance());
          } else {
             subBus = new EventBus(EventBusExceptionLogger.getInstance());
          }
          prioritizedBuses_.put(priority, subBus);
-      } else {
-         subBus = prioritizedBuses_.get(priority);
+         orderedBuses_ = prioritizedBuses_.values().toArray(new EventBus[0]);
       }
       subBus.register(o);
    }
 
-   public void unregister(Object o) {
+   public synchronized void unregister(Object o) {
       if (shutDown_) {
          return; // TODO: should this be reported/logged?
       }
-      for (Integer priority : prioritizedBuses_.keySet()) {
-         EventBus subBus = prioritizedBuses_.get(priority);
+      for (EventBus subBus : orderedBuses_) {
          // TODO: I can't find any way to test if a given EventBus has a given
          // object subscribed to it, hence the try/catch logic here, which is
          // unpleasant. However, objects should not be frequently unregistering
@@ -78,15 +105,108 @@ public final class PrioritizedEventBus {
       }
    }
 
+   /**
+    * Coalesce events of the given class: only the most recently posted one
+    * is delivered if several are posted before dispatch catches up.
+    *
+    * @param eventClass exact class of the events to coalesce
+    */
+   public void enableCoalescing(Class<?> eventClass) {
+      enableCoalescing(eventClass, e -> eventClass);
+   }
+
+   /**
+    * Coalesce events of the given class that map to the same key. For
+    * example, stage position events would be keyed by device name so that
+    * positions of different stages are not merged.
+    *
+    * <p>Coalescing only takes effect on asynchronous buses; a synchronous
+    * bus dispatches every event immediately. Coalesced events may be
+    * delivered after non-coalesced events that were posted later.
+    *
+    * @param eventClass exact class of the events to coalesce
+    * @param keyFunction computes the coalescing key from an event
+    * @param <T> event type
+    */
+   @SuppressWarnings("unchecked")
+   public <T> void enableCoalescing(Class<T> eventClass,
+                                    Function<? super T, ?> keyFunction) {
+      coalescingKeys_.put(eventClass, (Function<Object, ?>) keyFunction);
+   }
+
+   public void disableCoalescing(Class<?> eventClass) {
+      coalescingKeys_.remove(eventClass);
+   }
+
    public void post(Object event) {
-      ArrayList<Integer> priorities = new ArrayList<Integer>(prioritizedBuses_.keySet());
-      Collections.sort(priorities);
-      for (Integer priority : priorities) {
-         EventBus subBus = prioritizedBuses_.get(priority);
+      Function<Object, ?> keyFunction = coalescingKeys_.get(event.getClass());
+      if (keyFunction == null || !async_) {
+         dispatch(event);
+         return;
+      }
+      final Object key = Arrays.asList(event.getClass(), keyFunction.apply(event));
+      if (pendingEvents_.put(key, event) != null) {
+         // A dispatch for this key is already scheduled; it will pick up
+         // the event we just stored.
+         increment(coalescedCounts_, event.getClass());
+         return;
+      }
+      executorService_.execute(() -> {
+         Object latest = pendingEvents_.remove(key);
+         if (latest != null) {
+            dispatch(latest);
+         }
+      });
+   }
+
+   private void dispatch(Object event) {
+      increment(dispatchCounts_, event.getClass());
+      for (EventBus subBus : orderedBuses_) {
          subBus.post(event);
       }
    }
 
+   private static void increment(ConcurrentHashMap<Class<?>, AtomicLong> counts,
+                                 Class<?> eventClass) {
+      AtomicLong count = counts.get(eventClass);
+      if (count == null) {
+         AtomicLong newCount = new AtomicLong();
+         count = counts.putIfAbsent(eventClass, newCount);
+         if (count == null) {
+            count = newCount;
+         }
+      }
+      count.incrementAndGet();
+   }
+
+   private static Map<Class<?>, Long> snapshot(
+         ConcurrentHashMap<Class<?>, AtomicLong> counts) {
+      Map<Class<?>, Long> ret = new HashMap<>();
+      for (Map.Entry<Class<?>, AtomicLong> e : counts.entrySet()) {
+         ret.put(e.getKey(), e.getValue().get());
+      }
+      return ret;
+   }
+
+   /**
+    * Return the number of events dispatched so far, by event class.
+    *
+    * @return a snapshot of the dispatch counters
+    */
+   public Map<Class<?>, Long> getDispatchCounts() {
+      return snapshot(dispatchCounts_);
+   }
+
+   /**
+    * Return the number of events that were superseded by a later event
+    * before being dispatched, by event class.
+    *
+    * @return a snapshot of the coalescing counters
+    */
+   public Map<Class<?>, Long> getCoalescedCounts() {
+      return snapshot(coalescedCounts_);
+   }
+
    public void shutDown() {
       shutDown_ = true;
       if (executorService_ != null) {
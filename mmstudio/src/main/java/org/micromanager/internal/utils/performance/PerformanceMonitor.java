@@ -91,6 +91,28 @@ public final class PerformanceMonitor {
       stat.sample();
    }
 
+   /**
+    * Return the current rolling average of a value stat.
+    *
+    * @param statLabel label passed to {@link #sample}
+    * @return the average, or NaN if the stat has never been sampled
+    */
+   public double getAverage(String statLabel) {
+      ExponentialSmoothing stat = stats_.get(statLabel);
+      return stat == null ? Double.NaN : stat.getAverage();
+   }
+
+   /**
+    * Return the current rolling average of a time interval stat.
+    *
+    * @param startLabel label passed to {@link #sampleTimeInterval}
+    * @return the average interval in ms, or NaN if not yet known
+    */
+   public double getIntervalAverageMs(String startLabel) {
+      TimeIntervalExponentialSmoothing stat = intervalStats_.get(startLabel);
+      return stat == null || stat.getCount() == 0 ? Double.NaN : stat.getAverage();
+   }
+
    public List<Map.Entry<String, ? extends AbstractExponentialSmoothing>>
             getEntries() {
       // Combine stats into a single sorted list
@@ -0,0 +1,156 @@
+package org.micromanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PositionListTest {
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   private static MultiStagePosition position(String label, double x) {
+      MultiStagePosition msp = new MultiStagePosition("XY", x, 2.0 * x, "Z", 0.5);
+      msp.setLabel(label);
+      return msp;
+   }
+
+   @Test
+   public void testLabelIndex() {
+      PositionList list = new PositionList();
+      list.addPosition(position("A", 0.0));
+      list.addPosition(position("B", 1.0));
+      assertFalse(list.isLabelUnique("A"));
+      assertTrue(list.isLabelUnique("C"));
+      assertEquals(1, list.getPositionIndex("B"));
+      assertEquals(-1, list.getPositionIndex("C"));
+
+      // Duplicate labels are replaced
+      MultiStagePosition duplicate = position("A", 2.0);
+      list.addPosition(duplicate);
+      assertEquals("A2", duplicate.getLabel());
+      assertEquals(2, list.getPositionIndex("A2"));
+
+      list.addPosition(0, position("C", 3.0));
+      assertEquals(0, list.getPositionIndex("C"));
+      assertEquals(3, list.getPositionIndex("A2"));
+      list.removePosition(0);
+      assertTrue(list.isLabelUnique("C"));
+      assertEquals(-1, list.getPositionIndex("C"));
+      assertEquals(2, list.getPositionIndex("A2"));
+
+      list.replacePosition(2, position("D", 4.0));
+      assertTrue(list.isLabelUnique("A2"));
+      assertEquals(2, list.getPositionIndex("D"));
+
+      list.clearAllPositions();
+      assertTrue(list.isLabelUnique("A"));
+      assertEquals("Pos0", list.generateLabel());
+   }
+
+   @Test
+   public void testLabelChangesAreSeen() {
+      PositionList list = new PositionList();
+      MultiStagePosition msp = position("A", 0.0);
+      list.addPosition(msp);
+      list.addPosition(position("B", 1.0));
+      msp.setLabel("C");
+      assertTrue(list.isLabelUnique("A"));
+      assertFalse(list.isLabelUnique("C"));
+      assertEquals(0, list.getPositionIndex("C"));
+      list.setLabel(1, "D");
+      assertEquals(1, list.getPositionIndex("D"));
+      assertTrue(list.isLabelUnique("B"));
+
+      // Removed positions no longer count
+      list.removePosition(0);
+      msp.setLabel("D");
+      assertTrue(list.isLabelUnique("C"));
+      assertEquals(0, list.getPositionIndex("D"));
+      assertEquals("Pos1", list.generateLabel());
+   }
+
+   @Test
+   public void testBulkOperationsNotifyOnce() {
+      PositionList list = new PositionList();
+      final int[] notifications = {0};
+      list.addChangeListener(e -> ++notifications[0]);
+      List<MultiStagePosition> positions = new ArrayList<>();
+      for (int i = 0; i < 1000; ++i) {
+         positions.add(position("Pos-" + (i % 500), i));
+      }
+      list.addPositions(positions);
+      assertEquals(1, notifications[0]);
+      assertEquals(1000, list.getNumberOfPositions());
+      for (int i = 0; i < 1000; ++i) {
+         assertEquals(i, list.getPositionIndex(list.getPosition(i).getLabel()));
+      }
+      assertNotEquals("Pos-0", list.getPosition(500).getLabel());
+
+      MultiStagePosition[] reversed = list.getPositions();
+      Collections.reverse(Arrays.asList(reversed));
+      list.setPositions(reversed);
+      assertEquals(2, notifications[0]);
+      assertEquals(999, list.getPositionIndex("Pos-0"));
+   }
+
+   @Test
+   public void testSaveAndLoad() throws IOException {
+      PositionList list = new PositionList();
+      List<MultiStagePosition> positions = new ArrayList<>();
+      for (int i = 0; i < 100; ++i) {
+         MultiStagePosition msp = position("Pos" + i, i);
+         msp.setProperty("Well", "A" + (i % 12));
+         msp.setGridCoordinates(i / 10, i % 10);
+         positions.add(msp);
+      }
+      list.addPositions(positions);
+      File file = new File(folder.getRoot(), "positions.json");
+      list.save(file);
+      assertEquals(list.toPropertyMap().toJSON(),
+            Files.toString(file, Charsets.UTF_8));
+      // Saving again keeps a backup
+      list.save(file);
+      assertTrue(new File(folder.getRoot(), "positions.json~").exists());
+
+      PositionList loaded = new PositionList();
+      loaded.addPosition(position("Old", 0.0));
+      loaded.load(file);
+      assertEquals(100, loaded.getNumberOfPositions());
+      assertTrue(loaded.isLabelUnique("Old"));
+      for (int i = 0; i < 100; ++i) {
+         MultiStagePosition msp = loaded.getPosition(i);
+         assertEquals("Pos" + i, msp.getLabel());
+         assertEquals(i, msp.getX(), 0.0);
+         assertEquals("A" + (i % 12), msp.getProperty("Well"));
+         assertEquals(i, loaded.getPositionIndex("Pos" + i));
+      }
+   }
+
+   @Test
+   public void testLoadPropertyMapFile() throws IOException {
+      PositionList list = new PositionList();
+      list.addPositions(Arrays.asList(position("A", 1.0), position("B", 2.0)));
+      File file = new File(folder.getRoot(), "positions.json");
+      // Written by the generic property map code, with an extra key first
+      PropertyMaps.builder().putString("Comment", "test")
+            .putAll(list.toPropertyMap()).build().saveJSON(file, true, false);
+      PositionList loaded = new PositionList();
+      loaded.load(file);
+      assertEquals(2, loaded.getNumberOfPositions());
+      assertEquals(1, loaded.getPositionIndex("B"));
+      assertEquals(2.0, loaded.getPosition(1).getX(), 0.0);
+   }
+}
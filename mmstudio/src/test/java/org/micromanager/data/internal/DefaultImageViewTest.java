@@ -0,0 +1,137 @@
+package org.micromanager.data.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.ImageViews;
+
+public class DefaultImageViewTest {
+   private static final int WIDTH = 7;
+   private static final int HEIGHT = 5;
+
+   private static short[] createPixels() {
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) (i * 1237);
+      }
+      return pixels;
+   }
+
+   private static DefaultImage createImage(short[] pixels) {
+      return new DefaultImage(pixels, WIDTH, HEIGHT, 2, 1,
+            new DefaultCoords.Builder().channel(1).build(),
+            new DefaultMetadata.Builder().build());
+   }
+
+   private static ImageProcessor rotate(ImageProcessor proc, int degrees) {
+      for (int i = 0; i < degrees / 90; ++i) {
+         proc = proc.rotateRight();
+      }
+      return proc;
+   }
+
+   private static void assertPixels(ImageProcessor expected, Image actual) {
+      assertEquals(expected.getWidth(), actual.getWidth());
+      assertEquals(expected.getHeight(), actual.getHeight());
+      for (int y = 0; y < expected.getHeight(); ++y) {
+         for (int x = 0; x < expected.getWidth(); ++x) {
+            assertEquals(expected.get(x, y), actual.getIntensityAt(x, y));
+         }
+      }
+      ShortBuffer written = ShortBuffer.allocate(actual.getWidth() * actual.getHeight());
+      ((DefaultImage) actual).writePixels(written);
+      assertArrayEquals((short[]) expected.getPixels(), written.array());
+      assertArrayEquals((short[]) expected.getPixels(), (short[]) actual.getRawPixels());
+   }
+
+   @Test
+   public void testMirrorAndRotateMatchImageJ() {
+      short[] pixels = createPixels();
+      for (boolean isMirrored : new boolean[] {false, true}) {
+         for (int degrees = 0; degrees < 360; degrees += 90) {
+            Image view = createImage(pixels);
+            ImageProcessor expected = new ShortProcessor(WIDTH, HEIGHT, createPixels(), null);
+            if (isMirrored) {
+               view = ImageViews.mirror(view);
+               expected.flipHorizontal();
+            }
+            view = ImageViews.rotate(view, degrees);
+            assertPixels(rotate(expected, degrees), view);
+         }
+      }
+   }
+
+   @Test
+   public void testCropOfRotatedView() {
+      short[] pixels = createPixels();
+      Image view = ImageViews.crop(ImageViews.rotate(
+            ImageViews.mirror(createImage(pixels)), 90), 1, 2, 3, 4);
+      ImageProcessor expected = new ShortProcessor(WIDTH, HEIGHT, createPixels(), null);
+      expected.flipHorizontal();
+      expected = expected.rotateRight();
+      expected.setRoi(1, 2, 3, 4);
+      assertPixels(expected.crop(), view);
+   }
+
+   @Test
+   public void testViewSharesPixelsUntilMaterialized() {
+      short[] pixels = createPixels();
+      DefaultImage image = createImage(pixels);
+      DefaultImage view = image.crop(2, 1, 3, 3);
+      Coords coords = new DefaultCoords.Builder().channel(4).build();
+      DefaultImage copy = (DefaultImage) view.copyAtCoords(coords);
+      assertTrue(view.isView());
+      assertTrue(copy.isView());
+      assertSame(coords, copy.getCoords());
+      assertSame(image.getMetadata(), view.getMetadata());
+      pixels[2 + WIDTH] = 42;
+      assertEquals(42, view.getIntensityAt(0, 0));
+      view.getRawPixels();
+      assertFalse(view.isView());
+      pixels[2 + WIDTH] = 43;
+      assertEquals(42, view.getIntensityAt(0, 0));
+      // Materializing a view does not affect its copies
+      assertEquals(43, copy.getIntensityAt(0, 0));
+   }
+
+   @Test
+   public void testRgbMirror() {
+      byte[] pixels = new byte[4 * 3 * 2];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (byte) i;
+      }
+      DefaultImage image = new DefaultImage(pixels, 3, 2, 4, 3, null, null);
+      DefaultImage view = image.mirror();
+      for (int c = 0; c < 3; ++c) {
+         assertEquals(image.getComponentIntensityAt(2, 1, c),
+               view.getComponentIntensityAt(0, 1, c));
+      }
+      ByteBuffer written = ByteBuffer.allocate(pixels.length);
+      view.writePixels(written);
+      assertArrayEquals(written.array(), (byte[]) view.getRawPixels());
+   }
+
+   @Test
+   public void test8BitCrop() {
+      byte[] pixels = new byte[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (byte) (i * 37);
+      }
+      Image view = ImageViews.crop(new DefaultImage(pixels, WIDTH, HEIGHT, 1, 1,
+            null, null), 3, 1, 4, 2);
+      ImageProcessor expected = new ByteProcessor(WIDTH, HEIGHT, pixels.clone());
+      expected.setRoi(3, 1, 4, 2);
+      assertArrayEquals((byte[]) expected.crop().getPixels(), (byte[]) view.getRawPixels());
+   }
+}
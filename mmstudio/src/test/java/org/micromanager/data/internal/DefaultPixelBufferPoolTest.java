@@ -0,0 +1,186 @@
+package org.micromanager.data.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.micromanager.data.Coordinates;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+
+public class DefaultPixelBufferPoolTest {
+   // Odd sizes, so that other tests do not lease the same size class. Tests
+   // that use the shared pool each add their own number to the height.
+   private static final int WIDTH = 13;
+   private static final int HEIGHT = 11;
+
+   private static DefaultImage createImage(Object pixels) {
+      return new DefaultImage(pixels, WIDTH, ((short[]) pixels).length / WIDTH,
+            2, 1, null, null);
+   }
+
+   /**
+    * Collect garbage until the pool hands out the given array again.
+    */
+   private static boolean awaitReturn(DefaultPixelBufferPool pool, short[] pixels)
+         throws InterruptedException {
+      for (int i = 0; i < 100; ++i) {
+         System.gc();
+         Thread.sleep(20);
+         if (pool.lease(WIDTH, pixels.length / WIDTH, 2, 1) == pixels) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   @Test
+   public void testReleaseAndLeaseAgain() {
+      DefaultPixelBufferPool pool = new DefaultPixelBufferPool(1 << 20);
+      Object pixels = pool.lease(WIDTH, HEIGHT, 2, 1);
+      assertTrue(pixels instanceof short[]);
+      assertEquals(WIDTH * HEIGHT, ((short[]) pixels).length);
+      assertEquals(0, pool.getHitCount());
+      assertEquals(1, pool.getMissCount());
+      pool.release(pixels);
+      assertEquals(2 * WIDTH * HEIGHT, pool.getBytesRetained());
+      // Other sizes and types are separate size classes
+      assertTrue(pool.lease(WIDTH, HEIGHT, 1, 1) instanceof byte[]);
+      assertEquals(WIDTH * HEIGHT * 4, ((byte[]) pool.lease(WIDTH, HEIGHT, 4, 3)).length);
+      assertSame(pixels, pool.lease(WIDTH, HEIGHT, 2, 1));
+      assertEquals(1, pool.getHitCount());
+      assertEquals(3, pool.getMissCount());
+      assertEquals(0, pool.getBytesRetained());
+      // Arrays that were not leased are ignored
+      pool.release(new short[WIDTH * HEIGHT]);
+      assertEquals(0, pool.getBytesRetained());
+   }
+
+   @Test
+   public void testRetainedBytesAreCapped() {
+      DefaultPixelBufferPool pool = new DefaultPixelBufferPool(3 * WIDTH * HEIGHT);
+      Object first = pool.lease(WIDTH, HEIGHT, 2, 1);
+      Object second = pool.lease(WIDTH, HEIGHT, 2, 1);
+      pool.release(first);
+      pool.release(second);
+      assertEquals(2 * WIDTH * HEIGHT, pool.getBytesRetained());
+   }
+
+   @Test
+   public void testCreateImageDoesNotCopyLeasedArray() {
+      DefaultPixelBufferPool pool = DefaultPixelBufferPool.getInstance();
+      Object pixels = pool.lease(WIDTH, HEIGHT, 2, 1);
+      assertTrue(pool.isLeased(pixels));
+      Image image = new DefaultDataManager(null).createImage(pixels, WIDTH, HEIGHT,
+            2, 1, null, null);
+      assertTrue(((DefaultImage) image).isPooled());
+      assertFalse(pool.isLeased(pixels));
+      Object other = new short[WIDTH * HEIGHT];
+      assertNotSame(other, new DefaultDataManager(null).createImage(other, WIDTH,
+            HEIGHT, 2, 1, null, null).getRawPixels());
+      assertSame(pixels, image.getRawPixels());
+      assertFalse(((DefaultImage) image).isPooled());
+   }
+
+   @Test
+   public void testArrayReturnsWhenImagesAreGone() throws InterruptedException {
+      DefaultPixelBufferPool pool = DefaultPixelBufferPool.getInstance();
+      short[] pixels = (short[]) pool.lease(WIDTH, HEIGHT + 1, 2, 1);
+      DefaultImage image = createImage(pixels);
+      Image copy = image.copyAtCoords(image.getCoords().copyBuilder().t(1).build());
+      Image view = image.crop(1, 1, 3, 3);
+      assertTrue(((DefaultImage) copy).isPooled());
+      image = null;
+      view = null;
+      // The copy still uses the array
+      System.gc();
+      assertNotSame(pixels, pool.lease(WIDTH, HEIGHT + 1, 2, 1));
+      assertEquals(0, copy.getIntensityAt(0, 0));
+      copy = null;
+      assertTrue(awaitReturn(pool, pixels));
+   }
+
+   @Test
+   public void testExposedArrayDoesNotReturn() throws InterruptedException {
+      DefaultPixelBufferPool pool = DefaultPixelBufferPool.getInstance();
+      short[] pixels = (short[]) pool.lease(WIDTH, HEIGHT + 2, 2, 1);
+      DefaultImage image = createImage(pixels);
+      Image copy = image.copyWithMetadata(image.getMetadata());
+      assertSame(pixels, copy.getRawPixels());
+      assertFalse(image.isPooled());
+      image = null;
+      copy = null;
+      assertFalse(awaitReturn(pool, pixels));
+   }
+
+   @Test
+   public void testReadingDoesNotExpose() {
+      DefaultPixelBufferPool pool = DefaultPixelBufferPool.getInstance();
+      short[] pixels = (short[]) pool.lease(WIDTH, HEIGHT + 3, 2, 1);
+      DefaultImage image = createImage(pixels);
+      assertSame(pixels, DefaultImage.getRawPixelsForReading(image));
+      assertTrue(image.isPooled());
+      DefaultImageJConverter.createProcessor(image, true);
+      assertTrue(image.isPooled());
+   }
+
+   @Test
+   public void testReleasedClaimReturnsWithoutWaiting() throws InterruptedException {
+      DefaultPixelBufferPool pool = DefaultPixelBufferPool.getInstance();
+      short[] pixels = (short[]) pool.lease(WIDTH, HEIGHT + 4, 2, 1);
+      DefaultImage image = createImage(pixels);
+      Image stored = DefaultImage.claim(image);
+      assertNotSame(image, stored);
+      Image handedOut = DefaultImage.handOut(stored);
+      assertNotSame(stored, handedOut);
+      assertTrue(((DefaultImage) handedOut).isPooled());
+      image = null;
+      handedOut = null;
+      // Storage still holds the array
+      assertFalse(awaitReturn(pool, pixels));
+      DefaultImage.release(stored);
+      assertSame(pixels, pool.lease(WIDTH, HEIGHT + 4, 2, 1));
+      // Releasing twice, or collecting a released image, returns it once
+      DefaultImage.release(stored);
+      stored = null;
+      System.gc();
+      assertNotSame(pixels, pool.lease(WIDTH, HEIGHT + 4, 2, 1));
+      // Images that are not pooled are stored as they are
+      Image other = createImage(new short[WIDTH * (HEIGHT + 4)]);
+      assertSame(other, DefaultImage.claim(other));
+      assertSame(other, DefaultImage.handOut(other));
+      DefaultImage.release(other);
+   }
+
+   @Test
+   public void testStorageRAMReleasesReplacedAndDeletedImages() throws Exception {
+      DefaultPixelBufferPool pool = DefaultPixelBufferPool.getInstance();
+      StorageRAM storage = new StorageRAM(new DefaultDatastore(null));
+      Coords coords = Coordinates.builder().t(0).build();
+      // A handed out image keeps its array
+      short[] keptPixels = (short[]) pool.lease(WIDTH, HEIGHT + 5, 2, 1);
+      storage.putImage(createImage(keptPixels).copyAtCoords(coords));
+      Image kept = storage.getImage(coords);
+      short[][] pixels = new short[3][];
+      for (int i = 0; i < 3; ++i) {
+         pixels[i] = (short[]) pool.lease(WIDTH, HEIGHT + 5, 2, 1);
+         storage.putImage(createImage(pixels[i]).copyAtCoords(
+               coords.copyBuilder().t(i % 2).build()));
+      }
+      // The first of these was replaced
+      assertTrue(awaitReturn(pool, pixels[0]));
+      assertTrue(((DefaultImage) kept).isPooled());
+      assertEquals(0, kept.getIntensityAt(0, 0));
+      storage.deleteImage(coords.copyBuilder().t(1).build());
+      assertNull(storage.getImage(coords.copyBuilder().t(1).build()));
+      assertTrue(awaitReturn(pool, pixels[1]));
+      storage.close();
+      assertTrue(awaitReturn(pool, pixels[2]));
+      kept = null;
+      assertTrue(awaitReturn(pool, keptPixels));
+   }
+}
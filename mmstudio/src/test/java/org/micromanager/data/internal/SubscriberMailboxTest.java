@@ -0,0 +1,165 @@
+package org.micromanager.data.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.micromanager.data.DataProvider;
+import org.micromanager.data.DataProviderHasNewImageEvent;
+import org.micromanager.data.DatastoreFrozenEvent;
+
+public class SubscriberMailboxTest {
+
+   private static final class SlowSubscriber {
+      final CountDownLatch release_ = new CountDownLatch(1);
+      final CountDownLatch frozen_ = new CountDownLatch(1);
+      final List<DataProviderHasNewImageEvent> images_ =
+            Collections.synchronizedList(new ArrayList<>());
+
+      @Subscribe
+      public void onNewImage(DataProviderHasNewImageEvent e) throws InterruptedException {
+         images_.add(e);
+         release_.await(5, TimeUnit.SECONDS);
+      }
+
+      @Subscribe
+      public void onFrozen(DatastoreFrozenEvent e) {
+         frozen_.countDown();
+      }
+   }
+
+   @Test
+   public void testLatestImageDropsSupersededEvents() throws Exception {
+      SlowSubscriber subscriber = new SlowSubscriber();
+      SubscriberMailbox mailbox = new SubscriberMailbox(subscriber,
+            DataProvider.NewImageDelivery.LATEST_IMAGE, 4);
+      List<DefaultNewImageEvent> events = new ArrayList<>();
+      for (int i = 0; i < 100; ++i) {
+         events.add(new DefaultNewImageEvent(null, null));
+      }
+      // None of these may block, although the subscriber is stuck on the first
+      for (DefaultNewImageEvent event : events) {
+         mailbox.offer(event);
+      }
+      mailbox.offer(new DefaultDatastoreFrozenEvent());
+      subscriber.release_.countDown();
+      assertTrue(subscriber.frozen_.await(5, TimeUnit.SECONDS));
+
+      SubscriberMailbox.Statistics stats = mailbox.getStatistics();
+      assertEquals(100, stats.getDroppedCount() + subscriber.images_.size());
+      assertTrue(subscriber.images_.size() <= 2);
+      assertTrue(subscriber.images_.contains(events.get(99)));
+      assertTrue(stats.getDeliveredCount() >= subscriber.images_.size());
+   }
+
+   @Test
+   public void testEveryImageDeliversAll() throws Exception {
+      SlowSubscriber subscriber = new SlowSubscriber();
+      subscriber.release_.countDown();
+      SubscriberMailbox mailbox = new SubscriberMailbox(subscriber,
+            DataProvider.NewImageDelivery.EVERY_IMAGE, 4);
+      for (int i = 0; i < 100; ++i) {
+         mailbox.offer(new DefaultNewImageEvent(null, null));
+      }
+      mailbox.offer(new DefaultDatastoreFrozenEvent());
+      assertTrue(subscriber.frozen_.await(5, TimeUnit.SECONDS));
+      assertEquals(100, subscriber.images_.size());
+      assertEquals(0, mailbox.getStatistics().getDroppedCount());
+   }
+
+   @Test
+   public void testEveryImageToleratesBacklog() throws Exception {
+      SlowSubscriber subscriber = new SlowSubscriber();
+      SubscriberMailbox mailbox = new SubscriberMailbox(subscriber,
+            DataProvider.NewImageDelivery.EVERY_IMAGE, 4);
+      // None of these may block, although the subscriber is stuck on the
+      // first and they are far more than the capacity asked for
+      for (int i = 0; i < 100; ++i) {
+         mailbox.offer(new DefaultNewImageEvent(null, null));
+      }
+      mailbox.offer(new DefaultDatastoreFrozenEvent());
+      assertTrue(mailbox.getStatistics().getQueuedCount() >= 99);
+      subscriber.release_.countDown();
+      assertTrue(subscriber.frozen_.await(5, TimeUnit.SECONDS));
+      assertEquals(100, subscriber.images_.size());
+   }
+
+   @Test
+   public void testEveryImageBlockingWaitsForSubscriber() throws Exception {
+      final SlowSubscriber subscriber = new SlowSubscriber();
+      final SubscriberMailbox mailbox = new SubscriberMailbox(subscriber,
+            DataProvider.NewImageDelivery.EVERY_IMAGE_BLOCKING, 4);
+      final CountDownLatch offered = new CountDownLatch(1);
+      Thread producer = new Thread(() -> {
+         try {
+            for (int i = 0; i < 10; ++i) {
+               mailbox.offer(new DefaultNewImageEvent(null, null));
+            }
+            mailbox.offer(new DefaultDatastoreFrozenEvent());
+            offered.countDown();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      });
+      producer.start();
+      // The subscriber is stuck on the first image, so at most capacity
+      // more can be queued
+      assertFalse(offered.await(200, TimeUnit.MILLISECONDS));
+      assertEquals(4, mailbox.getStatistics().getQueuedCount());
+      subscriber.release_.countDown();
+      assertTrue(offered.await(5, TimeUnit.SECONDS));
+      assertTrue(subscriber.frozen_.await(5, TimeUnit.SECONDS));
+      assertEquals(10, subscriber.images_.size());
+   }
+
+   @Test
+   public void testEveryImageIsBounded() throws Exception {
+      final SlowSubscriber subscriber = new SlowSubscriber();
+      final SubscriberMailbox mailbox = new SubscriberMailbox(subscriber,
+            DataProvider.NewImageDelivery.EVERY_IMAGE, 4);
+      final int count = SubscriberMailbox.EVERY_IMAGE_CAPACITY + 10;
+      final CountDownLatch offered = new CountDownLatch(1);
+      Thread producer = new Thread(() -> {
+         try {
+            for (int i = 0; i < count; ++i) {
+               mailbox.offer(new DefaultNewImageEvent(null, null));
+            }
+            mailbox.offer(new DefaultDatastoreFrozenEvent());
+            offered.countDown();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      });
+      producer.start();
+      assertFalse(offered.await(200, TimeUnit.MILLISECONDS));
+      assertEquals(SubscriberMailbox.EVERY_IMAGE_CAPACITY,
+            mailbox.getStatistics().getQueuedCount());
+      subscriber.release_.countDown();
+      assertTrue(offered.await(5, TimeUnit.SECONDS));
+      assertTrue(subscriber.frozen_.await(5, TimeUnit.SECONDS));
+      assertEquals(count, subscriber.images_.size());
+      assertEquals(0, mailbox.getStatistics().getDroppedCount());
+   }
+
+   @Test
+   public void testShutDownDeliversQueuedEvents() throws Exception {
+      SlowSubscriber subscriber = new SlowSubscriber();
+      SubscriberMailbox mailbox = new SubscriberMailbox(subscriber,
+            DataProvider.NewImageDelivery.EVERY_IMAGE, 4);
+      mailbox.offer(new DefaultNewImageEvent(null, null));
+      mailbox.offer(new DefaultDatastoreFrozenEvent());
+      mailbox.shutDown();
+      mailbox.offer(new DefaultNewImageEvent(null, null));
+      subscriber.release_.countDown();
+      assertTrue(subscriber.frozen_.await(5, TimeUnit.SECONDS));
+      assertEquals(1, subscriber.images_.size());
+      assertEquals(0, mailbox.getStatistics().getQueuedCount());
+   }
+}
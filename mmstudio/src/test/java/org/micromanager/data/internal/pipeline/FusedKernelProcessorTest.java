@@ -0,0 +1,257 @@
+package org.micromanager.data.internal.pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.PixelKernel;
+import org.micromanager.data.PixelKernelProcessor;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+
+public class FusedKernelProcessorTest {
+
+   private static final class ListContext implements ProcessorContext {
+      final List<Image> images_ = new ArrayList<>();
+
+      @Override
+      public void outputImage(Image image) {
+         images_.add(image);
+      }
+
+      @Override
+      public SummaryMetadata getSummaryMetadata() {
+         return null;
+      }
+   }
+
+   private abstract static class TestKernel implements PixelKernel {
+      final int width_;
+      final int height_;
+      final Coords coords_;
+      final Metadata metadata_;
+
+      TestKernel(int width, int height, Coords coords, Metadata metadata) {
+         width_ = width;
+         height_ = height;
+         coords_ = coords;
+         metadata_ = metadata;
+      }
+
+      @Override
+      public int getWidth() {
+         return width_;
+      }
+
+      @Override
+      public int getHeight() {
+         return height_;
+      }
+
+      @Override
+      public Coords getCoords() {
+         return coords_;
+      }
+
+      @Override
+      public Metadata getMetadata() {
+         return metadata_;
+      }
+   }
+
+   /**
+    * Swaps x and y.
+    */
+   private static final class Transposer implements PixelKernelProcessor {
+      @Override
+      public List<PixelKernel> createPixelKernels(Coords coords, Metadata metadata,
+            final int width, final int height, int bytesPerPixel) {
+         return Collections.singletonList(new TestKernel(height, width, coords, metadata) {
+            @Override
+            public int getSourceIndex(int index) {
+               return index / height + (index % height) * width;
+            }
+         });
+      }
+
+      @Override
+      public void processImage(Image image, ProcessorContext context) {
+         int width = image.getWidth();
+         int height = image.getHeight();
+         short[] input = (short[]) image.getRawPixels();
+         short[] output = new short[input.length];
+         for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+               output[y + x * height] = input[x + y * width];
+            }
+         }
+         context.outputImage(new DefaultImage(output, height, width, 2, 1,
+               image.getCoords(), image.getMetadata()));
+      }
+   }
+
+   /**
+    * Splits into a left and a right half, as channels 2c and 2c + 1.
+    */
+   private static final class Splitter implements PixelKernelProcessor {
+      @Override
+      public List<PixelKernel> createPixelKernels(Coords coords, Metadata metadata,
+            final int width, int height, int bytesPerPixel) {
+         List<PixelKernel> result = new ArrayList<>();
+         for (int i = 0; i < 2; ++i) {
+            final int offset = i * width / 2;
+            result.add(new TestKernel(width / 2, height, coords.copyBuilder()
+                  .channel(2 * coords.getChannel() + i).build(), metadata) {
+               @Override
+               public int getSourceIndex(int index) {
+                  return offset + index % (width / 2) + (index / (width / 2)) * width;
+               }
+            });
+         }
+         return result;
+      }
+
+      @Override
+      public void processImage(Image image, ProcessorContext context) {
+         int width = image.getWidth();
+         int height = image.getHeight();
+         short[] input = (short[]) image.getRawPixels();
+         for (int i = 0; i < 2; ++i) {
+            short[] output = new short[width / 2 * height];
+            for (int y = 0; y < height; ++y) {
+               System.arraycopy(input, i * width / 2 + y * width,
+                     output, y * (width / 2), width / 2);
+            }
+            context.outputImage(new DefaultImage(output, width / 2, height, 2, 1,
+                  image.getCoords().copyBuilder()
+                        .channel(2 * image.getCoords().getChannel() + i).build(),
+                  image.getMetadata()));
+         }
+      }
+   }
+
+   /**
+    * Adds the pixel index to every pixel, except in channel 1, which it
+    * passes along unmodified.
+    */
+   private static final class Offsetter implements PixelKernelProcessor {
+      @Override
+      public List<PixelKernel> createPixelKernels(Coords coords, Metadata metadata,
+            int width, int height, int bytesPerPixel) {
+         if (coords.getChannel() == 1) {
+            return null;
+         }
+         return Collections.singletonList(new TestKernel(width, height, coords, metadata) {
+            @Override
+            public int apply(int value, int index) {
+               return Math.min(0xffff, value + index);
+            }
+         });
+      }
+
+      @Override
+      public void processImage(Image image, ProcessorContext context) {
+         if (image.getCoords().getChannel() == 1) {
+            context.outputImage(image);
+            return;
+         }
+         short[] input = (short[]) image.getRawPixels();
+         short[] output = new short[input.length];
+         for (int i = 0; i < input.length; ++i) {
+            output[i] = (short) Math.min(0xffff, (input[i] & 0xffff) + i);
+         }
+         context.outputImage(new DefaultImage(output, image.getWidth(),
+               image.getHeight(), 2, 1, image.getCoords(), image.getMetadata()));
+      }
+   }
+
+   private static Image createImage(int width, int height, int channel) {
+      short[] pixels = new short[width * height];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) (i * 7919);
+      }
+      return new DefaultImage(pixels, width, height, 2, 1,
+            new DefaultCoords.Builder().channel(channel).build(),
+            new DefaultMetadata.Builder().build());
+   }
+
+   private static List<Image> runSequentially(List<? extends Processor> processors,
+                                              Image image) {
+      List<Image> images = Collections.singletonList(image);
+      for (Processor processor : processors) {
+         ListContext context = new ListContext();
+         for (Image input : images) {
+            processor.processImage(input, context);
+         }
+         images = context.images_;
+      }
+      return images;
+   }
+
+   private static void assertSameImages(List<Image> expected, List<Image> actual) {
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); ++i) {
+         assertEquals(expected.get(i).getWidth(), actual.get(i).getWidth());
+         assertEquals(expected.get(i).getHeight(), actual.get(i).getHeight());
+         assertEquals(expected.get(i).getCoords(), actual.get(i).getCoords());
+         assertArrayEquals((short[]) expected.get(i).getRawPixels(),
+               (short[]) actual.get(i).getRawPixels());
+      }
+   }
+
+   @Test
+   public void testAdjacentKernelProcessorsAreFused() {
+      Processor plain = (image, context) -> context.outputImage(image);
+      Transposer transposer = new Transposer();
+      Splitter splitter = new Splitter();
+      Offsetter offsetter = new Offsetter();
+      List<Processor> fused = DefaultPipeline.fuseKernelProcessors(
+            Arrays.asList(transposer, splitter, plain, offsetter));
+      assertEquals(3, fused.size());
+      assertEquals(Arrays.asList(transposer, splitter),
+            ((FusedKernelProcessor) fused.get(0)).getProcessors());
+      assertSame(plain, fused.get(1));
+      assertSame(offsetter, fused.get(2));
+   }
+
+   @Test
+   public void testFusedMatchesSequential() {
+      List<PixelKernelProcessor> processors = Arrays.asList(
+            new Transposer(), new Splitter(), new Offsetter());
+      FusedKernelProcessor fused = new FusedKernelProcessor(processors);
+      for (Image image : Arrays.asList(createImage(6, 4, 0), createImage(700, 300, 0))) {
+         ListContext context = new ListContext();
+         fused.processImage(image, context);
+         assertSameImages(runSequentially(processors, image), context.images_);
+      }
+      assertTrue(fused.getBytesSavedPerImage() > 0);
+   }
+
+   @Test
+   public void testProcessorWithoutKernelsGetsImage() {
+      // The Offsetter has no kernel for channel 1, which is the right half
+      // of channel 0, or anything coming from channel 1
+      List<PixelKernelProcessor> processors = Arrays.asList(
+            new Splitter(), new Offsetter(), new Transposer());
+      FusedKernelProcessor fused = new FusedKernelProcessor(processors);
+      for (int channel = 0; channel < 2; ++channel) {
+         Image image = createImage(8, 5, channel);
+         ListContext context = new ListContext();
+         fused.processImage(image, context);
+         assertSameImages(runSequentially(processors, image), context.images_);
+      }
+   }
+}
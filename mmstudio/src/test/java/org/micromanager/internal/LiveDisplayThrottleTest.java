@@ -0,0 +1,32 @@
+package org.micromanager.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LiveDisplayThrottleTest {
+   private static final long STEP_NS = 1000000000L;
+
+   @Test
+   public void testIntervalKeepsEdtLoadBounded() {
+      LiveDisplayThrottle throttle = new LiveDisplayThrottle();
+      assertEquals(20.0, throttle.update(10.0, 5.0, 0), 1e-9);
+      // Stats slower than rendering: stats set the pace
+      throttle.reset();
+      assertEquals(30.0, throttle.update(10.0, 30.0, 0), 1e-9);
+      // Unknown costs do not throttle
+      throttle.reset();
+      assertEquals(0.0, throttle.update(Double.NaN, Double.NaN, 0), 1e-9);
+   }
+
+   @Test
+   public void testSlewRateIsLimited() {
+      LiveDisplayThrottle throttle = new LiveDisplayThrottle();
+      throttle.update(10.0, 0.0, 0);
+      // Too soon after the last adjustment
+      assertEquals(20.0, throttle.update(100.0, 0.0, 1000), 1e-9);
+      assertEquals(25.0, throttle.update(100.0, 0.0, STEP_NS), 1e-9);
+      assertEquals(31.25, throttle.update(100.0, 0.0, 2 * STEP_NS), 1e-9);
+      assertEquals(23.4375, throttle.update(0.0, 0.0, 3 * STEP_NS), 1e-9);
+   }
+}
@@ -0,0 +1,136 @@
+package org.micromanager.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import mmcorej.TaggedImage;
+import org.junit.Test;
+
+public class LiveReplayBufferTest {
+
+   @Test
+   public void testKeepsMostRecentFramesWithinBudget() {
+      LiveReplayBuffer buffer = new LiveReplayBuffer();
+      buffer.setMaxBytes(3 * 100 * 2);
+      TaggedImage[] images = new TaggedImage[10];
+      for (int i = 0; i < images.length; ++i) {
+         short[] pix = new short[100];
+         pix[0] = (short) i;
+         images[i] = new TaggedImage(pix, null);
+         assertTrue(buffer.add(images[i], 0, (long) i));
+      }
+      assertEquals(3, buffer.getCapacity());
+      assertEquals(100.0, buffer.getFillPercent(), 1e-9);
+      List<LiveReplayBuffer.Frame> frames = buffer.takeFrames();
+      assertEquals(3, frames.size());
+      // Oldest first
+      assertEquals(7, ((short[]) frames.get(0).getTaggedImage().pix)[0]);
+      assertEquals(9, ((short[]) frames.get(2).getTaggedImage().pix)[0]);
+      assertEquals(0.0, buffer.getFillPercent(), 1e-9);
+      assertEquals(0, buffer.getFramesDropped());
+   }
+
+   @Test
+   public void testTakenFramesAreNotReused() {
+      LiveReplayBuffer buffer = new LiveReplayBuffer();
+      buffer.setMaxBytes(2 * 10);
+      for (int i = 0; i < 3; ++i) {
+         byte[] pix = new byte[10];
+         pix[0] = (byte) i;
+         buffer.add(new TaggedImage(pix, null), 0, (long) i);
+      }
+      List<LiveReplayBuffer.Frame> taken = buffer.takeFrames();
+      assertEquals(2, taken.size());
+      assertEquals(0, buffer.getNumFrames());
+      assertEquals(0, buffer.getBytesUsed());
+      // Fill the ring again, twice over
+      for (int i = 3; i < 7; ++i) {
+         byte[] pix = new byte[10];
+         pix[0] = (byte) i;
+         buffer.add(new TaggedImage(pix, null), 0, (long) i);
+      }
+      assertEquals(1, ((byte[]) taken.get(0).getTaggedImage().pix)[0]);
+      assertEquals(2, ((byte[]) taken.get(1).getTaggedImage().pix)[0]);
+      List<LiveReplayBuffer.Frame> frames = buffer.takeFrames();
+      assertEquals(5, ((byte[]) frames.get(0).getTaggedImage().pix)[0]);
+      assertEquals(6, ((byte[]) frames.get(1).getTaggedImage().pix)[0]);
+   }
+
+   @Test
+   public void testPixelTypeChangeResizesRing() {
+      LiveReplayBuffer buffer = new LiveReplayBuffer();
+      buffer.setMaxBytes(1000);
+      buffer.add(new TaggedImage(new byte[20], null), 0, 0L);
+      assertEquals(50, buffer.getCapacity());
+      // Same number of bytes, different pixel type
+      short[] pix = new short[10];
+      pix[9] = 7;
+      assertTrue(buffer.add(new TaggedImage(pix, null), 0, 1L));
+      List<LiveReplayBuffer.Frame> frames = buffer.takeFrames();
+      assertEquals(1, frames.size());
+      assertEquals(7, ((short[]) frames.get(0).getTaggedImage().pix)[9]);
+   }
+
+   @Test
+   public void testImageNumbersAndDrops() {
+      LiveReplayBuffer buffer = new LiveReplayBuffer();
+      buffer.setMaxBytes(1000);
+      buffer.add(new TaggedImage(new byte[10], null), 0, 5L);
+      buffer.add(new TaggedImage(new byte[10], null), 0, 9L);
+      assertEquals(3, buffer.getFramesDropped());
+      assertFalse(buffer.isNewer(0, 9));
+      assertTrue(buffer.isNewer(0, 10));
+      assertTrue(buffer.isNewer(1, 0));
+      buffer.resetImageNumbers();
+      assertTrue(buffer.isNewer(0, 1));
+      assertEquals(2, buffer.getNumFrames());
+
+      buffer.setMaxBytes(0);
+      assertFalse(buffer.add(new TaggedImage(new byte[10], null), 0, 10L));
+      assertFalse(buffer.isEnabled());
+      assertEquals(0, buffer.getNumFrames());
+   }
+
+   @Test
+   public void testRepeatedFramesAreRejected() {
+      LiveReplayBuffer buffer = new LiveReplayBuffer();
+      buffer.setMaxBytes(1000);
+      TaggedImage image = new TaggedImage(new byte[10], null);
+      assertTrue(buffer.add(image, 0, 5L));
+      // Fetched again from the Core
+      assertFalse(buffer.add(image, 0, 5L));
+      assertFalse(buffer.add(new TaggedImage(new byte[10], null), 0, 4L));
+      // Other channels are numbered independently
+      assertTrue(buffer.add(new TaggedImage(new byte[10], null), 1, 4L));
+      assertEquals(2, buffer.getNumFrames());
+      assertEquals(2, buffer.getFramesRecorded());
+   }
+
+   @Test
+   public void testUnsupportedPixelTypesAreSkipped() {
+      LiveReplayBuffer buffer = new LiveReplayBuffer();
+      buffer.setMaxBytes(Long.MAX_VALUE);
+      assertFalse(buffer.add(new TaggedImage(new double[10], null), 0, 0L));
+      assertFalse(buffer.add(new TaggedImage(new byte[0], null), 0, 1L));
+      assertEquals(0, buffer.getCapacity());
+      assertEquals(0, buffer.getNumFrames());
+   }
+
+   @Test
+   public void testFramesAreCopied() {
+      LiveReplayBuffer buffer = new LiveReplayBuffer();
+      buffer.setMaxBytes(1000);
+      byte[] pix = new byte[10];
+      pix[0] = 1;
+      TaggedImage image = new TaggedImage(pix, null);
+      buffer.add(image, 0, 0L);
+      // E.g. a processor modifying the live image in place
+      pix[0] = 2;
+      TaggedImage recorded = buffer.takeFrames().get(0).getTaggedImage();
+      assertNotSame(pix, recorded.pix);
+      assertEquals(1, ((byte[]) recorded.pix)[0]);
+   }
+}
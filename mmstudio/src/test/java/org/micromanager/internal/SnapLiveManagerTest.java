@@ -0,0 +1,149 @@
+package org.micromanager.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import mmcorej.TaggedImage;
+import mmcorej.org.json.JSONObject;
+import org.junit.Test;
+import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+
+public class SnapLiveManagerTest {
+   private static final String CHANNEL_TAG = "Camera-CameraChannelIndex";
+
+   /**
+    * Sequence buffer holding the given images, oldest first, that counts
+    * how many images are fetched from it.
+    */
+   private static final class FakeSequenceBuffer implements SnapLiveManager.SequenceBuffer {
+      final List<TaggedImage> images_ = new ArrayList<>();
+      int fetches_ = 0;
+
+      @Override
+      public TaggedImage getNBeforeLast(int n) throws Exception {
+         fetches_++;
+         if (n >= images_.size()) {
+            throw new Exception("No image");
+         }
+         return images_.get(images_.size() - 1 - n);
+      }
+
+      void add(long imageNumber, Integer channel) throws Exception {
+         JSONObject tags = new JSONObject();
+         tags.put(PropertyKey.IMAGE_NUMBER.key(), imageNumber);
+         if (channel != null) {
+            tags.put(CHANNEL_TAG, channel);
+         }
+         images_.add(new TaggedImage(new short[4], tags));
+      }
+   }
+
+   private static final PerformanceMonitor PERF_MON =
+         PerformanceMonitor.createWithTimeConstantMs(1000.0);
+
+   private static int scan(FakeSequenceBuffer buffer, LiveReplayBuffer replay,
+                           TaggedImage[] newest, List<TaggedImage> toRecord,
+                           List<Integer> toRecordChannels) throws Exception {
+      int numFound = SnapLiveManager.scanSequenceBuffer(buffer, CHANNEL_TAG,
+            replay, PERF_MON, newest, toRecord, toRecordChannels);
+      for (int i = toRecord.size() - 1; i >= 0; --i) {
+         replay.add(toRecord.get(i), toRecordChannels.get(i),
+               toRecord.get(i).tags.getLong(PropertyKey.IMAGE_NUMBER.key()));
+      }
+      return numFound;
+   }
+
+   @Test
+   public void testSingleCameraBackfill() throws Exception {
+      LiveReplayBuffer replay = new LiveReplayBuffer();
+      replay.setMaxBytes(100 * 8);
+      FakeSequenceBuffer buffer = new FakeSequenceBuffer();
+      for (long i = 0; i < 20; ++i) {
+         buffer.add(i, null);
+      }
+      TaggedImage[] newest = new TaggedImage[1];
+      List<TaggedImage> toRecord = new ArrayList<>();
+      List<Integer> toRecordChannels = new ArrayList<>();
+      // Nothing recorded yet, so the capacity is unknown and only the usual
+      // number of images is scanned
+      assertEquals(1, scan(buffer, replay, newest, toRecord, toRecordChannels));
+      assertSame(buffer.images_.get(19), newest[0]);
+      assertEquals(6, toRecord.size());
+      assertEquals(6, replay.getNumFrames());
+
+      // The frames since the last scan are all recorded, and the scan stops
+      // at the last frame already recorded
+      for (long i = 20; i < 30; ++i) {
+         buffer.add(i, null);
+      }
+      newest = new TaggedImage[1];
+      toRecord.clear();
+      toRecordChannels.clear();
+      buffer.fetches_ = 0;
+      assertEquals(1, scan(buffer, replay, newest, toRecord, toRecordChannels));
+      assertSame(buffer.images_.get(29), newest[0]);
+      assertEquals(10, toRecord.size());
+      assertEquals(11, buffer.fetches_);
+      assertEquals(16, replay.getNumFrames());
+      assertEquals(0, replay.getFramesDropped());
+
+      // Without new frames, only the newest image is fetched
+      newest = new TaggedImage[1];
+      toRecord.clear();
+      toRecordChannels.clear();
+      buffer.fetches_ = 0;
+      assertEquals(1, scan(buffer, replay, newest, toRecord, toRecordChannels));
+      assertEquals(0, toRecord.size());
+      assertEquals(1, buffer.fetches_);
+   }
+
+   @Test
+   public void testMultiCameraBackfill() throws Exception {
+      LiveReplayBuffer replay = new LiveReplayBuffer();
+      replay.setMaxBytes(100 * 8);
+      FakeSequenceBuffer buffer = new FakeSequenceBuffer();
+      for (long i = 0; i < 4; ++i) {
+         buffer.add(i, 0);
+         buffer.add(i, 1);
+      }
+      TaggedImage[] newest = new TaggedImage[2];
+      List<TaggedImage> toRecord = new ArrayList<>();
+      List<Integer> toRecordChannels = new ArrayList<>();
+      assertEquals(2, scan(buffer, replay, newest, toRecord, toRecordChannels));
+      assertSame(buffer.images_.get(6), newest[0]);
+      assertSame(buffer.images_.get(7), newest[1]);
+      assertEquals(8, replay.getNumFrames());
+
+      for (long i = 4; i < 7; ++i) {
+         buffer.add(i, 0);
+         buffer.add(i, 1);
+      }
+      newest = new TaggedImage[2];
+      toRecord.clear();
+      toRecordChannels.clear();
+      buffer.fetches_ = 0;
+      assertEquals(2, scan(buffer, replay, newest, toRecord, toRecordChannels));
+      assertEquals(6, toRecord.size());
+      assertEquals(8, buffer.fetches_);
+      assertEquals(14, replay.getNumFrames());
+   }
+
+   @Test
+   public void testNotRecording() throws Exception {
+      LiveReplayBuffer replay = new LiveReplayBuffer();
+      FakeSequenceBuffer buffer = new FakeSequenceBuffer();
+      for (long i = 0; i < 20; ++i) {
+         buffer.add(i, null);
+      }
+      TaggedImage[] newest = new TaggedImage[1];
+      List<TaggedImage> toRecord = new ArrayList<>();
+      assertEquals(1, SnapLiveManager.scanSequenceBuffer(buffer, CHANNEL_TAG,
+            replay, PERF_MON, newest, toRecord, new ArrayList<>()));
+      assertSame(buffer.images_.get(19), newest[0]);
+      assertEquals(0, toRecord.size());
+      assertEquals(1, buffer.fetches_);
+   }
+}
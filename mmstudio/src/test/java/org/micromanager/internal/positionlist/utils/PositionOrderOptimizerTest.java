@@ -0,0 +1,198 @@
+package org.micromanager.internal.positionlist.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import org.micromanager.MultiStagePosition;
+import org.micromanager.PositionList;
+
+public class PositionOrderOptimizerTest {
+   // 1 mm/s, no acceleration or settling: times are distances in ms
+   private static final PositionOrderOptimizer.AxisModel LINEAR =
+         new PositionOrderOptimizer.AxisModel(1000.0, 0.0, 0.0);
+
+   private static MultiStagePosition position(String label, double x, double y, double z) {
+      MultiStagePosition msp = new MultiStagePosition("XY", x, y, "Z", z);
+      msp.setLabel(label);
+      return msp;
+   }
+
+   /**
+    * @return the tiles of a rows x columns grid with 100 um spacing, in
+    *         random order after the first one
+    */
+   private static PositionList shuffledGrid(String prefix, int rows, int columns,
+                                            double x0, Random random) {
+      List<MultiStagePosition> tiles = new ArrayList<>();
+      for (int row = 0; row < rows; ++row) {
+         for (int column = 0; column < columns; ++column) {
+            tiles.add(position(String.format("%s-%03d_%03d", prefix, row, column),
+                  x0 + 100.0 * column, 100.0 * row, 0.0));
+         }
+      }
+      Collections.shuffle(tiles.subList(1, tiles.size()), random);
+      PositionList list = new PositionList();
+      tiles.forEach(list::addPosition);
+      return list;
+   }
+
+   private static void assertPermutation(int[] order) {
+      Set<Integer> seen = new HashSet<>();
+      for (int i : order) {
+         assertTrue(i >= 0 && i < order.length);
+         assertTrue(seen.add(i));
+      }
+   }
+
+   @Test
+   public void testAxisModel() {
+      PositionOrderOptimizer.AxisModel model =
+            new PositionOrderOptimizer.AxisModel(1000.0, 10000.0, 50.0);
+      assertEquals(0.0, model.moveSeconds(0.0), 1e-12);
+      // Never reaches full speed below v^2 / a = 100 um
+      assertEquals(2.0 * Math.sqrt(25.0 / 10000.0) + 0.05, model.moveSeconds(25.0), 1e-12);
+      assertEquals(1.0 + 0.1 + 0.05, model.moveSeconds(1000.0), 1e-12);
+      // Continuous where full speed is reached
+      assertEquals(model.moveSeconds(100.0 - 1e-9), model.moveSeconds(100.0), 1e-6);
+   }
+
+   @Test
+   public void testOrderedListIsKept() {
+      PositionList list = new PositionList();
+      for (int i = 0; i < 20; ++i) {
+         list.addPosition(position("Pos" + i, 100.0 * i, 0.0, 0.0));
+      }
+      PositionOrderOptimizer optimizer = new PositionOrderOptimizer(LINEAR, null);
+      PositionOrderOptimizer.Result result = optimizer.optimize(list);
+      assertFalse(result.isImproved());
+      assertEquals(1.9, result.getOriginalSeconds(), 1e-9);
+      assertEquals(1.9, optimizer.predictSeconds(list), 1e-9);
+      assertEquals(0.0, result.getSavedSeconds(), 0.0);
+   }
+
+   @Test
+   public void testShuffledGrid() {
+      PositionList list = shuffledGrid("Pos-1", 20, 30, 0.0, new Random(1));
+      PositionOrderOptimizer optimizer = new PositionOrderOptimizer(LINEAR, null);
+      PositionOrderOptimizer.Result result = optimizer.optimize(list);
+      int[] order = result.getOrder();
+      assertPermutation(order);
+      assertEquals(0, order[0]);
+      assertTrue(result.isImproved());
+      // A snake through the grid takes 599 moves of 100 ms
+      assertTrue(result.getOptimizedSeconds() < 1.1 * 59.9);
+      assertTrue(result.getOriginalSeconds() > 5 * 59.9);
+      PositionList ordered = result.apply(list);
+      assertEquals(result.getOptimizedSeconds(), optimizer.predictSeconds(ordered), 1e-9);
+      assertEquals(list.getPosition(order[7]).getLabel(), ordered.getPosition(7).getLabel());
+   }
+
+   @Test
+   public void testZIsIncluded() {
+      // Same XY position twice, far apart in Z
+      PositionList list = new PositionList();
+      list.addPosition(position("a", 0.0, 0.0, 0.0));
+      list.addPosition(position("b", 0.0, 0.0, 500.0));
+      list.addPosition(position("c", 0.0, 0.0, 0.0));
+      list.addPosition(position("d", 0.0, 0.0, 500.0));
+      PositionOrderOptimizer xyOnly = new PositionOrderOptimizer(LINEAR, null);
+      assertFalse(xyOnly.optimize(list).isImproved());
+      PositionOrderOptimizer withZ = new PositionOrderOptimizer(LINEAR, LINEAR);
+      PositionOrderOptimizer.Result result = withZ.optimize(list);
+      assertArrayEquals(new int[] {0, 2, 1, 3}, result.getOrder());
+      assertEquals(1.5, result.getOriginalSeconds(), 1e-9);
+      assertEquals(0.5, result.getOptimizedSeconds(), 1e-9);
+   }
+
+   @Test
+   public void testGroupsStayTogether() {
+      // Three grids next to each other, listed in the order 0, 2, 1
+      Random random = new Random(2);
+      PositionList list = new PositionList();
+      for (int grid : new int[] {0, 2, 1}) {
+         PositionList tiles = shuffledGrid("Pos-" + grid, 5, 5, 1000.0 * grid, random);
+         for (MultiStagePosition msp : tiles.getPositions()) {
+            list.addPosition(msp);
+         }
+      }
+      PositionOrderOptimizer optimizer = new PositionOrderOptimizer(LINEAR, null);
+      optimizer.setGroupBy(PositionOrderOptimizer::labelPrefix);
+      PositionOrderOptimizer.Result result = optimizer.optimize(list);
+      int[] order = result.getOrder();
+      assertPermutation(order);
+      String[] expected = {"Pos-0", "Pos-1", "Pos-2"};
+      for (int i = 0; i < order.length; ++i) {
+         assertEquals(expected[i / 25],
+               PositionOrderOptimizer.labelPrefix(list.getPosition(order[i])));
+      }
+
+      optimizer.setKeepGroupOrder(true);
+      order = optimizer.optimize(list).getOrder();
+      expected = new String[] {"Pos-0", "Pos-2", "Pos-1"};
+      for (int i = 0; i < order.length; ++i) {
+         assertEquals(expected[i / 25],
+               PositionOrderOptimizer.labelPrefix(list.getPosition(order[i])));
+      }
+
+      optimizer.setKeepOrderWithinGroups(true);
+      assertFalse(optimizer.optimize(list).isImproved());
+      optimizer.setKeepGroupOrder(false);
+      order = optimizer.optimize(list).getOrder();
+      for (int i = 0; i < 25; ++i) {
+         assertEquals(i, order[i]);
+         assertEquals(50 + i, order[25 + i]);
+         assertEquals(25 + i, order[50 + i]);
+      }
+   }
+
+   @Test
+   public void testLargeListUsesHilbertCurve() {
+      int side = 240;
+      Random random = new Random(3);
+      PositionList list = shuffledGrid("Pos-1", side, side, 0.0, random);
+      assertTrue(list.getNumberOfPositions() > PositionOrderOptimizer.MAX_NEAREST_NEIGHBOR_POSITIONS);
+      PositionOrderOptimizer optimizer = new PositionOrderOptimizer(LINEAR, null);
+      optimizer.setTimeBudgetMs(200);
+      PositionOrderOptimizer.Result result = optimizer.optimize(list);
+      int[] order = result.getOrder();
+      assertPermutation(order);
+      assertEquals(0, order[0]);
+      // Close to one move between neighbours per position
+      assertTrue(result.getOptimizedSeconds() < 1.5 * 0.1 * side * side);
+   }
+
+   @Test
+   public void testHilbertIndex() {
+      // The curve visits the 4 x 4 square in steps of one
+      Set<Long> seen = new HashSet<>();
+      int[] xs = new int[16];
+      int[] ys = new int[16];
+      for (int x = 0; x < 4; ++x) {
+         for (int y = 0; y < 4; ++y) {
+            long d = PositionOrderOptimizer.hilbertIndex(4, x, y);
+            assertTrue(seen.add(d));
+            xs[(int) d] = x;
+            ys[(int) d] = y;
+         }
+      }
+      for (int d = 1; d < 16; ++d) {
+         assertEquals(1, Math.abs(xs[d] - xs[d - 1]) + Math.abs(ys[d] - ys[d - 1]));
+      }
+   }
+
+   @Test
+   public void testFormatSeconds() {
+      assertEquals("12.3 s", PositionOrderOptimizer.formatSeconds(12.34));
+      assertEquals("2 min 5 s", PositionOrderOptimizer.formatSeconds(125.0));
+      assertEquals("1 h 2 min", PositionOrderOptimizer.formatSeconds(3725.0));
+   }
+}
@@ -12,8 +12,12 @@ import java.awt.Dimension;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import static org.junit.Assert.*;
@@ -81,6 +85,33 @@ public class PropertyMapJSONSerializerTest {
       assertEquals(pm, pm2);
    }
 
+   @Test
+   public void testStreamedList() throws Exception {
+      List<PropertyMap> elements = new ArrayList<>();
+      for (int i = 0; i < 3; ++i) {
+         elements.add(PropertyMaps.builder().putString("Label", "Pos" + i)
+               .putDouble("x", i * 1.5).putStringList("tags", "a", "<b>").build());
+      }
+      PropertyMap pm = PropertyMaps.builder().putPropertyMapList("List", elements).build();
+      StringWriter writer = new StringWriter();
+      PropertyMapJSONSerializer.toJSON(writer, "List", elements);
+      assertEquals(PropertyMapJSONSerializer.toJSON(pm), writer.toString());
+
+      List<PropertyMap> read = new ArrayList<>();
+      String json = PropertyMapJSONSerializer.toJSON(PropertyMaps.builder()
+            .putString("Other", "skipped").putPropertyMapList("List", elements).build());
+      assertTrue(PropertyMapJSONSerializer.fromJSON(new StringReader(json), "List", read::add));
+      assertEquals(elements, read);
+
+      // Legacy formats are left to fromJSON(String)
+      read.clear();
+      assertFalse(PropertyMapJSONSerializer.fromJSON(
+            new StringReader("1.0\n{\"List\": []}"), "List", read::add));
+      assertFalse(PropertyMapJSONSerializer.fromJSON(
+            new StringReader("{\"map\": {}}"), "List", read::add));
+      assertTrue(read.isEmpty());
+   }
+
 
    @Test
    public void testLegacyEmptyNoVersion() throws Exception {
@@ -0,0 +1,144 @@
+package org.micromanager.internal.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class PrioritizedEventBusTest {
+
+   private static final class ValueEvent {
+      final String key_;
+      final int value_;
+
+      ValueEvent(String key, int value) {
+         key_ = key;
+         value_ = value;
+      }
+   }
+
+   private static final class Recorder {
+      final String name_;
+      final List<String> log_;
+
+      Recorder(String name, List<String> log) {
+         name_ = name;
+         log_ = log;
+      }
+
+      @Subscribe
+      public void onEvent(String event) {
+         log_.add(name_ + ":" + event);
+      }
+   }
+
+   @Test
+   public void testDispatchOrderFollowsPriority() {
+      PrioritizedEventBus bus = new PrioritizedEventBus(false);
+      List<String> log = new ArrayList<>();
+      bus.register(new Recorder("late", log), 200);
+      bus.register(new Recorder("early", log), 1);
+      bus.register(new Recorder("default", log));
+      bus.post("a");
+      assertEquals(3, log.size());
+      assertEquals("early:a", log.get(0));
+      assertEquals("default:a", log.get(1));
+      assertEquals("late:a", log.get(2));
+   }
+
+   @Test
+   public void testUnregister() {
+      PrioritizedEventBus bus = new PrioritizedEventBus(false);
+      List<String> log = new ArrayList<>();
+      Recorder r = new Recorder("r", log);
+      bus.register(r, 5);
+      bus.unregister(r);
+      bus.unregister(r); // Must not throw
+      bus.post("a");
+      assertTrue(log.isEmpty());
+   }
+
+   @Test
+   public void testAsyncDispatchOrderFollowsPriority() throws Exception {
+      PrioritizedEventBus bus = new PrioritizedEventBus(true);
+      final List<String> log = Collections.synchronizedList(new ArrayList<>());
+      final CountDownLatch done = new CountDownLatch(2);
+      bus.register(new Recorder("late", log), 200);
+      bus.register(new Recorder("early", log), 1);
+      bus.register(new Object() {
+         @Subscribe
+         public void onEvent(String event) {
+            done.countDown();
+         }
+      }, 300);
+      bus.post("a");
+      bus.post("b");
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      bus.shutDown();
+      assertEquals(4, log.size());
+      assertEquals("early:a", log.get(0));
+      assertEquals("late:a", log.get(1));
+      assertEquals("early:b", log.get(2));
+      assertEquals("late:b", log.get(3));
+   }
+
+   @Test
+   public void testDispatchCounts() {
+      PrioritizedEventBus bus = new PrioritizedEventBus(false);
+      List<String> log = new ArrayList<>();
+      bus.register(new Recorder("r", log));
+      // Coalescing has no effect on a synchronous bus
+      bus.enableCoalescing(String.class);
+      bus.post("a");
+      bus.post("b");
+      bus.post(1);
+      assertEquals(2, log.size());
+      assertEquals(Long.valueOf(2), bus.getDispatchCounts().get(String.class));
+      assertEquals(Long.valueOf(1), bus.getDispatchCounts().get(Integer.class));
+      assertTrue(bus.getCoalescedCounts().isEmpty());
+   }
+
+   @Test
+   public void testCoalescingDeliversLatestPerKey() throws Exception {
+      PrioritizedEventBus bus = new PrioritizedEventBus(true);
+      bus.enableCoalescing(ValueEvent.class, e -> e.key_);
+      final List<String> received = Collections.synchronizedList(new ArrayList<>());
+      final CountDownLatch blocker = new CountDownLatch(1);
+      final CountDownLatch delivered = new CountDownLatch(2);
+      bus.register(new Object() {
+         @Subscribe
+         public void onBlock(Integer ignored) throws InterruptedException {
+            blocker.await(5, TimeUnit.SECONDS);
+         }
+
+         @Subscribe
+         public void onValue(ValueEvent e) {
+            received.add(e.key_ + e.value_);
+            delivered.countDown();
+         }
+      });
+      // Hold the dispatch thread so that value events pile up
+      bus.post(0);
+      for (int i = 1; i <= 100; ++i) {
+         bus.post(new ValueEvent("x", i));
+         bus.post(new ValueEvent("y", -i));
+      }
+      // Superseded events are counted when they are posted
+      assertEquals(Long.valueOf(198), bus.getCoalescedCounts().get(ValueEvent.class));
+      blocker.countDown();
+      assertTrue(delivered.await(5, TimeUnit.SECONDS));
+      bus.shutDown();
+      assertEquals(2, received.size());
+      assertTrue(received.contains("x100"));
+      assertTrue(received.contains("y-100"));
+      assertEquals(Long.valueOf(198), bus.getCoalescedCounts().get(ValueEvent.class));
+      assertEquals(Long.valueOf(2), bus.getDispatchCounts().get(ValueEvent.class));
+      assertEquals(Long.valueOf(1), bus.getDispatchCounts().get(Integer.class));
+   }
+}
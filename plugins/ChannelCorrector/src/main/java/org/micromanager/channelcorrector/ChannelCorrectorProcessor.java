@@ -0,0 +1,133 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ChannelCorrectorProcessor.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ChannelCorrector plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.channelcorrector;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.micromanager.Studio;
+import org.micromanager.channelcorrector.utils.ImageAffineTransformException;
+import org.micromanager.channelcorrector.utils.RemapTable;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.propertymap.MutablePropertyMapView;
+
+/**
+ * Pipeline processor that aligns all channels to the first one, while they
+ * are being acquired.
+ *
+ * <p>The affine transform of each channel is the one set in the
+ * ChannelCorrector window for the channel group and channel names of the
+ * acquisition. Transforms are taken to be in the pixel coordinates of the
+ * full camera frame; images of a ROI are transformed accordingly. For every
+ * channel, a remap table is built for the first image and reused for all
+ * following images of the same size and ROI. Unlike the correction of
+ * existing datastores, images are not cropped: pixels that have no
+ * counterpart in the original image are set to 0.
+ */
+public class ChannelCorrectorProcessor implements Processor {
+   private final Studio studio_;
+   private final int interpolation_;
+   // Transform of every channel, null if the channel is left alone
+   private final List<AffineTransform> transforms_ = new ArrayList<>();
+   private final Map<Integer, RemapTable> tables_ = new HashMap<>();
+
+   /**
+    * Constructor.
+    *
+    * @param studio        The Micro-Manager Studio Object
+    * @param interpolation RemapTable.NEAREST_NEIGHBOR or RemapTable.BILINEAR
+    */
+   public ChannelCorrectorProcessor(Studio studio, int interpolation) {
+      studio_ = studio;
+      interpolation_ = interpolation;
+   }
+
+   @Override
+   public SummaryMetadata processSummaryMetadata(SummaryMetadata summary) {
+      transforms_.clear();
+      tables_.clear();
+      List<String> channels = summary.getChannelNameList();
+      if (channels == null || channels.size() < 2) {
+         return summary;
+      }
+      MutablePropertyMapView settings = studio_.profile().getSettings(
+            ChannelCorrectorPanel.class);
+      transforms_.add(null);
+      for (int c = 1; c < channels.size(); c++) {
+         String key = ChannelCorrectorPanel.settingsKey(summary.getChannelGroup(),
+               channels.get(0), channels.get(c));
+         AffineTransform transform = settings.getAffineTransform(key, null);
+         if (transform == null) {
+            studio_.logs().logMessage("ChannelCorrector: no transform for channel "
+                  + channels.get(c) + ", leaving it alone");
+         } else if (transform.isIdentity()) {
+            transform = null;
+         }
+         transforms_.add(transform);
+      }
+      return summary;
+   }
+
+   @Override
+   public void processImage(Image image, ProcessorContext context) {
+      int c = image.getCoords().getC();
+      AffineTransform transform = c < transforms_.size() ? transforms_.get(c) : null;
+      if (transform == null || image.getNumComponents() != 1
+            || image.getBytesPerPixel() > 2) {
+         context.outputImage(image);
+         return;
+      }
+      int width = image.getWidth();
+      int height = image.getHeight();
+      Rectangle roi = image.getMetadata().getROI();
+      if (roi != null && (roi.x != 0 || roi.y != 0)) {
+         AffineTransform roiTransform = AffineTransform.getTranslateInstance(-roi.x, -roi.y);
+         roiTransform.concatenate(transform);
+         roiTransform.translate(roi.x, roi.y);
+         transform = roiTransform;
+      }
+      RemapTable table = tables_.get(c);
+      if (table == null
+            || !table.isFor(transform, interpolation_, width, height, width, height)) {
+         try {
+            table = new RemapTable(transform, interpolation_, width, height, width, height);
+         } catch (ImageAffineTransformException iate) {
+            studio_.logs().logError(iate.getMessage());
+            transforms_.set(c, null);
+            context.outputImage(image);
+            return;
+         }
+         tables_.put(c, table);
+      }
+      Object pixels = studio_.data().getPixelBufferPool().lease(width, height,
+            image.getBytesPerPixel(), 1);
+      if (pixels instanceof short[]) {
+         table.warp((short[]) image.getRawPixels(), (short[]) pixels);
+      } else {
+         table.warp((byte[]) image.getRawPixels(), (byte[]) pixels);
+      }
+      context.outputImage(studio_.data().createImage(pixels, width, height,
+            image.getBytesPerPixel(), 1, image.getCoords(), image.getMetadata()));
+   }
+}
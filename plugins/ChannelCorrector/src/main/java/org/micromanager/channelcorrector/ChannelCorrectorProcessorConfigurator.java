@@ -0,0 +1,86 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ChannelCorrectorProcessorConfigurator.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ChannelCorrector plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.channelcorrector;
+
+import java.awt.Toolkit;
+import javax.swing.JComboBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import net.miginfocom.swing.MigLayout;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.internal.utils.WindowPositioning;
+
+/**
+ * Configuration UI of the ChannelCorrector pipeline processor.
+ */
+public class ChannelCorrectorProcessorConfigurator extends JFrame
+      implements ProcessorConfigurator {
+   private final JComboBox<String> interpolationBox_;
+
+   /**
+    * Constructor. Draws the UI.
+    *
+    * @param settings Settings of the processor
+    * @param studio The Micro-Manager Studio Object
+    */
+   public ChannelCorrectorProcessorConfigurator(PropertyMap settings, Studio studio) {
+      JPanel panel = new JPanel(new MigLayout("flowx"));
+      panel.add(new JLabel("<html>Aligns all channels to the first one during acquisition,<br>"
+            + "using the transforms set in " + ChannelCorrector.MENUNAME + "</html>"),
+            "span, wrap");
+
+      panel.add(new JLabel("interpolation"));
+      interpolationBox_ = new JComboBox<>(new String[] {
+            ChannelCorrectorProcessorPlugin.NEAREST_NEIGHBOR,
+            ChannelCorrectorProcessorPlugin.BILINEAR});
+      interpolationBox_.setSelectedItem(settings.getString(
+            ChannelCorrectorProcessorPlugin.INTERPOLATION,
+            ChannelCorrectorProcessorPlugin.NEAREST_NEIGHBOR));
+      panel.add(interpolationBox_, "growx, wrap");
+      super.add(panel);
+
+      super.setTitle(ChannelCorrectorProcessorPlugin.MENU_NAME);
+      super.setIconImage(Toolkit.getDefaultToolkit().getImage(
+            getClass().getResource("/org/micromanager/icons/microscope.gif")));
+      super.setLocation(300, 300);
+      WindowPositioning.setUpLocationMemory(this, this.getClass(), null);
+   }
+
+   @Override
+   public void showGUI() {
+      pack();
+      setVisible(true);
+   }
+
+   @Override
+   public PropertyMap getSettings() {
+      return PropertyMaps.builder()
+            .putString(ChannelCorrectorProcessorPlugin.INTERPOLATION,
+                  (String) interpolationBox_.getSelectedItem())
+            .build();
+   }
+
+   @Override
+   public void cleanup() {
+      dispose();
+   }
+}
@@ -0,0 +1,46 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ChannelCorrectorProcessorFactory.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ChannelCorrector plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.channelcorrector;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.channelcorrector.utils.RemapTable;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorFactory;
+
+/**
+ * Creates ChannelCorrectorProcessors.
+ */
+public class ChannelCorrectorProcessorFactory implements ProcessorFactory {
+   private final Studio studio_;
+   private final PropertyMap settings_;
+
+   public ChannelCorrectorProcessorFactory(Studio studio, PropertyMap settings) {
+      studio_ = studio;
+      settings_ = settings;
+   }
+
+   @Override
+   public Processor createProcessor() {
+      String interpolation = settings_.getString(ChannelCorrectorProcessorPlugin.INTERPOLATION,
+            ChannelCorrectorProcessorPlugin.NEAREST_NEIGHBOR);
+      return new ChannelCorrectorProcessor(studio_,
+            ChannelCorrectorProcessorPlugin.BILINEAR.equals(interpolation)
+                  ? RemapTable.BILINEAR : RemapTable.NEAREST_NEIGHBOR);
+   }
+}
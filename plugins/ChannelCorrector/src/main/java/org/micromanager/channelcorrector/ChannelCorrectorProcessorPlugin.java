@@ -0,0 +1,74 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ChannelCorrectorProcessorPlugin.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ChannelCorrector plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.channelcorrector;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.data.ProcessorFactory;
+import org.micromanager.data.ProcessorPlugin;
+import org.scijava.plugin.Plugin;
+import org.scijava.plugin.SciJavaPlugin;
+
+/**
+ * Makes the channel correction available as an on-the-fly pipeline processor.
+ */
+@Plugin(type = ProcessorPlugin.class)
+public class ChannelCorrectorProcessorPlugin implements ProcessorPlugin, SciJavaPlugin {
+   public static final String MENU_NAME = "Channel Corrector";
+   public static final String INTERPOLATION = "Interpolation";
+   public static final String NEAREST_NEIGHBOR = "Nearest neighbor";
+   public static final String BILINEAR = "Bilinear";
+
+   private Studio studio_;
+
+   @Override
+   public void setContext(Studio studio) {
+      studio_ = studio;
+   }
+
+   @Override
+   public ProcessorConfigurator createConfigurator(PropertyMap settings) {
+      return new ChannelCorrectorProcessorConfigurator(settings, studio_);
+   }
+
+   @Override
+   public ProcessorFactory createFactory(PropertyMap settings) {
+      return new ChannelCorrectorProcessorFactory(studio_, settings);
+   }
+
+   @Override
+   public String getName() {
+      return MENU_NAME;
+   }
+
+   @Override
+   public String getHelpText() {
+      return "Corrects spatial aberrations between channels during acquisition";
+   }
+
+   @Override
+   public String getVersion() {
+      return "Version 0.1-beta";
+   }
+
+   @Override
+   public String getCopyright() {
+      return "Regents of the University of California, 2020";
+   }
+}
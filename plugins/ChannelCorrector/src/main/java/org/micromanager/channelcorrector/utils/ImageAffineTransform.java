@@ -4,16 +4,9 @@
 
 package org.micromanager.channelcorrector.utils;
 
-import ij.ImagePlus;
-import ij.gui.Roi;
-import ij.process.ByteProcessor;
-import ij.process.ImageProcessor;
-import ij.process.ShortProcessor;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -23,6 +16,7 @@ import org.micromanager.data.Coords;
 import org.micromanager.data.DataProvider;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
+import org.micromanager.data.ImageViews;
 import org.micromanager.display.DataViewer;
 import org.micromanager.display.DisplayWindow;
 
@@ -33,8 +27,9 @@ public class ImageAffineTransform {
    private final Studio studio_;
    private final DataViewer dataViewer_;
    private final ArrayList<AffineTransformOp> affineTransformOps_;
-   private final int interpolationType_;
-   private final Object renderingHint_;
+   private final int interpolation_;
+   // Remap tables built so far, reused for all images of the same size
+   private final List<RemapTable> tables_ = new ArrayList<>();
 
    public ImageAffineTransform(Studio studio, DataViewer dataViewer,
                                ArrayList<AffineTransform> affineTransforms,
@@ -46,19 +41,13 @@ public class ImageAffineTransform {
             && interpolationType != AffineTransformOp.TYPE_NEAREST_NEIGHBOR) {
          interpolationType = AffineTransformOp.TYPE_NEAREST_NEIGHBOR;
       }
-      interpolationType_ = interpolationType;
+      // Bicubic interpolation is approximated by bilinear interpolation
+      interpolation_ = interpolationType == AffineTransformOp.TYPE_NEAREST_NEIGHBOR
+            ? RemapTable.NEAREST_NEIGHBOR : RemapTable.BILINEAR;
       affineTransformOps_ = new ArrayList<>(affineTransforms.size());
       for (AffineTransform aff : affineTransforms) {
          affineTransformOps_.add(new AffineTransformOp(aff, interpolationType));
       }
-      // Part of work-around bug in AffineTransformOp
-      Object rh = RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR;
-      if (interpolationType_ == AffineTransformOp.TYPE_BICUBIC) {
-         rh = RenderingHints.VALUE_INTERPOLATION_BICUBIC;
-      } else if (interpolationType_ == AffineTransformOp.TYPE_BILINEAR) {
-         rh = RenderingHints.VALUE_INTERPOLATION_BILINEAR;
-      }
-      renderingHint_ = rh;
    }
 
    public void apply(boolean allPositions) throws IOException, ImageAffineTransformException {
@@ -73,14 +62,13 @@ public class ImageAffineTransform {
       int minWidth = dp.getAnyImage().getWidth();
       int minHeight = dp.getAnyImage().getHeight();
       for (int c = 1; c <= maxChan; c++) {
-         AffineTransformOp affineTransformOp = affineTransformOps_.get(c - 1);
-         Image out = transformImage(dp.getImage(builder.c(c).build()),
-               affineTransformOp);
-         if (out.getWidth() < minWidth) {
-            minWidth = out.getWidth();
+         Image inImg = dp.getImage(builder.c(c).build());
+         Rectangle out = transformedSize(inImg, affineTransformOps_.get(c - 1));
+         if (out.width < minWidth) {
+            minWidth = out.width;
          }
-         if (out.getHeight() < minHeight) {
-            minHeight = out.getHeight();
+         if (out.height < minHeight) {
+            minHeight = out.height;
          }
       }
       Datastore outStore = studio_.data().createRAMDatastore();
@@ -126,27 +114,19 @@ public class ImageAffineTransform {
 
    }
 
+   /**
+    * Crops an image. The result is a view that shares the pixels of the
+    * input image, so nothing is copied until the pixels are needed.
+    */
    public Image crop(Image inImg, int x, int y, int width, int height)
          throws ImageAffineTransformException {
-      ImageProcessor ip = null;
-      if (inImg.getBytesPerPixel() == 1) {
-         ip = new ByteProcessor(
-               inImg.getWidth(), inImg.getHeight(), (byte[]) inImg.getRawPixels());
-      } else if (inImg.getBytesPerPixel() == 2) {
-         ip = new ShortProcessor(
-               inImg.getWidth(), inImg.getHeight());
-         ip.setPixels(inImg.getRawPixels());
-      }
-      if (ip != null) {
-         ip.setRoi(new Roi(x, y, width, height));
-         ImageProcessor copyIp = ip.crop();
-         return studio_.data().createImage(copyIp.getPixels(),
-               copyIp.getWidth(), copyIp.getHeight(),
-               inImg.getBytesPerPixel(), inImg.getNumComponents(),
+      try {
+         return ImageViews.crop(inImg, x, y, width, height).copyWith(
                inImg.getCoords().copyBuilder().build(),
                inImg.getMetadata().copyBuilderWithNewUUID().build());
+      } catch (IllegalArgumentException iae) {
+         throw new ImageAffineTransformException("Failed to crop image");
       }
-      throw new ImageAffineTransformException("Failed to crop image");
    }
 
 
@@ -154,69 +134,82 @@ public class ImageAffineTransform {
     * Given an input image and affine transform, will apply the affine transform
     * to the image and returned the transformed image (which may be of a different size
     * from the input image
-    * For now only works on 16 bit (short) images
+    * For now only works on 8 and 16 bit grayscale images
     *
     * @param inImg - input image
     * @param aOp   - affine transform operation that will be applied
     */
    public Image transformImage(Image inImg, AffineTransformOp aOp
    ) throws ImageAffineTransformException {
-
-      if (inImg.getBytesPerPixel() != 2) {
-         throw new ImageAffineTransformException(
-               "ImageAffineTransform only works with 2 bytes per pixel");
-      }
-
-      ShortProcessor testProc = (ShortProcessor) studio_.data().ij().createProcessor(inImg);
-      BufferedImage bi16 = testProc.get16BitBufferedImage();
-      BufferedImage afBi16 = aOp.filter(bi16, null);
-      ImagePlus p = new ImagePlus("", afBi16);
-
-      return studio_.data().ij()
-            .createImage(p.getProcessor(), inImg.getCoords(), inImg.getMetadata());
+      Rectangle size = transformedSize(inImg, aOp);
+      return transformImage(inImg, aOp, size.width, size.height);
    }
 
    /**
     * Uses the provided AffineTransform to transfrom the input image, then crops
-    * it to given width and height
+    * it to given width and height.
+    *
+    * <p>The transform is done with a remap table, which is built for the first
+    * image of a given size, and reused for all following ones.
     *
     * @param inImg  Input Image to be transformed
     * @param aOp    AffineTransformOp to be applied
     * @param width  Width in pixels of result image
     * @param height Height in pixels of result image
     * @return Transformed Image
-    * @throws ImageAffineTransformException Currently only thrown when input != 16 bit image
+    * @throws ImageAffineTransformException Currently only thrown when input is not
+    *                                       an 8 or 16 bit grayscale image
     */
    public Image transformImage(Image inImg, AffineTransformOp aOp, int width, int height
    ) throws ImageAffineTransformException {
 
-      if (inImg.getBytesPerPixel() != 2) {
+      if (inImg.getNumComponents() != 1
+            || (inImg.getBytesPerPixel() != 1 && inImg.getBytesPerPixel() != 2)) {
          throw new ImageAffineTransformException(
-               "ImageAffineTransform only works with 2 bytes per pixel");
+               "ImageAffineTransform only works with 8 and 16 bit grayscale images");
       }
 
-      ShortProcessor testProc = (ShortProcessor) studio_.data().ij().createProcessor(inImg);
-      BufferedImage bi16 = testProc.get16BitBufferedImage();
-      BufferedImage aOpResult = new BufferedImage(bi16.getWidth(),
-            bi16.getHeight(), BufferedImage.TYPE_USHORT_GRAY);
-      aOp.filter(bi16, aOpResult);
-      if (interpolationType_ == AffineTransformOp.TYPE_NEAREST_NEIGHBOR) {
-         aOp.filter(bi16, aOpResult);
+      RemapTable table = getTable(aOp.getTransform(), inImg.getWidth(), inImg.getHeight(),
+            width, height);
+      Object pixels = studio_.data().getPixelBufferPool().lease(width, height,
+            inImg.getBytesPerPixel(), 1);
+      if (pixels instanceof short[]) {
+         table.warp((short[]) inImg.getRawPixels(), (short[]) pixels);
       } else {
-         // work around bug in AffineTransformationOp, see:
-         // http://stackoverflow.com/questions/2428109/java-error-on-bilinear-interpolation-of-16-bit-data
-         // Note: although the image looks alright, histogram values are strangely distorted
-         // presumably, since calculations are done with bytes rather than shorts
-         Graphics2D g = aOpResult.createGraphics();
-         g.transform(aOp.getTransform());
-         g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, renderingHint_);
-         g.drawImage(bi16, null, 0, 0);
+         table.warp((byte[]) inImg.getRawPixels(), (byte[]) pixels);
       }
-      ImagePlus p = new ImagePlus("", aOpResult);
-      ImageProcessor destProc = p.getProcessor();
-      destProc.setRoi(0, 0, width, height);
-      destProc = destProc.crop();
+      return studio_.data().createImage(pixels, width, height, inImg.getBytesPerPixel(), 1,
+            inImg.getCoords(), inImg.getMetadata());
+   }
 
-      return studio_.data().ij().createImage(destProc, inImg.getCoords(), inImg.getMetadata());
+   private synchronized RemapTable getTable(AffineTransform transform, int srcWidth,
+                                            int srcHeight, int width, int height)
+         throws ImageAffineTransformException {
+      for (RemapTable table : tables_) {
+         if (table.isFor(transform, interpolation_, srcWidth, srcHeight, width, height)) {
+            return table;
+         }
+      }
+      RemapTable table = new RemapTable(transform, interpolation_, srcWidth, srcHeight,
+            width, height);
+      tables_.add(table);
+      return table;
+   }
+
+   /**
+    * Size of the transformed image, as AffineTransformOp would create it:
+    * large enough to hold the transformed input, starting at 0, 0.
+    */
+   private static Rectangle transformedSize(Image inImg, AffineTransformOp aOp)
+         throws ImageAffineTransformException {
+      Rectangle bounds = aOp.getTransform().createTransformedShape(
+            new Rectangle(0, 0, inImg.getWidth(), inImg.getHeight())).getBounds();
+      int width = bounds.x + bounds.width;
+      int height = bounds.y + bounds.height;
+      if (width <= 0 || height <= 0) {
+         throw new ImageAffineTransformException(
+               "Transformed image is outside of the image area");
+      }
+      return new Rectangle(0, 0, width, height);
    }
-}
\ No newline at end of file
+}
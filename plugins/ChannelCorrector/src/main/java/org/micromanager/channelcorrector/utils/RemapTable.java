@@ -0,0 +1,241 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          RemapTable.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ChannelCorrector plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.channelcorrector.utils;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import org.micromanager.internal.utils.ParallelPixels;
+
+/**
+ * Affine transform of images of one size, precomputed for every output
+ * pixel.
+ *
+ * <p>The table stores, for each pixel of the output, where its value comes
+ * from in the input image (and, with bilinear interpolation, the weights of
+ * the neighbouring input pixels). Building the table takes about as long as
+ * transforming one image; afterwards, every image of the same size is warped
+ * by a lookup per pixel. Output pixels that fall outside of the input image
+ * are set to 0. The output is divided into tiles, which are warped in
+ * parallel (see {@link ParallelPixels}).
+ *
+ * <p>Pixel (x, y) covers the area from x to x + 1 (and y to y + 1), as in
+ * java.awt.image.AffineTransformOp: the value of an output pixel is taken
+ * from the input at the inverse transform of its center.
+ *
+ * <p>Tables are immutable and can be used from several threads.
+ */
+public final class RemapTable {
+   public static final int NEAREST_NEIGHBOR = 0;
+   public static final int BILINEAR = 1;
+
+   // Edge length of the tiles that are warped in parallel
+   static final int TILE_SIZE = 128;
+   // Bilinear weights are fixed point numbers with 15 fractional bits, so
+   // that a weight of 1 fits in the 16 bits available for it
+   private static final int WEIGHT_BITS = 15;
+   private static final long ONE = 1L << WEIGHT_BITS;
+   private static final long HALF = 1L << (2 * WEIGHT_BITS - 1);
+
+   private final AffineTransform transform_;
+   private final int interpolation_;
+   private final int srcWidth_;
+   private final int srcHeight_;
+   private final int width_;
+   private final int height_;
+   // Input pixel (upper left of the 2x2 neighbourhood with bilinear
+   // interpolation) of every output pixel, or -1 if outside of the input
+   private final int[] index_;
+   // Bilinear weights of the right (upper 16 bits) and lower (lower 16 bits)
+   // neighbours; null for nearest neighbor interpolation
+   private final int[] weights_;
+
+   /**
+    * Builds the table.
+    *
+    * @param transform     maps input pixel coordinates to output coordinates
+    * @param interpolation NEAREST_NEIGHBOR or BILINEAR
+    * @param srcWidth      width of the input images
+    * @param srcHeight     height of the input images
+    * @param width         width of the output images
+    * @param height        height of the output images
+    * @throws ImageAffineTransformException if the transform can not be
+    *                                       inverted
+    */
+   public RemapTable(AffineTransform transform, int interpolation,
+                     int srcWidth, int srcHeight, int width, int height)
+         throws ImageAffineTransformException {
+      if (interpolation != NEAREST_NEIGHBOR && interpolation != BILINEAR) {
+         throw new IllegalArgumentException("Unknown interpolation: " + interpolation);
+      }
+      final AffineTransform inverse;
+      try {
+         inverse = transform.createInverse();
+      } catch (NoninvertibleTransformException nte) {
+         throw new ImageAffineTransformException(
+               "Affine transform can not be inverted: " + transform);
+      }
+      transform_ = new AffineTransform(transform);
+      interpolation_ = interpolation;
+      srcWidth_ = srcWidth;
+      srcHeight_ = srcHeight;
+      width_ = width;
+      height_ = height;
+      index_ = new int[width * height];
+      // Bilinear interpolation needs at least 2 x 2 input pixels
+      weights_ = interpolation == BILINEAR && srcWidth > 1 && srcHeight > 1
+            ? new int[width * height] : null;
+
+      final double[] m = new double[6];
+      inverse.getMatrix(m);
+      forEachTile((x0, y0, x1, y1) -> {
+         for (int y = y0; y < y1; ++y) {
+            for (int x = x0; x < x1; ++x) {
+               double cx = x + 0.5;
+               double cy = y + 0.5;
+               double sx = m[0] * cx + m[2] * cy + m[4];
+               double sy = m[1] * cx + m[3] * cy + m[5];
+               int i = y * width_ + x;
+               if (weights_ == null) {
+                  index_[i] = nearest(sx, sy);
+               } else {
+                  bilinear(sx, sy, i);
+               }
+            }
+         }
+      });
+   }
+
+   private int nearest(double sx, double sy) {
+      int x = (int) Math.floor(sx);
+      int y = (int) Math.floor(sy);
+      if (x < 0 || x >= srcWidth_ || y < 0 || y >= srcHeight_) {
+         return -1;
+      }
+      return y * srcWidth_ + x;
+   }
+
+   private void bilinear(double sx, double sy, int i) {
+      if (sx < 0.0 || sx >= srcWidth_ || sy < 0.0 || sy >= srcHeight_) {
+         index_[i] = -1;
+         return;
+      }
+      // Interpolate between the centers of the input pixels; within half a
+      // pixel of the edge, the edge pixels are used
+      sx -= 0.5;
+      sy -= 0.5;
+      int x = Math.max(0, Math.min(srcWidth_ - 2, (int) Math.floor(sx)));
+      int y = Math.max(0, Math.min(srcHeight_ - 2, (int) Math.floor(sy)));
+      index_[i] = y * srcWidth_ + x;
+      weights_[i] = (weight(sx - x) << 16) | weight(sy - y);
+   }
+
+   private static int weight(double fraction) {
+      return (int) Math.round(Math.max(0.0, Math.min(1.0, fraction)) * ONE);
+   }
+
+   /**
+    * @return true if this table performs the given transform, for images of
+    *         the given size
+    */
+   public boolean isFor(AffineTransform transform, int interpolation,
+                        int srcWidth, int srcHeight, int width, int height) {
+      return transform_.equals(transform) && interpolation_ == interpolation
+            && srcWidth_ == srcWidth && srcHeight_ == srcHeight
+            && width_ == width && height_ == height;
+   }
+
+   public int getWidth() {
+      return width_;
+   }
+
+   public int getHeight() {
+      return height_;
+   }
+
+   /**
+    * Warps a 16-bit image.
+    *
+    * @param src    input pixels, srcWidth x srcHeight
+    * @param result receives the output pixels, width x height
+    */
+   public void warp(final short[] src, final short[] result) {
+      checkLengths(src.length, result.length);
+      forEachTile((x0, y0, x1, y1) -> {
+         for (int y = y0; y < y1; ++y) {
+            for (int i = y * width_ + x0, end = y * width_ + x1; i < end; ++i) {
+               int s = index_[i];
+               if (s < 0) {
+                  result[i] = 0;
+               } else if (weights_ == null) {
+                  result[i] = src[s];
+               } else {
+                  result[i] = (short) interpolate(src[s] & 0xffff, src[s + 1] & 0xffff,
+                        src[s + srcWidth_] & 0xffff, src[s + srcWidth_ + 1] & 0xffff,
+                        weights_[i]);
+               }
+            }
+         }
+      });
+   }
+
+   /**
+    * Warps an 8-bit image.
+    *
+    * @param src    input pixels, srcWidth x srcHeight
+    * @param result receives the output pixels, width x height
+    */
+   public void warp(final byte[] src, final byte[] result) {
+      checkLengths(src.length, result.length);
+      forEachTile((x0, y0, x1, y1) -> {
+         for (int y = y0; y < y1; ++y) {
+            for (int i = y * width_ + x0, end = y * width_ + x1; i < end; ++i) {
+               int s = index_[i];
+               if (s < 0) {
+                  result[i] = 0;
+               } else if (weights_ == null) {
+                  result[i] = src[s];
+               } else {
+                  result[i] = (byte) interpolate(src[s] & 0xff, src[s + 1] & 0xff,
+                        src[s + srcWidth_] & 0xff, src[s + srcWidth_ + 1] & 0xff,
+                        weights_[i]);
+               }
+            }
+         }
+      });
+   }
+
+   private static int interpolate(int upperLeft, int upperRight, int lowerLeft,
+                                  int lowerRight, int weights) {
+      long wx = weights >>> 16;
+      long wy = weights & 0xffff;
+      long upper = upperLeft * (ONE - wx) + upperRight * wx;
+      long lower = lowerLeft * (ONE - wx) + lowerRight * wx;
+      return (int) ((upper * (ONE - wy) + lower * wy + HALF) >> (2 * WEIGHT_BITS));
+   }
+
+   private void checkLengths(int srcLength, int resultLength) {
+      if (srcLength != srcWidth_ * srcHeight_ || resultLength != width_ * height_) {
+         throw new IllegalArgumentException("Expected " + srcWidth_ + "x" + srcHeight_
+               + " input and " + width_ + "x" + height_ + " output pixels");
+      }
+   }
+
+   private void forEachTile(ParallelPixels.Tile tile) {
+      ParallelPixels.forEachTile(width_, height_, TILE_SIZE, tile);
+   }
+}
@@ -0,0 +1,215 @@
+package org.micromanager.channelcorrector.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.AffineTransformOp;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.junit.Test;
+
+public class RemapTableTest {
+   private static final int WIDTH = 61;
+   private static final int HEIGHT = 47;
+   // Output pixels whose source lies closer than this to a pixel boundary
+   // are skipped with nearest neighbor interpolation, since rounding decides
+   // which pixel they come from
+   private static final double TIE = 1e-3;
+
+   // A small rotation, shift and scaling, as found by channel registration
+   private static AffineTransform transform() {
+      AffineTransform transform = AffineTransform.getRotateInstance(Math.toRadians(3), 30, 20);
+      transform.translate(2.3, -1.7);
+      transform.scale(1.02, 0.99);
+      return transform;
+   }
+
+   private static int[] randomPixels(long seed, int length, int maxValue) {
+      Random random = new Random(seed);
+      int[] pixels = new int[length];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = random.nextInt(maxValue + 1);
+      }
+      return pixels;
+   }
+
+   /**
+    * The output of AffineTransformOp, which ChannelCorrectorProcessor used
+    * before RemapTable.
+    */
+   private static int[] reference(AffineTransform transform, int interpolation, int type,
+                                  int[] src, int width, int height) {
+      BufferedImage in = new BufferedImage(width, height, type);
+      in.getRaster().setPixels(0, 0, width, height, src);
+      BufferedImage out = new BufferedImage(width, height, type);
+      new AffineTransformOp(transform, interpolation == RemapTable.NEAREST_NEIGHBOR
+            ? AffineTransformOp.TYPE_NEAREST_NEIGHBOR
+            : AffineTransformOp.TYPE_BILINEAR).filter(in, out);
+      return out.getRaster().getPixels(0, 0, width, height, (int[]) null);
+   }
+
+   private static int[] warp(RemapTable table, int[] src, boolean shorts) {
+      int[] result = new int[table.getWidth() * table.getHeight()];
+      if (shorts) {
+         short[] in = new short[src.length];
+         for (int i = 0; i < src.length; ++i) {
+            in[i] = (short) src[i];
+         }
+         short[] out = new short[result.length];
+         table.warp(in, out);
+         for (int i = 0; i < out.length; ++i) {
+            result[i] = out[i] & 0xffff;
+         }
+      } else {
+         byte[] in = new byte[src.length];
+         for (int i = 0; i < src.length; ++i) {
+            in[i] = (byte) src[i];
+         }
+         byte[] out = new byte[result.length];
+         table.warp(in, out);
+         for (int i = 0; i < out.length; ++i) {
+            result[i] = out[i] & 0xff;
+         }
+      }
+      return result;
+   }
+
+   private static boolean nearTie(double coordinate) {
+      return Math.abs(coordinate - Math.round(coordinate)) < TIE;
+   }
+
+   /**
+    * Compares output pixels whose source, at the inverse transform of their
+    * center, lies within the given area of the input. With nearest neighbor
+    * interpolation, values must be equal; with bilinear interpolation, they
+    * may differ by 1 because of rounding. A null area compares all pixels.
+    *
+    * @return the number of pixels compared
+    */
+   private static int compare(String message, AffineTransform transform, int interpolation,
+                              int[] expected, int[] actual, int width, int height,
+                              Rectangle2D area) throws Exception {
+      AffineTransform inverse = transform.createInverse();
+      int tolerance = interpolation == RemapTable.NEAREST_NEIGHBOR ? 0 : 1;
+      int compared = 0;
+      for (int y = 0; y < height; ++y) {
+         for (int x = 0; x < width; ++x) {
+            double[] p = {x + 0.5, y + 0.5};
+            inverse.transform(p, 0, p, 0, 1);
+            if (area != null && !area.contains(p[0], p[1])) {
+               continue;
+            }
+            if (interpolation == RemapTable.NEAREST_NEIGHBOR
+                  && (nearTie(p[0]) || nearTie(p[1]))) {
+               continue;
+            }
+            int i = y * width + x;
+            assertEquals(message + " at " + x + ", " + y, expected[i], actual[i], tolerance);
+            ++compared;
+         }
+      }
+      return compared;
+   }
+
+   // With nearest neighbor interpolation, every output pixel is compared,
+   // including the ones that fall outside of the input (which are 0). With
+   // bilinear interpolation, AffineTransformOp treats the outer half pixel
+   // differently, so only sources at least a pixel inside are compared.
+   private static Rectangle2D comparedArea(int interpolation, int width, int height) {
+      if (interpolation == RemapTable.NEAREST_NEIGHBOR) {
+         return null;
+      }
+      return new Rectangle2D.Double(1, 1, width - 2, height - 2);
+   }
+
+   @Test
+   public void testNearestNeighborMatchesAffineTransformOp() throws Exception {
+      AffineTransform transform = transform();
+      RemapTable table = new RemapTable(transform, RemapTable.NEAREST_NEIGHBOR,
+            WIDTH, HEIGHT, WIDTH, HEIGHT);
+      int[] bytes = randomPixels(1, WIDTH * HEIGHT, 255);
+      int compared = compare("8 bit", transform, RemapTable.NEAREST_NEIGHBOR,
+            reference(transform, RemapTable.NEAREST_NEIGHBOR,
+                  BufferedImage.TYPE_BYTE_GRAY, bytes, WIDTH, HEIGHT),
+            warp(table, bytes, false), WIDTH, HEIGHT,
+            comparedArea(RemapTable.NEAREST_NEIGHBOR, WIDTH, HEIGHT));
+      assertTrue(compared > WIDTH * HEIGHT * 99 / 100);
+
+      int[] shorts = randomPixels(2, WIDTH * HEIGHT, 65535);
+      compare("16 bit", transform, RemapTable.NEAREST_NEIGHBOR,
+            reference(transform, RemapTable.NEAREST_NEIGHBOR,
+                  BufferedImage.TYPE_USHORT_GRAY, shorts, WIDTH, HEIGHT),
+            warp(table, shorts, true), WIDTH, HEIGHT,
+            comparedArea(RemapTable.NEAREST_NEIGHBOR, WIDTH, HEIGHT));
+   }
+
+   @Test
+   public void testBilinearMatchesAffineTransformOp() throws Exception {
+      AffineTransform transform = transform();
+      RemapTable table = new RemapTable(transform, RemapTable.BILINEAR,
+            WIDTH, HEIGHT, WIDTH, HEIGHT);
+      int[] bytes = randomPixels(3, WIDTH * HEIGHT, 255);
+      int[] expected = reference(transform, RemapTable.BILINEAR,
+            BufferedImage.TYPE_BYTE_GRAY, bytes, WIDTH, HEIGHT);
+      int compared = compare("8 bit", transform, RemapTable.BILINEAR, expected,
+            warp(table, bytes, false), WIDTH, HEIGHT,
+            comparedArea(RemapTable.BILINEAR, WIDTH, HEIGHT));
+      assertTrue(compared > WIDTH * HEIGHT / 2);
+
+      // Bilinear AffineTransformOp is wrong for TYPE_USHORT_GRAY images
+      // (which is why ChannelCorrectorProcessor drew them with Graphics2D),
+      // so the 16-bit path is compared with the 8-bit reference, on an image
+      // with 8-bit values
+      compare("16 bit", transform, RemapTable.BILINEAR, expected,
+            warp(table, bytes, true), WIDTH, HEIGHT,
+            comparedArea(RemapTable.BILINEAR, WIDTH, HEIGHT));
+   }
+
+   @Test
+   public void testRoiOffset() throws Exception {
+      // The transform is defined on the full camera frame; the images are a
+      // region of interest of it
+      final int frameWidth = 100;
+      final int frameHeight = 80;
+      final Rectangle roi = new Rectangle(13, 9, WIDTH, HEIGHT);
+      AffineTransform transform = transform();
+      // As in ChannelCorrectorProcessor
+      AffineTransform roiTransform = AffineTransform.getTranslateInstance(-roi.x, -roi.y);
+      roiTransform.concatenate(transform);
+      roiTransform.translate(roi.x, roi.y);
+
+      int[] frame = randomPixels(4, frameWidth * frameHeight, 255);
+      int[] roiPixels = new int[WIDTH * HEIGHT];
+      for (int y = 0; y < HEIGHT; ++y) {
+         System.arraycopy(frame, (y + roi.y) * frameWidth + roi.x,
+               roiPixels, y * WIDTH, WIDTH);
+      }
+
+      for (int interpolation : new int[] {RemapTable.NEAREST_NEIGHBOR,
+            RemapTable.BILINEAR}) {
+         RemapTable table = new RemapTable(roiTransform, interpolation,
+               WIDTH, HEIGHT, WIDTH, HEIGHT);
+         int[] actual = warp(table, roiPixels, false);
+         compare("ROI, interpolation " + interpolation, roiTransform, interpolation,
+               reference(roiTransform, interpolation, BufferedImage.TYPE_BYTE_GRAY,
+                     roiPixels, WIDTH, HEIGHT),
+               actual, WIDTH, HEIGHT, comparedArea(interpolation, WIDTH, HEIGHT));
+
+         // Where the source lies within the region of interest, the result
+         // is the region of interest of the transformed full frame
+         int[] full = reference(transform, interpolation, BufferedImage.TYPE_BYTE_GRAY,
+               frame, frameWidth, frameHeight);
+         int[] cropped = new int[WIDTH * HEIGHT];
+         for (int y = 0; y < HEIGHT; ++y) {
+            System.arraycopy(full, (y + roi.y) * frameWidth + roi.x, cropped, y * WIDTH, WIDTH);
+         }
+         int compared = compare("ROI of full frame, interpolation " + interpolation,
+               roiTransform, interpolation, cropped, actual, WIDTH, HEIGHT,
+               new Rectangle2D.Double(1, 1, WIDTH - 2, HEIGHT - 2));
+         assertTrue(compared > WIDTH * HEIGHT / 2);
+      }
+   }
+}
@@ -0,0 +1,258 @@
+package org.micromanager.deskew;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.micromanager.lightsheet.StackResampler;
+
+/**
+ * Resamples slices on a fixed number of worker threads, as they arrive.
+ *
+ * <p>Every slice is handed to the workers on its own. The slices of one
+ * volume are resampled one at a time, in the order they were added: the
+ * StackResampler is not safe for concurrent slices (slices at different z
+ * update the same projection pixels and volume lines). Different volumes
+ * (other positions and channels, and the full volume and projections of
+ * the same stack) are resampled in parallel, while their slices are still
+ * coming in.
+ *
+ * <p>Memory is bounded by a budget, which covers the slices that are waiting
+ * for a worker and the output buffers of the volumes that are being
+ * resampled. When the budget is used up, adding a slice blocks until the
+ * workers have caught up, which slows down the pipeline rather than letting
+ * slices pile up. One slice is always let through, so that volumes larger
+ * than the budget still make progress. Starting a volume also waits for the
+ * waiting slices; if the volumes in progress leave no room for its output
+ * after that, the volume is still started, over budget, so that no output is
+ * lost, and is marked as such so that the caller can warn. Waiting for those
+ * volumes instead would never end, since they are finished by the thread that
+ * starts volumes.
+ *
+ * <p>Volumes are started, fed, finished and released from a single thread
+ * (the processor's); the statistics may be read from any thread.
+ */
+final class DeskewEngine {
+   private final ExecutorService workers_;
+   private final long budgetBytes_;
+   // Bytes of slices waiting for, or being resampled by, a worker
+   private long queuedBytes_ = 0;
+   // Bytes of the output buffers of volumes in progress
+   private long volumeBytes_ = 0;
+
+   private long numVolumes_ = 0;
+   private long totalLatencyNs_ = 0;
+   private long maxLatencyNs_ = 0;
+   private long numSlices_ = 0;
+   private long sliceBytes_ = 0;
+   private long firstSliceNs_ = 0;
+   private long lastVolumeNs_ = 0;
+   private long blockedNs_ = 0;
+   private long numOverBudget_ = 0;
+
+   /**
+    * A volume that is being resampled.
+    */
+   static final class Volume {
+      private final StackResampler resampler_;
+      private final long bytes_;
+      private final boolean overBudget_;
+      private final long startNs_;
+      // Completes when the last slice added so far has been resampled
+      private CompletableFuture<Void> lastSlice_ = CompletableFuture.completedFuture(null);
+
+      private Volume(StackResampler resampler, long bytes, boolean overBudget) {
+         resampler_ = resampler;
+         bytes_ = bytes;
+         overBudget_ = overBudget;
+         startNs_ = System.nanoTime();
+      }
+
+      StackResampler getResampler() {
+         return resampler_;
+      }
+
+      /**
+       * @return whether the output of this volume did not fit in the memory
+       *         budget next to the volumes in progress when it was started
+       */
+      boolean isOverBudget() {
+         return overBudget_;
+      }
+   }
+
+   /**
+    * @param numThreads  number of worker threads
+    * @param budgetBytes maximum memory used by waiting slices and the output
+    *                    of volumes in progress
+    */
+   DeskewEngine(int numThreads, long budgetBytes) {
+      final AtomicInteger threadNumber = new AtomicInteger(0);
+      workers_ = Executors.newFixedThreadPool(Math.max(1, numThreads), r -> {
+         Thread thread = new Thread(r, "Deskew worker " + threadNumber.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      });
+      budgetBytes_ = budgetBytes;
+   }
+
+   /**
+    * Estimate the memory needed for the output of a StackResampler.
+    *
+    * @param resampler resampler, whose shape is known
+    * @param mode StackResampler.FULL_VOLUME, YX_PROJECTION or ORTHOGONAL_VIEWS
+    * @return size in bytes
+    */
+   static long estimateVolumeBytes(StackResampler resampler, int mode) {
+      long x = resampler.getResampledShapeX();
+      long y = resampler.getResampledShapeY();
+      long z = resampler.getResampledShapeZ();
+      // Projections hold a 16-bit result, and 32-bit sums and counts
+      switch (mode) {
+         case StackResampler.FULL_VOLUME:
+            return 2 * x * y * z;
+         case StackResampler.YX_PROJECTION:
+            return 10 * x * y;
+         default:
+            return 10 * (x * y + y * z + z * x);
+      }
+   }
+
+   /**
+    * Start resampling a volume. Blocks while slices that are waiting for the
+    * workers use up the memory budget. The volume is started even if the
+    * volumes in progress then leave no room for its output; see
+    * {@link Volume#isOverBudget()}.
+    *
+    * @param resampler resampler for the volume, not used by other volumes
+    * @param bytes     estimated size of its output, counted against the budget
+    *                  until the volume is released
+    * @return the volume, to which slices can be added
+    * @throws InterruptedException if interrupted while waiting for memory
+    */
+   Volume startVolume(StackResampler resampler, long bytes) throws InterruptedException {
+      final boolean overBudget;
+      synchronized (this) {
+         long start = System.nanoTime();
+         while (queuedBytes_ > 0 && queuedBytes_ + volumeBytes_ + bytes > budgetBytes_) {
+            wait();
+         }
+         blockedNs_ += System.nanoTime() - start;
+         overBudget = volumeBytes_ > 0 && volumeBytes_ + bytes > budgetBytes_;
+         if (overBudget) {
+            ++numOverBudget_;
+         }
+         volumeBytes_ += bytes;
+      }
+      resampler.initializeProjections();
+      return new Volume(resampler, bytes, overBudget);
+   }
+
+   /**
+    * Hand a slice to the workers. Blocks while the memory budget is used up.
+    *
+    * @param volume volume the slice belongs to
+    * @param pixels pixels of the slice, which must not change afterwards
+    * @param z      index of the slice in the volume
+    * @throws InterruptedException if interrupted while waiting for memory
+    */
+   void addSlice(final Volume volume, final short[] pixels, final int z)
+         throws InterruptedException {
+      final long bytes = 2L * pixels.length;
+      synchronized (this) {
+         long start = System.nanoTime();
+         while (queuedBytes_ > 0 && queuedBytes_ + volumeBytes_ + bytes > budgetBytes_) {
+            wait();
+         }
+         long now = System.nanoTime();
+         blockedNs_ += now - start;
+         if (numSlices_ == 0) {
+            firstSliceNs_ = now;
+         }
+         queuedBytes_ += bytes;
+         ++numSlices_;
+         sliceBytes_ += bytes;
+      }
+      volume.lastSlice_ = volume.lastSlice_.handleAsync((ignored, failure) -> {
+         try {
+            if (failure == null) {
+               volume.resampler_.addImageToRecons(pixels, z);
+            }
+         } finally {
+            synchronized (DeskewEngine.this) {
+               queuedBytes_ -= bytes;
+               DeskewEngine.this.notifyAll();
+            }
+         }
+         if (failure != null) {
+            // Skip the remaining slices of the volume
+            throw failure instanceof CompletionException
+                  ? (CompletionException) failure : new CompletionException(failure);
+         }
+         return null;
+      }, workers_);
+   }
+
+   /**
+    * Wait until all slices of a volume have been resampled, and finalize
+    * its projections. The output of the resampler can be read afterwards.
+    *
+    * @param volume volume that received all its slices
+    * @throws InterruptedException if interrupted while waiting
+    * @throws ExecutionException   if resampling a slice failed
+    */
+   void finishVolume(Volume volume) throws InterruptedException, ExecutionException {
+      volume.lastSlice_.get();
+      volume.resampler_.finalizeProjections();
+   }
+
+   /**
+    * Return the memory of a volume to the budget, once its output has been
+    * stored, and record its latency.
+    *
+    * @param volume volume that is no longer used
+    * @return milliseconds from the start to the release of the volume
+    */
+   synchronized double releaseVolume(Volume volume) {
+      volumeBytes_ -= volume.bytes_;
+      lastVolumeNs_ = System.nanoTime();
+      long latency = lastVolumeNs_ - volume.startNs_;
+      totalLatencyNs_ += latency;
+      maxLatencyNs_ = Math.max(maxLatencyNs_, latency);
+      ++numVolumes_;
+      notifyAll();
+      return latency / 1e6;
+   }
+
+   /**
+    * @return summary of the volumes and slices processed so far
+    */
+   synchronized String getStatistics() {
+      double seconds = (lastVolumeNs_ - firstSliceNs_) / 1e9;
+      return String.format("%d volumes (%d over budget), latency %.1f ms mean, %.1f ms max; "
+                  + "%d slices, %.1f slices/s, %.1f MB/s; blocked for %.1f s",
+            numVolumes_,
+            numOverBudget_,
+            numVolumes_ == 0 ? 0.0 : totalLatencyNs_ / 1e6 / numVolumes_,
+            maxLatencyNs_ / 1e6,
+            numSlices_,
+            seconds > 0 ? numSlices_ / seconds : 0.0,
+            seconds > 0 ? sliceBytes_ / 1e6 / seconds : 0.0,
+            blockedNs_ / 1e9);
+   }
+
+   /**
+    * Stop the workers, letting slices that were already added finish.
+    */
+   void shutdown() {
+      workers_.shutdown();
+      try {
+         workers_.awaitTermination(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
@@ -76,6 +76,7 @@ public class DeskewFrame extends JFrame implements ProcessorConfigurator {
    static final String FAST = "Fast";
    static final String QUALITY = "Quality";
    static final String NR_THREADS = "NrThreads";
+   static final String MEMORY_BUDGET_MB = "MemoryBudgetMB";
    static final String OUTPUT_OPTION = "Output Option";
    static final String OPTION_SINGLE_TIFF = "Option Single";
    static final String OPTION_MULTI_TIFF = "Option Multi";
@@ -109,6 +110,16 @@ public class DeskewFrame extends JFrame implements ProcessorConfigurator {
       WindowPositioning.setUpLocationMemory(this, this.getClass(), null);
    }
 
+   /**
+    * Memory that the CPU deskew may use for slices waiting to be processed
+    * and for the volumes it is working on: a quarter of the maximum heap.
+    *
+    * @return memory budget in MB
+    */
+   static int defaultMemoryBudgetMB() {
+      return (int) (Runtime.getRuntime().maxMemory() / 4 / 1024 / 1024);
+   }
+
    @Override
    public void showGUI() {
       setVisible(true);
@@ -139,7 +150,7 @@ public class DeskewFrame extends JFrame implements ProcessorConfigurator {
       bg.add(fastButton);
       bg.add(qualityButton);
       qualityButton.setSelected(settings_.getString(MODE, FAST).equals(QUALITY));
-      add(fastButton, "span 4, split 3");
+      add(fastButton, "span 4, split 5");
       add(new JLabel("Threads:"), "align right");
       JSpinner threadsSpinner = new JSpinner();
       threadsSpinner.setMinimumSize(new Dimension(50, 12));
@@ -148,7 +159,16 @@ public class DeskewFrame extends JFrame implements ProcessorConfigurator {
       threadsSpinner.addChangeListener(e -> {
          settings_.putInteger(NR_THREADS, (Integer) threadsSpinner.getValue());
       });
-      add(threadsSpinner, "wrap");
+      add(threadsSpinner);
+      add(new JLabel("Memory (MB):"), "align right");
+      JSpinner memorySpinner = new JSpinner();
+      memorySpinner.setMinimumSize(new Dimension(70, 12));
+      memorySpinner.setValue(settings_.getInteger(
+               MEMORY_BUDGET_MB, defaultMemoryBudgetMB()));
+      memorySpinner.addChangeListener(e -> {
+         settings_.putInteger(MEMORY_BUDGET_MB, (Integer) memorySpinner.getValue());
+      });
+      add(memorySpinner, "wrap");
       JComboBox<String> gpuComboBox = new JComboBox<>();
       for (String device : openCLDevices()) {
          gpuComboBox.addItem(device);
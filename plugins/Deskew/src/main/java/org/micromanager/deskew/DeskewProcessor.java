@@ -2,15 +2,11 @@ package org.micromanager.deskew;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
 import org.micromanager.Studio;
@@ -40,19 +36,17 @@ public class DeskewProcessor implements Processor {
    private final boolean keepOriginals_;
    private final PropertyMap settings_;
 
-   private final ExecutorService processingExecutor_;
-   private final Map<Coords, StackResampler> fullVolumeResamplers_ = new HashMap<>();
+   private final DeskewEngine engine_;
+   private final Map<Coords, DeskewEngine.Volume> fullVolumes_ = new HashMap<>();
    private final List<StackResampler> freeFullVolumeResamplers_ = new ArrayList<>();
-   private final Map<Coords, StackResampler> xyProjectionResamplers_ = new HashMap<>();
+   private final Map<Coords, DeskewEngine.Volume> xyProjections_ = new HashMap<>();
    private final List<StackResampler> freeXYProjectionResamplers_ = new ArrayList<>();
-   private final Map<Coords, StackResampler> orthogonalProjectionResamplers_ = new HashMap<>();
+   private final Map<Coords, DeskewEngine.Volume> orthogonalProjections_ = new HashMap<>();
    private final List<StackResampler> freeOrthogonalProjectionResamplers_ = new ArrayList<>();
-   private final Map<Coords, Future<?>> fullVolumeFutures_ = new HashMap<>();
-   private final Map<Coords, Future<?>> xyProjectionFutures_ = new HashMap<>();
-   private final Map<Coords, Future<?>> orthogonalFutures_ = new HashMap<>();
    private Datastore fullVolumeStore_;
    private Datastore xyProjectionStore_;
    private Datastore orthogonalStore_;
+   private boolean overBudgetAlertPosted_ = false;
 
    /**
     * Bit of an awkard way to translate user's desires to the
@@ -80,12 +74,11 @@ public class DeskewProcessor implements Processor {
       doOrthogonalProjections_ = doOrthogonalProjections;
       orthogonalProjectionsMode_ = orthogonalProjectionsMode;
       keepOriginals_ = keepOriginals;
-      processingExecutor_ =
-               new ThreadPoolExecutor(1,
-                        settings.getInteger(DeskewFrame.NR_THREADS, 12),
-                        1000,
-                        TimeUnit.MILLISECONDS,
-                        new LinkedBlockingDeque<>());
+      engine_ = new DeskewEngine(
+               settings.getInteger(DeskewFrame.NR_THREADS,
+                        Runtime.getRuntime().availableProcessors()),
+               settings.getInteger(DeskewFrame.MEMORY_BUDGET_MB,
+                        DeskewFrame.defaultMemoryBudgetMB()) * 1024L * 1024L);
       settings_ = settings;
    }
 
@@ -110,69 +103,26 @@ public class DeskewProcessor implements Processor {
       if (image.getCoords().getZ() == 0) {
          try {
             if (doFullVolume_) {
-               if (fullVolumeResamplers_.get(coordsNoZ) == null) {
-                  if (freeFullVolumeResamplers_.isEmpty()) {
-                     fullVolumeResamplers_.put(coordsNoZ, new StackResampler(
-                              StackResampler.FULL_VOLUME,
-                              false,
-                              theta_,
-                              image.getMetadata().getPixelSizeUm(),
-                              inputSummaryMetadata_.getZStepUm(),
-                              inputSummaryMetadata_.getIntendedDimensions().getZ(),
-                              image.getHeight(),
-                              image.getWidth()));
-                  } else {
-                     fullVolumeResamplers_.put(coordsNoZ,
-                              freeFullVolumeResamplers_.remove(0));
-                  }
-               }
-               fullVolumeResamplers_.get(coordsNoZ).initializeProjections();
-               fullVolumeFutures_.put(image.getCoords().copyBuilder().z(0).build(),
-                        processingExecutor_.submit(fullVolumeResamplers_.get(coordsNoZ)
-                                 .startStackProcessing()));
-               double newZStep = fullVolumeResamplers_.get(
-                        coordsNoZ).getReconstructionVoxelSizeUm();
-               int width = fullVolumeResamplers_.get(coordsNoZ).getResampledShapeX();
-               int height = fullVolumeResamplers_.get(coordsNoZ).getResampledShapeY();
+               StackResampler resampler = startVolume(fullVolumes_,
+                        freeFullVolumeResamplers_, coordsNoZ, StackResampler.FULL_VOLUME,
+                        false, image);
                if (fullVolumeStore_ == null) {
                   String newPrefix = inputSummaryMetadata_.getPrefix() + "-Full-Volume-CPU";
                   fullVolumeStore_ = DeskewFactory.createStoreAndDisplay(studio_,
                            settings_,
                            inputSummaryMetadata_,
                            newPrefix,
-                           width,
-                           height,
-                           fullVolumeResamplers_.get(
-                                    coordsNoZ).getResampledShapeZ(),
-                           newZStep);
+                           resampler.getResampledShapeX(),
+                           resampler.getResampledShapeY(),
+                           resampler.getResampledShapeZ(),
+                           resampler.getReconstructionVoxelSizeUm());
                }
             }
             if (doXYProjections_) {
-               if (xyProjectionResamplers_.get(coordsNoZ) == null) {
-                  if (freeXYProjectionResamplers_.isEmpty()) {
-                     xyProjectionResamplers_.put(coordsNoZ, new StackResampler(
-                              StackResampler.YX_PROJECTION,
-                              xyProjectionMode_.equals(DeskewFrame.MAX),
-                              theta_,
-                              image.getMetadata().getPixelSizeUm(),
-                              inputSummaryMetadata_.getZStepUm(),
-                              inputSummaryMetadata_.getIntendedDimensions().getZ(),
-                              image.getHeight(),
-                              image.getWidth()));
-                  } else {
-                     xyProjectionResamplers_.put(coordsNoZ,
-                              freeXYProjectionResamplers_.remove(0));
-                  }
-               }
-               xyProjectionResamplers_.get(coordsNoZ).initializeProjections();
-               xyProjectionFutures_.put(image.getCoords().copyBuilder().z(0).build(),
-                        processingExecutor_.submit(xyProjectionResamplers_.get(coordsNoZ)
-                                 .startStackProcessing()));
+               StackResampler resampler = startVolume(xyProjections_,
+                        freeXYProjectionResamplers_, coordsNoZ, StackResampler.YX_PROJECTION,
+                        xyProjectionMode_.equals(DeskewFrame.MAX), image);
                if (xyProjectionStore_ == null) {
-                  int width = xyProjectionResamplers_.get(
-                          coordsNoZ).getResampledShapeX();
-                  int height = xyProjectionResamplers_.get(
-                          coordsNoZ).getResampledShapeY();
                   String newPrefix = inputSummaryMetadata_.getPrefix() + "-"
                            + (xyProjectionMode_.equals(DeskewFrame.MAX) ? "Max" : "Avg")
                            + "-Projection-CPU";
@@ -180,45 +130,24 @@ public class DeskewProcessor implements Processor {
                            settings_,
                            inputSummaryMetadata_,
                            newPrefix,
-                           width,
-                           height,
+                           resampler.getResampledShapeX(),
+                           resampler.getResampledShapeY(),
                            0,
                            null);
                }
             }
             if (doOrthogonalProjections_) {
-               if (orthogonalProjectionResamplers_.get(coordsNoZ) == null) {
-                  if (freeOrthogonalProjectionResamplers_.size() > 0) {
-                     orthogonalProjectionResamplers_.put(coordsNoZ,
-                              freeOrthogonalProjectionResamplers_.get(0));
-                     freeOrthogonalProjectionResamplers_.remove(0);
-                  } else {
-                     orthogonalProjectionResamplers_.put(coordsNoZ, new StackResampler(
-                              StackResampler.ORTHOGONAL_VIEWS,
-                              orthogonalProjectionsMode_.equals(DeskewFrame.MAX),
-                              theta_,
-                              image.getMetadata().getPixelSizeUm(),
-                              inputSummaryMetadata_.getZStepUm(),
-                              inputSummaryMetadata_.getIntendedDimensions().getZ(),
-                              image.getHeight(),
-                              image.getWidth()));
-                  }
-               }
-               orthogonalProjectionResamplers_.get(coordsNoZ).initializeProjections();
-               orthogonalFutures_.put(coordsNoZ,
-                        processingExecutor_.submit(
-                                 orthogonalProjectionResamplers_.get(coordsNoZ)
-                                          .startStackProcessing()));
+               StackResampler resampler = startVolume(orthogonalProjections_,
+                        freeOrthogonalProjectionResamplers_, coordsNoZ,
+                        StackResampler.ORTHOGONAL_VIEWS,
+                        orthogonalProjectionsMode_.equals(DeskewFrame.MAX), image);
                if (orthogonalStore_ == null) {
                   String newPrefix = inputSummaryMetadata_.getPrefix() + "-"
                            + (orthogonalProjectionsMode_.equals(DeskewFrame.MAX) ? "Max" : "Avg")
                            + "-Orthogonal-Projection-CPU";
-                  int width = orthogonalProjectionResamplers_.get(
-                          coordsNoZ).getResampledShapeX();
-                  int height = orthogonalProjectionResamplers_.get(
-                          coordsNoZ).getResampledShapeY();
-                  int zSize = orthogonalProjectionResamplers_.get(
-                          coordsNoZ).getResampledShapeZ();
+                  int width = resampler.getResampledShapeX();
+                  int height = resampler.getResampledShapeY();
+                  int zSize = resampler.getResampledShapeZ();
                   int separatorSize = 3;
                   int newWidth = width + separatorSize + zSize;
                   int newHeight = height + separatorSize + zSize;
@@ -237,45 +166,36 @@ public class DeskewProcessor implements Processor {
             throw new RuntimeException(e);
          }
       }
-      if (fullVolumeResamplers_.get(coordsNoZ) != null) {
-         fullVolumeResamplers_.get(coordsNoZ).addToProcessImageQueue(
-                  (short[]) image.getRawPixels(), image.getCoords().getZ());
-      }
-      if (xyProjectionResamplers_.get(coordsNoZ) != null) {
-         xyProjectionResamplers_.get(coordsNoZ).addToProcessImageQueue(
-                  (short[]) image.getRawPixels(), image.getCoords().getZ());
-      }
-      if (orthogonalProjectionResamplers_.get(coordsNoZ) != null) {
-         orthogonalProjectionResamplers_.get(coordsNoZ).addToProcessImageQueue(
-                  (short[]) image.getRawPixels(), image.getCoords().getZ());
+
+      // Hand the slice to the workers. This blocks while the memory budget
+      // is used up, so that the pipeline waits for the resampling to catch up.
+      try {
+         for (Map<Coords, DeskewEngine.Volume> volumes : Arrays.asList(
+                  fullVolumes_, xyProjections_, orthogonalProjections_)) {
+            DeskewEngine.Volume volume = volumes.get(coordsNoZ);
+            if (volume != null) {
+               engine_.addSlice(volume, (short[]) image.getRawPixels(),
+                        image.getCoords().getZ());
+            }
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
       }
 
       if (image.getCoords().getZ() == inputSummaryMetadata_.getIntendedDimensions().getZ() - 1) {
-         if (fullVolumeResamplers_.get(coordsNoZ) != null) {
-            Future<?> future = fullVolumeFutures_.getOrDefault(coordsNoZ, null);
-            if (future != null) {
-               try {
-                  future.get();
-               } catch (InterruptedException | ExecutionException | OutOfMemoryError e) {
-                  throw new RuntimeException(e);
-               }
-            }
-            fullVolumeResamplers_.get(coordsNoZ).finalizeProjections();
-            int width = fullVolumeResamplers_.get(coordsNoZ).getResampledShapeX();
-            int height = fullVolumeResamplers_.get(coordsNoZ).getResampledShapeY();
-            PropertyMap.Builder formatBuilder = PropertyMaps.builder();
-            formatBuilder.putInteger(PropertyKey.WIDTH.key(), width);
-            formatBuilder.putInteger(PropertyKey.HEIGHT.key(), height);
-            formatBuilder.putString(PropertyKey.PIXEL_TYPE.key(), PixelType.GRAY16.toString());
-            PropertyMap format = formatBuilder.build();
+         DeskewEngine.Volume volume = fullVolumes_.remove(coordsNoZ);
+         if (volume != null) {
+            StackResampler resampler = finishVolume(volume);
+            PropertyMap format = createFormat(resampler.getResampledShapeX(),
+                     resampler.getResampledShapeY());
             Coords.CoordsBuilder cb = image.getCoords().copyBuilder();
             if (settings_.getString(DeskewFrame.OUTPUT_OPTION, "")
                     .equals(DeskewFrame.OPTION_REWRITABLE_RAM)) {
                cb.time(0);
             }
             try {
-               short[][] reconstructedVolume = fullVolumeResamplers_.get(coordsNoZ)
-                        .getReconstructedVolumeZYX();
+               short[][] reconstructedVolume = resampler.getReconstructedVolumeZYX();
                for (int z = 0; z < reconstructedVolume.length; z++) {
                   Image img = new DefaultImage(reconstructedVolume[z], format, cb.z(z).build(),
                            image.getMetadata().copyBuilderWithNewUUID().build());
@@ -284,70 +204,37 @@ public class DeskewProcessor implements Processor {
             } catch (IOException e) {
                throw new RuntimeException(e);
             }
-            freeFullVolumeResamplers_.add(fullVolumeResamplers_.get(coordsNoZ));
-            fullVolumeResamplers_.remove(coordsNoZ);
+            releaseVolume(volume, freeFullVolumeResamplers_, "Full volume", coordsNoZ);
          }
-         if (xyProjectionResamplers_.get(coordsNoZ) != null) {
-            Future<?> future = xyProjectionFutures_.getOrDefault(coordsNoZ, null);
-            if (future != null) {
-               try {
-                  future.get();
-               } catch (InterruptedException | ExecutionException e) {
-                  throw new RuntimeException(e);
-               }
-            }
-            xyProjectionResamplers_.get(coordsNoZ).finalizeProjections();
-            int width = xyProjectionResamplers_.get(coordsNoZ).getResampledShapeX();
-            int height = xyProjectionResamplers_.get(coordsNoZ).getResampledShapeY();
-            PropertyMap.Builder formatBuilder = PropertyMaps.builder();
-            formatBuilder.putInteger(PropertyKey.WIDTH.key(), width);
-            formatBuilder.putInteger(PropertyKey.HEIGHT.key(), height);
-            formatBuilder.putString(PropertyKey.PIXEL_TYPE.key(), PixelType.GRAY16.toString());
-            PropertyMap format = formatBuilder.build();
+         volume = xyProjections_.remove(coordsNoZ);
+         if (volume != null) {
+            StackResampler resampler = finishVolume(volume);
+            PropertyMap format = createFormat(resampler.getResampledShapeX(),
+                     resampler.getResampledShapeY());
             try {
-               short[] yxProjection = xyProjectionResamplers_.get(
-                        coordsNoZ).getYXProjection();
+               short[] yxProjection = resampler.getYXProjection();
                Image img = new DefaultImage(yxProjection, format, coordsNoZPossiblyNoT,
                         image.getMetadata().copyBuilderWithNewUUID().build());
                xyProjectionStore_.putImage(img);
             } catch (IOException e) {
                throw new RuntimeException(e);
             }
-            freeXYProjectionResamplers_.add(xyProjectionResamplers_.get(coordsNoZ));
-            xyProjectionResamplers_.remove(coordsNoZ);
+            releaseVolume(volume, freeXYProjectionResamplers_, "XY projection", coordsNoZ);
          }
-         if (orthogonalProjectionResamplers_.get(coordsNoZ) != null) {
-            Future<?> future = orthogonalFutures_.getOrDefault(
-                     image.getCoords().copyBuilder().z(0).build(), null);
-            if (future != null) {
-               try {
-                  future.get();
-               } catch (InterruptedException | ExecutionException e) {
-                  throw new RuntimeException(e);
-               }
-            }
-            orthogonalProjectionResamplers_.get(coordsNoZ).finalizeProjections();
-            int width = orthogonalProjectionResamplers_.get(
-                     coordsNoZ).getResampledShapeX();
-            int height = orthogonalProjectionResamplers_.get(
-                     coordsNoZ).getResampledShapeY();
-            int zSize = orthogonalProjectionResamplers_.get(
-                     coordsNoZ).getResampledShapeZ();
+         volume = orthogonalProjections_.remove(coordsNoZ);
+         if (volume != null) {
+            StackResampler resampler = finishVolume(volume);
+            int width = resampler.getResampledShapeX();
+            int height = resampler.getResampledShapeY();
+            int zSize = resampler.getResampledShapeZ();
             int separatorSize = 3;
             int newWidth = width + separatorSize + zSize;
             int newHeight = height + separatorSize + zSize;
-            PropertyMap.Builder formatBuilder = PropertyMaps.builder();
-            formatBuilder.putInteger(PropertyKey.WIDTH.key(), newWidth);
-            formatBuilder.putInteger(PropertyKey.HEIGHT.key(), newHeight);
-            formatBuilder.putString(PropertyKey.PIXEL_TYPE.key(), PixelType.GRAY16.toString());
-            PropertyMap format = formatBuilder.build();
+            PropertyMap format = createFormat(newWidth, newHeight);
             try {
-               short[] yxProjection = orthogonalProjectionResamplers_.get(coordsNoZ)
-                        .getYXProjection();
-               short[] yzProjection = orthogonalProjectionResamplers_.get(coordsNoZ)
-                        .getYZProjection();
-               short[] zxProjection = orthogonalProjectionResamplers_.get(coordsNoZ)
-                        .getZXProjection();
+               short[] yxProjection = resampler.getYXProjection();
+               short[] yzProjection = resampler.getYZProjection();
+               short[] zxProjection = resampler.getZXProjection();
                short[] orthogonalView = new short[newWidth * newHeight];
                for (int row = 0; row < height; row++) {
                   System.arraycopy(yxProjection, row * width, orthogonalView,
@@ -366,12 +253,11 @@ public class DeskewProcessor implements Processor {
                Image img = new DefaultImage(orthogonalView, format, coordsNoZPossiblyNoT,
                         image.getMetadata().copyBuilderWithNewUUID().build());
                orthogonalStore_.putImage(img);
-               freeOrthogonalProjectionResamplers_.add(orthogonalProjectionResamplers_
-                        .get(coordsNoZ));
-               orthogonalProjectionResamplers_.remove(coordsNoZ);
             } catch (IOException e) {
                throw new RuntimeException(e);
             }
+            releaseVolume(volume, freeOrthogonalProjectionResamplers_,
+                     "Orthogonal projections", coordsNoZ);
          }
       }
 
@@ -381,4 +267,89 @@ public class DeskewProcessor implements Processor {
 
    }
 
+   /**
+    * Start a volume, reusing a free resampler if there is one. If the volume
+    * does not fit in the memory budget, it is resampled anyway, and the user
+    * is warned once that the budget is too small.
+    *
+    * @return the resampler of the volume
+    */
+   private StackResampler startVolume(Map<Coords, DeskewEngine.Volume> volumes,
+                                      List<StackResampler> freeResamplers, Coords coordsNoZ,
+                                      int mode, boolean maxProjection, Image image) {
+      StackResampler resampler;
+      DeskewEngine.Volume volume = volumes.remove(coordsNoZ);
+      if (volume != null) {
+         // The previous stack at these coords was not completed; start over
+         resampler = finishVolume(volume);
+         engine_.releaseVolume(volume);
+      } else if (freeResamplers.isEmpty()) {
+         resampler = new StackResampler(
+                  mode,
+                  maxProjection,
+                  theta_,
+                  image.getMetadata().getPixelSizeUm(),
+                  inputSummaryMetadata_.getZStepUm(),
+                  inputSummaryMetadata_.getIntendedDimensions().getZ(),
+                  image.getHeight(),
+                  image.getWidth());
+      } else {
+         resampler = freeResamplers.remove(0);
+      }
+      long bytes = DeskewEngine.estimateVolumeBytes(resampler, mode);
+      try {
+         volume = engine_.startVolume(resampler, bytes);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      }
+      if (volume.isOverBudget()) {
+         String message = String.format("Deskewing the volume at %s exceeds the "
+                  + "memory budget, since its %.1f MB do not fit next to the volumes "
+                  + "in progress. Consider increasing the memory budget.",
+                  coordsNoZ, bytes / 1e6);
+         studio_.logs().logMessage("Deskew: " + message);
+         if (!overBudgetAlertPosted_) {
+            overBudgetAlertPosted_ = true;
+            studio_.alerts().postAlert("Deskew", getClass(), message);
+         }
+      }
+      volumes.put(coordsNoZ, volume);
+      return resampler;
+   }
+
+   private StackResampler finishVolume(DeskewEngine.Volume volume) {
+      try {
+         engine_.finishVolume(volume);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException | OutOfMemoryError e) {
+         throw new RuntimeException(e);
+      }
+      return volume.getResampler();
+   }
+
+   private void releaseVolume(DeskewEngine.Volume volume, List<StackResampler> freeResamplers,
+                              String name, Coords coordsNoZ) {
+      double latencyMs = engine_.releaseVolume(volume);
+      freeResamplers.add(volume.getResampler());
+      studio_.logs().logDebugMessage(String.format("Deskew: %s at %s took %.1f ms",
+               name, coordsNoZ, latencyMs));
+   }
+
+   private static PropertyMap createFormat(int width, int height) {
+      PropertyMap.Builder formatBuilder = PropertyMaps.builder();
+      formatBuilder.putInteger(PropertyKey.WIDTH.key(), width);
+      formatBuilder.putInteger(PropertyKey.HEIGHT.key(), height);
+      formatBuilder.putString(PropertyKey.PIXEL_TYPE.key(), PixelType.GRAY16.toString());
+      return formatBuilder.build();
+   }
+
+   @Override
+   public void cleanup(ProcessorContext context) {
+      engine_.shutdown();
+      studio_.logs().logMessage("Deskew: " + engine_.getStatistics());
+   }
+
 }
@@ -0,0 +1,90 @@
+package org.micromanager.deskew;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.micromanager.lightsheet.StackResampler;
+
+public class DeskewEngineTest {
+   private static final int NR_SLICES = 8;
+   private static final int WIDTH = 16;
+   private static final int HEIGHT = 12;
+
+   private static StackResampler resampler() {
+      return new StackResampler(StackResampler.YX_PROJECTION, true, Math.toRadians(30),
+            0.2, 0.5, NR_SLICES, HEIGHT, WIDTH);
+   }
+
+   private static short[] slice(int z) {
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; i++) {
+         pixels[i] = (short) (100 + (i * 7 + z * 13) % 50);
+      }
+      return pixels;
+   }
+
+   private static short[] resample(DeskewEngine engine, DeskewEngine.Volume volume)
+         throws Exception {
+      engine.finishVolume(volume);
+      return volume.getResampler().getYXProjection();
+   }
+
+   @Test
+   public void testVolumesOverBudgetAreResampled() throws Exception {
+      StackResampler first = resampler();
+      long bytes = DeskewEngine.estimateVolumeBytes(first, StackResampler.YX_PROJECTION);
+      // Room for one volume only
+      DeskewEngine engine = new DeskewEngine(2, bytes + 2L * WIDTH * HEIGHT);
+      try {
+         DeskewEngine.Volume a = engine.startVolume(first, bytes);
+         assertFalse(a.isOverBudget());
+         // Does not block, although the first volume is still in progress
+         DeskewEngine.Volume b = engine.startVolume(resampler(), bytes);
+         assertTrue(b.isOverBudget());
+         for (int z = 0; z < NR_SLICES; z++) {
+            engine.addSlice(a, slice(z), z);
+            engine.addSlice(b, slice(z), z);
+         }
+         short[] resultA = resample(engine, a);
+         short[] resultB = resample(engine, b);
+         // Both volumes got the same slices, so the one over budget has the
+         // same output
+         assertNotNull(resultB);
+         assertTrue(resultB.length > 0);
+         assertArrayEquals(resultA, resultB);
+         engine.releaseVolume(a);
+         engine.releaseVolume(b);
+
+         // With the budget returned, volumes fit again
+         DeskewEngine.Volume c = engine.startVolume(resampler(), bytes);
+         assertFalse(c.isOverBudget());
+         engine.releaseVolume(c);
+         assertTrue(engine.getStatistics(), engine.getStatistics().contains("(1 over budget)"));
+      } finally {
+         engine.shutdown();
+      }
+   }
+
+   @Test
+   public void testFirstVolumeIsNeverOverBudget() throws Exception {
+      DeskewEngine engine = new DeskewEngine(1, 1);
+      try {
+         StackResampler resampler = resampler();
+         DeskewEngine.Volume volume = engine.startVolume(resampler,
+               DeskewEngine.estimateVolumeBytes(resampler, StackResampler.YX_PROJECTION));
+         assertFalse(volume.isOverBudget());
+         for (int z = 0; z < NR_SLICES; z++) {
+            engine.addSlice(volume, slice(z), z);
+         }
+         assertEquals(resampler.getResampledShapeX() * resampler.getResampledShapeY(),
+               resample(engine, volume).length);
+         engine.releaseVolume(volume);
+      } finally {
+         engine.shutdown();
+      }
+   }
+}
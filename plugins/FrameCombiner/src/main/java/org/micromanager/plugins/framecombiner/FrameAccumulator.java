@@ -0,0 +1,148 @@
+package org.micromanager.plugins.framecombiner;
+
+import java.util.Arrays;
+
+/**
+ * Per-pixel running statistics over a series of 8 or 16 bit images.
+ *
+ * <p>Each image is folded into the accumulator as it arrives, so that only
+ * one accumulator (rather than all images) needs to be kept per combination
+ * of the other axes, and the work is spread out over the acquisition instead
+ * of happening when the last image arrives. Sum and mean are accumulated in
+ * float, like the buffering implementation did, so results are unchanged.
+ * The standard deviation uses Welford's online algorithm.
+ */
+final class FrameAccumulator {
+   private final String algo_;
+   private final boolean isMax_;
+   private final int length_;
+   private final int bytesPerPixel_;
+   private int count_ = 0;
+
+   private float[] sum_;
+   private int[] extremum_;
+   private double[] mean_;
+   private double[] m2_;
+
+   /**
+    * Create an accumulator.
+    *
+    * @param algo one of FrameCombinerPlugin.PROCESSOR_ALGO_MEAN, _SUM, _MAX,
+    *             _MIN or _STDDEV
+    * @param length number of pixels per image
+    * @param bytesPerPixel 1 or 2
+    */
+   FrameAccumulator(String algo, int length, int bytesPerPixel) {
+      algo_ = algo;
+      isMax_ = algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX);
+      length_ = length;
+      bytesPerPixel_ = bytesPerPixel;
+      if (algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN)
+            || algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)) {
+         sum_ = new float[length];
+      } else if (algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)
+            || algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MIN)) {
+         extremum_ = new int[length];
+      } else if (algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_STDDEV)) {
+         mean_ = new double[length];
+         m2_ = new double[length];
+      } else {
+         throw new IllegalArgumentException("FrameCombiner : Algorithm called "
+               + algo + " can not be accumulated.");
+      }
+   }
+
+   static boolean canAccumulate(String algo) {
+      return algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN)
+            || algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)
+            || algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)
+            || algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MIN)
+            || algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_STDDEV);
+   }
+
+   int getCount() {
+      return count_;
+   }
+
+   /**
+    * Fold an image into the running statistics.
+    *
+    * @param pixels byte[] or short[] of the length given at construction
+    */
+   void add(Object pixels) {
+      if (bytesPerPixel_ == 1) {
+         byte[] p = (byte[]) pixels;
+         checkLength(p.length);
+         for (int i = 0; i < length_; ++i) {
+            accumulate(i, p[i] & 0xff);
+         }
+      } else {
+         short[] p = (short[]) pixels;
+         checkLength(p.length);
+         for (int i = 0; i < length_; ++i) {
+            accumulate(i, p[i] & 0xffff);
+         }
+      }
+      count_++;
+   }
+
+   private void checkLength(int length) {
+      if (length != length_) {
+         throw new IllegalArgumentException("FrameCombiner : image size changed");
+      }
+   }
+
+   private void accumulate(int i, int value) {
+      if (sum_ != null) {
+         sum_[i] = sum_[i] + value;
+      } else if (extremum_ != null) {
+         if (count_ == 0) {
+            extremum_[i] = value;
+         } else if (isMax_) {
+            extremum_[i] = Math.max(extremum_[i], value);
+         } else {
+            extremum_[i] = Math.min(extremum_[i], value);
+         }
+      } else {
+         double delta = value - mean_[i];
+         mean_[i] += delta / (count_ + 1);
+         m2_[i] += delta * (value - mean_[i]);
+      }
+   }
+
+   /**
+    * Compute the result from the images added so far.
+    *
+    * @return byte[] or short[] with the combined image
+    */
+   Object getResult() {
+      int maxValue = bytesPerPixel_ == 1 ? 0xff : 0xffff;
+      int[] values = new int[length_];
+      if (sum_ != null) {
+         boolean onlySum = algo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM);
+         for (int i = 0; i < length_; ++i) {
+            values[i] = onlySum ? (int) sum_[i] : (int) (sum_[i] / count_);
+         }
+      } else if (extremum_ != null) {
+         values = Arrays.copyOf(extremum_, length_);
+      } else {
+         for (int i = 0; i < length_; ++i) {
+            double variance = count_ > 1 ? m2_[i] / (count_ - 1) : 0.0;
+            values[i] = (int) Math.min(maxValue, Math.round(Math.sqrt(variance)));
+         }
+      }
+      // Like the buffering implementation, sums that do not fit wrap around
+      if (bytesPerPixel_ == 1) {
+         byte[] result = new byte[length_];
+         for (int i = 0; i < length_; ++i) {
+            result[i] = (byte) values[i];
+         }
+         return result;
+      }
+      short[] result = new short[length_];
+      for (int i = 0; i < length_; ++i) {
+         result[i] = (short) values[i];
+      }
+      return result;
+   }
+}
@@ -30,6 +30,7 @@ public class FrameCombiner implements Processor {
    private boolean imageCanBeProcessed_ = true;
    private final ImgSharpnessAnalysis.Method sharpnessMethod_;
    private final boolean showGraph_;
+   private final int sharpestImagesToKeep_;
    private boolean snapLive_ = false;
 
    private HashMap<Coords, SingleCombinationProcessor> singleAquisitions_;
@@ -41,7 +42,8 @@ public class FrameCombiner implements Processor {
                         String channelsToAvoidString,
                         String processorAlgo,
                         String sharpnessMethodsName,
-                        boolean showGraph) {
+                        boolean showGraph,
+                        int sharpestImagesToKeep) {
 
       studio_ = studio;
       log_ = studio_.logs();
@@ -64,6 +66,7 @@ public class FrameCombiner implements Processor {
       processorAlgo_ = processorAlgo;
       sharpnessMethod_ = ImgSharpnessAnalysis.Method.valueOf(sharpnessMethodsName);
       showGraph_ = showGraph;
+      sharpestImagesToKeep_ = sharpestImagesToKeep;
 
       // Initialize a hashmap of all combinations of the different acquisitions
       // Each index will be a combination of Z, Channel and StagePosition
@@ -113,7 +116,8 @@ public class FrameCombiner implements Processor {
 
          singleAcquProc = new SingleCombinationProcessor(studio_,
                processorAlgo_, processorDimension_, numberOfImagesToProcess_,
-               processCombinations, !channelsToAvoid_.isEmpty(), sharpnessMethod_, showGraph_);
+               processCombinations, !channelsToAvoid_.isEmpty(), sharpnessMethod_, showGraph_,
+               sharpestImagesToKeep_);
          singleAquisitions_.put(coords, singleAcquProc);
       } else {
          singleAcquProc = singleAquisitions_.get(coords);
@@ -45,6 +45,8 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
    private JComboBox<String> processorAlgoBox_;
    private JComboBox<String> sharpnessAlgoBox_;
    private JCheckBox sharpnessShowGraphCheckBox_;
+   private JLabel sharpestImagesToKeepLabel_;
+   private JFormattedTextField sharpestImagesToKeepField_;
    private JFormattedTextField channelsToAvoidField_;
 
    public FrameCombinerConfigurator(PropertyMap settings, Studio studio) {
@@ -122,6 +124,7 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
       processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_MAX);
       processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_MIN);
       processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_SHARPEST);
+      processorAlgoBox_.addItem(FrameCombinerPlugin.PROCESSOR_ALGO_STDDEV);
       processorAlgoBox_.addActionListener(e -> {
          updateUISelectedItems();
       });
@@ -136,6 +139,20 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
       jPanel1. add(sharpnessShowGraphLabel_);
       jPanel1.add(sharpnessShowGraphCheckBox_, "wrap");
 
+      final NumberFormatter keepFormatter = new NumberFormatter(format);
+      keepFormatter.setValueClass(Integer.class);
+      keepFormatter.setMinimum(0);
+      keepFormatter.setMaximum(Integer.MAX_VALUE);
+      keepFormatter.setCommitsOnValidEdit(true);
+      keepFormatter.setAllowsInvalid(false);
+      sharpestImagesToKeepLabel_ = new JLabel("Images kept in memory (0 = all)");
+      sharpestImagesToKeepField_ = new JFormattedTextField(keepFormatter);
+      sharpestImagesToKeepField_.setToolTipText("<html>Only keep the best scoring images "
+            + "while waiting for the rest of the stack.<br/>If the image at the fitted "
+            + "position was not kept, the nearest kept image is used.</html>");
+      jPanel1.add(sharpestImagesToKeepLabel_);
+      jPanel1.add(sharpestImagesToKeepField_, "growx, wrap");
+
       super.add(jPanel1, "wrap");
       pack();
    }
@@ -160,11 +177,15 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
          sharpnessAlgoLabel_.setEnabled(true);
          sharpnessShowGraphCheckBox_.setEnabled(true);
          sharpnessShowGraphLabel_.setEnabled(true);
+         sharpestImagesToKeepField_.setEnabled(true);
+         sharpestImagesToKeepLabel_.setEnabled(true);
       } else {
          sharpnessAlgoBox_.setEnabled(false);
          sharpnessAlgoLabel_.setEnabled(false);
          sharpnessShowGraphCheckBox_.setEnabled(false);
          sharpnessShowGraphLabel_.setEnabled(false);
+         sharpestImagesToKeepField_.setEnabled(false);
+         sharpestImagesToKeepLabel_.setEnabled(false);
       }
    }
 
@@ -199,6 +220,10 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
                .getBoolean(FrameCombinerPlugin.PREF_SHARPNESS_SHOW_GRAPH, false);
       sharpnessShowGraphCheckBox_.setSelected(settings_.getBoolean(
                FrameCombinerPlugin.PREF_SHARPNESS_SHOW_GRAPH, sharpnessShowGraph));
+      int sharpestImagesToKeep = studio_.profile().getSettings(FrameCombinerConfigurator.class)
+               .getInteger(FrameCombinerPlugin.PREF_SHARPEST_IMAGES_TO_KEEP, 0);
+      sharpestImagesToKeepField_.setText(Integer.toString(settings_.getInteger(
+               FrameCombinerPlugin.PREF_SHARPEST_IMAGES_TO_KEEP, sharpestImagesToKeep)));
       updateUISelectedItems();
    }
 
@@ -233,6 +258,10 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
       studio_.profile().getSettings(FrameCombinerConfigurator.class)
                .putBoolean(FrameCombinerPlugin.PREF_SHARPNESS_SHOW_GRAPH,
                        sharpnessShowGraphCheckBox_.isSelected());
+      int sharpestImagesToKeep = Integer.parseInt(sharpestImagesToKeepField_.getText());
+      studio_.profile().getSettings(FrameCombinerConfigurator.class)
+               .putInteger(FrameCombinerPlugin.PREF_SHARPEST_IMAGES_TO_KEEP,
+                       sharpestImagesToKeep);
 
       PropertyMap.Builder builder = PropertyMaps.builder();
       builder.putString(FrameCombinerPlugin.PREF_PROCESSOR_DIMENSION,
@@ -249,6 +278,8 @@ public class FrameCombinerConfigurator extends JFrame implements ProcessorConfig
                (String) sharpnessAlgoBox_.getSelectedItem());
       builder.putBoolean(FrameCombinerPlugin.PREF_SHARPNESS_SHOW_GRAPH,
                sharpnessShowGraphCheckBox_.isSelected());
+      builder.putInteger(FrameCombinerPlugin.PREF_SHARPEST_IMAGES_TO_KEEP,
+               sharpestImagesToKeep);
       return builder.build();
    }
 
@@ -37,6 +37,7 @@ public class FrameCombinerFactory implements ProcessorFactory {
                       FrameCombinerPlugin.PROCESSOR_ALGO_MEAN),
             settings_.getString(FrameCombinerPlugin.PREF_SHARPNESS_ALGO,
                    ImgSharpnessAnalysis.Method.Redondo.name()),
-            settings_.getBoolean(FrameCombinerPlugin.PREF_SHARPNESS_SHOW_GRAPH, false));
+            settings_.getBoolean(FrameCombinerPlugin.PREF_SHARPNESS_SHOW_GRAPH, false),
+            settings_.getInteger(FrameCombinerPlugin.PREF_SHARPEST_IMAGES_TO_KEEP, 0));
    }
 }
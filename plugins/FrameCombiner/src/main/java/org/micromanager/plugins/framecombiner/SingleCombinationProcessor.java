@@ -1,7 +1,9 @@
 package org.micromanager.plugins.framecombiner;
 
 import ij.process.ImageProcessor;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import org.jfree.data.xy.XYSeries;
@@ -18,8 +20,12 @@ import org.micromanager.imageprocessing.curvefit.PlotUtils;
 
 /**
  * This class processes a single combination of Z, T, Channel, Stage Position.
- * It buffers the images and processes them when the buffer is full.
- * The single, "projected" processed image is then outputted.
+ * Images are folded into running (per-pixel) statistics as they arrive, so
+ * that only the statistics, not the images, are kept in memory. For the
+ * "Sharpest" algorithm, each image is scored when it arrives, and either all
+ * images or only the highest scoring ones are kept.
+ * The single, "projected" processed image is outputted once
+ * numberOfImagesToProcess images have been received.
  */
 public class SingleCombinationProcessor {
 
@@ -35,9 +41,35 @@ public class SingleCombinationProcessor {
    private final boolean isAnyChannelToAvoid_;
    private final ImgSharpnessAnalysis.Method sharpnessMethod_;
    private final boolean showGraph_;
+   private final int sharpestImagesToKeep_;
    private int currentFrameIndex;
    private int processedFrameIndex;
-   private Image[] bufferImages_;
+
+   // Running statistics of the current set (mean, sum, max, min, stddev)
+   private FrameAccumulator accumulator_;
+   private Image firstImage_;
+
+   // Sharpest: score of each image of the current set, and the images kept
+   private ImgSharpnessAnalysis sharpnessAnalysis_;
+   private double[] sharpnessScores_;
+   private PriorityQueue<ScoredImage> sharpestImages_;
+
+   private static final class ScoredImage implements Comparable<ScoredImage> {
+      private final int index_;
+      private final double score_;
+      private final Image image_;
+
+      private ScoredImage(int index, double score, Image image) {
+         index_ = index;
+         score_ = score;
+         image_ = image;
+      }
+
+      @Override
+      public int compareTo(ScoredImage other) {
+         return Double.compare(score_, other.score_);
+      }
+   }
 
    /**
     * Constructor for the SingleCombinationProcessor.
@@ -48,6 +80,11 @@ public class SingleCombinationProcessor {
     * @param numberOfImagesToProcess The number of images to process.
     * @param processCombinations Whether to process the combinations.
     * @param isAnyChannelToAvoid Whether to avoid any channel.
+    * @param sharpnessMethod Sharpness measure used by the "Sharpest" algorithm.
+    * @param showGraph Whether to plot the sharpness scores.
+    * @param sharpestImagesToKeep For the "Sharpest" algorithm, the number of
+    *                             highest scoring images kept in memory;
+    *                             0 keeps all images.
     */
    public SingleCombinationProcessor(Studio studio, String processorAlgo,
                                      String processorDimension,
@@ -55,7 +92,8 @@ public class SingleCombinationProcessor {
                                      boolean processCombinations,
                                      boolean isAnyChannelToAvoid,
                                      ImgSharpnessAnalysis.Method sharpnessMethod,
-                                     boolean showGraph) {
+                                     boolean showGraph,
+                                     int sharpestImagesToKeep) {
 
       studio_ = studio;
       log_ = studio_.logs();
@@ -67,13 +105,13 @@ public class SingleCombinationProcessor {
       isAnyChannelToAvoid_ = isAnyChannelToAvoid;
       sharpnessMethod_ = sharpnessMethod;
       showGraph_ = showGraph;
+      if (sharpestImagesToKeep <= 0 || sharpestImagesToKeep > numberOfImagesToProcess) {
+         sharpestImagesToKeep = numberOfImagesToProcess;
+      }
+      sharpestImagesToKeep_ = sharpestImagesToKeep;
 
       currentFrameIndex = 0;
       processedFrameIndex = 0;
-      bufferImages_ = new Image[numberOfImagesToProcess_];
-      for (int i = 0; i < numberOfImagesToProcess_; i++) {
-         bufferImages_[i] = null;
-      }
    }
 
 
@@ -85,26 +123,32 @@ public class SingleCombinationProcessor {
       }
 
       int currentBufferIndex = currentFrameIndex % numberOfImagesToProcess_;
-      bufferImages_[currentBufferIndex] = image;
+      try {
+         accumulateImage(image, currentBufferIndex);
+      } catch (Exception ex) {
+         log_.logError(ex);
+         resetSet();
+         currentFrameIndex += 1;
+         return;
+      }
 
       Image processedImage = null;
       if (currentBufferIndex == (numberOfImagesToProcess_ - 1)) {
          try {
-            // Process last `numberOfImagesToProcess_` images
+            // Output the result for the last `numberOfImagesToProcess_` images
             processedImage = processBufferImages();
          } catch (Exception ex) {
             log_.logError(ex);
          }
 
+         // Start a new set
+         resetSet();
+
          if (processedImage == null) {
+            currentFrameIndex += 1;
             return;
          }
 
-         // Clean buffered images
-         for (int i = 0; i < numberOfImagesToProcess_; i++) {
-            bufferImages_[i] = null;
-         }
-
          // Add metadata to the processed image
          Metadata metadata = processedImage.getMetadata();
          PropertyMap userData = metadata.getUserData();
@@ -141,250 +185,87 @@ public class SingleCombinationProcessor {
    }
 
    /**
-    * Clear the buffer.
-    */
-   public void clear() {
-      for (int i = 0; i < numberOfImagesToProcess_; i++) {
-         bufferImages_[i] = null;
-      }
-      bufferImages_ = null;
-   }
-
-   /**
-    * Process the images in the buffer and return the processed image.
+    * Fold a newly arrived image into the statistics of the current set.
     *
-    * @return The processed image.
-    * @throws Exception If the processing fails.
+    * @param image the image
+    * @param indexInSet position of the image in the current set
+    * @throws Exception if the algorithm is unknown or the image can not be used
     */
-   public Image processBufferImages() throws Exception {
-
-      if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN)) {
-         return meanProcessImages(false);
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)) {
-         return meanProcessImages(true);
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)) {
-         return extremaProcessImages("max");
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MIN)) {
-         return extremaProcessImages("min");
-      } else if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SHARPEST)) {
-         return sharpestProcessImages(sharpnessMethod_, showGraph_);
+   private void accumulateImage(Image image, int indexInSet) throws Exception {
+      if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SHARPEST)) {
+         if (sharpnessScores_ == null) {
+            sharpnessAnalysis_ = new ImgSharpnessAnalysis();
+            sharpnessAnalysis_.setComputationMethod(sharpnessMethod_);
+            sharpnessScores_ = new double[numberOfImagesToProcess_];
+            sharpestImages_ = new PriorityQueue<>();
+         }
+         ImageProcessor proc = studio_.data().ij().createProcessor(image);
+         double score = sharpnessAnalysis_.compute(proc);
+         sharpnessScores_[indexInSet] = score;
+         sharpestImages_.add(new ScoredImage(indexInSet, score, image));
+         if (sharpestImages_.size() > sharpestImagesToKeep_) {
+            sharpestImages_.poll();
+         }
+      } else if (FrameAccumulator.canAccumulate(processorAlgo_)) {
+         if (accumulator_ == null) {
+            firstImage_ = image;
+            accumulator_ = new FrameAccumulator(processorAlgo_,
+                  image.getWidth() * image.getHeight(), image.getBytesPerPixel());
+         }
+         accumulator_.add(image.getRawPixels());
       } else {
          throw new Exception("FrameCombiner : Algorithm called " + processorAlgo_
                + " is not implemented or not found.");
       }
+   }
 
+   private void resetSet() {
+      accumulator_ = null;
+      firstImage_ = null;
+      sharpnessScores_ = null;
+      sharpestImages_ = null;
    }
 
    /**
-    * Process the images in the buffer and return the processed image.
-    *
-    * @param onlySum If `true` then only the sum of the images will be calculated.
-    * @return The processed image.
+    * Discard the statistics and images of the current set.
     */
-   public Image meanProcessImages(boolean onlySum) {
-
-      // Could be moved outside processImage() ?
-      Image img = bufferImages_[0];
-      int width = img.getWidth();
-      int height = img.getHeight();
-      int bytesPerPixel = img.getBytesPerPixel();
-      int numComponents = img.getNumComponents();
-      Coords coords = img.getCoords();
-      Metadata metadata = img.getMetadata();
-
-      Object resultPixels = null;
-
-      if (bytesPerPixel == 1) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         byte[] newPixelsFinal = new byte[width * height];
-
-         // Sum up all pixels from bufferImages
-         for (int i = 0; i < numberOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            byte[] imgPixels = (byte[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               newPixels[index] = (float) (newPixels[index] + (int) (imgPixels[index] & 0xff));
-            }
-         }
-
-         // Divide by length to get the mean
-         for (int index = 0; index < newPixels.length; index++) {
-            if (onlySum) {
-               newPixelsFinal[index] = (byte) (int) (newPixels[index]);
-            } else {
-               newPixelsFinal[index] = (byte) (int) (newPixels[index] / numberOfImagesToProcess_);
-            }
-         }
-
-         resultPixels = newPixelsFinal;
-
-      } else if (bytesPerPixel == 2) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         short[] newPixelsFinal = new short[width * height];
-
-         // Sum up all pixels from bufferImages
-         for (int i = 0; i < numberOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               newPixels[index] = (float) (newPixels[index] + (int) (imgPixels[index] & 0xffff));
-            }
-         }
-
-         // Divide by length to get the mean
-         for (int index = 0; index < newPixels.length; index++) {
-            if (onlySum) {
-               newPixelsFinal[index] = (short) (int) (newPixels[index]);
-            } else {
-               newPixelsFinal[index] = (short) (int) (newPixels[index] / numberOfImagesToProcess_);
-            }
-         }
-
-         resultPixels = newPixelsFinal;
-
-      }
-
-      // Create the processed image
-      return studio_.data().createImage(resultPixels, width, height,
-            bytesPerPixel, numComponents, coords, metadata);
-
+   public void clear() {
+      resetSet();
    }
 
    /**
-    * Process the images in the buffer and return the processed image.
+    * Return the processed image for the current set.
     *
-    * @param extremaType The type of extrema to calculate (max or min).
     * @return The processed image.
     * @throws Exception If the processing fails.
     */
-   public Image extremaProcessImages(String extremaType) throws Exception {
-
-      // Could be moved outside processImage() ?
-      Image img = bufferImages_[0];
-      int width = img.getWidth();
-      int height = img.getHeight();
-      int bytesPerPixel = img.getBytesPerPixel();
-      int numComponents = img.getNumComponents();
-      Coords coords = img.getCoords();
-      Metadata metadata = img.getMetadata();
-
-      Object resultPixels = null;
-
-      if (bytesPerPixel == 1) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         byte[] newPixelsFinal = new byte[width * height];
-
-         float currentValue;
-         float actualValue;
-
-         // Init the new array (already zero, so no need to set for max)
-         if (extremaType.equals("min")) {
-            Arrays.fill(newPixels, Byte.MAX_VALUE);
-         }
-
-         // Iterate over all frames
-         for (int i = 0; i < numberOfImagesToProcess_; i++) {
-            // Get current frame pixels
-            img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               currentValue = (float) (int) (imgPixels[index] & 0xffff);
-               actualValue = (float) newPixels[index];
-
-               if (extremaType.equals("max")) {
-                  newPixels[index] =  Math.max(currentValue, actualValue);
-               } else { // min
-                  newPixels[index] = Math.min(currentValue, actualValue);
-               }
-            }
-         }
-
-         // Convert to short
-         for (int index = 0; index < newPixels.length; index++) {
-            newPixelsFinal[index] = (byte) newPixels[index];
-         }
-
-         resultPixels = newPixelsFinal;
-
-      } else if (bytesPerPixel == 2) {
-
-         // Create new array
-         float[] newPixels = new float[width * height];
-         short[] newPixelsFinal = new short[width * height];
-
-         float currentValue;
-         float actualValue;
-
-         // Init the new array
-         // if (extremaType.equals("max")) { // no need to set new array to zero in Java
-         if (extremaType.equals("min")) {
-            Arrays.fill(newPixels, Byte.MAX_VALUE);
-         }
-
-         // Iterate over all frames
-         for (int i = 0; i < numberOfImagesToProcess_; i++) {
-
-            // Get current frame pixels
-            img = bufferImages_[i];
-            short[] imgPixels = (short[]) img.getRawPixels();
-
-            // Iterate over all pixels
-            for (int index = 0; index < newPixels.length; index++) {
-               currentValue = (float) (int) (imgPixels[index] & 0xffff);
-               actualValue = (float) newPixels[index];
-
-               if (extremaType.equals("max")) {
-                  newPixels[index] = Math.max(currentValue, actualValue);
-               } else {
-                  newPixels[index] =  Math.min(currentValue, actualValue);
-               }
-            }
-         }
-
-         // Convert to short
-         for (int index = 0; index < newPixels.length; index++) {
-            newPixelsFinal[index] = (short) newPixels[index];
+   public Image processBufferImages() throws Exception {
+      if (processorAlgo_.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SHARPEST)) {
+         if (sharpestImages_ == null) {
+            return null;
          }
-
-         resultPixels = newPixelsFinal;
-
+         return sharpestProcessImages(showGraph_);
       }
-
-      // Create the processed image
-      return studio_.data().createImage(resultPixels, width, height,
-            bytesPerPixel, numComponents, coords, metadata);
-
+      if (accumulator_ == null) {
+         return null;
+      }
+      // The result carries the coords and metadata of the first image
+      return studio_.data().createImage(accumulator_.getResult(),
+            firstImage_.getWidth(), firstImage_.getHeight(),
+            firstImage_.getBytesPerPixel(), firstImage_.getNumComponents(),
+            firstImage_.getCoords(), firstImage_.getMetadata());
    }
 
    /**
     * Determines the sharpest image in the stack and return that one.
     *
+    * @param displayGraph whether to plot the scores and the fit
     * @return The sharpest image.
     */
-   public Image sharpestProcessImages(ImgSharpnessAnalysis.Method method, boolean displayGraph) {
-      ImgSharpnessAnalysis imgScoringFunction = new ImgSharpnessAnalysis();
-      imgScoringFunction.setComputationMethod(method);
+   private Image sharpestProcessImages(boolean displayGraph) {
       SortedMap<Integer, Double> focusScoreMap = new TreeMap<>();
       for (int i = 0; i < numberOfImagesToProcess_; i++) {
-         Image img = bufferImages_[i];
-         ImageProcessor proc = studio_.data().ij().createProcessor(img);
-         focusScoreMap.put(i, imgScoringFunction.compute(proc));
+         focusScoreMap.put(i, sharpnessScores_[i]);
       }
       XYSeries xySeries = new XYSeries("Focus Score");
       focusScoreMap.forEach(xySeries::add);
@@ -407,6 +288,17 @@ public class SingleCombinationProcessor {
       } else if (bestIndex >= numberOfImagesToProcess_) {
          bestIndex = numberOfImagesToProcess_ - 1;
       }
-      return bufferImages_[bestIndex];
+      // Return the image at the fitted position. When only the best scoring
+      // images were kept, that image may be gone: use the nearest kept one.
+      ScoredImage nearest = null;
+      for (ScoredImage candidate : sharpestImages_) {
+         if (nearest == null
+               || Math.abs(candidate.index_ - bestIndex) < Math.abs(nearest.index_ - bestIndex)
+               || (Math.abs(candidate.index_ - bestIndex) == Math.abs(nearest.index_ - bestIndex)
+               && candidate.score_ > nearest.score_)) {
+            nearest = candidate;
+         }
+      }
+      return nearest == null ? null : nearest.image_;
    }
 }
@@ -0,0 +1,130 @@
+package org.micromanager.plugins.framecombiner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class FrameAccumulatorTest {
+   private static final int LENGTH = 64 * 48;
+
+   private static int value(Object pixels, int i) {
+      return pixels instanceof byte[]
+            ? ((byte[]) pixels)[i] & 0xff : ((short[]) pixels)[i] & 0xffff;
+   }
+
+   private static Object[] randomImages(int bytesPerPixel, int numImages, int maxValue) {
+      Random random = new Random(numImages * 31 + bytesPerPixel);
+      Object[] images = new Object[numImages];
+      for (int n = 0; n < numImages; ++n) {
+         if (bytesPerPixel == 1) {
+            byte[] pixels = new byte[LENGTH];
+            for (int i = 0; i < LENGTH; ++i) {
+               pixels[i] = (byte) random.nextInt(maxValue + 1);
+            }
+            images[n] = pixels;
+         } else {
+            short[] pixels = new short[LENGTH];
+            for (int i = 0; i < LENGTH; ++i) {
+               pixels[i] = (short) random.nextInt(maxValue + 1);
+            }
+            images[n] = pixels;
+         }
+      }
+      return images;
+   }
+
+   /**
+    * What SingleCombinationProcessor used to compute from its buffered
+    * images, with Min and Max seeded from the first image, and the sample
+    * standard deviation computed in two passes.
+    */
+   private static int[] reference(String algo, Object[] images) {
+      int maxValue = images[0] instanceof byte[] ? 0xff : 0xffff;
+      int[] ret = new int[LENGTH];
+      for (int i = 0; i < LENGTH; ++i) {
+         if (algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MEAN)
+               || algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)) {
+            float sum = 0.0f;
+            for (Object image : images) {
+               sum = sum + value(image, i);
+            }
+            ret[i] = algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_SUM)
+                  ? (int) sum : (int) (sum / images.length);
+         } else if (algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)
+               || algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MIN)) {
+            int extremum = value(images[0], i);
+            for (Object image : images) {
+               extremum = algo.equals(FrameCombinerPlugin.PROCESSOR_ALGO_MAX)
+                     ? Math.max(extremum, value(image, i))
+                     : Math.min(extremum, value(image, i));
+            }
+            ret[i] = extremum;
+         } else {
+            double mean = 0.0;
+            for (Object image : images) {
+               mean += value(image, i);
+            }
+            mean /= images.length;
+            double squares = 0.0;
+            for (Object image : images) {
+               squares += (value(image, i) - mean) * (value(image, i) - mean);
+            }
+            double variance = images.length > 1 ? squares / (images.length - 1) : 0.0;
+            ret[i] = (int) Math.min(maxValue, Math.round(Math.sqrt(variance)));
+         }
+      }
+      return ret;
+   }
+
+   private static void compare(int bytesPerPixel, int numImages, int maxValue) {
+      Object[] images = randomImages(bytesPerPixel, numImages, maxValue);
+      String[] algos = {FrameCombinerPlugin.PROCESSOR_ALGO_MEAN,
+            FrameCombinerPlugin.PROCESSOR_ALGO_SUM, FrameCombinerPlugin.PROCESSOR_ALGO_MAX,
+            FrameCombinerPlugin.PROCESSOR_ALGO_MIN, FrameCombinerPlugin.PROCESSOR_ALGO_STDDEV};
+      for (String algo : algos) {
+         FrameAccumulator accumulator = new FrameAccumulator(algo, LENGTH, bytesPerPixel);
+         for (Object image : images) {
+            accumulator.add(image);
+         }
+         assertEquals(numImages, accumulator.getCount());
+         int[] expected = reference(algo, images);
+         String message = algo + ", " + numImages + " images";
+         if (bytesPerPixel == 1) {
+            byte[] expectedPixels = new byte[LENGTH];
+            for (int i = 0; i < LENGTH; ++i) {
+               expectedPixels[i] = (byte) expected[i];
+            }
+            assertArrayEquals(message, expectedPixels, (byte[]) accumulator.getResult());
+         } else {
+            short[] expectedPixels = new short[LENGTH];
+            for (int i = 0; i < LENGTH; ++i) {
+               expectedPixels[i] = (short) expected[i];
+            }
+            assertArrayEquals(message, expectedPixels, (short[]) accumulator.getResult());
+         }
+      }
+   }
+
+   @Test
+   public void testShortMatchesBufferedComputation() {
+      compare(2, 7, 4095);
+      compare(2, 10, 65535);
+      compare(2, 1, 100);
+   }
+
+   @Test
+   public void testByteMatchesBufferedComputation() {
+      compare(1, 5, 255);
+      compare(1, 12, 255);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testImageSizeChange() {
+      FrameAccumulator accumulator = new FrameAccumulator(
+            FrameCombinerPlugin.PROCESSOR_ALGO_MEAN, LENGTH, 2);
+      accumulator.add(new short[LENGTH]);
+      accumulator.add(new short[LENGTH / 2]);
+   }
+}
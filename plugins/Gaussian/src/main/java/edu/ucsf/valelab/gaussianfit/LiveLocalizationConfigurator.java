@@ -0,0 +1,143 @@
+/*
+Copyright (c) 2013-2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+
+package edu.ucsf.valelab.gaussianfit;
+
+import edu.ucsf.valelab.gaussianfit.algorithm.FindLocalMaxima;
+import edu.ucsf.valelab.gaussianfit.data.GaussianInfo;
+import javax.swing.JButton;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import net.miginfocom.swing.MigLayout;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.propertymap.MutablePropertyMapView;
+
+/**
+ * Settings of the Live Localization processor. Spots are found and fitted
+ * with the settings of the Localization Microscopy window, which are copied
+ * when the configurator opens, or when asked for.
+ */
+public class LiveLocalizationConfigurator extends JFrame implements ProcessorConfigurator {
+   private final Studio studio_;
+   private final GaussianInfo fitSettings_ = new GaussianInfo();
+   private FindLocalMaxima.FilterType preFilterType_;
+   private final JSpinner nrThreadsSpinner_;
+   private final JSpinner maxQueuedFramesSpinner_;
+   private final JSpinner magnificationSpinner_;
+   private final JLabel fitSettingsLabel_;
+
+   public LiveLocalizationConfigurator(Studio studio, PropertyMap settings) {
+      studio_ = studio;
+      MutablePropertyMapView profile = studio_.profile().getSettings(
+            LiveLocalizationConfigurator.class);
+      int nrThreads = Math.min(8, ij.Prefs.getThreads());
+      nrThreadsSpinner_ = new JSpinner(new SpinnerNumberModel(settings.getInteger(
+            LiveLocalizationPlugin.NR_THREADS,
+            profile.getInteger(LiveLocalizationPlugin.NR_THREADS, nrThreads)), 1, 64, 1));
+      maxQueuedFramesSpinner_ = new JSpinner(new SpinnerNumberModel(settings.getInteger(
+            LiveLocalizationPlugin.MAX_QUEUED_FRAMES,
+            profile.getInteger(LiveLocalizationPlugin.MAX_QUEUED_FRAMES, 16)), 1, 1000, 1));
+      magnificationSpinner_ = new JSpinner(new SpinnerNumberModel(settings.getInteger(
+            LiveLocalizationPlugin.PREVIEW_MAGNIFICATION,
+            profile.getInteger(LiveLocalizationPlugin.PREVIEW_MAGNIFICATION, 5)), 1, 20, 1));
+      fitSettingsLabel_ = new JLabel();
+      if (LiveLocalizationPlugin.hasFitSettings(settings)) {
+         preFilterType_ = LiveLocalizationPlugin.getFitSettings(settings, fitSettings_);
+         updateFitSettingsLabel();
+      } else {
+         readFitSettings();
+      }
+      JButton readButton = new JButton("Use current settings");
+      readButton.setToolTipText("Copy the settings of the Localization Microscopy window");
+      readButton.addActionListener(e -> readFitSettings());
+
+      setTitle(LiveLocalizationPlugin.MENU_NAME);
+      setLayout(new MigLayout("insets 8, gapy 8"));
+      add(new JLabel("Fitting threads"));
+      add(nrThreadsSpinner_, "wrap");
+      add(new JLabel("Frames waiting before frames are skipped"));
+      add(maxQueuedFramesSpinner_, "wrap");
+      add(new JLabel("Preview magnification"));
+      add(magnificationSpinner_, "wrap");
+      add(fitSettingsLabel_, "span 2, wrap");
+      add(readButton, "span 2");
+      setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+      pack();
+      setVisible(true);
+   }
+
+   private void readFitSettings() {
+      preFilterType_ = MainForm.readSettings(studio_, fitSettings_);
+      updateFitSettingsLabel();
+   }
+
+   private void updateFitSettingsLabel() {
+      fitSettingsLabel_.setText(String.format("<html>Noise tolerance: %d, box size: %d, "
+                  + "pixel size: %.1f nm<br/>(settings of the Localization Microscopy "
+                  + "window)</html>", fitSettings_.getNoiseTolerance(),
+            2 * fitSettings_.getHalfBoxSize(), fitSettings_.getPixelSize()));
+      pack();
+   }
+
+   @Override
+   public void showGUI() {
+      pack();
+      setVisible(true);
+   }
+
+   @Override
+   public void cleanup() {
+      dispose();
+   }
+
+   @Override
+   public PropertyMap getSettings() {
+      int nrThreads = (Integer) nrThreadsSpinner_.getValue();
+      int maxQueuedFrames = (Integer) maxQueuedFramesSpinner_.getValue();
+      int magnification = (Integer) magnificationSpinner_.getValue();
+      MutablePropertyMapView profile = studio_.profile().getSettings(
+            LiveLocalizationConfigurator.class);
+      profile.putInteger(LiveLocalizationPlugin.NR_THREADS, nrThreads);
+      profile.putInteger(LiveLocalizationPlugin.MAX_QUEUED_FRAMES, maxQueuedFrames);
+      profile.putInteger(LiveLocalizationPlugin.PREVIEW_MAGNIFICATION, magnification);
+
+      PropertyMap.Builder builder = PropertyMaps.builder();
+      builder.putInteger(LiveLocalizationPlugin.NR_THREADS, nrThreads);
+      builder.putInteger(LiveLocalizationPlugin.MAX_QUEUED_FRAMES, maxQueuedFrames);
+      builder.putInteger(LiveLocalizationPlugin.PREVIEW_MAGNIFICATION, magnification);
+      LiveLocalizationPlugin.putFitSettings(builder, fitSettings_, preFilterType_);
+      return builder.build();
+   }
+}
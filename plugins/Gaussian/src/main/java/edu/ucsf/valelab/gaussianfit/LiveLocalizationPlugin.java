@@ -0,0 +1,195 @@
+/*
+Copyright (c) 2013-2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+
+package edu.ucsf.valelab.gaussianfit;
+
+import edu.ucsf.valelab.gaussianfit.algorithm.FindLocalMaxima;
+import edu.ucsf.valelab.gaussianfit.data.GaussianInfo;
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.data.ProcessorFactory;
+import org.micromanager.data.ProcessorPlugin;
+import org.scijava.plugin.Plugin;
+import org.scijava.plugin.SciJavaPlugin;
+
+/**
+ * On-the-fly processor that localizes spots in images while they are being
+ * acquired, with the settings of the Localization Microscopy window.
+ */
+@Plugin(type = ProcessorPlugin.class)
+public class LiveLocalizationPlugin implements ProcessorPlugin, SciJavaPlugin {
+   public static final String MENU_NAME = "Live Localization";
+   public static final String TOOL_TIP_DESCRIPTION =
+         "Finds and fits spots while images are acquired, and shows the localizations";
+
+   // Settings of the processor
+   static final String NR_THREADS = "NrThreads";
+   static final String MAX_QUEUED_FRAMES = "MaxQueuedFrames";
+   static final String PREVIEW_MAGNIFICATION = "PreviewMagnification";
+   // Settings of the Localization Microscopy window
+   private static final String NOISE_TOLERANCE = "NoiseTolerance";
+   private static final String PRE_FILTER = "PreFilterType";
+   private static final String PCF = "PhotonConversionFactor";
+   private static final String GAIN = "Gain";
+   private static final String PIXEL_SIZE = "PixelSize";
+   private static final String Z_STEP_SIZE = "ZStepSize";
+   private static final String TIME_INTERVAL_MS = "TimeIntervalMs";
+   private static final String BASE_LEVEL = "BackgroundLevel";
+   private static final String READ_NOISE = "ReadNoise";
+   private static final String USE_WIDTH_FILTER = "UseFilter";
+   private static final String SIGMA_MIN = "SigmaMin";
+   private static final String SIGMA_MAX = "SigmaMax";
+   private static final String USE_NR_PHOTONS_FILTER = "UseNrPhotonsFilter";
+   private static final String NR_PHOTONS_MIN = "NrPhotonsMin";
+   private static final String NR_PHOTONS_MAX = "NrPhotonsMax";
+   private static final String MAX_ITERATIONS = "MaxIterations";
+   private static final String HALF_BOX_SIZE = "HalfBoxSize";
+   private static final String SHAPE = "FitShape";
+   private static final String FIT_MODE = "FitMode";
+   private static final String USE_FIXED_WIDTH = "UseFixedWidth";
+   private static final String FIXED_WIDTH = "FixedWidth";
+   private static final String SKIP_CHANNELS = "SkipChannels";
+   private static final String CHANNELS_TO_SKIP = "ChannelsToSkip";
+
+   private Studio studio_;
+
+   @Override
+   public void setContext(Studio studio) {
+      studio_ = studio;
+   }
+
+   @Override
+   public ProcessorConfigurator createConfigurator(PropertyMap settings) {
+      return new LiveLocalizationConfigurator(studio_, settings);
+   }
+
+   @Override
+   public ProcessorFactory createFactory(PropertyMap settings) {
+      return new LiveLocalizationFactory(studio_, settings);
+   }
+
+   @Override
+   public String getName() {
+      return MENU_NAME;
+   }
+
+   @Override
+   public String getHelpText() {
+      return TOOL_TIP_DESCRIPTION;
+   }
+
+   @Override
+   public String getVersion() {
+      return "0.1";
+   }
+
+   @Override
+   public String getCopyright() {
+      return "Regents of the University of California";
+   }
+
+   /**
+    * Store the detection and fit settings with the processor settings, so
+    * that a saved pipeline keeps them.
+    */
+   static void putFitSettings(PropertyMap.Builder builder, GaussianInfo info,
+                              FindLocalMaxima.FilterType preFilterType) {
+      builder.putInteger(NOISE_TOLERANCE, info.getNoiseTolerance())
+            .putString(PRE_FILTER, preFilterType.name())
+            .putDouble(PCF, info.getPhotonConversionFactor())
+            .putDouble(GAIN, info.getGain())
+            .putDouble(PIXEL_SIZE, (double) info.getPixelSize())
+            .putDouble(Z_STEP_SIZE, (double) info.getZStackStepSize())
+            .putDouble(TIME_INTERVAL_MS, info.getTimeIntervalMs())
+            .putDouble(BASE_LEVEL, info.getBaseLevel())
+            .putDouble(READ_NOISE, info.getReadNoise())
+            .putBoolean(USE_WIDTH_FILTER, info.getUseWidthFilter())
+            .putDouble(SIGMA_MIN, info.getSigmaMin())
+            .putDouble(SIGMA_MAX, info.getSigmaMax())
+            .putBoolean(USE_NR_PHOTONS_FILTER, info.getUseNrPhotonsFilter())
+            .putDouble(NR_PHOTONS_MIN, info.getNrPhotonsMin())
+            .putDouble(NR_PHOTONS_MAX, info.getNrPhotonsMax())
+            .putInteger(MAX_ITERATIONS, info.getMaxIterations())
+            .putInteger(HALF_BOX_SIZE, info.getHalfBoxSize())
+            .putInteger(SHAPE, info.getShape())
+            .putInteger(FIT_MODE, info.getFitMode())
+            .putBoolean(USE_FIXED_WIDTH, info.getUseFixedWidth())
+            .putDouble(FIXED_WIDTH, info.getFixedWidthNm())
+            .putBoolean(SKIP_CHANNELS, info.getSkipChannels());
+      if (info.getChannelsToSkip() != null) {
+         builder.putIntegerList(CHANNELS_TO_SKIP, info.getChannelsToSkip());
+      }
+   }
+
+   /**
+    * @return true if the settings hold detection and fit settings
+    */
+   static boolean hasFitSettings(PropertyMap settings) {
+      return settings.containsKey(NOISE_TOLERANCE);
+   }
+
+   /**
+    * Copy the detection and fit settings stored by putFitSettings.
+    *
+    * @return the filter to apply before looking for maxima
+    */
+   static FindLocalMaxima.FilterType getFitSettings(PropertyMap settings,
+                                                    GaussianInfo info) {
+      GaussianInfo d = new GaussianInfo();
+      info.setNoiseTolerance(settings.getInteger(NOISE_TOLERANCE, d.getNoiseTolerance()));
+      info.setPhotonConversionFactor(settings.getDouble(PCF, d.getPhotonConversionFactor()));
+      info.setGain(settings.getDouble(GAIN, d.getGain()));
+      info.setPixelSize((float) settings.getDouble(PIXEL_SIZE, d.getPixelSize()));
+      info.setZStackStepSize((float) settings.getDouble(Z_STEP_SIZE, d.getZStackStepSize()));
+      info.setTimeIntervalMs(settings.getDouble(TIME_INTERVAL_MS, d.getTimeIntervalMs()));
+      info.setBaseLevel(settings.getDouble(BASE_LEVEL, d.getBaseLevel()));
+      info.setReadNoise(settings.getDouble(READ_NOISE, d.getReadNoise()));
+      info.setUseWidthFilter(settings.getBoolean(USE_WIDTH_FILTER, d.getUseWidthFilter()));
+      info.setSigmaMin(settings.getDouble(SIGMA_MIN, d.getSigmaMin()));
+      info.setSigmaMax(settings.getDouble(SIGMA_MAX, d.getSigmaMax()));
+      info.setUseNrPhotonsFilter(settings.getBoolean(USE_NR_PHOTONS_FILTER,
+            d.getUseNrPhotonsFilter()));
+      info.setNrPhotonsMin(settings.getDouble(NR_PHOTONS_MIN, d.getNrPhotonsMin()));
+      info.setNrPhotonsMax(settings.getDouble(NR_PHOTONS_MAX, d.getNrPhotonsMax()));
+      info.setMaxIterations(settings.getInteger(MAX_ITERATIONS, d.getMaxIterations()));
+      info.setHalfBoxSize(settings.getInteger(HALF_BOX_SIZE, d.getHalfBoxSize()));
+      info.setShape(settings.getInteger(SHAPE, 1));
+      info.setFitMode(settings.getInteger(FIT_MODE, 1));
+      info.setUseFixedWidth(settings.getBoolean(USE_FIXED_WIDTH, d.getUseFixedWidth()));
+      info.setFixedWidthNm(settings.getDouble(FIXED_WIDTH, d.getFixedWidthNm()));
+      info.setSkipChannels(settings.getBoolean(SKIP_CHANNELS, false));
+      if (settings.containsKey(CHANNELS_TO_SKIP)) {
+         info.setChannelsToSkip(settings.getIntegerList(CHANNELS_TO_SKIP, new int[0]));
+      }
+      return settings.getStringAsEnum(PRE_FILTER, FindLocalMaxima.FilterType.class,
+            FindLocalMaxima.FilterType.NONE);
+   }
+}
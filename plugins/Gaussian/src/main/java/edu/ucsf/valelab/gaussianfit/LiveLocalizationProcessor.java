@@ -0,0 +1,247 @@
+/*
+Copyright (c) 2013-2017, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this
+   list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright notice,
+   this list of conditions and the following disclaimer in the documentation
+   and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+The views and conclusions contained in the software and documentation are those
+of the authors and should not be interpreted as representing official policies,
+either expressed or implied, of the FreeBSD Project.
+ */
+
+
+package edu.ucsf.valelab.gaussianfit;
+
+import edu.ucsf.valelab.gaussianfit.algorithm.FindLocalMaxima;
+import edu.ucsf.valelab.gaussianfit.data.GaussianInfo;
+import edu.ucsf.valelab.gaussianfit.data.RowData;
+import edu.ucsf.valelab.gaussianfit.data.SpotTable;
+import edu.ucsf.valelab.gaussianfit.fitmanagement.LiveLocalizer;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.alerts.UpdatableAlert;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+
+/**
+ * Passes images on unchanged, and localizes the spots in them on worker
+ * threads (see {@link LiveLocalizer}). When the workers fall behind, frames
+ * are skipped for localization, so that the acquisition is never held up.
+ *
+ * <p>While images come in, a preview of the localizations is shown and
+ * refreshed every second, together with the number of localizations per
+ * second and the number of frames waiting (in an alert). When the
+ * acquisition ends, the waiting frames are localized, and the localizations
+ * are added to the Localization Microscopy data window.
+ *
+ * <p>Frames are numbered per position, channel and slice in the order in
+ * which they arrive, so that images of live mode (which all have the same
+ * coordinates) are numbered as well.
+ */
+public class LiveLocalizationProcessor implements Processor {
+   private static final int REFRESH_MS = 1000;
+
+   private final Studio studio_;
+   private final LiveLocalizer localizer_;
+   // Number of frames received per position, channel and slice
+   private final Map<List<Integer>, Integer> frameCounts_ = new HashMap<>();
+   private String title_ = LiveLocalizationPlugin.MENU_NAME;
+   private boolean started_ = false;
+   private boolean reportedUnsupported_ = false;
+   private int nrChannels_ = 1;
+   private int nrSlices_ = 1;
+   private int nrPositions_ = 1;
+
+   // Only used on the EDT
+   private Timer timer_;
+   private ImagePlus preview_;
+   private UpdatableAlert alert_;
+
+   public LiveLocalizationProcessor(Studio studio, PropertyMap settings) {
+      studio_ = studio;
+      int nrThreads = settings.getInteger(LiveLocalizationPlugin.NR_THREADS,
+            Math.min(8, ij.Prefs.getThreads()));
+      int maxQueuedFrames = settings.getInteger(LiveLocalizationPlugin.MAX_QUEUED_FRAMES, 16);
+      int magnification = settings.getInteger(LiveLocalizationPlugin.PREVIEW_MAGNIFICATION, 5);
+      GaussianInfo fitSettings = new GaussianInfo();
+      FindLocalMaxima.FilterType preFilterType;
+      if (LiveLocalizationPlugin.hasFitSettings(settings)) {
+         preFilterType = LiveLocalizationPlugin.getFitSettings(settings, fitSettings);
+      } else {
+         preFilterType = MainForm.readSettings(studio_, fitSettings);
+      }
+      localizer_ = new LiveLocalizer(nrThreads, maxQueuedFrames, preFilterType, magnification);
+      localizer_.copy(fitSettings);
+   }
+
+   @Override
+   public SummaryMetadata processSummaryMetadata(SummaryMetadata summary) {
+      if (summary.getPrefix() != null && !summary.getPrefix().isEmpty()) {
+         title_ = summary.getPrefix() + "-Live";
+      }
+      return summary;
+   }
+
+   @Override
+   public void processImage(Image image, ProcessorContext context) {
+      localize(image);
+      context.outputImage(image);
+   }
+
+   /**
+    * Queues the image for localization.  The localizer works on a copy of the
+    * pixels, because it uses them after the image has been passed on.
+    */
+   private void localize(Image image) {
+      if (image.getNumComponents() != 1 || image.getBytesPerPixel() > 2) {
+         if (!reportedUnsupported_) {
+            reportedUnsupported_ = true;
+            studio_.logs().logMessage("Live localization skips images that are not "
+                  + "8 or 16-bit grayscale");
+         }
+         return;
+      }
+      Coords coords = image.getCoords();
+      int position = Math.max(0, coords.getStagePosition());
+      int channel = Math.max(0, coords.getChannel());
+      int slice = Math.max(0, coords.getZ());
+      int frame = frameCounts_.merge(Arrays.asList(position, channel, slice), 1,
+            Integer::sum);
+      nrPositions_ = Math.max(nrPositions_, position + 1);
+      nrChannels_ = Math.max(nrChannels_, channel + 1);
+      nrSlices_ = Math.max(nrSlices_, slice + 1);
+      try {
+         localizer_.addFrame(image.getRawPixelsCopy(), image.getWidth(), image.getHeight(),
+               channel + 1, slice + 1, frame, position + 1);
+      } catch (IllegalArgumentException iae) {
+         if (!reportedUnsupported_) {
+            reportedUnsupported_ = true;
+            studio_.logs().logError(iae, "Live localization skips image");
+         }
+         return;
+      }
+      if (!started_) {
+         started_ = true;
+         SwingUtilities.invokeLater(() -> {
+            alert_ = studio_.alerts().postUpdatableAlert(title_, localizer_.getStatistics());
+            timer_ = new Timer(REFRESH_MS, e -> refresh());
+            timer_.start();
+            refresh();
+         });
+      }
+   }
+
+   @Override
+   public void cleanup(ProcessorContext context) {
+      if (!started_) {
+         localizer_.stop();
+         return;
+      }
+      try {
+         localizer_.finish();
+      } catch (InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      }
+      SwingUtilities.invokeLater(() -> {
+         timer_.stop();
+         refresh();
+         addToDataWindow();
+      });
+   }
+
+   /**
+    * Show the latest preview and statistics. Once the user closed the
+    * preview window, only the statistics are updated.
+    */
+   private void refresh() {
+      alert_.setText(localizer_.getStatistics());
+      if (preview_ != null && preview_.getWindow() == null) {
+         return;
+      }
+      ImageProcessor ip = localizer_.getPreview();
+      if (ip == null) {
+         return;
+      }
+      ip.resetMinAndMax();
+      if (preview_ == null) {
+         preview_ = new ImagePlus(title_, ip);
+         preview_.show();
+      } else {
+         preview_.setProcessor(ip);
+         preview_.updateAndDraw();
+      }
+   }
+
+   private void addToDataWindow() {
+      SpotTable spots = localizer_.getLocalizations();
+      if (spots.isEmpty()) {
+         studio_.alerts().postAlert(title_, LiveLocalizationProcessor.class, "No spots found");
+         return;
+      }
+      boolean hasZ = DataCollectionForm.zc_.hasFitFunctions();
+      double zMax = Math.max(0.0, spots.getZCenter(0));
+      double zMin = zMax;
+      if (hasZ) {
+         for (int row = 0; row < spots.size(); row++) {
+            double z = spots.getZCenter(row);
+            zMax = Math.max(zMax, z);
+            if (z > 0.0) {
+               zMin = Math.min(zMin, z);
+            }
+         }
+      }
+      int nrFrames = localizer_.getMaxFrame();
+      ArrayList<Double> timePoints = new ArrayList<Double>();
+      // ugly code to deal with 1-based frame numbers and their relation to timePoints
+      timePoints.add(0.0);
+      for (int i = 1; i <= nrFrames; i++) {
+         timePoints.add((i - 1) * localizer_.getTimeIntervalMs());
+      }
+
+      RowData.Builder builder = new RowData.Builder();
+      builder.setName(title_).setTitle(title_)
+            .setWidth(localizer_.getWidth()).setHeight(localizer_.getHeight())
+            .setPixelSizeNm(localizer_.getPixelSize())
+            .setZStackStepSizeNm(localizer_.getZStackStepSize())
+            .setShape(localizer_.getShape()).setHalfSize(localizer_.getHalfBoxSize())
+            .setNrChannels(nrChannels_).setNrFrames(nrFrames)
+            .setNrSlices(nrSlices_).setNrPositions(nrPositions_)
+            .setMaxNrSpots(spots.size()).setSpotList(spots)
+            .setTimePoints(timePoints).setIsTrack(false)
+            .setCoordinate(DataCollectionForm.Coordinates.NM)
+            .setHasZ(hasZ).setMinZ(zMin).setMaxZ(zMax);
+      DataCollectionForm dcForm = DataCollectionForm.getInstance();
+      dcForm.addSpotData(builder);
+      dcForm.setVisible(true);
+   }
+}
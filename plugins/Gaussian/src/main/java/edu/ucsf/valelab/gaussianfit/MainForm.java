@@ -79,7 +79,6 @@ import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import net.miginfocom.swing.MigLayout;
 import org.micromanager.Studio;
-import org.micromanager.UserProfile;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
@@ -88,6 +87,7 @@ import org.micromanager.data.SummaryMetadata;
 import org.micromanager.display.DataViewer;
 import org.micromanager.display.DisplayPositionChangedEvent;
 import org.micromanager.display.DisplayWindow;
+import org.micromanager.propertymap.MutablePropertyMapView;
 
 
 /**
@@ -125,6 +125,8 @@ public class MainForm extends JFrame {
 
    // we are a singleton with only one window
    public static boolean WINDOWOPEN = false;
+   // the window while it is open, for the live localization processor
+   private static volatile MainForm openForm_ = null;
 
    private final Studio studio_;
 
@@ -204,16 +206,16 @@ public class MainForm extends JFrame {
 
       spotOverlay_ = new SpotOverlay();
 
-      UserProfile up = studio_.getUserProfile();
-      Class oc = MainForm.class;
-      noiseToleranceTextField_.setText((up.getString(oc, NOISETOLERANCE, "100")));
-      photonConversionTextField_.setText(Double.toString(up.getDouble(oc, PCF, 10.41)));
-      emGainTextField_.setText(Double.toString(up.getDouble(oc, GAIN, 50.0)));
-      pixelSizeTextField_.setText(Double.toString(up.getDouble(oc, PIXELSIZE, 107.0)));
-      baseLevelTextField_.setText(Double.toString(up.getDouble(oc, BACKGROUNDLEVEL, 100.0)));
-      readNoiseTextField_.setText(Double.toString(up.getDouble(oc, READNOISE, 0.0)));
-      timeIntervalTextField_.setText(Double.toString(up.getDouble(oc, TIMEINTERVALMS, 1.0)));
-      zStepTextField_.setText(Double.toString(up.getDouble(oc, ZSTEPSIZE, 50.0)));
+      MutablePropertyMapView profileSettings = studio_.profile().getSettings(MainForm.class);
+      Settings settings = new Settings(profileSettings);
+      noiseToleranceTextField_.setText(settings.noiseTolerance_);
+      photonConversionTextField_.setText(Double.toString(settings.photonConversionFactor_));
+      emGainTextField_.setText(Double.toString(settings.gain_));
+      pixelSizeTextField_.setText(Double.toString(settings.pixelSize_));
+      baseLevelTextField_.setText(Double.toString(settings.backgroundLevel_));
+      readNoiseTextField_.setText(Double.toString(settings.readNoise_));
+      timeIntervalTextField_.setText(Double.toString(settings.timeIntervalMs_));
+      zStepTextField_.setText(Double.toString(settings.zStepSize_));
 
       pixelSizeTextField_.getDocument()
             .addDocumentListener(new BackgroundCleaner(pixelSizeTextField_));
@@ -221,24 +223,24 @@ public class MainForm extends JFrame {
       timeIntervalTextField_.getDocument()
             .addDocumentListener(new BackgroundCleaner(timeIntervalTextField_));
 
-      minSigmaTextField_.setText(Double.toString(up.getDouble(oc, SIGMAMIN, 100.0)));
-      maxSigmaTextField_.setText(Double.toString(up.getDouble(oc, SIGMAMAX, 200.0)));
-      minNrPhotonsTextField_.setText(Double.toString(up.getDouble(oc, NRPHOTONSMIN, 500.0)));
-      maxNrPhotonsTextField_.setText(Double.toString(up.getDouble(oc, NRPHOTONSMAX, 50000.0)));
-      filterDataCheckBoxNrPhotons_.setSelected(up.getBoolean(oc, USENRPHOTONSFILTER, false));
-      fitDimensionsComboBox1_.setSelectedIndex(up.getInt(oc, FITSHAPE, 1) - 1);
-      fitMethodComboBox1_.setSelectedIndex(up.getInt(oc, FITMODE, 0));
-      maxIterationsTextField_.setText(Integer.toString(up.getInt(oc, MAXITERATIONS, 250)));
-      boxSizeTextField.setText(Integer.toString(up.getInt(oc, BOXSIZE, 8)));
-      useFixedWidthInFit_.setSelected(up.getBoolean(oc, USEFIXEDWIDTH, false));
-      fixedWidthInFit_.setText(Double.toString(up.getDouble(oc, FIXEDWIDTH, 250.0)));
+      minSigmaTextField_.setText(Double.toString(settings.sigmaMin_));
+      maxSigmaTextField_.setText(Double.toString(settings.sigmaMax_));
+      minNrPhotonsTextField_.setText(Double.toString(settings.nrPhotonsMin_));
+      maxNrPhotonsTextField_.setText(Double.toString(settings.nrPhotonsMax_));
+      filterDataCheckBoxNrPhotons_.setSelected(settings.useNrPhotonsFilter_);
+      fitDimensionsComboBox1_.setSelectedIndex(settings.fitShape_ - 1);
+      fitMethodComboBox1_.setSelectedIndex(settings.fitMode_);
+      maxIterationsTextField_.setText(Integer.toString(settings.maxIterations_));
+      boxSizeTextField.setText(Integer.toString(settings.boxSize_));
+      useFixedWidthInFit_.setSelected(settings.useFixedWidth_);
+      fixedWidthInFit_.setText(Double.toString(settings.fixedWidth_));
       fixedWidthInFit_.setEnabled(useFixedWidthInFit_.isSelected());
-      filterDataCheckBoxWidth_.setSelected(up.getBoolean(oc, USEFILTER, false));
-      preFilterComboBox_.setSelectedIndex(up.getInt(oc, PREFILTER, 0));
-      endTrackCheckBox_.setSelected(up.getBoolean(oc, ENDTRACKBOOL, false));
-      endTrackSpinner_.setValue(up.getInt(oc, ENDTRACKINT, 0));
-      skipChannelsCheckBox_.setSelected(up.getBoolean(oc, SKIPCHANNELS, false));
-      channelsToSkip_.setText(up.getString(oc, CHANNELSKIPSTRING, ""));
+      filterDataCheckBoxWidth_.setSelected(settings.useWidthFilter_);
+      preFilterComboBox_.setSelectedIndex(settings.preFilter_);
+      endTrackCheckBox_.setSelected(settings.endTrack_);
+      endTrackSpinner_.setValue(settings.endTrackAfterN_);
+      skipChannelsCheckBox_.setSelected(settings.skipChannels_);
+      channelsToSkip_.setText(settings.channelsToSkip_);
 
       final DocumentListener updateNoiseOverlay = new DocumentListener() {
 
@@ -274,7 +276,8 @@ public class MainForm extends JFrame {
 
       super.setTitle("Localization Microscopy");
 
-      super.setLocation(up.getInt(oc, FRAMEXPOS, 100), up.getInt(oc, FRAMEYPOS, 100));
+      super.setLocation(profileSettings.getInteger(FRAMEXPOS, 100),
+            profileSettings.getInteger(FRAMEYPOS, 100));
 
       super.setVisible(true);
    }
@@ -815,46 +818,46 @@ public class MainForm extends JFrame {
 
    private void formWindowClosing(java.awt.event.WindowEvent evt) {
       try {
-         UserProfile up = studio_.getUserProfile();
-         Class oc = MainForm.class;
-         up.setString(oc, NOISETOLERANCE, noiseToleranceTextField_.getText());
-         up.setDouble(oc, PCF,
+         MutablePropertyMapView settings = studio_.profile().getSettings(MainForm.class);
+         settings.putString(NOISETOLERANCE, noiseToleranceTextField_.getText());
+         settings.putDouble(PCF,
                NumberUtils.displayStringToDouble(photonConversionTextField_.getText()));
-         up.setDouble(oc, GAIN, NumberUtils.displayStringToDouble(emGainTextField_.getText()));
-         up.setDouble(oc, PIXELSIZE,
+         settings.putDouble(GAIN, NumberUtils.displayStringToDouble(emGainTextField_.getText()));
+         settings.putDouble(PIXELSIZE,
                NumberUtils.displayStringToDouble(pixelSizeTextField_.getText()));
-         up.setDouble(oc, TIMEINTERVALMS,
+         settings.putDouble(TIMEINTERVALMS,
                NumberUtils.displayStringToDouble(timeIntervalTextField_.getText()));
-         up.setDouble(oc, ZSTEPSIZE, NumberUtils.displayStringToDouble(zStepTextField_.getText()));
-         up.setDouble(oc, BACKGROUNDLEVEL,
+         settings.putDouble(ZSTEPSIZE,
+               NumberUtils.displayStringToDouble(zStepTextField_.getText()));
+         settings.putDouble(BACKGROUNDLEVEL,
                NumberUtils.displayStringToDouble(baseLevelTextField_.getText()));
-         up.setDouble(oc, READNOISE,
+         settings.putDouble(READNOISE,
                NumberUtils.displayStringToDouble(readNoiseTextField_.getText()));
-         up.setBoolean(oc, USEFILTER, filterDataCheckBoxWidth_.isSelected());
-         up.setDouble(oc, SIGMAMIN,
+         settings.putBoolean(USEFILTER, filterDataCheckBoxWidth_.isSelected());
+         settings.putDouble(SIGMAMIN,
                NumberUtils.displayStringToDouble(minSigmaTextField_.getText()));
-         up.setDouble(oc, SIGMAMAX,
+         settings.putDouble(SIGMAMAX,
                NumberUtils.displayStringToDouble(maxSigmaTextField_.getText()));
-         up.setBoolean(oc, USENRPHOTONSFILTER, filterDataCheckBoxNrPhotons_.isSelected());
-         up.setDouble(oc, NRPHOTONSMIN,
+         settings.putBoolean(USENRPHOTONSFILTER, filterDataCheckBoxNrPhotons_.isSelected());
+         settings.putDouble(NRPHOTONSMIN,
                NumberUtils.displayStringToDouble(minNrPhotonsTextField_.getText()));
-         up.setDouble(oc, NRPHOTONSMAX,
+         settings.putDouble(NRPHOTONSMAX,
                NumberUtils.displayStringToDouble(maxNrPhotonsTextField_.getText()));
-         up.setInt(oc, MAXITERATIONS,
+         settings.putInteger(MAXITERATIONS,
                NumberUtils.displayStringToInt(maxIterationsTextField_.getText()));
-         up.setInt(oc, BOXSIZE, NumberUtils.displayStringToInt(boxSizeTextField.getText()));
-         up.setBoolean(oc, USEFIXEDWIDTH, useFixedWidthInFit_.isSelected());
-         up.setDouble(oc, FIXEDWIDTH,
+         settings.putInteger(BOXSIZE, NumberUtils.displayStringToInt(boxSizeTextField.getText()));
+         settings.putBoolean(USEFIXEDWIDTH, useFixedWidthInFit_.isSelected());
+         settings.putDouble(FIXEDWIDTH,
                NumberUtils.displayStringToDouble(fixedWidthInFit_.getText()));
-         up.setInt(oc, PREFILTER, preFilterComboBox_.getSelectedIndex());
-         up.setInt(oc, FRAMEXPOS, getX());
-         up.setInt(oc, FRAMEYPOS, getY());
-         up.setBoolean(oc, ENDTRACKBOOL, endTrackCheckBox_.isSelected());
-         up.setInt(oc, ENDTRACKINT, (Integer) endTrackSpinner_.getValue());
-         up.setInt(oc, FITMODE, fitMethodComboBox1_.getSelectedIndex());
-         up.setInt(oc, FITSHAPE, fitDimensionsComboBox1_.getSelectedIndex() + 1);
-         up.setBoolean(oc, SKIPCHANNELS, skipChannelsCheckBox_.isSelected());
-         up.setString(oc, CHANNELSKIPSTRING, channelsToSkip_.getText());
+         settings.putInteger(PREFILTER, preFilterComboBox_.getSelectedIndex());
+         settings.putInteger(FRAMEXPOS, getX());
+         settings.putInteger(FRAMEYPOS, getY());
+         settings.putBoolean(ENDTRACKBOOL, endTrackCheckBox_.isSelected());
+         settings.putInteger(ENDTRACKINT, (Integer) endTrackSpinner_.getValue());
+         settings.putInteger(FITMODE, fitMethodComboBox1_.getSelectedIndex());
+         settings.putInteger(FITSHAPE, fitDimensionsComboBox1_.getSelectedIndex() + 1);
+         settings.putBoolean(SKIPCHANNELS, skipChannelsCheckBox_.isSelected());
+         settings.putString(CHANNELSKIPSTRING, channelsToSkip_.getText());
       } catch (ParseException ex) {
          ReportingUtils.logError(ex, "Error while closing Localization Microscopy plugin");
       }
@@ -862,12 +865,129 @@ public class MainForm extends JFrame {
       threadPool_.shutdownNow();
 
       WINDOWOPEN = false;
+      openForm_ = null;
 
       this.setVisible(false);
    }
 
    public void formWindowOpened() {
       WINDOWOPEN = true;
+      openForm_ = this;
+   }
+
+   /**
+    * Copies the settings of the open window into the given GaussianInfo or,
+    * when the window is closed, the settings it stored in the profile.
+    *
+    * @param studio Instance of the Micro-Manager 2.0 api
+    * @param info   receives the settings
+    * @return the filter to apply before looking for maxima
+    */
+   static FindLocalMaxima.FilterType readSettings(Studio studio, GaussianInfo info) {
+      MainForm form = openForm_;
+      if (form != null) {
+         form.updateValues(info);
+         return form.preFilterType_;
+      }
+      Settings settings = new Settings(studio.profile().getSettings(MainForm.class));
+      try {
+         info.setNoiseTolerance(Integer.parseInt(settings.noiseTolerance_));
+      } catch (NumberFormatException nfe) {
+         info.setNoiseTolerance(100);
+      }
+      info.setPhotonConversionFactor(settings.photonConversionFactor_);
+      info.setGain(settings.gain_);
+      info.setPixelSize((float) settings.pixelSize_);
+      info.setZStackStepSize((float) settings.zStepSize_);
+      info.setTimeIntervalMs(settings.timeIntervalMs_);
+      info.setBaseLevel(settings.backgroundLevel_);
+      info.setReadNoise(settings.readNoise_);
+      info.setUseWidthFilter(settings.useWidthFilter_);
+      info.setSigmaMin(settings.sigmaMin_);
+      info.setSigmaMax(settings.sigmaMax_);
+      info.setUseNrPhotonsFilter(settings.useNrPhotonsFilter_);
+      info.setNrPhotonsMin(settings.nrPhotonsMin_);
+      info.setNrPhotonsMax(settings.nrPhotonsMax_);
+      info.setMaxIterations(settings.maxIterations_);
+      info.setHalfBoxSize(settings.boxSize_ / 2);
+      info.setShape(settings.fitShape_);
+      info.setFitMode(settings.fitMode_ + 1);
+      info.setUseFixedWidth(settings.useFixedWidth_);
+      info.setFixedWidthNm(settings.fixedWidth_);
+      info.setSkipChannels(settings.skipChannels_);
+      if (info.getSkipChannels()) {
+         try {
+            String[] parts = settings.channelsToSkip_.split(",");
+            int[] result = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+               result[i] = NumberUtils.displayStringToInt(parts[i]);
+            }
+            info.setChannelsToSkip(result);
+         } catch (ParseException | NumberFormatException ex) {
+            info.setSkipChannels(false);
+         }
+      }
+      return settings.preFilter_ == 1
+            ? FindLocalMaxima.FilterType.GAUSSIAN1_5 : FindLocalMaxima.FilterType.NONE;
+   }
+
+   /**
+    * The settings of the window stored in the profile, or their defaults.
+    */
+   private static final class Settings {
+      private final String noiseTolerance_;
+      private final double photonConversionFactor_;
+      private final double gain_;
+      private final double pixelSize_;
+      private final double timeIntervalMs_;
+      private final double zStepSize_;
+      private final double backgroundLevel_;
+      private final double readNoise_;
+      private final boolean useWidthFilter_;
+      private final double sigmaMin_;
+      private final double sigmaMax_;
+      private final boolean useNrPhotonsFilter_;
+      private final double nrPhotonsMin_;
+      private final double nrPhotonsMax_;
+      private final int fitShape_;
+      private final int fitMode_;
+      private final int maxIterations_;
+      private final int boxSize_;
+      private final boolean useFixedWidth_;
+      private final double fixedWidth_;
+      private final int preFilter_;
+      private final boolean endTrack_;
+      private final int endTrackAfterN_;
+      private final boolean skipChannels_;
+      private final String channelsToSkip_;
+
+      private Settings(MutablePropertyMapView settings) {
+         noiseTolerance_ = settings.getString(NOISETOLERANCE, "100");
+         photonConversionFactor_ = settings.getDouble(PCF, 10.41);
+         gain_ = settings.getDouble(GAIN, 50.0);
+         pixelSize_ = settings.getDouble(PIXELSIZE, 107.0);
+         timeIntervalMs_ = settings.getDouble(TIMEINTERVALMS, 1.0);
+         zStepSize_ = settings.getDouble(ZSTEPSIZE, 50.0);
+         backgroundLevel_ = settings.getDouble(BACKGROUNDLEVEL, 100.0);
+         readNoise_ = settings.getDouble(READNOISE, 0.0);
+         useWidthFilter_ = settings.getBoolean(USEFILTER, false);
+         sigmaMin_ = settings.getDouble(SIGMAMIN, 100.0);
+         sigmaMax_ = settings.getDouble(SIGMAMAX, 200.0);
+         useNrPhotonsFilter_ = settings.getBoolean(USENRPHOTONSFILTER, false);
+         nrPhotonsMin_ = settings.getDouble(NRPHOTONSMIN, 500.0);
+         nrPhotonsMax_ = settings.getDouble(NRPHOTONSMAX, 50000.0);
+         fitShape_ = settings.getInteger(FITSHAPE, 1);
+         fitMode_ = settings.getInteger(FITMODE, 0);
+         maxIterations_ = settings.getInteger(MAXITERATIONS, 250);
+         boxSize_ = settings.getInteger(BOXSIZE, 8);
+         useFixedWidth_ = settings.getBoolean(USEFIXEDWIDTH, false);
+         fixedWidth_ = settings.getDouble(FIXEDWIDTH, 250.0);
+         preFilter_ = settings.getInteger(PREFILTER, 0);
+         endTrack_ = settings.getBoolean(ENDTRACKBOOL, false);
+         endTrackAfterN_ = settings.getInteger(ENDTRACKINT, 0);
+         skipChannels_ = settings.getBoolean(SKIPCHANNELS, false);
+         channelsToSkip_ = settings.getString(CHANNELSKIPSTRING, "");
+      }
    }
 
    @Override
@@ -12,6 +12,7 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.geom.Point2D;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -480,6 +481,7 @@ public class SiteGenerator extends JFrame implements ParentPlateGUI {
       } else {
          platePl = studio_.positions().getPositionList();
       }
+      List<MultiStagePosition> sites = new ArrayList<>();
       for (WellPositionList wpl1 : wpl) {
          PositionList pl = PositionList.newInstance(wpl1.getSitePositions());
          for (int j = 0; j < pl.getNumberOfPositions(); j++) {
@@ -513,9 +515,10 @@ public class SiteGenerator extends JFrame implements ParentPlateGUI {
                        focusPlane_.getZPos(msp.getX(), msp.getY()));
                msp.add(sp);
             }
-            platePl.addPosition(pl.getPosition(j));
+            sites.add(pl.getPosition(j));
          }
       }
+      platePl.addPositions(sites);
 
       try {
          if (studio_ != null) {
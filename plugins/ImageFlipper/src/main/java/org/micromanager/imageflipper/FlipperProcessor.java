@@ -20,17 +20,21 @@
 
 package org.micromanager.imageflipper;
 
-import ij.process.ImageProcessor;
+import java.util.Collections;
+import java.util.List;
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
 import org.micromanager.Studio;
+import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
+import org.micromanager.data.ImageViews;
 import org.micromanager.data.Metadata;
-import org.micromanager.data.Processor;
+import org.micromanager.data.PixelKernel;
+import org.micromanager.data.PixelKernelProcessor;
 import org.micromanager.data.ProcessorContext;
 
 
-public class FlipperProcessor implements Processor {
+public class FlipperProcessor implements PixelKernelProcessor {
 
    // Valid rotation values.
    public static final int R0 = 0;
@@ -62,20 +66,89 @@ public class FlipperProcessor implements Processor {
     */
    @Override
    public void processImage(Image image, ProcessorContext context) {
-      // to allow processing old data, we do not check for the camera when no 
-      // camera was selected
-      if (!camera_.isEmpty()) {
-         String imageCam = image.getMetadata().getCamera();
-         if (imageCam == null || !imageCam.equals(camera_)) {
-            // Image is for the wrong camera; just pass it along unmodified.
-            context.outputImage(image);
-            return;
-         }
+      if (!isForCamera(image.getMetadata())) {
+         // Image is for the wrong camera; just pass it along unmodified.
+         context.outputImage(image);
+         return;
       }
       context.outputImage(
             transformImage(studio_, image, isMirrored_, rotation_));
    }
 
+   /**
+    * Describes the mirroring and rotation as a pixel remap, so that it can
+    * be combined with the neighboring processors in the pipeline.
+    */
+   @Override
+   public List<PixelKernel> createPixelKernels(final Coords coords,
+         Metadata metadata, final int width, final int height, int bytesPerPixel) {
+      if (!isForCamera(metadata)) {
+         return null;
+      }
+      final Metadata newMetadata = transformMetadata(metadata, isMirrored_, rotation_);
+      final boolean isTransposed = rotation_ == R90 || rotation_ == R270;
+      final int outWidth = isTransposed ? height : width;
+      PixelKernel kernel = new PixelKernel() {
+         @Override
+         public int getWidth() {
+            return outWidth;
+         }
+
+         @Override
+         public int getHeight() {
+            return isTransposed ? width : height;
+         }
+
+         @Override
+         public Coords getCoords() {
+            return coords;
+         }
+
+         @Override
+         public Metadata getMetadata() {
+            return newMetadata;
+         }
+
+         @Override
+         public int getSourceIndex(int index) {
+            int x = index % outWidth;
+            int y = index / outWidth;
+            // Undo the rotation...
+            int mirroredX;
+            int mirroredY;
+            if (rotation_ == R90) {
+               mirroredX = y;
+               mirroredY = height - 1 - x;
+            } else if (rotation_ == R180) {
+               mirroredX = width - 1 - x;
+               mirroredY = height - 1 - y;
+            } else if (rotation_ == R270) {
+               mirroredX = width - 1 - y;
+               mirroredY = x;
+            } else {
+               mirroredX = x;
+               mirroredY = y;
+            }
+            // ...then the mirroring
+            int sourceX = isMirrored_ ? width - 1 - mirroredX : mirroredX;
+            return sourceX + mirroredY * width;
+         }
+      };
+      return Collections.singletonList(kernel);
+   }
+
+   /**
+    * To allow processing old data, we do not check for the camera when no
+    * camera was selected.
+    */
+   private boolean isForCamera(Metadata metadata) {
+      if (camera_.isEmpty()) {
+         return true;
+      }
+      String imageCam = metadata.getCamera();
+      return imageCam != null && imageCam.equals(camera_);
+   }
+
    /**
     * Executes image transformation
     * First mirror the image if requested, than rotate as requested
@@ -84,29 +157,26 @@ public class FlipperProcessor implements Processor {
     * @param image      Image to be transformed.
     * @param isMirrored Whether or not to mirror the image.
     * @param rotation   Degrees to rotate by (R0, R90, R180, R270)
-    * @return - Transformed Image, otherwise a copy of the input
+    * @return - Transformed Image, a view that shares the pixels of the input
     */
    public static Image transformImage(Studio studio, Image image,
                                       boolean isMirrored, int rotation) {
-
-      ImageProcessor proc = studio.data().ij().createProcessor(image);
-
+      Image result = image;
       if (isMirrored) {
-         proc.flipHorizontal();
+         result = ImageViews.mirror(result);
       }
-      if (rotation == R90) {
-         proc = proc.rotateRight();
-      }
-      if (rotation == R180) {
-         proc = proc.rotateRight();
-         proc = proc.rotateRight();
-      }
-      if (rotation == R270) {
-         proc = proc.rotateLeft();
-      }
-      // Insert some metadata to indicate what we did to the image.
+      result = ImageViews.rotate(result, rotation);
+      Metadata newMetadata = transformMetadata(image.getMetadata(), isMirrored, rotation);
+      return result.copyWith(image.getCoords(), newMetadata);
+   }
+
+   /**
+    * Insert some metadata to indicate what we did to the image.
+    */
+   private static Metadata transformMetadata(Metadata metadata, boolean isMirrored,
+                                             int rotation) {
       PropertyMap.Builder builder;
-      PropertyMap userData = image.getMetadata().getUserData();
+      PropertyMap userData = metadata.getUserData();
       if (userData != null) {
          builder = userData.copyBuilder();
       } else {
@@ -114,10 +184,6 @@ public class FlipperProcessor implements Processor {
       }
       builder.putInteger("ImageFlipper-Rotation", rotation);
       builder.putString("ImageFlipper-Mirror", isMirrored ? "On" : "Off");
-      Metadata newMetadata =
-            image.getMetadata().copyBuilderPreservingUUID().userData(builder.build()).build();
-      Image result = studio.data().ij().createImage(proc, image.getCoords(),
-            newMetadata);
-      return result;
+      return metadata.copyBuilderPreservingUUID().userData(builder.build()).build();
    }
 }
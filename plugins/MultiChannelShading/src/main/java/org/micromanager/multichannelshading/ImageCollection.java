@@ -35,7 +35,9 @@ import org.micromanager.Studio;
  * images.  The images are stored as ImagePlusInfo objects.
  * Images should be provided as full frame, unbinned images.  When binned
  * images, and/or ROIs of (binned) images are requested, these are provided
- * on the fly, and a copy is cached for later use.
+ * on the fly, and a copy is cached for later use.  The pixel arrays used by
+ * the CPU {@link ShadingKernel} are computed at the same time, so that the
+ * first image with a new binning or ROI does not pay for the conversion.
  *
  * @author nico
  */
@@ -64,6 +66,7 @@ public class ImageCollection {
             throw new ShadingException("Failed to open file: " + file);
          }
          ImagePlusInfo bg = new ImagePlusInfo(ip);
+         bg.getPixelsAsFloat();
          background_.put(baseImage_, bg);
          background_.put(makeKey(1, bg.getOriginalRoi()), bg);
       }
@@ -91,6 +94,7 @@ public class ImageCollection {
       }
 
       ImagePlusInfo derivedBg = makeDerivedImage(bg, binning, roi);
+      derivedBg.getPixelsAsFloat();
       // put it in our cache
       background_.put(makeKey(binning, roi), derivedBg);
       return derivedBg;
@@ -170,6 +174,7 @@ public class ImageCollection {
          FloatProcessor fp = new FloatProcessor(width, height, fPixels);
 
          flatField = new ImagePlusInfo(fp);
+         flatField.getPixelsAsFloat();
 
          HashMap<String, ImagePlusInfo> newFlatField =
                new HashMap<String, ImagePlusInfo>();
@@ -214,6 +219,7 @@ public class ImageCollection {
          return null;
       }
       ImagePlusInfo derivedIp = makeDerivedImage(ff, binning, roi);
+      derivedIp.getPixelsAsFloat();
       // add derived image into our cache
       HashMap<String, ImagePlusInfo> tmp = flatFields_.get(preset);
       tmp.put(makeKey(binning, roi), derivedIp);
@@ -46,6 +46,7 @@ public class ImagePlusInfo extends ImagePlus {
    private final int binning_;
    private final Rectangle roi_;
    private final Map<ClearCLContext, ClearCLBuffer> clBuffers_;
+   private float[] floatPixels_;
 
 
    public ImagePlusInfo(ImagePlus ip, int binning, Rectangle roi) {
@@ -74,6 +75,42 @@ public class ImagePlusInfo extends ImagePlus {
       return roi_;
    }
 
+   /**
+    * Provides the pixel data as a float array, for use by the CPU
+    * {@link ShadingKernel}. The array is computed once and cached.
+    * The pixels of float images are returned as is, without rounding; the
+    * kernel truncates background values to integers when it subtracts them,
+    * as {@link ImageUtils#subtractPixelArrays(short[], float[])} does.
+    * 8- and 16-bit pixels are converted to their unsigned values. Other pixel
+    * types are not supported. Do not modify the returned array.
+    *
+    * @return pixel values, one float per pixel
+    */
+   public synchronized float[] getPixelsAsFloat() {
+      if (floatPixels_ == null) {
+         Object pixels = super.getProcessor().getPixels();
+         if (pixels instanceof float[]) {
+            floatPixels_ = (float[]) pixels;
+         } else if (pixels instanceof short[]) {
+            short[] shorts = (short[]) pixels;
+            floatPixels_ = new float[shorts.length];
+            for (int i = 0; i < shorts.length; ++i) {
+               floatPixels_[i] = ImageUtils.unsignedValue(shorts[i]);
+            }
+         } else if (pixels instanceof byte[]) {
+            byte[] bytes = (byte[]) pixels;
+            floatPixels_ = new float[bytes.length];
+            for (int i = 0; i < bytes.length; ++i) {
+               floatPixels_[i] = ImageUtils.unsignedValue(bytes[i]);
+            }
+         } else {
+            throw new UnsupportedOperationException(
+                  "Unsupported pixel type: " + pixels.getClass().getName());
+         }
+      }
+      return floatPixels_;
+   }
+
    /**
     * Provides access to pixeldata of this image on the GPU
     * GPU data are cached, i.e. if no copy on the GPU is available,
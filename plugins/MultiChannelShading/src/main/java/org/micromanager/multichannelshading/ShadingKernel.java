@@ -0,0 +1,164 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ShadingKernel.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     MultiChannelShading plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.multichannelshading;
+
+import org.micromanager.internal.utils.ParallelPixels;
+
+/**
+ * CPU implementation of background subtraction and flatfield correction.
+ *
+ * <p>Subtraction, multiplication with the (normalized) flatfield, clamping and
+ * conversion to the output type are done in a single pass over the pixel
+ * arrays. Large images are split into stripes that are processed in
+ * parallel. The results are identical to first subtracting the background
+ * with {@link ImageUtils#subtractPixelArrays} and then multiplying with the
+ * flatfield, as this plugin used to do.
+ *
+ * <p>Background and flatfield are given as float arrays of the same size as
+ * the image, as returned by {@link ImagePlusInfo#getPixelsAsFloat()}. Either
+ * may be null, in which case that step is skipped.
+ */
+final class ShadingKernel {
+   private ShadingKernel() {
+   }
+
+   /**
+    * Correct a 16-bit image.
+    *
+    * @param pixels     image pixels (unsigned)
+    * @param background background pixels, or null
+    * @param flatField  flatfield multipliers, or null
+    * @param parallel   whether to use multiple threads
+    * @return new array holding the corrected pixels
+    */
+   static short[] apply(final short[] pixels, final float[] background,
+                        final float[] flatField, boolean parallel) {
+      return apply(pixels, background, flatField, parallel, new short[pixels.length]);
+   }
+
+   /**
+    * Correct a 16-bit image into a given array.
+    *
+    * @param pixels     image pixels (unsigned)
+    * @param background background pixels, or null
+    * @param flatField  flatfield multipliers, or null
+    * @param parallel   whether to use multiple threads
+    * @param result     array of at most the length of pixels, receives the
+    *                   corrected pixels
+    * @return result
+    */
+   static short[] apply(final short[] pixels, final float[] background,
+                        final float[] flatField, boolean parallel, final short[] result) {
+      forEachStripe(result.length, parallel, (start, end) -> {
+         for (int i = start; i < end; ++i) {
+            result[i] = (short) correct16(pixels[i] & 0x0000ffff, background, flatField, i);
+         }
+      });
+      return result;
+   }
+
+   /**
+    * Correct a single 16-bit pixel.
+    *
+    * @param value      unsigned pixel value
+    * @param background background pixels, or null
+    * @param flatField  flatfield multipliers, or null
+    * @param i          index of the pixel
+    * @return corrected value
+    */
+   static int correct16(int value, float[] background, float[] flatField, int i) {
+      if (background != null) {
+         value = Math.max(0, value - (int) background[i]);
+      }
+      if (flatField != null) {
+         float newValue = value * flatField[i] + 0.5f;
+         if (newValue > 2 * Short.MAX_VALUE) {
+            newValue = 2 * Short.MAX_VALUE;
+         }
+         return (int) newValue;
+      }
+      return value;
+   }
+
+   /**
+    * Correct an 8-bit image.
+    *
+    * @param pixels     image pixels (unsigned)
+    * @param background background pixels, or null
+    * @param flatField  flatfield multipliers, or null
+    * @param parallel   whether to use multiple threads
+    * @return new array holding the corrected pixels
+    */
+   static byte[] apply(final byte[] pixels, final float[] background,
+                       final float[] flatField, boolean parallel) {
+      return apply(pixels, background, flatField, parallel, new byte[pixels.length]);
+   }
+
+   /**
+    * Correct a 8-bit image into a given array.
+    *
+    * @param pixels     image pixels (unsigned)
+    * @param background background pixels, or null
+    * @param flatField  flatfield multipliers, or null
+    * @param parallel   whether to use multiple threads
+    * @param result     array of at most the length of pixels, receives the
+    *                   corrected pixels
+    * @return result
+    */
+   static byte[] apply(final byte[] pixels, final float[] background,
+                       final float[] flatField, boolean parallel, final byte[] result) {
+      forEachStripe(result.length, parallel, (start, end) -> {
+         for (int i = start; i < end; ++i) {
+            result[i] = (byte) correct8(pixels[i] & 0x000000ff, background, flatField, i);
+         }
+      });
+      return result;
+   }
+
+   /**
+    * Correct a single 8-bit pixel.
+    *
+    * @param value      unsigned pixel value
+    * @param background background pixels, or null
+    * @param flatField  flatfield multipliers, or null
+    * @param i          index of the pixel
+    * @return corrected value
+    */
+   static int correct8(int value, float[] background, float[] flatField, int i) {
+      if (background != null) {
+         value = Math.max(0, value - (int) background[i]);
+      }
+      if (flatField != null) {
+         float newValue = value * flatField[i];
+         if (newValue > 2 * Byte.MAX_VALUE) {
+            newValue = 2 * Byte.MAX_VALUE;
+         }
+         return (int) newValue;
+      }
+      return value;
+   }
+
+   private static void forEachStripe(int length, boolean parallel,
+                                     ParallelPixels.Stripe stripe) {
+      if (parallel) {
+         ParallelPixels.forEachStripe(length, stripe);
+      } else {
+         stripe.run(0, length);
+      }
+   }
+}
@@ -33,17 +33,20 @@ import clearcl.backend.ClearCLBackends;
 import clearcl.enums.BuildStatus;
 import clearcl.exceptions.OpenCLException;
 import coremem.enums.NativeTypeEnum;
-import ij.process.ImageProcessor;
 import java.awt.Rectangle;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import org.micromanager.PropertyMap;
 import org.micromanager.Studio;
+import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
-import org.micromanager.data.Processor;
+import org.micromanager.data.PixelBufferPool;
+import org.micromanager.data.PixelKernel;
+import org.micromanager.data.PixelKernelProcessor;
 import org.micromanager.data.ProcessorContext;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.data.internal.DefaultImage;
@@ -53,7 +56,7 @@ import org.micromanager.data.internal.DefaultImage;
  *
  * @author nico, modified for MM2.0 by Chris Weisiger
  */
-public class ShadingProcessor implements Processor {
+public class ShadingProcessor implements PixelKernelProcessor {
 
    private final Studio studio_;
    private final String channelGroup_;
@@ -209,39 +212,11 @@ public class ShadingProcessor implements Processor {
       Metadata metadata = image.getMetadata();
       final Image result;
 
-      // subtract background
-      Integer binning = metadata.getBinning();
-      if (binning == null) {
-         if (!alertSet_.contains(NoBinningInfoClass.class)) {
-            String msg = "MultiShadingPlugin: Image metadata did not contain Binning information.";
-            studio_.alerts().postAlert(MultiChannelShading.MENUNAME, NoBinningInfoClass.class, msg);
-            alertSet_.add(NoBinningInfoClass.class);
-         }
-         // Assume binning is 1
-         binning = 1;
-      }
-      Rectangle rect = metadata.getROI();
-      if (rect == null) {
-         if (!alertSet_.contains(NoRoiClass.class)) {
-            String msg = "MultiShadingPlugin: Image metadata did not list ROI.";
-            studio_.alerts().postAlert(MultiChannelShading.MENUNAME, NoRoiClass.class, msg);
-            alertSet_.add(NoRoiClass.class);
-         }
-      }
-      ImagePlusInfo background = null;
-      try {
-         background = imageCollection_.getBackground(binning, rect);
-      } catch (ShadingException e) {
-         if (!alertSet_.contains(NoBackgroundForThisBinModeClass.class)) {
-            String msg = "Error getting background for bin mode " + binning + " and rect " + rect;
-            studio_.alerts().postAlert(MultiChannelShading.MENUNAME,
-                  NoBackgroundForThisBinModeClass.class, msg);
-            alertSet_.add(NoBackgroundForThisBinModeClass.class);
-         }
-      }
-
+      final int binning = getBinning(metadata);
+      final Rectangle rect = getRoi(metadata);
+      ImagePlusInfo background = getBackground(binning, rect);
       ImagePlusInfo flatFieldImage = getMatchingFlatFieldImage(
-            image, binning, rect);
+            image.getCoords(), binning, rect);
 
       if (useOpenCL_) {
          try {
@@ -308,26 +283,164 @@ public class ShadingProcessor implements Processor {
          }
       }
 
-      PropertyMap userData = metadata.getUserData();
+      Correction correction = prepareCorrection(background, flatFieldImage, metadata,
+            width * height);
+      if (correction == null) {
+         context.outputImage(image);
+         return;
+      }
 
-      if (background != null) {
-         ImageProcessor ip = studio_.data().ij().createProcessor(image);
-         ImageProcessor ipBackground = background.getProcessor();
-         try {
-            ip = ImageUtils.subtractImageProcessors(ip, ipBackground);
-            if (userData != null) {
-               userData = userData.copyBuilder().putBoolean("Background-corrected", true).build();
+      // Background subtraction and flatfield correction are done in one pass
+      // by the ShadingKernel, into an array from the pool (which createImage
+      // does not copy)
+      PixelBufferPool pool = studio_.data().getPixelBufferPool();
+      if (image.getBytesPerPixel() == 1) {
+         byte[] newPixels = ShadingKernel.apply((byte[]) image.getRawPixels(),
+               correction.background_, correction.flatField_, true,
+               (byte[]) pool.lease(width, height, 1, 1));
+         result = studio_.data().createImage(newPixels, width, height,
+               1, 1, image.getCoords(), correction.metadata_);
+      } else {
+         short[] newPixels = ShadingKernel.apply((short[]) image.getRawPixels(),
+               correction.background_, correction.flatField_, true,
+               (short[]) pool.lease(width, height, 2, 1));
+         result = studio_.data().createImage(newPixels, width, height,
+               2, 1, image.getCoords(), correction.metadata_);
+      }
+      context.outputImage(result);
+   }
+
+   /**
+    * Describes the CPU correction as a pointwise kernel, so that it can be
+    * combined with the neighboring processors in the pipeline. The OpenCL
+    * path corrects images in place and is not fused.
+    */
+   @Override
+   public List<PixelKernel> createPixelKernels(final Coords coords, Metadata metadata,
+         final int width, final int height, final int bytesPerPixel) {
+      if (!match_ || useOpenCL_) {
+         return null;
+      }
+      final int binning = getBinning(metadata);
+      final Rectangle rect = getRoi(metadata);
+      final Correction correction = prepareCorrection(getBackground(binning, rect),
+            getMatchingFlatFieldImage(coords, binning, rect), metadata, width * height);
+      if (correction == null) {
+         return null;
+      }
+      PixelKernel kernel = new PixelKernel() {
+         @Override
+         public int getWidth() {
+            return width;
+         }
+
+         @Override
+         public int getHeight() {
+            return height;
+         }
+
+         @Override
+         public Coords getCoords() {
+            return coords;
+         }
+
+         @Override
+         public Metadata getMetadata() {
+            return correction.metadata_;
+         }
+
+         @Override
+         public int apply(int value, int index) {
+            if (bytesPerPixel == 1) {
+               return ShadingKernel.correct8(value, correction.background_,
+                     correction.flatField_, index);
             }
-         } catch (ShadingException e) {
+            return ShadingKernel.correct16(value, correction.background_,
+                  correction.flatField_, index);
+         }
+      };
+      return Collections.singletonList(kernel);
+   }
+
+   private int getBinning(Metadata metadata) {
+      Integer binning = metadata.getBinning();
+      if (binning == null) {
+         if (!alertSet_.contains(NoBinningInfoClass.class)) {
+            String msg = "MultiShadingPlugin: Image metadata did not contain Binning information.";
+            studio_.alerts().postAlert(MultiChannelShading.MENUNAME, NoBinningInfoClass.class, msg);
+            alertSet_.add(NoBinningInfoClass.class);
+         }
+         // Assume binning is 1
+         binning = 1;
+      }
+      return binning;
+   }
+
+   private Rectangle getRoi(Metadata metadata) {
+      Rectangle rect = metadata.getROI();
+      if (rect == null) {
+         if (!alertSet_.contains(NoRoiClass.class)) {
+            String msg = "MultiShadingPlugin: Image metadata did not list ROI.";
+            studio_.alerts().postAlert(MultiChannelShading.MENUNAME, NoRoiClass.class, msg);
+            alertSet_.add(NoRoiClass.class);
+         }
+      }
+      return rect;
+   }
+
+   private ImagePlusInfo getBackground(int binning, Rectangle rect) {
+      try {
+         return imageCollection_.getBackground(binning, rect);
+      } catch (ShadingException e) {
+         if (!alertSet_.contains(NoBackgroundForThisBinModeClass.class)) {
+            String msg = "Error getting background for bin mode " + binning + " and rect " + rect;
+            studio_.alerts().postAlert(MultiChannelShading.MENUNAME,
+                  NoBackgroundForThisBinModeClass.class, msg);
+            alertSet_.add(NoBackgroundForThisBinModeClass.class);
+         }
+      }
+      return null;
+   }
+
+   /**
+    * Background and flatfield pixels to apply on the CPU, and the metadata of
+    * the corrected image.
+    */
+   private static final class Correction {
+      private final float[] background_;
+      private final float[] flatField_;
+      private final Metadata metadata_;
+
+      private Correction(float[] background, float[] flatField, Metadata metadata) {
+         background_ = background;
+         flatField_ = flatField;
+         metadata_ = metadata;
+      }
+   }
+
+   /**
+    * Check the background and flatfield against the image size.
+    *
+    * @return the correction to apply, or null if the image should be passed
+    *         along unmodified
+    */
+   private Correction prepareCorrection(ImagePlusInfo background,
+         ImagePlusInfo flatFieldImage, Metadata metadata, int nrPixels) {
+      PropertyMap userData = metadata.getUserData();
+      float[] backgroundPixels = null;
+      if (background != null) {
+         backgroundPixels = background.getPixelsAsFloat();
+         if (backgroundPixels.length != nrPixels) {
+            backgroundPixels = null;
             if (!alertSet_.contains(ErrorSubtractingClass.class)) {
-               String msg = "Unable to subtract background: " + e.getMessage();
+               String msg = "Unable to subtract background: Error: Images are of unequal size";
                studio_.alerts().postAlert(MultiChannelShading.MENUNAME,
                      ErrorSubtractingClass.class, msg);
                alertSet_.add(ErrorSubtractingClass.class);
             }
+         } else if (userData != null) {
+            userData = userData.copyBuilder().putBoolean("Background-corrected", true).build();
          }
-         image = studio_.data().ij().createImage(ip, image.getCoords(),
-               metadata.copyBuilderWithNewUUID().userData(userData).build());
       } else {
          if (!alertSet_.contains(NoBackgroundForThisBinModeClass.class)) {
             String msg = "No background available...";
@@ -337,62 +450,31 @@ public class ShadingProcessor implements Processor {
          }
       }
 
-
+      float[] flatFieldPixels = null;
+      if (flatFieldImage != null) {
+         flatFieldPixels = flatFieldImage.getPixelsAsFloat();
+         if (flatFieldPixels.length != nrPixels) {
+            flatFieldPixels = null;
+         } else if (userData != null) {
+            userData = userData.copyBuilder().putBoolean("Flatfield-corrected", true).build();
+         }
+      }
       // do not calculate flat field if we don't have a matching channel;
       // just return the background-subtracted image (which is the unmodified
       // image if we also don't have a background subtraction file).
-      if (flatFieldImage == null) {
+      if (flatFieldPixels == null) {
          if (!alertSet_.contains(NotFlatFieldedClass.class)) {
             String msg = "No flatfield found...";
             studio_.alerts().postAlert(MultiChannelShading.MENUNAME,
                     NotFlatFieldedClass.class, msg);
             alertSet_.add(NotFlatFieldedClass.class);
          }
-         context.outputImage(image);
-         return;
-      }
-
-      if (userData != null) {
-         userData = userData.copyBuilder().putBoolean("Flatfield-corrected", true).build();
-         metadata = metadata.copyBuilderWithNewUUID().userData(userData).build();
-      }
-
-
-      if (image.getBytesPerPixel() == 1) {
-         byte[] newPixels = new byte[width * height];
-         byte[] oldPixels = (byte[]) image.getRawPixels();
-         int length = oldPixels.length;
-         float[] flatFieldPixels = (float[]) flatFieldImage.getProcessor().getPixels();
-         for (int index = 0; index < length; index++) {
-            float oldPixel = (float) ((int) (oldPixels[index]) & 0x000000ff);
-            float newValue = oldPixel * flatFieldPixels[index];
-            if (newValue > 2 * Byte.MAX_VALUE) {
-               newValue = 2 * Byte.MAX_VALUE;
-            }
-            newPixels[index] = (byte) (newValue);
-         }
-         result = studio_.data().createImage(newPixels, width, height,
-               1, 1, image.getCoords(), metadata);
-         context.outputImage(result);
-      } else if (image.getBytesPerPixel() == 2) {
-         short[] newPixels = new short[width * height];
-         short[] oldPixels = (short[]) image.getRawPixels();
-         int length = oldPixels.length;
-         for (int index = 0; index < length; index++) {
-            // shorts are signed in java so have to do this conversion to get 
-            // the right value
-            float oldPixel = (float) ((int) (oldPixels[index]) & 0x0000ffff);
-            float newValue = (oldPixel
-                  * flatFieldImage.getProcessor().getf(index)) + 0.5f;
-            if (newValue > 2 * Short.MAX_VALUE) {
-               newValue = 2 * Short.MAX_VALUE;
-            }
-            newPixels[index] = (short) (((int) newValue) & 0x0000ffff);
+         if (backgroundPixels == null) {
+            return null;
          }
-         result = studio_.data().createImage(newPixels, width, height,
-               2, 1, image.getCoords(), metadata);
-         context.outputImage(result);
       }
+      return new Correction(backgroundPixels, flatFieldPixels,
+            metadata.copyBuilderWithNewUUID().userData(userData).build());
    }
 
 
@@ -400,10 +482,10 @@ public class ShadingProcessor implements Processor {
     * Given the metadata of the image currently being processed, find a match
     * in channelgroup and channelname in our tablemodel.
     *
-    * @param image image being processed
+    * @param coords coords of the image being processed
     * @return matching flat field image
     */
-   ImagePlusInfo getMatchingFlatFieldImage(Image image, int binning,
+   ImagePlusInfo getMatchingFlatFieldImage(Coords coords, int binning,
                                            Rectangle rect) {
       //PropertyMap scopeData = metadata.getScopeData();
       for (String preset : presets_) {
@@ -412,7 +494,7 @@ public class ShadingProcessor implements Processor {
          if (isAcqRunning_) {
             String imageChannelGroup = summaryMetadata_.getChannelGroup();
             String imagePreset =
-                  summaryMetadata_.getSafeChannelName(image.getCoords().getChannel());
+                  summaryMetadata_.getSafeChannelName(coords.getChannel());
             if (channelGroup_.equals(imageChannelGroup) && preset.equals(imagePreset)) {
                try {
                   return imageCollection_.getFlatField(preset, binning, rect);
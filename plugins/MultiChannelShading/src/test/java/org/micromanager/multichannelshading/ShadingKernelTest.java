@@ -0,0 +1,137 @@
+package org.micromanager.multichannelshading;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeTrue;
+
+import ij.process.FloatProcessor;
+import java.util.Random;
+import org.junit.Test;
+
+public class ShadingKernelTest {
+   private static final int WIDTH = 2048;
+   private static final int HEIGHT = 2048;
+   // Set this system property to run testBenchmark
+   private static final String BENCHMARK_PROPERTY = "shading.benchmark";
+
+   // The per-pixel path that ShadingProcessor used before ShadingKernel
+   private static short[] reference(short[] pixels, short[] background,
+                                    FloatProcessor flatField) {
+      short[] subtracted = ImageUtils.subtractPixelArrays(pixels, background);
+      short[] result = new short[subtracted.length];
+      for (int index = 0; index < subtracted.length; index++) {
+         float oldPixel = (float) ((int) (subtracted[index]) & 0x0000ffff);
+         float newValue = (oldPixel * flatField.getf(index)) + 0.5f;
+         if (newValue > 2 * Short.MAX_VALUE) {
+            newValue = 2 * Short.MAX_VALUE;
+         }
+         result[index] = (short) (((int) newValue) & 0x0000ffff);
+      }
+      return result;
+   }
+
+   private static short[] randomShorts(Random random, int n, int max) {
+      short[] ret = new short[n];
+      for (int i = 0; i < n; ++i) {
+         ret[i] = (short) random.nextInt(max);
+      }
+      return ret;
+   }
+
+   private static float[] randomGains(Random random, int n) {
+      float[] ret = new float[n];
+      for (int i = 0; i < n; ++i) {
+         ret[i] = 0.5f + 1.5f * random.nextFloat();
+      }
+      return ret;
+   }
+
+   private static float[] toFloat(short[] pixels) {
+      return new ImagePlusInfo(new ij.process.ShortProcessor(WIDTH, HEIGHT,
+            pixels, null)).getPixelsAsFloat();
+   }
+
+   @Test
+   public void testShortMatchesPerPixelPath() {
+      Random random = new Random(42);
+      int n = WIDTH * HEIGHT;
+      short[] pixels = randomShorts(random, n, 65536);
+      short[] background = randomShorts(random, n, 2000);
+      float[] gains = randomGains(random, n);
+      FloatProcessor flatField = new FloatProcessor(WIDTH, HEIGHT, gains);
+
+      short[] expected = reference(pixels, background, flatField);
+      float[] bg = toFloat(background);
+      assertArrayEquals(expected, ShadingKernel.apply(pixels, bg, gains, false));
+      assertArrayEquals(expected, ShadingKernel.apply(pixels, bg, gains, true));
+      assertArrayEquals(ImageUtils.subtractPixelArrays(pixels, background),
+            ShadingKernel.apply(pixels, bg, null, true));
+   }
+
+   @Test
+   public void testByteMatchesPerPixelPath() {
+      Random random = new Random(7);
+      int n = 512 * 512;
+      byte[] pixels = new byte[n];
+      byte[] background = new byte[n];
+      random.nextBytes(pixels);
+      random.nextBytes(background);
+      float[] gains = randomGains(random, n);
+
+      byte[] subtracted = ImageUtils.subtractPixelArrays(pixels, background);
+      byte[] expected = new byte[n];
+      for (int i = 0; i < n; ++i) {
+         float newValue = (subtracted[i] & 0xff) * gains[i];
+         if (newValue > 2 * Byte.MAX_VALUE) {
+            newValue = 2 * Byte.MAX_VALUE;
+         }
+         expected[i] = (byte) newValue;
+      }
+      float[] bg = new ImagePlusInfo(new ij.process.ByteProcessor(512, 512,
+            background)).getPixelsAsFloat();
+      assertArrayEquals(expected, ShadingKernel.apply(pixels, bg, gains, true));
+   }
+
+   /**
+    * Not a correctness test: reports the time per 2k x 2k 16-bit frame of
+    * the old per-pixel path and of the fused kernel. Skipped unless the
+    * shading.benchmark system property is set.
+    */
+   @Test
+   public void testBenchmark() {
+      assumeTrue(Boolean.getBoolean(BENCHMARK_PROPERTY));
+      Random random = new Random(1);
+      int n = WIDTH * HEIGHT;
+      short[] pixels = randomShorts(random, n, 65536);
+      short[] background = randomShorts(random, n, 2000);
+      float[] gains = randomGains(random, n);
+      FloatProcessor flatField = new FloatProcessor(WIDTH, HEIGHT, gains);
+      float[] bg = toFloat(background);
+
+      final int iterations = 10;
+      double referenceMs = 0;
+      double singleMs = 0;
+      double parallelMs = 0;
+      // First round is warm-up
+      for (int round = 0; round < 2; ++round) {
+         long start = System.nanoTime();
+         for (int i = 0; i < iterations; ++i) {
+            reference(pixels, background, flatField);
+         }
+         referenceMs = (System.nanoTime() - start) / 1e6 / iterations;
+         start = System.nanoTime();
+         for (int i = 0; i < iterations; ++i) {
+            ShadingKernel.apply(pixels, bg, gains, false);
+         }
+         singleMs = (System.nanoTime() - start) / 1e6 / iterations;
+         start = System.nanoTime();
+         for (int i = 0; i < iterations; ++i) {
+            ShadingKernel.apply(pixels, bg, gains, true);
+         }
+         parallelMs = (System.nanoTime() - start) / 1e6 / iterations;
+      }
+      System.out.println(String.format("Shading, 2048x2048 16-bit: per-pixel path "
+                  + "%.2f ms, fused %.2f ms, fused parallel (%d cores) %.2f ms",
+            referenceMs, singleMs, Runtime.getRuntime().availableProcessors(),
+            parallelMs));
+   }
+}
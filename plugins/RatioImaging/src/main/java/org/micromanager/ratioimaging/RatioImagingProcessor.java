@@ -24,19 +24,19 @@
 package org.micromanager.ratioimaging;
 
 import ij.ImagePlus;
-import ij.process.Blitter;
 import ij.process.ByteProcessor;
-import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import ij.process.ShortProcessor;
 import java.awt.Rectangle;
 import java.text.ParseException;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.micromanager.PropertyMap;
 import org.micromanager.Studio;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
+import org.micromanager.data.PixelBufferPool;
 import org.micromanager.data.Processor;
 import org.micromanager.data.ProcessorContext;
 import org.micromanager.data.SummaryMetadata;
@@ -63,7 +63,13 @@ public class RatioImagingProcessor implements Processor {
    private final String bc2Path_;
    private ImagePlus bc1_;
    private ImagePlus bc2_;
-   private final List<Image> images_;
+   // Built for images of kernelWidth_ x kernelHeight_, since the
+   // backgrounds are per pixel
+   private RatioKernel kernel_;
+   private int kernelWidth_;
+   private int kernelHeight_;
+   // Images waiting for the other channel, by coords without channel
+   private final Map<Coords, Image> images_;
    private boolean process_;
    private int ch1Index_;
    private int ch2Index_;
@@ -78,7 +84,7 @@ public class RatioImagingProcessor implements Processor {
    public RatioImagingProcessor(Studio studio, PropertyMap settings) {
       studio_ = studio;
       settings_ = settings;
-      images_ = new ArrayList<Image>();
+      images_ = new HashMap<>();
       int factor = 1;
       int bc1Constant = 0;
       int bc2Constant = 0;
@@ -251,97 +257,89 @@ public class RatioImagingProcessor implements Processor {
          return;
       }
 
-      for (Image oldImage : images_) {
+      Coords key = newCoords.copyRemovingAxes(Coords.C);
+      Image oldImage = images_.get(key);
+      if (oldImage != null) {
          Coords oldCoords = oldImage.getCoords();
-         if (newCoords.copyRemovingAxes(Coords.C).equals(oldCoords.copyRemovingAxes(Coords.C))) {
-            if (newCoords.getC() == ch1Index_ && oldCoords.getC() == ch2Index_) {
-               process(newImage, oldImage, context);
-               images_.remove(oldImage);
-               return;
-            }
-         
-            if (oldCoords.getC() == ch1Index_ && newCoords.getC() == ch2Index_) {
-               process(oldImage, newImage, context);
-               images_.remove(oldImage);
-               return;
-            }
+         if (newCoords.getC() == ch1Index_ && oldCoords.getC() == ch2Index_) {
+            images_.remove(key);
+            process(newImage, oldImage, context);
+            return;
+         }
+         if (oldCoords.getC() == ch1Index_ && newCoords.getC() == ch2Index_) {
+            images_.remove(key);
+            process(oldImage, newImage, context);
+            return;
          }
       }
-      
-      // if we are still here, there was no match, so add this image to our list
-      images_.add(newImage);
+
+      // if we are still here, there was no match, so keep this image until
+      // the other channel arrives
+      images_.put(key, newImage);
 
    }
-      
+
    private void process(Image ch1Image, Image ch2Image, ProcessorContext context) {
-      
+
       final Coords ratioCoords = ch1Image.getCoords().copyBuilder().c(ratioIndex_).build();
-      
-      ImageProcessor ch1Proc = studio_.data().ij().createProcessor(ch1Image);
-      ImageProcessor ch2Proc = studio_.data().ij().createProcessor(ch2Image);
-      if (bc1_ != null) {
-         ch1Proc = subtractImageProcessors(ch1Proc, bc1_.getProcessor());
-      }
-      if (bc2_ != null) {
-         ch2Proc = subtractImageProcessors(ch2Proc, bc2_.getProcessor());
+      int width = ch1Image.getWidth();
+      int height = ch1Image.getHeight();
+      if (kernel_ == null || width != kernelWidth_ || height != kernelHeight_) {
+         // First image, or the ROI or binning changed
+         kernel_ = new RatioKernel(getBackgroundValues(bc1_, width, height),
+               getBackgroundValues(bc2_, width, height), bc1Constant_, bc2Constant_,
+               factor_);
+         kernelWidth_ = width;
+         kernelHeight_ = height;
       }
-      ch1Proc = ch1Proc.convertToFloat();
-      ch2Proc = ch2Proc.convertToFloat();
-      ch1Proc.subtract(bc1Constant_);
-      ch2Proc.subtract(bc2Constant_);
-      ImageProcessor ch3Proc = ch1Proc.createProcessor(ch1Proc.getWidth(), 
-              ch1Proc.getHeight());
-      ch3Proc.insert(ch1Proc, 0, 0);
-      ch3Proc.copyBits(ch2Proc, 0, 0, Blitter.DIVIDE);
-      ch3Proc.multiply(factor_);
-      
-      if (ch1Image.getBytesPerPixel() == 1) {
-         // check this actually works....
-         ch3Proc = ch3Proc.convertToByteProcessor();
-      } else if (ch1Image.getBytesPerPixel() == 2) {
-         // ImageJ method seems to be broken. Copied code from ImageJ1 here
-         ch3Proc = convertFloatToShort((FloatProcessor) ch3Proc);
+
+      // Background subtraction, ratio and conversion are done in one pass by
+      // the RatioKernel, into an array from the pool
+      PixelBufferPool pool = studio_.data().getPixelBufferPool();
+      int bytesPerPixel = ch1Image.getBytesPerPixel();
+      Object pixels = pool.lease(width, height, bytesPerPixel, 1);
+      int max;
+      if (bytesPerPixel == 1) {
+         max = kernel_.apply((byte[]) ch1Image.getRawPixels(),
+               (byte[]) ch2Image.getRawPixels(), (byte[]) pixels);
+      } else {
+         max = kernel_.apply((short[]) ch1Image.getRawPixels(),
+               (short[]) ch2Image.getRawPixels(), (short[]) pixels);
       }
-      int max = (int) ch3Proc.getMax();
       int bitDepth = 1;
-      while ((1 << bitDepth) < max && bitDepth <= ch1Image.getBytesPerPixel() * 8) {
+      while ((1 << bitDepth) < max && bitDepth <= bytesPerPixel * 8) {
          bitDepth += 1;
       }
-      
-      Image ratioImage = studio_.data().ij().createImage(ch3Proc, ratioCoords, 
+
+      Image ratioImage = studio_.data().createImage(pixels, width, height,
+              bytesPerPixel, 1, ratioCoords,
               ch1Image.getMetadata().copyBuilderWithNewUUID().bitDepth(bitDepth)
                           .build());
-      
+
       context.outputImage(ratioImage);
    }
-   
+
    /**
-    * Copied from https://github.com/imagej/imagej1/blob/master/ij/process/TypeConverter.java.
-    *
-    * <p>The call to chrProc.convertToShortProcess results in pixel values of -1
-    * Not sure why (but in included ImageJ version?) 
-    * Copying the relevant code from the ImageJ1 source fixes it
-    *
-    * @param ip FloatProcessor to be converted
-    * @return Shortprocessor
+    * @return unsigned pixel values of the background image, or null if there
+    *         is no background image or it does not match the image size
     */
-   ShortProcessor convertFloatToShort(FloatProcessor ip) {
-      float[] pixels32 = (float[]) ip.getPixels();
-      short[] pixels16 = new short[ip.getWidth() * ip.getHeight()];
-      double value;
-      for (int i = 0, j = 0; i < (ip.getWidth() * ip.getHeight()); i++) {
-         value = pixels32[i];
-         if (value < 0.0) {
-            value = 0.0;
-         }
-         if (value > 65535.0) {
-            value = 65535.0;
-         }
-         pixels16[i] = (short) (value + 0.5);
+   private int[] getBackgroundValues(ImagePlus background, int width, int height) {
+      if (background == null) {
+         return null;
+      }
+      ImageProcessor proc = background.getProcessor();
+      if (proc.getWidth() != width || proc.getHeight() != height) {
+         studio_.logs().logError("Ratio imaging: background image "
+               + background.getTitle() + " does not match the image size; ignoring it");
+         return null;
       }
-      return new ShortProcessor(ip.getWidth(), ip.getHeight(), pixels16, ip.getColorModel());
+      int[] values = new int[width * height];
+      for (int i = 0; i < values.length; ++i) {
+         values[i] = proc.get(i);
+      }
+      return values;
    }
-   
+
    private static ByteProcessor subtractByteProcessors(ByteProcessor proc1, ByteProcessor proc2) {
       return new ByteProcessor(proc1.getWidth(), proc1.getHeight(),
               subtractPixelArrays((byte []) proc1.getPixels(), (byte []) proc2.getPixels()),
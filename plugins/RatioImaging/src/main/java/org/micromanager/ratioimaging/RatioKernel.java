@@ -0,0 +1,177 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          RatioKernel.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     RatioImaging plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.ratioimaging;
+
+import ij.process.FloatBlitter;
+import org.micromanager.internal.utils.ParallelPixels;
+
+/**
+ * CPU implementation of the ratio of two channels.
+ *
+ * <p>For every pixel, the background images are subtracted (clamping at
+ * zero), then the background constants, after which the first channel is
+ * divided by the second and multiplied by the factor. The ratio is computed
+ * in float and written to the output array in the same pass. Large images
+ * are split into stripes that are processed in parallel.
+ *
+ * <p>The results are identical to those of the ImageJ operations this plugin
+ * used to do: ImageJ's float arithmetic, its divide-by-zero value
+ * ({@link FloatBlitter#divideByZeroValue}), and its conversion to 8 or 16
+ * bits. Like before, 8-bit ratios are scaled to the range of the first
+ * channel after background subtraction.
+ */
+final class RatioKernel {
+   private final int[] background1_;
+   private final int[] background2_;
+   private final float constant1_;
+   private final float constant2_;
+   private final float factor_;
+   private final float divideByZeroValue_;
+
+   /**
+    * @param background1 background of the first channel (unsigned values),
+    *                    or null
+    * @param background2 background of the second channel, or null
+    * @param constant1   constant subtracted from the first channel
+    * @param constant2   constant subtracted from the second channel
+    * @param factor      factor applied to the ratio
+    */
+   RatioKernel(int[] background1, int[] background2, int constant1, int constant2,
+               int factor) {
+      background1_ = background1;
+      background2_ = background2;
+      constant1_ = (float) constant1;
+      constant2_ = (float) constant2;
+      factor_ = (float) factor;
+      divideByZeroValue_ = FloatBlitter.divideByZeroValue;
+   }
+
+   /**
+    * @param value1 unsigned value of the first channel
+    * @param i      index of the pixel
+    * @return first channel, with backgrounds subtracted
+    */
+   private float numerator(int value1, int i) {
+      if (background1_ != null) {
+         value1 = Math.max(0, value1 - background1_[i]);
+      }
+      return value1 - constant1_;
+   }
+
+   /**
+    * Compute the ratio of one pixel.
+    *
+    * @param value1 unsigned value of the first channel
+    * @param value2 unsigned value of the second channel
+    * @param i      index of the pixel
+    * @return ratio, multiplied by the factor
+    */
+   float ratio(int value1, int value2, int i) {
+      if (background2_ != null) {
+         value2 = Math.max(0, value2 - background2_[i]);
+      }
+      float denominator = value2 - constant2_;
+      float ratio;
+      if (denominator == 0f && !Float.isInfinite(divideByZeroValue_)) {
+         ratio = divideByZeroValue_;
+      } else {
+         ratio = numerator(value1, i) / denominator;
+      }
+      return ratio * factor_;
+   }
+
+   /**
+    * Ratio of two 16-bit images, rounded and clamped to 0 - 65535.
+    *
+    * @param ch1    pixels of the first channel
+    * @param ch2    pixels of the second channel
+    * @param result receives the ratio
+    * @return the highest value in the result
+    */
+   int apply(final short[] ch1, final short[] ch2, final short[] result) {
+      return ParallelPixels.maxOverStripes(result.length, (start, end) -> {
+         int max = 0;
+         for (int i = start; i < end; ++i) {
+            double value = ratio(ch1[i] & 0xffff, ch2[i] & 0xffff, i);
+            if (value < 0.0) {
+               value = 0.0;
+            }
+            if (value > 65535.0) {
+               value = 65535.0;
+            }
+            int v = (short) (value + 0.5) & 0xffff;
+            result[i] = (short) v;
+            max = Math.max(max, v);
+         }
+         return max;
+      });
+   }
+
+   /**
+    * Ratio of two 8-bit images, scaled to 0 - 255 using the range of the
+    * first channel (after background subtraction).
+    *
+    * @param ch1    pixels of the first channel
+    * @param ch2    pixels of the second channel
+    * @param result receives the ratio
+    * @return the highest value in the result
+    */
+   int apply(final byte[] ch1, final byte[] ch2, final byte[] result) {
+      final float[] minMax = numeratorRange(ch1, result.length);
+      final double min = minMax[0];
+      final double scale = 255.0 / (minMax[1] - min);
+      return ParallelPixels.maxOverStripes(result.length, (start, end) -> {
+         int max = 0;
+         for (int i = start; i < end; ++i) {
+            double value = ratio(ch1[i] & 0xff, ch2[i] & 0xff, i) - min;
+            if (value < 0.0) {
+               value = 0.0;
+            }
+            int v = (int) (value * scale + 0.5);
+            if (v > 255) {
+               v = 255;
+            }
+            result[i] = (byte) v;
+            max = Math.max(max, v);
+         }
+         return max;
+      });
+   }
+
+   /**
+    * @return lowest and highest value of the first channel, after
+    *         subtraction of the backgrounds
+    */
+   private float[] numeratorRange(final byte[] ch1, int length) {
+      final float[] range = {Float.MAX_VALUE, -Float.MAX_VALUE};
+      ParallelPixels.forEachStripe(length, (start, end) -> {
+         float min = Float.MAX_VALUE;
+         float max = -Float.MAX_VALUE;
+         for (int i = start; i < end; ++i) {
+            float value = numerator(ch1[i] & 0xff, i);
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+         }
+         synchronized (range) {
+            range[0] = Math.min(range[0], min);
+            range[1] = Math.max(range[1], max);
+         }
+      });
+      return range;
+   }
+}
@@ -0,0 +1,150 @@
+package org.micromanager.ratioimaging;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ij.process.Blitter;
+import ij.process.ByteProcessor;
+import ij.process.FloatBlitter;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.util.Random;
+import org.junit.Test;
+
+public class RatioKernelTest {
+   private static final int CONSTANT1 = 20;
+   private static final int CONSTANT2 = 10;
+   private static final int FACTOR = 100;
+
+   /**
+    * The ImageJ operations RatioImagingProcessor did before RatioKernel.
+    */
+   private static ImageProcessor reference(ImageProcessor ch1Proc, ImageProcessor ch2Proc,
+                                           ImageProcessor bc1, ImageProcessor bc2) {
+      boolean isByte = ch1Proc instanceof ByteProcessor;
+      if (bc1 != null) {
+         ch1Proc = RatioImagingProcessor.subtractImageProcessors(ch1Proc, bc1);
+      }
+      if (bc2 != null) {
+         ch2Proc = RatioImagingProcessor.subtractImageProcessors(ch2Proc, bc2);
+      }
+      ch1Proc = ch1Proc.convertToFloat();
+      ch2Proc = ch2Proc.convertToFloat();
+      ch1Proc.subtract(CONSTANT1);
+      ch2Proc.subtract(CONSTANT2);
+      ImageProcessor ch3Proc = ch1Proc.createProcessor(ch1Proc.getWidth(),
+            ch1Proc.getHeight());
+      ch3Proc.insert(ch1Proc, 0, 0);
+      ch3Proc.copyBits(ch2Proc, 0, 0, Blitter.DIVIDE);
+      ch3Proc.multiply(FACTOR);
+      if (isByte) {
+         return ch3Proc.convertToByteProcessor();
+      }
+      float[] pixels32 = (float[]) ch3Proc.getPixels();
+      short[] pixels16 = new short[pixels32.length];
+      for (int i = 0; i < pixels32.length; i++) {
+         double value = pixels32[i];
+         if (value < 0.0) {
+            value = 0.0;
+         }
+         if (value > 65535.0) {
+            value = 65535.0;
+         }
+         pixels16[i] = (short) (value + 0.5);
+      }
+      return new ShortProcessor(ch3Proc.getWidth(), ch3Proc.getHeight(), pixels16, null);
+   }
+
+   private static int[] values(ImageProcessor proc) {
+      if (proc == null) {
+         return null;
+      }
+      int[] values = new int[proc.getWidth() * proc.getHeight()];
+      for (int i = 0; i < values.length; ++i) {
+         values[i] = proc.get(i);
+      }
+      return values;
+   }
+
+   private static ShortProcessor randomShorts(Random random, int width, int height,
+                                              int max) {
+      short[] pixels = new short[width * height];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) random.nextInt(max);
+      }
+      return new ShortProcessor(width, height, pixels, null);
+   }
+
+   private static ByteProcessor randomBytes(Random random, int width, int height,
+                                            int max) {
+      byte[] pixels = new byte[width * height];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (byte) random.nextInt(max);
+      }
+      return new ByteProcessor(width, height, pixels, null);
+   }
+
+   private static void compareShorts(int width, int height, boolean backgrounds) {
+      Random random = new Random(width * 31 + height);
+      ShortProcessor ch1 = randomShorts(random, width, height, 4096);
+      // Includes pixels at which the denominator is zero
+      ShortProcessor ch2 = randomShorts(random, width, height, 64);
+      ShortProcessor bc1 = backgrounds ? randomShorts(random, width, height, 100) : null;
+      ShortProcessor bc2 = backgrounds ? randomShorts(random, width, height, 20) : null;
+      ImageProcessor expected = reference(ch1, ch2, bc1, bc2);
+
+      RatioKernel kernel = new RatioKernel(values(bc1), values(bc2), CONSTANT1, CONSTANT2,
+            FACTOR);
+      short[] result = new short[width * height];
+      int max = kernel.apply((short[]) ch1.getPixels(), (short[]) ch2.getPixels(), result);
+      assertArrayEquals((short[]) expected.getPixels(), result);
+      assertEquals((int) expected.getMax(), max);
+   }
+
+   private static void compareBytes(int width, int height, boolean backgrounds) {
+      Random random = new Random(width * 17 + height);
+      ByteProcessor ch1 = randomBytes(random, width, height, 256);
+      ByteProcessor ch2 = randomBytes(random, width, height, 40);
+      ByteProcessor bc1 = backgrounds ? randomBytes(random, width, height, 30) : null;
+      ByteProcessor bc2 = backgrounds ? randomBytes(random, width, height, 10) : null;
+      ImageProcessor expected = reference(ch1, ch2, bc1, bc2);
+
+      RatioKernel kernel = new RatioKernel(values(bc1), values(bc2), CONSTANT1, CONSTANT2,
+            FACTOR);
+      byte[] result = new byte[width * height];
+      kernel.apply((byte[]) ch1.getPixels(), (byte[]) ch2.getPixels(), result);
+      assertArrayEquals((byte[]) expected.getPixels(), result);
+   }
+
+   @Test
+   public void testShortMatchesImageJOperations() {
+      // Large enough to be split into stripes
+      compareShorts(512, 384, true);
+      compareShorts(512, 384, false);
+      compareShorts(37, 23, true);
+   }
+
+   @Test
+   public void testByteMatchesImageJOperations() {
+      compareBytes(512, 384, true);
+      compareBytes(512, 384, false);
+      compareBytes(37, 23, true);
+   }
+
+   @Test
+   public void testDivideByZeroValue() {
+      float saved = FloatBlitter.divideByZeroValue;
+      try {
+         FloatBlitter.divideByZeroValue = 7f;
+         RatioKernel kernel = new RatioKernel(null, null, 0, 0, 1);
+         assertEquals(7f, kernel.ratio(100, 0, 0), 0f);
+         assertEquals(2.5f, kernel.ratio(5, 2, 0), 0f);
+         FloatProcessor ch1 = new FloatProcessor(1, 1, new float[] {100f});
+         ch1.copyBits(new FloatProcessor(1, 1, new float[] {0f}), 0, 0, Blitter.DIVIDE);
+         assertEquals(7f, ch1.getf(0), 0f);
+      } finally {
+         FloatBlitter.divideByZeroValue = saved;
+      }
+   }
+}
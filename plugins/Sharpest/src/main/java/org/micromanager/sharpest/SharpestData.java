@@ -12,6 +12,7 @@ public class SharpestData {
    final int nrPlanes_;
    final boolean sharpenAllChannels_;
    final String channel_;
+   final int slicesPastPeak_;
 
    /**
     * Constructor.
@@ -31,11 +32,36 @@ public class SharpestData {
                        final int nrPlanes,
                        final boolean sharpenAllChannels,
                        final String channel) {
+      this(sharpnessMethod, useFit, showGraph, nrPlanes, sharpenAllChannels, channel, 0);
+   }
+
+   /**
+    * Constructor.
+    *
+    * @param sharpnessMethod The method to use for sharpness analysis.
+    * @param useFit Whether to use the fit value or the max value for sharpness analysis.
+    * @param showGraph Whether to show the sharpness graph.
+    * @param nrPlanes The number of planes to produce.  Should be an odd number, i.e. 1 will produce
+    *                 only the sharpest frame, 3 the sharpest plus the two adjacent frames.
+    * @param sharpenAllChannels Whether to select the sharpest frame from all channels or only the
+    *                           selected channel.
+    * @param channel Channel to identify the sharpest plane (and use that plane from all channels).
+    * @param slicesPastPeak Stop scoring a stack once this many slices after the sharpest one
+    *                       scored clearly lower.  0 scores all slices.
+    */
+   public SharpestData(final ImgSharpnessAnalysis.Method sharpnessMethod,
+                       final boolean useFit,
+                       final boolean showGraph,
+                       final int nrPlanes,
+                       final boolean sharpenAllChannels,
+                       final String channel,
+                       final int slicesPastPeak) {
       sharpnessMethod_ = sharpnessMethod;
       useFit_ = useFit;
       showGraph_ = showGraph;
       nrPlanes_ = nrPlanes;
       sharpenAllChannels_ = sharpenAllChannels;
       channel_ = channel;
+      slicesPastPeak_ = slicesPastPeak;
    }
 }
@@ -44,6 +44,9 @@ public class SharpestPlugin implements DisplayGearMenuPlugin, SciJavaPlugin {
    public static final String EACH_CHANNEL = "EachChannel";
    public static final String CHANNEL = "Channel";
    public static final String USE_FIT = "UseFit";
+   public static final String STOP_AFTER_PEAK = "StopAfterPeak";
+   // Number of clearly less sharp slices after which we stop looking further
+   public static final int SLICES_PAST_PEAK = 3;
 
    private Studio studio_;
 
@@ -21,14 +21,12 @@
 
 package org.micromanager.sharpest;
 
-import ij.ImageStack;
-import ij.process.ImageProcessor;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
-import java.util.TreeMap;
 import javax.swing.SwingWorker;
 import org.jfree.data.xy.XYSeries;
 import org.micromanager.Studio;
@@ -42,6 +40,7 @@ import org.micromanager.data.DatastoreRewriteException;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.DefaultImageJConverter;
 import org.micromanager.data.internal.multipagetiff.StorageMultipageTiff;
 import org.micromanager.display.DisplayWindow;
 // Imports for MMStudio internal packages
@@ -50,6 +49,7 @@ import org.micromanager.display.DisplayWindow;
 // MMStudio API, so it still uses internal classes and interfaces. New code
 // should not imitate this practice.
 import org.micromanager.imageprocessing.ImgSharpnessAnalysis;
+import org.micromanager.imageprocessing.SharpnessScorer;
 import org.micromanager.imageprocessing.curvefit.Fitter;
 import org.micromanager.imageprocessing.curvefit.PlotUtils;
 import org.micromanager.internal.utils.FileDialogs;
@@ -67,6 +67,7 @@ public class SharpestPluginExecutor {
    private final DataProvider oldProvider_;
    private int projectionNr_;
    private ProgressBar progressBar_;
+   private SharpnessScorer scorer_;
 
    /**
     * Constructs this plugin's executor.
@@ -183,6 +184,9 @@ public class SharpestPluginExecutor {
             }
          }
 
+         ImgSharpnessAnalysis scoringSettings = new ImgSharpnessAnalysis();
+         scoringSettings.setComputationMethod(zpd.sharpnessMethod_);
+         scorer_ = new SharpnessScorer(scoringSettings);
          findAllProjections(newStore, axes, cb, zpd, sharpestChannelCoordinate);
 
       } catch (DatastoreFrozenException ex) {
@@ -190,6 +194,10 @@ public class SharpestPluginExecutor {
       } catch (DatastoreRewriteException ex) {
          studio_.logs().showError("Can not overwrite data");
       } finally {
+         if (scorer_ != null) {
+            scorer_.shutdown();
+            scorer_ = null;
+         }
          if (progressBar_ != null) {
             progressBar_.setVisible(false);
          }
@@ -246,47 +254,28 @@ public class SharpestPluginExecutor {
    private void executeProjection(Datastore newStore, Coords.CoordsBuilder cbp,  SharpestData zpd)
            throws IOException {
       cbp.index(Coords.Z, 0);
-      Image tmpImg = oldProvider_.getAnyImage();
-      if (tmpImg == null) {
-         studio_.alerts().postAlert("Projection problem", this.getClass(),
-                 "No images found while projecting");
-         return;
-      }
-      ImageStack stack = new ImageStack(
-               tmpImg.getWidth(), tmpImg.getHeight());
-      Metadata imgMetadata = null;
-      for (int z = 0; z < oldProvider_.getNextIndex(Coords.Z); z++) {
+      final int nrSlices = oldProvider_.getNextIndex(Coords.Z);
+      // Slices are scored in parallel while the next ones are read.  The
+      // processors share the pixels of the images (scoring does not modify them).
+      SortedMap<Integer, Double> focusScoreMap = scorer_.scoreStack(nrSlices, (int z) -> {
          Image img = oldProvider_.getImage(cbp.index(Coords.Z, z).build());
-         if (img != null) {  // null happens when this image was skipped
-            if (imgMetadata == null) {
-               imgMetadata = img.getMetadata().copyBuilderWithNewUUID().build();
-            }
-            ImageProcessor ip
-                    = studio_.data().getImageJConverter().createProcessor(img);
-            stack.addSlice(ip);
-         }
-      }
-      if (stack.getSize() > 0 && imgMetadata != null) {
-         ImgSharpnessAnalysis imgScoringFunction = new ImgSharpnessAnalysis();
-         imgScoringFunction.setComputationMethod(zpd.sharpnessMethod_);
-         imgScoringFunction.allowInPlaceModification(true);
-         SortedMap<Integer, Double> focusScoreMap = new TreeMap<>();
-         int nrSlices = stack.getSize();
+         // null happens when this image was skipped
+         return img == null ? null : DefaultImageJConverter.createProcessor(img, false);
+      }, zpd.slicesPastPeak_);
+      if (!focusScoreMap.isEmpty()) {
          double maxScore = Double.NEGATIVE_INFINITY;
          int bestIndex = 0;
-         for (int i = 0; i < nrSlices; i++) {
-            double score = imgScoringFunction.compute(stack.getProcessor(i + 1));
-            if (score > maxScore) {
-               maxScore = score;
-               bestIndex = i;
+         for (Map.Entry<Integer, Double> entry : focusScoreMap.entrySet()) {
+            if (entry.getValue() > maxScore) {
+               maxScore = entry.getValue();
+               bestIndex = entry.getKey();
             }
-            focusScoreMap.put(i, score);
          }
          if (zpd.showGraph_ || zpd.useFit_) {
             XYSeries xySeries = new XYSeries("Focus Score");
             focusScoreMap.forEach(xySeries::add);
             double[] guess = {(double) nrSlices / 2.0,
-                    focusScoreMap.get(nrSlices / 2)};
+                    focusScoreMap.getOrDefault(nrSlices / 2, maxScore)};
             double[] fit = Fitter.fit(xySeries, Fitter.FunctionType.Gaussian, guess);
             if (zpd.useFit_) {
                bestIndex = (int) Math.round(Fitter.getXofMaxY(xySeries,
@@ -302,25 +291,9 @@ public class SharpestPluginExecutor {
                        "", (double) bestIndex);
             }
          }
-         if (bestIndex < 0) {
-            bestIndex = 0;
-         } else if (bestIndex >= stack.size()) {
-            bestIndex = stack.size() - 1;
-         }
-         int start = bestIndex;
-         int end = bestIndex;
-         if (zpd.nrPlanes_ > 1) {
-            start = bestIndex - (zpd.nrPlanes_ - 1) / 2;
-            end = bestIndex + (zpd.nrPlanes_ - 1) / 2;
-         }
-         if (start < 0) {
-            start = 0;
-            end = zpd.nrPlanes_ - 1;
-         }
-         if (end >= stack.size()) {
-            end = stack.size() - 1;
-            start = end - zpd.nrPlanes_ + 1;
-         }
+         int[] range = getPlaneRange(bestIndex, zpd.nrPlanes_, nrSlices);
+         int start = range[0];
+         int end = range[1];
          for (int z = start; z <= end; z++) {
             if (!zpd.sharpenAllChannels_) {
                for (int c = 0; c < oldProvider_.getSummaryMetadata().getIntendedDimensions().getC();
@@ -351,5 +324,35 @@ public class SharpestPluginExecutor {
                                              "No images found while projecting");
       }
    }
-   
-}
\ No newline at end of file
+
+   /**
+    * Figures out which planes to keep around the sharpest one.
+    *
+    * @param bestIndex Index of the sharpest plane
+    * @param nrPlanes Number of planes to keep
+    * @param nrSlices Number of planes in the stack
+    * @return first and last plane to keep (inclusive)
+    */
+   static int[] getPlaneRange(int bestIndex, int nrPlanes, int nrSlices) {
+      if (bestIndex < 0) {
+         bestIndex = 0;
+      } else if (bestIndex >= nrSlices) {
+         bestIndex = nrSlices - 1;
+      }
+      int start = bestIndex;
+      int end = bestIndex;
+      if (nrPlanes > 1) {
+         start = bestIndex - (nrPlanes - 1) / 2;
+         end = bestIndex + (nrPlanes - 1) / 2;
+      }
+      if (start < 0) {
+         start = 0;
+         end = nrPlanes - 1;
+      }
+      if (end >= nrSlices) {
+         end = nrSlices - 1;
+         start = end - nrPlanes + 1;
+      }
+      return new int[] {start, end};
+   }
+}
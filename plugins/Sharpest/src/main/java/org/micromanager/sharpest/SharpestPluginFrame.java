@@ -143,6 +143,15 @@ public class SharpestPluginFrame extends JDialog {
               settings_.putBoolean(SharpestPlugin.SHOW_SHARPNESS_GRAPH,
                       showGraphBox.isSelected()));
 
+      final JCheckBox stopAfterPeakBox = new JCheckBox("stop after focus peak");
+      stopAfterPeakBox.setToolTipText("<html>Stop scoring a stack once "
+              + SharpestPlugin.SLICES_PAST_PEAK + " slices after the sharpest one "
+              + "scored clearly lower.<br/>Faster, but assumes a single focus peak.</html>");
+      stopAfterPeakBox.setSelected(settings_.getBoolean(SharpestPlugin.STOP_AFTER_PEAK, false));
+      stopAfterPeakBox.addActionListener((ActionEvent e) ->
+              settings_.putBoolean(SharpestPlugin.STOP_AFTER_PEAK,
+                      stopAfterPeakBox.isSelected()));
+
       super.add(sharpnessMethodLabel);
       super.add(sharpnessMethodBox, "span2, grow, wrap");
       super.add(keepPlanesLabel);
@@ -155,6 +164,7 @@ public class SharpestPluginFrame extends JDialog {
       super.add(useFitBox);
       super.add(useMaxBox, "wrap");
       super.add(showGraphBox, "span3, grow, wrap");
+      super.add(stopAfterPeakBox, "span3, grow, wrap");
 
       super.add(new JLabel("name"));
       final JTextField nameField = new JTextField(shortName);
@@ -179,7 +189,8 @@ public class SharpestPluginFrame extends JDialog {
          }
          SharpestData zpd = new SharpestData(method,  useFitBox.isSelected(),
                  showGraphBox.isSelected(), nrPlanes,
-                 eachChannelBox.isSelected(), (String) channelBox.getSelectedItem());
+                 eachChannelBox.isSelected(), (String) channelBox.getSelectedItem(),
+                 stopAfterPeakBox.isSelected() ? SharpestPlugin.SLICES_PAST_PEAK : 0);
          zp.project(saveBox.isSelected(),
                  nameField.getText(),
                  zpd);
@@ -0,0 +1,194 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          SharpestProcessor.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Sharpest plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.sharpest;
+
+import ij.process.ImageProcessor;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import org.jfree.data.xy.XYSeries;
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.DefaultImageJConverter;
+import org.micromanager.imageprocessing.ImgSharpnessAnalysis;
+import org.micromanager.imageprocessing.SharpnessScorer;
+import org.micromanager.imageprocessing.curvefit.Fitter;
+
+/**
+ * Pipeline processor that keeps the sharpest plane(s) of each z stack while
+ * the stack is being acquired. Each image is scored on a pool of threads as
+ * soon as it arrives, so that the result is known shortly after the last
+ * image of the stack arrived. Every channel is treated on its own. Stacks
+ * that are incomplete when the acquisition ends are handled with the images
+ * that did arrive.
+ */
+public class SharpestProcessor implements Processor {
+   private final Studio studio_;
+   private final ImgSharpnessAnalysis.Method method_;
+   private final int nrPlanes_;
+   private final boolean useFit_;
+   private SharpnessScorer scorer_;
+   private int stackSize_ = 0;
+   private final Map<Coords, Stack> stacks_ = new LinkedHashMap<>();
+
+   private static final class Stack {
+      private final SortedMap<Integer, Image> images_ = new TreeMap<>();
+      private final SortedMap<Integer, Future<Double>> scores_ = new TreeMap<>();
+   }
+
+   /**
+    * Constructor.
+    *
+    * @param studio The Micro-Manager Studio Object
+    * @param method Sharpness method to use
+    * @param nrPlanes Number of planes to keep around the sharpest one
+    * @param useFit Whether to fit the scores (or use the maximum)
+    */
+   public SharpestProcessor(Studio studio, ImgSharpnessAnalysis.Method method,
+                            int nrPlanes, boolean useFit) {
+      studio_ = studio;
+      method_ = method;
+      nrPlanes_ = Math.max(1, nrPlanes);
+      useFit_ = useFit;
+   }
+
+   @Override
+   public SummaryMetadata processSummaryMetadata(SummaryMetadata summary) {
+      Coords intendedDimensions = summary.getIntendedDimensions();
+      if (intendedDimensions == null) {
+         return summary;
+      }
+      stackSize_ = intendedDimensions.getZ();
+      if (stackSize_ <= 1) {
+         return summary;
+      }
+      return summary.copyBuilder().intendedDimensions(intendedDimensions.copyBuilder()
+            .z(Math.min(nrPlanes_, stackSize_)).build()).build();
+   }
+
+   @Override
+   public void processImage(Image image, ProcessorContext context) {
+      // Snap/Live, or no z stack
+      if (stackSize_ <= 1) {
+         context.outputImage(image);
+         return;
+      }
+      ImageProcessor proc = DefaultImageJConverter.createProcessor(image, false);
+      if (proc == null) {
+         context.outputImage(image);
+         return;
+      }
+      if (scorer_ == null) {
+         ImgSharpnessAnalysis settings = new ImgSharpnessAnalysis();
+         settings.setComputationMethod(method_);
+         scorer_ = new SharpnessScorer(settings);
+      }
+      Coords target = image.getCoords().copyBuilder().z(0).build();
+      Stack stack = stacks_.get(target);
+      if (stack == null) {
+         stack = new Stack();
+         stacks_.put(target, stack);
+      }
+      int z = image.getCoords().getZ();
+      stack.images_.put(z, image);
+      stack.scores_.put(z, scorer_.submit(proc));
+      if (stack.images_.size() >= stackSize_) {
+         stacks_.remove(target);
+         outputSharpest(target, stack, context);
+      }
+   }
+
+   @Override
+   public void cleanup(ProcessorContext context) {
+      List<Map.Entry<Coords, Stack>> remaining = new ArrayList<>(stacks_.entrySet());
+      stacks_.clear();
+      for (Map.Entry<Coords, Stack> entry : remaining) {
+         outputSharpest(entry.getKey(), entry.getValue(), context);
+      }
+      if (scorer_ != null) {
+         scorer_.shutdown();
+         scorer_ = null;
+      }
+   }
+
+   private void outputSharpest(Coords target, Stack stack, ProcessorContext context) {
+      // Without scores, keep the planes around the middle of the stack rather
+      // than dropping the stack
+      int bestIndex = stackSize_ / 2;
+      SortedMap<Integer, Double> scores = scoreStack(stack);
+      if (scores != null) {
+         double maxScore = Double.NEGATIVE_INFINITY;
+         for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+            if (entry.getValue() > maxScore) {
+               maxScore = entry.getValue();
+               bestIndex = entry.getKey();
+            }
+         }
+         if (useFit_) {
+            XYSeries xySeries = new XYSeries("Focus Score");
+            scores.forEach(xySeries::add);
+            double[] guess = {(double) stackSize_ / 2.0,
+                  scores.getOrDefault(stackSize_ / 2, maxScore)};
+            double[] fit = Fitter.fit(xySeries, Fitter.FunctionType.Gaussian, guess);
+            bestIndex = (int) Math.round(Fitter.getXofMaxY(xySeries,
+                  Fitter.FunctionType.Gaussian, fit));
+         }
+      }
+      int[] range = SharpestPluginExecutor.getPlaneRange(bestIndex, nrPlanes_, stackSize_);
+      for (int z = range[0]; z <= range[1]; z++) {
+         Image img = stack.images_.get(z);
+         if (img != null) {
+            context.outputImage(img.copyWith(target.copyBuilder().z(z - range[0]).build(),
+                  img.getMetadata().copyBuilderWithNewUUID().build()));
+         }
+      }
+   }
+
+   /**
+    * Wait for the scores of the planes of a stack.
+    *
+    * @return scores by z index, or null if they could not be computed
+    */
+   private SortedMap<Integer, Double> scoreStack(Stack stack) {
+      SortedMap<Integer, Double> scores = new TreeMap<>();
+      try {
+         for (Map.Entry<Integer, Future<Double>> entry : stack.scores_.entrySet()) {
+            scores.put(entry.getKey(), entry.getValue().get());
+         }
+      } catch (InterruptedException ex) {
+         Thread.currentThread().interrupt();
+         studio_.logs().logError(ex,
+               "Sharpest: interrupted while scoring images; keeping the middle planes");
+         return null;
+      } catch (ExecutionException ex) {
+         studio_.logs().logError(ex,
+               "Sharpest: failed to score images; keeping the middle planes");
+         return null;
+      }
+      return scores;
+   }
+}
@@ -0,0 +1,97 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          SharpestProcessorConfigurator.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Sharpest plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.sharpest;
+
+import java.awt.Toolkit;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import net.miginfocom.swing.MigLayout;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.imageprocessing.ImgSharpnessAnalysis;
+import org.micromanager.internal.utils.WindowPositioning;
+
+/**
+ * Configuration UI of the Sharpest pipeline processor.
+ */
+public class SharpestProcessorConfigurator extends JFrame
+      implements ProcessorConfigurator {
+   private final JComboBox<String> methodBox_;
+   private final JComboBox<Integer> keepPlanesBox_;
+   private final JCheckBox useFitBox_;
+
+   /**
+    * Constructor. Draws the UI.
+    *
+    * @param settings Settings of the processor
+    * @param studio The Micro-Manager Studio Object
+    */
+   public SharpestProcessorConfigurator(PropertyMap settings, Studio studio) {
+      JPanel panel = new JPanel(new MigLayout("flowx"));
+      panel.add(new JLabel(
+            "<html>Keeps the sharpest plane(s) of each z stack during acquisition.</html>"),
+            "span, wrap");
+
+      panel.add(new JLabel("Sharpness method"));
+      methodBox_ = new JComboBox<>(ImgSharpnessAnalysis.Method.getNames());
+      methodBox_.setSelectedItem(settings.getString(SharpestPlugin.SHARPNESS,
+            ImgSharpnessAnalysis.Method.Redondo.name()));
+      panel.add(methodBox_, "growx, wrap");
+
+      panel.add(new JLabel("Number of planes to keep"));
+      keepPlanesBox_ = new JComboBox<>(new Integer[] {1, 3, 5, 7, 9});
+      keepPlanesBox_.setSelectedItem(settings.getInteger(SharpestPlugin.KEEP_PLANES, 1));
+      panel.add(keepPlanesBox_, "growx, wrap");
+
+      useFitBox_ = new JCheckBox("use fit (instead of max)");
+      useFitBox_.setSelected(settings.getBoolean(SharpestPlugin.USE_FIT, true));
+      panel.add(useFitBox_, "span, wrap");
+      super.add(panel);
+
+      super.setTitle(SharpestProcessorPlugin.MENU_NAME);
+      super.setIconImage(Toolkit.getDefaultToolkit().getImage(
+            getClass().getResource("/org/micromanager/icons/microscope.gif")));
+      super.setLocation(300, 300);
+      WindowPositioning.setUpLocationMemory(this, this.getClass(), null);
+   }
+
+   @Override
+   public void showGUI() {
+      pack();
+      setVisible(true);
+   }
+
+   @Override
+   public PropertyMap getSettings() {
+      return PropertyMaps.builder()
+            .putString(SharpestPlugin.SHARPNESS, (String) methodBox_.getSelectedItem())
+            .putInteger(SharpestPlugin.KEEP_PLANES, (Integer) keepPlanesBox_.getSelectedItem())
+            .putBoolean(SharpestPlugin.USE_FIT, useFitBox_.isSelected())
+            .build();
+   }
+
+   @Override
+   public void cleanup() {
+      dispose();
+   }
+}
@@ -0,0 +1,46 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          SharpestProcessorFactory.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Sharpest plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.sharpest;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorFactory;
+import org.micromanager.imageprocessing.ImgSharpnessAnalysis;
+
+/**
+ * Creates SharpestProcessors.
+ */
+public class SharpestProcessorFactory implements ProcessorFactory {
+   private final Studio studio_;
+   private final PropertyMap settings_;
+
+   public SharpestProcessorFactory(Studio studio, PropertyMap settings) {
+      studio_ = studio;
+      settings_ = settings;
+   }
+
+   @Override
+   public Processor createProcessor() {
+      return new SharpestProcessor(studio_,
+            ImgSharpnessAnalysis.Method.valueOf(settings_.getString(SharpestPlugin.SHARPNESS,
+                  ImgSharpnessAnalysis.Method.Redondo.name())),
+            settings_.getInteger(SharpestPlugin.KEEP_PLANES, 1),
+            settings_.getBoolean(SharpestPlugin.USE_FIT, true));
+   }
+}
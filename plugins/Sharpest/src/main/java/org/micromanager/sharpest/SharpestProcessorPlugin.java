@@ -0,0 +1,72 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          SharpestProcessorPlugin.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Sharpest plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.sharpest;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.data.ProcessorFactory;
+import org.micromanager.data.ProcessorPlugin;
+import org.scijava.plugin.Plugin;
+import org.scijava.plugin.SciJavaPlugin;
+
+/**
+ * Makes the selection of the sharpest plane(s) available as an on-the-fly
+ * pipeline processor.
+ */
+@Plugin(type = ProcessorPlugin.class)
+public class SharpestProcessorPlugin implements ProcessorPlugin, SciJavaPlugin {
+   public static final String MENU_NAME = "Sharpest";
+
+   private Studio studio_;
+
+   @Override
+   public void setContext(Studio studio) {
+      studio_ = studio;
+   }
+
+   @Override
+   public ProcessorConfigurator createConfigurator(PropertyMap settings) {
+      return new SharpestProcessorConfigurator(settings, studio_);
+   }
+
+   @Override
+   public ProcessorFactory createFactory(PropertyMap settings) {
+      return new SharpestProcessorFactory(studio_, settings);
+   }
+
+   @Override
+   public String getName() {
+      return MENU_NAME;
+   }
+
+   @Override
+   public String getHelpText() {
+      return "Keeps the sharpest plane(s) of each z stack during acquisition";
+   }
+
+   @Override
+   public String getVersion() {
+      return "Version 0.1";
+   }
+
+   @Override
+   public String getCopyright() {
+      return "Altos Labs, 2024";
+   }
+}
@@ -22,14 +22,16 @@
 
 package org.micromanager.splitview;
 
-import ij.process.ImageProcessor;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import org.micromanager.Studio;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
-import org.micromanager.data.Processor;
+import org.micromanager.data.ImageViews;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.PixelKernel;
+import org.micromanager.data.PixelKernelProcessor;
 import org.micromanager.data.ProcessorContext;
 import org.micromanager.data.SummaryMetadata;
 
@@ -38,7 +40,7 @@ import org.micromanager.data.SummaryMetadata;
  *
  * @author nico, heavily updated by Chris Weisiger
  */
-public class SplitViewProcessor implements Processor {
+public class SplitViewProcessor implements PixelKernelProcessor {
 
    private final Studio studio_;
    private String orientation_ = SplitViewFrame.LR;
@@ -102,8 +104,6 @@ public class SplitViewProcessor implements Processor {
 
    @Override
    public void processImage(Image image, ProcessorContext context) {
-      ImageProcessor proc = studio_.data().ij().createProcessor(image);
-
       int width = image.getWidth();
       int height = image.getHeight();
       int xStep = 0;
@@ -118,14 +118,60 @@ public class SplitViewProcessor implements Processor {
 
       int channelIndex = image.getCoords().getChannel();
       for (int i = 0; i < numSplits_; ++i) {
-         proc.setRoi(i * xStep, i * yStep, width, height);
-
          Coords coords = image.getCoords().copy()
                .channel(channelIndex * numSplits_ + i).build();
-         Image output = studio_.data().createImage(proc.crop().getPixels(),
-               width, height, image.getBytesPerPixel(),
-               image.getNumComponents(), coords, image.getMetadata());
+         // The parts share the pixels of the image; they are only copied
+         // when a contiguous array is needed
+         Image output = ImageViews.crop(image, i * xStep, i * yStep, width, height)
+               .copyAtCoords(coords);
          context.outputImage(output);
       }
    }
+
+   /**
+    * Describes every part of the split as a crop, so that the split can be
+    * combined with the neighboring processors in the pipeline.
+    */
+   @Override
+   public List<PixelKernel> createPixelKernels(Coords coords, final Metadata metadata,
+         final int width, final int height, int bytesPerPixel) {
+      final int partWidth = orientation_.equals(SplitViewFrame.TB) ? width : width / numSplits_;
+      final int partHeight = orientation_.equals(SplitViewFrame.TB)
+            ? height / numSplits_ : height;
+      List<PixelKernel> kernels = new ArrayList<PixelKernel>(numSplits_);
+      for (int i = 0; i < numSplits_; ++i) {
+         final int xOffset = orientation_.equals(SplitViewFrame.TB) ? 0 : i * partWidth;
+         final int yOffset = orientation_.equals(SplitViewFrame.TB) ? i * partHeight : 0;
+         final Coords partCoords = coords.copyBuilder()
+               .channel(coords.getChannel() * numSplits_ + i).build();
+         kernels.add(new PixelKernel() {
+            @Override
+            public int getWidth() {
+               return partWidth;
+            }
+
+            @Override
+            public int getHeight() {
+               return partHeight;
+            }
+
+            @Override
+            public Coords getCoords() {
+               return partCoords;
+            }
+
+            @Override
+            public Metadata getMetadata() {
+               return metadata;
+            }
+
+            @Override
+            public int getSourceIndex(int index) {
+               return xOffset + index % partWidth
+                     + (yOffset + index / partWidth) * width;
+            }
+         });
+      }
+      return kernels;
+   }
 }
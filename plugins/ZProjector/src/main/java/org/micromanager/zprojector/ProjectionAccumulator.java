@@ -0,0 +1,261 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ProjectionAccumulator.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ZProjector plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.zprojector;
+
+import ij.plugin.ZProjector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Projects a stack of 8 or 16 bit images one slice at a time.
+ *
+ * <p>Slices are folded into primitive per-pixel accumulators as they are
+ * read, so that no ImageJ ImageStack has to be built. Only the median needs
+ * to see all values of a pixel at once; for that method the slices
+ * themselves are kept (by reference) until the result is requested.
+ *
+ * <p>Results match those of ImageJ's ZProjector followed by conversion
+ * (without scaling) to the bit depth of the input, which is what this plugin
+ * used to do: average and sum are accumulated in float, the standard
+ * deviation in double. ImageJ truncates the average (it is computed in the
+ * type of the input), whereas the standard deviation and median are
+ * rounded.
+ *
+ * <p>Instances are not thread-safe; use one per projection.
+ */
+final class ProjectionAccumulator {
+   private final int method_;
+   private final int length_;
+   private final int bytesPerPixel_;
+   private int count_ = 0;
+
+   private float[] sum_;
+   private int[] extremum_;
+   private double[] sd1_;
+   private double[] sd2_;
+   private List<Object> slices_;
+
+   /**
+    * Create an accumulator.
+    *
+    * @param method one of the ImageJ ZProjector methods AVG_METHOD,
+    *               MAX_METHOD, MIN_METHOD, SUM_METHOD, SD_METHOD or
+    *               MEDIAN_METHOD
+    * @param length number of pixels per slice
+    * @param bytesPerPixel 1 or 2
+    */
+   ProjectionAccumulator(int method, int length, int bytesPerPixel) {
+      if (!canProject(method, bytesPerPixel, 1)) {
+         throw new IllegalArgumentException("Can not project " + bytesPerPixel
+               + " byte images using method " + method);
+      }
+      method_ = method;
+      length_ = length;
+      bytesPerPixel_ = bytesPerPixel;
+      switch (method) {
+         case ZProjector.AVG_METHOD:
+         case ZProjector.SUM_METHOD:
+            sum_ = new float[length];
+            break;
+         case ZProjector.MAX_METHOD:
+         case ZProjector.MIN_METHOD:
+            extremum_ = new int[length];
+            break;
+         case ZProjector.SD_METHOD:
+            sd1_ = new double[length];
+            sd2_ = new double[length];
+            break;
+         default:
+            slices_ = new ArrayList<>();
+            break;
+      }
+   }
+
+   /**
+    * Whether images of this type can be projected with this method.
+    * Everything else has to go through ImageJ.
+    */
+   static boolean canProject(int method, int bytesPerPixel, int numComponents) {
+      if (numComponents != 1 || (bytesPerPixel != 1 && bytesPerPixel != 2)) {
+         return false;
+      }
+      switch (method) {
+         case ZProjector.AVG_METHOD:
+         case ZProjector.MAX_METHOD:
+         case ZProjector.MIN_METHOD:
+         case ZProjector.SUM_METHOD:
+         case ZProjector.SD_METHOD:
+         case ZProjector.MEDIAN_METHOD:
+            return true;
+         default:
+            return false;
+      }
+   }
+
+   /**
+    * Estimate of the memory used while projecting a stack.
+    *
+    * @param method projection method
+    * @param length number of pixels per slice
+    * @param bytesPerPixel 1 or 2
+    * @param numSlices number of slices in the stack
+    * @return number of bytes
+    */
+   static long estimateBytes(int method, int length, int bytesPerPixel,
+                             int numSlices) {
+      long perPixel;
+      switch (method) {
+         case ZProjector.SD_METHOD:
+            perPixel = 16;
+            break;
+         case ZProjector.MEDIAN_METHOD:
+            perPixel = (long) numSlices * bytesPerPixel;
+            break;
+         default:
+            perPixel = 4;
+            break;
+      }
+      // Plus the slice being read and the result
+      return (long) length * (perPixel + 2L * bytesPerPixel);
+   }
+
+   int getCount() {
+      return count_;
+   }
+
+   /**
+    * Fold a slice into the projection.
+    *
+    * @param pixels byte[] or short[] of the length given at construction
+    */
+   void add(Object pixels) {
+      if (bytesPerPixel_ == 1) {
+         checkLength(((byte[]) pixels).length);
+      } else {
+         checkLength(((short[]) pixels).length);
+      }
+      if (slices_ != null) {
+         slices_.add(pixels);
+      } else if (bytesPerPixel_ == 1) {
+         byte[] p = (byte[]) pixels;
+         for (int i = 0; i < length_; ++i) {
+            accumulate(i, p[i] & 0xff);
+         }
+      } else {
+         short[] p = (short[]) pixels;
+         for (int i = 0; i < length_; ++i) {
+            accumulate(i, p[i] & 0xffff);
+         }
+      }
+      count_++;
+   }
+
+   private void checkLength(int length) {
+      if (length != length_) {
+         throw new IllegalArgumentException("Image size changed while projecting");
+      }
+   }
+
+   private void accumulate(int i, int value) {
+      if (sum_ != null) {
+         sum_[i] += value;
+      } else if (extremum_ != null) {
+         if (count_ == 0) {
+            extremum_[i] = value;
+         } else if (method_ == ZProjector.MAX_METHOD) {
+            extremum_[i] = Math.max(extremum_[i], value);
+         } else {
+            extremum_[i] = Math.min(extremum_[i], value);
+         }
+      } else {
+         sd1_[i] += value;
+         sd2_[i] += (double) value * value;
+      }
+   }
+
+   /**
+    * Compute the projection of the slices added so far.
+    *
+    * @return byte[] or short[] (matching the input) with the projection
+    * @throws IllegalStateException if no slices were added
+    */
+   Object getResult() {
+      if (count_ == 0) {
+         throw new IllegalStateException("Nothing to project");
+      }
+      int maxValue = bytesPerPixel_ == 1 ? 0xff : 0xffff;
+      int[] values = new int[length_];
+      if (sum_ != null) {
+         boolean average = method_ == ZProjector.AVG_METHOD;
+         for (int i = 0; i < length_; ++i) {
+            values[i] = toInt(average ? sum_[i] / count_ : sum_[i], maxValue, false);
+         }
+      } else if (extremum_ != null) {
+         values = extremum_;
+      } else if (sd1_ != null) {
+         double n = count_;
+         for (int i = 0; i < length_; ++i) {
+            float sd = 0.0f;
+            if (count_ > 1) {
+               double variance = (n * sd2_[i] - sd1_[i] * sd1_[i]) / n;
+               if (variance > 0.0) {
+                  sd = (float) Math.sqrt(variance / (n - 1.0));
+               }
+            }
+            values[i] = toInt(sd, maxValue, true);
+         }
+      } else {
+         float[] ray = new float[count_];
+         int middle = count_ / 2;
+         for (int i = 0; i < length_; ++i) {
+            for (int s = 0; s < count_; ++s) {
+               Object slice = slices_.get(s);
+               ray[s] = bytesPerPixel_ == 1
+                     ? ((byte[]) slice)[i] & 0xff : ((short[]) slice)[i] & 0xffff;
+            }
+            Arrays.sort(ray);
+            float median = (count_ & 1) == 0
+                  ? (ray[middle - 1] + ray[middle]) / 2f : ray[middle];
+            values[i] = toInt(median, maxValue, true);
+         }
+      }
+      if (bytesPerPixel_ == 1) {
+         byte[] result = new byte[length_];
+         for (int i = 0; i < length_; ++i) {
+            result[i] = (byte) values[i];
+         }
+         return result;
+      }
+      short[] result = new short[length_];
+      for (int i = 0; i < length_; ++i) {
+         result[i] = (short) values[i];
+      }
+      return result;
+   }
+
+   private static int toInt(float value, int maxValue, boolean round) {
+      if (value < 0f) {
+         return 0;
+      }
+      if (value > maxValue) {
+         return maxValue;
+      }
+      return round ? (int) (value + 0.5f) : (int) value;
+   }
+}
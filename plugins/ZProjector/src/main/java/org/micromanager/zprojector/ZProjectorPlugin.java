@@ -21,6 +21,7 @@
 
 package org.micromanager.zprojector;
 
+import ij.plugin.ZProjector;
 import org.micromanager.Studio;
 import org.micromanager.display.DisplayGearMenuPlugin;
 import org.micromanager.display.DisplayWindow;
@@ -46,9 +47,40 @@ public class ZProjectorPlugin implements DisplayGearMenuPlugin, SciJavaPlugin {
    // to be used in conjunction with "Methods" in IJ ZProjector
    public static final int SHARPNESS_METHOD = 10;
    public static final String SHOW_SHARPNESS_GRAPH = "ShowSharpnessGraph";
+   // Note: Median and Std.Dev. yield 32-bit images in ImageJ
+   // Those are converted to the bit depth of the input
+   public static final String[] PROJECTION_METHODS = new String[] {"Max", "Min",
+         "Avg", "Sum", "Median", "Std.Dev"};
 
    private Studio studio_;
 
+   /**
+    * Translates the name of a projection method as shown in the UI to the
+    * corresponding ImageJ ZProjector method.
+    *
+    * @param name One of PROJECTION_METHODS
+    * @return ImageJ ZProjector method, MAX_METHOD if the name is not known
+    */
+   public static int getProjectionMethod(String name) {
+      if (name != null) {
+         switch (name) {
+            case "Min":
+               return ZProjector.MIN_METHOD;
+            case "Avg":
+               return ZProjector.AVG_METHOD;
+            case "Sum":
+               return ZProjector.SUM_METHOD;
+            case "Median":
+               return ZProjector.MEDIAN_METHOD;
+            case "Std.Dev":
+               return ZProjector.SD_METHOD;
+            default:
+               break;
+         }
+      }
+      return ZProjector.MAX_METHOD;
+   }
+
    @Override
    public String getSubMenu() {
       return "";
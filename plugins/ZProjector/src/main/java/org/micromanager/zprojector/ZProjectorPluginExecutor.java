@@ -24,13 +24,17 @@ package org.micromanager.zprojector;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.plugin.ZProjector;
-import ij.process.ImageProcessor;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.swing.SwingWorker;
 import org.jfree.data.xy.XYSeries;
 import org.micromanager.Studio;
@@ -56,6 +60,7 @@ import org.micromanager.imageprocessing.curvefit.Fitter;
 import org.micromanager.imageprocessing.curvefit.PlotUtils;
 import org.micromanager.internal.utils.FileDialogs;
 import org.micromanager.internal.utils.ProgressBar;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 
 /**
  * Executes the Projection.
@@ -193,7 +198,9 @@ public class ZProjectorPluginExecutor {
             }
          }
 
-         findAllProjections(newStore, axes, cb, zpd);
+         List<Coords> targets = new ArrayList<>();
+         findAllProjections(axes, cb, zpd, targets);
+         executeProjections(newStore, targets, zpd);
 
       } catch (DatastoreFrozenException ex) {
          studio_.logs().showError("Can not add data to frozen datastore");
@@ -214,90 +221,175 @@ public class ZProjectorPluginExecutor {
     * Recursively figures out which projections need to be performed
     * It does so by taking the first remaining axes, cycle through all positions
     * in that axes, and recursively calling this function (omitting that axis).
-    * When no more axes are remaining, the actual projection will be executed.
+    * When no more axes are remaining, the coordinates of the projection are
+    * added to the list of projections to perform.
     *
-    * @param newStore Datastore to put the new projected images into
     * @param remainingAxes List with axes to look at
     * @param cbp      Coordinates builder set to the correct position
     * @param zpd ZProjectorData object with projection parameters
-    * @throws IOException Can arise when saving to disk
+    * @param targets  List that will receive the coordinates of the projections
     */
-   private void findAllProjections(Datastore newStore, List<String> remainingAxes, 
-           Coords.CoordsBuilder cbp, ZProjectorData zpd) throws IOException {
+   private void findAllProjections(List<String> remainingAxes,
+           Coords.CoordsBuilder cbp, ZProjectorData zpd, List<Coords> targets) {
+      if (remainingAxes.isEmpty()) {
+         targets.add(cbp.index(zpd.projectionAxis_, 0).build());
+         return;
+      }
       String currentAxis = remainingAxes.get(0);
       List<String> rcAxes = new ArrayList<>(remainingAxes);
       rcAxes.remove(currentAxis);
       for (int i = 0; i < oldProvider_.getNextIndex(currentAxis); i++) {
          cbp.index(currentAxis, i);
-         if (rcAxes.isEmpty()) {
-            executeProjection(newStore, cbp, zpd);
+         findAllProjections(rcAxes, cbp, zpd, targets);
+      }
+   }
+
+   /**
+    * Performs all projections, several at a time. Each projection reads its
+    * slices from the DataProvider and folds them into a
+    * ProjectionAccumulator; results are added to the new store (by this
+    * thread, in order of completion) as soon as they are done.
+    *
+    * @param newStore Datastore to put the new projected images into
+    * @param targets Coordinates of the projections (projection axis at 0)
+    * @param zpd ZProjectorData object with projection parameters
+    * @throws IOException Can arise when reading or saving data
+    */
+   private void executeProjections(Datastore newStore, List<Coords> targets,
+                                   ZProjectorData zpd) throws IOException {
+      int numThreads = getNumThreads(targets.size(), zpd);
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+            ThreadFactoryFactory.createThreadFactory("ZProjector"));
+      CompletionService<Image> completion = new ExecutorCompletionService<>(executor);
+      try {
+         int submitted = 0;
+         // Limit the number of finished projections waiting to be stored
+         while (submitted < Math.min(targets.size(), 2 * numThreads)) {
+            final Coords target = targets.get(submitted++);
+            completion.submit(() -> executeProjection(target, zpd));
+         }
+         for (int done = 0; done < targets.size(); done++) {
+            Image result;
+            try {
+               result = completion.take().get();
+            } catch (InterruptedException ie) {
+               Thread.currentThread().interrupt();
+               throw new IOException("Interrupted while projecting", ie);
+            } catch (ExecutionException ee) {
+               Throwable cause = ee.getCause();
+               if (cause instanceof IOException) {
+                  throw (IOException) cause;
+               } else if (cause instanceof RuntimeException) {
+                  throw (RuntimeException) cause;
+               }
+               throw new IOException(cause);
+            }
+            if (submitted < targets.size()) {
+               final Coords target = targets.get(submitted++);
+               completion.submit(() -> executeProjection(target, zpd));
+            }
+            if (result != null) {
+               newStore.putImage(result);
+            } else {
+               studio_.alerts().postAlert("Projection problem", this.getClass(),
+                     "No images found while projecting");
+            }
             projectionNr_++;
             if (progressBar_ != null) {
-               progressBar_.setProgress(projectionNr_); 
+               progressBar_.setProgress(projectionNr_);
             }
-         } else {
-            findAllProjections(newStore, rcAxes, cbp, zpd);
          }
+      } finally {
+         executor.shutdownNow();
       }
    }
-   
+
+   /**
+    * Number of projections to run at the same time, limited by the number of
+    * processors and by the memory each projection needs.
+    */
+   private int getNumThreads(int numProjections, ZProjectorData zpd)
+         throws IOException {
+      int numThreads = Math.min(numProjections,
+            Runtime.getRuntime().availableProcessors());
+      Image tmpImg = oldProvider_.getAnyImage();
+      if (tmpImg != null) {
+         long perProjection = ProjectionAccumulator.estimateBytes(
+               zpd.projectionMethod_, tmpImg.getWidth() * tmpImg.getHeight(),
+               tmpImg.getBytesPerPixel() * tmpImg.getNumComponents(),
+               zpd.lastFrame_ - zpd.firstFrame_ + 1);
+         Runtime rt = Runtime.getRuntime();
+         long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+         numThreads = (int) Math.min(numThreads, available / 2 / Math.max(1, perProjection));
+      }
+      return Math.max(1, numThreads);
+   }
+
    /**
     * Do the actual projection.
     *
-    * @param newStore Datastore to put the new projected images into
-    * @param cbp Coordinates builder set to the correct position
+    * @param target Coordinates of the projection (projection axis at 0)
     * @param zpd ZProjectorData object with projection parameters
-    * @throws IOException Can arise when saving to disk
+    * @return projected image, or null if no images were found
+    * @throws IOException Can arise when reading data
     */
-   private void executeProjection(Datastore newStore, Coords.CoordsBuilder cbp,  ZProjectorData zpd)
+   private Image executeProjection(Coords target, ZProjectorData zpd)
            throws IOException {
-      cbp.index(zpd.projectionAxis_, zpd.firstFrame_);
-      Image tmpImg = oldProvider_.getAnyImage();
-      if (tmpImg == null) {
-         studio_.alerts().postAlert("Projection problem", this.getClass(),
-                 "No images found while projecting");
-         return;
-      }
-      ImageStack stack = new ImageStack(
-               tmpImg.getWidth(), tmpImg.getHeight());
-      Metadata imgMetadata = null;
+      Coords.CoordsBuilder cbp = target.copyBuilder();
+      ProjectionAccumulator accumulator = null;
+      ImageStack stack = null;
+      Image firstImg = null;
       for (int i = zpd.firstFrame_; i <= zpd.lastFrame_; i++) {
-         Image img = oldProvider_.getImage(cbp.index(zpd.projectionAxis_, i).build());
-         if (img != null) {  // null happens when this image was skipped
-            if (imgMetadata == null) {
-               imgMetadata = img.getMetadata().copyBuilderWithNewUUID().build();
+         Image img;
+         // Storage implementations are not all safe for concurrent reads
+         synchronized (oldProvider_) {
+            img = oldProvider_.getImage(cbp.index(zpd.projectionAxis_, i).build());
+         }
+         if (img == null) {  // null happens when this image was skipped
+            continue;
+         }
+         if (firstImg == null) {
+            firstImg = img;
+            if (ProjectionAccumulator.canProject(zpd.projectionMethod_,
+                  img.getBytesPerPixel(), img.getNumComponents())) {
+               accumulator = new ProjectionAccumulator(zpd.projectionMethod_,
+                     img.getWidth() * img.getHeight(), img.getBytesPerPixel());
+            } else {
+               stack = new ImageStack(img.getWidth(), img.getHeight());
             }
-            ImageProcessor ip
-                    = studio_.data().getImageJConverter().createProcessor(img);
-            stack.addSlice(ip);
+         }
+         if (accumulator != null) {
+            accumulator.add(img.getRawPixels());
+         } else {
+            stack.addSlice(studio_.data().getImageJConverter().createProcessor(img));
          }
       }
-      //ImagePlus s = new ImagePlus("Test", stack);
-      //s.show();
-      if (stack.getSize() > 0 && imgMetadata != null) {
-         ImagePlus tmp = new ImagePlus("tmp", stack);
-         ZProjector zp = new ZProjector(tmp);
-         zp.setMethod(zpd.projectionMethod_);
-         zp.doProjection();
-         ImagePlus projection = zp.getProjection();
-         if (projection.getBytesPerPixel() > 2) {
-            if (tmp.getBytesPerPixel() == 1) {
-               projection.setProcessor(projection.getProcessor().convertToByte(false));
-            } else if (tmp.getBytesPerPixel() == 2) {
-               projection.setProcessor(projection.getProcessor().convertToShort(false));
-            }
+      if (firstImg == null) {
+         return null;
+      }
+      // TODO: adjust the metadata with the little knowledge we have about the
+      // projection axis (for instance, if z, set z position to the mean of the
+      // z positions of all images?
+      Metadata imgMetadata = firstImg.getMetadata().copyBuilderWithNewUUID().build();
+      if (accumulator != null) {
+         return studio_.data().createImage(accumulator.getResult(),
+               firstImg.getWidth(), firstImg.getHeight(), firstImg.getBytesPerPixel(),
+               1, target, imgMetadata);
+      }
+      ImagePlus tmp = new ImagePlus("tmp", stack);
+      ZProjector zp = new ZProjector(tmp);
+      zp.setMethod(zpd.projectionMethod_);
+      zp.doProjection();
+      ImagePlus projection = zp.getProjection();
+      if (projection.getBytesPerPixel() > 2) {
+         if (tmp.getBytesPerPixel() == 1) {
+            projection.setProcessor(projection.getProcessor().convertToByte(false));
+         } else if (tmp.getBytesPerPixel() == 2) {
+            projection.setProcessor(projection.getProcessor().convertToShort(false));
          }
-         // TODO: adjust the metadata with the little knowledge we have about the
-         // projection axis (for instance, if z, set z position to the mean of the
-         // z positions of all images?
-         Image outImg = studio_.data().getImageJConverter().createImage(
-                 projection.getProcessor(), cbp.index(zpd.projectionAxis_, 0).build(),
-                 imgMetadata.copyBuilderWithNewUUID().build());
-         newStore.putImage(outImg);
-      } else {
-         studio_.alerts().postAlert("Projection problem", this.getClass(), 
-                                             "No images found while projecting");
       }
+      return studio_.data().getImageJConverter().createImage(
+              projection.getProcessor(), target, imgMetadata);
    }
    
 }
@@ -0,0 +1,126 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ZProjectorProcessor.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ZProjector plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.zprojector;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+
+/**
+ * Pipeline processor that projects images along an axis while they are
+ * being acquired. Every image is folded into the projection it belongs to
+ * as it arrives; the projection is output when the last image along the
+ * axis has been added. Projections that are incomplete when the acquisition
+ * ends are output as they are.
+ */
+public class ZProjectorProcessor implements Processor {
+   private final Studio studio_;
+   private final String axis_;
+   private final int method_;
+   private int stackSize_ = 0;
+   private final Map<Coords, Projection> projections_ = new LinkedHashMap<>();
+
+   private static final class Projection {
+      private final Image firstImage_;
+      private final ProjectionAccumulator accumulator_;
+
+      private Projection(Image firstImage, int method) {
+         firstImage_ = firstImage;
+         accumulator_ = new ProjectionAccumulator(method,
+               firstImage.getWidth() * firstImage.getHeight(),
+               firstImage.getBytesPerPixel());
+      }
+   }
+
+   /**
+    * Constructor.
+    *
+    * @param studio The Micro-Manager Studio Object
+    * @param axis Axis to project along
+    * @param method ImageJ ZProjector method
+    */
+   public ZProjectorProcessor(Studio studio, String axis, int method) {
+      studio_ = studio;
+      axis_ = axis;
+      method_ = method;
+   }
+
+   @Override
+   public SummaryMetadata processSummaryMetadata(SummaryMetadata summary) {
+      Coords intendedDimensions = summary.getIntendedDimensions();
+      if (intendedDimensions == null) {
+         return summary;
+      }
+      stackSize_ = intendedDimensions.getIndex(axis_);
+      if (stackSize_ <= 1) {
+         return summary;
+      }
+      return summary.copyBuilder().intendedDimensions(
+            intendedDimensions.copyBuilder().index(axis_, 1).build()).build();
+   }
+
+   @Override
+   public void processImage(Image image, ProcessorContext context) {
+      // Snap/Live, or nothing to project along
+      if (stackSize_ <= 1 || !ProjectionAccumulator.canProject(method_,
+            image.getBytesPerPixel(), image.getNumComponents())) {
+         context.outputImage(image);
+         return;
+      }
+      Coords target = image.getCoords().copyBuilder().index(axis_, 0).build();
+      Projection projection = projections_.get(target);
+      if (projection == null) {
+         projection = new Projection(image, method_);
+         projections_.put(target, projection);
+      }
+      try {
+         projection.accumulator_.add(image.getRawPixels());
+      } catch (IllegalArgumentException iae) {
+         studio_.logs().logError(iae, "ZProjector: image size changed while projecting");
+         return;
+      }
+      if (projection.accumulator_.getCount() >= stackSize_) {
+         projections_.remove(target);
+         output(target, projection, context);
+      }
+   }
+
+   @Override
+   public void cleanup(ProcessorContext context) {
+      List<Map.Entry<Coords, Projection>> remaining = new ArrayList<>(projections_.entrySet());
+      projections_.clear();
+      for (Map.Entry<Coords, Projection> entry : remaining) {
+         output(entry.getKey(), entry.getValue(), context);
+      }
+   }
+
+   private void output(Coords target, Projection projection, ProcessorContext context) {
+      Image first = projection.firstImage_;
+      context.outputImage(studio_.data().createImage(
+            projection.accumulator_.getResult(), first.getWidth(), first.getHeight(),
+            first.getBytesPerPixel(), 1, target,
+            first.getMetadata().copyBuilderWithNewUUID().build()));
+   }
+}
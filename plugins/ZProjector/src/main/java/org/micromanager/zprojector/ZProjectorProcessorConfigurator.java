@@ -0,0 +1,91 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ZProjectorProcessorConfigurator.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ZProjector plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.zprojector;
+
+import java.awt.Toolkit;
+import javax.swing.JComboBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import net.miginfocom.swing.MigLayout;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.internal.utils.WindowPositioning;
+
+/**
+ * Configuration UI of the ZProjector pipeline processor.
+ */
+public class ZProjectorProcessorConfigurator extends JFrame
+      implements ProcessorConfigurator {
+   private final JComboBox<String> axisBox_;
+   private final JComboBox<String> methodBox_;
+
+   /**
+    * Constructor. Draws the UI.
+    *
+    * @param settings Settings of the processor
+    * @param studio The Micro-Manager Studio Object
+    */
+   public ZProjectorProcessorConfigurator(PropertyMap settings, Studio studio) {
+      JPanel panel = new JPanel(new MigLayout("flowx"));
+      panel.add(new JLabel(
+            "<html>Projects images along an axis during acquisition.</html>"),
+            "span, wrap");
+
+      panel.add(new JLabel("axis"));
+      axisBox_ = new JComboBox<>(new String[] {Coords.Z, Coords.T});
+      axisBox_.setSelectedItem(settings.getString(ZProjectorPlugin.AXISKEY, Coords.Z));
+      panel.add(axisBox_, "growx, wrap");
+
+      panel.add(new JLabel("method"));
+      methodBox_ = new JComboBox<>(ZProjectorPlugin.PROJECTION_METHODS);
+      methodBox_.setSelectedItem(settings.getString(
+            ZProjectorPlugin.PROJECTION_METHOD, "Max"));
+      panel.add(methodBox_, "growx, wrap");
+      super.add(panel);
+
+      super.setTitle(ZProjectorProcessorPlugin.MENU_NAME);
+      super.setIconImage(Toolkit.getDefaultToolkit().getImage(
+            getClass().getResource("/org/micromanager/icons/microscope.gif")));
+      super.setLocation(300, 300);
+      WindowPositioning.setUpLocationMemory(this, this.getClass(), null);
+   }
+
+   @Override
+   public void showGUI() {
+      pack();
+      setVisible(true);
+   }
+
+   @Override
+   public PropertyMap getSettings() {
+      return PropertyMaps.builder()
+            .putString(ZProjectorPlugin.AXISKEY, (String) axisBox_.getSelectedItem())
+            .putString(ZProjectorPlugin.PROJECTION_METHOD,
+                  (String) methodBox_.getSelectedItem())
+            .build();
+   }
+
+   @Override
+   public void cleanup() {
+      dispose();
+   }
+}
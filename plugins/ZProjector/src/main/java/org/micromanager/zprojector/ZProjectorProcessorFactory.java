@@ -0,0 +1,45 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ZProjectorProcessorFactory.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ZProjector plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.zprojector;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorFactory;
+
+/**
+ * Creates ZProjectorProcessors.
+ */
+public class ZProjectorProcessorFactory implements ProcessorFactory {
+   private final Studio studio_;
+   private final PropertyMap settings_;
+
+   public ZProjectorProcessorFactory(Studio studio, PropertyMap settings) {
+      studio_ = studio;
+      settings_ = settings;
+   }
+
+   @Override
+   public Processor createProcessor() {
+      return new ZProjectorProcessor(studio_,
+            settings_.getString(ZProjectorPlugin.AXISKEY, Coords.Z),
+            ZProjectorPlugin.getProjectionMethod(
+                  settings_.getString(ZProjectorPlugin.PROJECTION_METHOD, "Max")));
+   }
+}
@@ -0,0 +1,71 @@
+///////////////////////////////////////////////////////////////////////////////
+//FILE:          ZProjectorProcessorPlugin.java
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     ZProjector plugin
+//-----------------------------------------------------------------------------
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.zprojector;
+
+import org.micromanager.PropertyMap;
+import org.micromanager.Studio;
+import org.micromanager.data.ProcessorConfigurator;
+import org.micromanager.data.ProcessorFactory;
+import org.micromanager.data.ProcessorPlugin;
+import org.scijava.plugin.Plugin;
+import org.scijava.plugin.SciJavaPlugin;
+
+/**
+ * Makes the projection available as an on-the-fly pipeline processor.
+ */
+@Plugin(type = ProcessorPlugin.class)
+public class ZProjectorProcessorPlugin implements ProcessorPlugin, SciJavaPlugin {
+   public static final String MENU_NAME = "Projector";
+
+   private Studio studio_;
+
+   @Override
+   public void setContext(Studio studio) {
+      studio_ = studio;
+   }
+
+   @Override
+   public ProcessorConfigurator createConfigurator(PropertyMap settings) {
+      return new ZProjectorProcessorConfigurator(settings, studio_);
+   }
+
+   @Override
+   public ProcessorFactory createFactory(PropertyMap settings) {
+      return new ZProjectorProcessorFactory(studio_, settings);
+   }
+
+   @Override
+   public String getName() {
+      return MENU_NAME;
+   }
+
+   @Override
+   public String getHelpText() {
+      return "Projects images along the selected axis during acquisition";
+   }
+
+   @Override
+   public String getVersion() {
+      return "Version 0.1";
+   }
+
+   @Override
+   public String getCopyright() {
+      return "Regents of the University of California, 2019";
+   }
+}
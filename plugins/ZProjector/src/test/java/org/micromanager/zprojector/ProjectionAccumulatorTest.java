@@ -0,0 +1,88 @@
+package org.micromanager.zprojector;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.plugin.ZProjector;
+import ij.process.ByteProcessor;
+import ij.process.ShortProcessor;
+import java.util.Random;
+import org.junit.Test;
+
+public class ProjectionAccumulatorTest {
+   private static final int WIDTH = 64;
+   private static final int HEIGHT = 48;
+   private static final int[] METHODS = {ZProjector.AVG_METHOD,
+         ZProjector.MAX_METHOD, ZProjector.MIN_METHOD, ZProjector.SUM_METHOD,
+         ZProjector.SD_METHOD, ZProjector.MEDIAN_METHOD};
+
+   // What ZProjectorPluginExecutor used to do for every projection
+   private static Object imageJProjection(ImageStack stack, int method) {
+      ImagePlus tmp = new ImagePlus("tmp", stack);
+      ZProjector zp = new ZProjector(tmp);
+      zp.setMethod(method);
+      zp.doProjection();
+      ImagePlus projection = zp.getProjection();
+      if (projection.getBytesPerPixel() > 2) {
+         if (tmp.getBytesPerPixel() == 1) {
+            projection.setProcessor(projection.getProcessor().convertToByte(false));
+         } else if (tmp.getBytesPerPixel() == 2) {
+            projection.setProcessor(projection.getProcessor().convertToShort(false));
+         }
+      }
+      return projection.getProcessor().getPixels();
+   }
+
+   private static void compare(int bytesPerPixel, int numSlices, int maxValue) {
+      Random random = new Random(numSlices * 31 + bytesPerPixel);
+      int n = WIDTH * HEIGHT;
+      Object[] slices = new Object[numSlices];
+      ImageStack stack = new ImageStack(WIDTH, HEIGHT);
+      for (int s = 0; s < numSlices; ++s) {
+         if (bytesPerPixel == 1) {
+            byte[] pixels = new byte[n];
+            for (int i = 0; i < n; ++i) {
+               pixels[i] = (byte) random.nextInt(maxValue + 1);
+            }
+            slices[s] = pixels;
+            stack.addSlice(new ByteProcessor(WIDTH, HEIGHT, pixels));
+         } else {
+            short[] pixels = new short[n];
+            for (int i = 0; i < n; ++i) {
+               pixels[i] = (short) random.nextInt(maxValue + 1);
+            }
+            slices[s] = pixels;
+            stack.addSlice(new ShortProcessor(WIDTH, HEIGHT, pixels, null));
+         }
+      }
+      for (int method : METHODS) {
+         ProjectionAccumulator accumulator =
+               new ProjectionAccumulator(method, n, bytesPerPixel);
+         for (Object slice : slices) {
+            accumulator.add(slice);
+         }
+         String message = "method " + method + ", " + numSlices + " slices";
+         if (bytesPerPixel == 1) {
+            assertArrayEquals(message, (byte[]) imageJProjection(stack, method),
+                  (byte[]) accumulator.getResult());
+         } else {
+            assertArrayEquals(message, (short[]) imageJProjection(stack, method),
+                  (short[]) accumulator.getResult());
+         }
+      }
+   }
+
+   @Test
+   public void testShortMatchesImageJ() {
+      compare(2, 7, 4095);
+      compare(2, 10, 65535);
+      compare(2, 2, 100);
+   }
+
+   @Test
+   public void testByteMatchesImageJ() {
+      compare(1, 5, 255);
+      compare(1, 12, 255);
+   }
+}